@@ -0,0 +1,288 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.representation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import net.ivoa.xml.votable.v1.DataType;
+import net.ivoa.xml.votable.v1.Field;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelIterator;
+
+/**
+ * Compares the time to the first byte and the heap used by the VOTable
+ * rendering when the template is rendered in memory before being written, as
+ * {@link VOTableRepresentation} used to do, and when it is written directly
+ * in the output stream.
+ *
+ * <p>
+ * The rows are generated one by one as {@link DatabaseCursorModel} reads
+ * them, so the heap used by the streamed rendering must not depend on the
+ * number of rows. The output is discarded. The used heap is sampled every
+ * megabyte written and every 10000 rows. Options are given as
+ * <code>name=value</code> arguments, see {@link #DEFAULTS}.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class VOTableStreamingComparison {
+
+    /**
+     * Default options.
+     */
+    private static final Map<String, String> DEFAULTS = new HashMap<String, String>() {
+        {
+            // number of rows of the response
+            put("rows", "1000000");
+            // number of columns of the response
+            put("columns", "8");
+            // buffered, streamed or both
+            put("mode", "both");
+        }
+    };
+    /**
+     * Number of bytes between two samples of the heap.
+     */
+    private static final long SAMPLING_BYTES = 1L << 20;
+    /**
+     * Number of rows between two samples of the heap.
+     */
+    private static final int SAMPLING_ROWS = 10000;
+    /**
+     * One megabyte.
+     */
+    private static final double ONE_MB = 1024. * 1024.;
+    /**
+     * Options.
+     */
+    private final Map<String, String> options;
+    /**
+     * Largest used heap seen during the rendering.
+     */
+    private long peakHeap;
+
+    /**
+     * Creates a comparison.
+     * @param optionsVal options
+     */
+    private VOTableStreamingComparison(final Map<String, String> optionsVal) {
+        this.options = optionsVal;
+    }
+
+    /**
+     * Runs the comparison.
+     * @param args options as <code>name=value</code>
+     * @throws Exception when the template cannot be rendered
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<String, String>(DEFAULTS);
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", options are " + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new VOTableStreamingComparison(options).run();
+    }
+
+    /**
+     * Returns an integer option.
+     * @param name option name
+     * @return the option value
+     */
+    private int getInt(final String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    /**
+     * Renders the template in the selected modes and prints the report.
+     * @throws Exception when the template cannot be rendered
+     */
+    private void run() throws Exception {
+        final Configuration configuration = new Configuration();
+        configuration.setClassForTemplateLoading(VOTableRepresentation.class, "");
+        final Template template = configuration.getTemplate(VOTableRepresentation.DEFAULT_TEMPLATE);
+        final String mode = options.get("mode");
+        System.out.println(String.format(Locale.US, "%d rows, %d columns", getInt("rows"), getInt("columns")));
+        System.out.println(String.format(Locale.US, "%-10s %12s %12s %12s %14s", "mode", "TTFB (ms)", "total (ms)", "output (MB)", "peak heap (MB)"));
+        if ("buffered".equals(mode) || "both".equals(mode)) {
+            render(template, false);
+        }
+        if ("streamed".equals(mode) || "both".equals(mode)) {
+            render(template, true);
+        }
+    }
+
+    /**
+     * Renders the template and prints the measures.
+     * @param template VOTable template
+     * @param streamed true to write the template in the output stream, false to render it in memory first
+     * @throws Exception when the template cannot be rendered
+     */
+    private void render(final Template template, final boolean streamed) throws Exception {
+        System.gc();
+        peakHeap = 0;
+        final MeasuringOutputStream output = new MeasuringOutputStream();
+        final long start = System.nanoTime();
+        if (streamed) {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(output));
+            template.process(createDataModel(), writer);
+            writer.flush();
+        } else {
+            final StringWriter writer = new StringWriter();
+            template.process(createDataModel(), writer);
+            output.write(writer.toString().getBytes());
+            output.flush();
+        }
+        final long end = System.nanoTime();
+        System.out.println(String.format(Locale.US, "%-10s %12.1f %12.1f %12.1f %14.1f", streamed ? "streamed" : "buffered",
+                (output.firstByte - start) / 1E6, (end - start) / 1E6, output.nbBytes / ONE_MB, peakHeap / ONE_MB));
+    }
+
+    /**
+     * Creates the data model of a cone search response.
+     * @return the data model
+     */
+    private Map<String, Object> createDataModel() {
+        final int nbColumns = getInt("columns");
+        final List<Field> fields = new ArrayList<Field>();
+        final List<String> columns = new ArrayList<String>();
+        for (int i = 0; i < nbColumns; i++) {
+            final Field field = new Field();
+            field.setName("col" + i);
+            field.setDatatype((i == 0) ? DataType.LONG : DataType.DOUBLE);
+            fields.add(field);
+            columns.add("col" + i);
+        }
+        final Map<String, Object> dataModel = new HashMap<String, Object>();
+        dataModel.put("fields", fields);
+        dataModel.put("sqlColAlias", columns);
+        dataModel.put("rows", new SyntheticRows(getInt("rows"), nbColumns));
+        return dataModel;
+    }
+
+    /**
+     * Samples the used heap.
+     */
+    private void sampleHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Rows created when they are listed.
+     */
+    private final class SyntheticRows implements TemplateCollectionModel {
+
+        /**
+         * Number of rows.
+         */
+        private final int nbRows;
+        /**
+         * Number of columns.
+         */
+        private final int nbColumns;
+
+        /**
+         * Creates the rows.
+         * @param nbRowsVal number of rows
+         * @param nbColumnsVal number of columns
+         */
+        private SyntheticRows(final int nbRowsVal, final int nbColumnsVal) {
+            this.nbRows = nbRowsVal;
+            this.nbColumns = nbColumnsVal;
+        }
+
+        @Override
+        public TemplateModelIterator iterator() {
+            return new TemplateModelIterator() {
+                /**
+                 * Index of the next row.
+                 */
+                private int index;
+
+                @Override
+                public TemplateModel next() {
+                    if (index % SAMPLING_ROWS == 0) {
+                        sampleHeap();
+                    }
+                    final Map<String, Object> values = new HashMap<String, Object>();
+                    values.put("col0", Long.valueOf(index));
+                    for (int i = 1; i < nbColumns; i++) {
+                        values.put("col" + i, Double.valueOf(index * 1E-3 + i));
+                    }
+                    final DatabaseRequestModel.Row row = new DatabaseRequestModel.Row();
+                    row.setMap(values);
+                    index++;
+                    return row;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return index < nbRows;
+                }
+            };
+        }
+    }
+
+    /**
+     * Output stream discarding the bytes, recording the time of the first byte.
+     */
+    private final class MeasuringOutputStream extends OutputStream {
+
+        /**
+         * Time of the first byte in nanoseconds.
+         */
+        private long firstByte;
+        /**
+         * Number of bytes written.
+         */
+        private long nbBytes;
+
+        @Override
+        public void write(final int value) throws IOException {
+            write(new byte[]{(byte) value}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] buffer, final int offset, final int length) throws IOException {
+            if (nbBytes == 0 && length > 0) {
+                firstByte = System.nanoTime();
+            }
+            if ((nbBytes + length) / SAMPLING_BYTES != nbBytes / SAMPLING_BYTES) {
+                sampleHeap();
+            }
+            nbBytes += length;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.resolver;
+
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link LocalReverseNameResolver} under hover traffic: each
+ * call is a cone at a random position, with the radius used by the reverse
+ * name resolver service for a Healpix order.
+ *
+ * <p>The index is shared by the threads, as it is shared by the requests of the service.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class LocalReverseNameResolverBenchmark {
+
+  /**
+   * Number of objects of the catalogue, 9000 is the size of a bright star catalogue.
+   */
+  @Param({"9000", "100000", "1000000"})
+  private int nbObjects;
+  /**
+   * Radius of the cones in degrees, 0.5 is the maximal radius of the service.
+   */
+  @Param({"0.05", "0.5"})
+  private double radius;
+  /**
+   * Index.
+   */
+  private LocalReverseNameResolver resolver;
+
+  /**
+   * Builds a catalogue with objects uniformly distributed on the sky.
+   *
+   * @throws Exception Exception
+   */
+  @Setup
+  public void setUp() throws Exception {
+    final Random random = new Random(1);
+    final StringBuilder catalogue = new StringBuilder();
+    for (int i = 0; i < nbObjects; i++) {
+      catalogue.append("object ").append(i).append(';').append(360 * random.nextDouble()).append(';')
+              .append(Math.toDegrees(Math.asin(2 * random.nextDouble() - 1))).append(";10;Star\n");
+    }
+    resolver = new LocalReverseNameResolver(new StringReader(catalogue.toString()), "bench");
+  }
+
+  /**
+   * Finds the nearest object of a random cone.
+   *
+   * @return the object or null
+   */
+  private LocalReverseNameResolver.CatalogueObject hover() {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    return resolver.find(360 * random.nextDouble(), Math.toDegrees(Math.asin(2 * random.nextDouble() - 1)), radius);
+  }
+
+  /**
+   * One client.
+   *
+   * @return the object or null
+   */
+  @Benchmark
+  @Threads(1)
+  public LocalReverseNameResolver.CatalogueObject singleClient() {
+    return hover();
+  }
+
+  /**
+   * As many clients as processors.
+   *
+   * @return the object or null
+   */
+  @Benchmark
+  @Threads(Threads.MAX)
+  public LocalReverseNameResolver.CatalogueObject concurrentClients() {
+    return hover();
+  }
+}
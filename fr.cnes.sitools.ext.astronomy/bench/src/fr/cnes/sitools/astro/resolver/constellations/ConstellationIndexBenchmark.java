@@ -0,0 +1,158 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.resolver.constellations;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the lookups of a constellation by unmarshalling the database at
+ * each call, as ConstellationNameResolver used to do, and with
+ * {@link ConstellationIndex}.
+ *
+ * <p>The reverse lookup is compared with a scan of all the constellations.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ConstellationIndexBenchmark {
+
+  /**
+   * Number of random positions.
+   */
+  private static final int NB_POSITIONS = 1024;
+  /**
+   * Index.
+   */
+  private ConstellationIndex index;
+  /**
+   * JAXB context, created once as the cost to measure is the unmarshalling.
+   */
+  private JAXBContext jaxb;
+  /**
+   * Right ascensions of the positions in degrees.
+   */
+  private final double[] rightAscensions = new double[NB_POSITIONS];
+  /**
+   * Declinations of the positions in degrees.
+   */
+  private final double[] declinations = new double[NB_POSITIONS];
+  /**
+   * Next position.
+   */
+  private int position = 0;
+
+  /**
+   * Loads the index and draws the positions.
+   *
+   * @throws Exception Exception
+   */
+  @Setup
+  public void setUp() throws Exception {
+    index = ConstellationIndex.getInstance();
+    jaxb = JAXBContext.newInstance(Wrapper.class);
+    final Random random = new Random(1);
+    for (int i = 0; i < NB_POSITIONS; i++) {
+      rightAscensions[i] = 360 * random.nextDouble();
+      declinations[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+    }
+  }
+
+  /**
+   * Unmarshals the database, then finds the name.
+   *
+   * @return the coordinates
+   * @throws Exception Exception
+   */
+  @Benchmark
+  public Double[] unmarshalledLookup() throws Exception {
+    final InputStream input = Wrapper.class.getResourceAsStream("constellations.data");
+    try {
+      final Map<String, Double[]> database = ((Wrapper) jaxb.createUnmarshaller().unmarshal(input)).getHashMap();
+      return database.get("pégase");
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Finds the name in the index.
+   *
+   * @return the constellation
+   */
+  @Benchmark
+  public ConstellationIndex.Constellation indexedLookup() {
+    return index.getConstellation("Pégase");
+  }
+
+  /**
+   * Finds the constellation of a position by comparing all the constellations.
+   *
+   * @return the constellation
+   */
+  @Benchmark
+  public ConstellationIndex.Constellation scannedReverseLookup() {
+    position = (position + 1) % NB_POSITIONS;
+    final double ra = Math.toRadians(rightAscensions[position]);
+    final double dec = Math.toRadians(declinations[position]);
+    ConstellationIndex.Constellation nearest = null;
+    double maxCos = -2;
+    for (ConstellationIndex.Constellation constellation : index.getConstellations()) {
+      final double dec2 = Math.toRadians(constellation.getDeclination());
+      final double cos = Math.sin(dec) * Math.sin(dec2)
+              + Math.cos(dec) * Math.cos(dec2) * Math.cos(ra - Math.toRadians(constellation.getRightAscension()));
+      if (cos > maxCos) {
+        maxCos = cos;
+        nearest = constellation;
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * Finds the constellation of a position with the Healpix index.
+   *
+   * @return the constellation
+   */
+  @Benchmark
+  public ConstellationIndex.Constellation indexedReverseLookup() {
+    position = (position + 1) % NB_POSITIONS;
+    return index.findConstellation(rightAscensions[position], declinations[position]);
+  }
+}
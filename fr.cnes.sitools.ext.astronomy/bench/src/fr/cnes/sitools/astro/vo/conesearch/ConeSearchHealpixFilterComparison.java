@@ -0,0 +1,327 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.vo.conesearch;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import fr.cnes.sitools.searchgeometryengine.Cone;
+import fr.cnes.sitools.searchgeometryengine.CoordSystem;
+import fr.cnes.sitools.searchgeometryengine.HealpixRangeFilter;
+import fr.cnes.sitools.searchgeometryengine.Point;
+
+/**
+ * Compares the cone search predicate of {@link ConeSearchResponse} with and
+ * without the Healpix pre-filter on a synthetic table.
+ * <p>
+ * The table is filled with random sources uniformly distributed on the sky:
+ * x, y, z unit vector and NESTED Healpix index at the column order, with a
+ * B-tree index on z and on the Healpix column as a dataset would have. Each
+ * cone is counted with the declination band and the dot product only, then
+ * with the Healpix ranges put first. Both counts must be equal.
+ * </p>
+ * <p>
+ * The JDBC driver must be in the classpath, e.g. for PostgreSQL:
+ * <code>java -cp ...:postgresql.jar ConeSearchHealpixFilterComparison url=jdbc:postgresql://localhost/test user=test password=test</code>.
+ * Options are given as <code>name=value</code> arguments, see {@link #DEFAULTS}.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class ConeSearchHealpixFilterComparison {
+
+    /**
+     * Default options.
+     */
+    private static final Map<String, String> DEFAULTS = new HashMap<String, String>() {
+        {
+            // database
+            put("url", "jdbc:postgresql://localhost/sitools");
+            put("user", "sitools");
+            put("password", "");
+            put("table", "cone_search_healpix_bench");
+            // number of rows, the table is reused when it already has this number of rows
+            put("rows", "5000000");
+            // Healpix order of the index column
+            put("order", "13");
+            // radius of the cones in degrees
+            put("radius", "0.1,1,5");
+            // number of cones by radius
+            put("cones", "50");
+            // max number of ranges of the filter
+            put("maxRanges", String.valueOf(HealpixRangeFilter.DEFAULT_MAX_RANGES));
+            // seed of the rows and of the cones
+            put("seed", "1");
+        }
+    };
+    /**
+     * Number of rows by insert batch.
+     */
+    private static final int BATCH_SIZE = 10000;
+    /**
+     * Percentiles of the report.
+     */
+    private static final double[] PERCENTILES = {50, 95};
+    /**
+     * Options.
+     */
+    private final Map<String, String> options;
+
+    /**
+     * Creates the comparison.
+     * @param optionsVal options
+     */
+    private ConeSearchHealpixFilterComparison(final Map<String, String> optionsVal) {
+        this.options = optionsVal;
+    }
+
+    /**
+     * Runs the comparison.
+     * @param args options as name=value
+     * @throws Exception when the comparison cannot be run
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<String, String>(DEFAULTS);
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", options are " + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new ConeSearchHealpixFilterComparison(options).run();
+    }
+
+    /**
+     * Returns an integer option.
+     * @param name option name
+     * @return the option value
+     */
+    private int getInt(final String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    /**
+     * Fills the table if needed, then runs the cones and prints the report.
+     * @throws Exception when the comparison cannot be run
+     */
+    private void run() throws Exception {
+        final Connection connection = DriverManager.getConnection(options.get("url"), options.get("user"), options.get("password"));
+        try {
+            if (countRows(connection) != getInt("rows")) {
+                fillTable(connection);
+            }
+            final Random random = new Random(Long.parseLong(options.get("seed")));
+            System.out.println(String.format(Locale.US, "%-8s %-8s %10s %12s %12s %12s %12s", "radius", "ranges", "rows",
+                    "p50 plain", "p95 plain", "p50 healpix", "p95 healpix"));
+            for (String radius : options.get("radius").split(",")) {
+                runCones(connection, Double.parseDouble(radius.trim()), random);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the number of rows of the table or -1 when the table does not exist.
+     * @param connection connection
+     * @return the number of rows
+     */
+    private long countRows(final Connection connection) {
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                final ResultSet result = statement.executeQuery("SELECT count(*) FROM " + options.get("table"));
+                result.next();
+                return result.getLong(1);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Creates and fills the table with random sources, then creates the indexes.
+     * @param connection connection
+     * @throws Exception when the table cannot be filled
+     */
+    private void fillTable(final Connection connection) throws Exception {
+        final String table = options.get("table");
+        final int nbRows = getInt("rows");
+        final HealpixIndex index = new HealpixIndex(1 << getInt("order"), Scheme.NESTED);
+        final Random random = new Random(Long.parseLong(options.get("seed")));
+        final long start = System.nanoTime();
+        connection.setAutoCommit(false);
+        final Statement statement = connection.createStatement();
+        try {
+            statement.execute("DROP TABLE IF EXISTS " + table);
+            statement.execute("CREATE TABLE " + table
+                    + " (id integer, ra double precision, dec double precision, x double precision, y double precision,"
+                    + " z double precision, healpix bigint)");
+            final PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table + " VALUES (?, ?, ?, ?, ?, ?, ?)");
+            try {
+                for (int i = 0; i < nbRows; i++) {
+                    // uniform on the sphere
+                    final double z = 2 * random.nextDouble() - 1;
+                    final double phi = 2 * Math.PI * random.nextDouble();
+                    final double ra = Math.toDegrees(phi);
+                    final double dec = Math.toDegrees(Math.asin(z));
+                    final double cosDec = Math.sqrt(1 - z * z);
+                    insert.setInt(1, i);
+                    insert.setDouble(2, ra);
+                    insert.setDouble(3, dec);
+                    insert.setDouble(4, cosDec * Math.cos(phi));
+                    insert.setDouble(5, cosDec * Math.sin(phi));
+                    insert.setDouble(6, z);
+                    insert.setLong(7, index.ang2pix(new Point(ra, dec, CoordSystem.EQUATORIAL)));
+                    insert.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            } finally {
+                insert.close();
+            }
+            statement.execute("CREATE INDEX " + table + "_z ON " + table + " (z)");
+            statement.execute("CREATE INDEX " + table + "_healpix ON " + table + " (healpix)");
+            connection.commit();
+            connection.setAutoCommit(true);
+            statement.execute("ANALYZE " + table);
+        } finally {
+            statement.close();
+        }
+        System.out.println(String.format(Locale.US, "%d rows inserted in %.1f s", nbRows, (System.nanoTime() - start) / 1E9));
+    }
+
+    /**
+     * Counts the rows of random cones with and without the Healpix filter.
+     * @param connection connection
+     * @param radius radius of the cones in degrees
+     * @param random random generator of the centers
+     * @throws Exception when a query fails or when the counts differ
+     */
+    private void runCones(final Connection connection, final double radius, final Random random) throws Exception {
+        final int nbCones = getInt("cones");
+        final long[] plainTimes = new long[nbCones];
+        final long[] healpixTimes = new long[nbCones];
+        long nbRanges = 0;
+        long nbRows = 0;
+        for (int i = 0; i < nbCones; i++) {
+            final double ra = 360 * random.nextDouble();
+            final double dec = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            final String plain = conePredicate(ra, dec, radius);
+            final Cone cone = new Cone(new Point(ra, dec, CoordSystem.EQUATORIAL), Math.toRadians(radius));
+            final RangeSet ranges = HealpixRangeFilter.coverCone(cone, getInt("order"), getInt("maxRanges"));
+            final String healpix = (ranges == null) ? plain : HealpixRangeFilter.toSqlPredicate("healpix", ranges) + " AND " + plain;
+            nbRanges += (ranges == null) ? 0 : ranges.size();
+
+            // alternate the order to share the cache effects
+            final long[] plainResult;
+            final long[] healpixResult;
+            if (i % 2 == 0) {
+                plainResult = count(connection, plain);
+                healpixResult = count(connection, healpix);
+            } else {
+                healpixResult = count(connection, healpix);
+                plainResult = count(connection, plain);
+            }
+            if (plainResult[0] != healpixResult[0]) {
+                throw new IllegalStateException(String.format(Locale.US, "cone (%f, %f, %f): %d rows without filter, %d with filter",
+                        ra, dec, radius, plainResult[0], healpixResult[0]));
+            }
+            nbRows += plainResult[0];
+            plainTimes[i] = plainResult[1];
+            healpixTimes[i] = healpixResult[1];
+        }
+        Arrays.sort(plainTimes);
+        Arrays.sort(healpixTimes);
+        System.out.println(String.format(Locale.US, "%-8s %-8.1f %10.1f %10.2fms %10.2fms %10.2fms %10.2fms", radius,
+                (double) nbRanges / nbCones, (double) nbRows / nbCones, percentile(plainTimes, PERCENTILES[0]) / 1E6,
+                percentile(plainTimes, PERCENTILES[1]) / 1E6, percentile(healpixTimes, PERCENTILES[0]) / 1E6,
+                percentile(healpixTimes, PERCENTILES[1]) / 1E6));
+    }
+
+    /**
+     * Returns the predicate of {@link ConeSearchResponse} without the Healpix filter.
+     * @param ra right ascension in degrees
+     * @param dec declination in degrees
+     * @param radius radius in degrees
+     * @return the predicate
+     */
+    private static String conePredicate(final double ra, final double dec, final double radius) {
+        final double cosDec = Math.cos(Math.toRadians(dec));
+        final double x = cosDec * Math.cos(Math.toRadians(ra));
+        final double y = cosDec * Math.sin(Math.toRadians(ra));
+        final double z = Math.sin(Math.toRadians(dec));
+        final double zmin = (dec - radius <= -90) ? -1 : Math.sin(Math.toRadians(dec - radius));
+        final double zmax = (dec + radius >= 90) ? 1 : Math.sin(Math.toRadians(dec + radius));
+        return String.format("z <= %s AND z >= %s AND x*%s + y*%s + z*%s >= %s", String.valueOf(zmax), String.valueOf(zmin),
+                x, y, z, String.valueOf(Math.cos(Math.toRadians(radius))));
+    }
+
+    /**
+     * Counts the rows matching a predicate.
+     * @param connection connection
+     * @param predicate predicate
+     * @return the number of rows and the duration of the query in nanoseconds
+     * @throws SQLException when the query fails
+     */
+    private long[] count(final Connection connection, final String predicate) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            final long start = System.nanoTime();
+            final ResultSet result = statement.executeQuery("SELECT count(*) FROM " + options.get("table") + " WHERE " + predicate);
+            result.next();
+            final long nbRows = result.getLong(1);
+            return new long[]{nbRows, System.nanoTime() - start};
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Returns a percentile by the nearest-rank method.
+     * @param sorted sorted values
+     * @param percentile percentile between 0 and 100
+     * @return the percentile
+     */
+    private static long percentile(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,322 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.vo.sia;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.Scheme;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import fr.cnes.sitools.searchgeometryengine.CoordSystem;
+import fr.cnes.sitools.searchgeometryengine.Point;
+
+/**
+ * Compares the SIA intersection modes with and without the MOC pre-filter on a synthetic table.
+ * <p>
+ * The table is filled with random rectangular images: a spoly footprint from pgSphere and a
+ * bigint[] MOC of the NESTED pixels intersecting the footprint, with a GIN index. For each mode,
+ * random regions of interest are counted with the exact pgSphere test only, as done before the
+ * MOC column, then with the MOC term put first. Both counts must be equal.
+ * </p>
+ * <p>
+ * pgSphere must be installed in the database and the JDBC driver must be in the classpath, e.g.
+ * <code>java -cp ...:postgresql.jar SiaIntersectionComparison url=jdbc:postgresql://localhost/test user=test</code>.
+ * Options are given as <code>name=value</code> arguments, see {@link #DEFAULTS}.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class SiaIntersectionComparison {
+
+    /**
+     * Default options.
+     */
+    private static final Map<String, String> DEFAULTS = new HashMap<String, String>() {
+        {
+            // database
+            put("url", "jdbc:postgresql://localhost/sitools");
+            put("user", "sitools");
+            put("password", "");
+            put("table", "sia_intersection_bench");
+            // number of images, the table is reused when it already has this number of rows
+            put("rows", "1000000");
+            // max size of the images in degrees
+            put("imageSize", "1");
+            // Healpix order of the MOC column
+            put("order", "6");
+            // modes to compare
+            put("modes", "OVERLAPS,COVERS,ENCLOSED");
+            // size of the regions of interest in degrees
+            put("size", "0.5,2,10");
+            // number of regions by size and by mode
+            put("regions", "30");
+            // seed of the images and of the regions
+            put("seed", "1");
+        }
+    };
+    /**
+     * Number of rows by insert batch.
+     */
+    private static final int BATCH_SIZE = 5000;
+    /**
+     * Max declination of the image centers.
+     */
+    private static final double MAX_IMAGE_DEC = 85.0;
+    /**
+     * Percentiles of the report.
+     */
+    private static final double[] PERCENTILES = {50, 95};
+    /**
+     * Options.
+     */
+    private final Map<String, String> options;
+
+    /**
+     * Creates the comparison.
+     * @param optionsVal options
+     */
+    private SiaIntersectionComparison(final Map<String, String> optionsVal) {
+        this.options = optionsVal;
+    }
+
+    /**
+     * Runs the comparison.
+     * @param args options as name=value
+     * @throws Exception when the comparison cannot be run
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<String, String>(DEFAULTS);
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", options are " + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new SiaIntersectionComparison(options).run();
+    }
+
+    /**
+     * Returns an integer option.
+     * @param name option name
+     * @return the option value
+     */
+    private int getInt(final String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    /**
+     * Fills the table if needed, then runs the regions and prints the report.
+     * @throws Exception when the comparison cannot be run
+     */
+    private void run() throws Exception {
+        final Connection connection = DriverManager.getConnection(options.get("url"), options.get("user"), options.get("password"));
+        try {
+            if (countRows(connection) != getInt("rows")) {
+                fillTable(connection);
+            }
+            final Random random = new Random(Long.parseLong(options.get("seed")));
+            System.out.println(String.format(Locale.US, "%-9s %-6s %10s %12s %12s %12s %12s", "mode", "size", "images",
+                    "p50 scan", "p95 scan", "p50 moc", "p95 moc"));
+            for (String mode : options.get("modes").split(",")) {
+                for (String size : options.get("size").split(",")) {
+                    runRegions(connection, mode.trim(), Double.parseDouble(size.trim()), random);
+                }
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the number of rows of the table or -1 when the table does not exist.
+     * @param connection connection
+     * @return the number of rows
+     */
+    private long countRows(final Connection connection) {
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                final ResultSet result = statement.executeQuery("SELECT count(*) FROM " + options.get("table"));
+                result.next();
+                return result.getLong(1);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Creates and fills the table with random images, then creates the index of the MOC column.
+     * @param connection connection
+     * @throws Exception when the table cannot be filled
+     */
+    private void fillTable(final Connection connection) throws Exception {
+        final String table = options.get("table");
+        final int nbRows = getInt("rows");
+        final double imageSize = Double.parseDouble(options.get("imageSize"));
+        final HealpixIndex index = new HealpixIndex(1 << getInt("order"), Scheme.NESTED);
+        final Random random = new Random(Long.parseLong(options.get("seed")));
+        final long start = System.nanoTime();
+        connection.setAutoCommit(false);
+        final Statement statement = connection.createStatement();
+        try {
+            statement.execute("DROP TABLE IF EXISTS " + table);
+            statement.execute("CREATE TABLE " + table + " (id integer, footprint spoly, moc bigint[])");
+            final PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table + " VALUES (?, ?::spoly, ?)");
+            try {
+                for (int i = 0; i < nbRows; i++) {
+                    final double ra = 360 * random.nextDouble();
+                    final double dec = Math.toDegrees(Math.asin((2 * random.nextDouble() - 1) * Math.sin(Math.toRadians(MAX_IMAGE_DEC))));
+                    final double halfHeight = imageSize * (0.1 + 0.9 * random.nextDouble()) / 2;
+                    final double halfWidth = imageSize * (0.1 + 0.9 * random.nextDouble()) / 2 / Math.cos(Math.toRadians(dec));
+                    final Point[] vertices = {
+                        new Point((ra - halfWidth + 360) % 360, dec - halfHeight, CoordSystem.EQUATORIAL),
+                        new Point((ra + halfWidth) % 360, dec - halfHeight, CoordSystem.EQUATORIAL),
+                        new Point((ra + halfWidth) % 360, dec + halfHeight, CoordSystem.EQUATORIAL),
+                        new Point((ra - halfWidth + 360) % 360, dec + halfHeight, CoordSystem.EQUATORIAL)
+                    };
+                    final StringBuilder footprint = new StringBuilder("{");
+                    for (Point vertex : vertices) {
+                        footprint.append(String.format(Locale.US, "(%sd,%sd),", vertex.getLongitude(), vertex.getLatitude()));
+                    }
+                    footprint.setCharAt(footprint.length() - 1, '}');
+                    final long[] pixels = index.queryPolygonInclusive(vertices, 128).toArray();
+                    final Long[] moc = new Long[pixels.length];
+                    for (int j = 0; j < pixels.length; j++) {
+                        moc[j] = pixels[j];
+                    }
+                    insert.setInt(1, i);
+                    insert.setString(2, footprint.toString());
+                    insert.setArray(3, connection.createArrayOf("bigint", moc));
+                    insert.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            } finally {
+                insert.close();
+            }
+            statement.execute("CREATE INDEX " + table + "_moc ON " + table + " USING gin (moc)");
+            connection.commit();
+            connection.setAutoCommit(true);
+            statement.execute("ANALYZE " + table);
+        } finally {
+            statement.close();
+        }
+        System.out.println(String.format(Locale.US, "%d images inserted in %.1f s", nbRows, (System.nanoTime() - start) / 1E9));
+    }
+
+    /**
+     * Counts the images of random regions with and without the MOC term.
+     * @param connection connection
+     * @param mode intersection mode
+     * @param size size of the regions in degrees
+     * @param random random generator of the centers
+     * @throws Exception when a query fails or when the counts differ
+     */
+    private void runRegions(final Connection connection, final String mode, final double size, final Random random) throws Exception {
+        final int nbRegions = getInt("regions");
+        final long[] scanTimes = new long[nbRegions];
+        final long[] mocTimes = new long[nbRegions];
+        long nbImages = 0;
+        for (int i = 0; i < nbRegions; i++) {
+            final double ra = 360 * random.nextDouble();
+            final double dec = Math.toDegrees(Math.asin((2 * random.nextDouble() - 1) * Math.sin(Math.toRadians(MAX_IMAGE_DEC))));
+            final AbstractSqlGeometryConstraint scan = SqlGeometryFactory.create(mode);
+            scan.setRegionOfInterest(ra, dec, new double[]{size, size});
+            scan.setGeometry("footprint");
+            final AbstractSqlGeometryConstraint moc = SqlGeometryFactory.create(mode);
+            moc.setRegionOfInterest(ra, dec, new double[]{size, size});
+            moc.setGeometry("footprint");
+            moc.setHealpixIndex("moc", null, getInt("order"));
+
+            // alternate the order to share the cache effects
+            final long[] scanResult;
+            final long[] mocResult;
+            if (i % 2 == 0) {
+                scanResult = count(connection, scan.getSqlPredicat());
+                mocResult = count(connection, moc.getSqlPredicat());
+            } else {
+                mocResult = count(connection, moc.getSqlPredicat());
+                scanResult = count(connection, scan.getSqlPredicat());
+            }
+            if (scanResult[0] != mocResult[0]) {
+                throw new IllegalStateException(String.format(Locale.US, "%s (%f, %f, %f): %d images without MOC, %d with MOC",
+                        mode, ra, dec, size, scanResult[0], mocResult[0]));
+            }
+            nbImages += scanResult[0];
+            scanTimes[i] = scanResult[1];
+            mocTimes[i] = mocResult[1];
+        }
+        Arrays.sort(scanTimes);
+        Arrays.sort(mocTimes);
+        System.out.println(String.format(Locale.US, "%-9s %-6s %10.1f %10.2fms %10.2fms %10.2fms %10.2fms", mode, size,
+                (double) nbImages / nbRegions, percentile(scanTimes, PERCENTILES[0]) / 1E6, percentile(scanTimes, PERCENTILES[1]) / 1E6,
+                percentile(mocTimes, PERCENTILES[0]) / 1E6, percentile(mocTimes, PERCENTILES[1]) / 1E6));
+    }
+
+    /**
+     * Counts the images matching a predicat.
+     * @param connection connection
+     * @param predicat predicat starting with AND or null
+     * @return the number of images and the duration of the query in nanoseconds
+     * @throws SQLException when the query fails
+     */
+    private long[] count(final Connection connection, final String predicat) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            final long start = System.nanoTime();
+            final ResultSet result = statement.executeQuery("SELECT count(*) FROM " + options.get("table") + " WHERE 1 = 1"
+                    + ((predicat == null) ? "" : predicat));
+            result.next();
+            final long nbImages = result.getLong(1);
+            return new long[]{nbImages, System.nanoTime() - start};
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Returns a percentile by the nearest-rank method.
+     * @param sorted sorted values
+     * @param percentile percentile between 0 and 100
+     * @return the percentile
+     */
+    private static long percentile(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,381 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application.opensearch;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.restlet.Component;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.Form;
+import org.restlet.data.MediaType;
+import org.restlet.data.Protocol;
+import org.restlet.data.Status;
+
+/**
+ * In-process stand-in of a Cone Search and Simple Image Access service.
+ * <p>
+ * The server is bound to localhost and answers both protocols on the same
+ * path: a query with <code>RA</code>, <code>DEC</code> and <code>SR</code> is
+ * a cone search, a query with <code>POS</code> and <code>SIZE</code> is a
+ * SIA query. Each response is a synthetic VOTable whose records are spread
+ * in the queried area. The records only depend on the query, so that the same
+ * query always returns the same VOTable.
+ * </p>
+ * <p>
+ * The number of records, the latency and the error rate can be changed while
+ * the server is running.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class LocalVOServer {
+
+    /**
+     * Path of the service.
+     */
+    public static final String SERVICE_PATH = "/vo";
+    /**
+     * Default number of records in a response.
+     */
+    public static final int DEFAULT_NB_RECORDS = 100;
+    /**
+     * Width and height in pixels of the synthetic images.
+     */
+    private static final int IMAGE_SIZE = 512;
+    /**
+     * Restlet component.
+     */
+    private final Component component;
+    /**
+     * Listening port.
+     */
+    private final int port;
+    /**
+     * Number of records in a response.
+     */
+    private volatile int nbRecords = DEFAULT_NB_RECORDS;
+    /**
+     * Minimum latency of a response in milliseconds.
+     */
+    private volatile long latencyMillisec = 0;
+    /**
+     * Random latency in milliseconds added to the minimum latency.
+     */
+    private volatile long jitterMillisec = 0;
+    /**
+     * Probability that a query fails with an internal server error.
+     */
+    private volatile double errorRate = 0;
+    /**
+     * Random generator of the latency and of the errors.
+     */
+    private final Random random = new Random();
+    /**
+     * Number of cone search queries.
+     */
+    private final AtomicLong nbConeSearchQueries = new AtomicLong();
+    /**
+     * Number of SIA queries.
+     */
+    private final AtomicLong nbSiaQueries = new AtomicLong();
+    /**
+     * Number of failed queries.
+     */
+    private final AtomicLong nbErrors = new AtomicLong();
+
+    /**
+     * Creates the stand-in.
+     * @param portVal listening port
+     */
+    public LocalVOServer(final int portVal) {
+        this.port = portVal;
+        this.component = new Component();
+        this.component.getServers().add(Protocol.HTTP, "localhost", portVal);
+        this.component.getDefaultHost().attach(SERVICE_PATH, new VORestlet());
+    }
+
+    /**
+     * Starts the server.
+     * @throws Exception when the server cannot be started
+     */
+    public final void start() throws Exception {
+        this.component.start();
+    }
+
+    /**
+     * Stops the server.
+     * @throws Exception when the server cannot be stopped
+     */
+    public final void stop() throws Exception {
+        this.component.stop();
+    }
+
+    /**
+     * Returns the URL of the service as expected by the VO clients, the query
+     * parameters are appended to it.
+     * @return the URL of the service
+     */
+    public final String getServiceUrl() {
+        return "http://localhost:" + port + SERVICE_PATH + "?";
+    }
+
+    /**
+     * Sets the number of records in a response.
+     * @param nbRecordsVal number of records
+     */
+    public final void setNbRecords(final int nbRecordsVal) {
+        this.nbRecords = nbRecordsVal;
+    }
+
+    /**
+     * Sets the latency of the responses.
+     * @param latencyMillisecVal minimum latency in milliseconds
+     * @param jitterMillisecVal random latency in milliseconds added to the minimum one
+     */
+    public final void setLatency(final long latencyMillisecVal, final long jitterMillisecVal) {
+        this.latencyMillisec = latencyMillisecVal;
+        this.jitterMillisec = jitterMillisecVal;
+    }
+
+    /**
+     * Sets the probability that a query fails with an internal server error.
+     * @param errorRateVal probability between 0 and 1
+     */
+    public final void setErrorRate(final double errorRateVal) {
+        if (errorRateVal < 0 || errorRateVal > 1) {
+            throw new IllegalArgumentException("errorRate must be between 0 and 1");
+        }
+        this.errorRate = errorRateVal;
+    }
+
+    /**
+     * Returns the number of cone search queries received since the start.
+     * @return the number of cone search queries
+     */
+    public final long getNbConeSearchQueries() {
+        return nbConeSearchQueries.get();
+    }
+
+    /**
+     * Returns the number of SIA queries received since the start.
+     * @return the number of SIA queries
+     */
+    public final long getNbSiaQueries() {
+        return nbSiaQueries.get();
+    }
+
+    /**
+     * Returns the number of queries that failed on purpose since the start.
+     * @return the number of failed queries
+     */
+    public final long getNbErrors() {
+        return nbErrors.get();
+    }
+
+    /**
+     * Builds a cone search VOTable.
+     * @param rightAscension right ascension of the cone in degree
+     * @param declination declination of the cone in degree
+     * @param radius radius of the cone in degree
+     * @return the VOTable
+     */
+    protected final String coneSearchVotable(final double rightAscension, final double declination, final double radius) {
+        final Random records = new Random(seed(rightAscension, declination, radius));
+        final StringBuilder votable = startVotable();
+        votable.append("<FIELD name=\"id\" ucd=\"ID_MAIN\" datatype=\"char\" arraysize=\"*\"/>")
+               .append("<FIELD name=\"ra\" ucd=\"POS_EQ_RA_MAIN\" datatype=\"double\" unit=\"deg\"/>")
+               .append("<FIELD name=\"dec\" ucd=\"POS_EQ_DEC_MAIN\" datatype=\"double\" unit=\"deg\"/>")
+               .append("<FIELD name=\"mag\" ucd=\"PHOT_MAG_V\" datatype=\"double\" unit=\"mag\"/>")
+               .append("<DATA><TABLEDATA>");
+        final int nb = nbRecords;
+        for (int i = 0; i < nb; i++) {
+            final double[] position = randomPosition(records, rightAscension, declination, radius);
+            votable.append("<TR><TD>").append(String.format(Locale.US, "J%.6f%+.6f", position[0], position[1])).append("</TD>")
+                   .append("<TD>").append(position[0]).append("</TD>")
+                   .append("<TD>").append(position[1]).append("</TD>")
+                   .append("<TD>").append(String.format(Locale.US, "%.2f", 8 + 12 * records.nextDouble())).append("</TD></TR>");
+        }
+        return endVotable(votable);
+    }
+
+    /**
+     * Builds a SIA VOTable.
+     * <p>
+     * Each image is a TAN projection whose field of view is a tenth of the
+     * queried area.
+     * </p>
+     * @param rightAscension right ascension of the area in degree
+     * @param declination declination of the area in degree
+     * @param size size of the area in degree
+     * @return the VOTable
+     */
+    protected final String siaVotable(final double rightAscension, final double declination, final double size) {
+        final Random records = new Random(seed(rightAscension, declination, size));
+        final double scale = size / 10 / IMAGE_SIZE;
+        final StringBuilder votable = startVotable();
+        votable.append("<FIELD name=\"title\" ucd=\"VOX:Image_Title\" datatype=\"char\" arraysize=\"*\"/>")
+               .append("<FIELD name=\"ra\" ucd=\"POS_EQ_RA_MAIN\" datatype=\"double\" unit=\"deg\"/>")
+               .append("<FIELD name=\"dec\" ucd=\"POS_EQ_DEC_MAIN\" datatype=\"double\" unit=\"deg\"/>")
+               .append("<FIELD name=\"naxis\" ucd=\"VOX:Image_Naxis\" datatype=\"int\" arraysize=\"2\"/>")
+               .append("<FIELD name=\"scale\" ucd=\"VOX:Image_Scale\" datatype=\"double\" arraysize=\"2\"/>")
+               .append("<FIELD name=\"format\" ucd=\"VOX:Image_Format\" datatype=\"char\" arraysize=\"*\"/>")
+               .append("<FIELD name=\"mjd\" ucd=\"VOX:Image_MJDateObs\" datatype=\"double\"/>")
+               .append("<FIELD name=\"frame\" ucd=\"VOX:STC_CoordRefFrame\" datatype=\"char\" arraysize=\"*\"/>")
+               .append("<FIELD name=\"equinox\" ucd=\"VOX:STC_CoordEquinox\" datatype=\"double\"/>")
+               .append("<FIELD name=\"projection\" ucd=\"VOX:WCS_CoordProjection\" datatype=\"char\" arraysize=\"3\"/>")
+               .append("<FIELD name=\"crpix\" ucd=\"VOX:WCS_CoordRefPixel\" datatype=\"double\" arraysize=\"2\"/>")
+               .append("<FIELD name=\"crval\" ucd=\"VOX:WCS_CoordRefValue\" datatype=\"double\" arraysize=\"2\"/>")
+               .append("<FIELD name=\"cd\" ucd=\"VOX:WCS_CDMatrix\" datatype=\"double\" arraysize=\"4\"/>")
+               .append("<FIELD name=\"url\" ucd=\"VOX:Image_AccessReference\" datatype=\"char\" arraysize=\"*\"/>")
+               .append("<DATA><TABLEDATA>");
+        final int nb = nbRecords;
+        for (int i = 0; i < nb; i++) {
+            final double[] position = randomPosition(records, rightAscension, declination, size / 2);
+            final String title = String.format(Locale.US, "image_%.6f%+.6f", position[0], position[1]);
+            votable.append("<TR><TD>").append(title).append("</TD>")
+                   .append("<TD>").append(position[0]).append("</TD>")
+                   .append("<TD>").append(position[1]).append("</TD>")
+                   .append("<TD>").append(IMAGE_SIZE).append(' ').append(IMAGE_SIZE).append("</TD>")
+                   .append("<TD>").append(scale).append(' ').append(scale).append("</TD>")
+                   .append("<TD>image/fits</TD>")
+                   .append("<TD>").append(String.format(Locale.US, "%.5f", 50000 + 10000 * records.nextDouble())).append("</TD>")
+                   .append("<TD>ICRS</TD><TD>2000</TD><TD>TAN</TD>")
+                   .append("<TD>").append(IMAGE_SIZE / 2 + 0.5).append(' ').append(IMAGE_SIZE / 2 + 0.5).append("</TD>")
+                   .append("<TD>").append(position[0]).append(' ').append(position[1]).append("</TD>")
+                   .append("<TD>").append(-scale).append(" 0 0 ").append(scale).append("</TD>")
+                   .append("<TD>http://localhost:").append(port).append(SERVICE_PATH).append('/').append(title).append(".fits</TD></TR>");
+        }
+        return endVotable(votable);
+    }
+
+    /**
+     * Returns the seed of the records of a query.
+     * @param longitude longitude of the query
+     * @param latitude latitude of the query
+     * @param extent radius or size of the query
+     * @return the seed
+     */
+    private static long seed(final double longitude, final double latitude, final double extent) {
+        long seed = Double.doubleToLongBits(longitude);
+        seed = 31 * seed + Double.doubleToLongBits(latitude);
+        return 31 * seed + Double.doubleToLongBits(extent);
+    }
+
+    /**
+     * Returns a random position, uniformly distributed in a cone.
+     * @param records random generator
+     * @param rightAscension right ascension of the cone in degree
+     * @param declination declination of the cone in degree
+     * @param radius radius of the cone in degree
+     * @return right ascension and declination in degree
+     */
+    private static double[] randomPosition(final Random records, final double rightAscension, final double declination, final double radius) {
+        final double cosRadius = Math.cos(Math.toRadians(Math.min(radius, 180)));
+        final double distance = Math.acos(1 - records.nextDouble() * (1 - cosRadius));
+        final double bearing = 2 * Math.PI * records.nextDouble();
+        final double dec0 = Math.toRadians(declination);
+        final double sinDec = Math.sin(dec0) * Math.cos(distance) + Math.cos(dec0) * Math.sin(distance) * Math.cos(bearing);
+        final double dec = Math.asin(Math.max(-1, Math.min(1, sinDec)));
+        final double deltaRa = Math.atan2(Math.sin(bearing) * Math.sin(distance) * Math.cos(dec0), Math.cos(distance) - Math.sin(dec0) * sinDec);
+        final double ra = (rightAscension + Math.toDegrees(deltaRa) + 360) % 360;
+        return new double[]{ra, Math.toDegrees(dec)};
+    }
+
+    /**
+     * Starts a VOTable up to the FIELD elements.
+     * @return the VOTable
+     */
+    private static StringBuilder startVotable() {
+        final StringBuilder votable = new StringBuilder();
+        votable.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+               .append("<VOTABLE version=\"1.2\" xmlns=\"http://www.ivoa.net/xml/VOTable/v1.2\">")
+               .append("<RESOURCE type=\"results\"><INFO name=\"QUERY_STATUS\" value=\"OK\"/><TABLE>");
+        return votable;
+    }
+
+    /**
+     * Ends a VOTable.
+     * @param votable VOTable started by {@link #startVotable()}
+     * @return the VOTable
+     */
+    private static String endVotable(final StringBuilder votable) {
+        return votable.append("</TABLEDATA></DATA></TABLE></RESOURCE></VOTABLE>").toString();
+    }
+
+    /**
+     * Waits for the latency of a response.
+     */
+    private void waitLatency() {
+        final long jitter = jitterMillisec;
+        final long latency = latencyMillisec + ((jitter > 0) ? (long) (random.nextDouble() * jitter) : 0);
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Handles the VO queries.
+     */
+    private class VORestlet extends Restlet {
+
+        @Override
+        public void handle(final Request request, final Response response) {
+            final Form query = request.getResourceRef().getQueryAsForm();
+            final boolean isConeSearch = query.getFirstValue("RA") != null;
+            final boolean isSia = query.getFirstValue("POS") != null;
+            if (isConeSearch) {
+                nbConeSearchQueries.incrementAndGet();
+            } else if (isSia) {
+                nbSiaQueries.incrementAndGet();
+            } else {
+                response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "RA,DEC,SR or POS,SIZE are required");
+                return;
+            }
+            waitLatency();
+            if (random.nextDouble() < errorRate) {
+                nbErrors.incrementAndGet();
+                response.setStatus(Status.SERVER_ERROR_INTERNAL, "Error injected by the stand-in");
+                return;
+            }
+            try {
+                final String votable;
+                if (isConeSearch) {
+                    votable = coneSearchVotable(Double.parseDouble(query.getFirstValue("RA")),
+                                                Double.parseDouble(query.getFirstValue("DEC")),
+                                                Double.parseDouble(query.getFirstValue("SR")));
+                } else {
+                    final String[] position = query.getFirstValue("POS").split(",");
+                    votable = siaVotable(Double.parseDouble(position[0]), Double.parseDouble(position[1]),
+                                         Double.parseDouble(query.getFirstValue("SIZE").split(",")[0]));
+                }
+                response.setEntity(votable, MediaType.TEXT_XML);
+            } catch (RuntimeException ex) {
+                response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST, ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,465 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application.opensearch;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.HealpixBase;
+import healpix.essentials.Pointing;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.ivoa.xml.votable.v1.Field;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+
+import fr.cnes.sitools.extensions.astro.application.OpenSearchVOApplicationPlugin;
+import fr.cnes.sitools.extensions.astro.application.opensearch.processing.DictionaryDecorator;
+import fr.cnes.sitools.extensions.astro.application.opensearch.processing.PutInCacheIfNotDecorator;
+import fr.cnes.sitools.extensions.astro.application.opensearch.processing.VORequest;
+import fr.cnes.sitools.extensions.astro.application.opensearch.processing.VORequestInterface;
+import fr.cnes.sitools.extensions.cache.SingletonCacheHealpixDataAccess;
+import fr.cnes.sitools.extensions.common.AstroCoordinate;
+import fr.cnes.sitools.extensions.common.VoDictionary;
+
+/**
+ * Load generator of the OpenSearch VO proxy.
+ * <p>
+ * Virtual users browse the sky as a globe does: they look at a region,
+ * request every Healpix tile of the view, then pan, zoom or jump to another
+ * region. Most sessions start on a few popular targets so that the tiles are
+ * shared between users as in production. Each tile goes through the same
+ * chain as {@link OpenSearchVOSearch}: Ehcache, cone search or SIA, cache
+ * filling and dictionary. The upstream service is a {@link LocalVOServer}.
+ * </p>
+ * <p>
+ * The report gives the latency percentiles of the tile requests, the cache
+ * hit rate and the number of upstream calls. Options are given as
+ * <code>name=value</code> arguments, see {@link #DEFAULTS}.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class TileLoadGenerator {
+
+    /**
+     * Default options.
+     */
+    private static final Map<String, String> DEFAULTS = new HashMap<String, String>() {
+        {
+            // number of virtual users
+            put("users", "16");
+            // duration of the measure in seconds
+            put("duration", "60");
+            // pause in milliseconds between two views of a user
+            put("thinkTime", "0");
+            // Healpix orders browsed by the users
+            put("minOrder", "3");
+            put("maxOrder", "8");
+            // CONE_SEARCH_PROTOCOL, SIMPLE_IMAGE_ACCESS_PROTOCOL or DETECT_AUTOMATICALLY
+            put("protocol", "CONE_SEARCH_PROTOCOL");
+            // EQUATORIAL or GALACTIC
+            put("coordSystem", "EQUATORIAL");
+            // VOservices cache when true, VOservices#solarBodies otherwise
+            put("cacheable", "true");
+            // stand-in settings
+            put("port", "8183");
+            put("records", String.valueOf(LocalVOServer.DEFAULT_NB_RECORDS));
+            put("latency", "50");
+            put("jitter", "50");
+            put("errorRate", "0.01");
+            // seed of the sessions
+            put("seed", "1");
+            // JSON file where the report is also written
+            put("report", "");
+        }
+    };
+    /**
+     * Popular targets (right ascension, declination) where most sessions start.
+     */
+    private static final double[][] POPULAR_TARGETS = {
+        {10.6847, 41.2687},     // M31
+        {83.8221, -5.3911},     // M42
+        {80.8938, -69.7561},    // LMC
+        {266.4168, -29.0078},   // Galactic center
+        {187.7059, 12.3911},    // M87
+        {201.3651, -43.0191}    // Centaurus A
+    };
+    /**
+     * Probability that a session starts on a popular target.
+     */
+    private static final double POPULAR_PROBABILITY = 0.7;
+    /**
+     * Probability to pan, to zoom in and to zoom out, the remaining is a jump.
+     */
+    private static final double[] MOVES = {0.6, 0.15, 0.15};
+    /**
+     * Radius of the view in number of pixels at the current order.
+     */
+    private static final double VIEW_RADIUS_IN_PIXELS = 2.5;
+    /**
+     * One degree in arcsec.
+     */
+    private static final double ONE_DEG_IN_ARCSEC = 3600.;
+    /**
+     * Percentiles of the report.
+     */
+    private static final double[] PERCENTILES = {50, 95, 99};
+
+    /**
+     * Options.
+     */
+    private final Map<String, String> options;
+    /**
+     * Upstream stand-in.
+     */
+    private final LocalVOServer server;
+    /**
+     * Dictionary filled by the chain, shared by the users as in the application.
+     */
+    private final Map<String, VoDictionary> dico = new ConcurrentHashMap<String, VoDictionary>();
+    /**
+     * Number of tile requests without response.
+     */
+    private final AtomicLong nbFailures = new AtomicLong();
+
+    /**
+     * Creates a load generator.
+     * @param optionsVal options
+     */
+    private TileLoadGenerator(final Map<String, String> optionsVal) {
+        this.options = optionsVal;
+        this.server = new LocalVOServer(getInt("port"));
+        this.server.setNbRecords(getInt("records"));
+        this.server.setLatency(getInt("latency"), getInt("jitter"));
+        this.server.setErrorRate(Double.parseDouble(options.get("errorRate")));
+    }
+
+    /**
+     * Runs the load test.
+     * @param args options as <code>name=value</code>
+     * @throws Exception when the load test cannot be run
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<String, String>(DEFAULTS);
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", options are " + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new TileLoadGenerator(options).run();
+    }
+
+    /**
+     * Returns an integer option.
+     * @param name option name
+     * @return the option value
+     */
+    private int getInt(final String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    /**
+     * Starts the stand-in, runs the users and prints the report.
+     * @throws Exception when the load test cannot be run
+     */
+    private void run() throws Exception {
+        final SingletonCacheHealpixDataAccess.CacheStrategy cacheStrategy = Boolean.parseBoolean(options.get("cacheable"))
+                ? SingletonCacheHealpixDataAccess.CacheStrategy.CACHE_ENABLE_DEEP_OBJECT
+                : SingletonCacheHealpixDataAccess.CacheStrategy.CACHE_ENABLE_SOLAR_OBJECT;
+        final Cache cache = createCache(cacheStrategy);
+        final long hitsAtStart = cache.getStatistics().cacheHitCount();
+        server.start();
+        try {
+            final int nbUsers = getInt("users");
+            final long end = System.currentTimeMillis() + getInt("duration") * 1000L;
+            final ExecutorService executor = Executors.newFixedThreadPool(nbUsers);
+            final List<Future<long[]>> users = new ArrayList<Future<long[]>>();
+            final long start = System.nanoTime();
+            for (int i = 0; i < nbUsers; i++) {
+                users.add(executor.submit(new VirtualUser(Long.parseLong(options.get("seed")) + i, end, cacheStrategy)));
+            }
+            final List<long[]> latencies = new ArrayList<long[]>();
+            for (Future<long[]> user : users) {
+                latencies.add(user.get());
+            }
+            final double elapsed = (System.nanoTime() - start) / 1E9;
+            executor.shutdown();
+            report(merge(latencies), elapsed, cache.getStatistics().cacheHitCount() - hitsAtStart);
+        } finally {
+            server.stop();
+            CacheManager.getInstance().shutdown();
+        }
+    }
+
+    /**
+     * Creates the cache manager from the configuration of the application and
+     * empties the cache used by the chain.
+     * @param cacheStrategy cache strategy
+     * @return the cache
+     * @throws IOException when the configuration cannot be read
+     */
+    private static Cache createCache(final SingletonCacheHealpixDataAccess.CacheStrategy cacheStrategy) throws IOException {
+        final InputStream conf = SingletonCacheHealpixDataAccess.class.getResourceAsStream("ehcache.xml");
+        try {
+            CacheManager.create(conf);
+        } finally {
+            conf.close();
+        }
+        final Cache cache = SingletonCacheHealpixDataAccess.getCache(SingletonCacheHealpixDataAccess.getInstance(), cacheStrategy);
+        cache.removeAll();
+        return cache;
+    }
+
+    /**
+     * Merges and sorts the latencies of the users.
+     * @param latencies latencies in nanoseconds of each user
+     * @return the sorted latencies
+     */
+    private static long[] merge(final List<long[]> latencies) {
+        int size = 0;
+        for (long[] userLatencies : latencies) {
+            size += userLatencies.length;
+        }
+        final long[] result = new long[size];
+        int pos = 0;
+        for (long[] userLatencies : latencies) {
+            System.arraycopy(userLatencies, 0, result, pos, userLatencies.length);
+            pos += userLatencies.length;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns a percentile by the nearest-rank method.
+     * @param sorted sorted values
+     * @param percentile percentile between 0 and 100
+     * @return the percentile
+     */
+    private static long percentile(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Prints the report and writes it in JSON when the report option is set.
+     * @param latencies sorted latencies in nanoseconds
+     * @param elapsed duration of the test in seconds
+     * @param nbHits number of tiles served by the cache
+     * @throws IOException when the report cannot be written
+     */
+    private void report(final long[] latencies, final double elapsed, final long nbHits) throws IOException {
+        final long nbRequests = latencies.length;
+        final Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("users", getInt("users"));
+        report.put("protocol", options.get("protocol"));
+        report.put("durationSeconds", elapsed);
+        report.put("tileRequests", nbRequests);
+        report.put("throughput", nbRequests / elapsed);
+        report.put("failedTileRequests", nbFailures.get());
+        for (double percentile : PERCENTILES) {
+            report.put(String.format(Locale.US, "p%.0fMillisec", percentile), percentile(latencies, percentile) / 1E6);
+        }
+        report.put("maxMillisec", (nbRequests == 0) ? 0 : latencies[latencies.length - 1] / 1E6);
+        report.put("cacheHits", nbHits);
+        report.put("cacheHitRate", (nbRequests == 0) ? 0 : (double) nbHits / nbRequests);
+        report.put("upstreamConeSearchCalls", server.getNbConeSearchQueries());
+        report.put("upstreamSiaCalls", server.getNbSiaQueries());
+        report.put("upstreamErrors", server.getNbErrors());
+
+        final StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry : report.entrySet()) {
+            System.out.println(String.format(Locale.US, "%-26s %s", entry.getKey(), entry.getValue()));
+            json.append((json.length() == 1) ? "" : ",").append("\n  \"").append(entry.getKey()).append("\": ");
+            json.append((entry.getValue() instanceof String) ? "\"" + entry.getValue() + "\"" : entry.getValue());
+        }
+        json.append("\n}\n");
+        final String file = options.get("report");
+        if (!file.isEmpty()) {
+            final Writer writer = new FileWriter(file);
+            try {
+                writer.write(json.toString());
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * A user browsing the sky.
+     */
+    private class VirtualUser implements Callable<long[]> {
+
+        /**
+         * Random generator of the session.
+         */
+        private final Random random;
+        /**
+         * End of the test in milliseconds.
+         */
+        private final long end;
+        /**
+         * Cache strategy.
+         */
+        private final SingletonCacheHealpixDataAccess.CacheStrategy cacheStrategy;
+        /**
+         * Latencies in nanoseconds of the tile requests.
+         */
+        private long[] latencies = new long[1024];
+        /**
+         * Number of latencies.
+         */
+        private int nbLatencies = 0;
+
+        /**
+         * Creates a user.
+         * @param seed seed of the session
+         * @param endVal end of the test in milliseconds
+         * @param cacheStrategyVal cache strategy
+         */
+        VirtualUser(final long seed, final long endVal, final SingletonCacheHealpixDataAccess.CacheStrategy cacheStrategyVal) {
+            this.random = new Random(seed);
+            this.end = endVal;
+            this.cacheStrategy = cacheStrategyVal;
+        }
+
+        @Override
+        public long[] call() throws Exception {
+            final int minOrder = getInt("minOrder");
+            final int maxOrder = getInt("maxOrder");
+            final long thinkTime = getInt("thinkTime");
+            double[] center = startPosition();
+            int order = minOrder + random.nextInt(maxOrder - minOrder + 1);
+            while (System.currentTimeMillis() < end) {
+                final double viewRadius = Math.toRadians(VIEW_RADIUS_IN_PIXELS * HealpixIndex.getPixRes(1L << order) / ONE_DEG_IN_ARCSEC);
+                for (long tile : viewTiles(center, viewRadius, order)) {
+                    if (System.currentTimeMillis() >= end) {
+                        break;
+                    }
+                    requestTile(order, tile);
+                }
+                if (thinkTime > 0) {
+                    Thread.sleep(thinkTime);
+                }
+                final double move = random.nextDouble();
+                if (move < MOVES[0]) {
+                    center = pan(center, viewRadius);
+                } else if (move < MOVES[0] + MOVES[1]) {
+                    order = Math.min(maxOrder, order + 1);
+                } else if (move < MOVES[0] + MOVES[1] + MOVES[2]) {
+                    order = Math.max(minOrder, order - 1);
+                } else {
+                    center = startPosition();
+                }
+            }
+            return Arrays.copyOf(latencies, nbLatencies);
+        }
+
+        /**
+         * Returns the start position of a session, in degree.
+         * @return the right ascension and the declination
+         */
+        private double[] startPosition() {
+            final double[] position;
+            if (random.nextDouble() < POPULAR_PROBABILITY) {
+                position = POPULAR_TARGETS[random.nextInt(POPULAR_TARGETS.length)].clone();
+            } else {
+                position = new double[]{360 * random.nextDouble(), Math.toDegrees(Math.asin(2 * random.nextDouble() - 1))};
+            }
+            return position;
+        }
+
+        /**
+         * Moves the view by half its size in a random direction.
+         * @param center center of the view in degree
+         * @param viewRadius radius of the view in radians
+         * @return the new center
+         */
+        private double[] pan(final double[] center, final double viewRadius) {
+            final double bearing = 2 * Math.PI * random.nextDouble();
+            final double declination = Math.max(-90, Math.min(90, center[1] + Math.toDegrees(viewRadius / 2 * Math.cos(bearing))));
+            final double cosDec = Math.max(Math.cos(Math.toRadians(declination)), 1E-3);
+            final double rightAscension = (center[0] + Math.toDegrees(viewRadius / 2 * Math.sin(bearing)) / cosDec + 360) % 360;
+            return new double[]{rightAscension, declination};
+        }
+
+        /**
+         * Returns the NESTED tiles of a view.
+         * @param center center of the view in degree
+         * @param viewRadius radius of the view in radians
+         * @param order Healpix order
+         * @return the tiles
+         * @throws Exception Healpix Exception
+         */
+        private long[] viewTiles(final double[] center, final double viewRadius, final int order) throws Exception {
+            final HealpixBase healpix = new HealpixBase(1L << order, Scheme.NESTED);
+            final Pointing pointing = new Pointing(Math.PI / 2 - Math.toRadians(center[1]), Math.toRadians(center[0]));
+            final RangeSet tiles = healpix.queryDiscInclusive(pointing, viewRadius, 4);
+            return tiles.toArray();
+        }
+
+        /**
+         * Requests a tile through the chain of the application and records its latency.
+         * @param order Healpix order
+         * @param tile Healpix pixel
+         */
+        private void requestTile(final int order, final long tile) {
+            final String applicationID = "loadTest";
+            final AstroCoordinate.CoordinateSystem coordSystem = AstroCoordinate.CoordinateSystem.valueOf(options.get("coordSystem"));
+            final OpenSearchVOApplicationPlugin.Protocol protocol = OpenSearchVOApplicationPlugin.Protocol.valueOf(options.get("protocol"));
+            final long start = System.nanoTime();
+            VORequestInterface voRequest = new VORequest(applicationID, server.getServiceUrl(), order, tile, coordSystem, protocol, cacheStrategy);
+            voRequest = new PutInCacheIfNotDecorator(voRequest, applicationID, order, tile, coordSystem, cacheStrategy);
+            voRequest = new DictionaryDecorator(voRequest, dico);
+            final List<Map<Field, String>> response = (List<Map<Field, String>>) voRequest.getOutput();
+            final long latency = System.nanoTime() - start;
+            if (response == null) {
+                nbFailures.incrementAndGet();
+            }
+            if (nbLatencies == latencies.length) {
+                latencies = Arrays.copyOf(latencies, 2 * nbLatencies);
+            }
+            latencies[nbLatencies++] = latency;
+        }
+    }
+}
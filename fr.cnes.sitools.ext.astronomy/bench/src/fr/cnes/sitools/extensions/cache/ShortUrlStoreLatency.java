@@ -0,0 +1,222 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.cache;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the latencies of {@link ShortUrlStore} filled with many shortened URLs.
+ * <p>
+ * The store is filled with <code>entries</code> configs of
+ * <code>configSize</code> bytes without fsync, then it is reopened, which
+ * rebuilds the table from the log. The latencies of <code>reads</code> reads
+ * of random keys, of <code>writes</code> puts of new keys and of
+ * <code>writes</code> additions of clicks with the <code>sync</code> mode are
+ * reported, then the duration of a compaction. The keys are the IDs of
+ * {@link ShortIdAllocator}.
+ * </p>
+ * <p>
+ * Options are given as <code>name=value</code> arguments, see {@link #DEFAULTS}.
+ * The JVM needs about 600 MB of heap for 10 millions entries.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class ShortUrlStoreLatency {
+
+    /**
+     * Default options.
+     */
+    private static final Map<String, String> DEFAULTS = new HashMap<String, String>() {
+        {
+            // number of configs stored before the measures
+            put("entries", "10000000");
+            // size in bytes of a config
+            put("configSize", "200");
+            // number of measured reads
+            put("reads", "1000000");
+            // number of measured puts and of measured additions of clicks
+            put("writes", "20000");
+            // sync mode of the measured writes: ALWAYS, PERIODIC or NEVER
+            put("sync", "ALWAYS");
+            // directory of the log
+            put("directory", System.getProperty("java.io.tmpdir"));
+            // seed of the keys
+            put("seed", "1");
+        }
+    };
+    /**
+     * Alphabet of the IDs.
+     */
+    private static final String ALPHABET = "23456789ABCDEFGHJKLMNPRSTUVWXYZabcdefghjkmnpqrstuvwxyz";
+    /**
+     * Options.
+     */
+    private final Map<String, String> options;
+
+    /**
+     * Creates the measure.
+     * @param optionsVal options
+     */
+    private ShortUrlStoreLatency(final Map<String, String> optionsVal) {
+        this.options = optionsVal;
+    }
+
+    /**
+     * Runs the measure.
+     * @param args options as name=value
+     * @throws Exception when the measure cannot be run
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<String, String>(DEFAULTS);
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", options are " + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new ShortUrlStoreLatency(options).run();
+    }
+
+    /**
+     * Returns an integer option.
+     * @param name option name
+     * @return the option value
+     */
+    private int getInt(final String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    /**
+     * Fills the store, then measures the reads, the writes and the compaction.
+     * @throws Exception when the measure cannot be run
+     */
+    private void run() throws Exception {
+        final int nbEntries = getInt("entries");
+        final ShortUrlStore.SyncMode syncMode = ShortUrlStore.SyncMode.valueOf(options.get("sync"));
+        final File directory = new File(options.get("directory"));
+        final File sequenceFile = File.createTempFile("shortener", ".seq", directory);
+        final File logFile = File.createTempFile("shortener", ".log", directory);
+        logFile.delete();
+        final char[] padding = new char[getInt("configSize")];
+        Arrays.fill(padding, 'x');
+        final String config = new String(padding);
+        final ShortIdAllocator allocator = new ShortIdAllocator(sequenceFile, ShortIdAllocator.DEFAULT_BLOCK_SIZE, ALPHABET, 1);
+        try {
+            ShortUrlStore store = new ShortUrlStore(logFile, ShortUrlStore.SyncMode.NEVER);
+            long start = System.nanoTime();
+            for (int i = 0; i < nbEntries; i++) {
+                store.put(allocator.encode(i), config);
+            }
+            store.sync();
+            store.close();
+            store = null;
+            System.out.println(String.format(Locale.US, "fill:    %d entries, %.0f puts/s, log of %d MB",
+                    nbEntries, nbEntries / ((System.nanoTime() - start) / 1E9), logFile.length() >> 20));
+
+            System.gc();
+            System.gc();
+            final long usedBefore = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+            start = System.nanoTime();
+            store = new ShortUrlStore(logFile, syncMode);
+            final double loadDuration = (System.nanoTime() - start) / 1E9;
+            System.gc();
+            System.gc();
+            final long usedAfter = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+            System.out.println(String.format(Locale.US, "rebuild: %.1f s, table of %d MB", loadDuration, (usedAfter - usedBefore) >> 20));
+
+            System.out.println(String.format(Locale.US, "%-12s %10s %10s %10s %10s %10s %12s",
+                    "operation", "count", "p50 us", "p99 us", "p99.9 us", "max us", "ops/s"));
+            final Random random = new Random(Long.parseLong(options.get("seed")));
+            final long[] readLatencies = new long[getInt("reads")];
+            for (int i = 0; i < readLatencies.length; i++) {
+                final String key = allocator.encode(random.nextInt(nbEntries));
+                final long begin = System.nanoTime();
+                if (store.get(key) == null) {
+                    throw new IllegalStateException(key + " is not found");
+                }
+                readLatencies[i] = System.nanoTime() - begin;
+            }
+            report("get", readLatencies);
+
+            final long[] putLatencies = new long[getInt("writes")];
+            for (int i = 0; i < putLatencies.length; i++) {
+                final String key = allocator.encode(nbEntries + i);
+                final long begin = System.nanoTime();
+                store.put(key, config);
+                putLatencies[i] = System.nanoTime() - begin;
+            }
+            report("put", putLatencies);
+
+            final long[] clickLatencies = new long[getInt("writes")];
+            for (int i = 0; i < clickLatencies.length; i++) {
+                final String key = allocator.encode(random.nextInt(nbEntries));
+                final long begin = System.nanoTime();
+                store.addClicks(key, 1);
+                clickLatencies[i] = System.nanoTime() - begin;
+            }
+            report("addClicks", clickLatencies);
+
+            start = System.nanoTime();
+            store.compact();
+            System.out.println(String.format(Locale.US, "compact: %.1f s, log of %d MB", (System.nanoTime() - start) / 1E9, logFile.length() >> 20));
+            store.close();
+        } finally {
+            allocator.close();
+            sequenceFile.delete();
+            logFile.delete();
+        }
+    }
+
+    /**
+     * Prints the percentiles of latencies.
+     * @param operation operation name
+     * @param latencies latencies in nanoseconds
+     */
+    private static void report(final String operation, final long[] latencies) {
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        Arrays.sort(latencies);
+        System.out.println(String.format(Locale.US, "%-12s %10d %10.1f %10.1f %10.1f %10.1f %12.0f", operation, latencies.length,
+                percentile(latencies, 50) / 1E3, percentile(latencies, 99) / 1E3, percentile(latencies, 99.9) / 1E3,
+                percentile(latencies, 100) / 1E3, latencies.length / (total / 1E9)));
+    }
+
+    /**
+     * Returns a percentile by the nearest-rank method.
+     * @param sorted sorted values
+     * @param percentile percentile between 0 and 100
+     * @return the percentile
+     */
+    private static long percentile(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,460 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.cache;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.DiskStoreConfiguration;
+import net.sf.ehcache.config.PersistenceConfiguration;
+
+/**
+ * Compares the shortening IDs and the clicks as {@link SingletonCacheShortnerURL}
+ * used to do them, with random IDs below 238327 retried while they are in the
+ * cache and a put of the element at each click, with {@link ShortIdAllocator}
+ * and {@link ClickCounters}.
+ * <p>
+ * The cache is first filled with <code>fill</code> URLs by a single thread, the
+ * number of retries of the random IDs is reported by tenth of the fill. Then
+ * <code>threads</code> threads create and resolve URLs during
+ * <code>duration</code> seconds, a resolution being on an URL of the fill, and
+ * the throughput is reported. The clicks of {@link ClickCounters} are flushed
+ * in the cache every <code>flushPeriod</code> milliseconds, as the singleton
+ * does.
+ * </p>
+ * <p>
+ * Options are given as <code>name=value</code> arguments, see {@link #DEFAULTS}.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class ShortenerUrlThroughput {
+
+    /**
+     * Default options.
+     */
+    private static final Map<String, String> DEFAULTS = new HashMap<String, String>() {
+        {
+            // number of URLs created before the concurrent load, lower than the 238327 random IDs
+            put("fill", "200000");
+            // number of threads of the concurrent load
+            put("threads", "8");
+            // duration in seconds of the concurrent load of each implementation
+            put("duration", "10");
+            // percentage of resolutions in the concurrent load, the other operations are creations
+            put("resolve", "90");
+            // period in milliseconds between two flushes of the clicks
+            put("flushPeriod", "1000");
+            // seed of the operations
+            put("seed", "1");
+        }
+    };
+    /**
+     * Number of random IDs of the former implementation.
+     */
+    private static final int NUMBER_URLS = 238327;
+    /**
+     * Alphabet of the IDs.
+     */
+    private static final String ALPHABET = "23456789ABCDEFGHJKLMNPRSTUVWXYZabcdefghjkmnpqrstuvwxyz";
+    /**
+     * Number of parts of the fill report.
+     */
+    private static final int NB_PARTS = 10;
+    /**
+     * Config of the URLs.
+     */
+    private static final String CONFIG = "{\"init\":{\"navigation\":{\"initTarget\":[85.2,-2.1]}},\"layers\":[\"DSS\",\"IRIS\"]}";
+    /**
+     * Options.
+     */
+    private final Map<String, String> options;
+
+    /**
+     * Implementation of the shortener.
+     */
+    private interface Shortener {
+
+        /**
+         * Stores a config.
+         * @param config config
+         * @return the ID
+         * @throws Exception when the ID cannot be allocated
+         */
+        Object create(String config) throws Exception;
+
+        /**
+         * Returns the config of an ID and counts a click.
+         * @param id ID
+         * @return the config
+         */
+        String resolve(Object id);
+
+        /**
+         * Returns the number of retries of the creations.
+         * @return the number of retries
+         */
+        long getRetries();
+
+        /**
+         * Stops the background tasks.
+         */
+        void stop();
+    }
+
+    /**
+     * Config and its clicks, as the element of the cache.
+     */
+    private static final class Clicked implements Serializable {
+
+        /**
+         * Serial version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Config.
+         */
+        private final String config;
+        /**
+         * Number of clicks.
+         */
+        private long nbClicks;
+
+        /**
+         * Constructs an element.
+         * @param configVal config
+         */
+        private Clicked(final String configVal) {
+            this.config = configVal;
+        }
+    }
+
+    /**
+     * Random IDs retried while they are in the cache, put of the element at each click.
+     */
+    private static final class RandomIdShortener implements Shortener {
+
+        /**
+         * Cache.
+         */
+        private final Cache cache;
+        /**
+         * Number of retries.
+         */
+        private final AtomicLong retries = new AtomicLong();
+
+        /**
+         * Constructs the shortener.
+         * @param cacheVal cache
+         */
+        private RandomIdShortener(final Cache cacheVal) {
+            this.cache = cacheVal;
+        }
+
+        @Override
+        public Object create(final String config) {
+            int configId = new Random().nextInt(NUMBER_URLS + 1);
+            while (cache.isKeyInCache(configId)) {
+                retries.incrementAndGet();
+                configId = new Random().nextInt(NUMBER_URLS + 1);
+            }
+            cache.put(new Element(configId, new Clicked(config)));
+            return configId;
+        }
+
+        @Override
+        public String resolve(final Object id) {
+            final Clicked clicked = (Clicked) cache.get(id).getObjectValue();
+            synchronized (clicked) {
+                clicked.nbClicks++;
+            }
+            cache.put(new Element(id, clicked));
+            return clicked.config;
+        }
+
+        @Override
+        public long getRetries() {
+            return retries.get();
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    /**
+     * Sequence IDs and clicks flushed periodically.
+     */
+    private static final class SequenceIdShortener implements Shortener {
+
+        /**
+         * Cache.
+         */
+        private final Cache cache;
+        /**
+         * ID allocator.
+         */
+        private final ShortIdAllocator allocator;
+        /**
+         * Clicks.
+         */
+        private final ClickCounters clicks = new ClickCounters();
+        /**
+         * Flush thread.
+         */
+        private final Thread flushThread;
+
+        /**
+         * Constructs the shortener.
+         * @param cacheVal cache
+         * @param sequenceFile sequence file
+         * @param flushPeriod period in milliseconds between two flushes
+         * @throws Exception when the sequence file cannot be read
+         */
+        private SequenceIdShortener(final Cache cacheVal, final File sequenceFile, final long flushPeriod) throws Exception {
+            this.cache = cacheVal;
+            this.allocator = new ShortIdAllocator(sequenceFile, ShortIdAllocator.DEFAULT_BLOCK_SIZE, ALPHABET, 1);
+            this.flushThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.currentThread().isInterrupted()) {
+                            Thread.sleep(flushPeriod);
+                            flush();
+                        }
+                    } catch (InterruptedException ex) {
+                        flush();
+                    }
+                }
+            });
+            this.flushThread.setDaemon(true);
+            this.flushThread.start();
+        }
+
+        /**
+         * Adds the clicks to the elements of the cache.
+         */
+        private void flush() {
+            clicks.flush(new ClickCounters.Sink() {
+                @Override
+                public void add(final Object key, final long nbClicks) {
+                    final Element element = cache.get(key);
+                    if (element != null) {
+                        final Clicked clicked = (Clicked) element.getObjectValue();
+                        clicked.nbClicks += nbClicks;
+                        cache.put(new Element(key, clicked));
+                    }
+                }
+            });
+        }
+
+        @Override
+        public Object create(final String config) throws Exception {
+            final String id = allocator.nextId();
+            cache.put(new Element(id, new Clicked(config)));
+            return id;
+        }
+
+        @Override
+        public String resolve(final Object id) {
+            final Element element = cache.get(id);
+            clicks.increment(id);
+            return ((Clicked) element.getObjectValue()).config;
+        }
+
+        @Override
+        public long getRetries() {
+            return 0;
+        }
+
+        @Override
+        public void stop() {
+            flushThread.interrupt();
+            try {
+                flushThread.join();
+                allocator.close();
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * Creates the comparison.
+     * @param optionsVal options
+     */
+    private ShortenerUrlThroughput(final Map<String, String> optionsVal) {
+        this.options = optionsVal;
+    }
+
+    /**
+     * Runs the comparison.
+     * @param args options as name=value
+     * @throws Exception when the comparison cannot be run
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<String, String>(DEFAULTS);
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", options are " + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new ShortenerUrlThroughput(options).run();
+    }
+
+    /**
+     * Returns an integer option.
+     * @param name option name
+     * @return the option value
+     */
+    private int getInt(final String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    /**
+     * Runs both implementations and prints the report.
+     * @throws Exception when the comparison cannot be run
+     */
+    private void run() throws Exception {
+        if (getInt("fill") >= NUMBER_URLS) {
+            throw new IllegalArgumentException("fill must be lower than " + NUMBER_URLS + ", the random IDs would never be found");
+        }
+        final CacheManager cacheManager = CacheManager.newInstance(new Configuration().name("ShortenerUrlThroughput")
+                .diskStore(new DiskStoreConfiguration().path(System.getProperty("java.io.tmpdir"))));
+        final File sequenceFile = File.createTempFile("shortener", ".seq");
+        try {
+            System.out.println(String.format(Locale.US, "%-10s %10s %14s %16s %14s %14s", "ids", "fill", "fill ops/s",
+                    "retries/create", "mixed ops/s", "resolve ops/s"));
+            runShortener("random", new RandomIdShortener(newCache(cacheManager, "random")));
+            sequenceFile.delete();
+            runShortener("sequence", new SequenceIdShortener(newCache(cacheManager, "sequence"), sequenceFile, getInt("flushPeriod")));
+        } finally {
+            cacheManager.shutdown();
+            sequenceFile.delete();
+        }
+    }
+
+    /**
+     * Returns a new cache with a swap on disk, as the ShortenerUrl cache of ehcache.xml was.
+     * @param cacheManager cache manager
+     * @param name cache name
+     * @return the cache
+     */
+    private static Cache newCache(final CacheManager cacheManager, final String name) {
+        final Cache cache = new Cache(new CacheConfiguration(name, 0).eternal(true)
+                .persistence(new PersistenceConfiguration().strategy(PersistenceConfiguration.Strategy.LOCALTEMPSWAP)));
+        cacheManager.addCache(cache);
+        return cache;
+    }
+
+    /**
+     * Fills the cache, then runs the concurrent load.
+     * @param name name of the implementation
+     * @param shortener implementation
+     * @throws Exception when an operation fails
+     */
+    private void runShortener(final String name, final Shortener shortener) throws Exception {
+        final int nbFill = getInt("fill");
+        final Object[] ids = new Object[nbFill];
+        final long[] partRetries = new long[NB_PARTS];
+        final long fillStart = System.nanoTime();
+        for (int i = 0; i < nbFill; i++) {
+            final long retries = shortener.getRetries();
+            ids[i] = shortener.create(CONFIG);
+            partRetries[i * NB_PARTS / nbFill] += shortener.getRetries() - retries;
+        }
+        final double fillRate = nbFill / ((System.nanoTime() - fillStart) / 1E9);
+
+        final int nbThreads = getInt("threads");
+        final int resolvePercent = getInt("resolve");
+        final long duration = getInt("duration") * 1000000000L;
+        final AtomicLongArray counts = new AtomicLongArray(2);
+        // above 95% of the random IDs, the retries would only measure the exhaustion of the IDs
+        final AtomicLong created = new AtomicLong(nbFill);
+        final long maxCreated = (shortener instanceof RandomIdShortener) ? NUMBER_URLS * 95L / 100 : Long.MAX_VALUE;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(nbThreads);
+        final Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < nbThreads; t++) {
+            final Random random = new Random(Long.parseLong(options.get("seed")) + t);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        final long end = System.nanoTime() + duration;
+                        long nbResolves = 0;
+                        long nbCreates = 0;
+                        while (System.nanoTime() < end) {
+                            if (random.nextInt(100) < resolvePercent) {
+                                shortener.resolve(ids[random.nextInt(ids.length)]);
+                                nbResolves++;
+                            } else if (created.get() < maxCreated) {
+                                shortener.create(CONFIG);
+                                created.incrementAndGet();
+                                nbCreates++;
+                            }
+                        }
+                        counts.addAndGet(0, nbResolves);
+                        counts.addAndGet(1, nbCreates);
+                    } catch (Throwable ex) {
+                        synchronized (failure) {
+                            failure[0] = ex;
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        shortener.stop();
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new IllegalStateException(name + " failed", failure[0]);
+            }
+        }
+        final double seconds = duration / 1E9;
+        for (int part = 0; part < NB_PARTS; part++) {
+            final String partName = String.format(Locale.US, "%d-%d%%", part * 100 / NB_PARTS, (part + 1) * 100 / NB_PARTS);
+            final double retriesByCreate = (double) partRetries[part] / (nbFill / NB_PARTS);
+            if (part == 0) {
+                System.out.println(String.format(Locale.US, "%-10s %10s %14.0f %16.3f %14.0f %14.0f", name, partName, fillRate,
+                        retriesByCreate, (counts.get(0) + counts.get(1)) / seconds, counts.get(0) / seconds));
+            } else {
+                System.out.println(String.format(Locale.US, "%-10s %10s %14s %16.3f", "", partName, "", retriesByCreate));
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.security;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the matching of an URL as {@link FilterFilenamePattern} used to
+ * do, with String.matches on each request, with a precompiled regular
+ * expression and with {@link FilenamePatternMatcher}.
+ *
+ * <p>The patterns are file extensions and directories, the URL matches none of them.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class FilenamePatternMatcherBenchmark {
+
+  /**
+   * Number of alternatives.
+   */
+  @Param({"2", "100", "1000"})
+  private int nbPatterns;
+  /**
+   * URL length.
+   */
+  @Param({"64", "2048"})
+  private int urlLength;
+  /**
+   * Pattern, alternatives separated by |.
+   */
+  private String pattern;
+  /**
+   * Precompiled pattern.
+   */
+  private Pattern compiledPattern;
+  /**
+   * Matcher.
+   */
+  private FilenamePatternMatcher matcher;
+  /**
+   * URL.
+   */
+  private String url;
+
+  /**
+   * Builds the patterns and the URL.
+   */
+  @Setup
+  public void setUp() {
+    final List<String> alternatives = new ArrayList<String>();
+    for (int i = 0; i < nbPatterns; i++) {
+      alternatives.add((i % 2 == 0) ? "(.*\\.ext" + i + ")" : "(/sitools/datastorage/dir" + i + "/.*)");
+    }
+    final StringBuilder patternBuilder = new StringBuilder();
+    for (String alternative : alternatives) {
+      if (patternBuilder.length() > 0) {
+        patternBuilder.append('|');
+      }
+      patternBuilder.append(alternative);
+    }
+    pattern = patternBuilder.toString();
+    compiledPattern = Pattern.compile(pattern);
+    matcher = new FilenamePatternMatcher(Collections.singletonList(pattern), Collections.<String>emptyList());
+    final StringBuilder urlBuilder = new StringBuilder("/sitools/datastorage/data/");
+    while (urlBuilder.length() < urlLength - ".fits".length()) {
+      urlBuilder.append('a');
+    }
+    url = urlBuilder.append(".fits").toString();
+  }
+
+  /**
+   * Pattern compiled on each request.
+   *
+   * @return the result
+   */
+  @Benchmark
+  public boolean stringMatches() {
+    return url.matches(pattern);
+  }
+
+  /**
+   * Pattern compiled once.
+   *
+   * @return the result
+   */
+  @Benchmark
+  public boolean precompiledPattern() {
+    return compiledPattern.matcher(url).matches();
+  }
+
+  /**
+   * Pattern compiled in tries.
+   *
+   * @return the result
+   */
+  @Benchmark
+  public boolean patternMatcher() {
+    return matcher.isAccepted(url);
+  }
+}
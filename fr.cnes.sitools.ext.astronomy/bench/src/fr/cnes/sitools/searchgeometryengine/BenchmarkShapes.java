@@ -0,0 +1,188 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shapes used by the benchmarks.
+ *
+ * <p>The shapes are built around a location on the sky so that the same shape can be
+ * measured far from any singularity, across the RA=0 meridian or across a pole.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class BenchmarkShapes {
+
+  /**
+   * Location of the shapes.
+   */
+  public enum Location {
+    /**
+     * Near the equator, far from the RA=0 meridian.
+     */
+    EQUATOR(120, 10),
+    /**
+     * Centered on the RA=0 meridian, the shape crosses it.
+     */
+    MERIDIAN(0, 30),
+    /**
+     * Close to the north pole, a large enough shape crosses it.
+     */
+    POLE(45, 85);
+
+    /**
+     * Right ascension of the center in degrees.
+     */
+    private final double rightAscension;
+    /**
+     * Declination of the center in degrees.
+     */
+    private final double declination;
+
+    /**
+     * Constructs a location.
+     *
+     * @param rightAscensionVal right ascension of the center in degrees
+     * @param declinationVal declination of the center in degrees
+     */
+    Location(final double rightAscensionVal, final double declinationVal) {
+      this.rightAscension = rightAscensionVal;
+      this.declination = declinationVal;
+    }
+
+    /**
+     * Returns the center.
+     *
+     * @return the center
+     */
+    public Point getCenter() {
+      return new Point(rightAscension, declination, CoordSystem.EQUATORIAL);
+    }
+  }
+
+  /**
+   * Outline of the polygons.
+   */
+  public enum Outline {
+    /**
+     * Regular polygon.
+     */
+    CONVEX,
+    /**
+     * Star polygon: every other vertex is pulled toward the center.
+     */
+    CONCAVE
+  }
+
+  /**
+   * Ratio between the inner and the outer radius of a concave polygon.
+   */
+  private static final double CONCAVE_RATIO = 0.5;
+
+  /**
+   * Utility class.
+   */
+  private BenchmarkShapes() {
+  }
+
+  /**
+   * Description of a cone in {@link #create(String, Location, double)}.
+   */
+  public static final String CONE = "CONE";
+
+  /**
+   * Returns a shape from its description.
+   *
+   * <p>The description is either {@link #CONE} or the outline and the number of vertices
+   * of a polygon, e.g. <code>CONCAVE_16</code>.</p>
+   *
+   * @param description description of the shape
+   * @param location location of the center
+   * @param radiusDeg radius of the cone or of the circle inscribing the polygon, in degrees
+   * @return the shape
+   */
+  public static Shape create(final String description, final Location location, final double radiusDeg) {
+    if (CONE.equals(description)) {
+      return cone(location, radiusDeg);
+    }
+    final int separator = description.lastIndexOf('_');
+    if (separator < 0) {
+      throw new IllegalArgumentException("Unknown shape: " + description);
+    }
+    final Outline outline = Outline.valueOf(description.substring(0, separator));
+    final int nbVertices = Integer.parseInt(description.substring(separator + 1));
+    return polygon(location, radiusDeg, nbVertices, outline);
+  }
+
+  /**
+   * Returns a cone.
+   *
+   * @param location location of the center
+   * @param radiusDeg radius in degrees
+   * @return the cone
+   */
+  public static Cone cone(final Location location, final double radiusDeg) {
+    return new Cone(location.getCenter(), Math.toRadians(radiusDeg));
+  }
+
+  /**
+   * Returns a polygon inscribed in a circle.
+   *
+   * <p>The vertices are given counterclockwise, the polygon is the small area inside them.</p>
+   *
+   * @param location location of the center
+   * @param radiusDeg radius of the circle in degrees
+   * @param nbVertices number of vertices
+   * @param outline convex or concave polygon
+   * @return the polygon
+   */
+  public static Polygon polygon(final Location location, final double radiusDeg, final int nbVertices, final Outline outline) {
+    if (nbVertices < 3 || (outline == Outline.CONCAVE && nbVertices < 4)) {
+      throw new IllegalArgumentException("Not enough vertices for a " + outline + " polygon: " + nbVertices);
+    }
+    final Point center = location.getCenter();
+    final List<Point> points = new ArrayList<Point>(nbVertices);
+    for (int i = 0; i < nbVertices; i++) {
+      final double radius = (outline == Outline.CONCAVE && i % 2 == 1) ? radiusDeg * CONCAVE_RATIO : radiusDeg;
+      points.add(destination(center, Math.toRadians(radius), -2 * Math.PI * i / nbVertices));
+    }
+    return new Polygon(points);
+  }
+
+  /**
+   * Returns the point at a given distance and bearing from a center.
+   *
+   * @param center center
+   * @param distance angular distance in radians
+   * @param bearing bearing in radians, counted from the north toward the east
+   * @return the point
+   */
+  private static Point destination(final Point center, final double distance, final double bearing) {
+    final double dec0 = Math.toRadians(center.getLatitude());
+    final double ra0 = Math.toRadians(center.getLongitude());
+    final double sinDec = Math.sin(dec0) * Math.cos(distance) + Math.cos(dec0) * Math.sin(distance) * Math.cos(bearing);
+    final double dec = Math.asin(Math.max(-1, Math.min(1, sinDec)));
+    final double ra = ra0 + Math.atan2(Math.sin(bearing) * Math.sin(distance) * Math.cos(dec0),
+            Math.cos(distance) - Math.sin(dec0) * sinDec);
+    final double raDeg = (Math.toDegrees(ra) % 360 + 360) % 360;
+    return new Point(raDeg, Math.toDegrees(dec), CoordSystem.EQUATORIAL);
+  }
+}
@@ -0,0 +1,199 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import healpix.essentials.HealpixBase;
+import healpix.essentials.Pointing;
+import healpix.essentials.RangeSet;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the Healpix queries used by the indexes: disc and convex polygon,
+ * exact and inclusive, in RING and NESTED schemes.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class HealpixQueryBenchmark {
+
+  /**
+   * Oversampling factor of the inclusive queries, as used by the indexes.
+   */
+  private static final int FACT = 4;
+
+  /**
+   * Parameters shared by the queries.
+   */
+  @State(Scope.Thread)
+  public abstract static class Query {
+
+    /**
+     * Healpix order.
+     */
+    @Param({"3", "5", "7", "9", "11", "13"})
+    public int order;
+    /**
+     * Healpix scheme.
+     */
+    @Param({"RING", "NESTED"})
+    public healpix.essentials.Scheme scheme;
+    /**
+     * Radius of the disc or of the circle inscribing the polygon, in degrees.
+     */
+    @Param({"0.1", "1", "10"})
+    public double radius;
+    /**
+     * Location of the shape.
+     */
+    @Param({"EQUATOR", "MERIDIAN", "POLE"})
+    public BenchmarkShapes.Location location;
+    /**
+     * Healpix base.
+     */
+    protected HealpixBase healpix;
+
+    /**
+     * Creates the Healpix base.
+     *
+     * @throws Exception Healpix Exception
+     */
+    @Setup
+    public void setUpHealpix() throws Exception {
+      healpix = new HealpixBase(1L << order, scheme);
+    }
+  }
+
+  /**
+   * Disc query.
+   */
+  @State(Scope.Thread)
+  public static class DiscQuery extends Query {
+
+    /**
+     * Center of the disc.
+     */
+    protected Pointing center;
+    /**
+     * Radius of the disc in radians.
+     */
+    protected double radiusRad;
+
+    /**
+     * Builds the disc.
+     */
+    @Setup
+    public void setUpDisc() {
+      final Cone cone = BenchmarkShapes.cone(location, radius);
+      center = cone.getCenter();
+      radiusRad = cone.getRadius();
+    }
+  }
+
+  /**
+   * Convex polygon query.
+   */
+  @State(Scope.Thread)
+  public static class PolygonQuery extends Query {
+
+    /**
+     * Number of vertices.
+     */
+    @Param({"4", "16", "64"})
+    public int vertices;
+    /**
+     * Vertices of the polygon.
+     */
+    protected Pointing[] polygon;
+
+    /**
+     * Builds the polygon.
+     */
+    @Setup
+    public void setUpPolygon() {
+      final List<Point> points = BenchmarkShapes.polygon(location, radius, vertices, BenchmarkShapes.Outline.CONVEX).getPoints();
+      polygon = points.toArray(new Pointing[points.size()]);
+    }
+  }
+
+  /**
+   * Pixels whose center is in the disc.
+   *
+   * @param query disc
+   * @return the pixels
+   * @throws Exception Healpix Exception
+   */
+  @Benchmark
+  public RangeSet queryDisc(final DiscQuery query) throws Exception {
+    return query.healpix.queryDisc(query.center, query.radiusRad);
+  }
+
+  /**
+   * Pixels overlapping the disc.
+   *
+   * @param query disc
+   * @return the pixels
+   * @throws Exception Healpix Exception
+   */
+  @Benchmark
+  public RangeSet queryDiscInclusive(final DiscQuery query) throws Exception {
+    return query.healpix.queryDiscInclusive(query.center, query.radiusRad, FACT);
+  }
+
+  /**
+   * Pixels whose center is in the polygon.
+   *
+   * @param query polygon
+   * @return the pixels
+   * @throws Exception Healpix Exception
+   */
+  @Benchmark
+  public RangeSet queryPolygon(final PolygonQuery query) throws Exception {
+    return query.healpix.queryPolygon(query.polygon);
+  }
+
+  /**
+   * Pixels overlapping the polygon.
+   *
+   * @param query polygon
+   * @return the pixels
+   * @throws Exception Healpix Exception
+   */
+  @Benchmark
+  public RangeSet queryPolygonInclusive(final PolygonQuery query) throws Exception {
+    return query.healpix.queryPolygonInclusive(query.polygon, FACT);
+  }
+}
@@ -0,0 +1,119 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the computation of the Healpix index of a shape by {@link NestedIndex},
+ * {@link RingIndex} and {@link MocIndex}.
+ *
+ * <p>The whole matrix of parameters takes about an hour, use <code>-p</code> to select a part of it.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class IndexBenchmark {
+
+  /**
+   * Healpix order.
+   */
+  @Param({"3", "5", "7", "9", "11", "13"})
+  private int order;
+  /**
+   * Shape, see {@link BenchmarkShapes#create(String, BenchmarkShapes.Location, double)}.
+   */
+  @Param({"CONE", "CONVEX_4", "CONVEX_16", "CONCAVE_16", "CONCAVE_64"})
+  private String shapeDescription;
+  /**
+   * Radius of the cone or of the circle inscribing the polygon, in degrees.
+   */
+  @Param({"1", "10"})
+  private double radius;
+  /**
+   * Location of the shape.
+   */
+  @Param({"EQUATOR", "MERIDIAN", "POLE"})
+  private BenchmarkShapes.Location location;
+  /**
+   * Shape to index.
+   */
+  private Shape shape;
+
+  /**
+   * Builds the shape.
+   */
+  @Setup
+  public void setUp() {
+    shape = BenchmarkShapes.create(shapeDescription, location, radius);
+  }
+
+  /**
+   * Index in NESTED scheme.
+   *
+   * @return the index
+   */
+  @Benchmark
+  public Object nestedIndex() {
+    final NestedIndex index = new NestedIndex(shape);
+    index.setOrder(order);
+    return index.getIndex();
+  }
+
+  /**
+   * Index in RING scheme.
+   *
+   * @return the index
+   */
+  @Benchmark
+  public Object ringIndex() {
+    final RingIndex index = new RingIndex(shape);
+    index.setOrder(order);
+    return index.getIndex();
+  }
+
+  /**
+   * Multi-order coverage map.
+   *
+   * @return the index
+   */
+  @Benchmark
+  public Object mocIndex() {
+    final MocIndex index = new MocIndex(shape);
+    index.setOrderMax(order);
+    return index.getIndex();
+  }
+}
@@ -0,0 +1,121 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cds.moc.HealpixMoc;
+import cds.moc.MocCell;
+
+/**
+ * Compares the construction of a MOC from the pixels of a query, one cell
+ * per pixel as {@link MocIndex} used to do, with {@link MocBuilder}.
+ *
+ * <p>Only the MOC construction is measured, the Healpix query is done in the setup.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class MocBuilderBenchmark {
+
+  /**
+   * Healpix order.
+   */
+  @Param({"9", "11", "13"})
+  private int order;
+  /**
+   * Shape, see {@link BenchmarkShapes#create(String, BenchmarkShapes.Location, double)}.
+   */
+  @Param({"CONE", "CONVEX_16"})
+  private String shapeDescription;
+  /**
+   * Radius of the cone or of the circle inscribing the polygon, in degrees.
+   */
+  @Param({"0.5", "2", "8"})
+  private double radius;
+  /**
+   * Ranges of NESTED pixels of the shape.
+   */
+  private RangeSet ranges;
+
+  /**
+   * Queries the pixels of the shape.
+   *
+   * @throws Exception Healpix Exception
+   */
+  @Setup
+  public void setUp() throws Exception {
+    final Shape shape = BenchmarkShapes.create(shapeDescription, BenchmarkShapes.Location.EQUATOR, radius);
+    final HealpixIndex index = new HealpixIndex(1 << order, Scheme.NESTED);
+    if (shape instanceof Cone) {
+      final Cone cone = (Cone) shape;
+      ranges = index.queryDiscInclusive(cone.getCenter(), cone.getRadius(), MocIndex.TYPICAL_CHOICE_FACT);
+    } else {
+      ranges = MocIndex.computePolygon(((Polygon) shape).getPoints(), index);
+    }
+  }
+
+  /**
+   * One cell per pixel.
+   *
+   * @return the MOC
+   * @throws Exception MOC Exception
+   */
+  @Benchmark
+  public HealpixMoc perPixel() throws Exception {
+    final HealpixMoc moc = new HealpixMoc();
+    final RangeSet.ValueIterator valueIter = ranges.valueIterator();
+    while (valueIter.hasNext()) {
+      moc.add(new MocCell(order, valueIter.next()));
+    }
+    return moc;
+  }
+
+  /**
+   * Cells computed from the ranges.
+   *
+   * @return the MOC
+   * @throws Exception MOC Exception
+   */
+  @Benchmark
+  public HealpixMoc fromRanges() throws Exception {
+    return MocBuilder.fromNestedRanges(ranges, order);
+  }
+}
@@ -0,0 +1,208 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import healpix.essentials.RangeSet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cds.moc.HealpixMoc;
+import fr.cnes.sitools.astro.representation.MocStreamWriter;
+
+/**
+ * Measures the operations of {@link MocRanges} and the FITS output of
+ * {@link MocStreamWriter} on synthetic MOCs of millions of ranges.
+ *
+ * <p>
+ * The MOCs are random ranges of pixels at order {@link #ORDER}. The FITS is
+ * written to a stream that discards it, either streamed from the ranges by
+ * {@link MocStreamWriter} or written by HealpixMoc#writeFits after the cells
+ * have been built by {@link MocBuilder}. Run with <code>-prof gc</code> to
+ * compare the allocations.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class MocRangesBenchmark {
+
+  /**
+   * Order of the synthetic MOCs.
+   */
+  private static final int ORDER = 14;
+  /**
+   * Target order of the degradation.
+   */
+  private static final int DEGRADED_ORDER = 10;
+  /**
+   * Maximal length of a range, in pixels at {@link #ORDER}.
+   */
+  private static final int MAX_LENGTH = 200;
+  /**
+   * Number of ranges of each MOC.
+   */
+  @Param({"1000000", "4000000"})
+  private int nbRanges;
+  /**
+   * First MOC as ranges at the deepest order.
+   */
+  private RangeSet ranges1;
+  /**
+   * Second MOC as ranges at the deepest order.
+   */
+  private RangeSet ranges2;
+
+  /**
+   * Stream that discards the bytes.
+   */
+  private static final class NullOutputStream extends OutputStream {
+
+    /**
+     * Number of written bytes.
+     */
+    private long size = 0;
+
+    @Override
+    public void write(final int value) throws IOException {
+      size++;
+    }
+
+    @Override
+    public void write(final byte[] buffer, final int offset, final int length) throws IOException {
+      size += length;
+    }
+  }
+
+  /**
+   * Returns random ranges of pixels at {@link #ORDER}.
+   *
+   * @param random generator
+   * @return the ranges at {@link #ORDER}
+   */
+  private RangeSet randomRanges(final Random random) {
+    final long nbPixels = 12L << (2 * ORDER);
+    final long step = nbPixels / nbRanges;
+    final RangeSet ranges = new RangeSet(2 * nbRanges);
+    for (int i = 0; i < nbRanges; i++) {
+      final long begin = i * step + random.nextInt((int) (step - MAX_LENGTH));
+      ranges.append(begin, begin + 1 + random.nextInt(MAX_LENGTH));
+    }
+    return ranges;
+  }
+
+  /**
+   * Builds the synthetic MOCs.
+   *
+   * @throws Exception MOC Exception
+   */
+  @Setup
+  public void setUp() throws Exception {
+    final Random random = new Random(nbRanges);
+    ranges1 = MocRanges.fromMoc(MocBuilder.fromNestedRanges(randomRanges(random), ORDER));
+    ranges2 = MocRanges.fromMoc(MocBuilder.fromNestedRanges(randomRanges(random), ORDER));
+  }
+
+  /**
+   * Union of the two MOCs.
+   *
+   * @return the union
+   */
+  @Benchmark
+  public RangeSet union() {
+    return MocRanges.union(Arrays.asList(ranges1, ranges2));
+  }
+
+  /**
+   * Intersection of the two MOCs.
+   *
+   * @return the intersection
+   */
+  @Benchmark
+  public RangeSet intersection() {
+    return MocRanges.intersection(Arrays.asList(ranges1, ranges2));
+  }
+
+  /**
+   * Complement of the first MOC.
+   *
+   * @return the complement
+   */
+  @Benchmark
+  public RangeSet complement() {
+    return MocRanges.complement(ranges1);
+  }
+
+  /**
+   * Degradation of the first MOC to {@link #DEGRADED_ORDER}.
+   *
+   * @return the degraded MOC
+   */
+  @Benchmark
+  public RangeSet degrade() {
+    return MocRanges.degrade(ranges1, DEGRADED_ORDER);
+  }
+
+  /**
+   * FITS of the first MOC streamed from its ranges.
+   *
+   * @return the size of the FITS
+   * @throws IOException if an error occurs while writing
+   */
+  @Benchmark
+  public long streamedFits() throws IOException {
+    final NullOutputStream out = new NullOutputStream();
+    MocStreamWriter.writeFits(MocStreamWriter.fromRanges(ranges1, ORDER, "C"), out, false);
+    return out.size;
+  }
+
+  /**
+   * FITS of the first MOC written by the MOC library from its cells.
+   *
+   * @return the size of the FITS
+   * @throws Exception MOC Exception
+   */
+  @Benchmark
+  public long healpixMocFits() throws Exception {
+    final NullOutputStream out = new NullOutputStream();
+    final HealpixMoc moc = MocBuilder.fromNestedRanges(ranges1, MocRanges.MAX_ORDER);
+    moc.writeFits(out);
+    return out.size;
+  }
+}
@@ -0,0 +1,125 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the Healpix index of an image footprint from order 3 to order 13
+ * in NESTED scheme, computed at each order as the Solr WcsTransformer used to
+ * do, with {@link MultiOrderIndex}.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class MultiOrderIndexBenchmark {
+
+  /**
+   * Minimum order.
+   */
+  private static final int MIN_ORDER = 3;
+  /**
+   * Maximum order.
+   */
+  private static final int MAX_ORDER = 13;
+  /**
+   * Half size of the footprint, in degrees.
+   */
+  @Param({"0.1", "0.5", "2"})
+  private double halfSize;
+  /**
+   * Footprint.
+   */
+  private Polygon footprint;
+  /**
+   * Multi-order index.
+   */
+  private MultiOrderIndex multiOrderIndex;
+
+  /**
+   * Builds the footprint.
+   */
+  @Setup
+  public void setUp() {
+    final double ra = 150;
+    final double dec = 30;
+    footprint = new Polygon(Arrays.asList(new Point(ra + halfSize, dec - halfSize, CoordSystem.EQUATORIAL),
+            new Point(ra + halfSize, dec + halfSize, CoordSystem.EQUATORIAL), new Point(ra - halfSize, dec + halfSize, CoordSystem.EQUATORIAL),
+            new Point(ra - halfSize, dec - halfSize, CoordSystem.EQUATORIAL)));
+    multiOrderIndex = new MultiOrderIndex(MIN_ORDER, MAX_ORDER, Scheme.NESTED);
+  }
+
+  /**
+   * Index computed at each order.
+   *
+   * @return the pixels by order
+   * @throws Exception Healpix Exception
+   */
+  @Benchmark
+  public List<List<Long>> perOrder() throws Exception {
+    final Index index = AbstractGeometryIndex.createIndex(footprint, fr.cnes.sitools.searchgeometryengine.Scheme.RING);
+    final List<List<Long>> result = new ArrayList<List<Long>>();
+    for (int order = MIN_ORDER; order <= MAX_ORDER; order++) {
+      ((RingIndex) index).setOrder(order);
+      final long[] pixels = AbstractGeometryIndex.decodeRangeSet((RangeSet) index.getIndex());
+      final HealpixIndex healpixIndex = new HealpixIndex((int) Math.pow(2.0, order), Scheme.RING);
+      final List<Long> pixelList = new ArrayList<Long>(pixels.length);
+      for (long pixel : pixels) {
+        pixelList.add(healpixIndex.ring2nest(pixel));
+      }
+      result.add(pixelList);
+    }
+    return result;
+  }
+
+  /**
+   * Index computed at the maximum order and derived at the other orders.
+   *
+   * @return the pixels by order
+   * @throws Exception Healpix Exception
+   */
+  @Benchmark
+  public long[][] multiOrder() throws Exception {
+    return multiOrderIndex.computeIndex(footprint);
+  }
+}
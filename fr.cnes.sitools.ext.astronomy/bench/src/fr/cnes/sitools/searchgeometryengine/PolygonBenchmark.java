@@ -0,0 +1,102 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the geometry steps done before querying Healpix: {@link Polygon#triangulate()}
+ * and {@link Resampling#processResampling()}.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolygonBenchmark {
+
+  /**
+   * Radius of the circle inscribing the polygon, in degrees.
+   */
+  @Param({"0.5", "5", "30"})
+  private double radius;
+  /**
+   * Number of vertices.
+   */
+  @Param({"4", "16", "64", "256"})
+  private int vertices;
+  /**
+   * Convex or concave polygon.
+   */
+  @Param({"CONVEX", "CONCAVE"})
+  private BenchmarkShapes.Outline outline;
+  /**
+   * Location of the polygon.
+   */
+  @Param({"EQUATOR", "MERIDIAN", "POLE"})
+  private BenchmarkShapes.Location location;
+  /**
+   * Polygon.
+   */
+  private Polygon polygon;
+
+  /**
+   * Builds the polygon.
+   */
+  @Setup
+  public void setUp() {
+    polygon = BenchmarkShapes.polygon(location, radius, vertices, outline);
+  }
+
+  /**
+   * Triangulation.
+   *
+   * @return the triangles
+   */
+  @Benchmark
+  public List<Polygon> triangulate() {
+    return polygon.triangulate();
+  }
+
+  /**
+   * Resampling along the hour and declination circles.
+   *
+   * @return the resampled polygon
+   */
+  @Benchmark
+  public Polygon resampling() {
+    return new Resampling(polygon).processResampling();
+  }
+}
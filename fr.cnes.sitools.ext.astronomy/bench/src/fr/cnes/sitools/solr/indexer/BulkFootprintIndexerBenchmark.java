@@ -0,0 +1,156 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.solr.indexer;
+
+import fr.cnes.sitools.searchgeometryengine.MultiOrderIndex;
+import healpix.essentials.Scheme;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the number of documents indexed by second by {@link BulkFootprintIndexer}
+ * according to the number of threads.
+ *
+ * <p>
+ * The rows are 0.2 degree images with TAN projection WCS keywords, generated
+ * in memory, and the documents are discarded: only the computation of the
+ * footprints is measured. Compare the scores with the number of cores of the
+ * machine.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class BulkFootprintIndexerBenchmark {
+
+  /**
+   * Number of rows by invocation.
+   */
+  private static final int NB_ROWS = 200;
+  /**
+   * Number of pixels along each axis.
+   */
+  private static final int NAXIS = 2048;
+  /**
+   * Pixel size in degrees.
+   */
+  private static final double PIXEL_SIZE = 1E-4;
+  /**
+   * Number of threads.
+   */
+  @Param({"1", "2", "4", "8"})
+  private int nbThreads;
+  /**
+   * Indexer.
+   */
+  private BulkFootprintIndexer indexer;
+  /**
+   * Rows, copied at each invocation as the footprint is added to them.
+   */
+  private Map<String, Object>[] rows;
+
+  /**
+   * Builds the indexer and the rows.
+   */
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    final String[] keywords = {"NAXIS1", "NAXIS2", "CTYPE1", "CTYPE2", "CRPIX1", "CRPIX2", "CRVAL1", "CRVAL2", "CDELT1", "CDELT2",
+      "EQUINOX", "RA", "DEC"};
+    final Map<String, String> wcsColumns = new HashMap<String, String>();
+    for (String keyword : keywords) {
+      wcsColumns.put(keyword, keyword.toLowerCase());
+    }
+    indexer = new BulkFootprintIndexer(wcsColumns, Collections.<String, String>emptyMap(), new MultiOrderIndex(3, 13, Scheme.NESTED),
+            nbThreads, BulkFootprintIndexer.DEFAULT_BATCH_SIZE / 10);
+    rows = new Map[NB_ROWS];
+    for (int i = 0; i < NB_ROWS; i++) {
+      final double ra = (i * 37.3) % 360;
+      final double dec = (i * 13.1) % 160 - 80;
+      final Map<String, Object> row = new HashMap<String, Object>();
+      row.put("naxis1", NAXIS);
+      row.put("naxis2", NAXIS);
+      row.put("ctype1", "RA---TAN");
+      row.put("ctype2", "DEC--TAN");
+      row.put("crpix1", NAXIS / 2.0);
+      row.put("crpix2", NAXIS / 2.0);
+      row.put("crval1", ra);
+      row.put("crval2", dec);
+      row.put("cdelt1", -PIXEL_SIZE);
+      row.put("cdelt2", PIXEL_SIZE);
+      row.put("equinox", 2000.0);
+      row.put("ra", ra);
+      row.put("dec", dec);
+      rows[i] = row;
+    }
+  }
+
+  /**
+   * Indexes the rows.
+   *
+   * @return the report
+   * @throws Exception indexing error
+   */
+  @Benchmark
+  @OperationsPerInvocation(NB_ROWS)
+  public BulkFootprintIndexer.Report index() throws Exception {
+    return indexer.index(new RowSource() {
+      private int index = 0;
+
+      @Override
+      public Map<String, Object> next() {
+        return (index == rows.length) ? null : new HashMap<String, Object>(rows[index++]);
+      }
+
+      @Override
+      public void close() {
+      }
+    }, new DocumentWriter() {
+      @Override
+      public void add(final List<Map<String, Object>> documents) {
+      }
+
+      @Override
+      public void commit() {
+      }
+    });
+  }
+}
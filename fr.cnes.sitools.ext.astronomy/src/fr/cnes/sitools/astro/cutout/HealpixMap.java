@@ -19,8 +19,9 @@
 package fr.cnes.sitools.astro.cutout;
 
 import healpix.core.HealpixIndex;
+import healpix.core.dm.MapColumn;
 import healpix.essentials.Pointing;
-import healpix.essentials.Scheme;
+import healpix.fits.FitsHealpixMapReader;
 
 import java.awt.geom.Point2D;
 import java.io.DataOutputStream;
@@ -32,7 +33,6 @@ import java.util.GregorianCalendar;
 import java.util.logging.Level;
 
 import nom.tam.fits.BasicHDU;
-import nom.tam.fits.BinaryTableHDU;
 import nom.tam.fits.Fits;
 import nom.tam.fits.FitsException;
 import nom.tam.fits.Header;
@@ -41,7 +41,6 @@ import nom.tam.fits.HeaderCardException;
 import org.restlet.engine.Engine;
 
 import fr.cnes.sitools.extensions.common.AstroCoordinate;
-import fr.cnes.sitools.extensions.common.Utility;
 
 /**
  * Creates a map from Planck data.
@@ -80,9 +79,9 @@ public class HealpixMap implements CutOutInterface {
      */
     private AstroCoordinate.CoordinateSystem coordinateSystemOutput;
     /**
-     * HDU that contains the Planck data.
+     * Reader of the binary table that contains the Planck data.
      */
-    private transient BinaryTableHDU hdu;
+    private transient FitsHealpixMapReader reader;
     /**
      * WCS.
      */
@@ -109,9 +108,7 @@ public class HealpixMap implements CutOutInterface {
             setRotation(rotation);
             setCoordinateSystemInput(coordinateSystemInput);
             setFile(file);
-            final BinaryTableHDU hduTable = loadBinaryHDU(new Fits(file));
-//        final String coordSystem = hduTable.getHeader().getStringValue("COORDSYS");
-            setHdu(hduTable);
+            setReader(new FitsHealpixMapReader(file));
             setFovCoordinates(coordinates);
             setWcs(new WcsComputation(coordinates, cdelt1, cdelt2, rotation, coordinateSystemInput));
         } catch (FitsException ex) {
@@ -123,32 +120,6 @@ public class HealpixMap implements CutOutInterface {
         }
     }
 
-    /**
-     * Loads the first binary table extension.
-     *
-     * @param fitsToCut fits where the information is located
-     * @return the first binary table extension
-     * @throws FitsException
-     * @throws IOException
-     */
-    private BinaryTableHDU loadBinaryHDU(final Fits fitsToCut) throws FitsException, IOException {
-        BinaryTableHDU binaryHdu = null;
-        final int numberHDUs = 2;
-        for (int i = 0; i < numberHDUs; i++) {
-            final BasicHDU basicHDU = fitsToCut.getHDU(i);
-            final Header headerHDU = basicHDU.getHeader();
-            if (headerHDU.containsKey("XTENSION") && "BINTABLE".equals(headerHDU.getStringValue("XTENSION"))) {
-                binaryHdu = (BinaryTableHDU) basicHDU;
-                break;
-            }
-        }
-        if (Utility.isSet(binaryHdu)) {
-            return binaryHdu;
-        } else {
-            throw new FitsException("binaryHdu not found");
-        }
-    }
-
     private BasicHDU createPrimaryHDU(File filename, double cdelt1, double cdelt2, double[] fov, double rotation) throws HeaderCardException, FitsException {
         final Header hdr = new Header();
         hdr.addValue("SIMPLE", "T", "");
@@ -186,148 +157,134 @@ public class HealpixMap implements CutOutInterface {
         return hduExt;
     }
 
+    /**
+     * Computes the Healpix pixel of each pixel of the cutout.
+     *
+     * <p>The pixels are the same for all the columns of the map.</p>
+     *
+     * @param index Healpix index of the map
+     * @return the Healpix pixels, [y][x]
+     * @throws IllegalAccessException if the coordinate system is not supported
+     * @throws Exception Healpix Exception
+     */
+    private long[][] computeHealpixPixels(final HealpixIndex index) throws IllegalAccessException, Exception {
+        final long[][] pixels = new long[this.getWcs().getNaxis2()][this.getWcs().getNaxis1()];
+        for (int y = 1; y <= this.getWcs().getNaxis2(); y++) {
+            for (int x = 1; x <= this.getWcs().getNaxis1(); x++) {
+                final Point2D.Double skyPos = this.getWcs().pix2wcs(x, y);
+                switch (getCoordinateSystemInput()) {
+                    case GALACTIC:
+                        break;
+                    case EQUATORIAL:
+                        final AstroCoordinate astro = new AstroCoordinate(skyPos.getX(), skyPos.getY());
+                        astro.processTo(AstroCoordinate.CoordinateSystem.GALACTIC);
+                        skyPos.setLocation(astro.getRaAsDecimal(), astro.getDecAsDecimal());
+                        break;
+                    default:
+                        throw new IllegalAccessException(getCoordinateSystemInput() + " is not supported");
+                }
+                pixels[y - 1][x - 1] = index.ang2pix(new Pointing(Math.PI / 2.0 - Math.toRadians(skyPos.getY()), Math.toRadians(skyPos.getX())));
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Returns true when the values of an integer column are scaled by TSCAL/TZERO or have a TNULL value.
+     *
+     * <p>The column returns the physical values, NaN for TNULL, so the cutout cannot be stored as integers.</p>
+     *
+     * @param hdr header of the binary table
+     * @param col column number, starting at 0
+     * @return true when the column must be stored as floating point values
+     */
+    private static boolean isScaled(final Header hdr, final int col) {
+        final String suffix = String.valueOf(col + 1);
+        return hdr.getDoubleValue("TSCAL" + suffix, 1.0) != 1.0 || hdr.getDoubleValue("TZERO" + suffix, 0.0) != 0.0
+                || hdr.containsKey("TNULL" + suffix);
+    }
+
+    /**
+     * Computes the cutout, one extension per column of the map.
+     *
+     * <p>The columns are read from the file mapped in memory, so that only the
+     * pages of the file that contain the pixels of the cutout are read. The
+     * integer columns scaled by TSCAL/TZERO or with a TNULL value are written as
+     * float or double images, with NaN for the TNULL pixels.</p>
+     *
+     * @return the cutout
+     * @throws FitsException FITS error
+     * @throws IllegalAccessException if a format or the coordinate system is not supported
+     * @throws Exception Healpix Exception
+     */
     public Fits compute() throws FitsException, IllegalAccessException, Exception {
         final Fits fitsOutput = new Fits();
-        final Header hdr = getHdu().getHeader();
+        final Header hdr = getReader().getHeader();
         final String pixType = (hdr.containsKey("PIXTYPE")) ? hdr.getStringValue("PIXTYPE") : "NONE";
         if (!pixType.equals("HEALPIX")) {
             throw new CutOutException(getFile() + " is not a Healpix Map");
         }
-        final String ordering = (hdr.containsKey("ORDERING")) ? hdr.getStringValue("ORDERING") : "NESTED";
-        final int nbCols = getHdu().getNCols();
-        final int nside = hdr.getIntValue("NSIDE");
+        final int nbCols = getReader().getNCols();
         final double notANumber = (hdr.containsKey("BAD_DATA")) ? hdr.getDoubleValue("BAD_DATA") : Double.NaN;
-        final HealpixIndex index = new HealpixIndex(nside, Scheme.valueOf(ordering));
+        final HealpixIndex index = new HealpixIndex((int) getReader().getNside(), getReader().getScheme());
         fitsOutput.addHDU(createPrimaryHDU(getFile(), getCdelt1(), getCdelt2(), getFovCoordinates(), getRotation()));
+        final long[][] pixels = computeHealpixPixels(index);
+        final int naxis1 = this.getWcs().getNaxis1();
+        final int naxis2 = this.getWcs().getNaxis2();
         Object data;
 
         for (int col = 0; col < nbCols; col++) {
-            final String name = getHdu().getColumnName(col);
-            final String format = getHdu().getColumnFormat(col);
-            final String unit = getHdu().getColumnMeta(col, "TUNIT");
-            if ("I".equals(format)) {
-                short[][] dataShort = new short[this.getWcs().getNaxis2()][this.getWcs().getNaxis1()];
-                for (int y = 1; y <= this.getWcs().getNaxis2(); y++) {
-                    for (int x = 1; x <= this.getWcs().getNaxis1(); x++) {
-                        final Point2D.Double skyPos = this.getWcs().pix2wcs(x, y);
-                        switch (getCoordinateSystemInput()) {
-                            case GALACTIC:
-                                break;
-                            case EQUATORIAL:
-                                AstroCoordinate astro = new AstroCoordinate(skyPos.getX(), skyPos.getY());
-                                astro.processTo(AstroCoordinate.CoordinateSystem.GALACTIC);
-                                skyPos.setLocation(astro.getRaAsDecimal(), astro.getDecAsDecimal());
-                                break;
-                            default:
-                                throw new IllegalAccessException(getCoordinateSystemInput() + " is not supported");
-                        }
-                        final long healpixPixel = index.ang2pix(new Pointing(Math.PI / 2.0 - Math.toRadians(skyPos.getY()), Math.toRadians(skyPos.getX())));
-                        final Object[] row = this.getHdu().getRow((int) healpixPixel);
-                        final short[] val = (short[]) row[col];
-                        dataShort[y - 1][x - 1] = val[0];
+            final String name = getReader().getColumnName(col);
+            final char type = getReader().getColumnType(col);
+            final String unit = getReader().getColumnUnit(col);
+            final MapColumn column = getReader().map(col);
+            final boolean isScaled = isScaled(hdr, col);
+            if (type == 'I' && !isScaled) {
+                final short[][] dataShort = new short[naxis2][naxis1];
+                for (int y = 0; y < naxis2; y++) {
+                    for (int x = 0; x < naxis1; x++) {
+                        dataShort[y][x] = (short) column.get(pixels[y][x]);
                     }
                 }
                 data = dataShort;
-                fitsOutput.addHDU(createExtension(data, name, unit, getWcs()));
-            } else if ("J".equals(format)) {
-                int[][] dataInt = new int[this.getWcs().getNaxis2()][this.getWcs().getNaxis1()];
-                for (int y = 1; y <= this.getWcs().getNaxis2(); y++) {
-                    for (int x = 1; x <= this.getWcs().getNaxis1(); x++) {
-                        final Point2D.Double skyPos = this.getWcs().pix2wcs(x, y);
-                        switch (getCoordinateSystemInput()) {
-                            case GALACTIC:
-                                break;
-                            case EQUATORIAL:
-                                final AstroCoordinate astro = new AstroCoordinate(skyPos.getX(), skyPos.getY());
-                                astro.processTo(AstroCoordinate.CoordinateSystem.GALACTIC);
-                                skyPos.setLocation(astro.getRaAsDecimal(), astro.getDecAsDecimal());
-                                break;
-                            default:
-                                throw new IllegalAccessException(getCoordinateSystemInput() + " is not supported");
-                        }
-                        final long healpixPixel = index.ang2pix(new Pointing(Math.PI / 2.0 - Math.toRadians(skyPos.getY()), Math.toRadians(skyPos.getX())));
-                        final Object[] row = this.getHdu().getRow((int) healpixPixel);
-                        final int[] val = (int[]) row[col];
-                        dataInt[y - 1][x - 1] = val[0];
+            } else if (type == 'J' && !isScaled) {
+                final int[][] dataInt = new int[naxis2][naxis1];
+                for (int y = 0; y < naxis2; y++) {
+                    for (int x = 0; x < naxis1; x++) {
+                        dataInt[y][x] = (int) column.get(pixels[y][x]);
                     }
                 }
                 data = dataInt;
-                fitsOutput.addHDU(createExtension(data, name, unit, getWcs()));
-            } else if ("K".equals(format)) {
-                long[][] dataLong = new long[this.getWcs().getNaxis2()][this.getWcs().getNaxis1()];
-                for (int y = 1; y <= this.getWcs().getNaxis2(); y++) {
-                    for (int x = 1; x <= this.getWcs().getNaxis1(); x++) {
-                        final Point2D.Double skyPos = this.getWcs().pix2wcs(x, y);
-                        switch (getCoordinateSystemInput()) {
-                            case GALACTIC:
-                                break;
-                            case EQUATORIAL:
-                                AstroCoordinate astro = new AstroCoordinate(skyPos.getX(), skyPos.getY());
-                                astro.processTo(AstroCoordinate.CoordinateSystem.GALACTIC);
-                                skyPos.setLocation(astro.getRaAsDecimal(), astro.getDecAsDecimal());
-                                break;
-                            default:
-                                throw new IllegalAccessException(getCoordinateSystemInput() + " is not supported");
-                        }
-                        final long healpixPixel = index.ang2pix(new Pointing(Math.PI / 2.0 - Math.toRadians(skyPos.getY()), Math.toRadians(skyPos.getX())));
-                        final Object[] row = this.getHdu().getRow((int) healpixPixel);
-                        final long[] val = (long[]) row[col];
-                        dataLong[y - 1][x - 1] = val[0];
+            } else if (type == 'K' && !isScaled) {
+                final long[][] dataLong = new long[naxis2][naxis1];
+                for (int y = 0; y < naxis2; y++) {
+                    for (int x = 0; x < naxis1; x++) {
+                        dataLong[y][x] = (long) column.get(pixels[y][x]);
                     }
                 }
                 data = dataLong;
-                fitsOutput.addHDU(createExtension(data, name, unit, getWcs()));
-            } else if ("E".equals(format)) {
-                float[][] dataFloat = new float[this.getWcs().getNaxis2()][this.getWcs().getNaxis1()];
-                for (int y = 1; y <= this.getWcs().getNaxis2(); y++) {
-                    for (int x = 1; x <= this.getWcs().getNaxis1(); x++) {
-                        final Point2D.Double skyPos = this.getWcs().pix2wcs(x, y);
-                        switch (getCoordinateSystemInput()) {
-                            case GALACTIC:
-                                break;
-                            case EQUATORIAL:
-                                AstroCoordinate astro = new AstroCoordinate(skyPos.getX(), skyPos.getY());
-                                astro.processTo(AstroCoordinate.CoordinateSystem.GALACTIC);
-                                skyPos.setLocation(astro.getRaAsDecimal(), astro.getDecAsDecimal());
-                                break;
-                            default:
-                                throw new IllegalAccessException(getCoordinateSystemInput() + " is not supported");
-                        }
-                        final long healpixPixel = index.ang2pix(new Pointing(Math.PI / 2.0 - Math.toRadians(skyPos.getY()), Math.toRadians(skyPos.getX())));
-                        final Object[] row = this.getHdu().getRow((int) healpixPixel);
-                        final float[] val = (float[]) row[col];
-                        dataFloat[y - 1][x - 1] = (val[0] == notANumber) ? Float.NaN : val[0];
+            } else if (type == 'E' || (isScaled && !column.isDoublePrecision())) {
+                final float[][] dataFloat = new float[naxis2][naxis1];
+                for (int y = 0; y < naxis2; y++) {
+                    for (int x = 0; x < naxis1; x++) {
+                        final double val = column.get(pixels[y][x]);
+                        dataFloat[y][x] = (val == notANumber) ? Float.NaN : (float) val;
                     }
                 }
                 data = dataFloat;
-                fitsOutput.addHDU(createExtension(data, name, unit, getWcs()));
-            } else if ("D".equals(format)) {
-                double[][] dataDouble = new double[this.getWcs().getNaxis2()][this.getWcs().getNaxis1()];
-                for (int y = 1; y <= this.getWcs().getNaxis2(); y++) {
-                    for (int x = 1; x <= this.getWcs().getNaxis1(); x++) {
-                        final Point2D.Double skyPos = this.getWcs().pix2wcs(x, y);
-                        switch (getCoordinateSystemInput()) {
-                            case GALACTIC:
-                                break;
-                            case EQUATORIAL:
-                                AstroCoordinate astro = new AstroCoordinate(skyPos.getX(), skyPos.getY());
-                                astro.processTo(AstroCoordinate.CoordinateSystem.GALACTIC);
-                                skyPos.setLocation(astro.getRaAsDecimal(), astro.getDecAsDecimal());
-                                break;
-                            default:
-                                throw new IllegalAccessException(getCoordinateSystemInput() + " is not supported");
-                        }
-                        final long healpixPixel = index.ang2pix(new Pointing(Math.PI / 2.0 - Math.toRadians(skyPos.getY()), Math.toRadians(skyPos.getX())));
-                        final Object[] row = this.getHdu().getRow((int) healpixPixel);
-                        final double[] val = (double[]) row[col];
-                        dataDouble[y - 1][x - 1] = (val[0] == notANumber) ? Double.NaN : val[0];
+            } else if (type == 'D' || isScaled) {
+                final double[][] dataDouble = new double[naxis2][naxis1];
+                for (int y = 0; y < naxis2; y++) {
+                    for (int x = 0; x < naxis1; x++) {
+                        final double val = column.get(pixels[y][x]);
+                        dataDouble[y][x] = (val == notANumber) ? Double.NaN : val;
                     }
                 }
                 data = dataDouble;
-                fitsOutput.addHDU(createExtension(data, name, unit, getWcs()));
             } else {
-                throw new IllegalAccessException("Format " + format + "is not supported");
+                throw new IllegalAccessException("Format " + getReader().getColumnFormat(col) + " is not supported");
             }
+            fitsOutput.addHDU(createExtension(data, name, unit, getWcs()));
         }
         return fitsOutput;
     }
@@ -396,17 +353,17 @@ public class HealpixMap implements CutOutInterface {
     }
 
     /**
-     * @return the hdu
+     * @return the reader
      */
-    protected final BinaryTableHDU getHdu() {
-        return hdu;
+    protected final FitsHealpixMapReader getReader() {
+        return reader;
     }
 
     /**
-     * @param hdu the hdu to set
+     * @param reader the reader to set
      */
-    protected final void setHdu(final BinaryTableHDU hdu) {
-        this.hdu = hdu;
+    protected final void setReader(final FitsHealpixMapReader reader) {
+        this.reader = reader;
     }
 
     /**
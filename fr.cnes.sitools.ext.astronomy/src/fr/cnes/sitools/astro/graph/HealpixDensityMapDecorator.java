@@ -18,7 +18,6 @@
  ******************************************************************************/
 package fr.cnes.sitools.astro.graph;
 
-import healpix.core.HealpixIndex;
 import healpix.essentials.HealpixMapDouble;
 import healpix.essentials.Scheme;
 import healpix.essentials.Vec3;
@@ -68,6 +67,10 @@ public class HealpixDensityMapDecorator extends HealpixGridDecorator {
    * Logger.
    */
   private static final Logger LOG = Engine.getLogger(HealpixDensityMapDecorator.class.getName());
+  /**
+   * Number of colors of the color map used in raster mode.
+   */
+  private static final int COLOR_MAP_SIZE = 256;
   /**
    * Map that stores the density map.
    */
@@ -177,38 +180,111 @@ public class HealpixDensityMapDecorator extends HealpixGridDecorator {
   }
 
   /**
-   * Draws a Healpix polygon.
+   * Draws the density map.
    *
    * @param graphic2D graphic to decorate
-   * @param healpix Healpix index
-   * @param pix Healpix pixel to draw
-   * @param coordinateTransformation Coordinate Transformation to apply
+   * @param color not used, the color of each pixel depends on its density
    */
   @Override
-  protected void drawHealpixPolygon(final Graphics2D graphic2D, final HealpixIndex healpix, final long pix, final CoordinateTransformation coordinateTransformation) {
+  protected void drawPixels(final Graphics2D graphic2D, final Color color) {
+    // no order and no NESTED scheme when nside is not a power of 2 : neither the raster mode
+    // nor the outline cache can be used
+    if (getHealpixMapDouble().getOrder() < 0) {
+      final HealpixMapDouble map = getHealpixMapDouble();
+      for (long pix = 0; pix < map.getNpix(); pix++) {
+        drawDensityPolygon(graphic2D, pix);
+      }
+      return;
+    }
+    if (getPaintMode() == PaintMode.RASTER) {
+      drawRaster(graphic2D);
+      return;
+    }
+    try {
+      final HealpixMapDouble map = getHealpixMapDouble();
+      final int npix = (int) map.getNpix();
+      final long[] pixelsNested = new long[npix];
+      final int[] colors = new int[npix];
+      final boolean isRing = Scheme.RING.equals(map.getScheme());
+      for (int pix = 0; pix < npix; pix++) {
+        pixelsNested[pix] = isRing ? map.ring2nest(pix) : pix;
+        colors[pix] = colorGradient(map.getPixel(pix), getMinValue(), getMaxValue()).getRGB();
+      }
+      final HealpixGridRenderer renderer = HealpixGridRenderer.getInstance();
+      final PixelOutline[] outlines = renderer.getOutlines(this, map.getOrder(), pixelsNested);
+      renderer.render(graphic2D, getPixelWidth(), getPixelHeight(), outlines, colors, true, null);
+    } catch (Exception ex) {
+      LOG.log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Draws a Healpix polygon filled with the color of its density.
+   *
+   * @param graphic2D graphic to decorate
+   * @param pix Healpix pixel to draw in the scheme of the density map
+   */
+  private void drawDensityPolygon(final Graphics2D graphic2D, final long pix) {
     try {
-      final int numberOfVectors = computeNumberPointsForPixel(getHealpixMapDouble().getNside(), pix);
-      final Vec3[] vectors = getHealpixMapDouble().boundaries(pix, numberOfVectors);
-      computeReferenceFrameTransformation(vectors, coordinateTransformation);
+      final HealpixMapDouble map = getHealpixMapDouble();
+      final int numberOfVectors = computeNumberPointsForPixel(map.getNside(), pix);
+      final Vec3[] vectors = map.boundaries(pix, numberOfVectors);
+      computeReferenceFrameTransformation(vectors, getCoordinateTransformation());
       final Coordinates[] coordinates = splitHealpixPixelForDetectedBorder(vectors);
+      final Color color = colorGradient(map.getPixel(pix), getMinValue(), getMaxValue());
       final Polygon2D poly = new Polygon2D();
+      graphic2D.setPaint(color);
       for (int i = 0; i < coordinates.length; i++) {
-        final Coordinates coordinate = coordinates[i];
-        final List<Point2D.Double> pixels = coordinate.getPixelsFromProjection(this.getProjection(), getRange(), getPixelWidth(), getPixelHeight());
-        final double numberOfObjectsInCurrentPixel = getHealpixMapDouble().getPixel(pix);
-        final Color color = colorGradient(numberOfObjectsInCurrentPixel, getMinValue(), getMaxValue());
-        if (color != null) {
-          graphic2D.setPaint(color);
-          poly.setPoints(pixels);
-          graphic2D.draw(poly);
-          graphic2D.fill(poly);
-        }
+        final List<Point2D.Double> pixels = coordinates[i].getPixelsFromProjection(this.getProjection(), getRange(), getPixelWidth(), getPixelHeight());
+        poly.setPoints(pixels);
+        graphic2D.draw(poly);
+        graphic2D.fill(poly);
       }
     } catch (Exception ex) {
       LOG.log(Level.SEVERE, null, ex);
     }
   }
 
+  /**
+   * Draws the density map in raster mode.
+   *
+   * <p>The densities are converted to colors by a lookup table sampling {@link #colorGradient}.</p>
+   *
+   * @param graphic2D graphic to decorate
+   */
+  private void drawRaster(final Graphics2D graphic2D) {
+    final HealpixMapDouble map = getHealpixMapDouble();
+    final boolean isRing = Scheme.RING.equals(map.getScheme());
+    final double min = getMinValue();
+    final double max = getMaxValue();
+    final double binSize = (max - min) / COLOR_MAP_SIZE;
+    final int[] colorMap = new int[COLOR_MAP_SIZE];
+    for (int i = 0; i < COLOR_MAP_SIZE; i++) {
+      colorMap[i] = colorGradient(min + (i + 0.5) * binSize, min, max).getRGB();
+    }
+    final int noDensityColor = colorGradient(0, min, max).getRGB();
+    try {
+      HealpixGridRenderer.getInstance().renderRaster(graphic2D, this, map.getOrder(), new HealpixGridRenderer.PixelColorMap() {
+        @Override
+        public int getArgb(final long nestedPixel) {
+          final double density;
+          try {
+            density = map.getPixel(isRing ? map.nest2ring(nestedPixel) : nestedPixel);
+          } catch (Exception ex) {
+            throw new GraphRuntimeException(ex);
+          }
+          if (density <= 0) {
+            return noDensityColor;
+          }
+          final int index = (binSize > 0) ? (int) ((density - min) / binSize) : 0;
+          return colorMap[Math.max(0, Math.min(COLOR_MAP_SIZE - 1, index))];
+        }
+      });
+    } catch (Exception ex) {
+      LOG.log(Level.SEVERE, null, ex);
+    }
+  }
+
   /**
    * Returns a color gradient based on HSB scale.
    * 
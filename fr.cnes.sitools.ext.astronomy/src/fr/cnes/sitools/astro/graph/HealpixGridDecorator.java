@@ -20,6 +20,7 @@ package fr.cnes.sitools.astro.graph;
 
 import healpix.core.AngularPosition;
 import healpix.core.HealpixIndex;
+import healpix.essentials.HealpixBase;
 import healpix.essentials.Pointing;
 import healpix.essentials.RangeSet;
 import healpix.essentials.Scheme;
@@ -32,15 +33,20 @@ import java.awt.Composite;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.restlet.engine.Engine;
 
+import com.jhlabs.map.proj.Projection;
+
 /**
  * This object provides methods for decorate a graph by a grid.
  *
+ * <p>The projected pixels are computed and drawn by the shared {@link HealpixGridRenderer}.</p>
+ *
  * <p>Here is a code to illustrate how to use it:<br/>
  * <pre>
  * <code>
@@ -114,10 +120,6 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
    * Color of this decorator.
    */
   private Color color;
-  /**
-   * Initialize a pixel side.
-   */
-  private transient PixelSide pixelSide = PixelSide.LEFT;
   /**
    * Initialize a coordinate transformation.
    */
@@ -126,6 +128,10 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
    * Debug mode.
    */
   private boolean debug = false;
+  /**
+   * Painting of the filled pixels.
+   */
+  private PaintMode paintMode = PaintMode.VECTOR;
 
   /**
    * Returns if the grid is in debug mode.
@@ -231,6 +237,44 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
     public int getTransformationCode() {
       return this.transformationCode;
     }
+
+    /**
+     * Returns the inverse transformation.
+     * @return the inverse transformation
+     */
+    public CoordinateTransformation getInverse() {
+      switch (this) {
+        case EQ2GAL:
+          return GAL2EQ;
+        case GAL2EQ:
+          return EQ2GAL;
+        case EQ2ECL:
+          return ECL2EQ;
+        case ECL2EQ:
+          return EQ2ECL;
+        case ECL2GAL:
+          return GAL2ECL;
+        case GAL2ECL:
+          return ECL2GAL;
+        default:
+          return NATIVE;
+      }
+    }
+  }
+
+  /**
+   * Painting of the filled Healpix pixels.
+   */
+  public enum PaintMode {
+    /**
+     * Each Healpix pixel is projected and filled as a polygon.
+     */
+    VECTOR,
+    /**
+     * Each image pixel is inverse-projected and colored from its Healpix pixel.
+     * The cost depends on the image size instead of the number of Healpix pixels.
+     */
+    RASTER
   }
 
   /**
@@ -290,12 +334,15 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
   }
 
   /**
-   * Set pixel side of a current vector.
+   * Returns the pixel side of a current vector.
    *
    * @param vectors List of vectors from a pixel
    * @param index index of the current vector
+   * @param currentPixelSide pixel side of the previous vector
+   * @return the pixel side of the current vector
    */
-  private void setPixelSide(final Vec3[] vectors, final int index) {
+  private static PixelSide computePixelSide(final Vec3[] vectors, final int index, final PixelSide currentPixelSide) {
+    PixelSide pixelSide = currentPixelSide;
 
     // detect when current vector is not in the region having (rightAscension,declination) = (180,0)
     if (HALF_SPACE.dot(vectors[index]) < 0) {
@@ -303,10 +350,10 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
         final double scalarProduct = NORMAL_HALF_SPACE.dot(vectors[pointIndex]);
         final double val = (scalarProduct >= -EPSILON && scalarProduct <= EPSILON) ? 0 : scalarProduct;
         if (val < 0) {
-          this.pixelSide = PixelSide.RIGHT;
+          pixelSide = PixelSide.RIGHT;
           break;
         } else if (val > 0) {
-          this.pixelSide = PixelSide.LEFT;
+          pixelSide = PixelSide.LEFT;
           break;
         }
       }
@@ -320,19 +367,20 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
           scalarProduct = NORMAL_HALF_SPACE.dot(vectors[pointIndex]);
           val = (scalarProduct >= -EPSILON && scalarProduct <= EPSILON) ? 0 : scalarProduct;
           if (val < 0) {
-            this.pixelSide = PixelSide.RIGHT;
+            pixelSide = PixelSide.RIGHT;
             break;
           } else if (val > 0) {
-            this.pixelSide = PixelSide.LEFT;
+            pixelSide = PixelSide.LEFT;
             break;
           }
         }
       } else if (val < 0) {
-        this.pixelSide = PixelSide.RIGHT;
+        pixelSide = PixelSide.RIGHT;
       } else {
-        this.pixelSide = PixelSide.LEFT;
+        pixelSide = PixelSide.LEFT;
       }
     }
+    return pixelSide;
   }
 
   /**
@@ -343,7 +391,7 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
    */
   protected final Coordinates[] splitHealpixPixelForDetectedBorder(final Vec3[] vectors) {
     final Coordinates[] healpixShape = new Coordinates[]{new Coordinates(), new Coordinates()};    
-    this.pixelSide = PixelSide.LEFT;
+    PixelSide pixelSide = PixelSide.LEFT;
     boolean collision = false;
     //int[] vectorIndexCollision = new int[2];
 
@@ -357,8 +405,8 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
       if (spra < 0) {
         spra += ANGLE_CIRCLE;
       }
-      final PixelSide originalPixelSide = this.pixelSide;
-      setPixelSide(vectors, i);
+      final PixelSide originalPixelSide = pixelSide;
+      pixelSide = computePixelSide(vectors, i, pixelSide);
       if (!originalPixelSide.equals(pixelSide) && i != 0) {
         // we change the pixel Side
         //vectorIndexCollision[originalPixelSide.getCode()] = i;
@@ -405,12 +453,29 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
     try {
       final HealpixIndex healpixRing = new HealpixIndex(getHealpixBase().getNside(), Scheme.RING);
       final RangeSet rangePixelsRing = healpixRing.queryStrip(Math.toRadians(MAX_LAT - Graph.LAT_MAX), Math.toRadians(MAX_LAT - Graph.LAT_MIN), true);
+      if (healpixRing.getOrder() < 0) {
+        // no NESTED scheme when nside is not a power of 2 : the outlines cannot be cached
+        final RangeSet.ValueIterator iter = rangePixelsRing.valueIterator();
+        while (iter.hasNext()) {
+          drawHealpixPolygon(graphic2D, healpixRing, iter.next(), getCoordinateTransformation());
+        }
+        return;
+      }
+      final long[] pixelsNested = new long[(int) rangePixelsRing.nval()];
+      final String[] labels = isDebug() ? new String[pixelsNested.length] : null;
       final RangeSet.ValueIterator iter = rangePixelsRing.valueIterator();
+      int index = 0;
       while (iter.hasNext()) {
         final long pixelRing = iter.next();
-        final long pixelNested = healpixRing.ring2nest(pixelRing);
-        drawHealpixPolygon(graphic2D, getHealpixBase(), pixelNested, getCoordinateTransformation());
+        pixelsNested[index] = healpixRing.ring2nest(pixelRing);
+        if (labels != null) {
+          labels[index] = String.valueOf(Scheme.RING.equals(getHealpixBase().getScheme()) ? pixelRing : pixelsNested[index]);
+        }
+        index++;
       }
+      final HealpixGridRenderer renderer = HealpixGridRenderer.getInstance();
+      final PixelOutline[] outlines = renderer.getOutlines(this, healpixRing.getOrder(), pixelsNested);
+      renderer.render(graphic2D, getPixelWidth(), getPixelHeight(), outlines, null, false, labels);
     } catch (Exception ex) {
       LOG.log(Level.FINER, null, ex);
     }
@@ -466,6 +531,88 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
     return (numberOfStep == 0) ? 1 : numberOfStep;
   }
 
+  /**
+   * Computes the projected outline of a Healpix pixel on this graph.
+   *
+   * <p>This method is thread-safe: it only depends on the projection, the range, the image size
+   * and the coordinate transformation of the graph.</p>
+   *
+   * @param healpix Healpix index in NESTED scheme
+   * @param pix pixel in NESTED scheme
+   * @param projection projection to use (a copy of the graph projection)
+   * @return the projected outline
+   * @throws GraphException when the outline cannot be computed
+   */
+  protected final PixelOutline computePixelOutline(final HealpixIndex healpix, final long pix, final Projection projection) throws GraphException {
+    try {
+      final int numberOfVectors = computeNumberPointsForPixel(healpix.getNside(), pix);
+      final Vec3[] vectors = healpix.boundaries(pix, numberOfVectors);
+      computeReferenceFrameTransformation(vectors, getCoordinateTransformation());
+      final Coordinates[] shapes = splitHealpixPixelForDetectedBorder(vectors);
+      final List<List<Point2D.Double>> projectedShapes = new ArrayList<List<Point2D.Double>>(shapes.length);
+      Point2D.Double labelPosition = null;
+      for (int i = 0; i < shapes.length; i++) {
+        final List<Point2D.Double> pixels = shapes[i].getPixelsFromProjection(projection, getRange(), getPixelWidth(), getPixelHeight());
+        projectedShapes.add(pixels);
+        if (labelPosition == null && !pixels.isEmpty()) {
+          labelPosition = shapes[i].getPixelCenterFromProjection(projection, getRange(), getPixelWidth(), getPixelHeight());
+        }
+      }
+      return PixelOutline.create(projectedShapes, labelPosition);
+    } catch (GraphException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new GraphException(ex);
+    }
+  }
+
+  /**
+   * Computes the NESTED Healpix pixel seen by each image pixel of a band of rows.
+   *
+   * <p>The center of each image pixel is inverse-projected and converted back to the frame of
+   * the Healpix pixels. Image pixels outside the projection are set to -1. Like
+   * {@link #computePixelOutline(HealpixIndex, long, Projection)}, this method is thread-safe.</p>
+   *
+   * @param healpix Healpix base in NESTED scheme
+   * @param projection projection to use (a copy of the graph projection)
+   * @param yMin first row
+   * @param yMax last row (excluded)
+   * @param pixels NESTED pixel of each image pixel, row after row from the top of the image
+   * @throws GraphException when the Healpix pixels cannot be computed
+   */
+  protected final void computeSkyPixels(final HealpixBase healpix, final Projection projection, final int yMin, final int yMax, final long[] pixels) throws GraphException {
+    final int width = getPixelWidth();
+    final InverseProjection inverseProjection = new InverseProjection(projection, getRange(), width, getPixelHeight());
+    final CoordinateTransformation inverseTransformation = getCoordinateTransformation().getInverse();
+    final double[] longitudes = new double[width];
+    final double[] latitudes = new double[width];
+    try {
+      for (int y = yMin; y < yMax; y++) {
+        inverseProjection.inverseRow(y, longitudes, latitudes);
+        for (int x = 0; x < width; x++) {
+          if (Double.isNaN(longitudes[x])) {
+            pixels[y * width + x] = -1;
+            continue;
+          }
+          // inverse of the longitude convention of Coordinates#getPixelsFromProjection
+          final double longitude = Math.toDegrees(longitudes[x]);
+          double rightAscension = (longitude <= 0) ? -longitude : ANGLE_CIRCLE - longitude;
+          double declination = Math.toDegrees(latitudes[x]);
+          if (!inverseTransformation.equals(CoordinateTransformation.NATIVE)) {
+            final AngularPosition angularPosition = CoordTransform.transformInDeg(new AngularPosition(declination, rightAscension),
+                    inverseTransformation.getTransformationCode());
+            rightAscension = angularPosition.phi();
+            declination = angularPosition.theta();
+          }
+          pixels[y * width + x] = healpix.ang2pix(new Pointing((MAX_LAT - declination) * Math.PI / ANGLE_HALF_CIRCLE,
+                  rightAscension * Math.PI / ANGLE_HALF_CIRCLE));
+        }
+      }
+    } catch (Exception ex) {
+      throw new GraphException(ex);
+    }
+  }
+
   /**
    * Draws Healpix.
    * 
@@ -570,4 +717,25 @@ public class HealpixGridDecorator extends AbstractGraphDecorator {
   public final void setCoordinateTransformation(final CoordinateTransformation coordinateTransformationVal) {
     this.coordinateTransformation = coordinateTransformationVal;
   }
+
+  /**
+   * Returns the painting of the filled pixels.
+   *
+   * @return the paint mode
+   */
+  public final PaintMode getPaintMode() {
+    return paintMode;
+  }
+
+  /**
+   * Sets the painting of the filled pixels.
+   *
+   * <p>Only the decorators filling the Healpix pixels (MOC and density map) use it,
+   * the grid is always drawn as polygons. {@link PaintMode#VECTOR} is the default.</p>
+   *
+   * @param paintModeVal the paint mode
+   */
+  public final void setPaintMode(final PaintMode paintModeVal) {
+    this.paintMode = paintModeVal;
+  }
 }
@@ -0,0 +1,751 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.graph;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.HealpixBase;
+import healpix.essentials.Scheme;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.engine.Engine;
+
+import com.jhlabs.map.proj.Projection;
+
+/**
+ * Renders Healpix pixels on a graph in parallel strips.
+ *
+ * <p>The projected outline of a Healpix pixel only depends on the order, the projection,
+ * the coordinate transformation and the image size. Outlines are then computed once and
+ * cached for each combination of these parameters. The cache is shared by all the
+ * Healpix decorators (grid, MOC and density map). It is bounded by the number of
+ * combinations and by the estimated size of all the cached outlines: the least recently
+ * used combinations are removed first.</p>
+ *
+ * <p>The rendering splits the image in horizontal strips. Each strip is drawn on its own
+ * image by a worker thread, then the strips are merged on the graph.</p>
+ *
+ * <p>Filled pixels can also be painted in raster mode: the Healpix pixel seen by each image
+ * pixel is computed once at the deepest order and cached, then each image pixel is colored
+ * from its Healpix pixel directly in the image buffer.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class HealpixGridRenderer {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Engine.getLogger(HealpixGridRenderer.class.getName());
+  /**
+   * Default number of outline sets kept in memory.
+   */
+  public static final int DEFAULT_CACHE_SIZE = 16;
+  /**
+   * Default max estimated size in bytes of the outlines kept in memory for all the outline sets.
+   */
+  public static final long DEFAULT_MAX_CACHED_BYTES = 64L << 20;
+  /**
+   * Default number of sky pixel maps kept in memory.
+   */
+  public static final int DEFAULT_SKY_CACHE_SIZE = 4;
+  /**
+   * Number of pixels computed by a task.
+   */
+  private static final int OUTLINE_BATCH_SIZE = 1024;
+  /**
+   * Estimated size in bytes of an entry of an outline set without its outline.
+   */
+  private static final int ENTRY_SIZE = 48;
+  /**
+   * Shared renderer.
+   */
+  private static HealpixGridRenderer instance = null;
+  /**
+   * Worker threads.
+   */
+  private final ExecutorService executor;
+  /**
+   * Number of strips (and of threads).
+   */
+  private final int nbStrips;
+  /**
+   * Max number of outline sets kept in memory.
+   */
+  private final int cacheSize;
+  /**
+   * Max estimated size in bytes of the outlines kept in memory.
+   */
+  private final long maxCachedBytes;
+  /**
+   * Outline sets, in LRU order.
+   */
+  private final Map<OutlineKey, OutlineSet> cache;
+  /**
+   * Estimated size in bytes of the outlines kept in <code>cache</code>.
+   */
+  private long cachedBytes = 0;
+  /**
+   * NESTED pixel at the deepest order seen by each image pixel, in LRU order.
+   */
+  private final Map<OutlineKey, long[]> skyPixelsCache;
+
+  /**
+   * Constructs a renderer.
+   *
+   * @param nbThreads number of threads (and of strips)
+   * @param cacheSizeVal number of outline sets kept in memory
+   * @param maxCachedBytesVal max estimated size in bytes of the outlines kept in memory for all the outline sets
+   */
+  public HealpixGridRenderer(final int nbThreads, final int cacheSizeVal, final long maxCachedBytesVal) {
+    if (nbThreads < 1 || cacheSizeVal < 1) {
+      throw new IllegalArgumentException("nbThreads and cacheSize must be positive");
+    }
+    this.nbStrips = nbThreads;
+    this.cacheSize = cacheSizeVal;
+    this.maxCachedBytes = maxCachedBytesVal;
+    this.executor = Executors.newFixedThreadPool(nbThreads, new RendererThreadFactory());
+    this.cache = new LinkedHashMap<OutlineKey, OutlineSet>(cacheSizeVal + 1, 0.75f, true);
+    this.skyPixelsCache = new LinkedHashMap<OutlineKey, long[]>(DEFAULT_SKY_CACHE_SIZE, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<OutlineKey, long[]> eldest) {
+        return size() > DEFAULT_SKY_CACHE_SIZE;
+      }
+    };
+  }
+
+  /**
+   * Returns the shared renderer.
+   *
+   * @return the shared renderer
+   */
+  public static synchronized HealpixGridRenderer getInstance() {
+    if (instance == null) {
+      instance = new HealpixGridRenderer(Runtime.getRuntime().availableProcessors(), DEFAULT_CACHE_SIZE, DEFAULT_MAX_CACHED_BYTES);
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the outlines of NESTED pixels at a given order for a decorator.
+   *
+   * <p>The missing outlines are computed in parallel and cached when the cache has room for them.</p>
+   *
+   * @param decorator decorator defining the projection, the frame and the image size
+   * @param order Healpix order
+   * @param nestedPixels pixels in NESTED scheme
+   * @return the outlines, in the same order than the pixels
+   * @throws GraphException when the order is not valid or when the outlines cannot be computed
+   */
+  public PixelOutline[] getOutlines(final HealpixGridDecorator decorator, final int order, final long[] nestedPixels) throws GraphException {
+    checkOrder(order);
+    final OutlineSet outlineSet = getOutlineSet(decorator, order);
+    final PixelOutline[] outlines = new PixelOutline[nestedPixels.length];
+    final List<Integer> missing = new ArrayList<Integer>();
+    for (int i = 0; i < nestedPixels.length; i++) {
+      outlines[i] = outlineSet.get(nestedPixels[i]);
+      if (outlines[i] == null) {
+        missing.add(i);
+      }
+    }
+    if (!missing.isEmpty()) {
+      final List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int start = 0; start < missing.size(); start += OUTLINE_BATCH_SIZE) {
+        final List<Integer> batch = missing.subList(start, Math.min(start + OUTLINE_BATCH_SIZE, missing.size()));
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws GraphException {
+            final Projection projection = (Projection) decorator.getProjection().clone();
+            final long[] batchPixels = new long[batch.size()];
+            final PixelOutline[] batchOutlines = new PixelOutline[batch.size()];
+            for (int i = 0; i < batchPixels.length; i++) {
+              final int index = batch.get(i);
+              batchPixels[i] = nestedPixels[index];
+              batchOutlines[i] = decorator.computePixelOutline(outlineSet.getHealpixBase(), batchPixels[i], projection);
+              outlines[index] = batchOutlines[i];
+            }
+            store(outlineSet, batchPixels, batchOutlines);
+            return null;
+          }
+        }));
+      }
+      waitFor(futures);
+    }
+    return outlines;
+  }
+
+  /**
+   * Draws outlines on a graphic.
+   *
+   * <p>The strips are drawn with the paint, the stroke, the font and the rendering hints of
+   * <code>graphic2D</code>. Its composite is applied when the strips are merged.</p>
+   *
+   * @param graphic2D graphic to decorate
+   * @param width image width
+   * @param height image height
+   * @param outlines outlines to draw
+   * @param colors ARGB color of each outline or null to use the current paint of <code>graphic2D</code>
+   * @param fill true to fill the outlines
+   * @param labels label of each outline or null
+   * @throws GraphException when the rendering fails
+   */
+  public void render(final Graphics2D graphic2D, final int width, final int height, final PixelOutline[] outlines,
+          final int[] colors, final boolean fill, final String[] labels) throws GraphException {
+    if (width <= 0 || height <= 0 || outlines.length == 0) {
+      return;
+    }
+    final int nbImageStrips = Math.min(nbStrips, height);
+    final int stripHeight = (height + nbImageStrips - 1) / nbImageStrips;
+    final Paint paint = graphic2D.getPaint();
+    final Stroke stroke = graphic2D.getStroke();
+    final RenderingHints hints = graphic2D.getRenderingHints();
+    final Font font = graphic2D.getFont();
+    final int margin = computeStrokeMargin(stroke, height);
+    final List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>();
+    final int[] offsets = new int[nbImageStrips];
+    for (int strip = 0; strip < nbImageStrips; strip++) {
+      final int yMin = strip * stripHeight;
+      final int yMax = Math.min(height, yMin + stripHeight);
+      offsets[strip] = yMin;
+      if (yMin >= yMax) {
+        futures.add(null);
+        continue;
+      }
+      futures.add(executor.submit(new Callable<BufferedImage>() {
+        @Override
+        public BufferedImage call() {
+          final BufferedImage image = new BufferedImage(width, yMax - yMin, BufferedImage.TYPE_INT_ARGB);
+          final Graphics2D stripGraphic = image.createGraphics();
+          try {
+            stripGraphic.setRenderingHints(hints);
+            stripGraphic.setFont(font);
+            stripGraphic.setStroke(stroke);
+            stripGraphic.translate(0, -yMin);
+            stripGraphic.setPaint(paint);
+            for (int i = 0; i < outlines.length; i++) {
+              final PixelOutline outline = outlines[i];
+              if (outline == null || !outline.intersectsStrip(yMin - margin, yMax + margin)) {
+                continue;
+              }
+              if (colors != null) {
+                stripGraphic.setPaint(new Color(colors[i], true));
+              }
+              for (int shape = 0; shape < outline.getNbShapes(); shape++) {
+                stripGraphic.draw(outline.getShape(shape));
+                if (fill) {
+                  stripGraphic.fill(outline.getShape(shape));
+                }
+              }
+              final Point2D.Double label = outline.getLabelPosition();
+              if (labels != null && labels[i] != null && label != null) {
+                stripGraphic.drawString(labels[i], (float) label.x, (float) label.y);
+              }
+            }
+          } finally {
+            stripGraphic.dispose();
+          }
+          return image;
+        }
+      }));
+    }
+    for (int strip = 0; strip < futures.size(); strip++) {
+      final Future<BufferedImage> future = futures.get(strip);
+      if (future != null) {
+        graphic2D.drawImage(get(future), 0, offsets[strip], null);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of rows that a stroke can paint outside the bounds of a shape.
+   *
+   * @param stroke stroke
+   * @param height image height, returned when the stroke is unknown
+   * @return the number of rows
+   */
+  private static int computeStrokeMargin(final Stroke stroke, final int height) {
+    if (!(stroke instanceof BasicStroke)) {
+      return height;
+    }
+    final BasicStroke basicStroke = (BasicStroke) stroke;
+    final float miter = (basicStroke.getLineJoin() == BasicStroke.JOIN_MITER) ? Math.max(1, basicStroke.getMiterLimit()) : 1;
+    // one more row for the antialiasing
+    return (int) Math.ceil(basicStroke.getLineWidth() * miter / 2) + 1;
+  }
+
+  /**
+   * Paints Healpix pixels by coloring each image pixel from the Healpix pixel it shows.
+   *
+   * <p>The cost depends on the image size and not on the number of Healpix pixels.</p>
+   *
+   * @param graphic2D graphic to decorate
+   * @param decorator decorator defining the projection, the frame and the image size
+   * @param order Healpix order of the pixels given to <code>colorMap</code>
+   * @param colorMap color of each Healpix pixel
+   * @throws GraphException when the order is not valid or when the rendering fails
+   */
+  public void renderRaster(final Graphics2D graphic2D, final HealpixGridDecorator decorator, final int order,
+          final PixelColorMap colorMap) throws GraphException {
+    checkOrder(order);
+    final int width = decorator.getPixelWidth();
+    final int height = decorator.getPixelHeight();
+    if (width <= 0 || height <= 0) {
+      return;
+    }
+    final long[] skyPixels = getSkyPixels(decorator);
+    final int shift = 2 * (HealpixBase.order_max - order);
+    final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    final int[] argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    final List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (final int[] rows : splitRows(height)) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          long previousPixel = -1;
+          int previousColor = 0;
+          for (int i = rows[0] * width; i < rows[1] * width; i++) {
+            if (skyPixels[i] < 0) {
+              continue;
+            }
+            final long pixel = skyPixels[i] >>> shift;
+            if (pixel != previousPixel) {
+              previousPixel = pixel;
+              previousColor = colorMap.getArgb(pixel);
+            }
+            argb[i] = previousColor;
+          }
+          return null;
+        }
+      }));
+    }
+    waitFor(futures);
+    graphic2D.drawImage(image, 0, 0, null);
+  }
+
+  /**
+   * Clears the cache.
+   */
+  public void clear() {
+    synchronized (cache) {
+      for (OutlineSet outlineSet : cache.values()) {
+        outlineSet.isEvicted = true;
+      }
+      cache.clear();
+      cachedBytes = 0;
+    }
+    synchronized (skyPixelsCache) {
+      skyPixelsCache.clear();
+    }
+  }
+
+  /**
+   * Returns the number of outline sets in the cache.
+   *
+   * @return the number of outline sets
+   */
+  public int getCacheSize() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * Returns the estimated size in bytes of the cached outlines.
+   *
+   * @return the estimated size in bytes
+   */
+  public long getCachedBytes() {
+    synchronized (cache) {
+      return cachedBytes;
+    }
+  }
+
+  /**
+   * Checks that an order can be used in NESTED scheme.
+   *
+   * <p>There is no order when nside is not a power of 2: the decorators must draw each pixel
+   * by themselves.</p>
+   *
+   * @param order Healpix order
+   * @throws GraphException when the order is not valid
+   */
+  private static void checkOrder(final int order) throws GraphException {
+    if (order < 0 || order > HealpixBase.order_max) {
+      throw new GraphException("Healpix order must be between 0 and " + HealpixBase.order_max + " : " + order);
+    }
+  }
+
+  /**
+   * Returns the outline set of a decorator at an order.
+   *
+   * @param decorator decorator
+   * @param order Healpix order
+   * @return the outline set
+   * @throws GraphException when the Healpix index cannot be created
+   */
+  private OutlineSet getOutlineSet(final HealpixGridDecorator decorator, final int order) throws GraphException {
+    final OutlineKey key = new OutlineKey(order, decorator.getProjection(), decorator.getRange(),
+            decorator.getCoordinateTransformation(), decorator.getPixelWidth(), decorator.getPixelHeight());
+    synchronized (cache) {
+      OutlineSet outlineSet = cache.get(key);
+      if (outlineSet == null) {
+        outlineSet = new OutlineSet(order);
+        cache.put(key, outlineSet);
+        evict(0, outlineSet);
+      }
+      return outlineSet;
+    }
+  }
+
+  /**
+   * Stores outlines in an outline set when the cache has room for them.
+   *
+   * @param outlineSet outline set
+   * @param pixels NESTED pixels
+   * @param outlines outline of each pixel
+   */
+  private void store(final OutlineSet outlineSet, final long[] pixels, final PixelOutline[] outlines) {
+    long size = 0;
+    for (PixelOutline outline : outlines) {
+      size += ENTRY_SIZE + outline.getEstimatedSize();
+    }
+    synchronized (cache) {
+      if (outlineSet.isEvicted || !evict(size, outlineSet)) {
+        return;
+      }
+      for (int i = 0; i < pixels.length; i++) {
+        final PixelOutline previous = outlineSet.outlines.put(pixels[i], outlines[i]);
+        if (previous != null) {
+          size -= ENTRY_SIZE + previous.getEstimatedSize();
+        }
+      }
+      outlineSet.size += size;
+      cachedBytes += size;
+    }
+  }
+
+  /**
+   * Removes the least recently used outline sets while there are more than <code>cacheSize</code> sets
+   * or while <code>size</code> more bytes do not fit in the cache.
+   *
+   * <p>This method must be called with the lock of <code>cache</code>.</p>
+   *
+   * @param size estimated size in bytes to add
+   * @param kept outline set that is not removed
+   * @return true when <code>size</code> more bytes fit in the cache
+   */
+  private boolean evict(final long size, final OutlineSet kept) {
+    final Iterator<OutlineSet> iter = cache.values().iterator();
+    while (cache.size() > cacheSize || cachedBytes + size > maxCachedBytes) {
+      if (!iter.hasNext()) {
+        return false;
+      }
+      final OutlineSet eldest = iter.next();
+      if (eldest != kept) {
+        iter.remove();
+        eldest.isEvicted = true;
+        cachedBytes -= eldest.size;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the NESTED pixel at the deepest order seen by each image pixel of a decorator.
+   *
+   * @param decorator decorator
+   * @return the NESTED pixel of each image pixel or -1 outside the projection
+   * @throws GraphException when the pixels cannot be computed
+   */
+  private long[] getSkyPixels(final HealpixGridDecorator decorator) throws GraphException {
+    final OutlineKey key = new OutlineKey(HealpixBase.order_max, decorator.getProjection(), decorator.getRange(),
+            decorator.getCoordinateTransformation(), decorator.getPixelWidth(), decorator.getPixelHeight());
+    synchronized (skyPixelsCache) {
+      final long[] skyPixels = skyPixelsCache.get(key);
+      if (skyPixels != null) {
+        return skyPixels;
+      }
+    }
+    final HealpixBase healpix;
+    try {
+      healpix = new HealpixBase(HealpixBase.ns_max, Scheme.NESTED);
+    } catch (Exception ex) {
+      throw new GraphException(ex);
+    }
+    final long[] skyPixels = new long[decorator.getPixelWidth() * decorator.getPixelHeight()];
+    final List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (final int[] rows : splitRows(decorator.getPixelHeight())) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws GraphException {
+          final Projection projection = (Projection) decorator.getProjection().clone();
+          decorator.computeSkyPixels(healpix, projection, rows[0], rows[1], skyPixels);
+          return null;
+        }
+      }));
+    }
+    waitFor(futures);
+    synchronized (skyPixelsCache) {
+      skyPixelsCache.put(key, skyPixels);
+    }
+    return skyPixels;
+  }
+
+  /**
+   * Splits the rows of an image in one band per thread.
+   *
+   * @param height image height
+   * @return first and last (excluded) row of each band
+   */
+  private List<int[]> splitRows(final int height) {
+    final int nbBands = Math.min(nbStrips, height);
+    final int bandHeight = (height + nbBands - 1) / nbBands;
+    final List<int[]> bands = new ArrayList<int[]>(nbBands);
+    for (int yMin = 0; yMin < height; yMin += bandHeight) {
+      bands.add(new int[] {yMin, Math.min(height, yMin + bandHeight)});
+    }
+    return bands;
+  }
+
+  /**
+   * Waits for the tasks.
+   *
+   * @param futures tasks
+   * @throws GraphException when a task fails
+   */
+  private static void waitFor(final List<Future<?>> futures) throws GraphException {
+    for (Future<?> future : futures) {
+      get(future);
+    }
+  }
+
+  /**
+   * Returns the result of a task.
+   *
+   * @param <T> result type
+   * @param future task
+   * @return the result
+   * @throws GraphException when the task fails
+   */
+  private static <T> T get(final Future<T> future) throws GraphException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new GraphException(ex);
+    } catch (ExecutionException ex) {
+      LOG.log(Level.FINER, null, ex);
+      throw new GraphException(ex.getCause());
+    }
+  }
+
+  /**
+   * Color of the Healpix pixels painted in raster mode.
+   */
+  public interface PixelColorMap {
+
+    /**
+     * Returns the color of a Healpix pixel.
+     *
+     * <p>This method is called concurrently by the rendering threads.</p>
+     *
+     * @param nestedPixel pixel in NESTED scheme
+     * @return the ARGB color, 0 for a transparent pixel
+     */
+    int getArgb(long nestedPixel);
+  }
+
+  /**
+   * Outlines of the pixels at one order for a given projection, frame and image size.
+   */
+  private static final class OutlineSet {
+
+    /**
+     * NESTED Healpix index at the order.
+     */
+    private final HealpixIndex healpixBase;
+    /**
+     * Outlines by NESTED pixel, written with the lock of the cache.
+     */
+    private final Map<Long, PixelOutline> outlines = new ConcurrentHashMap<Long, PixelOutline>();
+    /**
+     * Estimated size in bytes of the outlines, guarded by the lock of the cache.
+     */
+    private long size = 0;
+    /**
+     * True when the set is removed from the cache, guarded by the lock of the cache.
+     */
+    private boolean isEvicted = false;
+
+    /**
+     * Constructs an outline set.
+     *
+     * @param order Healpix order
+     * @throws GraphException when the Healpix index cannot be created
+     */
+    OutlineSet(final int order) throws GraphException {
+      try {
+        this.healpixBase = new HealpixIndex(1 << order, Scheme.NESTED);
+      } catch (Exception ex) {
+        throw new GraphException(ex);
+      }
+    }
+
+    /**
+     * Returns the NESTED Healpix index.
+     *
+     * @return the NESTED Healpix index
+     */
+    HealpixIndex getHealpixBase() {
+      return healpixBase;
+    }
+
+    /**
+     * Returns the outline of a pixel or null when not computed.
+     *
+     * @param pixel NESTED pixel
+     * @return the outline
+     */
+    PixelOutline get(final long pixel) {
+      return outlines.get(pixel);
+    }
+
+  }
+
+  /**
+   * Key of an outline set.
+   */
+  private static final class OutlineKey {
+
+    /**
+     * Healpix order.
+     */
+    private final int order;
+    /**
+     * Projection class and parameters.
+     */
+    private final String projection;
+    /**
+     * Range of the projection.
+     */
+    private final double[] range;
+    /**
+     * Coordinate transformation.
+     */
+    private final HealpixGridDecorator.CoordinateTransformation frame;
+    /**
+     * Image width.
+     */
+    private final int width;
+    /**
+     * Image height.
+     */
+    private final int height;
+
+    /**
+     * Constructs a key.
+     *
+     * @param orderVal Healpix order
+     * @param projectionVal projection
+     * @param rangeVal range of the projection
+     * @param frameVal coordinate transformation
+     * @param widthVal image width
+     * @param heightVal image height
+     */
+    OutlineKey(final int orderVal, final Projection projectionVal, final double[] rangeVal,
+            final HealpixGridDecorator.CoordinateTransformation frameVal, final int widthVal, final int heightVal) {
+      this.order = orderVal;
+      this.projection = projectionVal.getClass().getName() + " " + projectionVal.getPROJ4Description();
+      this.range = rangeVal.clone();
+      this.frame = frameVal;
+      this.width = widthVal;
+      this.height = heightVal;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof OutlineKey)) {
+        return false;
+      }
+      final OutlineKey other = (OutlineKey) obj;
+      return order == other.order && width == other.width && height == other.height
+              && frame == other.frame && projection.equals(other.projection)
+              && Arrays.equals(range, other.range);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = order;
+      hash = 31 * hash + width;
+      hash = 31 * hash + height;
+      hash = 31 * hash + frame.hashCode();
+      hash = 31 * hash + projection.hashCode();
+      hash = 31 * hash + Arrays.hashCode(range);
+      return hash;
+    }
+  }
+
+  /**
+   * Creates daemon threads for the rendering.
+   */
+  private static final class RendererThreadFactory implements ThreadFactory {
+
+    /**
+     * Thread counter.
+     */
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      final Thread thread = new Thread(runnable, "healpix-renderer-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -18,15 +18,15 @@
  ******************************************************************************/
 package fr.cnes.sitools.astro.graph;
 
-import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
 import healpix.essentials.Scheme;
-import healpix.essentials.Vec3;
 
 import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -63,6 +63,10 @@ public class HealpixMocDecorator extends HealpixGridDecorator {
    * MOC.
    */
   private transient HealpixMoc moc = null;
+  /**
+   * Cells of the MOC at its deepest order, computed when painting in raster mode.
+   */
+  private transient RangeSet mocRanges = null;
   
   /**
    * Constructs a MOC decorator.
@@ -91,6 +95,7 @@ public class HealpixMocDecorator extends HealpixGridDecorator {
    */
   public final void importMoc(final HealpixMoc mocVal) {
     this.moc = mocVal;
+    this.mocRanges = null;
   }
 
   @Override
@@ -105,43 +110,89 @@ public class HealpixMocDecorator extends HealpixGridDecorator {
 
   @Override
   protected void drawPixels(final Graphics2D graphic2D, final Color color) {
-    if (this.moc != null) {
-      graphic2D.setPaint(color);      
+    if (this.moc != null && getPaintMode() == PaintMode.RASTER) {
+      drawRaster(graphic2D, color);
+    } else if (this.moc != null) {
+      graphic2D.setPaint(color);
+      final HealpixGridRenderer renderer = HealpixGridRenderer.getInstance();
+      final List<PixelOutline> outlines = new ArrayList<PixelOutline>();
       final int minOrder = this.moc.getMinLimitOrder();
       final int maxOrder = this.moc.getMaxLimitOrder();
-      for (int i = minOrder; i <= maxOrder; i++) {
-        final long nside = (long) Math.pow(2.0D, (double) i);
-        try {
-          getHealpixBase().setNside(nside);
-        } catch (Exception ex) {
-          throw new GraphRuntimeException(ex);
-        }
-        final Array pixels = this.moc.getArray(i);
-        for (int j = 0; j < pixels.getSize(); j++) {
-          drawHealpixPolygon(graphic2D, getHealpixBase(), pixels.get(j), getCoordinateTransformation());
+      try {
+        for (int i = minOrder; i <= maxOrder; i++) {
+          final Array pixels = this.moc.getArray(i);
+          final long[] pixelsNested = new long[pixels.getSize()];
+          for (int j = 0; j < pixels.getSize(); j++) {
+            pixelsNested[j] = pixels.get(j);
+          }
+          outlines.addAll(Arrays.asList(renderer.getOutlines(this, i, pixelsNested)));
         }
+        renderer.render(graphic2D, getPixelWidth(), getPixelHeight(), outlines.toArray(new PixelOutline[outlines.size()]), null, true, null);
+      } catch (GraphException ex) {
+        LOG.log(Level.FINER, null, ex);
+        throw new GraphRuntimeException(ex);
       }
     }
   }
-  
-  @Override
-  protected void drawHealpixPolygon(final Graphics2D graphic2D, final HealpixIndex healpix, final long pix, final CoordinateTransformation coordinateTransformation) {
+
+  /**
+   * Paints the MOC in raster mode.
+   *
+   * @param graphic2D graphic to decorate
+   * @param color color of the MOC
+   */
+  private void drawRaster(final Graphics2D graphic2D, final Color color) {
+    if (this.mocRanges == null) {
+      this.mocRanges = toRangeSet(this.moc);
+    }
+    final RangeSet ranges = this.mocRanges;
+    final int argb = color.getRGB();
     try {
-      final int numberOfVectors = computeNumberPointsForPixel(getHealpixBase().getNside(), pix);
-      final Vec3[] vectors = healpix.boundaries(pix, numberOfVectors);
-      computeReferenceFrameTransformation(vectors, coordinateTransformation);
-      final Coordinates[] shapes = splitHealpixPixelForDetectedBorder(vectors);
+      HealpixGridRenderer.getInstance().renderRaster(graphic2D, this, this.moc.getMaxLimitOrder(), new HealpixGridRenderer.PixelColorMap() {
+        @Override
+        public int getArgb(final long nestedPixel) {
+          return ranges.contains(nestedPixel) ? argb : 0;
+        }
+      });
+    } catch (GraphException ex) {
+      LOG.log(Level.FINER, null, ex);
+      throw new GraphRuntimeException(ex);
+    }
+  }
 
-      final Polygon2D poly = new Polygon2D();
-      for (int i = 0; i < shapes.length; i++) {
-        final Coordinates shape = shapes[i];
-        final List<Point2D.Double> pixels = shape.getPixelsFromProjection(this.getProjection(), getRange(), getPixelWidth(), getPixelHeight());
-        poly.setPoints(pixels);
-        graphic2D.draw(poly);
-        graphic2D.fill(poly);
+  /**
+   * Returns the cells of a MOC as ranges of NESTED pixels at the deepest order of the MOC.
+   *
+   * <p>Starts and ends are sorted separately: for a normalized MOC the cells do not overlap so
+   * the pairs are unchanged, otherwise the ranges still cover the union of the cells.</p>
+   *
+   * @param mocVal MOC
+   * @return the ranges
+   */
+  private static RangeSet toRangeSet(final HealpixMoc mocVal) {
+    final int maxOrder = mocVal.getMaxLimitOrder();
+    int nbCells = 0;
+    for (int order = mocVal.getMinLimitOrder(); order <= maxOrder; order++) {
+      nbCells += mocVal.getArray(order).getSize();
+    }
+    final long[] starts = new long[nbCells];
+    final long[] ends = new long[nbCells];
+    int index = 0;
+    for (int order = mocVal.getMinLimitOrder(); order <= maxOrder; order++) {
+      final Array cells = mocVal.getArray(order);
+      final int shift = 2 * (maxOrder - order);
+      for (int i = 0; i < cells.getSize(); i++) {
+        starts[index] = cells.get(i) << shift;
+        ends[index] = (cells.get(i) + 1) << shift;
+        index++;
       }
-    } catch (Exception ex) {
-      LOG.log(Level.FINER, null, ex);
     }
-  }  
+    Arrays.sort(starts);
+    Arrays.sort(ends);
+    final RangeSet ranges = new RangeSet(2 * nbCells);
+    for (int i = 0; i < nbCells; i++) {
+      ranges.append(starts[i], ends[i]);
+    }
+    return ranges;
+  }
 }
@@ -0,0 +1,222 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.graph;
+
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+
+import com.jhlabs.map.MapMath;
+import com.jhlabs.map.proj.Projection;
+
+/**
+ * Converts the pixels of an image back to the longitude and latitude of the projection.
+ *
+ * <p>This is the inverse of the scaling done by {@link Coordinates#getPixelsFromProjection}.
+ * When the projection has no inverse, the inverse is computed by Newton iterations seeded
+ * with the previous pixel of the row or the pixel above. An image pixel is only kept when
+ * its longitude and latitude project back to the same image pixel, which removes the
+ * pixels outside the projection.</p>
+ *
+ * <p>An instance is not thread-safe: each thread uses its own copy of the projection.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+final class InverseProjection {
+
+  /**
+   * Max number of Newton iterations.
+   */
+  private static final int NEWTON_MAX_ITERATIONS = 30;
+  /**
+   * Convergence of the Newton iterations in projected coordinates.
+   */
+  private static final double NEWTON_TOLERANCE = 1E-9;
+  /**
+   * Step in radians used to derive the projection.
+   */
+  private static final double NEWTON_STEP = 1E-7;
+  /**
+   * Projection.
+   */
+  private final Projection projection;
+  /**
+   * Image width.
+   */
+  private final int width;
+  /**
+   * Range of the projection.
+   */
+  private final double[] range;
+  /**
+   * Size of an image pixel along X in projected coordinates.
+   */
+  private final double scaleX;
+  /**
+   * Size of an image pixel along Y in projected coordinates.
+   */
+  private final double scaleY;
+  /**
+   * Longitude found for each column of the previous row, NaN when outside.
+   */
+  private final double[] previousLongitudes;
+  /**
+   * Latitude found for each column of the previous row.
+   */
+  private final double[] previousLatitudes;
+  /**
+   * Temporary projected point.
+   */
+  private final Point2D.Double projected = new Point2D.Double();
+  /**
+   * Temporary projected point shifted in longitude.
+   */
+  private final Point2D.Double shiftedLongitude = new Point2D.Double();
+  /**
+   * Temporary projected point shifted in latitude.
+   */
+  private final Point2D.Double shiftedLatitude = new Point2D.Double();
+
+  /**
+   * Constructs an inverse projection.
+   *
+   * @param projectionVal projection (a copy owned by the calling thread)
+   * @param rangeVal range of the projection
+   * @param widthVal image width
+   * @param heightVal image height
+   */
+  InverseProjection(final Projection projectionVal, final double[] rangeVal, final int widthVal, final int heightVal) {
+    this.projection = projectionVal;
+    this.range = rangeVal.clone();
+    this.width = widthVal;
+    this.scaleX = (range[Graph.X_MAX] - range[Graph.X_MIN]) / widthVal;
+    this.scaleY = (range[Graph.Y_MAX] - range[Graph.Y_MIN]) / heightVal;
+    this.previousLongitudes = new double[widthVal];
+    this.previousLatitudes = new double[widthVal];
+    Arrays.fill(previousLongitudes, Double.NaN);
+  }
+
+  /**
+   * Computes the longitude and latitude of the center of each pixel of an image row.
+   *
+   * <p>Rows must be given from top to bottom so that the previous row seeds the Newton iterations.</p>
+   *
+   * @param row image row
+   * @param longitudes longitude in radians of each pixel, NaN when the pixel is outside the projection
+   * @param latitudes latitude in radians of each pixel
+   */
+  void inverseRow(final int row, final double[] longitudes, final double[] latitudes) {
+    final double yProj = range[Graph.Y_MAX] - (row + 0.5) * scaleY;
+    final Point2D.Double lonLat = new Point2D.Double();
+    boolean hasSeed = false;
+    for (int x = 0; x < width; x++) {
+      final double xProj = (width / 2.0 - (x + 0.5)) * scaleX;
+      if (hasSeed) {
+        lonLat.x = longitudes[x - 1];
+        lonLat.y = latitudes[x - 1];
+      } else if (!Double.isNaN(previousLongitudes[x])) {
+        lonLat.x = previousLongitudes[x];
+        lonLat.y = previousLatitudes[x];
+      } else {
+        lonLat.x = clamp(xProj, -Math.PI, Math.PI);
+        lonLat.y = clamp(yProj, -MapMath.HALFPI, MapMath.HALFPI);
+      }
+      if (inverse(xProj, yProj, lonLat) && isProjectedBack(xProj, yProj, lonLat)) {
+        longitudes[x] = lonLat.x;
+        latitudes[x] = lonLat.y;
+        hasSeed = true;
+      } else {
+        longitudes[x] = Double.NaN;
+        latitudes[x] = Double.NaN;
+        hasSeed = false;
+      }
+    }
+    System.arraycopy(longitudes, 0, previousLongitudes, 0, width);
+    System.arraycopy(latitudes, 0, previousLatitudes, 0, width);
+  }
+
+  /**
+   * Inverse-projects a point.
+   *
+   * @param xProj projected X
+   * @param yProj projected Y
+   * @param lonLat seed of the Newton iterations, then longitude and latitude in radians
+   * @return false when the inverse cannot be computed
+   */
+  private boolean inverse(final double xProj, final double yProj, final Point2D.Double lonLat) {
+    if (projection.hasInverse()) {
+      projection.projectInverse(xProj, yProj, lonLat);
+      return true;
+    }
+    double lon = lonLat.x;
+    double lat = lonLat.y;
+    for (int i = 0; i < NEWTON_MAX_ITERATIONS; i++) {
+      projection.project(lon, lat, projected);
+      final double deltaX = projected.x - xProj;
+      final double deltaY = projected.y - yProj;
+      if (Math.abs(deltaX) < NEWTON_TOLERANCE && Math.abs(deltaY) < NEWTON_TOLERANCE) {
+        lonLat.x = lon;
+        lonLat.y = lat;
+        return true;
+      }
+      final double stepLat = (lat > 0) ? -NEWTON_STEP : NEWTON_STEP;
+      projection.project(lon + NEWTON_STEP, lat, shiftedLongitude);
+      projection.project(lon, lat + stepLat, shiftedLatitude);
+      final double dxdLon = (shiftedLongitude.x - projected.x) / NEWTON_STEP;
+      final double dydLon = (shiftedLongitude.y - projected.y) / NEWTON_STEP;
+      final double dxdLat = (shiftedLatitude.x - projected.x) / stepLat;
+      final double dydLat = (shiftedLatitude.y - projected.y) / stepLat;
+      final double determinant = dxdLon * dydLat - dxdLat * dydLon;
+      if (Math.abs(determinant) < NEWTON_TOLERANCE * NEWTON_TOLERANCE || Double.isNaN(determinant)) {
+        return false;
+      }
+      lon = clamp(lon - (dydLat * deltaX - dxdLat * deltaY) / determinant, -Math.PI, Math.PI);
+      lat = clamp(lat - (dxdLon * deltaY - dydLon * deltaX) / determinant, -MapMath.HALFPI, MapMath.HALFPI);
+    }
+    return false;
+  }
+
+  /**
+   * Returns true when a longitude and a latitude project back to the image pixel.
+   *
+   * @param xProj projected X of the image pixel
+   * @param yProj projected Y of the image pixel
+   * @param lonLat longitude and latitude in radians
+   * @return true when the point is inside the projection
+   */
+  private boolean isProjectedBack(final double xProj, final double yProj, final Point2D.Double lonLat) {
+    if (!(Math.abs(lonLat.x) <= Math.PI && Math.abs(lonLat.y) <= MapMath.HALFPI)
+        || !projection.inside(Math.toDegrees(lonLat.x), Math.toDegrees(lonLat.y))) {
+      return false;
+    }
+    projection.project(lonLat.x, lonLat.y, projected);
+    return Math.abs(projected.x - xProj) <= Math.abs(scaleX) / 2 && Math.abs(projected.y - yProj) <= Math.abs(scaleY) / 2;
+  }
+
+  /**
+   * Clamps a value.
+   *
+   * @param value value
+   * @param min lower bound
+   * @param max upper bound
+   * @return the clamped value
+   */
+  private static double clamp(final double value, final double min, final double max) {
+    return Math.max(min, Math.min(max, value));
+  }
+}
@@ -0,0 +1,183 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.graph;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.util.List;
+
+/**
+ * Projected outline of a Healpix pixel in image coordinates.
+ *
+ * <p>A pixel crossing the border of the projection is split in two shapes.
+ * An outline is immutable once built so that it can be shared between the
+ * threads rendering the image.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class PixelOutline {
+
+  /**
+   * Estimated size in bytes of an outline without its shapes.
+   */
+  private static final int OUTLINE_SIZE = 96;
+  /**
+   * Estimated size in bytes of a shape without its points.
+   */
+  private static final int SHAPE_SIZE = 64;
+  /**
+   * Estimated size in bytes of a point of a shape: two floats and a segment type.
+   */
+  private static final int POINT_SIZE = 9;
+  /**
+   * Outline having no visible shape.
+   */
+  public static final PixelOutline EMPTY = new PixelOutline(new Shape[0], new Rectangle(), null, OUTLINE_SIZE);
+  /**
+   * Projected shapes.
+   */
+  private final Shape[] shapes;
+  /**
+   * Bounds of all shapes.
+   */
+  private final Rectangle bounds;
+  /**
+   * Position of the label (used in debug mode), may be null.
+   */
+  private final Point2D.Double labelPosition;
+  /**
+   * Estimated size in bytes of the outline.
+   */
+  private final int estimatedSize;
+
+  /**
+   * Constructs an outline.
+   *
+   * @param shapesVal projected shapes
+   * @param boundsVal bounds of all shapes
+   * @param labelPositionVal position of the label
+   * @param estimatedSizeVal estimated size in bytes of the outline
+   */
+  private PixelOutline(final Shape[] shapesVal, final Rectangle boundsVal, final Point2D.Double labelPositionVal,
+          final int estimatedSizeVal) {
+    this.shapes = shapesVal;
+    this.bounds = boundsVal;
+    this.labelPosition = labelPositionVal;
+    this.estimatedSize = estimatedSizeVal;
+  }
+
+  /**
+   * Creates an outline from lists of projected points.
+   *
+   * @param projectedShapes projected points of each shape
+   * @param labelPositionVal position of the label, may be null
+   * @return the outline
+   */
+  public static PixelOutline create(final List<List<Point2D.Double>> projectedShapes, final Point2D.Double labelPositionVal) {
+    int nbShapes = 0;
+    for (List<Point2D.Double> points : projectedShapes) {
+      if (!points.isEmpty()) {
+        nbShapes++;
+      }
+    }
+    if (nbShapes == 0) {
+      return EMPTY;
+    }
+    final Shape[] shapesVal = new Shape[nbShapes];
+    Rectangle boundsVal = null;
+    int estimatedSizeVal = OUTLINE_SIZE;
+    int index = 0;
+    for (List<Point2D.Double> points : projectedShapes) {
+      if (points.isEmpty()) {
+        continue;
+      }
+      final Path2D.Float path = new Path2D.Float(Path2D.WIND_EVEN_ODD, points.size() + 1);
+      final Point2D.Double first = points.get(0);
+      path.moveTo(first.x, first.y);
+      for (int i = 1; i < points.size(); i++) {
+        final Point2D.Double point = points.get(i);
+        path.lineTo(point.x, point.y);
+      }
+      path.closePath();
+      shapesVal[index++] = path;
+      estimatedSizeVal += SHAPE_SIZE + (points.size() + 1) * POINT_SIZE;
+      boundsVal = (boundsVal == null) ? path.getBounds() : boundsVal.union(path.getBounds());
+    }
+    return new PixelOutline(shapesVal, boundsVal, labelPositionVal, estimatedSizeVal);
+  }
+
+  /**
+   * Returns true when the outline has no visible shape.
+   *
+   * @return true when the outline has no visible shape
+   */
+  public boolean isEmpty() {
+    return shapes.length == 0;
+  }
+
+  /**
+   * Returns true when the outline intersects a horizontal strip of the image.
+   *
+   * @param yMin first row of the strip
+   * @param yMax last row (excluded) of the strip
+   * @return true when the outline intersects the strip
+   */
+  public boolean intersectsStrip(final int yMin, final int yMax) {
+    return !isEmpty() && bounds.y <= yMax && bounds.y + bounds.height >= yMin;
+  }
+
+  /**
+   * Returns the number of shapes.
+   *
+   * @return the number of shapes
+   */
+  int getNbShapes() {
+    return shapes.length;
+  }
+
+  /**
+   * Returns a shape.
+   *
+   * @param index index of the shape
+   * @return the shape
+   */
+  Shape getShape(final int index) {
+    return shapes[index];
+  }
+
+  /**
+   * Returns the estimated size in bytes of the outline.
+   *
+   * @return the estimated size in bytes
+   */
+  int getEstimatedSize() {
+    return estimatedSize;
+  }
+
+  /**
+   * Returns the position of the label.
+   *
+   * @return the position of the label or null
+   */
+  public Point2D.Double getLabelPosition() {
+    return labelPosition;
+  }
+}
@@ -0,0 +1,228 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.representation;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.util.regex.Pattern;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Keyset position in a result sorted by a key column.
+ *
+ * <p>
+ * The token is the last key sent to the client. The next page is requested
+ * with <code>key &gt; last key</code> instead of an OFFSET, so the database does
+ * not read again the rows of the previous pages. The token is an opaque
+ * hexadecimal string for the client. It is checked when it is decoded because
+ * it is written in the SQL predicate: the column must be an identifier and
+ * a numeric key must be a number.
+ * </p>
+ *
+ * <p>
+ * The SITools2 predicates only accept SQL text, so a string key cannot be
+ * bound and is written as a literal. Its quotes are doubled and a key with a
+ * backslash or a control character is rejected: when
+ * <code>standard_conforming_strings</code> is off, PostgreSQL reads a
+ * backslash as an escape character, which could close the literal.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class ContinuationToken {
+
+    /**
+     * Pattern of a column name.
+     */
+    private static final Pattern COLUMN_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    /**
+     * Type of a numeric key.
+     */
+    private static final String NUMBER = "n";
+    /**
+     * Type of a string key.
+     */
+    private static final String STRING = "s";
+    /**
+     * Separator of the fields of the token.
+     */
+    private static final String SEPARATOR = ":";
+    /**
+     * Encoding of the token before its hexadecimal encoding.
+     */
+    private static final String ENCODING = "UTF-8";
+    /**
+     * Key column.
+     */
+    private final String column;
+    /**
+     * Last key.
+     */
+    private final String value;
+    /**
+     * Numeric value of the last key, null for a string key.
+     */
+    private final BigDecimal number;
+
+    /**
+     * Constructs a token.
+     *
+     * @param columnVal key column
+     * @param valueVal last key
+     * @param numberVal numeric value of the last key or null
+     */
+    private ContinuationToken(final String columnVal, final String valueVal, final BigDecimal numberVal) {
+        if (columnVal == null || !COLUMN_PATTERN.matcher(columnVal).matches()) {
+            throw new IllegalArgumentException("Invalid key column: " + columnVal);
+        }
+        if (numberVal == null && !isSafeLiteral(valueVal)) {
+            throw new IllegalArgumentException("The key of " + columnVal + " cannot be written in a SQL literal");
+        }
+        this.column = columnVal;
+        this.value = valueVal;
+        this.number = numberVal;
+    }
+
+    /**
+     * Returns false when a string contains a backslash or a control character.
+     *
+     * @param valueVal string
+     * @return true when the string can be written between quotes in the SQL predicate
+     */
+    private static boolean isSafeLiteral(final String valueVal) {
+        for (int i = 0; i < valueVal.length(); i++) {
+            final char character = valueVal.charAt(i);
+            if (character == '\\' || Character.isISOControl(character)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the token of a key read in a row.
+     *
+     * @param column key column
+     * @param key key of the row
+     * @return the token
+     * @throws IllegalArgumentException when the key is null, the column is not an identifier or the key cannot be
+     * written in a SQL literal
+     */
+    public static ContinuationToken fromKey(final String column, final Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("The key " + column + " is null");
+        }
+        if (key instanceof Number) {
+            final BigDecimal numberVal = new BigDecimal(key.toString());
+            return new ContinuationToken(column, numberVal.toPlainString(), numberVal);
+        }
+        return new ContinuationToken(column, key.toString(), null);
+    }
+
+    /**
+     * Decodes a token sent by a client.
+     *
+     * @param token token returned by {@link #encode()}
+     * @return the token
+     * @throws IllegalArgumentException when the token is not valid
+     */
+    public static ContinuationToken parse(final String token) {
+        final String decoded;
+        try {
+            decoded = new String(DatatypeConverter.parseHexBinary(token), ENCODING);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token, ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        final String[] fields = decoded.split(SEPARATOR, 3);
+        if (fields.length != 3) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token);
+        }
+        if (NUMBER.equals(fields[0])) {
+            try {
+                final BigDecimal numberVal = new BigDecimal(fields[2]);
+                return new ContinuationToken(fields[1], numberVal.toPlainString(), numberVal);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid continuation token: " + token, ex);
+            }
+        } else if (STRING.equals(fields[0])) {
+            return new ContinuationToken(fields[1], fields[2], null);
+        } else {
+            throw new IllegalArgumentException("Invalid continuation token: " + token);
+        }
+    }
+
+    /**
+     * Returns the token sent to the client.
+     *
+     * @return the hexadecimal token
+     */
+    public String encode() {
+        try {
+            return DatatypeConverter.printHexBinary(((isNumeric() ? NUMBER : STRING) + SEPARATOR + column + SEPARATOR + value)
+                    .getBytes(ENCODING));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the key column.
+     *
+     * @return the column
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * Returns true when the key is a number.
+     *
+     * @return true when the key is a number
+     */
+    public boolean isNumeric() {
+        return number != null;
+    }
+
+    /**
+     * Returns the predicate selecting the rows after this key.
+     *
+     * @return the predicate starting with <code>AND</code>
+     */
+    public String toSqlPredicat() {
+        return " AND " + column + " > " + (isNumeric() ? value : "'" + value.replace("'", "''") + "'");
+    }
+
+    /**
+     * Returns false when this key is not after a previous key.
+     *
+     * <p>
+     * Only numeric keys are compared, the order of the strings depends on the
+     * collation of the database.
+     * </p>
+     *
+     * @param previous previous key
+     * @return false when both keys are numbers and this key is not greater than the previous one
+     */
+    public boolean isAfter(final ContinuationToken previous) {
+        return !isNumeric() || !previous.isNumeric() || number.compareTo(previous.number) > 0;
+    }
+}
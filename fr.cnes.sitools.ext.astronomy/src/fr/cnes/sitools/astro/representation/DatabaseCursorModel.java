@@ -0,0 +1,298 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.representation;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.engine.Engine;
+
+import fr.cnes.sitools.common.exception.SitoolsException;
+import fr.cnes.sitools.dataset.converter.business.ConverterChained;
+import fr.cnes.sitools.dataset.database.DatabaseRequest;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+import freemarker.template.TemplateScalarModel;
+
+/**
+ * Streams the rows of a query sorted by a key column in Freemarker.
+ *
+ * <p>
+ * Unlike {@link DatabaseRequestModel}, the rows are not read by a single query
+ * limited to the maximum number of records. They are read by pages of a fixed
+ * number of rows: each page is a new query selecting the rows after the last
+ * key of the previous page (keyset pagination). Only one page is opened at a
+ * time and each row is released once it is written, so the memory does not
+ * depend on the number of rows of the response.
+ * </p>
+ *
+ * <p>
+ * The key must be unique, must not be modified by the converters and the
+ * rows must be sorted by this key, which is the order used by SITools2 for a
+ * query without sort on the primary key. When the maximum number of records
+ * is reached before the end of the result, {@link #getContinuationToken()}
+ * returns the position from which the next response starts.
+ * </p>
+ *
+ * <p><pre>
+ * Example usage:
+ *
+ * in your Java source:
+ * <code>DatabaseCursorModel rows = new DatabaseCursorModel(firstPage, provider, "id", converterChained, 1000, maxRecords);
+ * root.put("rows", rows);
+ * root.put("continuation", rows.getContinuationModel());</code>
+ *
+ * in your .ftl
+ * <code><#list rows as row> ${row["column1"]} - ${row["column2"]}
+ * <#/list></code>
+ * </pre>
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class DatabaseCursorModel implements TemplateCollectionModel {
+
+    /**
+     * Opens the query of the next page.
+     */
+    public interface PageProvider {
+
+        /**
+         * Returns the executed query of the rows after a key.
+         *
+         * @param keysetPredicat predicate starting with <code>AND</code> that selects the rows after the last key
+         * @param pageSize maximum number of rows of the page
+         * @return the executed query
+         * @throws SitoolsException Exception
+         */
+        DatabaseRequest nextPage(final String keysetPredicat, final int pageSize) throws SitoolsException;
+    }
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = Engine.getLogger(DatabaseCursorModel.class.getName());
+    /**
+     * Provider of the next pages.
+     */
+    private final PageProvider provider;
+    /**
+     * Key column.
+     */
+    private final String keyColumn;
+    /**
+     * SITools2 converters.
+     */
+    private final ConverterChained converterChained;
+    /**
+     * Number of rows of a page.
+     */
+    private final int pageSize;
+    /**
+     * Maximum number of rows of the response.
+     */
+    private final int maxRows;
+    /**
+     * Current page, null when the cursor is closed.
+     */
+    private DatabaseRequest page;
+    /**
+     * Number of rows read in the current page.
+     */
+    private int nbRowsInPage;
+    /**
+     * Number of rows read.
+     */
+    private int nbRows;
+    /**
+     * Key of the last row.
+     */
+    private ContinuationToken lastKey;
+    /**
+     * True when the maximum number of rows is reached before the end of the result.
+     */
+    private boolean truncated;
+    /**
+     * True when the rows have been listed.
+     */
+    private boolean listed;
+
+    /**
+     * Creates a cursor.
+     *
+     * @param firstPage executed query of the first page
+     * @param providerVal provider of the next pages
+     * @param keyColumnVal key column, used as column alias in the rows and as column in the predicates
+     * @param converterChainedVal SITools2 converters
+     * @param pageSizeVal maximum number of rows of the query of a page
+     * @param maxRowsVal maximum number of rows of the response
+     */
+    public DatabaseCursorModel(final DatabaseRequest firstPage, final PageProvider providerVal, final String keyColumnVal,
+            final ConverterChained converterChainedVal, final int pageSizeVal, final int maxRowsVal) {
+        if (pageSizeVal <= 0) {
+            throw new IllegalArgumentException("pageSize must be > 0");
+        }
+        this.page = firstPage;
+        this.provider = providerVal;
+        this.keyColumn = keyColumnVal;
+        this.converterChained = converterChainedVal;
+        this.pageSize = pageSizeVal;
+        this.maxRows = maxRowsVal;
+    }
+
+    /**
+     * Returns the iterator on the rows.
+     *
+     * <p>The rows can only be listed once.</p>
+     *
+     * @return the iterator
+     * @throws TemplateModelException when the rows have already been listed
+     */
+    @Override
+    public final TemplateModelIterator iterator() throws TemplateModelException {
+        if (listed) {
+            throw new TemplateModelException("The rows of a database cursor can only be listed once");
+        }
+        listed = true;
+        return new TemplateModelIterator() {
+            /**
+             * Next row, null when it is not read yet.
+             */
+            private TemplateModel nextRow;
+
+            @Override
+            public TemplateModel next() throws TemplateModelException {
+                if (!hasNext()) {
+                    throw new TemplateModelException("No more rows");
+                }
+                final TemplateModel row = nextRow;
+                nextRow = null;
+                return row;
+            }
+
+            @Override
+            public boolean hasNext() throws TemplateModelException {
+                if (nextRow == null) {
+                    nextRow = fetch();
+                }
+                return nextRow != null;
+            }
+        };
+    }
+
+    /**
+     * Reads the next row, opens the next page at the end of a full page.
+     *
+     * @return the next row or null at the end
+     * @throws TemplateModelException Exception
+     */
+    private DatabaseRequestModel.Row fetch() throws TemplateModelException {
+        try {
+            while (page != null) {
+                if (nbRows >= maxRows) {
+                    // a full page may be followed by other rows
+                    truncated = page.nextResult() || nbRowsInPage == pageSize;
+                    close();
+                } else if (page.nextResult()) {
+                    final DatabaseRequestModel.Row row = new DatabaseRequestModel.Row(page, converterChained);
+                    final ContinuationToken key = ContinuationToken.fromKey(keyColumn, row.getMap().get(keyColumn));
+                    if (lastKey != null && !key.isAfter(lastKey)) {
+                        throw new TemplateModelException("The rows are not sorted by " + keyColumn);
+                    }
+                    lastKey = key;
+                    nbRowsInPage++;
+                    nbRows++;
+                    return row;
+                } else {
+                    close();
+                    if (nbRowsInPage == pageSize) {
+                        page = provider.nextPage(lastKey.toSqlPredicat(), pageSize);
+                        nbRowsInPage = 0;
+                    }
+                }
+            }
+            return null;
+        } catch (SitoolsException ex) {
+            close();
+            throw new TemplateModelException(ex);
+        } catch (IllegalArgumentException ex) {
+            close();
+            throw new TemplateModelException(ex);
+        } catch (TemplateModelException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the current page.
+     *
+     * <p>It must be called when the rendering is stopped before the end of the rows.</p>
+     */
+    public final void close() {
+        if (page != null) {
+            try {
+                page.close();
+            } catch (SitoolsException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
+            page = null;
+        }
+    }
+
+    /**
+     * Returns the position of the next response.
+     *
+     * @return the token or null when all the rows have been listed
+     */
+    public final ContinuationToken getContinuationToken() {
+        return truncated ? lastKey : null;
+    }
+
+    /**
+     * Returns the encoded continuation token as a template model.
+     *
+     * <p>
+     * The value is computed when the template reads it, so it must be read after
+     * the rows. It is empty when all the rows have been listed.
+     * </p>
+     *
+     * @return the template model
+     */
+    public final TemplateScalarModel getContinuationModel() {
+        return new TemplateScalarModel() {
+            @Override
+            public String getAsString() {
+                final ContinuationToken token = getContinuationToken();
+                return (token == null) ? "" : token.encode();
+            }
+        };
+    }
+
+    /**
+     * Returns the number of rows read.
+     *
+     * @return the number of rows
+     */
+    public final int getNbRows() {
+        return nbRows;
+    }
+}
@@ -195,7 +195,7 @@ public class DatabaseRequestModel implements TemplateSequenceModel {
     /**
      * Wraps a record from the database to a Row object.
      */
-    public class Row implements TemplateHashModel {
+    public static class Row implements TemplateHashModel {
 
         /**
          * Database result set.
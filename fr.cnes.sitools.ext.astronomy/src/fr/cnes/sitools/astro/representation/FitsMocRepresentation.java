@@ -34,6 +34,8 @@ import cds.moc.HealpixMoc;
 /**
  * FITS Representation for Healpix multi-resolution order.
  *
+ * <p>The FITS is streamed by {@link MocStreamWriter}.</p>
+ *
  * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
  */
 public class FitsMocRepresentation extends OutputRepresentation {
@@ -79,12 +81,8 @@ public class FitsMocRepresentation extends OutputRepresentation {
 
     @Override
     public final void write(final OutputStream out) throws IOException {
-        try {
-            getMoc().writeFits(out);
-            LOG.log(Level.FINEST, filename, out);
-        } catch (Exception ex) {
-            throw new IOException(ex);
-        }
+        MocStreamWriter.writeFits(MocStreamWriter.fromMoc(getMoc()), out, false);
+        LOG.log(Level.FINEST, filename, out);
     }
 
     /**
@@ -0,0 +1,125 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.representation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.restlet.data.MediaType;
+import org.restlet.representation.OutputRepresentation;
+
+import fr.cnes.sitools.astro.representation.MocStreamWriter.CellSource;
+
+/**
+ * Streamed representation of a MOC in FITS, JSON or ASCII.
+ *
+ * <p>
+ * The cells are written while they are read from the source, see
+ * {@link MocStreamWriter}.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class MocStreamRepresentation extends OutputRepresentation {
+
+    static {
+        MediaType.register("image/fits", "FITS image");
+    }
+
+    /**
+     * Output format.
+     */
+    public enum Format {
+        /**
+         * FITS binary table of UNIQ numbers.
+         */
+        FITS(MediaType.valueOf("image/fits")),
+        /**
+         * JSON object with the cells by order.
+         */
+        JSON(MediaType.APPLICATION_JSON),
+        /**
+         * ASCII format of the MOC library.
+         */
+        ASCII(MediaType.TEXT_PLAIN);
+        /**
+         * Media type of the format.
+         */
+        private final MediaType mediaType;
+
+        /**
+         * Constructs a format.
+         *
+         * @param mediaTypeVal media type
+         */
+        Format(final MediaType mediaTypeVal) {
+            this.mediaType = mediaTypeVal;
+        }
+
+        /**
+         * Returns the media type of the format.
+         *
+         * @return the media type
+         */
+        public MediaType getMediaType() {
+            return mediaType;
+        }
+    }
+    /**
+     * Cells of the MOC.
+     */
+    private final CellSource source;
+    /**
+     * Output format.
+     */
+    private final Format format;
+    /**
+     * FITS compressed mode.
+     */
+    private final boolean compressed;
+
+    /**
+     * Constructs a representation.
+     *
+     * @param sourceVal cells of the MOC
+     * @param formatVal output format
+     * @param compressedVal true to write the FITS in compressed mode
+     */
+    public MocStreamRepresentation(final CellSource sourceVal, final Format formatVal, final boolean compressedVal) {
+        super(formatVal.getMediaType());
+        this.source = sourceVal;
+        this.format = formatVal;
+        this.compressed = compressedVal;
+    }
+
+    @Override
+    public final void write(final OutputStream out) throws IOException {
+        switch (format) {
+            case FITS:
+                MocStreamWriter.writeFits(source, out, compressed);
+                break;
+            case JSON:
+                MocStreamWriter.writeJson(source, out);
+                break;
+            default:
+                MocStreamWriter.writeAscii(source, out);
+                break;
+        }
+    }
+}
@@ -0,0 +1,589 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.representation;
+
+import healpix.essentials.RangeSet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.NoSuchElementException;
+
+import cds.moc.Array;
+import cds.moc.HealpixMoc;
+import cds.moc.MocIO;
+import fr.cnes.sitools.searchgeometryengine.MocRanges;
+
+/**
+ * Writes a MOC as FITS, JSON or ASCII while reading its cells.
+ *
+ * <p>
+ * The output is the same as the one of {@link HealpixMoc#writeFits(OutputStream, boolean)}
+ * and {@link HealpixMoc#writeASCII(OutputStream)} but the cells are read order by
+ * order from a {@link CellSource} and written through a buffer of fixed size.
+ * The rows of the FITS header are counted by the source before the cells are
+ * read. A MOC computed with {@link MocRanges} can then be written without
+ * building its cells.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class MocStreamWriter {
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 32 * 1024;
+    /**
+     * Size of a FITS block.
+     */
+    private static final int FITS_BLOCK = 2880;
+    /**
+     * Size of a FITS card.
+     */
+    private static final int FITS_CARD = 80;
+    /**
+     * Size of the keyword of a FITS card.
+     */
+    private static final int FITS_KEYWORD = 8;
+    /**
+     * Width of the right aligned numeric values of a FITS card.
+     */
+    private static final int FITS_NUMERIC_WIDTH = 20;
+    /**
+     * Column after which the comment of a string value starts.
+     */
+    private static final int FITS_STRING_END = 30;
+    /**
+     * Minimal number of characters of a quoted FITS string.
+     */
+    private static final int FITS_STRING_WIDTH = 8;
+    /**
+     * First order at which the UNIQ numbers are written as long.
+     */
+    private static final int FIRST_LONG_ORDER = 14;
+    /**
+     * Number of values by line of the ASCII output, as done by {@link MocIO}.
+     */
+    private static final int ASCII_VALUES_BY_LINE = 15;
+    /**
+     * Line separator of the ASCII output, as done by {@link MocIO}.
+     */
+    private static final String CR = System.getProperty("line.separator");
+    /**
+     * Maximal number of digits of a long.
+     */
+    private static final int MAX_DIGITS = 20;
+
+    /**
+     * Source of the cells of a MOC.
+     */
+    public interface CellSource {
+
+        /**
+         * Returns the MOC resolution.
+         *
+         * @return the deepest order of the MOC
+         */
+        int getMaxOrder();
+
+        /**
+         * Returns the coordinate system of the MOC.
+         *
+         * @return the coordinate system
+         */
+        String getCoordSys();
+
+        /**
+         * Returns the NESTED pixels of the cells at an order.
+         *
+         * <p>Each call starts a new iteration.</p>
+         *
+         * @param order order
+         * @return the pixels of the cells at <code>order</code>
+         */
+        RangeSet.ValueIterator cells(int order);
+
+        /**
+         * Returns the number of FITS values of the cells at an order.
+         *
+         * @param order order
+         * @param compressed true to count the values of the compressed mode
+         * @return the number of values
+         */
+        long count(int order, boolean compressed);
+    }
+
+    /**
+     * Utility class.
+     */
+    private MocStreamWriter() {
+    }
+
+    /**
+     * Returns the cells of a HealpixMoc.
+     *
+     * @param moc MOC
+     * @return the source of the cells
+     */
+    public static CellSource fromMoc(final HealpixMoc moc) {
+        return new CellSource() {
+            @Override
+            public int getMaxOrder() {
+                return moc.getMaxOrder();
+            }
+
+            @Override
+            public String getCoordSys() {
+                return moc.getCoordSys();
+            }
+
+            @Override
+            public RangeSet.ValueIterator cells(final int order) {
+                final Array array = moc.getArray(order);
+                final int size = moc.getSize(order);
+                return new RangeSet.ValueIterator() {
+                    private int index = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < size;
+                    }
+
+                    @Override
+                    public long next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return array.get(index++);
+                    }
+                };
+            }
+
+            @Override
+            public long count(final int order, final boolean compressed) {
+                return compressed ? moc.getArray(order).getSizeCompressed() : moc.getSize(order);
+            }
+        };
+    }
+
+    /**
+     * Returns the cells of ranges computed with {@link MocRanges}.
+     *
+     * @param ranges ranges at {@link MocRanges#MAX_ORDER}, aligned on the cells at <code>maxOrder</code>
+     * @param maxOrder MOC resolution
+     * @param coordSys coordinate system
+     * @return the source of the cells
+     */
+    public static CellSource fromRanges(final RangeSet ranges, final int maxOrder, final String coordSys) {
+        return new CellSource() {
+            @Override
+            public int getMaxOrder() {
+                return maxOrder;
+            }
+
+            @Override
+            public String getCoordSys() {
+                return coordSys;
+            }
+
+            @Override
+            public RangeSet.ValueIterator cells(final int order) {
+                return MocRanges.cells(ranges, order);
+            }
+
+            @Override
+            public long count(final int order, final boolean compressed) {
+                return MocRanges.countCells(ranges, order, compressed ? 2 : Long.MAX_VALUE);
+            }
+        };
+    }
+
+    /**
+     * Writes a MOC in FITS.
+     *
+     * <p>The stream is flushed but not closed.</p>
+     *
+     * @param source cells of the MOC
+     * @param out output stream
+     * @param compressed true to write the consecutive cells as ranges
+     * @throws IOException if an error occurs while writing
+     */
+    public static void writeFits(final CellSource source, final OutputStream out, final boolean compressed) throws IOException {
+        final int nbytes = (source.getMaxOrder() < FIRST_LONG_ORDER) ? 4 : 8;
+        long nbRows = 0;
+        for (int order = 0; order <= source.getMaxOrder(); order++) {
+            nbRows += source.count(order, compressed);
+        }
+        final FitsOutput data = new FitsOutput(out);
+        int headerSize = 0;
+        headerSize += writeCard(data, "SIMPLE", "T", false, "Written by MOC java API (P.Fernique)");
+        headerSize += writeCard(data, "BITPIX", "8", false, null);
+        headerSize += writeCard(data, "NAXIS", "0", false, null);
+        headerSize += writeCard(data, "EXTEND", "T", false, null);
+        writeEnd(data, headerSize);
+
+        headerSize = 0;
+        headerSize += writeCard(data, "XTENSION", "BINTABLE", true, "HEALPix Multi Order Coverage map");
+        headerSize += writeCard(data, "BITPIX", "8", false, null);
+        headerSize += writeCard(data, "NAXIS", "2", false, null);
+        headerSize += writeCard(data, "NAXIS1", String.valueOf(nbytes), false, null);
+        headerSize += writeCard(data, "NAXIS2", String.valueOf(nbRows), false, null);
+        headerSize += writeCard(data, "PCOUNT", "0", false, null);
+        headerSize += writeCard(data, "GCOUNT", "1", false, null);
+        headerSize += writeCard(data, "TFIELDS", "1", false, null);
+        headerSize += writeCard(data, "TFORM1", (nbytes == 4) ? "1J" : "1K", true, null);
+        headerSize += writeCard(data, "TTYPE1", "NPIX", true, "HEALPix UNIQ pixel number");
+        headerSize += writeCard(data, "PIXTYPE", "HEALPIX", true, "HEALPix magic code");
+        headerSize += writeCard(data, MocIO.SIGNATURE, String.valueOf(source.getMaxOrder()), false, "MOC resolution (best order)");
+        headerSize += writeCard(data, "ORDERING", "NUNIQ", true, "Order and NpixNest coding method");
+        headerSize += writeCard(data, "COORDSYS", source.getCoordSys(), true, "Reference frame");
+        writeEnd(data, headerSize);
+
+        writeUniq(source, nbytes, compressed, data);
+        // as MocIO, a full block is added when the data fill the last block
+        final int padding = FITS_BLOCK - (int) ((nbRows * nbytes) % FITS_BLOCK);
+        for (int i = 0; i < padding; i++) {
+            data.write(0);
+        }
+        data.flush();
+    }
+
+    /**
+     * Writes a MOC in JSON.
+     *
+     * <p>The stream is flushed but not closed.</p>
+     *
+     * @param source cells of the MOC
+     * @param out output stream
+     * @throws IOException if an error occurs while writing
+     */
+    public static void writeJson(final CellSource source, final OutputStream out) throws IOException {
+        final OutputStream buffer = new BufferedOutputStream(out, BUFFER_SIZE);
+        final byte[] digits = new byte[MAX_DIGITS];
+        buffer.write('{');
+        boolean first = true;
+        for (int order = 0; order <= source.getMaxOrder(); order++) {
+            final RangeSet.ValueIterator cells = source.cells(order);
+            if (!cells.hasNext()) {
+                continue;
+            }
+            if (!first) {
+                buffer.write(',');
+                buffer.write('\n');
+            }
+            first = false;
+            buffer.write('"');
+            writeNumber(buffer, order, digits);
+            buffer.write('"');
+            buffer.write(':');
+            buffer.write('[');
+            writeNumber(buffer, cells.next(), digits);
+            while (cells.hasNext()) {
+                buffer.write(',');
+                writeNumber(buffer, cells.next(), digits);
+            }
+            buffer.write(']');
+        }
+        buffer.write('}');
+        buffer.flush();
+    }
+
+    /**
+     * Writes a MOC in ASCII, as {@link HealpixMoc#writeASCII(OutputStream)}.
+     *
+     * <p>The stream is flushed but not closed.</p>
+     *
+     * @param source cells of the MOC
+     * @param out output stream
+     * @throws IOException if an error occurs while writing
+     */
+    public static void writeAscii(final CellSource source, final OutputStream out) throws IOException {
+        final OutputStream buffer = new BufferedOutputStream(out, BUFFER_SIZE);
+        final byte[] digits = new byte[MAX_DIGITS];
+        final byte[] lineSeparator = CR.getBytes("US-ASCII");
+        buffer.write(("#" + MocIO.SIGNATURE).getBytes("US-ASCII"));
+        buffer.write(lineSeparator);
+        buffer.write('{');
+        boolean first = true;
+        for (int order = 0; order <= source.getMaxOrder(); order++) {
+            final RangeSet.ValueIterator cells = source.cells(order);
+            if (!cells.hasNext()) {
+                continue;
+            }
+            if (!first) {
+                buffer.write(']');
+                buffer.write(',');
+                buffer.write(lineSeparator);
+            }
+            first = false;
+            buffer.write('"');
+            writeNumber(buffer, order, digits);
+            buffer.write('"');
+            buffer.write(':');
+            buffer.write('[');
+            int nbValues = 0;
+            while (cells.hasNext()) {
+                writeNumber(buffer, cells.next(), digits);
+                if (cells.hasNext()) {
+                    buffer.write(',');
+                }
+                nbValues++;
+                if (nbValues == ASCII_VALUES_BY_LINE) {
+                    buffer.write(lineSeparator);
+                    nbValues = 0;
+                }
+            }
+        }
+        buffer.write(']');
+        buffer.write('}');
+        buffer.write(lineSeparator);
+        buffer.flush();
+    }
+
+    /**
+     * Writes the UNIQ numbers of the FITS table.
+     *
+     * <p>
+     * In compressed mode, a run of consecutive numbers at an order is written
+     * as its first number followed by its last one, negated when the run has
+     * more than two numbers.
+     * </p>
+     *
+     * @param source cells of the MOC
+     * @param nbytes size of a number
+     * @param compressed compressed mode
+     * @param data output
+     * @throws IOException if an error occurs while writing
+     */
+    private static void writeUniq(final CellSource source, final int nbytes, final boolean compressed, final FitsOutput data)
+            throws IOException {
+        for (int order = 0; order <= source.getMaxOrder(); order++) {
+            final RangeSet.ValueIterator cells = source.cells(order);
+            final long uniqOffset = HealpixMoc.hpix2uniq(order, 0);
+            if (!compressed) {
+                while (cells.hasNext()) {
+                    data.writeValue(uniqOffset + cells.next(), nbytes);
+                }
+                continue;
+            }
+            long previous = -2;
+            long min = -1;
+            long max = -1;
+            while (cells.hasNext()) {
+                final long uniq = uniqOffset + cells.next();
+                if (uniq != previous + 1) {
+                    writeRun(data, min, max, nbytes);
+                    min = uniq;
+                    max = -1;
+                } else {
+                    max = uniq;
+                }
+                previous = uniq;
+            }
+            writeRun(data, min, max, nbytes);
+        }
+    }
+
+    /**
+     * Writes a run of consecutive UNIQ numbers in compressed mode.
+     *
+     * @param data output
+     * @param min first number of the run, -1 when there is no run
+     * @param max last number of the run, -1 when the run has one number
+     * @param nbytes size of a number
+     * @throws IOException if an error occurs while writing
+     */
+    private static void writeRun(final FitsOutput data, final long min, final long max, final int nbytes) throws IOException {
+        if (min != -1) {
+            data.writeValue(min, nbytes);
+        }
+        if (max != -1) {
+            data.writeValue((min + 1 == max) ? max : -max, nbytes);
+        }
+    }
+
+    /**
+     * Writes a FITS card, formatted as {@link MocIO} does.
+     *
+     * @param out output
+     * @param key keyword
+     * @param value value
+     * @param isString true when the value is a string, which is quoted
+     * @param comment comment or null
+     * @return the size of the card
+     * @throws IOException if an error occurs while writing
+     */
+    private static int writeCard(final OutputStream out, final String key, final String value, final boolean isString,
+            final String comment) throws IOException {
+        final StringBuilder card = new StringBuilder(FITS_CARD);
+        card.append(key);
+        pad(card, FITS_KEYWORD);
+        card.append("= ");
+        if (isString) {
+            card.append('\'').append(value.replace("'", "''"));
+            pad(card, FITS_KEYWORD + 3 + FITS_STRING_WIDTH);
+            card.append('\'');
+            pad(card, FITS_STRING_END);
+        } else {
+            pad(card, card.length() + FITS_NUMERIC_WIDTH - value.length());
+            card.append(value);
+        }
+        if (comment != null && comment.length() > 0) {
+            card.append(" / ").append(comment);
+        }
+        pad(card, FITS_CARD);
+        card.setLength(FITS_CARD);
+        out.write(card.toString().getBytes("US-ASCII"));
+        return FITS_CARD;
+    }
+
+    /**
+     * Writes the END card and the blanks that complete the FITS header.
+     *
+     * @param out output
+     * @param headerSize size of the cards already written
+     * @throws IOException if an error occurs while writing
+     */
+    private static void writeEnd(final OutputStream out, final int headerSize) throws IOException {
+        int size = FITS_BLOCK - headerSize % FITS_BLOCK;
+        if (size < 3) {
+            size += FITS_BLOCK;
+        }
+        out.write('E');
+        out.write('N');
+        out.write('D');
+        for (int i = 3; i < size; i++) {
+            out.write(' ');
+        }
+    }
+
+    /**
+     * Appends blanks up to a length.
+     *
+     * @param builder builder
+     * @param length length
+     */
+    private static void pad(final StringBuilder builder, final int length) {
+        while (builder.length() < length) {
+            builder.append(' ');
+        }
+    }
+
+    /**
+     * Writes a positive number in decimal without allocation.
+     *
+     * @param out output
+     * @param value positive number
+     * @param digits buffer of {@link #MAX_DIGITS} bytes
+     * @throws IOException if an error occurs while writing
+     */
+    private static void writeNumber(final OutputStream out, final long value, final byte[] digits) throws IOException {
+        int index = digits.length;
+        long remainder = value;
+        do {
+            digits[--index] = (byte) ('0' + remainder % 10);
+            remainder /= 10;
+        } while (remainder > 0);
+        out.write(digits, index, digits.length - index);
+    }
+
+    /**
+     * Unsynchronized buffer of the FITS output.
+     */
+    private static final class FitsOutput extends OutputStream {
+
+        /**
+         * Output stream.
+         */
+        private final OutputStream out;
+        /**
+         * Buffer.
+         */
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        /**
+         * Number of bytes in the buffer.
+         */
+        private int position = 0;
+
+        /**
+         * Constructs the buffer.
+         *
+         * @param outVal output stream
+         */
+        private FitsOutput(final OutputStream outVal) {
+            this.out = outVal;
+        }
+
+        @Override
+        public void write(final int value) throws IOException {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (length > buffer.length - position) {
+                flushBuffer();
+            }
+            if (length > buffer.length) {
+                out.write(bytes, offset, length);
+            } else {
+                System.arraycopy(bytes, offset, buffer, position, length);
+                position += length;
+            }
+        }
+
+        /**
+         * Writes a big endian integer.
+         *
+         * @param value value
+         * @param nbytes size of the integer, 4 or 8
+         * @throws IOException if an error occurs while writing
+         */
+        private void writeValue(final long value, final int nbytes) throws IOException {
+            if (buffer.length - position < nbytes) {
+                flushBuffer();
+            }
+            for (int shift = 8 * (nbytes - 1); shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        /**
+         * Writes the buffer.
+         *
+         * @throws IOException if an error occurs while writing
+         */
+        private void flushBuffer() throws IOException {
+            if (position > 0) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+        }
+    }
+}
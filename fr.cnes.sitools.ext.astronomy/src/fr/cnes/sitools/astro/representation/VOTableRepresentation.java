@@ -18,8 +18,11 @@
  ******************************************************************************/
 package fr.cnes.sitools.astro.representation;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -95,9 +98,12 @@ import org.restlet.resource.ClientResource;
  *    |__ nrows (optional)
  *    |__ mapPartFileCutUrl (Hash) (optional)
  *    |__ primaryKey (optional)
+ *    |__ continuation (optional)
  *
  * </pre> Provide a VOTable representation by streaming based on Freemarker To have a dataModel by streaming, dataModel for rows element
- * must use the DatabaseRequestModel adapter
+ * must use the DatabaseRequestModel or the DatabaseCursorModel adapter. The template is written directly in the output stream, so
+ * the first rows are sent before the last ones are read. The continuation element is the token returned by
+ * DatabaseCursorModel#getContinuationModel, it is written after the table.
  *
  * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
  */
@@ -151,8 +157,24 @@ public class VOTableRepresentation extends OutputRepresentation {
             + getFtl()).get();
     final TemplateRepresentation tpl = new TemplateRepresentation(metadataFtl, getDataModel(), getMediaType());
     LOG.log(Level.FINEST, getFtl(), tpl);
-    outputStream.write(tpl.getText().getBytes());
-    outputStream.flush();
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+    try {
+      tpl.write(writer);
+      writer.flush();
+    } finally {
+      closeCursors();
+    }
+  }
+
+  /**
+   * Closes the database cursors of the data model that are still opened when the writing is stopped.
+   */
+  private void closeCursors() {
+    for (Object value : getDataModel().values()) {
+      if (value instanceof DatabaseCursorModel) {
+        ((DatabaseCursorModel) value).close();
+      }
+    }
   }
 
 
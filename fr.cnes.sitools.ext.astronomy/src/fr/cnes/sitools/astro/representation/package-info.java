@@ -10,6 +10,7 @@
  * <li>the cutOut representation</li>
  * <li>the FitsMoc representation</li>
  * <li>the DatabaseRequestModel</li>
+ * <li>the DatabaseCursorModel and its ContinuationToken</li>
  * <li>the RepresentationRuntimeException</li>
  * </ul>
  */
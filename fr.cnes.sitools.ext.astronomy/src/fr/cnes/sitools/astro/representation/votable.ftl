@@ -60,6 +60,10 @@
         </TABLEDATA>
         </DATA>
         </TABLE>
+        <#if continuation?exists && continuation?has_content>
+        <INFO name="QUERY_STATUS" value="OVERFLOW"/>
+        <INFO name="CURSOR" value="${continuation}"/>
+        </#if>
         </#if>
     </RESOURCE>
 </VOTABLE>
\ No newline at end of file
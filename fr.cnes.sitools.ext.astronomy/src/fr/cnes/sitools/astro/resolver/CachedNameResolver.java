@@ -0,0 +1,102 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.resolver;
+
+/**
+ * Name resolver that keeps the responses of another name resolver in {@link NameResolverCache}.
+ *
+ * <p>
+ * The wrapped resolver is only called when its response is not cached. When
+ * the object is not found, either from the cache or from the wrapped
+ * resolver, the next element of the chain is called, like the other name
+ * resolvers do. The wrapped resolver must not have a successor, otherwise the
+ * responses of its successors would be cached as its own responses.
+ * </p>
+ *
+ * <pre>
+ * final AbstractNameResolver cds = new CachedNameResolver(new CDSNameResolver(name, service), NameResolverCache.CDS, name);
+ * cds.setNext(...);
+ * </pre>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class CachedNameResolver extends AbstractNameResolver {
+
+  /**
+   * Wrapped resolver.
+   */
+  private final AbstractNameResolver resolver;
+  /**
+   * Name of the wrapped resolver in the cache.
+   */
+  private final String resolverName;
+  /**
+   * Query of the wrapped resolver.
+   */
+  private final String query;
+  /**
+   * Cache.
+   */
+  private final NameResolverCache cache;
+
+  /**
+   * Constructs a cached name resolver with the shared cache.
+   *
+   * @param resolverVal wrapped resolver, without successor
+   * @param resolverNameVal name of the wrapped resolver, which defines the time to live of its responses
+   * @param queryVal query of the wrapped resolver, which contains all its parameters
+   */
+  public CachedNameResolver(final AbstractNameResolver resolverVal, final String resolverNameVal, final String queryVal) {
+    this(resolverVal, resolverNameVal, queryVal, NameResolverCache.getInstance());
+  }
+
+  /**
+   * Constructs a cached name resolver.
+   *
+   * @param resolverVal wrapped resolver, without successor
+   * @param resolverNameVal name of the wrapped resolver, which defines the time to live of its responses
+   * @param queryVal query of the wrapped resolver, which contains all its parameters
+   * @param cacheVal cache
+   */
+  public CachedNameResolver(final AbstractNameResolver resolverVal, final String resolverNameVal, final String queryVal,
+          final NameResolverCache cacheVal) {
+    if (resolverVal.getSuccessor() != null) {
+      throw new IllegalArgumentException("The cached resolver must not have a successor");
+    }
+    this.resolver = resolverVal;
+    this.resolverName = resolverNameVal;
+    this.query = queryVal;
+    this.cache = cacheVal;
+  }
+
+  @Override
+  public final NameResolverResponse getResponse() {
+    NameResolverResponse response = cache.getResponse(resolverName, query);
+    if (response == null) {
+      final long start = System.currentTimeMillis();
+      response = resolver.getResponse();
+      cache.recordMiss(resolverName, System.currentTimeMillis() - start);
+      cache.putResponse(resolverName, query, response);
+    }
+    if (!response.hasResult() && getSuccessor() != null) {
+      response = getSuccessor().getResponse();
+    }
+    return response;
+  }
+}
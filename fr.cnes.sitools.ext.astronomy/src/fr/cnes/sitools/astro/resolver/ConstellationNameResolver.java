@@ -19,26 +19,21 @@
 package fr.cnes.sitools.astro.resolver;
 
 import java.io.IOException;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
 
-import org.restlet.data.LocalReference;
 import org.restlet.data.Status;
 import org.restlet.engine.Engine;
-import org.restlet.representation.Representation;
-import org.restlet.resource.ClientResource;
 
-import fr.cnes.sitools.astro.resolver.constellations.Wrapper;
+import fr.cnes.sitools.astro.resolver.constellations.ConstellationIndex;
 
 /**
  * Queries the SITools2 database and returns the coordinates of one constellation
  * for a given name.<br/>
  * The ConstellationNameResolver lets you get a sky position given an object name.
+ * The name is searched in {@link ConstellationIndex}, whatever its case and its accents.
  *
  * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
  */
@@ -56,11 +51,6 @@ public class ConstellationNameResolver extends AbstractNameResolver {
      * Credits to return.
      */
     private static final String CREDITS_NAME = "Wikipedia";
-
-    /**
-     * Constellation database.
-     */
-    private static final String CONSTELLATIONS_DB = "constellations.data";
     /**
      * Empty constructor.
      */
@@ -94,16 +84,10 @@ public class ConstellationNameResolver extends AbstractNameResolver {
     public final NameResolverResponse getResponse() {
         NameResolverResponse response = new NameResolverResponse(CREDITS_NAME);
         try {
-            final Representation constelDb = new ClientResource(LocalReference.createClapReference(Wrapper.class.getPackage()) + "/"
-                    + CONSTELLATIONS_DB).get();
-            final JAXBContext jaxb = JAXBContext.newInstance(Wrapper.class);
-            final Unmarshaller umMarshaller = jaxb.createUnmarshaller();
-            final Wrapper wrapper = (Wrapper) umMarshaller.unmarshal(constelDb.getStream());
-            final Map<String, Double[]> database = wrapper.getHashMap();
-            if (database.containsKey(getConstellationName())) {
+            final ConstellationIndex.Constellation constellation = ConstellationIndex.getInstance().getConstellation(getConstellationName());
+            if (constellation != null) {
                 LOG.log(Level.INFO, "{0} found as constellation", getConstellationName());
-                final Double[] coordinates = database.get(getConstellationName());
-                response.addAstroCoordinate(coordinates[0], coordinates[1]);
+                response.addAstroCoordinate(constellation.getRightAscension(), constellation.getDeclination());
             } else {
                 LOG.log(Level.WARNING, "{0} not found as constellation", getConstellationName());
                 if (getSuccessor() == null) {
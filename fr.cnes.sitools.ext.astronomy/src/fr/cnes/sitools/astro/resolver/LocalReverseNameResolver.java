@@ -0,0 +1,484 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.resolver;
+
+import healpix.essentials.HealpixBase;
+import healpix.essentials.Pointing;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+import healpix.essentials.Vec3;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.engine.Engine;
+
+import fr.cnes.sitools.extensions.astro.application.opensearch.datamodel.FeatureDataModel;
+import fr.cnes.sitools.extensions.astro.application.opensearch.datamodel.FeaturesDataModel;
+import fr.cnes.sitools.extensions.common.AstroCoordinate;
+import fr.cnes.sitools.extensions.common.AstroCoordinate.CoordinateSystem;
+
+/**
+ * Finds the nearest object of a local catalogue for a given sky position and a radius.
+ *
+ * <p>
+ * The catalogue is a text file with one object by line:
+ * <code>name;ra;dec[;magnitude[;type]]</code>, where ra and dec are the
+ * equatorial coordinates in decimal degrees. The empty lines and the lines
+ * starting with <code>#</code> are ignored.
+ * </p>
+ *
+ * <p>
+ * The objects are sorted by NESTED Healpix pixel of order {@link #ORDER}, so
+ * that the objects of a pixel are contiguous. A query only reads the objects
+ * of the pixels that overlap the cone, then keeps the nearest one. The index
+ * is immutable and can be queried by several threads.
+ * </p>
+ *
+ * <p>
+ * It is used by the reverse name resolver service before calling
+ * {@link ReverseNameResolver}, so that the remote service is only called
+ * when no object of the catalogue is in the cone.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class LocalReverseNameResolver {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Engine.getLogger(LocalReverseNameResolver.class.getName());
+  /**
+   * Healpix order of the index, its pixels are larger than the maximal radius of the reverse name resolver.
+   */
+  public static final int ORDER = 6;
+  /**
+   * Oversampling factor of the inclusive cone search.
+   */
+  private static final int TYPICAL_CHOICE_FACT = 4;
+  /**
+   * Separator of the columns of the catalogue.
+   */
+  private static final String SEPARATOR = ";";
+  /**
+   * Minimal delay in milliseconds between two checks of the modification of a catalogue file.
+   */
+  public static final long DEFAULT_CHECK_INTERVAL = 10000;
+  /**
+   * Catalogue files by path.
+   */
+  private static final ConcurrentMap<String, CatalogueFile> INSTANCES = new ConcurrentHashMap<String, CatalogueFile>();
+  /**
+   * Credits of the catalogue.
+   */
+  private final String credits;
+  /**
+   * Last modification of the catalogue file.
+   */
+  private final long lastModified;
+  /**
+   * Healpix grid.
+   */
+  private final HealpixBase healpix;
+  /**
+   * Start of the objects of each pixel.
+   */
+  private final int[] offsets;
+  /**
+   * Objects, sorted by pixel.
+   */
+  private final CatalogueObject[] objects;
+  /**
+   * Unit vectors of the objects, x, y and z of each object.
+   */
+  private final double[] vectors;
+
+  /**
+   * Loads a catalogue.
+   *
+   * @param reader catalogue
+   * @param creditsVal credits returned with the objects
+   * @throws IOException if the catalogue cannot be read or is not valid
+   */
+  public LocalReverseNameResolver(final Reader reader, final String creditsVal) throws IOException {
+    this(reader, creditsVal, 0);
+  }
+
+  /**
+   * Loads a catalogue.
+   *
+   * @param reader catalogue
+   * @param creditsVal credits returned with the objects
+   * @param lastModifiedVal last modification of the catalogue file
+   * @throws IOException if the catalogue cannot be read or is not valid
+   */
+  private LocalReverseNameResolver(final Reader reader, final String creditsVal, final long lastModifiedVal) throws IOException {
+    this.credits = creditsVal;
+    this.lastModified = lastModifiedVal;
+    final List<CatalogueObject> list = read(reader);
+    try {
+      this.healpix = new HealpixBase(1L << ORDER, Scheme.NESTED);
+      final int nbPixels = (int) healpix.getNpix();
+      final int[] pixels = new int[list.size()];
+      // counting sort of the objects by pixel
+      this.offsets = new int[nbPixels + 1];
+      for (int i = 0; i < list.size(); i++) {
+        pixels[i] = (int) healpix.vec2pix(list.get(i).vector);
+        this.offsets[pixels[i] + 1]++;
+      }
+      for (int pixel = 0; pixel < nbPixels; pixel++) {
+        this.offsets[pixel + 1] += this.offsets[pixel];
+      }
+      final int[] next = this.offsets.clone();
+      this.objects = new CatalogueObject[list.size()];
+      this.vectors = new double[3 * list.size()];
+      for (int i = 0; i < list.size(); i++) {
+        final int position = next[pixels[i]]++;
+        final CatalogueObject object = list.get(i);
+        this.objects[position] = object;
+        this.vectors[3 * position] = object.vector.x;
+        this.vectors[3 * position + 1] = object.vector.y;
+        this.vectors[3 * position + 2] = object.vector.z;
+      }
+    } catch (Exception ex) {
+      throw new IllegalStateException("Cannot build the Healpix index of the catalogue", ex);
+    }
+  }
+
+  /**
+   * Returns the index of a catalogue file, which is loaded again when the file changes.
+   *
+   * <p>The modification of the file is checked at most every {@link #DEFAULT_CHECK_INTERVAL} ms.</p>
+   *
+   * @param file catalogue file, encoded in UTF-8
+   * @return the index
+   * @throws IOException if the catalogue cannot be read or is not valid
+   */
+  public static LocalReverseNameResolver getInstance(final File file) throws IOException {
+    return getInstance(file, DEFAULT_CHECK_INTERVAL);
+  }
+
+  /**
+   * Returns the index of a catalogue file, which is loaded again when the file changes.
+   *
+   * @param file catalogue file, encoded in UTF-8
+   * @param checkInterval minimal delay in milliseconds between two checks of the modification of the file
+   * @return the index
+   * @throws IOException if the catalogue cannot be read or is not valid
+   */
+  static LocalReverseNameResolver getInstance(final File file, final long checkInterval) throws IOException {
+    final String path = file.getAbsolutePath();
+    CatalogueFile catalogueFile = INSTANCES.get(path);
+    if (catalogueFile == null) {
+      final CatalogueFile created = new CatalogueFile(file);
+      catalogueFile = INSTANCES.putIfAbsent(path, created);
+      if (catalogueFile == null) {
+        catalogueFile = created;
+      }
+    }
+    return catalogueFile.get(checkInterval);
+  }
+
+  /**
+   * Reads the objects of a catalogue.
+   *
+   * @param reader catalogue
+   * @return the objects
+   * @throws IOException if the catalogue cannot be read or is not valid
+   */
+  private static List<CatalogueObject> read(final Reader reader) throws IOException {
+    final List<CatalogueObject> list = new ArrayList<CatalogueObject>();
+    final BufferedReader lines = new BufferedReader(reader);
+    int lineNumber = 0;
+    String line;
+    while ((line = lines.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      final String[] columns = line.split(SEPARATOR, -1);
+      try {
+        if (columns.length < 3 || columns[0].trim().isEmpty()) {
+          throw new IllegalArgumentException("name;ra;dec[;magnitude[;type]] is expected");
+        }
+        final double rightAscension = Double.parseDouble(columns[1].trim());
+        final double declination = Double.parseDouble(columns[2].trim());
+        if (declination < -90 || declination > 90) {
+          throw new IllegalArgumentException("declination must be between -90 and 90");
+        }
+        final double magnitude = (columns.length > 3 && !columns[3].trim().isEmpty()) ? Double.parseDouble(columns[3].trim()) : Double.NaN;
+        final String type = (columns.length > 4) ? columns[4].trim() : "";
+        list.add(new CatalogueObject(columns[0].trim(), rightAscension, declination, magnitude, type));
+      } catch (IllegalArgumentException ex) {
+        throw new IOException("Line " + lineNumber + " of the catalogue is not valid: " + ex.getMessage(), ex);
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Returns the number of objects.
+   *
+   * @return the number of objects
+   */
+  public int size() {
+    return objects.length;
+  }
+
+  /**
+   * Returns the nearest object in a cone.
+   *
+   * @param rightAscension right ascension of the center in decimal degrees (equatorial)
+   * @param declination declination of the center in decimal degrees (equatorial)
+   * @param radius radius in degrees
+   * @return the nearest object or null when no object is in the cone
+   */
+  public CatalogueObject find(final double rightAscension, final double declination, final double radius) {
+    if (declination < -90 || declination > 90) {
+      throw new IllegalArgumentException("declination must be between -90 and 90");
+    }
+    final Pointing center = toPointing(rightAscension, declination);
+    final RangeSet pixels;
+    try {
+      pixels = healpix.queryDiscInclusive(center, Math.toRadians(radius), TYPICAL_CHOICE_FACT);
+    } catch (Exception ex) {
+      throw new IllegalArgumentException("Invalid cone " + rightAscension + " " + declination + " " + radius, ex);
+    }
+    final Vec3 vector = new Vec3(center);
+    double maxDot = Math.cos(Math.toRadians(radius));
+    int nearest = -1;
+    for (int i = 0; i < pixels.size(); i++) {
+      final int end = offsets[(int) pixels.ivend(i)];
+      for (int j = offsets[(int) pixels.ivbegin(i)]; j < end; j++) {
+        final double dot = vector.x * vectors[3 * j] + vector.y * vectors[3 * j + 1] + vector.z * vectors[3 * j + 2];
+        if (dot >= maxDot) {
+          maxDot = dot;
+          nearest = j;
+        }
+      }
+    }
+    return (nearest == -1) ? null : objects[nearest];
+  }
+
+  /**
+   * Returns the response in the format of {@link ReverseNameResolver#getJsonResponse()}.
+   *
+   * @param object object found in the catalogue
+   * @param coordinatesSystem coordinate system of the response
+   * @return response
+   */
+  public Map getJsonResponse(final CatalogueObject object, final CoordinateSystem coordinatesSystem) {
+    final FeaturesDataModel features = new FeaturesDataModel();
+    final FeatureDataModel feature = new FeatureDataModel(object.getName());
+    feature.addProperty("title", object.getName());
+    feature.addProperty("credits", credits);
+    if (!Double.isNaN(object.getMagnitude())) {
+      feature.addProperty("magnitude", object.getMagnitude());
+    }
+    feature.addProperty("type", object.getType());
+    feature.addProperty("seeAlso", "http://simbad.u-strasbg.fr/simbad/sim-id?Ident=" + object.getName());
+    final AstroCoordinate astroCoordinate = new AstroCoordinate(object.getRightAscension(), object.getDeclination());
+    astroCoordinate.processTo(coordinatesSystem);
+    feature.createGeometry(String.format("[%s,%s]", astroCoordinate.getRaAsDecimal(), astroCoordinate.getDecAsDecimal()), "Point");
+    feature.createCrs(coordinatesSystem.getCrs());
+    features.addFeature(feature);
+    return Collections.unmodifiableMap(features.getFeatures());
+  }
+
+  /**
+   * Returns the Healpix pointing of a position.
+   *
+   * @param rightAscension right ascension in decimal degrees
+   * @param declination declination in decimal degrees
+   * @return the pointing
+   */
+  private static Pointing toPointing(final double rightAscension, final double declination) {
+    return new Pointing(Math.PI / 2 - Math.toRadians(declination), Math.toRadians(rightAscension));
+  }
+
+  /**
+   * Index of a catalogue file, read without lock between two checks of the modification of the file.
+   */
+  private static final class CatalogueFile {
+
+    /**
+     * Catalogue file.
+     */
+    private final File file;
+    /**
+     * Index of the file, null until the first call.
+     */
+    private volatile LocalReverseNameResolver resolver;
+    /**
+     * Time in milliseconds of the last check of the modification of the file.
+     */
+    private volatile long lastCheck;
+
+    /**
+     * Constructs the index of a catalogue file, loaded at the first call.
+     *
+     * @param fileVal catalogue file
+     */
+    CatalogueFile(final File fileVal) {
+      this.file = fileVal;
+    }
+
+    /**
+     * Returns the index, loaded again when the file changed since the last check.
+     *
+     * @param checkInterval minimal delay in milliseconds between two checks
+     * @return the index
+     * @throws IOException if the catalogue cannot be read or is not valid
+     */
+    LocalReverseNameResolver get(final long checkInterval) throws IOException {
+      LocalReverseNameResolver current = resolver;
+      if (current != null && System.currentTimeMillis() - lastCheck < checkInterval) {
+        return current;
+      }
+      synchronized (this) {
+        current = resolver;
+        final long now = System.currentTimeMillis();
+        if (current == null || now - lastCheck >= checkInterval) {
+          final long lastModified = file.lastModified();
+          if (current == null || current.lastModified != lastModified) {
+            final Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            try {
+              current = new LocalReverseNameResolver(reader, file.getName(), lastModified);
+            } finally {
+              reader.close();
+            }
+            resolver = current;
+            LOG.log(Level.INFO, "{0} objects loaded in the local reverse name resolver from {1}", new Object[]{current.size(), file});
+          }
+          lastCheck = now;
+        }
+        return current;
+      }
+    }
+  }
+
+  /**
+   * Object of the catalogue.
+   */
+  public static final class CatalogueObject {
+
+    /**
+     * Name.
+     */
+    private final String name;
+    /**
+     * Right ascension in decimal degrees.
+     */
+    private final double rightAscension;
+    /**
+     * Declination in decimal degrees.
+     */
+    private final double declination;
+    /**
+     * Magnitude, NaN when unknown.
+     */
+    private final double magnitude;
+    /**
+     * Object type.
+     */
+    private final String type;
+    /**
+     * Unit vector.
+     */
+    private final Vec3 vector;
+
+    /**
+     * Constructs an object.
+     *
+     * @param nameVal name
+     * @param rightAscensionVal right ascension in decimal degrees
+     * @param declinationVal declination in decimal degrees
+     * @param magnitudeVal magnitude, NaN when unknown
+     * @param typeVal object type
+     */
+    private CatalogueObject(final String nameVal, final double rightAscensionVal, final double declinationVal,
+            final double magnitudeVal, final String typeVal) {
+      this.name = nameVal;
+      this.rightAscension = rightAscensionVal;
+      this.declination = declinationVal;
+      this.magnitude = magnitudeVal;
+      this.type = typeVal;
+      this.vector = new Vec3(toPointing(rightAscensionVal, declinationVal));
+    }
+
+    /**
+     * Returns the name.
+     *
+     * @return the name
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the right ascension.
+     *
+     * @return the right ascension in decimal degrees
+     */
+    public double getRightAscension() {
+      return rightAscension;
+    }
+
+    /**
+     * Returns the declination.
+     *
+     * @return the declination in decimal degrees
+     */
+    public double getDeclination() {
+      return declination;
+    }
+
+    /**
+     * Returns the magnitude.
+     *
+     * @return the magnitude, NaN when unknown
+     */
+    public double getMagnitude() {
+      return magnitude;
+    }
+
+    /**
+     * Returns the object type.
+     *
+     * @return the object type
+     */
+    public String getType() {
+      return type;
+    }
+  }
+}
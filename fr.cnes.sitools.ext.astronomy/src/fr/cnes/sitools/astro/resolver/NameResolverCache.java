@@ -0,0 +1,668 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.resolver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.data.Status;
+import org.restlet.engine.Engine;
+
+import fr.cnes.sitools.extensions.common.AstroCoordinate;
+
+/**
+ * Keeps the responses of the name resolvers in memory, and optionally on disk.
+ *
+ * <p>
+ * The responses are kept by resolver and by query, during a time to live that
+ * depends on the resolver: the position of a star does not change while the
+ * position of a solar system object does. The "not found" responses are kept
+ * during a shorter time, so an unknown name does not go through the whole
+ * chain of resolvers at each request. The other errors are never kept. The
+ * least recently used responses are removed above the cache size.
+ * </p>
+ *
+ * <p>
+ * The number of hits and misses and the time spent in the upstream services
+ * are counted by resolver. When a persistence file is set, the responses are
+ * saved in it every minute when they have changed, and loaded at start.
+ * </p>
+ *
+ * @see CachedNameResolver the resolver that uses this cache
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class NameResolverCache {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Engine.getLogger(NameResolverCache.class.getName());
+  /**
+   * CDS resolver.
+   */
+  public static final String CDS = "CDS";
+  /**
+   * IMCCE resolver.
+   */
+  public static final String IMCCE = "IMCCE";
+  /**
+   * CDS reverse name resolver.
+   */
+  public static final String REVERSE = "ReverseCDS";
+  /**
+   * Default number of responses kept in memory.
+   */
+  public static final int DEFAULT_CACHE_SIZE = 10000;
+  /**
+   * Default time to live in ms of a response.
+   */
+  public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.DAYS.toMillis(1);
+  /**
+   * Default time to live in ms of a "not found" response.
+   */
+  public static final long DEFAULT_NOT_FOUND_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(10);
+  /**
+   * Delay in seconds between two saves of the persistence file.
+   */
+  private static final long SAVE_DELAY = 60;
+  /**
+   * Shared cache.
+   */
+  private static NameResolverCache instance = null;
+  /**
+   * Responses by resolver and query, in LRU order.
+   */
+  private final Map<String, Entry> entries;
+  /**
+   * Time to live in ms of the responses by resolver.
+   */
+  private final ConcurrentMap<String, Long> timesToLive = new ConcurrentHashMap<String, Long>();
+  /**
+   * Statistics by resolver.
+   */
+  private final ConcurrentMap<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+  /**
+   * Time to live in ms of a "not found" response.
+   */
+  private volatile long notFoundTimeToLive = DEFAULT_NOT_FOUND_TIME_TO_LIVE;
+  /**
+   * Persistence file, null when the responses are only kept in memory.
+   */
+  private File persistenceFile = null;
+  /**
+   * Shows if the responses have changed since the last save.
+   */
+  private boolean modified = false;
+  /**
+   * Thread that saves the persistence file.
+   */
+  private ScheduledExecutorService saver = null;
+
+  /**
+   * Constructs a cache.
+   *
+   * @param cacheSize number of responses kept in memory
+   */
+  public NameResolverCache(final int cacheSize) {
+    if (cacheSize < 1) {
+      throw new IllegalArgumentException("cacheSize must be positive");
+    }
+    this.entries = new LinkedHashMap<String, Entry>(cacheSize + 1, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+        return size() > cacheSize;
+      }
+    };
+    this.timesToLive.put(CDS, TimeUnit.DAYS.toMillis(7));
+    this.timesToLive.put(IMCCE, TimeUnit.MINUTES.toMillis(10));
+    this.timesToLive.put(REVERSE, TimeUnit.DAYS.toMillis(7));
+  }
+
+  /**
+   * Returns the shared cache.
+   *
+   * @return the shared cache
+   */
+  public static synchronized NameResolverCache getInstance() {
+    if (instance == null) {
+      instance = new NameResolverCache(DEFAULT_CACHE_SIZE);
+    }
+    return instance;
+  }
+
+  /**
+   * Sets the time to live of the responses of a resolver.
+   *
+   * @param resolverName resolver
+   * @param timeToLive time to live in ms
+   */
+  public void setTimeToLive(final String resolverName, final long timeToLive) {
+    this.timesToLive.put(resolverName, timeToLive);
+  }
+
+  /**
+   * Returns the time to live of the responses of a resolver.
+   *
+   * @param resolverName resolver
+   * @return the time to live in ms
+   */
+  public long getTimeToLive(final String resolverName) {
+    final Long timeToLive = this.timesToLive.get(resolverName);
+    return (timeToLive == null) ? DEFAULT_TIME_TO_LIVE : timeToLive;
+  }
+
+  /**
+   * Sets the time to live of the "not found" responses.
+   *
+   * @param timeToLive time to live in ms
+   */
+  public void setNotFoundTimeToLive(final long timeToLive) {
+    this.notFoundTimeToLive = timeToLive;
+  }
+
+  /**
+   * Returns the cached response of a name resolver.
+   *
+   * @param resolverName resolver
+   * @param query query of the resolver
+   * @return a copy of the response, which can be an error, or null when the query is not cached
+   */
+  public NameResolverResponse getResponse(final String resolverName, final String query) {
+    final Entry entry = get(resolverName, query);
+    return (entry == null) ? null : entry.toResponse();
+  }
+
+  /**
+   * Keeps the response of a name resolver.
+   *
+   * <p>Only the responses with coordinates and the "not found" responses are kept.</p>
+   *
+   * @param resolverName resolver
+   * @param query query of the resolver
+   * @param response response
+   */
+  public void putResponse(final String resolverName, final String query, final NameResolverResponse response) {
+    if (response.hasResult()) {
+      put(resolverName, query, Entry.fromResponse(response, System.currentTimeMillis() + getTimeToLive(resolverName)));
+    } else if (isNotFound(response.getError())) {
+      put(resolverName, query, Entry.fromResponse(response, System.currentTimeMillis() + notFoundTimeToLive));
+    }
+  }
+
+  /**
+   * Returns a cached value that is not a name resolver response.
+   *
+   * @param resolverName resolver
+   * @param query query of the resolver
+   * @return the value or null when the query is not cached
+   */
+  public Object getValue(final String resolverName, final String query) {
+    final Entry entry = get(resolverName, query);
+    return (entry == null) ? null : entry.value;
+  }
+
+  /**
+   * Keeps a value that is not a name resolver response.
+   *
+   * <p>The value must not be modified afterwards, and must be serializable to be saved.</p>
+   *
+   * @param resolverName resolver
+   * @param query query of the resolver
+   * @param value value
+   */
+  public void putValue(final String resolverName, final String query, final Object value) {
+    final Entry entry = new Entry(System.currentTimeMillis() + getTimeToLive(resolverName));
+    entry.value = value;
+    put(resolverName, query, entry);
+  }
+
+  /**
+   * Counts a call to the upstream service of a resolver.
+   *
+   * @param resolverName resolver
+   * @param elapsedTime time spent in the upstream service in ms
+   */
+  public void recordMiss(final String resolverName, final long elapsedTime) {
+    final Statistics stats = getStatistics(resolverName);
+    stats.misses.incrementAndGet();
+    stats.upstreamTime.addAndGet(elapsedTime);
+  }
+
+  /**
+   * Returns the statistics of the resolvers.
+   *
+   * <p>
+   * For each resolver, the map contains the number of <code>hits</code>, of
+   * <code>notFoundHits</code> and of <code>misses</code>, the
+   * <code>hitRate</code> in percent, the <code>upstreamTime</code> and the
+   * <code>savedTime</code> in ms. The saved time is estimated from the mean
+   * time of the upstream calls.
+   * </p>
+   *
+   * @return the statistics by resolver
+   */
+  public Map<String, Map<String, Long>> getStatistics() {
+    final Map<String, Map<String, Long>> result = new HashMap<String, Map<String, Long>>();
+    for (Map.Entry<String, Statistics> statsIter : statistics.entrySet()) {
+      final Statistics stats = statsIter.getValue();
+      final long hits = stats.hits.get();
+      final long notFoundHits = stats.notFoundHits.get();
+      final long misses = stats.misses.get();
+      final long upstreamTime = stats.upstreamTime.get();
+      final long requests = hits + notFoundHits + misses;
+      final Map<String, Long> values = new LinkedHashMap<String, Long>();
+      values.put("hits", hits);
+      values.put("notFoundHits", notFoundHits);
+      values.put("misses", misses);
+      values.put("hitRate", (requests == 0) ? 0 : 100 * (hits + notFoundHits) / requests);
+      values.put("upstreamTime", upstreamTime);
+      values.put("savedTime", (misses == 0) ? 0 : (hits + notFoundHits) * upstreamTime / misses);
+      result.put(statsIter.getKey(), values);
+    }
+    return result;
+  }
+
+  /**
+   * Sets the file where the responses are saved, and loads it.
+   *
+   * <p>The first file that is set is used, the next ones are ignored.</p>
+   *
+   * @param file persistence file
+   */
+  public synchronized void setPersistenceFile(final File file) {
+    if (persistenceFile != null) {
+      if (!persistenceFile.equals(file)) {
+        LOG.log(Level.WARNING, "The name resolver cache is already saved in {0}, {1} is ignored", new Object[]{persistenceFile, file});
+      }
+      return;
+    }
+    persistenceFile = file;
+    if (file.exists()) {
+      try {
+        load(file);
+      } catch (IOException ex) {
+        LOG.log(Level.WARNING, "Cannot load the name resolver cache from " + file, ex);
+      }
+    }
+    saver = Executors.newSingleThreadScheduledExecutor(new SaverThreadFactory());
+    saver.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          save();
+        } catch (IOException ex) {
+          LOG.log(Level.WARNING, "Cannot save the name resolver cache", ex);
+        }
+      }
+    }, SAVE_DELAY, SAVE_DELAY, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Saves the responses in the persistence file when they have changed.
+   *
+   * <p>The values that are not serializable are not saved.</p>
+   *
+   * @throws IOException if the file cannot be written
+   */
+  public void save() throws IOException {
+    final File file;
+    final List<Map.Entry<String, Entry>> snapshot;
+    synchronized (this) {
+      if (persistenceFile == null || !modified) {
+        return;
+      }
+      file = persistenceFile;
+      snapshot = new ArrayList<Map.Entry<String, Entry>>(new LinkedHashMap<String, Entry>(entries).entrySet());
+      modified = false;
+    }
+    final File tmpFile = new File(file.getPath() + ".tmp");
+    final ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+    int nbEntries = 0;
+    try {
+      for (Map.Entry<String, Entry> entryIter : snapshot) {
+        final byte[] bytes = serialize(entryIter.getValue());
+        if (bytes != null) {
+          output.writeUTF(entryIter.getKey());
+          output.writeInt(bytes.length);
+          output.write(bytes);
+          nbEntries++;
+        }
+      }
+    } finally {
+      output.close();
+    }
+    if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+      throw new IOException("Cannot rename " + tmpFile + " to " + file);
+    }
+    LOG.log(Level.INFO, "Name resolver cache saved ({0} responses), statistics: {1}", new Object[]{nbEntries, getStatistics()});
+  }
+
+  /**
+   * Loads the responses that are not expired.
+   *
+   * @param file persistence file
+   * @throws IOException if the file cannot be read
+   */
+  private void load(final File file) throws IOException {
+    final long now = System.currentTimeMillis();
+    final ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+    int nbEntries = 0;
+    try {
+      while (true) {
+        final String key;
+        final byte[] bytes;
+        try {
+          key = input.readUTF();
+          bytes = new byte[input.readInt()];
+        } catch (EOFException ex) {
+          break;
+        }
+        input.readFully(bytes);
+        try {
+          final Entry entry = (Entry) new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+          if (entry.expiration > now) {
+            entries.put(key, entry);
+            nbEntries++;
+          }
+        } catch (ClassNotFoundException ex) {
+          LOG.log(Level.FINE, "Response not loaded", ex);
+        }
+      }
+    } finally {
+      input.close();
+    }
+    LOG.log(Level.INFO, "{0} responses loaded in the name resolver cache from {1}", new Object[]{nbEntries, file});
+  }
+
+  /**
+   * Returns the serialized entry.
+   *
+   * @param entry entry
+   * @return the bytes or null when the entry is not serializable
+   */
+  private static byte[] serialize(final Entry entry) {
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final ObjectOutputStream output = new ObjectOutputStream(bytes);
+      output.writeObject(entry);
+      output.close();
+      return bytes.toByteArray();
+    } catch (IOException ex) {
+      LOG.log(Level.FINE, "Response not saved", ex);
+      return null;
+    }
+  }
+
+  /**
+   * Returns a cached entry that is not expired and counts the hit.
+   *
+   * @param resolverName resolver
+   * @param query query
+   * @return the entry or null
+   */
+  private Entry get(final String resolverName, final String query) {
+    final String key = resolverName + "\n" + query;
+    final Entry entry;
+    synchronized (this) {
+      Entry cached = entries.get(key);
+      if (cached != null && cached.expiration <= System.currentTimeMillis()) {
+        entries.remove(key);
+        modified = true;
+        cached = null;
+      }
+      entry = cached;
+    }
+    if (entry != null) {
+      final Statistics stats = getStatistics(resolverName);
+      if (entry.isNotFound()) {
+        stats.notFoundHits.incrementAndGet();
+      } else {
+        stats.hits.incrementAndGet();
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Keeps an entry.
+   *
+   * @param resolverName resolver
+   * @param query query
+   * @param entry entry
+   */
+  private synchronized void put(final String resolverName, final String query, final Entry entry) {
+    entries.put(resolverName + "\n" + query, entry);
+    modified = true;
+  }
+
+  /**
+   * Returns the statistics of a resolver.
+   *
+   * @param resolverName resolver
+   * @return the statistics
+   */
+  private Statistics getStatistics(final String resolverName) {
+    Statistics stats = statistics.get(resolverName);
+    if (stats == null) {
+      final Statistics newStats = new Statistics();
+      stats = statistics.putIfAbsent(resolverName, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Returns <code>true</code> when an error means that the object is unknown.
+   *
+   * @param error error of a resolver
+   * @return <code>true</code> when the object is unknown
+   */
+  private static boolean isNotFound(final NameResolverException error) {
+    return error != null && (Status.CLIENT_ERROR_NOT_FOUND.equals(error.getStatus())
+            || Status.SUCCESS_PARTIAL_CONTENT.equals(error.getStatus()));
+  }
+
+  /**
+   * Counters of a resolver.
+   */
+  private static final class Statistics {
+
+    /**
+     * Responses with coordinates found in the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * "Not found" responses found in the cache.
+     */
+    private final AtomicLong notFoundHits = new AtomicLong();
+    /**
+     * Calls to the upstream service.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * Time spent in the upstream service in ms.
+     */
+    private final AtomicLong upstreamTime = new AtomicLong();
+  }
+
+  /**
+   * Cached response.
+   */
+  private static final class Entry implements Serializable {
+
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Expiration time in ms.
+     */
+    private final long expiration;
+    /**
+     * Credits.
+     */
+    private String credits;
+    /**
+     * Right ascensions.
+     */
+    private double[] rightAscensions;
+    /**
+     * Declinations.
+     */
+    private double[] declinations;
+    /**
+     * Coordinate systems.
+     */
+    private AstroCoordinate.CoordinateSystem[] coordinateSystems;
+    /**
+     * Metadata of the coordinates.
+     */
+    private HashMap<String, String>[] metadata;
+    /**
+     * Status code of the error, 0 when the response has coordinates.
+     */
+    private int errorCode;
+    /**
+     * Message of the error.
+     */
+    private String errorMessage;
+    /**
+     * Value that is not a name resolver response.
+     */
+    private Object value;
+
+    /**
+     * Constructs an entry.
+     *
+     * @param expirationVal expiration time in ms
+     */
+    private Entry(final long expirationVal) {
+      this.expiration = expirationVal;
+    }
+
+    /**
+     * Returns the entry of a response.
+     *
+     * @param response response
+     * @param expiration expiration time in ms
+     * @return the entry
+     */
+    @SuppressWarnings("unchecked")
+    private static Entry fromResponse(final NameResolverResponse response, final long expiration) {
+      final Entry entry = new Entry(expiration);
+      entry.credits = response.getCredits();
+      if (response.hasResult()) {
+        final List<AstroCoordinate> coordinates = response.getAstroCoordinates();
+        entry.rightAscensions = new double[coordinates.size()];
+        entry.declinations = new double[coordinates.size()];
+        entry.coordinateSystems = new AstroCoordinate.CoordinateSystem[coordinates.size()];
+        entry.metadata = new HashMap[coordinates.size()];
+        for (int i = 0; i < coordinates.size(); i++) {
+          final AstroCoordinate coordinate = coordinates.get(i);
+          entry.rightAscensions[i] = coordinate.getRaAsDecimal();
+          entry.declinations[i] = coordinate.getDecAsDecimal();
+          entry.coordinateSystems[i] = coordinate.getCoordinateSystem();
+          entry.metadata[i] = new HashMap<String, String>(coordinate.getMatadata());
+        }
+      } else {
+        entry.errorCode = response.getError().getStatus().getCode();
+        entry.errorMessage = response.getError().getMessage();
+      }
+      return entry;
+    }
+
+    /**
+     * Returns <code>true</code> when the entry is a "not found" response.
+     *
+     * @return <code>true</code> when the object is unknown
+     */
+    private boolean isNotFound() {
+      return errorCode != 0;
+    }
+
+    /**
+     * Returns a new response, which can be modified.
+     *
+     * @return the response
+     */
+    private NameResolverResponse toResponse() {
+      final NameResolverResponse response = new NameResolverResponse(credits);
+      if (isNotFound()) {
+        response.setError(new NameResolverException(Status.valueOf(errorCode), errorMessage));
+      } else {
+        for (int i = 0; i < rightAscensions.length; i++) {
+          final AstroCoordinate coordinate = new AstroCoordinate(rightAscensions[i], declinations[i]);
+          if (coordinateSystems[i] != null) {
+            coordinate.setCoordinateSystem(coordinateSystems[i]);
+          }
+          coordinate.addMetadata(metadata[i]);
+          response.addAstoCoordinate(coordinate);
+        }
+      }
+      return response;
+    }
+  }
+
+  /**
+   * Creates the daemon thread that saves the persistence file.
+   */
+  private static final class SaverThreadFactory implements ThreadFactory {
+
+    /**
+     * Thread counter.
+     */
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      final Thread thread = new Thread(runnable, "name-resolver-cache-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
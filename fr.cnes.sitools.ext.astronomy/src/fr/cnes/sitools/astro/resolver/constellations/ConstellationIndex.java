@@ -0,0 +1,326 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.resolver.constellations;
+
+import healpix.essentials.HealpixBase;
+import healpix.essentials.Pointing;
+import healpix.essentials.Scheme;
+import healpix.essentials.Vec3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+/**
+ * Immutable index of the constellations database.
+ *
+ * <p>
+ * The database is unmarshalled once. The names are indexed in a hash map after
+ * removing the accents, the case and the extra spaces, so that
+ * <code>Pégase</code>, <code>pegase</code> and <code> PEGASE </code> find the
+ * same constellation. The names sharing the same coordinates are grouped in a
+ * single constellation.
+ * </p>
+ *
+ * <p>
+ * The database only contains the center of each constellation, so the
+ * constellation of a sky position is the one with the nearest center. The
+ * nearest centers are precomputed on a NESTED Healpix grid of order
+ * {@link #ORDER}: each pixel keeps the few constellations that can be the
+ * nearest one for a position in this pixel. Finding the constellation of a
+ * position is then a pixel computation followed by one or two dot products.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class ConstellationIndex {
+
+    /**
+     * Healpix order of the reverse index.
+     */
+    public static final int ORDER = 6;
+    /**
+     * Constellation database.
+     */
+    private static final String CONSTELLATIONS_DB = "constellations.data";
+    /**
+     * Accents after the Unicode decomposition.
+     */
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    /**
+     * Successive spaces, including the no-break spaces of the database.
+     */
+    private static final Pattern SPACES = Pattern.compile("[\\s\\u00A0]+");
+    /**
+     * Shared index of the bundled database.
+     */
+    private static ConstellationIndex instance = null;
+    /**
+     * Constellations by normalized name.
+     */
+    private final Map<String, Constellation> constellationsByName;
+    /**
+     * Constellations.
+     */
+    private final List<Constellation> constellations;
+    /**
+     * Healpix grid of the reverse index.
+     */
+    private final HealpixBase healpix;
+    /**
+     * Start of the candidates of each pixel in <code>candidates</code>.
+     */
+    private final int[] offsets;
+    /**
+     * Indexes of the constellations that can be the nearest one, pixel after pixel.
+     */
+    private final short[] candidates;
+
+    /**
+     * Builds the index of a constellations database.
+     *
+     * @param database coordinates (right ascension, declination) in degrees by constellation name
+     */
+    public ConstellationIndex(final Map<String, Double[]> database) {
+        final Map<String, Constellation> byName = new HashMap<String, Constellation>();
+        final Map<String, List<String>> namesByPosition = new LinkedHashMap<String, List<String>>();
+        final Map<String, Double[]> positions = new HashMap<String, Double[]>();
+        for (Map.Entry<String, Double[]> entry : database.entrySet()) {
+            final String position = entry.getValue()[0] + " " + entry.getValue()[1];
+            List<String> names = namesByPosition.get(position);
+            if (names == null) {
+                names = new ArrayList<String>();
+                namesByPosition.put(position, names);
+                positions.put(position, entry.getValue());
+            }
+            names.add(SPACES.matcher(entry.getKey()).replaceAll(" ").trim());
+        }
+        final List<Constellation> list = new ArrayList<Constellation>(namesByPosition.size());
+        for (Map.Entry<String, List<String>> entry : namesByPosition.entrySet()) {
+            final Double[] position = positions.get(entry.getKey());
+            Collections.sort(entry.getValue());
+            final Constellation constellation = new Constellation(entry.getValue(), position[0], position[1]);
+            list.add(constellation);
+            for (String name : entry.getValue()) {
+                byName.put(normalize(name), constellation);
+            }
+        }
+        if (list.size() > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many constellations: " + list.size());
+        }
+        this.constellationsByName = Collections.unmodifiableMap(byName);
+        this.constellations = Collections.unmodifiableList(list);
+        try {
+            this.healpix = new HealpixBase(1L << ORDER, Scheme.NESTED);
+            final int nbPixels = (int) healpix.getNpix();
+            this.offsets = new int[nbPixels + 1];
+            short[] pixelCandidates = new short[nbPixels];
+            final double[] distances = new double[list.size()];
+            final double margin = 2 * healpix.maxPixrad();
+            int nbCandidates = 0;
+            for (int pixel = 0; pixel < nbPixels; pixel++) {
+                final Vec3 center = healpix.pix2vec(pixel);
+                double minDistance = Double.MAX_VALUE;
+                for (int i = 0; i < list.size(); i++) {
+                    distances[i] = center.angle(list.get(i).vector);
+                    minDistance = Math.min(minDistance, distances[i]);
+                }
+                // a position of the pixel is at most maxPixrad from the center of the pixel
+                for (int i = 0; i < list.size(); i++) {
+                    if (distances[i] <= minDistance + margin) {
+                        if (nbCandidates == pixelCandidates.length) {
+                            pixelCandidates = Arrays.copyOf(pixelCandidates, 2 * nbCandidates);
+                        }
+                        pixelCandidates[nbCandidates++] = (short) i;
+                    }
+                }
+                this.offsets[pixel + 1] = nbCandidates;
+            }
+            this.candidates = Arrays.copyOf(pixelCandidates, nbCandidates);
+        } catch (Exception ex) {
+            throw new IllegalStateException("Cannot build the Healpix index of the constellations", ex);
+        }
+    }
+
+    /**
+     * Returns the index of the bundled constellations database.
+     *
+     * @return the index
+     * @throws JAXBException if the database cannot be unmarshalled
+     * @throws IOException if the database cannot be read
+     */
+    public static synchronized ConstellationIndex getInstance() throws JAXBException, IOException {
+        if (instance == null) {
+            final InputStream input = ConstellationIndex.class.getResourceAsStream(CONSTELLATIONS_DB);
+            if (input == null) {
+                throw new IOException(CONSTELLATIONS_DB + " not found");
+            }
+            try {
+                final Wrapper wrapper = (Wrapper) JAXBContext.newInstance(Wrapper.class).createUnmarshaller().unmarshal(input);
+                instance = new ConstellationIndex(wrapper.getHashMap());
+            } finally {
+                input.close();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the name without accents, in lower case and with single spaces.
+     *
+     * @param name name
+     * @return the normalized name
+     */
+    public static String normalize(final String name) {
+        final String withoutAccents = DIACRITICS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("");
+        return SPACES.matcher(withoutAccents).replaceAll(" ").trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the constellation of a name.
+     *
+     * @param name constellation name, whatever its case and its accents
+     * @return the constellation or null when the name is unknown
+     */
+    public Constellation getConstellation(final String name) {
+        return constellationsByName.get(normalize(name));
+    }
+
+    /**
+     * Returns the constellation whose center is the nearest to a sky position.
+     *
+     * @param rightAscension right ascension in degrees
+     * @param declination declination in degrees, between -90 and 90
+     * @return the constellation or null when the database is empty
+     */
+    public Constellation findConstellation(final double rightAscension, final double declination) {
+        if (declination < -90 || declination > 90) {
+            throw new IllegalArgumentException("declination must be between -90 and 90");
+        }
+        final Pointing pointing = new Pointing(Math.PI / 2 - Math.toRadians(declination), Math.toRadians(rightAscension));
+        final Vec3 vector = new Vec3(pointing);
+        final int pixel;
+        try {
+            pixel = (int) healpix.ang2pix(pointing);
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("Invalid position " + rightAscension + " " + declination, ex);
+        }
+        Constellation nearest = null;
+        double maxDot = -Double.MAX_VALUE;
+        for (int i = offsets[pixel]; i < offsets[pixel + 1]; i++) {
+            final Constellation constellation = constellations.get(candidates[i]);
+            final double dot = vector.dot(constellation.vector);
+            if (dot > maxDot) {
+                maxDot = dot;
+                nearest = constellation;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the constellations.
+     *
+     * @return the constellations
+     */
+    public List<Constellation> getConstellations() {
+        return constellations;
+    }
+
+    /**
+     * Constellation of the database.
+     */
+    public static final class Constellation {
+
+        /**
+         * Names of the constellation.
+         */
+        private final List<String> names;
+        /**
+         * Right ascension of the center in degrees.
+         */
+        private final double rightAscension;
+        /**
+         * Declination of the center in degrees.
+         */
+        private final double declination;
+        /**
+         * Unit vector of the center.
+         */
+        private final Vec3 vector;
+
+        /**
+         * Constructs a constellation.
+         *
+         * @param namesVal names
+         * @param rightAscensionVal right ascension of the center in degrees
+         * @param declinationVal declination of the center in degrees
+         */
+        private Constellation(final List<String> namesVal, final double rightAscensionVal, final double declinationVal) {
+            this.names = Collections.unmodifiableList(new ArrayList<String>(namesVal));
+            this.rightAscension = rightAscensionVal;
+            this.declination = declinationVal;
+            this.vector = new Vec3(new Pointing(Math.PI / 2 - Math.toRadians(declinationVal), Math.toRadians(rightAscensionVal)));
+        }
+
+        /**
+         * Returns the names of the constellation, in the different languages of the database.
+         *
+         * @return the names
+         */
+        public List<String> getNames() {
+            return names;
+        }
+
+        /**
+         * Returns the right ascension of the center.
+         *
+         * @return the right ascension in degrees
+         */
+        public double getRightAscension() {
+            return rightAscension;
+        }
+
+        /**
+         * Returns the declination of the center.
+         *
+         * @return the declination in degrees
+         */
+        public double getDeclination() {
+            return declination;
+        }
+
+        @Override
+        public String toString() {
+            return names.toString();
+        }
+    }
+}
@@ -78,6 +78,10 @@ public class ConeSearchProtocolLibrary {
      * verbosity.
      */
     public static final String VERB = "VERB";
+    /**
+     * Continuation token of a streamed response.
+     */
+    public static final String CURSOR = "CURSOR";
     /**
      * x column.
      */
@@ -90,6 +94,18 @@ public class ConeSearchProtocolLibrary {
      * z column.
      */
     public static final String Z = "COLUMN_Z";
+    /**
+     * NESTED Healpix index column.
+     */
+    public static final String HEALPIX = "COLUMN_HEALPIX";
+    /**
+     * Healpix order of the index column.
+     */
+    public static final String HEALPIX_ORDER = "HEALPIX_ORDER";
+    /**
+     * Number of rows read by query when the response is streamed.
+     */
+    public static final String CURSOR_PAGE_SIZE = "CURSOR_PAGE_SIZE";
     /**
      * Responsible party.
      */
@@ -18,6 +18,8 @@
  ******************************************************************************/
 package fr.cnes.sitools.astro.vo.conesearch;
 
+import healpix.essentials.RangeSet;
+
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -35,6 +37,8 @@ import net.ivoa.xml.votable.v1.Param;
 
 import org.restlet.engine.Engine;
 
+import fr.cnes.sitools.astro.representation.ContinuationToken;
+import fr.cnes.sitools.astro.representation.DatabaseCursorModel;
 import fr.cnes.sitools.astro.representation.DatabaseRequestModel;
 import fr.cnes.sitools.common.exception.SitoolsException;
 import fr.cnes.sitools.dataset.DataSetApplication;
@@ -45,9 +49,15 @@ import fr.cnes.sitools.dataset.database.DatabaseRequestParameters;
 import fr.cnes.sitools.dataset.database.common.DataSetExplorerUtil;
 import fr.cnes.sitools.dataset.dto.ColumnConceptMappingDTO;
 import fr.cnes.sitools.dataset.dto.DictionaryMappingDTO;
+import fr.cnes.sitools.dataset.model.Column;
 import fr.cnes.sitools.dataset.model.Predicat;
 import fr.cnes.sitools.dictionary.model.Concept;
 import fr.cnes.sitools.plugins.resources.model.ResourceModel;
+import fr.cnes.sitools.plugins.resources.model.ResourceParameter;
+import fr.cnes.sitools.searchgeometryengine.Cone;
+import fr.cnes.sitools.searchgeometryengine.CoordSystem;
+import fr.cnes.sitools.searchgeometryengine.HealpixRangeFilter;
+import fr.cnes.sitools.searchgeometryengine.Point;
 import fr.cnes.sitools.util.Util;
 import freemarker.template.TemplateSequenceModel;
 
@@ -159,6 +169,16 @@ public class ConeSearchResponse implements ConeSearchDataModelInterface {
 
       // Get query parameters
       final DatabaseRequestParameters dbParams = setQueryParameters(datasetApp, model, inputParameters);
+      final int maxRecords = dbParams.getPaginationExtend();
+      final int pageSize = getCursorPageSize(model, maxRecords);
+      final ContinuationToken token = (pageSize > 0) ? getContinuationToken(datasetApp, inputParameters) : null;
+      if (pageSize > 0) {
+        // the first page of the cursor
+        dbParams.setPaginationExtend(pageSize);
+        if (token != null) {
+          addPredicat(dbParams, token.toSqlPredicat());
+        }
+      }
       databaseRequest = DatabaseRequestFactory.getDatabaseRequest(dbParams);
 
       // Execute query
@@ -172,17 +192,32 @@ public class ConeSearchResponse implements ConeSearchDataModelInterface {
       dataModel.put("sqlColAlias", columnList);
 
       // Complete data model with data
-      final int count = (databaseRequest.getCount() > dbParams.getPaginationExtend()) ? dbParams.getPaginationExtend() : databaseRequest.getCount();
       final ConverterChained converterChained = datasetApp.getConverterChained();
-      final TemplateSequenceModel rows = new DatabaseRequestModel(databaseRequest, converterChained);
-      ((DatabaseRequestModel) rows).setSize(count);
+      if (pageSize > 0) {
+        // the key of the continuation token
+        final String primaryKey = getPrimaryKey(datasetApp);
+        final DatabaseCursorModel rows = new DatabaseCursorModel(databaseRequest, new DatabaseCursorModel.PageProvider() {
+          @Override
+          public DatabaseRequest nextPage(final String keysetPredicat, final int size) throws SitoolsException {
+            return openPage(datasetApp, model, inputParameters, keysetPredicat, size);
+          }
+        }, primaryKey, converterChained, pageSize, maxRecords);
+        dataModel.put("rows", rows);
+        dataModel.put("continuation", rows.getContinuationModel());
+      } else {
+        final int count = (databaseRequest.getCount() > dbParams.getPaginationExtend()) ? dbParams.getPaginationExtend() : databaseRequest.getCount();
+        final TemplateSequenceModel rows = new DatabaseRequestModel(databaseRequest, converterChained);
+        ((DatabaseRequestModel) rows).setSize(count);
+        dataModel.put("rows", rows);
+      }
       setVotableOK(infos);
       dataModel.put("infos", infos);
-      dataModel.put("rows", rows);
     } catch (SitoolsException ex) {
       LOG.log(Level.FINER, null, ex);
       try {
-        databaseRequest.close();
+        if (Util.isSet(databaseRequest)) {
+          databaseRequest.close();
+        }
       } catch (SitoolsException ex1) {
           LOG.log(Level.FINER, null, ex1);
       } finally {
@@ -231,17 +266,144 @@ public class ConeSearchResponse implements ConeSearchDataModelInterface {
     final double zmax = ((inputParameters.getDec() + inputParameters.getSr()) >= 90) ? 1 : Math.sin(Math
             .toRadians(inputParameters.getDec() + inputParameters.getSr()));
 
-    // Create predicat definition
-    final String predicatDefinition = String.format(" AND %s <= %s AND %s >= %s AND %s*%s + %s*%s + %s*%s >= %s", zCol,
+    // Create predicat definition, the Healpix filter is put first to use the index of the column
+    final String predicatDefinition = computeHealpixFilter(model, inputParameters)
+            + String.format(" AND %s <= %s AND %s >= %s AND %s*%s + %s*%s + %s*%s >= %s", zCol,
             String.valueOf(zmax), zCol, String.valueOf(zmin), xCol, xyz[0], yCol, xyz[1], zCol, xyz[2],
             String.valueOf(Math.cos(Math.toRadians(inputParameters.getSr()))));
 
+    addPredicat(dbParams, predicatDefinition);
+    return dbParams;
+  }
+
+  /**
+   * Adds a predicate to the query parameters.
+   *
+   * @param dbParams query parameters
+   * @param predicatDefinition predicate starting with <code>AND</code>
+   */
+  private void addPredicat(final DatabaseRequestParameters dbParams, final String predicatDefinition) {
     final Predicat predicat = new Predicat();
     predicat.setStringDefinition(predicatDefinition);
     final List<Predicat> predicatList = dbParams.getPredicats();
     predicatList.add(predicat);
     dbParams.setPredicats(predicatList);
-    return dbParams;
+  }
+
+  /**
+   * Executes the query of a page of the cursor.
+   *
+   * @param datasetApp Dataset Application
+   * @param model Data model
+   * @param inputParameters Input Parameters
+   * @param keysetPredicat predicate selecting the rows after the previous page
+   * @param pageSize number of rows of the page
+   * @return the executed query
+   * @throws SitoolsException Exception
+   */
+  private DatabaseRequest openPage(final DataSetApplication datasetApp, final ResourceModel model,
+          final ConeSearchInputParameters inputParameters, final String keysetPredicat, final int pageSize) throws SitoolsException {
+    final DatabaseRequestParameters dbParams = setQueryParameters(datasetApp, model, inputParameters);
+    dbParams.setPaginationExtend(pageSize);
+    addPredicat(dbParams, keysetPredicat);
+    final DatabaseRequest databaseRequest = DatabaseRequestFactory.getDatabaseRequest(dbParams);
+    databaseRequest.createRequest();
+    datasetApp.getLogger().log(Level.FINEST, "DB request: {0}", databaseRequest.getRequestAsString());
+    return databaseRequest;
+  }
+
+  /**
+   * Returns the number of rows of a page of the cursor.
+   *
+   * @param model Data model
+   * @param maxRecords maximum number of records of the response
+   * @return the number of rows of a page, at most maxRecords, or 0 when the response is not streamed by pages
+   */
+  private int getCursorPageSize(final ResourceModel model, final int maxRecords) {
+    final ResourceParameter pageSize = model.getParameterByName(ConeSearchProtocolLibrary.CURSOR_PAGE_SIZE);
+    if (pageSize == null || !Util.isNotEmpty(pageSize.getValue())) {
+      return 0;
+    }
+    return Math.min(Integer.parseInt(pageSize.getValue().trim()), maxRecords);
+  }
+
+  /**
+   * Returns the continuation token sent by the client.
+   *
+   * <p>
+   * The token is checked against the primary key of the dataset before it is
+   * written in a query: a token on another column is rejected.
+   * </p>
+   *
+   * @param datasetApp Dataset Application
+   * @param inputParameters Input Parameters
+   * @return the token or null for the first response
+   * @throws SitoolsException when the token is not valid
+   */
+  private ContinuationToken getContinuationToken(final DataSetApplication datasetApp, final ConeSearchInputParameters inputParameters) throws SitoolsException {
+    final String cursor = inputParameters.getRequest().getResourceRef().getQueryAsForm().getFirstValue(ConeSearchProtocolLibrary.CURSOR);
+    if (!Util.isNotEmpty(cursor)) {
+      return null;
+    }
+    final ContinuationToken token;
+    try {
+      token = ContinuationToken.parse(cursor);
+    } catch (IllegalArgumentException ex) {
+      throw new SitoolsException(ex.getMessage());
+    }
+    final String primaryKey = getPrimaryKey(datasetApp);
+    if (!token.getColumn().equals(primaryKey)) {
+      throw new SitoolsException("Invalid continuation token: the key is not " + primaryKey);
+    }
+    return token;
+  }
+
+  /**
+   * Returns the first primary key of the dataset, the key of the pages.
+   *
+   * @param datasetApp Dataset Application
+   * @return the column alias of the primary key
+   * @throws SitoolsException when the dataset has no primary key
+   */
+  private static String getPrimaryKey(final DataSetApplication datasetApp) throws SitoolsException {
+    for (Column column : datasetApp.getDataSet().getColumnModel()) {
+      if (column.isPrimaryKey()) {
+        return column.getColumnAlias();
+      }
+    }
+    throw new SitoolsException("The dataset has no primary key");
+  }
+
+  /**
+   * Returns the SQL filter on the ranges of Healpix pixels covering the cone.
+   *
+   * <p>
+   * The filter is empty when no Healpix column is configured, when the cover is
+   * the whole sky or when the ranges cannot be computed. The exact test on
+   * x, y, z is always kept after this filter.
+   * </p>
+   *
+   * @param model Data model
+   * @param inputParameters Input Parameters
+   * @return the filter starting with <code>AND</code> or an empty string
+   */
+  private String computeHealpixFilter(final ResourceModel model, final ConeSearchInputParameters inputParameters) {
+    final ResourceParameter healpixCol = model.getParameterByName(ConeSearchProtocolLibrary.HEALPIX);
+    final ResourceParameter healpixOrder = model.getParameterByName(ConeSearchProtocolLibrary.HEALPIX_ORDER);
+    if (healpixCol == null || !Util.isNotEmpty(healpixCol.getValue())
+            || healpixOrder == null || !Util.isNotEmpty(healpixOrder.getValue())) {
+      return "";
+    }
+    try {
+      final Cone cone = new Cone(new Point(inputParameters.getRa(), inputParameters.getDec(), CoordSystem.EQUATORIAL),
+              Math.toRadians(inputParameters.getSr()));
+      final RangeSet ranges = HealpixRangeFilter.coverCone(cone, Integer.parseInt(healpixOrder.getValue().trim()),
+              HealpixRangeFilter.DEFAULT_MAX_RANGES);
+      return (ranges == null) ? "" : " AND " + HealpixRangeFilter.toSqlPredicate(healpixCol.getValue(), ranges);
+    } catch (Exception ex) {
+      LOG.log(Level.WARNING, "Cannot compute the Healpix filter, the cone search is done without it", ex);
+      return "";
+    }
   }
 
   /**
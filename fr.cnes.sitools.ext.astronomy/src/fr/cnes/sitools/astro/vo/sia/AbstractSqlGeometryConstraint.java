@@ -18,9 +18,22 @@
  ******************************************************************************/
 package fr.cnes.sitools.astro.vo.sia;
 
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.engine.Engine;
+
+import fr.cnes.sitools.searchgeometryengine.Cone;
+import fr.cnes.sitools.searchgeometryengine.CoordSystem;
+import fr.cnes.sitools.searchgeometryengine.HealpixRangeFilter;
+import fr.cnes.sitools.searchgeometryengine.Point;
 
 /**
  * Interface to define a SQL spatial constraint.
@@ -28,6 +41,11 @@ import java.util.List;
  */
 public abstract class AbstractSqlGeometryConstraint {
 
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Engine.getLogger(AbstractSqlGeometryConstraint.class.getName());
+
   /**
    * Index where the min value of a range is located.
    */
@@ -36,6 +54,10 @@ public abstract class AbstractSqlGeometryConstraint {
    * Index where the max value of a range is located.
    */
   protected static final int MAX = 1;
+  /**
+   * Max number of pixels of the region of interest in a MOC term, above the MOC term is not used.
+   */
+  protected static final int MAX_MOC_PIXELS = 4096;
 
   /**
    * Size parameter given by the user.
@@ -49,6 +71,18 @@ public abstract class AbstractSqlGeometryConstraint {
    * Central position along declination axis.
    */
   private transient double decUser;
+  /**
+   * MOC attribut, bigint[] of the NESTED pixels intersecting the image.
+   */
+  private transient String mocCol;
+  /**
+   * Healpix attribut, NESTED pixel of the center of the image.
+   */
+  private transient String healpixCol;
+  /**
+   * Healpix order of the MOC and Healpix attributs.
+   */
+  private transient int healpixOrder = -1;
 
   /**
    * Sets the geometry attribute.
@@ -61,14 +95,39 @@ public abstract class AbstractSqlGeometryConstraint {
    * @param inputParameters user input parameters
    */
   public final void setInputParameters(final SimpleImageAccessInputParameters inputParameters) {
-    this.raUser = inputParameters.getRa();
-    this.decUser = inputParameters.getDec();
-    if (inputParameters.getSize().length == 2) {
-      this.sizeArray = inputParameters.getSize();
+    setRegionOfInterest(inputParameters.getRa(), inputParameters.getDec(), inputParameters.getSize());
+  }
+
+  /**
+   * Sets the region of interest.
+   * @param ra central position along right ascension axis
+   * @param dec central position along declination axis
+   * @param size size along right ascension and declination axes or one size for both axes
+   */
+  public final void setRegionOfInterest(final double ra, final double dec, final double[] size) {
+    this.raUser = ra;
+    this.decUser = dec;
+    if (size.length == 2) {
+      this.sizeArray = size;
     } else {
-      this.sizeArray[0] = inputParameters.getSize()[0];
-      this.sizeArray[1] = inputParameters.getSize()[0];
+      this.sizeArray[0] = size[0];
+      this.sizeArray[1] = size[0];
+    }
+  }
+
+  /**
+   * Sets the Healpix attributs used as a coarse filter before the exact test.
+   * @param mocColumn MOC attribut or null
+   * @param healpixColumn Healpix attribut or null
+   * @param order Healpix order of the attributs
+   */
+  public final void setHealpixIndex(final String mocColumn, final String healpixColumn, final int order) {
+    if (order < 0 || order > HealpixRangeFilter.MAX_ORDER) {
+      throw new IllegalArgumentException("order must be between 0 and " + HealpixRangeFilter.MAX_ORDER);
     }
+    this.mocCol = mocColumn;
+    this.healpixCol = healpixColumn;
+    this.healpixOrder = order;
   }
 
   /**
@@ -140,6 +199,126 @@ public abstract class AbstractSqlGeometryConstraint {
     return (sizeArray[0] == SimpleImageAccessProtocolLibrary.MAX_VALUE_FOR_RIGHT_ASCENSION) ? true : false;
   }
 
+  /**
+   * Returns the right ascension range of the SIA request.
+   * @return [min,max], min is greater than max when the request crosses RA=MIN_VALUE_FOR_RIGHT_ASCENSION
+   */
+  protected final Double[] getRaBounds() {
+    final double max = SimpleImageAccessProtocolLibrary.MAX_VALUE_FOR_RIGHT_ASCENSION;
+    return new Double[]{(raUser - sizeArray[0] / 2.0 + max) % max, (raUser + sizeArray[0] / 2.0 + max) % max};
+  }
+
+  /**
+   * Returns the center of the SIA request.
+   * @return the center
+   */
+  private Point getRoiCenter() {
+    return new Point((raUser + SimpleImageAccessProtocolLibrary.MAX_VALUE_FOR_RIGHT_ASCENSION) % SimpleImageAccessProtocolLibrary.MAX_VALUE_FOR_RIGHT_ASCENSION,
+                     decUser, CoordSystem.EQUATORIAL);
+  }
+
+  /**
+   * Returns a cone containing the SIA request.
+   *
+   * <p>
+   * The cone is centered on the pole for a collision with a pole, otherwise on the center of
+   * the request with the radius of the farthest corner. As a cone smaller than a hemisphere is
+   * convex, it also contains the polygons resampled from the borders of the request.
+   * </p>
+   * @return the cone or null when the request is too large
+   */
+  protected final Cone computeRoiCone() {
+    if (isPolesCollision() || isLargePolygon()) {
+      return null;
+    }
+    final Cone cone;
+    if (isNorthPoleCollision()) {
+      cone = new Cone(new Point(0, SimpleImageAccessProtocolLibrary.MAX_VALUE_FOR_DECLINATION, CoordSystem.EQUATORIAL),
+                      Math.toRadians(SimpleImageAccessProtocolLibrary.MAX_VALUE_FOR_DECLINATION - decUser + sizeArray[1] / 2.0));
+    } else if (isSouthPoleCollision()) {
+      cone = new Cone(new Point(0, SimpleImageAccessProtocolLibrary.MIN_VALUE_FOR_DECLINATION, CoordSystem.EQUATORIAL),
+                      Math.toRadians(decUser + sizeArray[1] / 2.0 - SimpleImageAccessProtocolLibrary.MIN_VALUE_FOR_DECLINATION));
+    } else {
+      // the distance to the center is monotonic along each border of a box narrower than a hemisphere
+      final double halfWidth = Math.toRadians(sizeArray[0] / 2.0);
+      final double dec = Math.toRadians(decUser);
+      double radius = 0;
+      for (double cornerDec : new double[]{dec - Math.toRadians(sizeArray[1] / 2.0), dec + Math.toRadians(sizeArray[1] / 2.0)}) {
+        final double cosDistance = Math.sin(dec) * Math.sin(cornerDec) + Math.cos(dec) * Math.cos(cornerDec) * Math.cos(halfWidth);
+        radius = Math.max(radius, Math.acos(Math.max(-1, Math.min(1, cosDistance))));
+      }
+      cone = new Cone(getRoiCenter(), radius);
+    }
+    return (cone.getRadius() < Math.PI / 2) ? cone : null;
+  }
+
+  /**
+   * Returns the pixels of the SIA request to compare with the MOC attribut.
+   *
+   * <p>
+   * For COVERS, the pixel of the center of the request: an image covering the request
+   * intersects this pixel. For OVERLAPS and ENCLOSED, the pixels intersecting the cone
+   * containing the request, enlarged by two pixel radii so that the pixels that an inclusive
+   * query adds around an image enclosed by the request are also found.
+   * </p>
+   * @param relation relation between the image and the request
+   * @return the pixels or null when the MOC term cannot be used
+   * @throws Exception Healpix Exception
+   */
+  protected final long[] computeMocPixels(final GeometryPredicateBuilder.Relation relation) throws Exception {
+    if (mocCol == null || mocCol.isEmpty() || healpixOrder < 0) {
+      return null;
+    }
+    final HealpixIndex index = new HealpixIndex(1 << healpixOrder, Scheme.NESTED);
+    if (relation == GeometryPredicateBuilder.Relation.COVERS) {
+      return new long[]{index.ang2pix(getRoiCenter())};
+    }
+    final Cone cone = computeRoiCone();
+    if (cone == null || cone.getRadius() + 2 * index.maxPixrad() >= Math.PI / 2) {
+      return null;
+    }
+    final RangeSet ranges = HealpixRangeFilter.coverCone(new Cone(cone.getCenter(), cone.getRadius() + 2 * index.maxPixrad()), healpixOrder);
+    if (ranges.nval() > MAX_MOC_PIXELS) {
+      return null;
+    }
+    return ranges.toArray();
+  }
+
+  /**
+   * Adds the MOC term to the predicat when a MOC attribut is set.
+   * @param builder predicat builder
+   * @param relation relation between the image and the request
+   */
+  protected final void addMocFilter(final GeometryPredicateBuilder builder, final GeometryPredicateBuilder.Relation relation) {
+    try {
+      final long[] pixels = computeMocPixels(relation);
+      if (pixels != null) {
+        builder.addMoc(relation, mocCol, pixels);
+      }
+    } catch (Exception ex) {
+      LOG.log(Level.WARNING, "Cannot compute the MOC term, the request is done without it", ex);
+    }
+  }
+
+  /**
+   * Adds the Healpix term to the predicat when a Healpix attribut is set.
+   * @param builder predicat builder
+   */
+  protected final void addHealpixFilter(final GeometryPredicateBuilder builder) {
+    if (healpixCol == null || healpixCol.isEmpty() || healpixOrder < 0) {
+      return;
+    }
+    try {
+      final Cone cone = computeRoiCone();
+      final RangeSet ranges = (cone == null) ? null : HealpixRangeFilter.coverCone(cone, healpixOrder, HealpixRangeFilter.DEFAULT_MAX_RANGES);
+      if (ranges != null) {
+        builder.addHealpixRanges(healpixCol, ranges);
+      }
+    } catch (Exception ex) {
+      LOG.log(Level.WARNING, "Cannot compute the Healpix term, the request is done without it", ex);
+    }
+  }
+
   /**
    * SQL geometry predicat to add to the SQL constraint.
    * @return SQL geometry predicat
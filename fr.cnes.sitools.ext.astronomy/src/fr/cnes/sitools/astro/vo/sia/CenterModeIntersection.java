@@ -18,6 +18,7 @@
  ******************************************************************************/
 package fr.cnes.sitools.astro.vo.sia;
 
+import java.util.ArrayList;
 import java.util.List;
 
   /**
@@ -36,17 +37,20 @@ import java.util.List;
 
     @Override
     public final void setGeometry(final Object geometry) {
+      final Object[] geometryArray;
       if (geometry instanceof String[]) {
-        final String[] geometryArray = (String[]) geometry;
-        if (geometryArray.length != 2) {
-          throw new IllegalArgumentException("geometry must be an array of two elements that contains racolName and decColName");
-        } else {
-          this.raCol = geometryArray[0];
-          this.decCol = geometryArray[1];
-        }
+        geometryArray = (String[]) geometry;
+      } else if (geometry instanceof List) {
+        geometryArray = ((List) geometry).toArray();
       } else {
         throw new IllegalArgumentException("geometry must be an array of two elements that contains racolName and decColName");
       }
+      if (geometryArray.length != 2) {
+        throw new IllegalArgumentException("geometry must be an array of two elements that contains racolName and decColName");
+      } else {
+        this.raCol = String.valueOf(geometryArray[0]);
+        this.decCol = String.valueOf(geometryArray[1]);
+      }
     }
 
     @Override
@@ -57,17 +61,19 @@ import java.util.List;
       final List ranges = (List) computeRange();
       final List<Double[]> raRanges = (List<Double[]>) ranges.get(0);
       final double[] decRange = (double[]) ranges.get(1);
-      String predicatDefinition;
+      final GeometryPredicateBuilder builder = new GeometryPredicateBuilder(null);
+      addHealpixFilter(builder);
+      builder.add(String.format("( %s BETWEEN %s AND %s )", decCol, decRange[0], decRange[1]));
       if (raRanges.size() == 1) {
         final Double[] raRange = raRanges.get(0);
-        predicatDefinition = String.format(" AND ( %s BETWEEN %s AND %s ) AND ( %s BETWEEN %s AND %s )", decCol, decRange[0], decRange[1], raCol, raRange[0], raRange[1]);
+        builder.add(String.format("( %s BETWEEN %s AND %s )", raCol, raRange[0], raRange[1]));
       } else {
-        final Double[] raRange1 = raRanges.get(0);
-        final Double[] raRange2 = raRanges.get(1);
-        predicatDefinition = String.format(" AND ( %s BETWEEN %s AND %s ) AND (( %s BETWEEN %s AND %s ) OR ( %s BETWEEN %s AND %s ))",
-                                             decCol, decRange[0], decRange[1],
-                                             raCol, raRange1[0], raRange1[1], raCol, raRange2[0], raRange2[1]);
+        final List<String> terms = new ArrayList<String>();
+        for (Double[] raRange : raRanges) {
+          terms.add(String.format("( %s BETWEEN %s AND %s )", raCol, raRange[0], raRange[1]));
+        }
+        builder.add(GeometryPredicateBuilder.anyOf(terms));
       }
-      return predicatDefinition;
+      return builder.build();
     }
   }
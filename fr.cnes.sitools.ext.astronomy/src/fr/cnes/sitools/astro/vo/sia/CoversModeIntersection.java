@@ -0,0 +1,109 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.vo.sia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.engine.Engine;
+
+import fr.cnes.sitools.astro.vo.sia.GeometryPredicateBuilder.Relation;
+
+/**
+ * Constructs SQL predicat for Covers mode intersection.
+ *
+ * <p>
+ * The image must cover the entire region of interest. When the region is split in several
+ * boxes, the image must cover each of them.
+ * </p>
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class CoversModeIntersection extends AbstractSqlGeometryConstraint {
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Engine.getLogger(CoversModeIntersection.class.getName());
+  /**
+   * Width of the boxes of a ring.
+   */
+  private static final double RING_BOX_WIDTH = 90.0;
+  /**
+   * geometry attribut.
+   */
+  private transient String geomCol;
+
+  @Override
+  public final void setGeometry(final Object geometry) {
+    if (geometry instanceof String) {
+      this.geomCol = String.valueOf(geometry);
+    } else {
+      throw new IllegalArgumentException("geometry must be a String");
+    }
+  }
+
+  @Override
+  public final String getSqlPredicat() {
+    final GeometryPredicateBuilder builder = new GeometryPredicateBuilder(geomCol);
+    if (this.isPolesCollision()) {
+      // a spoly cannot cover the whole sky
+      return builder.add("1 = 0").build();
+    }
+
+    final List ranges = (List) computeRange();
+    final List<Double[]> raRanges = (List<Double[]>) ranges.get(0);
+    final double[] decRange = (double[]) ranges.get(1);
+
+    addMocFilter(builder, Relation.COVERS);
+    if (isNorthPoleCollision()) {
+      LOG.log(Level.FINEST, "North collision case");
+      builder.add(builder.cap(Relation.COVERS, decRange[MIN], true));
+    } else if (isSouthPoleCollision()) {
+      LOG.log(Level.FINEST, "South collision case");
+      builder.add(builder.cap(Relation.COVERS, decRange[MAX], false));
+    } else {
+      final List<Double[]> boxes = new ArrayList<Double[]>();
+      if (isRing()) {
+        LOG.log(Level.FINEST, "Ring case");
+        for (double ra = SimpleImageAccessProtocolLibrary.MIN_VALUE_FOR_RIGHT_ASCENSION;
+             ra < SimpleImageAccessProtocolLibrary.MAX_VALUE_FOR_RIGHT_ASCENSION; ra += RING_BOX_WIDTH) {
+          boxes.add(new Double[]{ra, ra + RING_BOX_WIDTH});
+        }
+      } else if (raRanges.size() == 1 && isLargePolygon()) {
+        LOG.log(Level.FINEST, "Large polygon case");
+        final Double[] raRange = raRanges.get(0);
+        final double mean = (raRange[MIN] + raRange[MAX]) / 2.0;
+        boxes.add(new Double[]{raRange[MIN], mean});
+        boxes.add(new Double[]{mean, raRange[MAX]});
+      } else {
+        LOG.log(Level.FINEST, "other case");
+        boxes.addAll(raRanges);
+      }
+      final List<String> terms = new ArrayList<String>();
+      for (Double[] raRange : boxes) {
+        terms.add(builder.box(Relation.COVERS, raRange, decRange));
+      }
+      builder.add(GeometryPredicateBuilder.allOf(terms));
+    }
+    final String predicatDefinition = builder.build();
+    LOG.log(Level.FINEST, predicatDefinition);
+    return predicatDefinition;
+  }
+}
@@ -0,0 +1,92 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.vo.sia;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.engine.Engine;
+
+import fr.cnes.sitools.astro.vo.sia.GeometryPredicateBuilder.Relation;
+
+/**
+ * Constructs SQL predicat for Enclosed mode intersection.
+ *
+ * <p>
+ * The image must be entirely enclosed by the region of interest. A region narrower than a
+ * hemisphere is a single polygon, even when it crosses RA=0. For a larger region or a ring,
+ * the image must not overlap the complement of the region.
+ * </p>
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class EnclosedModeIntersection extends AbstractSqlGeometryConstraint {
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Engine.getLogger(EnclosedModeIntersection.class.getName());
+  /**
+   * geometry attribut.
+   */
+  private transient String geomCol;
+
+  @Override
+  public final void setGeometry(final Object geometry) {
+    if (geometry instanceof String) {
+      this.geomCol = String.valueOf(geometry);
+    } else {
+      throw new IllegalArgumentException("geometry must be a String");
+    }
+  }
+
+  @Override
+  public final String getSqlPredicat() {
+    if (this.isPolesCollision()) {
+      return null;
+    }
+
+    final List ranges = (List) computeRange();
+    final double[] decRange = (double[]) ranges.get(1);
+
+    final GeometryPredicateBuilder builder = new GeometryPredicateBuilder(geomCol);
+    addMocFilter(builder, Relation.ENCLOSED);
+    if (isNorthPoleCollision()) {
+      LOG.log(Level.FINEST, "North collision case");
+      builder.add(builder.cap(Relation.ENCLOSED, decRange[MIN], true));
+    } else if (isSouthPoleCollision()) {
+      LOG.log(Level.FINEST, "South collision case");
+      builder.add(builder.cap(Relation.ENCLOSED, decRange[MAX], false));
+    } else if (!isLargePolygon()) {
+      LOG.log(Level.FINEST, "other case");
+      builder.add(builder.box(Relation.ENCLOSED, getRaBounds(), decRange));
+    } else {
+      LOG.log(Level.FINEST, "Large polygon or ring case");
+      builder.add(GeometryPredicateBuilder.not(builder.cap(Relation.OVERLAPS, decRange[MAX], true)));
+      builder.add(GeometryPredicateBuilder.not(builder.cap(Relation.OVERLAPS, decRange[MIN], false)));
+      if (!isRing()) {
+        // the complement along right ascension axis is narrower than a hemisphere
+        final Double[] raBounds = getRaBounds();
+        builder.add(GeometryPredicateBuilder.not(builder.box(Relation.OVERLAPS, new Double[]{raBounds[MAX], raBounds[MIN]}, decRange)));
+      }
+    }
+    final String predicatDefinition = builder.build();
+    LOG.log(Level.FINEST, predicatDefinition);
+    return predicatDefinition;
+  }
+}
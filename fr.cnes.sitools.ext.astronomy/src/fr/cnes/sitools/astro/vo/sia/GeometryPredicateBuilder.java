@@ -0,0 +1,306 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.vo.sia;
+
+import healpix.essentials.RangeSet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import fr.cnes.sitools.searchgeometryengine.HealpixRangeFilter;
+import fr.cnes.sitools.searchgeometryengine.Resampling;
+
+/**
+ * Builds the SQL geometry predicat of a SIA request.
+ *
+ * <p>
+ * The predicat is a conjunction of terms. The exact terms compare a spoly column from
+ * pgSphere with a region of interest: a box in right ascension and declination, resampled
+ * as a polygon, or a polar cap. The coarse terms use a Healpix column or a per-image MOC
+ * column, they are indexed by the database and must be added first so that the exact test
+ * is only done on the candidates.
+ * </p>
+ *
+ * <p>
+ * A MOC column is a bigint[] column of the NESTED pixels intersecting the image at a given
+ * order, with a GIN index. The array operators <code>&amp;&amp;</code>, <code>@&gt;</code> and
+ * <code>&lt;@</code> are supported by this index.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class GeometryPredicateBuilder {
+
+  /**
+   * Relation between an image and the region of interest.
+   */
+  public enum Relation {
+
+    /**
+     * The image overlaps some part of the region.
+     */
+    OVERLAPS("spoly_overlap_polygon(%1$s,%2$s)", "spoly_overlap_circle(%1$s,%2$s)", "&&"),
+    /**
+     * The image covers the entire region.
+     */
+    COVERS("spoly_contains_polygon(%1$s,%2$s)", "spoly_contains_circle(%1$s,%2$s)", "@>"),
+    /**
+     * The image is entirely enclosed by the region.
+     */
+    ENCLOSED("spoly_contains_polygon(%2$s,%1$s)", "scircle_contains_polygon(%2$s,%1$s)", "<@");
+
+    /**
+     * pgSphere function with a polygon, %1$s is the image and %2$s the region.
+     */
+    private final String polygonFunction;
+    /**
+     * pgSphere function with a circle, %1$s is the image and %2$s the region.
+     */
+    private final String circleFunction;
+    /**
+     * Array operator between the MOC of the image and the pixels of the region.
+     */
+    private final String arrayOperator;
+
+    /**
+     * Constructor.
+     * @param polygonFunctionVal pgSphere function with a polygon
+     * @param circleFunctionVal pgSphere function with a circle
+     * @param arrayOperatorVal array operator
+     */
+    Relation(final String polygonFunctionVal, final String circleFunctionVal, final String arrayOperatorVal) {
+      this.polygonFunction = polygonFunctionVal;
+      this.circleFunction = circleFunctionVal;
+      this.arrayOperator = arrayOperatorVal;
+    }
+  }
+
+  /**
+   * Default value for resampling along right ascension axis.
+   */
+  private static final double DEFAULT_SAMPLING_VALUE_RA = 20;
+  /**
+   * Default value for resampling along declination axis.
+   */
+  private static final double DEFAULT_SAMPLING_VALUE_DEC = 20;
+  /**
+   * geometry attribut.
+   */
+  private final transient String geomCol;
+  /**
+   * Terms of the predicat.
+   */
+  private final transient List<String> terms = new ArrayList<String>();
+
+  /**
+   * Constructor.
+   * @param geomColVal spoly column, may be null when only the Healpix terms are used
+   */
+  public GeometryPredicateBuilder(final String geomColVal) {
+    this.geomCol = geomColVal;
+  }
+
+  /**
+   * Adds a term.
+   * @param term SQL term
+   * @return this builder
+   */
+  public GeometryPredicateBuilder add(final String term) {
+    this.terms.add(term);
+    return this;
+  }
+
+  /**
+   * Adds a coarse term keeping the rows whose Healpix column is in ranges of pixels.
+   * @param column Healpix column
+   * @param ranges ranges of NESTED pixels at the order of the column
+   * @return this builder
+   */
+  public GeometryPredicateBuilder addHealpixRanges(final String column, final RangeSet ranges) {
+    return add(HealpixRangeFilter.toSqlPredicate(column, ranges));
+  }
+
+  /**
+   * Adds a coarse term comparing the MOC column with pixels of the region.
+   *
+   * <p>
+   * For OVERLAPS and ENCLOSED, the pixels must cover the region. For COVERS, the pixels
+   * must intersect the region, one pixel is enough.
+   * </p>
+   * @param relation relation between the image and the region
+   * @param column MOC column
+   * @param pixels NESTED pixels at the order of the column
+   * @return this builder
+   */
+  public GeometryPredicateBuilder addMoc(final Relation relation, final String column, final long[] pixels) {
+    final StringBuilder stringBuilder = new StringBuilder(column).append(' ').append(relation.arrayOperator).append(" '{");
+    for (int i = 0; i < pixels.length; i++) {
+      stringBuilder.append((i == 0) ? "" : ",").append(pixels[i]);
+    }
+    return add(stringBuilder.append("}'::bigint[]").toString());
+  }
+
+  /**
+   * Returns the predicat.
+   * @return the predicat starting with AND or null when there is no term
+   */
+  public String build() {
+    if (this.terms.isEmpty()) {
+      return null;
+    }
+    final StringBuilder stringBuilder = new StringBuilder();
+    for (String term : this.terms) {
+      stringBuilder.append(" AND ").append(term);
+    }
+    return stringBuilder.toString();
+  }
+
+  /**
+   * Returns the term of a relation between the image and a box.
+   * @param relation relation
+   * @param raRange right ascension range [min,max], min is greater than max when the box crosses RA=0
+   * @param decRange declination range [min,max]
+   * @return the SQL term
+   */
+  public String box(final Relation relation, final Double[] raRange, final double[] decRange) {
+    return String.format(relation.polygonFunction, geomCol, polygon(raRange, decRange));
+  }
+
+  /**
+   * Returns the term of a relation between the image and a polar cap.
+   * @param relation relation
+   * @param boundaryDec declination of the border of the cap
+   * @param isNorth true for the cap above boundaryDec, false for the cap below
+   * @return the SQL term
+   */
+  public String cap(final Relation relation, final double boundaryDec, final boolean isNorth) {
+    final String circle = isNorth
+            ? String.format("'<(%sd,%sd),%sd>'", 0.0, SimpleImageAccessProtocolLibrary.MAX_VALUE_FOR_DECLINATION,
+                            SimpleImageAccessProtocolLibrary.MAX_VALUE_FOR_DECLINATION - boundaryDec)
+            : String.format("'<(%sd,%sd),%sd>'", 0.0, SimpleImageAccessProtocolLibrary.MIN_VALUE_FOR_DECLINATION,
+                            boundaryDec - SimpleImageAccessProtocolLibrary.MIN_VALUE_FOR_DECLINATION);
+    return String.format(relation.circleFunction, geomCol, circle);
+  }
+
+  /**
+   * Returns the disjunction of terms.
+   * @param termList terms
+   * @return the SQL term
+   */
+  public static String anyOf(final List<String> termList) {
+    return join(termList, " OR ");
+  }
+
+  /**
+   * Returns the conjunction of terms.
+   * @param termList terms
+   * @return the SQL term
+   */
+  public static String allOf(final List<String> termList) {
+    return join(termList, " AND ");
+  }
+
+  /**
+   * Returns the negation of a term.
+   * @param term term
+   * @return the SQL term
+   */
+  public static String not(final String term) {
+    return "NOT " + term;
+  }
+
+  /**
+   * Joins terms between parenthesis.
+   * @param termList terms
+   * @param operator operator
+   * @return the SQL term
+   */
+  private static String join(final List<String> termList, final String operator) {
+    final StringBuilder stringBuilder = new StringBuilder("(");
+    final Iterator<String> termIter = termList.iterator();
+    while (termIter.hasNext()) {
+      stringBuilder.append(termIter.next());
+      if (termIter.hasNext()) {
+        stringBuilder.append(operator);
+      }
+    }
+    return stringBuilder.append(')').toString();
+  }
+
+  /**
+   * Build a polygon syntax for PgSphere based on the right ascension and declination range.
+   * <p>
+   * The borders of the box are resampled so that the great circles between two points
+   * stay close to the borders.
+   * </p>
+   * @param raRange right ascension range [min,max]
+   * @param decRange declination range [min,max]
+   * @return the polygon
+   */
+  public static String polygon(final Double[] raRange, final double[] decRange) {
+    final StringBuilder stringBuilder = new StringBuilder("'{");
+    final double[] pointsRa = Resampling.hourCircle(raRange[AbstractSqlGeometryConstraint.MIN], raRange[AbstractSqlGeometryConstraint.MAX], DEFAULT_SAMPLING_VALUE_RA);
+    final double[] pointsDec = Resampling.decCircle(decRange[AbstractSqlGeometryConstraint.MIN], decRange[AbstractSqlGeometryConstraint.MAX], DEFAULT_SAMPLING_VALUE_DEC);
+    buildRaLine(stringBuilder, pointsRa, decRange[AbstractSqlGeometryConstraint.MIN], false);
+    buildDecLine(stringBuilder, pointsDec, raRange[AbstractSqlGeometryConstraint.MAX], false);
+    buildRaLine(stringBuilder, pointsRa, decRange[AbstractSqlGeometryConstraint.MAX], true);
+    buildDecLine(stringBuilder, pointsDec, raRange[AbstractSqlGeometryConstraint.MIN], true);
+    stringBuilder.deleteCharAt(stringBuilder.length() - 1);
+    return stringBuilder.append("}'").toString();
+  }
+
+  /**
+   * Builds a line of the polygon for the SIAP request along the right ascension axis.
+   * @param stringBuilder polygon to complete
+   * @param raCoordinates values in the line along right ascension axis
+   * @param staticDecCoordinate constant declination.
+   * @param isReverseOrder indicates if the order where <code>raCoordinates</code> array must be read
+   */
+  private static void buildRaLine(final StringBuilder stringBuilder, final double[] raCoordinates, final double staticDecCoordinate, final boolean isReverseOrder) {
+    if (isReverseOrder) {
+      for (int i = raCoordinates.length - 1; i > 0; i--) {
+        stringBuilder.append(String.format("(%sd,%sd),", raCoordinates[i], staticDecCoordinate));
+      }
+    } else {
+      for (int i = 0; i < raCoordinates.length - 1; i++) {
+        stringBuilder.append(String.format("(%sd,%sd),", raCoordinates[i], staticDecCoordinate));
+      }
+    }
+  }
+
+  /**
+   * Builds a line of the polygon for the SIAP request along the declination axis.
+   * @param stringBuilder polygon to complete
+   * @param decCoordinates values in the line along declination axis
+   * @param staticRaCoordinate constant right ascension.
+   * @param isReverseOrder indicates if the order where <code>raCoordinates</code> array must be read
+   */
+  private static void buildDecLine(final StringBuilder stringBuilder, final double[] decCoordinates, final double staticRaCoordinate, final boolean isReverseOrder) {
+    if (isReverseOrder) {
+      for (int i = decCoordinates.length - 1; i > 0; i--) {
+        stringBuilder.append(String.format("(%sd,%sd),", staticRaCoordinate, decCoordinates[i]));
+      }
+    } else {
+      for (int i = 0; i < decCoordinates.length - 1; i++) {
+        stringBuilder.append(String.format("(%sd,%sd),", staticRaCoordinate, decCoordinates[i]));
+      }
+    }
+  }
+}
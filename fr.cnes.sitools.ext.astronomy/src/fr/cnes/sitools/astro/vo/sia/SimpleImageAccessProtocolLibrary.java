@@ -70,6 +70,10 @@ public class SimpleImageAccessProtocolLibrary {
    *
    */
   public static final String FORMAT = "FORMAT";
+  /**
+   * Continuation token of a streamed response.
+   */
+  public static final String CURSOR = "CURSOR";
   /**
    *
    */
@@ -137,6 +141,22 @@ public class SimpleImageAccessProtocolLibrary {
    * spoly column from pgsphere.
    */
   public static final String GEO_ATTRIBUT = "geoAttribut";
+  /**
+   * bigint[] column of the NESTED Healpix pixels intersecting the image.
+   */
+  public static final String MOC_ATTRIBUT = "COLUMN_MOC";
+  /**
+   * Column of the NESTED Healpix pixel of the image center.
+   */
+  public static final String HEALPIX_ATTRIBUT = "COLUMN_HEALPIX";
+  /**
+   * Healpix order of the MOC and Healpix columns.
+   */
+  public static final String HEALPIX_ORDER = "HEALPIX_ORDER";
+  /**
+   * Number of rows read by query when the response is streamed.
+   */
+  public static final String CURSOR_PAGE_SIZE = "CURSOR_PAGE_SIZE";
   private transient DataSetApplication datasetApp;
   private transient ResourceModel resourceModel;
   private transient Request request;
@@ -36,6 +36,8 @@ import net.ivoa.xml.votable.v1.Param;
 
 import org.restlet.engine.Engine;
 
+import fr.cnes.sitools.astro.representation.ContinuationToken;
+import fr.cnes.sitools.astro.representation.DatabaseCursorModel;
 import fr.cnes.sitools.astro.representation.DatabaseRequestModel;
 import fr.cnes.sitools.common.SitoolsSettings;
 import fr.cnes.sitools.common.application.ContextAttributes;
@@ -48,6 +50,7 @@ import fr.cnes.sitools.dataset.database.DatabaseRequestParameters;
 import fr.cnes.sitools.dataset.database.common.DataSetExplorerUtil;
 import fr.cnes.sitools.dataset.dto.ColumnConceptMappingDTO;
 import fr.cnes.sitools.dataset.dto.DictionaryMappingDTO;
+import fr.cnes.sitools.dataset.model.Column;
 import fr.cnes.sitools.dataset.model.Predicat;
 import fr.cnes.sitools.dictionary.model.Concept;
 import fr.cnes.sitools.plugins.resources.model.ResourceModel;
@@ -200,6 +203,16 @@ public class SimpleImageAccessResponse implements SimpleImageAccessDataModelInte
 
       // Get query parameters
       final DatabaseRequestParameters dbParams = setQueryParameters(datasetApp, model, inputParameters, mappingList);
+      final int maxRecords = dbParams.getPaginationExtend();
+      final int pageSize = getCursorPageSize(model, maxRecords);
+      final ContinuationToken token = (pageSize > 0) ? getContinuationToken(datasetApp, inputParameters) : null;
+      if (pageSize > 0) {
+        // the first page of the cursor
+        dbParams.setPaginationExtend(pageSize);
+        if (token != null) {
+          addPredicat(dbParams, token.toSqlPredicat());
+        }
+      }
       databaseRequest = DatabaseRequestFactory.getDatabaseRequest(dbParams);
 
       // Execute query
@@ -232,12 +245,24 @@ public class SimpleImageAccessResponse implements SimpleImageAccessDataModelInte
       }
       
       // Complete data model with data
-      final int count = (databaseRequest.getCount() > dbParams.getPaginationExtend()) ? dbParams.getPaginationExtend() : databaseRequest.getCount();     
-      dataModel.put("nrows", count);      
       final ConverterChained converterChained = datasetApp.getConverterChained();
-      final TemplateSequenceModel rows = new DatabaseRequestModel(databaseRequest, converterChained);
-      ((DatabaseRequestModel) rows).setSize(count);
-      dataModel.put("rows", rows);
+      if (pageSize > 0) {
+        final List<ColumnConceptMappingDTO> requiredMapping = mappingList;
+        final DatabaseCursorModel rows = new DatabaseCursorModel(databaseRequest, new DatabaseCursorModel.PageProvider() {
+          @Override
+          public DatabaseRequest nextPage(final String keysetPredicat, final int size) throws SitoolsException {
+            return openPage(datasetApp, model, inputParameters, requiredMapping, keysetPredicat, size);
+          }
+        }, getPrimaryKey(datasetApp), converterChained, pageSize, maxRecords);
+        dataModel.put("rows", rows);
+        dataModel.put("continuation", rows.getContinuationModel());
+      } else {
+        final int count = (databaseRequest.getCount() > dbParams.getPaginationExtend()) ? dbParams.getPaginationExtend() : databaseRequest.getCount();
+        dataModel.put("nrows", count);
+        final TemplateSequenceModel rows = new DatabaseRequestModel(databaseRequest, converterChained);
+        ((DatabaseRequestModel) rows).setSize(count);
+        dataModel.put("rows", rows);
+      }
 
     } catch (SitoolsException ex) {
       try {
@@ -298,23 +323,150 @@ public class SimpleImageAccessResponse implements SimpleImageAccessDataModelInte
       }
     }
 
-    final AbstractSqlGeometryConstraint sql = SqlGeometryFactory.create(String.valueOf(model.getParameterByName(SimpleImageAccessProtocolLibrary.INTERSECT).getValue()));
+    final String intersect = String.valueOf(model.getParameterByName(SimpleImageAccessProtocolLibrary.INTERSECT).getValue());
+    final AbstractSqlGeometryConstraint sql = SqlGeometryFactory.create(intersect);
     sql.setInputParameters(inputParameters);
-    final Object geometry = (Util.isNotEmpty(model.getParameterByName(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT).getValue()))
+    final Object geometry = (!SimpleImageAccessProtocolLibrary.Intersect.CENTER.name().equals(intersect)
+                             && Util.isNotEmpty(model.getParameterByName(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT).getValue()))
                       ? model.getParameterByName(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT).getValue()
                       : Arrays.asList(raColTarget, decColTarget);
     sql.setGeometry(geometry);
+    setHealpixIndex(sql, model);
 
-    if (sql.getSqlPredicat() != null) {
-      final Predicat predicat = new Predicat();
-      predicat.setStringDefinition(sql.getSqlPredicat());
-      final List<Predicat> predicatList = dbParams.getPredicats();
-      predicatList.add(predicat);
-      dbParams.setPredicats(predicatList);
+    final String predicatDefinition = sql.getSqlPredicat();
+    if (predicatDefinition != null) {
+      addPredicat(dbParams, predicatDefinition);
     }
     return dbParams;
   }
 
+  /**
+   * Adds a predicate to the query parameters.
+   *
+   * @param dbParams query parameters
+   * @param predicatDefinition predicate starting with <code>AND</code>
+   */
+  private void addPredicat(final DatabaseRequestParameters dbParams, final String predicatDefinition) {
+    final Predicat predicat = new Predicat();
+    predicat.setStringDefinition(predicatDefinition);
+    final List<Predicat> predicatList = dbParams.getPredicats();
+    predicatList.add(predicat);
+    dbParams.setPredicats(predicatList);
+  }
+
+  /**
+   * Executes the query of a page of the cursor.
+   *
+   * @param datasetApp Dataset Application
+   * @param model Data model
+   * @param inputParameters Input parameters
+   * @param mappingList List of SQL column/concept
+   * @param keysetPredicat predicate selecting the rows after the previous page
+   * @param pageSize number of rows of the page
+   * @return the executed query
+   * @throws SitoolsException Exception
+   */
+  private DatabaseRequest openPage(final DataSetApplication datasetApp, final ResourceModel model,
+          final SimpleImageAccessInputParameters inputParameters, final List<ColumnConceptMappingDTO> mappingList,
+          final String keysetPredicat, final int pageSize) throws SitoolsException {
+    final DatabaseRequestParameters dbParams = setQueryParameters(datasetApp, model, inputParameters, mappingList);
+    dbParams.setPaginationExtend(pageSize);
+    addPredicat(dbParams, keysetPredicat);
+    final DatabaseRequest databaseRequest = DatabaseRequestFactory.getDatabaseRequest(dbParams);
+    databaseRequest.createRequest();
+    datasetApp.getLogger().log(Level.FINEST, "DB request: {0}", databaseRequest.getRequestAsString());
+    return databaseRequest;
+  }
+
+  /**
+   * Returns the number of rows of a page of the cursor.
+   *
+   * @param model Data model
+   * @param maxRecords maximum number of records of the response
+   * @return the number of rows of a page, at most maxRecords, or 0 when the response is not streamed by pages
+   */
+  private int getCursorPageSize(final ResourceModel model, final int maxRecords) {
+    final String pageSize = getParameterValue(model, SimpleImageAccessProtocolLibrary.CURSOR_PAGE_SIZE);
+    return Util.isNotEmpty(pageSize) ? Math.min(Integer.parseInt(pageSize.trim()), maxRecords) : 0;
+  }
+
+  /**
+   * Returns the continuation token sent by the client.
+   *
+   * <p>
+   * The token is checked against the primary key of the dataset before it is
+   * written in a query: a token on another column is rejected.
+   * </p>
+   *
+   * @param datasetApp Dataset Application
+   * @param inputParameters Input parameters
+   * @return the token or null for the first response
+   * @throws SitoolsException when the token is not valid
+   */
+  private ContinuationToken getContinuationToken(final DataSetApplication datasetApp, final SimpleImageAccessInputParameters inputParameters) throws SitoolsException {
+    final String cursor = inputParameters.getRequest().getResourceRef().getQueryAsForm().getFirstValue(SimpleImageAccessProtocolLibrary.CURSOR);
+    if (!Util.isNotEmpty(cursor)) {
+      return null;
+    }
+    final ContinuationToken token;
+    try {
+      token = ContinuationToken.parse(cursor);
+    } catch (IllegalArgumentException ex) {
+      throw new SitoolsException(ex.getMessage());
+    }
+    final String primaryKey = getPrimaryKey(datasetApp);
+    if (!token.getColumn().equals(primaryKey)) {
+      throw new SitoolsException("Invalid continuation token: the key is not " + primaryKey);
+    }
+    return token;
+  }
+
+  /**
+   * Returns the first primary key of the dataset, the key of the pages.
+   *
+   * @param datasetApp Dataset Application
+   * @return the column alias of the primary key
+   * @throws SitoolsException when the dataset has no primary key
+   */
+  private static String getPrimaryKey(final DataSetApplication datasetApp) throws SitoolsException {
+    for (Column column : datasetApp.getDataSet().getColumnModel()) {
+      if (column.isPrimaryKey()) {
+        return column.getColumnAlias();
+      }
+    }
+    throw new SitoolsException("The dataset has no primary key");
+  }
+
+  /**
+   * Sets the Healpix columns used as a coarse filter when they are defined.
+   *
+   * @param sql SQL geometry constraint
+   * @param model data model
+   */
+  private void setHealpixIndex(final AbstractSqlGeometryConstraint sql, final ResourceModel model) {
+    final String mocCol = getParameterValue(model, SimpleImageAccessProtocolLibrary.MOC_ATTRIBUT);
+    final String healpixCol = getParameterValue(model, SimpleImageAccessProtocolLibrary.HEALPIX_ATTRIBUT);
+    final String order = getParameterValue(model, SimpleImageAccessProtocolLibrary.HEALPIX_ORDER);
+    if ((Util.isNotEmpty(mocCol) || Util.isNotEmpty(healpixCol)) && Util.isNotEmpty(order)) {
+      try {
+        sql.setHealpixIndex(mocCol, healpixCol, Integer.parseInt(order.trim()));
+      } catch (IllegalArgumentException ex) {
+        LOG.log(Level.WARNING, "Wrong Healpix order, the request is done without the Healpix columns", ex);
+      }
+    }
+  }
+
+  /**
+   * Returns the value of a parameter of the data model.
+   *
+   * @param model data model
+   * @param name parameter name
+   * @return the value or null when the parameter does not exist
+   */
+  private static String getParameterValue(final ResourceModel model, final String name) {
+    return (model.getParameterByName(name) == null) ? null : model.getParameterByName(name).getValue();
+  }
+
   /**
    * Set the votable error.
    *
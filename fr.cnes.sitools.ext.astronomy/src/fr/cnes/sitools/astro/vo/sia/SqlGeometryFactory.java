@@ -33,7 +33,7 @@ public final class SqlGeometryFactory {
    * Returns the Object responsible of creating the SQL request to send to the server.
    *
    * <p>
-   * The supported geometryIntersection is either CENTER or OVERLAPS otherwise
+   * The supported geometryIntersection is COVERS, ENCLOSED, CENTER or OVERLAPS otherwise
    * an IllegalArgumentException is raised.
    * </p>
    * @param geometryIntersection Geometry Intersection algorithm
@@ -45,6 +45,10 @@ public final class SqlGeometryFactory {
       result = new OverlapsModeIntersection();
     } else if ("CENTER".equals(geometryIntersection)) {
       result = new CenterModeIntersection();
+    } else if ("COVERS".equals(geometryIntersection)) {
+      result = new CoversModeIntersection();
+    } else if ("ENCLOSED".equals(geometryIntersection)) {
+      result = new EnclosedModeIntersection();
     } else {
       throw new IllegalArgumentException("geometryMode " + geometryIntersection + " is unknown or not supported");
     }
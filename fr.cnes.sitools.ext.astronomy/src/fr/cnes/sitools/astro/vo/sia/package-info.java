@@ -37,6 +37,17 @@
    {abstract} getSqlPredicat() : String
    {abstract} void setGeometry(Object geometry)
    void setInputParameters(SimpleImageAccessInputParameters inputParameters)
+   void setRegionOfInterest(double ra, double dec, double[] size)
+   void setHealpixIndex(String mocColumn, String healpixColumn, int order)
+ }
+ class GeometryPredicateBuilder {
+   GeometryPredicateBuilder(String geomCol)
+   add(String term) : GeometryPredicateBuilder
+   addHealpixRanges(String column, RangeSet ranges) : GeometryPredicateBuilder
+   addMoc(Relation relation, String column, long[] pixels) : GeometryPredicateBuilder
+   box(Relation relation, Double[] raRange, double[] decRange) : String
+   cap(Relation relation, double boundaryDec, boolean isNorth) : String
+   build() : String
  }
  class SqlGeometryFactory {
    {static} create(String geometryIntersection) : AbstractSqlGeometryConstraint
@@ -49,8 +60,13 @@
  SimpleImageAccessResponse *-- AbstractSqlGeometryConstraint
  CenterModeIntersection --|> AbstractSqlGeometryConstraint
  OverlapsModeIntersection --|> AbstractSqlGeometryConstraint
+ CoversModeIntersection --|> AbstractSqlGeometryConstraint
+ EnclosedModeIntersection --|> AbstractSqlGeometryConstraint
+ AbstractSqlGeometryConstraint ..> GeometryPredicateBuilder
  SqlGeometryFactory *-- CenterModeIntersection
  SqlGeometryFactory *-- OverlapsModeIntersection
+ SqlGeometryFactory *-- CoversModeIntersection
+ SqlGeometryFactory *-- EnclosedModeIntersection
  SimpleImageAccessResponse *-- SqlGeometryFactory
  class SimpleImageAccessException
  class SIASearchQuery {
@@ -32,8 +32,11 @@ import net.ivoa.xml.uws.v1.ExecutionPhase;
 import org.restlet.data.Form;
 import org.restlet.engine.Engine;
 
+import fr.cnes.sitools.extensions.astro.application.uws.client.AsyncUwsPoller;
 import fr.cnes.sitools.extensions.astro.application.uws.client.ClientUWS;
 import fr.cnes.sitools.extensions.astro.application.uws.client.ClientUWSException;
+import fr.cnes.sitools.extensions.astro.application.uws.client.UwsJobClient;
+import fr.cnes.sitools.extensions.astro.application.uws.client.UwsJobListener;
 import fr.cnes.sitools.extensions.astro.application.uws.common.Util;
 import fr.cnes.sitools.extensions.astro.application.uws.jobmanager.AbstractJobTask;
 import fr.cnes.sitools.xml.uws.v1.ImageFormatType;
@@ -45,7 +48,9 @@ import fr.cnes.sitools.xml.uws.v1.OutputsType;
 /**
  * Astrometric calibration for FITS images.
  * <p>
- * This service uses the UWS service from VOparis.
+ * This service uses the UWS service from VOparis. The remote job is
+ * followed by {@link AsyncUwsPoller} so that no worker thread is held while
+ * the remote service is processing the image.
  * </p>
  * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
  */
@@ -74,10 +79,6 @@ public class AstrometryProcessing extends AbstractJobTask {
      * Parameter for obspm.
      */
     private static final int DEFAULT_ORDER = 3;
-    /**
-     * Time in milliseconds between two calls to obspm.
-     */
-    private static final long ELAPSED_TIME_BETWEEN_CALL_MILLISEC = 30000;
 
     static {
         CATALOG.put("UCAC2", 1);
@@ -90,82 +91,114 @@ public class AstrometryProcessing extends AbstractJobTask {
             setBlinker(Thread.currentThread());
             setStartTime(Util.convertIntoXMLGregorian(new Date()));
             setPhase(ExecutionPhase.QUEUED);
-            final ClientUWS uws = new ClientUWS(ASTRO_CALIB_SERVER);
+            final UwsJobClient uws = createClient();
             final Form form = new Form();
             form.add(IMAGE_PARAM, getParameterValue(IMAGE_PARAM));
             form.add(CAT_PARAM, String.valueOf(CATALOG.get("2MASS")));
             form.add(ORDER_PARAM, String.valueOf(DEFAULT_ORDER));
             form.add("PHASE", "RUN");
             final String jobId = uws.createJob(form);
-            jobFinished(uws, jobId);
-            final ExecutionPhase phaseResult = uws.getJobPhase(jobId);
-            if (phaseResult.equals(ExecutionPhase.COMPLETED)) {
-                setPhase(ExecutionPhase.COMPLETED);
-                setResults(uws.getJobResults(jobId));
-            } else {
-                setPhase(phaseResult);
-                setError(uws.getJobError(jobId));
-            }
+            setPhase(ExecutionPhase.EXECUTING);
+            // the remote run is followed by the poller, the worker thread is released now
+            getPoller().watch(uws, jobId, new RemoteJobListener(uws));
         } catch (ClientUWSException ex) {
-            Engine.getLogger(AstrometryProcessing.class.getName()).log(Level.SEVERE, null, ex);
-            setPhase(ExecutionPhase.ERROR);
-            final ErrorSummary errorSumm = new ErrorSummary();
-            errorSumm.setMessage(ex.getMessage());
-            errorSumm.setType(ErrorType.FATAL);
-            errorSumm.setHasDetail(true);
-            setError(errorSumm);
-        } catch (InterruptedException ex) {
-            Engine.getLogger(AstrometryProcessing.class.getName()).log(Level.SEVERE, null, ex);
-            setPhase(ExecutionPhase.ERROR);
-            final ErrorSummary errorSumm = new ErrorSummary();
-            errorSumm.setMessage(ex.getMessage());
-            errorSumm.setType(ErrorType.FATAL);
-            errorSumm.setHasDetail(true);
-            setError(errorSumm);
+            failWith(ex);
         } catch (DatatypeConfigurationException ex) {
-            Engine.getLogger(AstrometryProcessing.class.getName()).log(Level.SEVERE, null, ex);
-            setPhase(ExecutionPhase.ERROR);
-            final ErrorSummary errorSumm = new ErrorSummary();
-            errorSumm.setMessage(ex.getMessage());
-            errorSumm.setType(ErrorType.FATAL);
-            errorSumm.setHasDetail(true);
-            setError(errorSumm);
+            failWith(ex);
         } catch (Error error) {
-            Engine.getLogger(CutOut.class.getName()).log(Level.SEVERE, null, error);
-            final ErrorSummary errorSumm = new ErrorSummary();
-            errorSumm.setMessage(error.getMessage());
-            errorSumm.setType(ErrorType.FATAL);
-            errorSumm.setHasDetail(true);
-            setError(errorSumm);
-            setPhase(ExecutionPhase.ERROR);
+            failWith(error);
+        } finally {
+            setBlinker(null);
         }
     }
 
     /**
-     * Waits until job is processed.
-     * @param uws uws client
-     * @param jobId jobId
-     * @throws InterruptedException when thread error happens
-     * @throws ClientUWSException  when a client error happens
+     * Returns the client of the remote astrometry service.
+     * <p>
+     * Override this method to plug another UWS service.
+     * </p>
+     * @return the client of the remote astrometry service
+     */
+    protected UwsJobClient createClient() {
+        return new ClientUWS(ASTRO_CALIB_SERVER);
+    }
+
+    /**
+     * Returns the poller that follows the remote job.
+     * @return the poller
      */
-    private void jobFinished(final ClientUWS uws, final String jobId) throws InterruptedException, ClientUWSException {
-        boolean isFinished = false;
-        while (!isFinished) {
-            Thread.sleep(ELAPSED_TIME_BETWEEN_CALL_MILLISEC);
-            final ExecutionPhase phase = uws.getJobPhase(jobId);
-            isFinished = isProcessingFinished(phase);
+    protected AsyncUwsPoller getPoller() {
+        return AsyncUwsPoller.getInstance();
+    }
+
+    /**
+     * Sets the job in ERROR phase.
+     * @param ex cause of the error
+     */
+    private void failWith(final Throwable ex) {
+        Engine.getLogger(AstrometryProcessing.class.getName()).log(Level.SEVERE, null, ex);
+        final ErrorSummary errorSumm = new ErrorSummary();
+        errorSumm.setMessage(ex.getMessage());
+        errorSumm.setType(ErrorType.FATAL);
+        errorSumm.setHasDetail(true);
+        setError(errorSumm);
+        setPhase(ExecutionPhase.ERROR);
+    }
+
+    /**
+     * Sets the end time of the job.
+     */
+    private void setEndTimeToNow() {
+        try {
+            setEndTime(Util.convertIntoXMLGregorian(new Date()));
+        } catch (DatatypeConfigurationException ex) {
+            Engine.getLogger(AstrometryProcessing.class.getName()).log(Level.WARNING, null, ex);
         }
     }
 
     /**
-     * Returns false when the job is not being processed.
-     * @param phase job status
-     * @return false when the job is not being processed
+     * Copies the outcome of the remote job into this job.
      */
-    private boolean isProcessingFinished(final ExecutionPhase phase) {
-        return !(phase.equals(ExecutionPhase.PENDING)
-            || phase.equals(ExecutionPhase.QUEUED)
-            || phase.equals(ExecutionPhase.EXECUTING));
+    private class RemoteJobListener implements UwsJobListener {
+
+        /**
+         * Client of the remote service.
+         */
+        private final UwsJobClient uws;
+
+        /**
+         * Constructor.
+         * @param uwsVal client of the remote service
+         */
+        public RemoteJobListener(final UwsJobClient uwsVal) {
+            this.uws = uwsVal;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return ExecutionPhase.ABORTED.equals(getPhase());
+        }
+
+        @Override
+        public void onFinished(final String jobId, final ExecutionPhase phase) {
+            try {
+                if (phase.equals(ExecutionPhase.COMPLETED)) {
+                    setResults(uws.getJobResults(jobId));
+                } else {
+                    setError(uws.getJobError(jobId));
+                }
+                setEndTimeToNow();
+                setPhase(phase);
+            } catch (ClientUWSException ex) {
+                failWith(ex);
+            }
+        }
+
+        @Override
+        public void onError(final String jobId, final ClientUWSException error) {
+            setEndTimeToNow();
+            failWith(error);
+        }
     }
 
     @Override
@@ -113,6 +113,31 @@ public class ShorteningUrlApplicationPlugin extends AbstractApplicationPlugin {
         SingletonCacheShortnerURL.create();
     }
 
+    /**
+     * Starts the services of the shortener, which may have been stopped by {@link #stop()}, and the application.
+     *
+     * @throws Exception when the application cannot be started
+     */
+    @Override
+    public synchronized void start() throws Exception {
+        SingletonCacheShortnerURL.create();
+        super.start();
+    }
+
+    /**
+     * Stops the application, then flushes the clicks and closes the store of the shortener.
+     *
+     * @throws Exception when the application cannot be stopped
+     */
+    @Override
+    public synchronized void stop() throws Exception {
+        try {
+            super.stop();
+        } finally {
+            SingletonCacheShortnerURL.stop();
+        }
+    }
+
     @Override
     public final Restlet createInboundRoot() {
             final Router router = new Router(getContext());
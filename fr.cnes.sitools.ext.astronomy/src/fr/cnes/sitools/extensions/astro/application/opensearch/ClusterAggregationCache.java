@@ -0,0 +1,359 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application.opensearch;
+
+import healpix.essentials.Scheme;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.engine.Engine;
+import org.restlet.resource.ClientResource;
+
+import fr.cnes.sitools.extensions.astro.application.OpenSearchApplicationPlugin;
+import fr.cnes.sitools.extensions.common.Utility;
+import fr.cnes.sitools.searchgeometryengine.CoordSystem;
+import fr.cnes.sitools.solr.query.AbstractSolrQueryRequestFactory;
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * Keeps in memory the number of documents by Healpix pixel of a SOLR core, for the cluster search.
+ *
+ * <p>
+ * The counts are computed with the facet query of the cluster search on all
+ * the Healpix orders, so each count is the number of distinct documents of a
+ * pixel, as in the SOLR response. They are kept for the query without
+ * constraint and for the filters that have been requested at least
+ * <code>POPULARITY_THRESHOLD</code> times, as long as the SOLR index version
+ * does not change. A request on Healpix pixels is answered by slicing the
+ * cached counts: the orders coarser than the request are empty and
+ * <code>numFound</code> is a lower bound, flagged by
+ * <code>"numFoundExact":false</code> as SOLR does.
+ * </p>
+ *
+ * <p>
+ * The other requests (cone, box or polygon, unknown index version, RING
+ * scheme, unpopular filters) are not answered by the cache.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert
+ */
+public final class ClusterAggregationCache {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Engine.getLogger(ClusterAggregationCache.class.getName());
+  /**
+   * Coarsest order of the cluster search.
+   */
+  public static final int MIN_ORDER = 3;
+  /**
+   * Deepest order of the cluster search.
+   */
+  public static final int MAX_ORDER = 13;
+  /**
+   * Number of cached filters, without the query without constraint.
+   */
+  public static final int DEFAULT_CACHE_SIZE = 32;
+  /**
+   * Number of requests of a filter from which its counts are cached.
+   */
+  public static final int POPULARITY_THRESHOLD = 2;
+  /**
+   * Number of filters whose requests are counted.
+   */
+  private static final int MAX_COUNTED_FILTERS = 1024;
+  /**
+   * Query parameters that are not filters.
+   */
+  private static final String[] NOT_FILTER_PARAMETERS = {"count", "startIndex", "startPage", "format", "coordSystem",
+    OpenSearchApplicationPlugin.GeometryShape.HEALPIX.getShape(), OpenSearchApplicationPlugin.GeometryShape.HEALPIX.getOrder()};
+  /**
+   * Key prefix of the query without constraint.
+   */
+  private static final String UNCONSTRAINED_KEY = "{}@";
+  /**
+   * Caches by SOLR core URL.
+   */
+  private static final Map<String, ClusterAggregationCache> INSTANCES = new HashMap<String, ClusterAggregationCache>();
+  /**
+   * URL of the SOLR core.
+   */
+  private final String solrBaseUrl;
+  /**
+   * Counts by filter and index version, in LRU order.
+   */
+  private final Map<String, FutureTask<HealpixCounts>> entries;
+  /**
+   * Number of requests by filter, in LRU order.
+   */
+  private final Map<String, Integer> requests;
+
+  /**
+   * Constructs a cache.
+   *
+   * @param solrBaseUrlVal URL of the SOLR core
+   * @param cacheSize number of cached filters
+   */
+  public ClusterAggregationCache(final String solrBaseUrlVal, final int cacheSize) {
+    this.solrBaseUrl = solrBaseUrlVal;
+    this.entries = new LinkedHashMap<String, FutureTask<HealpixCounts>>(cacheSize + 1, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, FutureTask<HealpixCounts>> eldest) {
+        if (size() > cacheSize + 1) {
+          // the entry of the query without constraint is only replaced by its new versions
+          final Iterator<String> keyIter = keySet().iterator();
+          while (keyIter.hasNext()) {
+            if (!keyIter.next().startsWith(UNCONSTRAINED_KEY)) {
+              keyIter.remove();
+              break;
+            }
+          }
+        }
+        return false;
+      }
+    };
+    this.requests = new LinkedHashMap<String, Integer>(MAX_COUNTED_FILTERS + 1, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, Integer> eldest) {
+        return size() > MAX_COUNTED_FILTERS;
+      }
+    };
+  }
+
+  /**
+   * Returns the cache of a SOLR core.
+   *
+   * @param solrBaseUrl URL of the SOLR core
+   * @return the cache
+   */
+  public static synchronized ClusterAggregationCache getInstance(final String solrBaseUrl) {
+    ClusterAggregationCache cache = INSTANCES.get(solrBaseUrl);
+    if (cache == null) {
+      cache = new ClusterAggregationCache(solrBaseUrl, DEFAULT_CACHE_SIZE);
+      INSTANCES.put(solrBaseUrl, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * Returns the counts of a cluster search.
+   *
+   * @param indexVersion version of the SOLR index, -1 when unknown
+   * @param healpixScheme Healpix scheme of the SOLR index
+   * @param queryParameters user query parameters
+   * @return the counts or null when the request is not answered by the cache
+   * @throws Exception SOLR Exception
+   */
+  public HealpixCounts getCounts(final long indexVersion, final Scheme healpixScheme, final Map<String, Object> queryParameters)
+          throws Exception {
+    if (indexVersion < 0 || healpixScheme != Scheme.NESTED
+            || queryParameters.containsKey(OpenSearchApplicationPlugin.GeometryShape.CONE.getShape())
+            || queryParameters.containsKey(OpenSearchApplicationPlugin.GeometryShape.BBOX.getShape())
+            || queryParameters.containsKey(OpenSearchApplicationPlugin.GeometryShape.POLYGON.getShape())) {
+      return null;
+    }
+    final Object healpix = queryParameters.get(OpenSearchApplicationPlugin.GeometryShape.HEALPIX.getShape());
+    final Object healpixOrder = queryParameters.get(OpenSearchApplicationPlugin.GeometryShape.HEALPIX.getOrder());
+    int order = MAX_ORDER;
+    long[] visiblePixels = null;
+    if (healpix != null) {
+      try {
+        order = Integer.parseInt(String.valueOf(healpixOrder));
+        final String[] values = String.valueOf(healpix).split(",");
+        visiblePixels = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+          visiblePixels[i] = Long.parseLong(values[i].trim());
+        }
+      } catch (NumberFormatException ex) {
+        return null;
+      }
+      if (order < 0 || order > MAX_ORDER) {
+        return null;
+      }
+    }
+
+    final Map<String, Object> filters = new TreeMap<String, Object>(queryParameters);
+    for (String parameter : NOT_FILTER_PARAMETERS) {
+      filters.remove(parameter);
+    }
+    final FutureTask<HealpixCounts> entry = getEntry(indexVersion, filters);
+    if (entry == null) {
+      return null;
+    }
+    entry.run();
+    final HealpixCounts counts;
+    try {
+      counts = entry.get();
+    } catch (ExecutionException ex) {
+      synchronized (this) {
+        entries.values().remove(entry);
+      }
+      throw (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex;
+    }
+    return (visiblePixels == null) ? counts : counts.slice(order, visiblePixels);
+  }
+
+  /**
+   * Returns the entry of a filter, created when the filter is popular.
+   *
+   * @param indexVersion version of the SOLR index
+   * @param filters filters
+   * @return the entry, which may not be computed yet, or null when the filter is not cached
+   */
+  private synchronized FutureTask<HealpixCounts> getEntry(final long indexVersion, final Map<String, Object> filters) {
+    final String key = filters.toString() + "@" + indexVersion;
+    FutureTask<HealpixCounts> entry = entries.get(key);
+    if (entry == null) {
+      if (!filters.isEmpty()) {
+        final String filterKey = filters.toString();
+        final Integer nbRequests = requests.get(filterKey);
+        final int newNbRequests = (nbRequests == null) ? 1 : nbRequests + 1;
+        requests.put(filterKey, newNbRequests);
+        if (newNbRequests < POPULARITY_THRESHOLD) {
+          return null;
+        }
+      }
+      // the counts of the previous index versions are not used anymore
+      entries.keySet().removeAll(keysOf(filters.toString() + "@"));
+      entry = new FutureTask<HealpixCounts>(new Callable<HealpixCounts>() {
+        @Override
+        public HealpixCounts call() throws Exception {
+          return compute(filters);
+        }
+      });
+      entries.put(key, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Returns the cached keys with a prefix.
+   *
+   * @param prefix prefix
+   * @return the keys
+   */
+  private List<String> keysOf(final String prefix) {
+    final List<String> keys = new ArrayList<String>();
+    for (String key : entries.keySet()) {
+      if (key.startsWith(prefix)) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Computes the counts of a filter with a facet query on all the orders.
+   *
+   * @param filters filters
+   * @return the counts
+   * @throws Exception SOLR Exception
+   */
+  private HealpixCounts compute(final Map<String, Object> filters) throws Exception {
+    final long start = System.currentTimeMillis();
+    final Map<String, Object> parameters = new HashMap<String, Object>(filters);
+    parameters.put("count", "0");
+    parameters.put("startIndex", OpenSearchSearch.DEFAULT_START_INDEX);
+    parameters.put("startPage", OpenSearchSearch.DEFAULT_START_PAGE);
+    parameters.put("format", "json");
+    final AbstractSolrQueryRequestFactory querySolr = AbstractSolrQueryRequestFactory.createInstance(parameters, CoordSystem.EQUATORIAL,
+            solrBaseUrl, Scheme.NESTED);
+    querySolr.createQueryBuilder();
+    final StringBuilder query = new StringBuilder(querySolr.getSolrQueryRequest()).append("&facet=true&facet.limit=-1&facet.mincount=1");
+    for (int order = MIN_ORDER; order <= MAX_ORDER; order++) {
+      query.append("&facet.field=order").append(order);
+    }
+    final ClientResource client = new ClientResource(query.toString());
+    final JsonNode json;
+    try {
+      json = Utility.mapper.readValue(client.get().getText(), JsonNode.class);
+    } finally {
+      client.release();
+    }
+    final long[][] pixels = new long[MAX_ORDER - MIN_ORDER + 1][];
+    final long[][] counts = new long[pixels.length][];
+    for (int order = MIN_ORDER; order <= MAX_ORDER; order++) {
+      // the facets alternate the pixels and their count
+      final JsonNode facets = json.get("facet_counts").get("facet_fields").get("order" + order);
+      pixels[order - MIN_ORDER] = new long[facets.size() / 2];
+      counts[order - MIN_ORDER] = new long[facets.size() / 2];
+      for (int i = 0; i < facets.size() / 2; i++) {
+        pixels[order - MIN_ORDER][i] = facets.get(2 * i).getValueAsLong();
+        counts[order - MIN_ORDER][i] = facets.get(2 * i + 1).getValueAsLong();
+      }
+    }
+    final HealpixCounts healpixCounts = HealpixCounts.fromOrders(MIN_ORDER, pixels, counts,
+            json.get("response").get("numFound").getValueAsLong());
+    LOG.log(Level.INFO, "Cluster counts of {0} with {1} computed in {2} ms ({3} pixels)",
+            new Object[]{solrBaseUrl, filters, System.currentTimeMillis() - start, pixels[pixels.length - 1].length});
+    return healpixCounts;
+  }
+
+  /**
+   * Returns the counts in the JSON format of the SOLR facet response.
+   *
+   * <p>
+   * Each count is a number of distinct documents, as in the facet query. When
+   * the number of documents is only a lower bound, <code>numFoundExact</code>
+   * is false.
+   * </p>
+   *
+   * @param counts counts
+   * @return the JSON response
+   */
+  public static String toSolrResponse(final HealpixCounts counts) {
+    final StringBuilder json = new StringBuilder();
+    json.append("{\"responseHeader\":{\"status\":0,\"QTime\":0},\"response\":{\"numFound\":").append(counts.getTotal());
+    if (!counts.isTotalExact()) {
+      json.append(",\"numFoundExact\":false");
+    }
+    json.append(",\"start\":0,\"docs\":[]},\"facet_counts\":{\"facet_queries\":{},\"facet_fields\":{");
+    for (int order = counts.getMinOrder(); order <= counts.getMaxOrder(); order++) {
+      if (order > counts.getMinOrder()) {
+        json.append(',');
+      }
+      json.append("\"order").append(order).append("\":[");
+      for (int i = 0; i < counts.size(order); i++) {
+        if (i > 0) {
+          json.append(',');
+        }
+        json.append('"').append(counts.getPixel(order, i)).append("\",").append(counts.getCount(order, i));
+      }
+      json.append(']');
+    }
+    json.append("},\"facet_dates\":{},\"facet_ranges\":{}}}");
+    return json.toString();
+  }
+}
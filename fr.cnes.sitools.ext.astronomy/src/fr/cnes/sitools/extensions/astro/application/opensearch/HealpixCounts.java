@@ -0,0 +1,281 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application.opensearch;
+
+import java.util.Arrays;
+
+/**
+ * Number of documents by NESTED Healpix pixel, from a minimum order to a maximum order.
+ *
+ * <p>
+ * The counts of each order are the facet counts of its Healpix field, so a
+ * document is counted once in each pixel it covers, as in the SOLR response.
+ * The counts of an order cannot be derived from a deeper order: a document
+ * covering several children of a pixel would be counted several times. The
+ * pixels are sorted at each order and the counts are stored in primitive arrays.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert
+ */
+public final class HealpixCounts {
+
+  /**
+   * Greatest supported order, the pixels are sorted with their index in a long.
+   */
+  public static final int MAX_SUPPORTED_ORDER = 13;
+  /**
+   * Minimum order.
+   */
+  private final int minOrder;
+  /**
+   * Maximum order.
+   */
+  private final int maxOrder;
+  /**
+   * Sorted pixels by order, from the minimum order.
+   */
+  private final long[][] pixels;
+  /**
+   * Counts of the pixels by order, from the minimum order.
+   */
+  private final long[][] counts;
+  /**
+   * Number of documents, or a lower bound of it.
+   */
+  private final long total;
+  /**
+   * True when <code>total</code> is the number of documents.
+   */
+  private final boolean isTotalExact;
+
+  /**
+   * Constructs the counts.
+   *
+   * @param minOrderVal minimum order
+   * @param maxOrderVal maximum order
+   * @param pixelsVal sorted pixels by order
+   * @param countsVal counts by order
+   * @param totalVal number of documents, or a lower bound of it
+   * @param isTotalExactVal true when <code>totalVal</code> is the number of documents
+   */
+  private HealpixCounts(final int minOrderVal, final int maxOrderVal, final long[][] pixelsVal, final long[][] countsVal, final long totalVal,
+          final boolean isTotalExactVal) {
+    this.minOrder = minOrderVal;
+    this.maxOrder = maxOrderVal;
+    this.pixels = pixelsVal;
+    this.counts = countsVal;
+    this.total = totalVal;
+    this.isTotalExact = isTotalExactVal;
+  }
+
+  /**
+   * Returns the counts from the facet counts of each order.
+   *
+   * @param minOrder minimum order
+   * @param pixelsByOrder pixels of each order from the minimum order, in any order and not modified
+   * @param countsByOrder number of documents of each pixel
+   * @param total number of documents
+   * @return the counts at all the orders
+   */
+  public static HealpixCounts fromOrders(final int minOrder, final long[][] pixelsByOrder, final long[][] countsByOrder, final long total) {
+    final int maxOrder = minOrder + pixelsByOrder.length - 1;
+    if (minOrder < 0 || minOrder > maxOrder || maxOrder > MAX_SUPPORTED_ORDER) {
+      throw new IllegalArgumentException("orders must be between 0 and " + MAX_SUPPORTED_ORDER);
+    }
+    if (pixelsByOrder.length != countsByOrder.length) {
+      throw new IllegalArgumentException("pixels and counts must have the same number of orders");
+    }
+    final long[][] sortedPixels = new long[pixelsByOrder.length][];
+    final long[][] sortedCounts = new long[pixelsByOrder.length][];
+    for (int level = 0; level < pixelsByOrder.length; level++) {
+      if (pixelsByOrder[level].length != countsByOrder[level].length) {
+        throw new IllegalArgumentException("pixels and counts must have the same length");
+      }
+      // sorts the pixels with their index in the lower bits
+      final long[] keys = new long[pixelsByOrder[level].length];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = (pixelsByOrder[level][i] << Integer.SIZE) | i;
+      }
+      Arrays.sort(keys);
+      sortedPixels[level] = new long[keys.length];
+      sortedCounts[level] = new long[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        sortedPixels[level][i] = keys[i] >>> Integer.SIZE;
+        sortedCounts[level][i] = countsByOrder[level][(int) keys[i]];
+      }
+    }
+    return new HealpixCounts(minOrder, maxOrder, sortedPixels, sortedCounts, total, true);
+  }
+
+  /**
+   * Returns the counts of the documents in some pixels.
+   *
+   * <p>
+   * At the orders that are not coarser than <code>order</code>, the counts are
+   * the counts of the children of the pixels. The coarser orders are empty: the
+   * number of documents of a parent pixel that are in the visible pixels is
+   * unknown. For the same reason, the number of documents is only a lower bound,
+   * the greatest count of a visible pixel, except for a single visible pixel.
+   * </p>
+   *
+   * @param order order of the pixels, not greater than the maximum order
+   * @param visiblePixels NESTED pixels
+   * @return the counts in the pixels
+   */
+  public HealpixCounts slice(final int order, final long[] visiblePixels) {
+    if (order < 0 || order > maxOrder) {
+      throw new IllegalArgumentException("order must be between 0 and " + maxOrder);
+    }
+    final long[] sortedVisiblePixels = visiblePixels.clone();
+    Arrays.sort(sortedVisiblePixels);
+    final int firstSlicedOrder = Math.max(order, minOrder);
+    final long[][] slicedPixels = new long[maxOrder - minOrder + 1][];
+    final long[][] slicedCounts = new long[maxOrder - minOrder + 1][];
+    for (int level = minOrder; level < firstSlicedOrder; level++) {
+      slicedPixels[level - minOrder] = new long[0];
+      slicedCounts[level - minOrder] = new long[0];
+    }
+    for (int level = firstSlicedOrder; level <= maxOrder; level++) {
+      slice(level, level - order, sortedVisiblePixels, slicedPixels, slicedCounts);
+    }
+    long sliceTotal = 0;
+    for (long count : slicedCounts[firstSlicedOrder - minOrder]) {
+      sliceTotal = Math.max(sliceTotal, count);
+    }
+    final boolean isSinglePixel = order >= minOrder && sortedVisiblePixels.length > 0
+            && sortedVisiblePixels[0] == sortedVisiblePixels[sortedVisiblePixels.length - 1];
+    return new HealpixCounts(minOrder, maxOrder, slicedPixels, slicedCounts, sliceTotal, isSinglePixel);
+  }
+
+  /**
+   * Copies the pixels of an order that are children of the visible pixels.
+   *
+   * @param level order
+   * @param depth difference between <code>level</code> and the order of the visible pixels
+   * @param sortedVisiblePixels sorted visible pixels
+   * @param slicedPixels pixels of the slice by order
+   * @param slicedCounts counts of the slice by order
+   */
+  private void slice(final int level, final int depth, final long[] sortedVisiblePixels, final long[][] slicedPixels,
+          final long[][] slicedCounts) {
+    final long[] levelPixels = pixels[level - minOrder];
+    final long[] levelCounts = counts[level - minOrder];
+    final int[] bounds = new int[2 * sortedVisiblePixels.length];
+    int length = 0;
+    for (int i = 0; i < sortedVisiblePixels.length; i++) {
+      final int begin = insertionPoint(levelPixels, sortedVisiblePixels[i] << (2 * depth));
+      final int end = insertionPoint(levelPixels, (sortedVisiblePixels[i] + 1) << (2 * depth));
+      bounds[2 * i] = begin;
+      // a visible pixel given twice is copied once
+      bounds[2 * i + 1] = (i > 0 && sortedVisiblePixels[i] == sortedVisiblePixels[i - 1]) ? begin : end;
+      length += bounds[2 * i + 1] - begin;
+    }
+    final long[] resultPixels = new long[length];
+    final long[] resultCounts = new long[length];
+    int position = 0;
+    for (int i = 0; i < sortedVisiblePixels.length; i++) {
+      final int rangeLength = bounds[2 * i + 1] - bounds[2 * i];
+      System.arraycopy(levelPixels, bounds[2 * i], resultPixels, position, rangeLength);
+      System.arraycopy(levelCounts, bounds[2 * i], resultCounts, position, rangeLength);
+      position += rangeLength;
+    }
+    slicedPixels[level - minOrder] = resultPixels;
+    slicedCounts[level - minOrder] = resultCounts;
+  }
+
+  /**
+   * Returns the index of the first pixel that is not lower than a value.
+   *
+   * @param sortedPixels sorted pixels
+   * @param value value
+   * @return the index
+   */
+  private static int insertionPoint(final long[] sortedPixels, final long value) {
+    final int index = Arrays.binarySearch(sortedPixels, value);
+    return (index < 0) ? -index - 1 : index;
+  }
+
+  /**
+   * Returns the minimum order.
+   *
+   * @return the minimum order
+   */
+  public int getMinOrder() {
+    return minOrder;
+  }
+
+  /**
+   * Returns the maximum order.
+   *
+   * @return the maximum order
+   */
+  public int getMaxOrder() {
+    return maxOrder;
+  }
+
+  /**
+   * Returns the number of documents, or a lower bound of it when {@link #isTotalExact()} is false.
+   *
+   * @return the number of documents
+   */
+  public long getTotal() {
+    return total;
+  }
+
+  /**
+   * Returns true when {@link #getTotal()} is the number of documents and not a lower bound.
+   *
+   * @return true when the number of documents is exact
+   */
+  public boolean isTotalExact() {
+    return isTotalExact;
+  }
+
+  /**
+   * Returns the number of pixels with documents at an order.
+   *
+   * @param order order
+   * @return the number of pixels
+   */
+  public int size(final int order) {
+    return pixels[order - minOrder].length;
+  }
+
+  /**
+   * Returns a pixel.
+   *
+   * @param order order
+   * @param index index of the pixel at this order
+   * @return the pixel
+   */
+  public long getPixel(final int order, final int index) {
+    return pixels[order - minOrder][index];
+  }
+
+  /**
+   * Returns the number of documents of a pixel.
+   *
+   * @param order order
+   * @param index index of the pixel at this order
+   * @return the number of documents
+   */
+  public long getCount(final int order, final int index) {
+    return counts[order - minOrder][index];
+  }
+}
@@ -43,12 +43,10 @@ import org.restlet.representation.EmptyRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.representation.StringRepresentation;
 import org.restlet.representation.Variant;
-import org.restlet.resource.ClientResource;
 import org.restlet.resource.Get;
 import org.restlet.resource.ResourceException;
 
 import cds.moc.HealpixMoc;
-import cds.moc.MocCell;
 import fr.cnes.sitools.astro.graph.CoordinateDecorator;
 import fr.cnes.sitools.astro.graph.GenericProjection;
 import fr.cnes.sitools.astro.graph.Graph;
@@ -56,10 +54,8 @@ import fr.cnes.sitools.astro.graph.HealpixGridDecorator.CoordinateTransformation
 import fr.cnes.sitools.astro.graph.HealpixMocDecorator;
 import fr.cnes.sitools.astro.representation.FitsMocRepresentation;
 import fr.cnes.sitools.astro.representation.PngRepresentation;
-import fr.cnes.sitools.extensions.common.Utility;
 import fr.cnes.sitools.searchgeometryengine.CoordSystem;
 import fr.cnes.sitools.solr.query.AbstractSolrQueryRequestFactory;
-import org.codehaus.jackson.JsonNode;
 import org.restlet.ext.jackson.JacksonRepresentation;
 
 /**
@@ -99,10 +95,6 @@ public class MocDescription extends OpenSearchBase {
    * Default transparency that is applied for drawing MOC.
    */
   private static final float DEFAULT_TRANSPARENCY_MOC = 1.0f;
-  /**
-   * Maximum order of the MOC.
-   */
-  private static final int ORDER_MAX = 13;
   /**
    * Default count on a SOLR page.
    */
@@ -170,26 +162,21 @@ public class MocDescription extends OpenSearchBase {
 
   /**
    * Computes MOC at order 13 from the SOLR server.
+   *
+   * <p>
+   * The coverage of all the documents is kept in memory by {@link SolrCoverageCache} for the current version
+   * of the index. A facet query is only sent when the query has constraints or when the index version is unknown.
+   * </p>
    * @throws Exception Error while processing MOC
    */
   protected void computeMoc() throws Exception {
     final AbstractSolrQueryRequestFactory querySolr = AbstractSolrQueryRequestFactory.createInstance(queryParameters, CoordSystem.EQUATORIAL, getSolrBaseUrl(), Scheme.NESTED);
     querySolr.createQueryBuilder();
-    String query = querySolr.getSolrQueryRequest();
-    query = query.concat("&rows=0&facet=true&facet.field=order13&facet.limit=-1&facet.mincount=1");
-    //ClientResource client = new ClientResource(getSolrBaseUrl() + "/select/?q=*:*&rows=0&facet=true&facet.field=order13&facet.limit=-1&facet.mincount=1&wt=json");
-    final ClientResource client = new ClientResource(query);
-    final String text = client.get().getText();
-    JsonNode json = Utility.mapper.readValue(text, JsonNode.class);
-    json = json.get("facet_counts");
-    json = json.get("facet_fields");
-    json = json.get("order13");
-
-    setMoc(new HealpixMoc());
-    for (int i = 0; i < json.size(); i++) {
-      final MocCell mocCell = new MocCell();
-      mocCell.set(ORDER_MAX, json.get(i).getLongValue());
-      getMoc().add(mocCell);
+    final String query = querySolr.getSolrQueryRequest();
+    if (query.endsWith("&q=*:*") && getIndexVersion() >= 0) {
+      setMoc(SolrCoverageCache.getInstance(getSolrBaseUrl()).getMoc(getIndexVersion(), getNumDocs()));
+    } else {
+      setMoc(SolrCoverageCache.toMoc(SolrCoverageCache.facetPixels(query)));
     }
   }
 
@@ -65,6 +65,14 @@ public class OpenSearchBase extends SitoolsParameterizedResource {
      * Data model.
      */
     private transient ApplicationPluginModel paramModel;    
+    /**
+     * Version of the SOLR index, -1 when unknown.
+     */
+    private transient long indexVersion = -1;
+    /**
+     * Number of documents of the SOLR index, -1 when unknown.
+     */
+    private transient long numDocs = -1;
 
     /**
      * Init.
@@ -94,6 +102,11 @@ public class OpenSearchBase extends SitoolsParameterizedResource {
         final ClientResource client = new ClientResource(getSolrBaseUrl() + "/admin/luke?wt=json&numTerms=" + Index.MAX_TOP_TERMS);                       
         JsonNode json = Utility.mapper.readValue(client.get().getText(), JsonNode.class);
         final JsonNode fields = json.get("fields");
+        final JsonNode index = json.get("index");
+        if (index != null && index.get("version") != null && index.get("numDocs") != null) {
+            this.indexVersion = index.get("version").getValueAsLong();
+            this.numDocs = index.get("numDocs").getValueAsLong();
+        }
         
         // iter on all fields of the solr index
         final Iterator iter = fields.getFieldNames();
@@ -131,6 +144,22 @@ public class OpenSearchBase extends SitoolsParameterizedResource {
         return this.solrBaseUrl;
     }
 
+    /**
+     * Returns the version of the SOLR index.
+     * @return the version of the SOLR index or -1 when unknown
+     */
+    public final long getIndexVersion() {
+        return this.indexVersion;
+    }
+
+    /**
+     * Returns the number of documents of the SOLR index.
+     * @return the number of documents or -1 when unknown
+     */
+    public final long getNumDocs() {
+        return this.numDocs;
+    }
+
     /**
      * Returns the plugin data model.
      * @return the plugin data model
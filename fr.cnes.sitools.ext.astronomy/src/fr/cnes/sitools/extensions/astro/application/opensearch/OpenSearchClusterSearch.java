@@ -47,6 +47,12 @@ import org.restlet.representation.StringRepresentation;
 /**
  * Provides a search capability on observations by the use of (healpix,order) parameters.
  *
+ * <p>
+ * The number of observations by Healpix pixel is returned from {@link ClusterAggregationCache} when possible,
+ * otherwise from a facet query on all the Healpix orders. In both cases, a count is the number of distinct
+ * observations in the pixel.
+ * </p>
+ *
  * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
  */
 public class OpenSearchClusterSearch extends OpenSearchSearch {
@@ -64,6 +70,11 @@ public class OpenSearchClusterSearch extends OpenSearchSearch {
       final CoordSystem coordSystem = referenceSystem.equals("geocentric") ? CoordSystem.GEOCENTRIC : CoordSystem.EQUATORIAL;
       final String healpixSchemeParam = getPluginParameters().get("healpixScheme").getValue();
       final Scheme healpixScheme = Scheme.valueOf(healpixSchemeParam);
+      final HealpixCounts counts = ClusterAggregationCache.getInstance(getSolrBaseUrl()).getCounts(getIndexVersion(), healpixScheme,
+              this.getQueryParameters());
+      if (counts != null) {
+        return new StringRepresentation(ClusterAggregationCache.toSolrResponse(counts), MediaType.APPLICATION_JSON);
+      }
       final AbstractSolrQueryRequestFactory querySolr = AbstractSolrQueryRequestFactory.createInstance(this.getQueryParameters(), coordSystem, getSolrBaseUrl(), healpixScheme);
       querySolr.createQueryBuilder();
       String query = querySolr.getSolrQueryRequest();
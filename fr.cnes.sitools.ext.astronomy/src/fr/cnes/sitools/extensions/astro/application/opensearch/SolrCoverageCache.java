@@ -0,0 +1,379 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application.opensearch;
+
+import healpix.essentials.RangeSet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.data.Reference;
+import org.restlet.engine.Engine;
+import org.restlet.resource.ClientResource;
+
+import cds.moc.HealpixMoc;
+import fr.cnes.sitools.extensions.common.Utility;
+import fr.cnes.sitools.searchgeometryengine.MocBuilder;
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * Keeps in memory the coverage MOC of a SOLR core.
+ *
+ * <p>
+ * The coverage is computed once for a version of the SOLR index. When the
+ * index version changes and documents have only been added, the pixels of the
+ * documents whose <code>_version_</code> is greater than the last known one
+ * are read and added to the coverage. Otherwise (deleted or updated documents,
+ * no <code>_version_</code> field, too many new documents), the coverage is
+ * computed again with a facet query on the deepest Healpix field.
+ * </p>
+ *
+ * <p>
+ * The returned MOC is shared between requests and must not be modified.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert
+ */
+public final class SolrCoverageCache {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Engine.getLogger(SolrCoverageCache.class.getName());
+  /**
+   * Healpix order of the pixels indexed in SOLR.
+   */
+  public static final int ORDER = 13;
+  /**
+   * SOLR field of the pixels at <code>ORDER</code>.
+   */
+  public static final String PIXEL_FIELD = "order" + ORDER;
+  /**
+   * SOLR field that increases with the indexed documents.
+   */
+  public static final String VERSION_FIELD = "_version_";
+  /**
+   * Number of documents read on a SOLR page.
+   */
+  private static final int PAGE_SIZE = 1000;
+  /**
+   * Maximum number of new documents read one by one, the coverage is computed again above.
+   */
+  private static final int MAX_NEW_DOCUMENTS = 100000;
+  /**
+   * Caches by SOLR core URL.
+   */
+  private static final Map<String, SolrCoverageCache> INSTANCES = new HashMap<String, SolrCoverageCache>();
+  /**
+   * Reads the SOLR responses by HTTP.
+   */
+  private static final JsonSource HTTP_SOURCE = new JsonSource() {
+    @Override
+    public JsonNode get(final String query) throws Exception {
+      final ClientResource client = new ClientResource(query);
+      try {
+        return Utility.mapper.readValue(client.get().getText(), JsonNode.class);
+      } finally {
+        client.release();
+      }
+    }
+  };
+  /**
+   * URL of the SOLR core.
+   */
+  private final String solrBaseUrl;
+  /**
+   * Source of the SOLR responses.
+   */
+  private final JsonSource source;
+  /**
+   * Current coverage, null when it has never been computed.
+   */
+  private volatile Coverage coverage = null;
+
+  /**
+   * Constructs a cache.
+   *
+   * @param solrBaseUrlVal URL of the SOLR core
+   */
+  private SolrCoverageCache(final String solrBaseUrlVal) {
+    this(solrBaseUrlVal, HTTP_SOURCE);
+  }
+
+  /**
+   * Constructs a cache reading the SOLR responses from a source.
+   *
+   * @param solrBaseUrlVal URL of the SOLR core
+   * @param sourceVal source of the SOLR responses
+   */
+  SolrCoverageCache(final String solrBaseUrlVal, final JsonSource sourceVal) {
+    this.solrBaseUrl = solrBaseUrlVal;
+    this.source = sourceVal;
+  }
+
+  /**
+   * Returns the cache of a SOLR core.
+   *
+   * @param solrBaseUrl URL of the SOLR core
+   * @return the cache
+   */
+  public static synchronized SolrCoverageCache getInstance(final String solrBaseUrl) {
+    SolrCoverageCache cache = INSTANCES.get(solrBaseUrl);
+    if (cache == null) {
+      cache = new SolrCoverageCache(solrBaseUrl);
+      INSTANCES.put(solrBaseUrl, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * Returns the coverage of all the documents of a version of the index.
+   *
+   * <p>The concurrent requests wait for the coverage of the new version to be computed once.</p>
+   *
+   * @param indexVersion version of the SOLR index
+   * @param numDocs number of documents of the SOLR index
+   * @return the coverage
+   * @throws Exception SOLR or MOC Exception
+   */
+  public HealpixMoc getMoc(final long indexVersion, final long numDocs) throws Exception {
+    final Coverage current = this.coverage;
+    if (current != null && current.indexVersion == indexVersion) {
+      return current.moc;
+    }
+    synchronized (this) {
+      Coverage updated = this.coverage;
+      if (updated == null || updated.indexVersion != indexVersion) {
+        final long start = System.currentTimeMillis();
+        updated = (updated == null) ? null : update(updated, indexVersion, numDocs);
+        if (updated == null) {
+          updated = compute(indexVersion, numDocs);
+        }
+        this.coverage = updated;
+        LOG.log(Level.INFO, "Coverage of {0} at index version {1} computed in {2} ms",
+                new Object[]{solrBaseUrl, indexVersion, System.currentTimeMillis() - start});
+      }
+      return updated.moc;
+    }
+  }
+
+  /**
+   * Computes the coverage with a facet query.
+   *
+   * @param indexVersion version of the SOLR index
+   * @param numDocs number of documents of the SOLR index
+   * @return the coverage
+   * @throws Exception SOLR or MOC Exception
+   */
+  private Coverage compute(final long indexVersion, final long numDocs) throws Exception {
+    final RangeSet pixels = toRanges(facetPixels(source, solrBaseUrl + "/select/?q=*:*&wt=json"));
+    return new Coverage(indexVersion, numDocs, lastDocumentVersion(), pixels);
+  }
+
+  /**
+   * Adds the pixels of the new documents to a coverage.
+   *
+   * @param previous coverage of a previous version of the index
+   * @param indexVersion version of the SOLR index
+   * @param numDocs number of documents of the SOLR index
+   * @return the coverage or null when it must be computed again
+   * @throws Exception SOLR or MOC Exception
+   */
+  private Coverage update(final Coverage previous, final long indexVersion, final long numDocs) throws Exception {
+    if (previous.lastDocumentVersion < 0 || numDocs <= previous.numDocs || numDocs - previous.numDocs > MAX_NEW_DOCUMENTS) {
+      return null;
+    }
+    final String query = solrBaseUrl + "/select/?wt=json&rows=" + PAGE_SIZE + "&fl=" + PIXEL_FIELD + "," + VERSION_FIELD
+            + "&sort=" + Reference.encode(VERSION_FIELD + " asc")
+            + "&q=" + Reference.encode(VERSION_FIELD + ":{" + previous.lastDocumentVersion + " TO *]");
+    long[] newPixels = new long[0];
+    int nbNewPixels = 0;
+    long lastDocumentVersion = previous.lastDocumentVersion;
+    long numFound = 0;
+    int nbNewDocuments = 0;
+    do {
+      final JsonNode response = source.get(query + "&start=" + nbNewDocuments).get("response");
+      numFound = response.get("numFound").getLongValue();
+      if (previous.numDocs + numFound != numDocs) {
+        // documents have been deleted or updated
+        return null;
+      }
+      final JsonNode docs = response.get("docs");
+      if (docs.size() == 0) {
+        return null;
+      }
+      for (int i = 0; i < docs.size(); i++) {
+        final JsonNode doc = docs.get(i);
+        final JsonNode docPixels = doc.get(PIXEL_FIELD);
+        if (docPixels == null) {
+          return null;
+        }
+        // the footprint of a polygon covers several pixels, the field is then multi-valued
+        final int nbDocPixels = docPixels.isArray() ? docPixels.size() : 1;
+        if (newPixels.length < nbNewPixels + nbDocPixels) {
+          newPixels = Arrays.copyOf(newPixels, Math.max(2 * newPixels.length, nbNewPixels + nbDocPixels));
+        }
+        if (docPixels.isArray()) {
+          for (int j = 0; j < nbDocPixels; j++) {
+            newPixels[nbNewPixels++] = docPixels.get(j).getValueAsLong();
+          }
+        } else {
+          newPixels[nbNewPixels++] = docPixels.getValueAsLong();
+        }
+        lastDocumentVersion = Math.max(lastDocumentVersion, doc.get(VERSION_FIELD).getValueAsLong());
+        nbNewDocuments++;
+      }
+    } while (nbNewDocuments < numFound);
+    return new Coverage(indexVersion, numDocs, lastDocumentVersion, previous.pixels.union(toRanges(Arrays.copyOf(newPixels, nbNewPixels))));
+  }
+
+  /**
+   * Returns the greatest <code>_version_</code> of the documents.
+   *
+   * @return the greatest version or -1 when the documents have no version
+   */
+  private long lastDocumentVersion() {
+    try {
+      final JsonNode docs = source.get(solrBaseUrl + "/select/?q=*:*&wt=json&rows=1&fl=" + VERSION_FIELD
+              + "&sort=" + Reference.encode(VERSION_FIELD + " desc")).get("response").get("docs");
+      return (docs.size() == 0 || docs.get(0).get(VERSION_FIELD) == null) ? -1 : docs.get(0).get(VERSION_FIELD).getValueAsLong();
+    } catch (Exception ex) {
+      LOG.log(Level.FINE, "The documents have no " + VERSION_FIELD + ", the coverage is not updated incrementally", ex);
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the pixels of the documents of a SOLR query with a facet query.
+   *
+   * @param query SOLR query
+   * @return the pixels at <code>ORDER</code>
+   * @throws Exception SOLR Exception
+   */
+  public static long[] facetPixels(final String query) throws Exception {
+    return facetPixels(HTTP_SOURCE, query);
+  }
+
+  /**
+   * Returns the pixels of the documents of a SOLR query with a facet query.
+   *
+   * @param source source of the SOLR responses
+   * @param query SOLR query
+   * @return the pixels at <code>ORDER</code>
+   * @throws Exception SOLR Exception
+   */
+  private static long[] facetPixels(final JsonSource source, final String query) throws Exception {
+    final JsonNode facets = source.get(query + "&rows=0&facet=true&facet.field=" + PIXEL_FIELD + "&facet.limit=-1&facet.mincount=1")
+            .get("facet_counts").get("facet_fields").get(PIXEL_FIELD);
+    // the facets alternate the pixels and their count
+    final long[] pixels = new long[facets.size() / 2];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = facets.get(2 * i).getValueAsLong();
+    }
+    return pixels;
+  }
+
+  /**
+   * Returns the MOC of pixels.
+   *
+   * @param pixels pixels at <code>ORDER</code>
+   * @return the MOC
+   * @throws Exception MOC Exception
+   */
+  public static HealpixMoc toMoc(final long[] pixels) throws Exception {
+    return MocBuilder.fromNestedRanges(toRanges(pixels), ORDER);
+  }
+
+  /**
+   * Returns the ranges of pixels.
+   *
+   * @param pixels pixels at <code>ORDER</code>, sorted in place
+   * @return the ranges
+   */
+  private static RangeSet toRanges(final long[] pixels) {
+    Arrays.sort(pixels);
+    final RangeSet ranges = new RangeSet(pixels.length);
+    for (long pixel : pixels) {
+      ranges.append(pixel, pixel + 1);
+    }
+    return ranges;
+  }
+
+  /**
+   * Source of the SOLR responses.
+   */
+  interface JsonSource {
+
+    /**
+     * Returns the JSON response of SOLR.
+     *
+     * @param query SOLR query
+     * @return the JSON response
+     * @throws Exception SOLR Exception
+     */
+    JsonNode get(String query) throws Exception;
+  }
+
+  /**
+   * Coverage of a version of the index.
+   */
+  private static final class Coverage {
+
+    /**
+     * Version of the SOLR index.
+     */
+    private final long indexVersion;
+    /**
+     * Number of documents.
+     */
+    private final long numDocs;
+    /**
+     * Greatest <code>_version_</code> of the documents, -1 when unknown.
+     */
+    private final long lastDocumentVersion;
+    /**
+     * Pixels at <code>ORDER</code>.
+     */
+    private final RangeSet pixels;
+    /**
+     * MOC of the pixels.
+     */
+    private final HealpixMoc moc;
+
+    /**
+     * Constructs a coverage.
+     *
+     * @param indexVersionVal version of the SOLR index
+     * @param numDocsVal number of documents
+     * @param lastDocumentVersionVal greatest <code>_version_</code> of the documents
+     * @param pixelsVal pixels
+     * @throws Exception MOC Exception
+     */
+    private Coverage(final long indexVersionVal, final long numDocsVal, final long lastDocumentVersionVal, final RangeSet pixelsVal) throws Exception {
+      this.indexVersion = indexVersionVal;
+      this.numDocs = numDocsVal;
+      this.lastDocumentVersion = lastDocumentVersionVal;
+      this.pixels = pixelsVal;
+      this.moc = MocBuilder.fromNestedRanges(pixelsVal, ORDER);
+    }
+  }
+}
@@ -0,0 +1,368 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application.uws.client;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import net.ivoa.xml.uws.v1.ExecutionPhase;
+
+import org.restlet.engine.Engine;
+
+/**
+ * Watches remote UWS jobs without holding a thread per job.
+ * <p>
+ * Each watched job is polled from a small shared scheduler. The delay between
+ * two polls starts at <code>initialDelay</code> and is multiplied by
+ * <code>backoffFactor</code> after each poll, up to <code>maxDelay</code>.
+ * When the remote service fails, the delay keeps growing so that a struggling
+ * service is not flooded; the listener is notified only after
+ * <code>maxConsecutiveErrors</code> failures in a row.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class AsyncUwsPoller {
+
+    /**
+     * Default number of polling threads.
+     */
+    public static final int DEFAULT_POOL_SIZE = 2;
+    /**
+     * Default delay in milliseconds before the first poll.
+     */
+    public static final long DEFAULT_INITIAL_DELAY_MILLISEC = 1000;
+    /**
+     * Default upper bound in milliseconds of the delay between two polls.
+     */
+    public static final long DEFAULT_MAX_DELAY_MILLISEC = 30000;
+    /**
+     * Default growth factor of the delay.
+     */
+    public static final double DEFAULT_BACKOFF_FACTOR = 2.0;
+    /**
+     * Default number of consecutive client errors before giving up.
+     */
+    public static final int DEFAULT_MAX_CONSECUTIVE_ERRORS = 5;
+    /**
+     * Shared instance.
+     */
+    private static AsyncUwsPoller instance = null;
+    /**
+     * Scheduler running the polls.
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Delay before the first poll.
+     */
+    private final long initialDelay;
+    /**
+     * Upper bound of the delay between two polls.
+     */
+    private final long maxDelay;
+    /**
+     * Growth factor of the delay.
+     */
+    private final double backoffFactor;
+    /**
+     * Number of consecutive errors before giving up.
+     */
+    private final int maxConsecutiveErrors;
+    /**
+     * Number of jobs being watched.
+     */
+    private final AtomicInteger watchedJobs = new AtomicInteger();
+
+    /**
+     * Creates a poller.
+     *
+     * @param poolSize number of polling threads
+     * @param initialDelayVal delay in milliseconds before the first poll
+     * @param maxDelayVal upper bound in milliseconds of the delay between two polls
+     * @param backoffFactorVal growth factor of the delay (must be &gt;= 1)
+     * @param maxConsecutiveErrorsVal number of consecutive errors before giving up
+     */
+    public AsyncUwsPoller(final int poolSize, final long initialDelayVal, final long maxDelayVal,
+            final double backoffFactorVal, final int maxConsecutiveErrorsVal) {
+        if (poolSize < 1 || initialDelayVal < 0 || maxDelayVal < initialDelayVal
+                || backoffFactorVal < 1 || maxConsecutiveErrorsVal < 1) {
+            throw new IllegalArgumentException("AsyncUwsPoller: invalid polling configuration");
+        }
+        this.initialDelay = initialDelayVal;
+        this.maxDelay = maxDelayVal;
+        this.backoffFactor = backoffFactorVal;
+        this.maxConsecutiveErrors = maxConsecutiveErrorsVal;
+        this.scheduler = Executors.newScheduledThreadPool(poolSize, new PollerThreadFactory());
+    }
+
+    /**
+     * Returns the shared poller, created with the default configuration.
+     *
+     * @return the shared poller
+     */
+    public static synchronized AsyncUwsPoller getInstance() {
+        if (instance == null) {
+            instance = new AsyncUwsPoller(DEFAULT_POOL_SIZE, DEFAULT_INITIAL_DELAY_MILLISEC,
+                    DEFAULT_MAX_DELAY_MILLISEC, DEFAULT_BACKOFF_FACTOR, DEFAULT_MAX_CONSECUTIVE_ERRORS);
+        }
+        return instance;
+    }
+
+    /**
+     * Starts watching a remote job.
+     *
+     * @param client client of the remote service
+     * @param jobId remote job identifier
+     * @param listener callback notified when the job ends
+     * @return a handle to stop watching
+     */
+    public final Watch watch(final UwsJobClient client, final String jobId, final UwsJobListener listener) {
+        if (client == null || jobId == null || listener == null) {
+            throw new IllegalArgumentException("watch: client, jobId and listener are required");
+        }
+        final Watch watch = new Watch(client, jobId, listener);
+        watchedJobs.incrementAndGet();
+        watch.schedule(initialDelay);
+        return watch;
+    }
+
+    /**
+     * Returns the number of jobs being watched.
+     *
+     * @return the number of jobs being watched
+     */
+    public final int getWatchedJobs() {
+        return watchedJobs.get();
+    }
+
+    /**
+     * Stops the polling threads. Jobs being watched are no longer polled.
+     */
+    public final void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Returns true when the phase is a final phase.
+     *
+     * @param phase job phase
+     * @return true when the job is not being processed anymore
+     */
+    public static boolean isFinished(final ExecutionPhase phase) {
+        return !(phase.equals(ExecutionPhase.PENDING)
+                || phase.equals(ExecutionPhase.QUEUED)
+                || phase.equals(ExecutionPhase.EXECUTING));
+    }
+
+    /**
+     * Polling state of a remote job.
+     */
+    public final class Watch implements Runnable {
+
+        /**
+         * Client of the remote service.
+         */
+        private final UwsJobClient client;
+        /**
+         * Remote job identifier.
+         */
+        private final String jobId;
+        /**
+         * Callback.
+         */
+        private final UwsJobListener listener;
+        /**
+         * Set once the job is no longer watched.
+         */
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        /**
+         * Current delay between two polls.
+         */
+        private long delay;
+        /**
+         * Number of consecutive errors.
+         */
+        private int nbErrors;
+        /**
+         * Number of polls sent to the remote service.
+         */
+        private volatile int nbPolls;
+
+        /**
+         * Constructor.
+         *
+         * @param clientVal client of the remote service
+         * @param jobIdVal remote job identifier
+         * @param listenerVal callback
+         */
+        private Watch(final UwsJobClient clientVal, final String jobIdVal, final UwsJobListener listenerVal) {
+            this.client = clientVal;
+            this.jobId = jobIdVal;
+            this.listener = listenerVal;
+            this.delay = initialDelay;
+        }
+
+        @Override
+        public void run() {
+            if (done.get()) {
+                return;
+            }
+            if (listener.isCancelled()) {
+                abort();
+                return;
+            }
+            try {
+                nbPolls++;
+                final ExecutionPhase phase = client.getJobPhase(jobId);
+                nbErrors = 0;
+                if (isFinished(phase)) {
+                    if (finish()) {
+                        listener.onFinished(jobId, phase);
+                    }
+                } else {
+                    schedule(nextDelay());
+                }
+            } catch (ClientUWSException ex) {
+                nbErrors++;
+                if (nbErrors >= maxConsecutiveErrors) {
+                    if (finish()) {
+                        listener.onError(jobId, ex);
+                    }
+                } else {
+                    Engine.getLogger(AsyncUwsPoller.class.getName()).log(Level.FINE, "Cannot poll " + jobId + ", retrying", ex);
+                    schedule(nextDelay());
+                }
+            } catch (RuntimeException ex) {
+                if (finish()) {
+                    listener.onError(jobId, new ClientUWSException(ex));
+                }
+            }
+        }
+
+        /**
+         * Stops watching the job and aborts it on the remote service.
+         */
+        public void cancel() {
+            abort();
+        }
+
+        /**
+         * Returns true when the job is no longer watched.
+         *
+         * @return true when the job is no longer watched
+         */
+        public boolean isDone() {
+            return done.get();
+        }
+
+        /**
+         * Returns the number of polls sent to the remote service.
+         *
+         * @return the number of polls
+         */
+        public int getNbPolls() {
+            return nbPolls;
+        }
+
+        /**
+         * Returns the remote job identifier.
+         *
+         * @return the remote job identifier
+         */
+        public String getJobId() {
+            return jobId;
+        }
+
+        /**
+         * Schedules the next poll.
+         *
+         * @param delayVal delay in milliseconds
+         */
+        private void schedule(final long delayVal) {
+            try {
+                scheduler.schedule(this, delayVal, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                if (finish()) {
+                    listener.onError(jobId, new ClientUWSException(ex));
+                }
+            }
+        }
+
+        /**
+         * Returns the delay before the next poll and grows it.
+         *
+         * @return the delay in milliseconds
+         */
+        private long nextDelay() {
+            final long current = delay;
+            delay = Math.min(maxDelay, Math.max(1, (long) (delay * backoffFactor)));
+            return current;
+        }
+
+        /**
+         * Marks the job as no longer watched.
+         *
+         * @return true when this call has ended the watch
+         */
+        private boolean finish() {
+            if (done.compareAndSet(false, true)) {
+                watchedJobs.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Stops watching and aborts the remote job.
+         */
+        private void abort() {
+            if (finish()) {
+                try {
+                    client.setAbortJob(jobId);
+                } catch (ClientUWSException ex) {
+                    Engine.getLogger(AsyncUwsPoller.class.getName()).log(Level.WARNING, "Cannot abort " + jobId, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates daemon threads so that the poller never prevents the JVM from exiting.
+     */
+    private static final class PollerThreadFactory implements ThreadFactory {
+
+        /**
+         * Thread counter.
+         */
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "uws-poller-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -55,7 +55,7 @@ import fr.cnes.sitools.extensions.astro.application.uws.common.Util;
  * @author Jean-Christophe Malapert
  * @version 0.1
  */
-public class ClientUWS {
+public class ClientUWS implements UwsJobClient {
 
     private HashMap<Object, String> jobs = new HashMap<Object, String>();
     private final Reference jobsUWS;
@@ -104,6 +104,7 @@ public class ClientUWS {
      * @exception ClientUWSException
      * @exception IllegalArgumentException
      */
+    @Override
     public String createJob(Form form) throws ClientUWSException {
         if (!Util.isSet(form)) {
             throw new IllegalArgumentException("Process: form cannot be null");
@@ -357,6 +358,7 @@ public class ClientUWS {
      * @exception ClientUWSException
      * @exception IllegalArgumentException
      */
+    @Override
     public void setAbortJob(String jobId) throws ClientUWSException {
         if (!Util.isSet(jobId)) {
             throw new IllegalArgumentException("setAbortJob: jobId is required");
@@ -382,6 +384,7 @@ public class ClientUWS {
      * @exception ClientUWSException
      * @exception IllegalArgumentException
      */
+    @Override
     public ErrorSummary getJobError(String jobId) throws ClientUWSException {
         if (!Util.isSet(jobId)) {
             throw new IllegalArgumentException("GetJobError: jobId is required");
@@ -452,6 +455,7 @@ public class ClientUWS {
      * @exception ClientUWSException
      * @exception IllegalArgumentException
      */
+    @Override
     public Results getJobResults(String jobId) throws ClientUWSException {
         if (!Util.isSet(jobId)) {
             throw new IllegalArgumentException("GetJobResults: jobId is required");
@@ -550,6 +554,7 @@ public class ClientUWS {
      * @exception ClientUWSException
      * @exception IllegalArgumentException
      */
+    @Override
     public ExecutionPhase getJobPhase(String jobId) throws ClientUWSException {
         if (!Util.isSet(jobId)) {
             throw new IllegalArgumentException("GetJobPhase: jobId is required");
@@ -0,0 +1,84 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application.uws.client;
+
+import net.ivoa.xml.uws.v1.ErrorSummary;
+import net.ivoa.xml.uws.v1.ExecutionPhase;
+import net.ivoa.xml.uws.v1.Results;
+
+import org.restlet.data.Form;
+
+/**
+ * Minimal set of operations needed to drive a job on a remote UWS service.
+ * <p>
+ * This interface decouples the job tasks from the HTTP client so that the
+ * remote service can be replaced by another implementation (a local stand-in
+ * for instance) without changing the job task.
+ * </p>
+ *
+ * @see ClientUWS
+ * @see AsyncUwsPoller
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public interface UwsJobClient {
+
+    /**
+     * Creates a new job on the remote service.
+     *
+     * @param form parameters to send
+     * @return the job identifier
+     * @throws ClientUWSException when the job cannot be created
+     */
+    String createJob(final Form form) throws ClientUWSException;
+
+    /**
+     * Returns the phase of a remote job.
+     *
+     * @param jobId job identifier
+     * @return the phase
+     * @throws ClientUWSException when the phase cannot be retrieved
+     */
+    ExecutionPhase getJobPhase(final String jobId) throws ClientUWSException;
+
+    /**
+     * Returns the results of a remote job.
+     *
+     * @param jobId job identifier
+     * @return the results
+     * @throws ClientUWSException when the results cannot be retrieved
+     */
+    Results getJobResults(final String jobId) throws ClientUWSException;
+
+    /**
+     * Returns the error of a remote job.
+     *
+     * @param jobId job identifier
+     * @return the error summary
+     * @throws ClientUWSException when the error cannot be retrieved
+     */
+    ErrorSummary getJobError(final String jobId) throws ClientUWSException;
+
+    /**
+     * Aborts a remote job.
+     *
+     * @param jobId job identifier
+     * @throws ClientUWSException when the job cannot be aborted
+     */
+    void setAbortJob(final String jobId) throws ClientUWSException;
+}
@@ -0,0 +1,58 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application.uws.client;
+
+import net.ivoa.xml.uws.v1.ExecutionPhase;
+
+/**
+ * Callback notified by {@link AsyncUwsPoller} when a remote job ends.
+ * <p>
+ * Callbacks are invoked from the poller threads and must return quickly.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public interface UwsJobListener {
+
+    /**
+     * Returns true when the local job has been cancelled.
+     * <p>
+     * When true, the poller stops watching and aborts the remote job.
+     * </p>
+     *
+     * @return true when the local job has been cancelled
+     */
+    boolean isCancelled();
+
+    /**
+     * Called once when the remote job reaches a final phase.
+     *
+     * @param jobId remote job identifier
+     * @param phase final phase (COMPLETED, ERROR, ABORTED, ...)
+     */
+    void onFinished(final String jobId, final ExecutionPhase phase);
+
+    /**
+     * Called once when the remote job cannot be polled anymore.
+     *
+     * @param jobId remote job identifier
+     * @param error last error returned by the client
+     */
+    void onError(final String jobId, final ClientUWSException error);
+}
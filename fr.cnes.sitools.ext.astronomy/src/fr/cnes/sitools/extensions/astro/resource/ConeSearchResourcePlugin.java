@@ -34,6 +34,7 @@ import fr.cnes.sitools.plugins.resources.model.DataSetSelectionType;
 import fr.cnes.sitools.plugins.resources.model.ResourceModel;
 import fr.cnes.sitools.plugins.resources.model.ResourceParameter;
 import fr.cnes.sitools.plugins.resources.model.ResourceParameterType;
+import fr.cnes.sitools.searchgeometryengine.HealpixRangeFilter;
 import fr.cnes.sitools.util.Util;
 
 /**
@@ -135,6 +136,15 @@ public class ConeSearchResourcePlugin extends ResourceModel {
         zpos.setValueType("xs:dataset.columnAlias");
         addParam(zpos);
 
+        final ResourceParameter healpix = new ResourceParameter(ConeSearchProtocolLibrary.HEALPIX,
+                "NESTED Healpix index of the source point (optional), used to pre-filter the rows", ResourceParameterType.PARAMETER_INTERN);
+        healpix.setValueType("xs:dataset.columnAlias");
+        addParam(healpix);
+
+        final ResourceParameter healpixOrder = new ResourceParameter(ConeSearchProtocolLibrary.HEALPIX_ORDER,
+                "Healpix order of the index column", ResourceParameterType.PARAMETER_INTERN);
+        addParam(healpixOrder);
+
         final ResourceParameter responsibleParty = new ResourceParameter(ConeSearchProtocolLibrary.RESPONSIBLE_PARTY,
                 "The data provider's name and email", ResourceParameterType.PARAMETER_INTERN);
         addParam(responsibleParty);
@@ -181,6 +191,11 @@ public class ConeSearchResourcePlugin extends ResourceModel {
         maxRecords.setValue("-1");
         addParam(maxRecords);
 
+        final ResourceParameter cursorPageSize = new ResourceParameter(ConeSearchProtocolLibrary.CURSOR_PAGE_SIZE,
+                "Number of rows read by query when the response is streamed by pages sorted by the primary key (optional). "
+                + "The response then gives a CURSOR token to get the records after max records", ResourceParameterType.PARAMETER_INTERN);
+        addParam(cursorPageSize);
+
         final ResourceParameter verbosity = new ResourceParameter(ConeSearchProtocolLibrary.VERBOSITY,
                 "True or false, depending on whether the service supports the VERB keyword in the request",
                 ResourceParameterType.PARAMETER_INTERN);
@@ -266,6 +281,19 @@ public class ConeSearchResourcePlugin extends ResourceModel {
                     constraintList.add(constraint);
                 }
 
+                final ResourceParameter healpixCol = params.get(ConeSearchProtocolLibrary.HEALPIX);
+                if (healpixCol != null && Util.isNotEmpty(healpixCol.getValue())) {
+                    final ResourceParameter healpixOrder = params.get(ConeSearchProtocolLibrary.HEALPIX_ORDER);
+                    if (healpixOrder == null || !isHealpixOrder(healpixOrder.getValue())) {
+                        final ConstraintViolation constraint = new ConstraintViolation();
+                        constraint.setLevel(ConstraintViolationLevel.CRITICAL);
+                        constraint.setMessage("The Healpix order of the index column must be an integer between 0 and "
+                                + HealpixRangeFilter.MAX_ORDER);
+                        constraint.setValueName(ConeSearchProtocolLibrary.HEALPIX_ORDER);
+                        constraintList.add(constraint);
+                    }
+                }
+
                 final ResourceParameter maxRecords = params.get(ConeSearchProtocolLibrary.MAX_RECORDS);
                 if (!Util.isNotEmpty(maxRecords.getValue())) {
                     final ConstraintViolation constraint = new ConstraintViolation();
@@ -275,8 +303,49 @@ public class ConeSearchResourcePlugin extends ResourceModel {
                     constraintList.add(constraint);
                 }
 
+                final ResourceParameter cursorPageSize = params.get(ConeSearchProtocolLibrary.CURSOR_PAGE_SIZE);
+                if (cursorPageSize != null && Util.isNotEmpty(cursorPageSize.getValue()) && !isPositiveInteger(cursorPageSize.getValue())) {
+                    final ConstraintViolation constraint = new ConstraintViolation();
+                    constraint.setLevel(ConstraintViolationLevel.CRITICAL);
+                    constraint.setMessage("The number of rows by query must be a positive integer");
+                    constraint.setValueName(ConeSearchProtocolLibrary.CURSOR_PAGE_SIZE);
+                    constraintList.add(constraint);
+                }
+
                 return constraintList;
             }
         };
     }
+
+    /**
+     * Returns true when the value is a valid Healpix order.
+     *
+     * @param value value to check
+     * @return true when the value is an integer between 0 and HealpixRangeFilter.MAX_ORDER
+     */
+    private static boolean isHealpixOrder(final String value) {
+        if (!Util.isNotEmpty(value)) {
+            return false;
+        }
+        try {
+            final int order = Integer.parseInt(value.trim());
+            return order >= 0 && order <= HealpixRangeFilter.MAX_ORDER;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true when the value is a positive integer.
+     *
+     * @param value value to check
+     * @return true when the value is an integer greater than 0
+     */
+    private static boolean isPositiveInteger(final String value) {
+        try {
+            return Integer.parseInt(value.trim()) > 0;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,272 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.resource;
+
+import healpix.essentials.RangeSet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Properties;
+
+import cds.moc.HealpixMoc;
+import fr.cnes.sitools.astro.representation.MocStreamWriter;
+import fr.cnes.sitools.searchgeometryengine.MocRanges;
+
+/**
+ * Footprint of a dataset, persisted as a FITS MOC in a cache directory.
+ *
+ * <p>
+ * The footprint is kept as ranges at the deepest order (see {@link MocRanges})
+ * with the high-water mark of the rows it covers: the rows whose mark is
+ * greater are the rows added since the last build. The MOC is saved in
+ * {@link #MOC_FILENAME} and its state in {@link #STATE_FILENAME}. A footprint is
+ * immutable, an update creates a new one with {@link FootprintBuilder}.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class DatasetFootprint {
+
+    /**
+     * FITS MOC of the footprint.
+     */
+    public static final String MOC_FILENAME = "Moc.fits";
+    /**
+     * State of the footprint.
+     */
+    public static final String STATE_FILENAME = "Moc.properties";
+    /**
+     * Coordinate system of the footprint.
+     */
+    private static final String COORDSYS = "C";
+    /**
+     * Key of the order in the state file.
+     */
+    private static final String ORDER_KEY = "order";
+    /**
+     * Key of the number of rows in the state file.
+     */
+    private static final String NB_ROWS_KEY = "nbRows";
+    /**
+     * Key of the high-water mark in the state file.
+     */
+    private static final String HIGH_WATER_MARK_KEY = "highWaterMark";
+    /**
+     * Number of pixels of the sky at the deepest order.
+     */
+    private static final double NB_SKY_PIXELS = 12.0 * Math.pow(4, MocRanges.MAX_ORDER);
+    /**
+     * Healpix order of the footprint.
+     */
+    private final int order;
+    /**
+     * Ranges of the footprint at the deepest order.
+     */
+    private final RangeSet ranges;
+    /**
+     * Greatest mark of the rows of the footprint, null when unknown.
+     */
+    private final BigDecimal highWaterMark;
+    /**
+     * Number of rows of the footprint.
+     */
+    private final long nbRows;
+
+    /**
+     * Constructs a footprint.
+     *
+     * @param orderVal Healpix order
+     * @param rangesVal ranges at the deepest order, aligned on the cells at <code>orderVal</code>
+     * @param highWaterMarkVal greatest mark of the rows, null when unknown
+     * @param nbRowsVal number of rows
+     */
+    public DatasetFootprint(final int orderVal, final RangeSet rangesVal, final BigDecimal highWaterMarkVal, final long nbRowsVal) {
+        this.order = orderVal;
+        this.ranges = rangesVal;
+        this.highWaterMark = highWaterMarkVal;
+        this.nbRows = nbRowsVal;
+    }
+
+    /**
+     * Returns the Healpix order.
+     *
+     * @return the order
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * Returns the ranges at the deepest order.
+     *
+     * @return the ranges, which must not be modified
+     */
+    public RangeSet getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Returns the greatest mark of the rows.
+     *
+     * @return the high-water mark, null when unknown
+     */
+    public BigDecimal getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows
+     */
+    public long getNbRows() {
+        return nbRows;
+    }
+
+    /**
+     * Returns the sky fraction covered by the footprint.
+     *
+     * @return the coverage from 0 to 1
+     */
+    public double getCoverage() {
+        return ranges.nval() / NB_SKY_PIXELS;
+    }
+
+    /**
+     * Returns the angular size of the cells at the order of the footprint.
+     *
+     * @return the resolution in degrees
+     */
+    public double getAngularResolution() {
+        return Math.toDegrees(Math.sqrt(4 * Math.PI / (12.0 * Math.pow(4, order))));
+    }
+
+    /**
+     * Returns the cells of the footprint to stream it.
+     *
+     * @return the cells
+     */
+    public MocStreamWriter.CellSource getCells() {
+        return MocStreamWriter.fromRanges(ranges, order, COORDSYS);
+    }
+
+    /**
+     * Saves the footprint in a directory.
+     *
+     * <p>
+     * The files are written under temporary names and then renamed, a reader
+     * never sees a partially written MOC. The MOC is renamed first: if the
+     * state is not renamed, the next update adds again rows that are already in
+     * the MOC, which does not change it.
+     * </p>
+     *
+     * @param directory cache directory
+     * @throws IOException if an error occurs while writing
+     */
+    public void save(final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        final File mocFile = new File(directory, MOC_FILENAME + ".tmp");
+        OutputStream out = new FileOutputStream(mocFile);
+        try {
+            MocStreamWriter.writeFits(getCells(), out, false);
+        } finally {
+            out.close();
+        }
+        final Properties state = new Properties();
+        state.setProperty(ORDER_KEY, String.valueOf(order));
+        state.setProperty(NB_ROWS_KEY, String.valueOf(nbRows));
+        if (highWaterMark != null) {
+            state.setProperty(HIGH_WATER_MARK_KEY, highWaterMark.toPlainString());
+        }
+        final File stateFile = new File(directory, STATE_FILENAME + ".tmp");
+        out = new FileOutputStream(stateFile);
+        try {
+            state.store(out, "Dataset footprint");
+        } finally {
+            out.close();
+        }
+        rename(mocFile, new File(directory, MOC_FILENAME));
+        rename(stateFile, new File(directory, STATE_FILENAME));
+    }
+
+    /**
+     * Loads the footprint of a directory.
+     *
+     * @param directory cache directory
+     * @return the footprint or null when there is none
+     * @throws Exception if an error occurs while reading the MOC
+     */
+    public static DatasetFootprint load(final File directory) throws Exception {
+        final File mocFile = new File(directory, MOC_FILENAME);
+        final File stateFile = new File(directory, STATE_FILENAME);
+        if (!mocFile.isFile() || !stateFile.isFile()) {
+            return null;
+        }
+        final Properties state = new Properties();
+        InputStream in = new FileInputStream(stateFile);
+        try {
+            state.load(in);
+        } finally {
+            in.close();
+        }
+        final HealpixMoc moc;
+        in = new BufferedInputStream(new FileInputStream(mocFile));
+        try {
+            moc = new HealpixMoc(in, HealpixMoc.FITS);
+        } finally {
+            in.close();
+        }
+        final String highWaterMark = state.getProperty(HIGH_WATER_MARK_KEY);
+        return new DatasetFootprint(Integer.parseInt(state.getProperty(ORDER_KEY)), MocRanges.fromMoc(moc),
+                (highWaterMark == null) ? null : new BigDecimal(highWaterMark), Long.parseLong(state.getProperty(NB_ROWS_KEY)));
+    }
+
+    /**
+     * Deletes the footprint of a directory.
+     *
+     * @param directory cache directory
+     * @return true when a footprint has been deleted
+     */
+    public static boolean delete(final File directory) {
+        final boolean isMocDeleted = new File(directory, MOC_FILENAME).delete();
+        final boolean isStateDeleted = new File(directory, STATE_FILENAME).delete();
+        return isMocDeleted || isStateDeleted;
+    }
+
+    /**
+     * Renames a file, replacing the target.
+     *
+     * @param source file to rename
+     * @param target new name
+     * @throws IOException if the file cannot be renamed
+     */
+    private static void rename(final File source, final File target) throws IOException {
+        if (!source.renameTo(target) && !(target.delete() && source.renameTo(target))) {
+            throw new IOException("Cannot rename " + source + " to " + target);
+        }
+    }
+}
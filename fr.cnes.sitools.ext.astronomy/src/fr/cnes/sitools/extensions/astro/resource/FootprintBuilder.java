@@ -0,0 +1,361 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.resource;
+
+import healpix.essentials.HealpixProc;
+import healpix.essentials.Pointing;
+import healpix.essentials.RangeSet;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.cnes.sitools.searchgeometryengine.MocRanges;
+
+/**
+ * Builds the footprint of dataset rows in parallel batches.
+ *
+ * <p>
+ * The rows are read by one thread, which calls {@link #add(double, double, BigDecimal)}.
+ * They are grouped in batches whose Healpix pixels are computed by a pool of
+ * threads. The ranges of the batches are merged two by two as a binary counter,
+ * each pixel is then merged a logarithmic number of times, and the number of
+ * batches waiting to be merged is bounded: the memory does not depend on the
+ * number of rows but on the size of the footprint.
+ * </p>
+ *
+ * <p>
+ * When the builder starts from a previous footprint, only the rows added since
+ * the previous build are expected, see {@link DatasetFootprint#getHighWaterMark()}.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class FootprintBuilder {
+
+    /**
+     * Default number of rows of a batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    /**
+     * Default number of threads.
+     */
+    public static final int DEFAULT_NB_THREADS = Runtime.getRuntime().availableProcessors();
+    /**
+     * Number of batches by thread that can wait to be merged.
+     */
+    private static final int PENDING_BATCHES_BY_THREAD = 2;
+    /**
+     * Healpix order of the footprint.
+     */
+    private final int order;
+    /**
+     * Number of rows of a batch.
+     */
+    private final int batchSize;
+    /**
+     * Maximal number of batches waiting to be merged.
+     */
+    private final int maxPendingBatches;
+    /**
+     * Previous footprint, null for a full build.
+     */
+    private final DatasetFootprint previous;
+    /**
+     * Pixel threads.
+     */
+    private final ExecutorService executor;
+    /**
+     * Batches in computation, in submission order.
+     */
+    private final LinkedList<Future<RangeSet>> pendingBatches = new LinkedList<Future<RangeSet>>();
+    /**
+     * Merged ranges: the element i is the union of 2^i batches, or null.
+     */
+    private final List<RangeSet> levels = new ArrayList<RangeSet>();
+    /**
+     * Right ascensions of the current batch.
+     */
+    private double[] rightAscensions;
+    /**
+     * Declinations of the current batch.
+     */
+    private double[] declinations;
+    /**
+     * Number of rows in the current batch.
+     */
+    private int batchLength = 0;
+    /**
+     * Greatest mark of the added rows.
+     */
+    private BigDecimal highWaterMark;
+    /**
+     * Number of added rows.
+     */
+    private long nbRows = 0;
+    /**
+     * Greatest heap used while building, sampled at each batch.
+     */
+    private long peakUsedMemory = 0;
+
+    /**
+     * Constructs a builder.
+     *
+     * @param orderVal Healpix order of the footprint
+     * @param previousVal footprint to update, null for a full build
+     * @param nbThreads number of threads computing the pixels
+     * @param batchSizeVal number of rows of a batch
+     */
+    public FootprintBuilder(final int orderVal, final DatasetFootprint previousVal, final int nbThreads, final int batchSizeVal) {
+        if (orderVal < 0 || orderVal > MocRanges.MAX_ORDER) {
+            throw new IllegalArgumentException("order must be between 0 and " + MocRanges.MAX_ORDER);
+        }
+        if (nbThreads < 1 || batchSizeVal < 1) {
+            throw new IllegalArgumentException("nbThreads and batchSize must be positive");
+        }
+        if (previousVal != null && previousVal.getOrder() != orderVal) {
+            throw new IllegalArgumentException("The previous footprint has the order " + previousVal.getOrder());
+        }
+        this.order = orderVal;
+        this.previous = previousVal;
+        this.batchSize = batchSizeVal;
+        this.maxPendingBatches = PENDING_BATCHES_BY_THREAD * nbThreads;
+        this.highWaterMark = (previousVal == null) ? null : previousVal.getHighWaterMark();
+        this.executor = Executors.newFixedThreadPool(nbThreads, new FootprintThreadFactory());
+        newBatch();
+    }
+
+    /**
+     * Adds a row.
+     *
+     * @param rightAscension right ascension in decimal degrees
+     * @param declination declination in decimal degrees
+     * @param mark mark of the row, null when the rows have no mark
+     * @throws Exception if the pixels of a previous batch cannot be computed
+     */
+    public void add(final double rightAscension, final double declination, final BigDecimal mark) throws Exception {
+        rightAscensions[batchLength] = rightAscension;
+        declinations[batchLength] = declination;
+        batchLength++;
+        nbRows++;
+        if (mark != null && (highWaterMark == null || mark.compareTo(highWaterMark) > 0)) {
+            highWaterMark = mark;
+        }
+        if (batchLength == batchSize) {
+            submitBatch();
+        }
+    }
+
+    /**
+     * Returns the number of added rows.
+     *
+     * @return the number of rows
+     */
+    public long getNbRows() {
+        return nbRows;
+    }
+
+    /**
+     * Returns the greatest heap used while building.
+     *
+     * @return the peak of used memory in bytes
+     */
+    public long getPeakUsedMemory() {
+        return peakUsedMemory;
+    }
+
+    /**
+     * Waits for the batches and returns the footprint, which includes the previous one.
+     *
+     * <p>The builder cannot be used afterwards.</p>
+     *
+     * @return the footprint
+     * @throws Exception if the pixels of a batch cannot be computed
+     */
+    public DatasetFootprint build() throws Exception {
+        try {
+            if (batchLength > 0) {
+                submitBatch();
+            }
+            while (!pendingBatches.isEmpty()) {
+                merge(pendingBatches.removeFirst());
+            }
+            RangeSet ranges = (previous == null) ? new RangeSet(1) : previous.getRanges();
+            for (RangeSet level : levels) {
+                if (level != null) {
+                    ranges = ranges.union(level);
+                }
+            }
+            sampleMemory();
+            final long totalRows = (previous == null) ? nbRows : previous.getNbRows() + nbRows;
+            return new DatasetFootprint(order, ranges, highWaterMark, totalRows);
+        } finally {
+            cancel();
+        }
+    }
+
+    /**
+     * Stops the threads without building the footprint.
+     */
+    public void cancel() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Submits the current batch and merges the oldest batches when too many are waiting.
+     *
+     * @throws Exception if the pixels of a batch cannot be computed
+     */
+    private void submitBatch() throws Exception {
+        pendingBatches.addLast(executor.submit(new PixelTask(order, rightAscensions, declinations, batchLength)));
+        newBatch();
+        while (pendingBatches.size() > maxPendingBatches) {
+            merge(pendingBatches.removeFirst());
+        }
+        sampleMemory();
+    }
+
+    /**
+     * Allocates the arrays of a new batch, the previous ones belong to their task.
+     */
+    private void newBatch() {
+        rightAscensions = new double[batchSize];
+        declinations = new double[batchSize];
+        batchLength = 0;
+    }
+
+    /**
+     * Merges the ranges of a batch as a binary counter.
+     *
+     * @param batch batch
+     * @throws Exception if the pixels of the batch cannot be computed
+     */
+    private void merge(final Future<RangeSet> batch) throws Exception {
+        RangeSet carry;
+        try {
+            carry = batch.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+        int level = 0;
+        while (level < levels.size() && levels.get(level) != null) {
+            carry = carry.union(levels.get(level));
+            levels.set(level, null);
+            level++;
+        }
+        if (level == levels.size()) {
+            levels.add(carry);
+        } else {
+            levels.set(level, carry);
+        }
+    }
+
+    /**
+     * Samples the used heap.
+     */
+    private void sampleMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        peakUsedMemory = Math.max(peakUsedMemory, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Computes the ranges of the pixels of a batch.
+     */
+    private static final class PixelTask implements Callable<RangeSet> {
+
+        /**
+         * Healpix order.
+         */
+        private final int order;
+        /**
+         * Right ascensions in decimal degrees.
+         */
+        private final double[] rightAscensions;
+        /**
+         * Declinations in decimal degrees.
+         */
+        private final double[] declinations;
+        /**
+         * Number of rows.
+         */
+        private final int length;
+
+        /**
+         * Constructs a task.
+         *
+         * @param orderVal Healpix order
+         * @param rightAscensionsVal right ascensions
+         * @param declinationsVal declinations
+         * @param lengthVal number of rows
+         */
+        private PixelTask(final int orderVal, final double[] rightAscensionsVal, final double[] declinationsVal, final int lengthVal) {
+            this.order = orderVal;
+            this.rightAscensions = rightAscensionsVal;
+            this.declinations = declinationsVal;
+            this.length = lengthVal;
+        }
+
+        @Override
+        public RangeSet call() throws Exception {
+            final long[] pixels = new long[length];
+            for (int i = 0; i < length; i++) {
+                final Pointing pointing = new Pointing(Math.PI / 2 - Math.toRadians(declinations[i]), Math.toRadians(rightAscensions[i]));
+                pixels[i] = HealpixProc.ang2pixNest(order, pointing);
+            }
+            Arrays.sort(pixels);
+            final int shift = 2 * (MocRanges.MAX_ORDER - order);
+            final RangeSet ranges = new RangeSet(2 * length);
+            for (long pixel : pixels) {
+                ranges.append(pixel << shift, (pixel + 1) << shift);
+            }
+            ranges.trimSize();
+            return ranges;
+        }
+    }
+
+    /**
+     * Creates daemon threads, a build is never waited at shutdown.
+     */
+    private static final class FootprintThreadFactory implements ThreadFactory {
+
+        /**
+         * Thread counter.
+         */
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "footprint-builder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -20,8 +20,12 @@ package fr.cnes.sitools.extensions.astro.resource;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +42,7 @@ import org.restlet.resource.Put;
 import org.restlet.resource.ResourceException;
 
 import cds.moc.HealpixMoc;
+import fr.cnes.sitools.astro.representation.MocStreamRepresentation;
 import fr.cnes.sitools.common.exception.SitoolsException;
 import fr.cnes.sitools.common.resource.SitoolsParameterizedResource;
 import fr.cnes.sitools.dataset.DataSetApplication;
@@ -47,13 +52,26 @@ import fr.cnes.sitools.dataset.database.DatabaseRequestFactory;
 import fr.cnes.sitools.dataset.database.DatabaseRequestParameters;
 import fr.cnes.sitools.dataset.database.common.DataSetExplorerUtil;
 import fr.cnes.sitools.dataset.model.Column;
+import fr.cnes.sitools.dataset.model.Predicat;
 import fr.cnes.sitools.datasource.jdbc.model.AttributeValue;
 import fr.cnes.sitools.datasource.jdbc.model.Record;
 import fr.cnes.sitools.extensions.common.Utility;
+import fr.cnes.sitools.plugins.resources.model.ResourceModel;
+import fr.cnes.sitools.plugins.resources.model.ResourceParameter;
+import fr.cnes.sitools.util.Util;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.node.ObjectNode;
 
 /**
+ * Builds, updates and returns the footprint of a dataset.
+ *
+ * <p>
+ * The footprint is a MOC of the rows, computed in parallel batches by
+ * {@link FootprintBuilder} and saved in the cache directory by
+ * {@link DatasetFootprint}. When a high-water mark column is configured, a
+ * PUT only reads the rows added since the last build, unless the query
+ * parameter <code>rebuild=true</code> is given.
+ * </p>
  *
  * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
  */
@@ -63,10 +81,21 @@ public class FootprintResource extends SitoolsParameterizedResource {
      * Logger.
      */
     private static final Logger LOG = Engine.getLogger(FootprintResource.class.getName());
+    /**
+     * Cache directories of the footprints being built.
+     */
+    private static final Set<String> BUILDING = Collections.synchronizedSet(new HashSet<String>());
     private transient String featureType;
     private transient String search;
     private transient File directory;
+    /**
+     * Footprint of the previous versions, in JSON.
+     */
     private static final String FILENAME = "Moc.txt";
+    /**
+     * Query parameter forcing a full build.
+     */
+    private static final String REBUILD_PARAMETER = "rebuild";
     /**
      * Initialize.
      */
@@ -86,14 +115,20 @@ public class FootprintResource extends SitoolsParameterizedResource {
     @Get
     public final Representation getFootprintResponse() {
         try {
-            final HealpixMoc moc = new HealpixMoc(new FileInputStream(directory + File.separator + FILENAME), HealpixMoc.ASCII);
+            final DatasetFootprint footprint = DatasetFootprint.load(directory);
+            if (footprint == null) {
+                return getLegacyFootprintResponse();
+            }
             if (this.featureType.isEmpty()) {
-                return new FileRepresentation(directory + File.separator + FILENAME, MediaType.APPLICATION_JSON);
-            } else if (this.featureType.equals("coverage")) {                
-                JsonNode rootNode = Utility.mapper.createObjectNode();                
-                ((ObjectNode) rootNode).put("moc_coverage", pourcent(moc.getCoverage()));
-                ((ObjectNode) rootNode).put("moc_resolution", (int) (moc.getAngularRes() * 6000) / 100. + " arcmin");
-                return JSONRepresentation(rootNode.getValueAsText());
+                return new MocStreamRepresentation(footprint.getCells(), MocStreamRepresentation.Format.JSON, false);
+            } else if (this.featureType.equals("fits")) {
+                return new FileRepresentation(new File(directory, DatasetFootprint.MOC_FILENAME), MediaType.valueOf("image/fits"));
+            } else if (this.featureType.equals("coverage")) {
+                JsonNode rootNode = Utility.mapper.createObjectNode();
+                ((ObjectNode) rootNode).put("moc_coverage", pourcent(footprint.getCoverage()));
+                ((ObjectNode) rootNode).put("moc_resolution", (int) (footprint.getAngularResolution() * 6000) / 100. + " arcmin");
+                ((ObjectNode) rootNode).put("nb_rows", footprint.getNbRows());
+                return JSONRepresentation(rootNode.toString());
             } else if (this.featureType.equals("intersect")) {
                 // TO DO : search with query disc and box
                 return new EmptyRepresentation();
@@ -105,10 +140,86 @@ public class FootprintResource extends SitoolsParameterizedResource {
     }
 
     /**
-     * Creates a cache.
+     * Returns the footprint saved in JSON by the previous versions.
+     *
+     * @return the representation
+     * @throws Exception if the footprint cannot be read
+     */
+    private Representation getLegacyFootprintResponse() throws Exception {
+        final HealpixMoc moc = new HealpixMoc(new FileInputStream(directory + File.separator + FILENAME), HealpixMoc.ASCII);
+        if (this.featureType.isEmpty()) {
+            return new FileRepresentation(directory + File.separator + FILENAME, MediaType.APPLICATION_JSON);
+        } else if (this.featureType.equals("coverage")) {
+            JsonNode rootNode = Utility.mapper.createObjectNode();
+            ((ObjectNode) rootNode).put("moc_coverage", pourcent(moc.getCoverage()));
+            ((ObjectNode) rootNode).put("moc_resolution", (int) (moc.getAngularRes() * 6000) / 100. + " arcmin");
+            return JSONRepresentation(rootNode.getValueAsText());
+        }
+        return new EmptyRepresentation();
+    }
+
+    /**
+     * Builds the footprint, or updates it with the rows added since the last build.
+     *
+     * <p>
+     * The build time, the number of rows and the peak of used memory are
+     * logged and returned in JSON.
+     * </p>
+     *
+     * @return the build report
      */
     @Put
-    public void processCache() {
+    public Representation processCache() {
+        if (!BUILDING.add(directory.getAbsolutePath())) {
+            throw new ResourceException(Status.CLIENT_ERROR_CONFLICT, "The footprint is being built");
+        }
+        try {
+            return buildFootprint();
+        } finally {
+            BUILDING.remove(directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Returns the Healpix order of the footprint.
+     *
+     * <p>
+     * The resources configured before the order parameter existed build the
+     * footprint at the default order.
+     * </p>
+     *
+     * @param model resource model
+     * @return the order
+     */
+    static int getOrder(final ResourceModel model) {
+        final ResourceParameter orderParam = model.getParameterByName(FootprintResourcePlugin.ORDER);
+        return (orderParam == null || Util.isEmpty(orderParam.getValue())) ? FootprintResourcePlugin.DEFAULT_ORDER
+                : Integer.parseInt(orderParam.getValue().trim());
+    }
+
+    /**
+     * Returns the high-water mark column of the footprint.
+     *
+     * <p>
+     * The resources configured before the high-water mark parameter existed
+     * have no mark: the footprint is rebuilt from all the rows.
+     * </p>
+     *
+     * @param model resource model
+     * @return the column or null when the footprint is always rebuilt
+     */
+    static String getHighWaterMark(final ResourceModel model) {
+        final ResourceParameter markParam = model.getParameterByName(FootprintResourcePlugin.HIGH_WATER_MARK);
+        return (markParam == null || Util.isEmpty(markParam.getValue())) ? null : markParam.getValue().trim();
+    }
+
+    /**
+     * Builds the footprint.
+     *
+     * @return the build report
+     */
+    private Representation buildFootprint() {
+        final long start = System.currentTimeMillis();
         // Get the datasetApplication
         final DataSetApplication datasetApp = (DataSetApplication) getApplication();
 
@@ -119,16 +230,45 @@ public class FootprintResource extends SitoolsParameterizedResource {
         final DataSetExplorerUtil dsExplorerUtil = new DataSetExplorerUtil((DataSetApplication) getApplication(), getRequest(),
                 getContext());
 
+        final String raCol = this.getModel().getParameterByName("RA").getValue();
+        final String decCol = this.getModel().getParameterByName("DEC").getValue();
+        final int order = getOrder(this.getModel());
+        final String markCol = getHighWaterMark(this.getModel());
+        final boolean hasMark = markCol != null;
+
+        // the previous footprint is updated when it has a high-water mark and the same order
+        DatasetFootprint previous = null;
+        if (hasMark && !Boolean.parseBoolean(getRequest().getResourceRef().getQueryAsForm().getFirstValue(REBUILD_PARAMETER))) {
+            try {
+                previous = DatasetFootprint.load(directory);
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "The footprint cannot be read, it is rebuilt", ex);
+            }
+            if (previous != null && (previous.getOrder() != order || previous.getHighWaterMark() == null)) {
+                previous = null;
+            }
+        }
+
         // Get query parameters and build the request
         final DatabaseRequestParameters dbParams = dsExplorerUtil.getDatabaseParams();
         dbParams.setPaginationExtend(datasetApp.getDataSet().getNbRecords());
-        final String raCol = this.getModel().getParameterByName("RA").getValue();
-        final String decCol = this.getModel().getParameterByName("DEC").getValue();
-        final List<Column> columnsToQuery = getColumnsFromName(datasetApp, new String[]{raCol, decCol});
-        columnsToQuery.addAll(getPrimaryKeys(datasetApp));
+        final List<Column> columnsToQuery = getColumnsFromName(datasetApp, hasMark ? new String[]{raCol, decCol, markCol} : new String[]{raCol, decCol});
         dbParams.setSqlVisibleColumns(columnsToQuery);
+        if (previous != null) {
+            final Column markColumn = getColumnsFromName(datasetApp, new String[]{markCol}).get(0);
+            final Predicat predicat = new Predicat();
+            predicat.setStringDefinition(String.format(" AND %s.%s > %s", markColumn.getTableName(), markColumn.getDataIndex(),
+                    previous.getHighWaterMark().toPlainString()));
+            final List<Predicat> predicatList = dbParams.getPredicats();
+            predicatList.add(predicat);
+            dbParams.setPredicats(predicatList);
+        }
         final DatabaseRequest databaseRequest = DatabaseRequestFactory.getDatabaseRequest(dbParams);
 
+        final FootprintBuilder builder = new FootprintBuilder(order, previous, FootprintBuilder.DEFAULT_NB_THREADS,
+                FootprintBuilder.DEFAULT_BATCH_SIZE);
+        long nbRejectedRows = 0;
+        final DatasetFootprint footprint;
         try {
             if (dbParams.getDistinct()) {
                 databaseRequest.createDistinctRequest();
@@ -137,13 +277,25 @@ public class FootprintResource extends SitoolsParameterizedResource {
             }
 
             while (databaseRequest.nextResult()) {
-                final Record record = databaseRequest.getRecord();
-                String rightAscension = String.valueOf(getValueFromKey(record, raCol));
-                String declination = String.valueOf(getValueFromKey(record, decCol));
+                Record record = databaseRequest.getRecord();
+                if (Util.isSet(converterChained)) {
+                    record = converterChained.getConversionOf(record);
+                }
+                final Double rightAscension = toDouble(getValueFromKey(record, raCol));
+                final Double declination = toDouble(getValueFromKey(record, decCol));
+                if (rightAscension == null || declination == null) {
+                    nbRejectedRows++;
+                    continue;
+                }
+                final Object mark = hasMark ? getValueFromKey(record, markCol) : null;
+                builder.add(rightAscension, declination, (mark == null) ? null : new BigDecimal(String.valueOf(mark)));
             }
-
-        } catch (SitoolsException ex) {
-            LOG.log(Level.FINER, null, ex);
+            footprint = builder.build();
+            footprint.save(directory);
+        } catch (Exception ex) {
+            builder.cancel();
+            LOG.log(Level.SEVERE, null, ex);
+            throw new ResourceException(Status.SERVER_ERROR_INTERNAL, ex);
         } finally {
             try {
                 databaseRequest.close();
@@ -151,6 +303,22 @@ public class FootprintResource extends SitoolsParameterizedResource {
                 LOG.log(Level.FINER, null, ex);
             }
         }
+
+        final long buildTime = System.currentTimeMillis() - start;
+        LOG.log(Level.INFO, "Footprint of {0} rows built in {1} ms ({2} new rows, peak of used memory: {3} bytes)",
+                new Object[]{footprint.getNbRows(), buildTime, builder.getNbRows(), builder.getPeakUsedMemory()});
+        final JsonNode rootNode = Utility.mapper.createObjectNode();
+        ((ObjectNode) rootNode).put("incremental", previous != null);
+        ((ObjectNode) rootNode).put("nb_rows", footprint.getNbRows());
+        ((ObjectNode) rootNode).put("nb_new_rows", builder.getNbRows());
+        ((ObjectNode) rootNode).put("nb_rejected_rows", nbRejectedRows);
+        ((ObjectNode) rootNode).put("build_time_ms", buildTime);
+        ((ObjectNode) rootNode).put("peak_used_memory_bytes", builder.getPeakUsedMemory());
+        ((ObjectNode) rootNode).put("moc_coverage", pourcent(footprint.getCoverage()));
+        if (footprint.getHighWaterMark() != null) {
+            ((ObjectNode) rootNode).put("high_water_mark", footprint.getHighWaterMark().toPlainString());
+        }
+        return JSONRepresentation(rootNode.toString());
     }
 
     /**
@@ -158,12 +326,30 @@ public class FootprintResource extends SitoolsParameterizedResource {
      */
     @Delete
     public void deleteCache() {
+        DatasetFootprint.delete(directory);
     }
 
     private String pourcent(double d) {
         return (int) (1000 * d) / 100. + "%";
     }
 
+    /**
+     * Converts a coordinate of a record.
+     *
+     * @param value value of the record
+     * @return the coordinate in decimal degrees or null when it is not a number
+     */
+    private Double toDouble(final Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return (value == null) ? null : Double.valueOf(String.valueOf(value));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
     /**
      * Gets columns from a list of column name.
      *
@@ -184,17 +370,6 @@ public class FootprintResource extends SitoolsParameterizedResource {
         return columnsKey;
     }
 
-    private List<Column> getPrimaryKeys(final DataSetApplication datasetApp) {
-        final List<Column> columnsKey = new ArrayList<Column>();
-        final List<Column> columns = datasetApp.getDataSet().getColumnModel();
-        for (Column columnIter : columns) {
-            if (columnIter.isPrimaryKey()) {
-                columnsKey.add(columnIter);
-            }
-        }
-        return columnsKey;
-    }
-
     private Object getValueFromKey(final Record record, final String key) {
         Object value = null;
         final List<AttributeValue> attributes = record.getAttributeValues();
@@ -31,6 +31,12 @@ import fr.cnes.sitools.plugins.resources.model.ResourceParameterType;
 /**
  * Provides some footprint capabilities.
  *
+ * <p>
+ * A PUT builds the footprint of the dataset as a MOC in the cache directory,
+ * or updates it with the rows whose high-water mark column is greater than
+ * the last build. A GET returns it and a DELETE removes it.
+ * </p>
+ *
  * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
  */
 public class FootprintResourcePlugin extends ResourceModel {
@@ -39,6 +45,18 @@ public class FootprintResourcePlugin extends ResourceModel {
      * Logger.
      */
     private static final Logger LOG = Engine.getLogger(FootprintResourcePlugin.class.getName());
+    /**
+     * Parameter of the Healpix order of the footprint.
+     */
+    public static final String ORDER = "Order";
+    /**
+     * Default Healpix order of the footprint.
+     */
+    public static final int DEFAULT_ORDER = 10;
+    /**
+     * Parameter of the column whose values increase with the added rows.
+     */
+    public static final String HIGH_WATER_MARK = "HighWaterMark";
 
     /**
      * Constructs the administration panel.
@@ -80,5 +98,17 @@ public class FootprintResourcePlugin extends ResourceModel {
                 "Specify a directory where MOC will be computed and cached", ResourceParameterType.PARAMETER_INTERN);
         cacheDirectory.setValueType("String");
         this.addParam(cacheDirectory);
+
+        final ResourceParameter orderParam = new ResourceParameter(ORDER, "Healpix order of the footprint",
+                ResourceParameterType.PARAMETER_INTERN);
+        orderParam.setValueType("xs:integer");
+        orderParam.setValue(String.valueOf(DEFAULT_ORDER));
+        this.addParam(orderParam);
+
+        final ResourceParameter highWaterMarkParam = new ResourceParameter(HIGH_WATER_MARK,
+                "Numeric column that increases with the added rows (e.g. an identifier), used to update the footprint "
+                + "with the rows added since the last build", ResourceParameterType.PARAMETER_INTERN);
+        highWaterMarkParam.setValueType("xs:dataset.columnAlias");
+        this.addParam(highWaterMarkParam);
     }
 }
@@ -0,0 +1,290 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.resource;
+
+import healpix.essentials.RangeSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.data.Disposition;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Status;
+import org.restlet.engine.Engine;
+import org.restlet.ext.wadl.DocumentationInfo;
+import org.restlet.ext.wadl.MethodInfo;
+import org.restlet.ext.wadl.ParameterInfo;
+import org.restlet.ext.wadl.ParameterStyle;
+import org.restlet.ext.wadl.RepresentationInfo;
+import org.restlet.representation.Representation;
+import org.restlet.representation.Variant;
+import org.restlet.resource.Get;
+import org.restlet.resource.ResourceException;
+
+import cds.moc.HealpixMoc;
+import fr.cnes.sitools.astro.representation.MocStreamRepresentation;
+import fr.cnes.sitools.astro.representation.MocStreamWriter;
+import fr.cnes.sitools.common.resource.SitoolsParameterizedResource;
+import fr.cnes.sitools.searchgeometryengine.MocRanges;
+
+/**
+ * Computes the union, intersection, subtraction or complement of Healpix MOCs.
+ *
+ * <p>
+ * The MOCs are retrieved through {@link MocRetrievalCache} and combined as
+ * ranges with {@link MocRanges}. The cells of the result are never built: they
+ * are computed order by order while the response is streamed.
+ * </p>
+ *
+ * @see MocAlgebraResourcePlugin the MOC algebra plugin.
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class MocAlgebraResource extends SitoolsParameterizedResource {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = Engine.getLogger(MocAlgebraResource.class.getName());
+
+    /**
+     * Operations on the MOCs.
+     */
+    public enum Operation {
+        /**
+         * Cells that are in at least one MOC.
+         */
+        UNION,
+        /**
+         * Cells that are in all the MOCs.
+         */
+        INTERSECTION,
+        /**
+         * Cells of the first MOC that are not in the other ones.
+         */
+        SUBTRACTION,
+        /**
+         * Cells that are in none of the MOCs.
+         */
+        COMPLEMENT
+    }
+    /**
+     * Ranges of the result.
+     */
+    private RangeSet ranges;
+    /**
+     * Order of the result.
+     */
+    private int maxOrder;
+    /**
+     * Coordinate system of the result.
+     */
+    private String coordSys;
+    /**
+     * FITS compressed mode.
+     */
+    private boolean compressed;
+
+    @Override
+    public final void doInit() {
+        super.doInit();
+        MediaType.register("image/fits", "Fits image");
+        getMetadataService().addExtension("fits", MediaType.valueOf("image/fits"));
+        getVariants().add(new Variant(MediaType.valueOf("image/fits")));
+        getVariants().add(new Variant(MediaType.APPLICATION_JSON));
+        getVariants().add(new Variant(MediaType.TEXT_PLAIN));
+        if (getRequest().getMethod().equals(Method.OPTIONS)) {
+            return;
+        }
+        final String mocs = getRequest().getResourceRef().getQueryAsForm().getFirstValue(MocAlgebraResourcePlugin.INPUT_PARAMETER);
+        final String operation = getRequest().getResourceRef().getQueryAsForm().getFirstValue(MocAlgebraResourcePlugin.OPERATION_PARAMETER);
+        final String order = getRequest().getResourceRef().getQueryAsForm().getFirstValue(MocAlgebraResourcePlugin.ORDER_PARAMETER);
+        final String compressedMode = getRequest().getResourceRef().getQueryAsForm().getFirstValue(MocAlgebraResourcePlugin.COMPRESSED_PARAMETER);
+        if (mocs == null || mocs.isEmpty() || operation == null) {
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, MocAlgebraResourcePlugin.INPUT_PARAMETER + " and "
+                    + MocAlgebraResourcePlugin.OPERATION_PARAMETER + " are required");
+        }
+        final Operation mocOperation;
+        final int targetOrder;
+        try {
+            mocOperation = Operation.valueOf(operation.toUpperCase());
+            targetOrder = (order == null) ? MocRanges.MAX_ORDER : Integer.parseInt(order);
+        } catch (IllegalArgumentException ex) {
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, ex.getMessage());
+        }
+        if (targetOrder < 0 || targetOrder > MocRanges.MAX_ORDER) {
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, "order must be between 0 and " + MocRanges.MAX_ORDER);
+        }
+        this.compressed = Boolean.parseBoolean(compressedMode);
+        final List<HealpixMoc> mocList;
+        try {
+            mocList = MocRetrievalCache.getInstance().getMocs(Arrays.asList(mocs.split(";")));
+        } catch (Exception ex) {
+            LOG.log(Level.SEVERE, null, ex);
+            throw new ResourceException(Status.SERVER_ERROR_INTERNAL, ex);
+        }
+        processMocs(mocList, mocOperation, targetOrder);
+    }
+
+    /**
+     * Computes the operation on the MOCs and degrades the result to the target order.
+     *
+     * <p>
+     * The order of the result is the deepest order of the MOCs, or the target
+     * order when it is lower.
+     * </p>
+     *
+     * @param mocList MOCs, which are not modified
+     * @param operation operation
+     * @param targetOrder target order
+     */
+    protected final void processMocs(final List<HealpixMoc> mocList, final Operation operation, final int targetOrder) {
+        final List<RangeSet> rangesList = new ArrayList<RangeSet>(mocList.size());
+        int deepestOrder = 0;
+        for (HealpixMoc moc : mocList) {
+            if (coordSys == null) {
+                coordSys = moc.getCoordSys();
+            } else if (!coordSys.equals(moc.getCoordSys())) {
+                throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, "The MOCs have different coordinate systems");
+            }
+            deepestOrder = Math.max(deepestOrder, moc.getMaxOrder());
+            rangesList.add(MocRanges.fromMoc(moc));
+        }
+        RangeSet result;
+        switch (operation) {
+            case UNION:
+                result = MocRanges.union(rangesList);
+                break;
+            case INTERSECTION:
+                result = MocRanges.intersection(rangesList);
+                break;
+            case SUBTRACTION:
+                result = MocRanges.subtraction(rangesList);
+                break;
+            default:
+                result = MocRanges.complement(MocRanges.union(rangesList));
+                break;
+        }
+        if (targetOrder < deepestOrder) {
+            result = MocRanges.degrade(result, targetOrder);
+        }
+        this.ranges = result;
+        this.maxOrder = Math.min(deepestOrder, targetOrder);
+    }
+
+    /**
+     * Returns the result as a streamed representation.
+     *
+     * @param format output format
+     * @param defaultFileName file name when none is given by the configuration
+     * @return the representation
+     */
+    private Representation getResult(final MocStreamRepresentation.Format format, final String defaultFileName) {
+        final Representation rep = new MocStreamRepresentation(MocStreamWriter.fromRanges(ranges, maxOrder, coordSys), format, compressed);
+        final Disposition disp = new Disposition(Disposition.TYPE_ATTACHMENT);
+        disp.setFilename((fileName != null && !"".equals(fileName)) ? fileName : defaultFileName);
+        rep.setDisposition(disp);
+        return rep;
+    }
+
+    /**
+     * Returns the MOC in FITS.
+     *
+     * @return the MOC in FITS
+     */
+    @Get("fits")
+    public final Representation getFitsResult() {
+        return getResult(MocStreamRepresentation.Format.FITS, "moc.fits");
+    }
+
+    /**
+     * Returns the MOC in JSON.
+     *
+     * @return the MOC in JSON
+     */
+    @Get("json")
+    public final Representation getJsonResult() {
+        return getResult(MocStreamRepresentation.Format.JSON, "moc.json");
+    }
+
+    /**
+     * Returns the MOC in the ASCII format of the MOC library.
+     *
+     * @return the MOC in ASCII
+     */
+    @Get("txt")
+    public final Representation getAsciiResult() {
+        return getResult(MocStreamRepresentation.Format.ASCII, "moc.txt");
+    }
+
+    @Override
+    public final void sitoolsDescribe() {
+        setName("MOC algebra service");
+        setDescription("Returns the union, intersection, subtraction or complement of MOCs.");
+    }
+
+    @Override
+    protected final void describeGet(final MethodInfo info) {
+        this.addInfo(info);
+        info.setIdentifier("mocAlgebra");
+        info.setDocumentation("Combines MOCs.");
+
+        final List<ParameterInfo> parametersInfo = new ArrayList<ParameterInfo>();
+        parametersInfo.add(new ParameterInfo(MocAlgebraResourcePlugin.INPUT_PARAMETER, true, "string", ParameterStyle.QUERY,
+                "list of MOC resources separated by a ;"));
+        parametersInfo.add(new ParameterInfo(MocAlgebraResourcePlugin.OPERATION_PARAMETER, true, "string", ParameterStyle.QUERY,
+                "union, intersection, subtraction of the first MOC by the other ones, or complement of the union"));
+        parametersInfo.add(new ParameterInfo(MocAlgebraResourcePlugin.ORDER_PARAMETER, false, "integer", ParameterStyle.QUERY,
+                "order to which the result is degraded"));
+        parametersInfo.add(new ParameterInfo(MocAlgebraResourcePlugin.COMPRESSED_PARAMETER, false, "boolean", ParameterStyle.QUERY,
+                "true to write the consecutive cells of the FITS as ranges"));
+        info.getRequest().setParameters(parametersInfo);
+
+        info.getResponse().getStatuses().add(Status.SUCCESS_OK);
+        info.getResponse().getStatuses().add(Status.CLIENT_ERROR_BAD_REQUEST);
+
+        final DocumentationInfo documentationFits = new DocumentationInfo();
+        documentationFits.setTitle("MOC in FITS");
+        documentationFits.setTextContent("Returns the resulting MOC as a FITS");
+
+        final DocumentationInfo documentationJson = new DocumentationInfo();
+        documentationJson.setTitle("MOC in JSON");
+        documentationJson.setTextContent("Returns the resulting MOC in JSON");
+
+        final DocumentationInfo documentationTxt = new DocumentationInfo();
+        documentationTxt.setTitle("MOC in ASCII");
+        documentationTxt.setTextContent("Returns the resulting MOC in the ASCII format of the MOC library");
+
+        final List<RepresentationInfo> representationsInfo = new ArrayList<RepresentationInfo>();
+        RepresentationInfo representationInfo = new RepresentationInfo(MediaType.valueOf("image/fits"));
+        representationInfo.setDocumentation(documentationFits);
+        representationsInfo.add(representationInfo);
+        representationInfo = new RepresentationInfo(MediaType.APPLICATION_JSON);
+        representationInfo.setDocumentation(documentationJson);
+        representationsInfo.add(representationInfo);
+        representationInfo = new RepresentationInfo(MediaType.TEXT_PLAIN);
+        representationInfo.setDocumentation(documentationTxt);
+        representationsInfo.add(representationInfo);
+
+        info.getResponse().setRepresentations(representationsInfo);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * *****************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * SITools2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SITools2. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************
+ */
+package fr.cnes.sitools.extensions.astro.resource;
+
+import fr.cnes.sitools.plugins.resources.model.DataSetSelectionType;
+import fr.cnes.sitools.plugins.resources.model.ResourceModel;
+
+/**
+ * Configures the MOC algebra service.
+ *
+ * <p>
+ * This service combines Healpix MOCs given by their URLs with a union, an
+ * intersection, a subtraction or a complement and degrades the result to a
+ * target order. The result is streamed in FITS, JSON or ASCII.
+ * </p>
+ *
+ * <p>
+ * Model of the MOC algebra service. This model provides:
+ * <ul>
+ * <li>metadata that is displayed in the administration panel</li>
+ * <li>the business class that processes the MOCs</li>
+ * <li>the DatasetSelection to None. This means this service is not displayed as
+ * a plugin of a dataset.</li>
+ * </ul>
+ * </p>
+ *
+ * @see MocAlgebraResource the MOC algebra resource.
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class MocAlgebraResourcePlugin extends ResourceModel {
+
+    /**
+     * Name of the service's input parameter to get all MOCs URL.
+     */
+    public static final String INPUT_PARAMETER = "moc";
+    /**
+     * Name of the service's input parameter to get the operation.
+     */
+    public static final String OPERATION_PARAMETER = "operation";
+    /**
+     * Name of the service's input parameter to get the order of the result.
+     */
+    public static final String ORDER_PARAMETER = "order";
+    /**
+     * Name of the service's input parameter to get the FITS compressed mode.
+     */
+    public static final String COMPRESSED_PARAMETER = "compressed";
+
+    /**
+     * Constructs a MOC algebra service.
+     */
+    public MocAlgebraResourcePlugin() {
+        super();
+        setClassAuthor("J-C Malapert");
+        setClassOwner("CNES");
+        setClassVersion("1.0");
+        setName("MOC algebra service");
+        setDescription("Computes the union, intersection, subtraction or complement of Healpix MOCs.");
+
+        //we set to NONE because this is a web service for Virtual Observatory
+        // and we do not want to see it in the web user interface
+        this.setDataSetSelection(DataSetSelectionType.NONE);
+        setResourceClassName(fr.cnes.sitools.extensions.astro.resource.MocAlgebraResource.class.getName());
+
+        this.completeAttachUrlWith("/mocAlgebra");
+    }
+}
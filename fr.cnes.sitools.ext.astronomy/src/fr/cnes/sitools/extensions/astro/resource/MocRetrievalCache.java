@@ -0,0 +1,496 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.resource;
+
+import java.io.BufferedInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
+import org.restlet.engine.Engine;
+import org.restlet.representation.Representation;
+import org.restlet.resource.ClientResource;
+
+import cds.moc.HealpixMoc;
+import fr.cnes.sitools.util.ClientResourceProxy;
+
+/**
+ * Retrieves MOCs by URL, keeps them in memory and computes their intersection.
+ *
+ * <p>
+ * A MOC is downloaded again only when it has been modified: after a freshness
+ * delay, the cached MOC is revalidated with a conditional GET based on its
+ * ETag or its Last-Modified date. The MOCs of a request are retrieved in
+ * parallel.
+ * </p>
+ *
+ * <p>
+ * The intersection starts with the smallest MOC and stops as soon as the
+ * result is empty. It is memoised for a set of URLs and the versions of their
+ * MOCs, so a new version of one of the MOCs gives a new intersection.
+ * </p>
+ *
+ * <p>
+ * The cached MOCs are shared between requests and must not be modified.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class MocRetrievalCache {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = Engine.getLogger(MocRetrievalCache.class.getName());
+    /**
+     * Default number of download threads.
+     */
+    public static final int DEFAULT_NB_THREADS = 8;
+    /**
+     * Default number of MOCs kept in memory.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 64;
+    /**
+     * Default number of intersections kept in memory.
+     */
+    public static final int DEFAULT_INTERSECTION_CACHE_SIZE = 32;
+    /**
+     * Default delay in ms during which a MOC is used without being revalidated.
+     */
+    public static final long DEFAULT_FRESHNESS = 60000L;
+    /**
+     * Size of the FITS buffer.
+     */
+    private static final int FITS_BUFFER = 32 * 1024;
+    /**
+     * Shared cache.
+     */
+    private static MocRetrievalCache instance = null;
+    /**
+     * Download threads.
+     */
+    private final ExecutorService executor;
+    /**
+     * Delay in ms during which a MOC is used without being revalidated.
+     */
+    private final long freshness;
+    /**
+     * MOCs by URL, in LRU order.
+     */
+    private final Map<String, CachedMoc> mocs;
+    /**
+     * Intersections by sorted list of URL and version, in LRU order.
+     */
+    private final Map<List<String>, HealpixMoc> intersections;
+    /**
+     * Version of the last downloaded MOC.
+     */
+    private final AtomicLong lastVersion = new AtomicLong();
+
+    /**
+     * Constructs a cache.
+     *
+     * @param nbThreads number of download threads
+     * @param cacheSize number of MOCs kept in memory
+     * @param intersectionCacheSize number of intersections kept in memory
+     * @param freshnessVal delay in ms during which a MOC is used without being revalidated
+     */
+    public MocRetrievalCache(final int nbThreads, final int cacheSize, final int intersectionCacheSize, final long freshnessVal) {
+        if (nbThreads < 1 || cacheSize < 1 || intersectionCacheSize < 1) {
+            throw new IllegalArgumentException("nbThreads, cacheSize and intersectionCacheSize must be positive");
+        }
+        this.freshness = freshnessVal;
+        this.executor = Executors.newFixedThreadPool(nbThreads, new DownloadThreadFactory());
+        this.mocs = new LinkedHashMap<String, CachedMoc>(cacheSize, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedMoc> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.intersections = new LinkedHashMap<List<String>, HealpixMoc>(intersectionCacheSize, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<List<String>, HealpixMoc> eldest) {
+                return size() > intersectionCacheSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the shared cache.
+     *
+     * @return the shared cache
+     */
+    public static synchronized MocRetrievalCache getInstance() {
+        if (instance == null) {
+            instance = new MocRetrievalCache(DEFAULT_NB_THREADS, DEFAULT_CACHE_SIZE, DEFAULT_INTERSECTION_CACHE_SIZE, DEFAULT_FRESHNESS);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns a MOC, downloading it when it is not in the cache or when it has been modified.
+     *
+     * @param mocUrl MOC's URL
+     * @return the MOC
+     * @throws Exception if an error occurs during the Healpix processing or
+     * when getting the stream
+     */
+    public HealpixMoc getMoc(final String mocUrl) throws Exception {
+        return retrieve(mocUrl).getMoc();
+    }
+
+    /**
+     * Returns MOCs, retrieved in parallel.
+     *
+     * <p>The MOCs are shared by the cache and must not be modified.</p>
+     *
+     * @param mocUrls MOC's URLs
+     * @return the MOCs, in the order of the URLs
+     * @throws Exception if an error occurs during the Healpix processing or
+     * when getting a stream
+     */
+    public List<HealpixMoc> getMocs(final List<String> mocUrls) throws Exception {
+        final List<CachedMoc> cachedMocs = retrieveAll(mocUrls);
+        final List<HealpixMoc> mocList = new ArrayList<HealpixMoc>(cachedMocs.size());
+        for (CachedMoc cachedMoc : cachedMocs) {
+            mocList.add(cachedMoc.getMoc());
+        }
+        return mocList;
+    }
+
+    /**
+     * Returns the intersection of MOCs.
+     *
+     * @param mocUrls MOC's URLs
+     * @return the intersection
+     * @throws Exception if an error occurs during the Healpix processing or
+     * when getting a stream
+     */
+    public HealpixMoc intersection(final Collection<String> mocUrls) throws Exception {
+        if (mocUrls.isEmpty()) {
+            throw new IllegalArgumentException("At least one MOC is required");
+        }
+        final List<CachedMoc> cachedMocs = retrieveAll(new ArrayList<String>(new LinkedHashSet<String>(mocUrls)));
+        final String[] versions = new String[cachedMocs.size()];
+        final List<HealpixMoc> mocList = new ArrayList<HealpixMoc>(cachedMocs.size());
+        for (int i = 0; i < versions.length; i++) {
+            final CachedMoc cachedMoc = cachedMocs.get(i);
+            versions[i] = cachedMoc.getVersion() + "#" + cachedMoc.getUrl();
+            mocList.add(cachedMoc.getMoc());
+        }
+        Arrays.sort(versions);
+        final List<String> key = Arrays.asList(versions);
+        HealpixMoc result;
+        synchronized (intersections) {
+            result = intersections.get(key);
+        }
+        if (result == null) {
+            result = intersect(mocList);
+            result.toRangeSet();
+            synchronized (intersections) {
+                intersections.put(key, result);
+            }
+        } else {
+            LOG.log(Level.FINE, "Cache is used for the intersection of {0}", mocUrls);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the intersection of MOCs.
+     *
+     * <p>
+     * The MOCs are intersected from the smallest to the largest sky coverage, and the
+     * intersection stops as soon as the result is empty. The MOC itself is
+     * returned when there is only one MOC.
+     * </p>
+     *
+     * @param mocList MOCs
+     * @return the intersection
+     * @throws Exception if an error occurs during the Healpix processing
+     */
+    public static HealpixMoc intersect(final List<HealpixMoc> mocList) throws Exception {
+        final List<HealpixMoc> sortedMocs = new ArrayList<HealpixMoc>(mocList);
+        Collections.sort(sortedMocs, new Comparator<HealpixMoc>() {
+            @Override
+            public int compare(final HealpixMoc moc1, final HealpixMoc moc2) {
+                return Double.compare(moc1.getCoverage(), moc2.getCoverage());
+            }
+        });
+        HealpixMoc result = sortedMocs.get(0);
+        for (int i = 1; i < sortedMocs.size() && result.getSize() > 0; i++) {
+            result = result.intersection(sortedMocs.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves MOCs in parallel.
+     *
+     * @param mocUrls MOC's URLs
+     * @return the cached MOCs, in the order of the URLs
+     * @throws Exception if an error occurs during the Healpix processing or
+     * when getting a stream
+     */
+    private List<CachedMoc> retrieveAll(final List<String> mocUrls) throws Exception {
+        final List<CachedMoc> result = new ArrayList<CachedMoc>(mocUrls.size());
+        if (mocUrls.size() == 1) {
+            result.add(retrieve(mocUrls.get(0)));
+            return result;
+        }
+        final List<Callable<CachedMoc>> tasks = new ArrayList<Callable<CachedMoc>>(mocUrls.size());
+        for (final String mocUrl : mocUrls) {
+            tasks.add(new Callable<CachedMoc>() {
+                @Override
+                public CachedMoc call() throws Exception {
+                    return retrieve(mocUrl);
+                }
+            });
+        }
+        for (Future<CachedMoc> future : executor.invokeAll(tasks)) {
+            try {
+                result.add(future.get());
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof Exception) {
+                    throw (Exception) ex.getCause();
+                }
+                throw ex;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves a MOC from the cache, revalidating it when it is not fresh.
+     *
+     * @param mocUrl MOC's URL
+     * @return the cached MOC
+     * @throws Exception if an error occurs during the Healpix processing or
+     * when getting the stream
+     */
+    private CachedMoc retrieve(final String mocUrl) throws Exception {
+        final CachedMoc cached;
+        synchronized (mocs) {
+            cached = mocs.get(mocUrl);
+        }
+        final long now = System.currentTimeMillis();
+        if (cached != null && now - cached.getValidationTime() < freshness) {
+            return cached;
+        }
+        final CachedMoc result = download(mocUrl, cached, now);
+        if (result != cached) {
+            synchronized (mocs) {
+                mocs.put(mocUrl, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Downloads a MOC, with a conditional GET when a previous version is known.
+     *
+     * @param mocUrl MOC's URL
+     * @param cached previous version or null
+     * @param now time of the request
+     * @return the previous version when it has not been modified, otherwise the new version
+     * @throws Exception if an error occurs during the Healpix processing or
+     * when getting the stream
+     */
+    private CachedMoc download(final String mocUrl, final CachedMoc cached, final long now) throws Exception {
+        final ClientResourceProxy proxy = new ClientResourceProxy(mocUrl, Method.GET);
+        final ClientResource client = proxy.getClientResource();
+        if (cached != null && cached.getTag() != null) {
+            client.getConditions().getNoneMatch().add(cached.getTag());
+        }
+        if (cached != null && cached.getModificationDate() != null) {
+            client.getConditions().setModifiedSince(cached.getModificationDate());
+        }
+        try {
+            final Representation rep = client.get(MediaType.valueOf("image/fits"));
+            if (cached != null && Status.REDIRECTION_NOT_MODIFIED.equals(client.getStatus())) {
+                LOG.log(Level.FINE, "{0} has not been modified", mocUrl);
+                cached.setValidationTime(now);
+                return cached;
+            }
+            final HealpixMoc moc = new HealpixMoc(new BufferedInputStream(rep.getStream(), FITS_BUFFER), HealpixMoc.FITS);
+            // computes the ranges now, so that the shared MOC is not modified by the intersections
+            moc.toRangeSet();
+            return new CachedMoc(mocUrl, moc, rep.getTag(), rep.getModificationDate(), lastVersion.incrementAndGet(), now);
+        } finally {
+            client.release();
+        }
+    }
+
+    /**
+     * MOC in the cache.
+     */
+    private static final class CachedMoc {
+
+        /**
+         * MOC's URL.
+         */
+        private final String url;
+        /**
+         * MOC.
+         */
+        private final HealpixMoc moc;
+        /**
+         * ETag or null.
+         */
+        private final Tag tag;
+        /**
+         * Last modification date or null.
+         */
+        private final Date modificationDate;
+        /**
+         * Version of the MOC in the cache.
+         */
+        private final long version;
+        /**
+         * Time of the last validation.
+         */
+        private volatile long validationTime;
+
+        /**
+         * Constructs a cached MOC.
+         *
+         * @param urlVal MOC's URL
+         * @param mocVal MOC
+         * @param tagVal ETag or null
+         * @param modificationDateVal last modification date or null
+         * @param versionVal version of the MOC in the cache
+         * @param validationTimeVal time of the download
+         */
+        CachedMoc(final String urlVal, final HealpixMoc mocVal, final Tag tagVal, final Date modificationDateVal,
+                final long versionVal, final long validationTimeVal) {
+            this.url = urlVal;
+            this.moc = mocVal;
+            this.tag = tagVal;
+            this.modificationDate = modificationDateVal;
+            this.version = versionVal;
+            this.validationTime = validationTimeVal;
+        }
+
+        /**
+         * Returns the MOC's URL.
+         *
+         * @return the url
+         */
+        String getUrl() {
+            return url;
+        }
+
+        /**
+         * Returns the MOC.
+         *
+         * @return the moc
+         */
+        HealpixMoc getMoc() {
+            return moc;
+        }
+
+        /**
+         * Returns the ETag.
+         *
+         * @return the tag or null
+         */
+        Tag getTag() {
+            return tag;
+        }
+
+        /**
+         * Returns the last modification date.
+         *
+         * @return the modificationDate or null
+         */
+        Date getModificationDate() {
+            return modificationDate;
+        }
+
+        /**
+         * Returns the version of the MOC in the cache.
+         *
+         * @return the version
+         */
+        long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns the time of the last validation.
+         *
+         * @return the validationTime
+         */
+        long getValidationTime() {
+            return validationTime;
+        }
+
+        /**
+         * Sets the time of the last validation.
+         *
+         * @param validationTimeVal the validationTime to set
+         */
+        void setValidationTime(final long validationTimeVal) {
+            this.validationTime = validationTimeVal;
+        }
+    }
+
+    /**
+     * Creates daemon threads for the downloads.
+     */
+    private static final class DownloadThreadFactory implements ThreadFactory {
+
+        /**
+         * Thread counter.
+         */
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "moc-download-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
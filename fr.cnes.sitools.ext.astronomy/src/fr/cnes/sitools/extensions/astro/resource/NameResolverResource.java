@@ -18,6 +18,7 @@
  ******************************************************************************/
 package fr.cnes.sitools.extensions.astro.resource;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -47,8 +48,10 @@ import org.restlet.resource.ResourceException;
 import fr.cnes.sitools.astro.representation.GeoJsonRepresentation;
 import fr.cnes.sitools.astro.resolver.AbstractNameResolver;
 import fr.cnes.sitools.astro.resolver.CDSNameResolver;
+import fr.cnes.sitools.astro.resolver.CachedNameResolver;
 import fr.cnes.sitools.astro.resolver.ConstellationNameResolver;
 import fr.cnes.sitools.astro.resolver.IMCCESsoResolver;
+import fr.cnes.sitools.astro.resolver.NameResolverCache;
 import fr.cnes.sitools.astro.resolver.NameResolverResponse;
 import fr.cnes.sitools.common.resource.SitoolsParameterizedResource;
 import fr.cnes.sitools.extensions.astro.application.opensearch.datamodel.FeatureDataModel;
@@ -61,6 +64,7 @@ import fr.cnes.sitools.extensions.common.InputsValidation;
 import fr.cnes.sitools.extensions.common.NotNullAndNotEmptyValidation;
 import fr.cnes.sitools.extensions.common.StatusValidation;
 import fr.cnes.sitools.extensions.common.Validation;
+import fr.cnes.sitools.plugins.resources.model.ResourceParameter;
 
 /**
  * Searchs on different name resolvers and returns one or several names.
@@ -72,6 +76,9 @@ import fr.cnes.sitools.extensions.common.Validation;
  * The cache directive is set to FOREVER for CDS and COROT. For IMMCE, the cache
  * is set to NO_CACHE</p>
  * <p>
+ * The responses of CDS and IMCCE are kept by {@link NameResolverCache}, and
+ * saved in the cache file of the plugin when it is set.</p>
+ * <p>
  * <
  * pre>
  * Example of requests:
@@ -127,6 +134,10 @@ public class NameResolverResource extends SitoolsParameterizedResource {
             this.nameResolver = getParameterValue("nameResolver");
             this.epoch = getParameterValue("epoch");
         }
+        final ResourceParameter cacheFile = this.getModel().getParameterByName(NameResolverResourcePlugin.CACHE_FILE);
+        if (cacheFile != null && cacheFile.getValue() != null && !cacheFile.getValue().isEmpty()) {
+            NameResolverCache.getInstance().setPersistenceFile(new File(cacheFile.getValue()));
+        }
 
         if (!getRequest().getMethod().equals(Method.OPTIONS)) {
             Validation validationAttributes = new InputsAttributesValidation(getRequestAttributes());
@@ -159,7 +170,7 @@ public class NameResolverResource extends SitoolsParameterizedResource {
      */
     private Representation resolveCds() {
         LOG.finest(String.format("CDS name resolver is choosen with the following parameter %s", objectName));
-        final AbstractNameResolver cds = new CDSNameResolver(objectName, CDSNameResolver.NameResolverService.all);
+        final AbstractNameResolver cds = createCdsResolver();
         final NameResolverResponse response = cds.getResponse();
         if (response.hasResult()) {
             LOG.log(Level.INFO, "CDS name resolver is selected for {0}.", objectName);
@@ -188,7 +199,7 @@ public class NameResolverResource extends SitoolsParameterizedResource {
      */
     private Representation resolveIMCCE() {
         LOG.finest(String.format("IMCCE name resolver is choosen with the following parameter %s", objectName));
-        final AbstractNameResolver imcce = new IMCCESsoResolver(objectName, epoch);
+        final AbstractNameResolver imcce = createImcceResolver(epoch);
         final NameResolverResponse response = imcce.getResponse();
         if (response.hasResult()) {
             LOG.log(Level.INFO, "IMCCE name resolver is selected for {0}.", objectName);
@@ -274,8 +285,8 @@ public class NameResolverResource extends SitoolsParameterizedResource {
      */
     private Representation callChainedResolver() {
         Map dataModel;
-        final AbstractNameResolver cds = new CDSNameResolver(objectName, CDSNameResolver.NameResolverService.all);
-        final AbstractNameResolver imcce = new IMCCESsoResolver(objectName, "now");
+        final AbstractNameResolver cds = createCdsResolver();
+        final AbstractNameResolver imcce = createImcceResolver("now");
         //final AbstractNameResolver corot = new CorotIdResolver(objectName);
         final AbstractNameResolver sitools2 = new ConstellationNameResolver(objectName);
         cds.setNext(sitools2);
@@ -301,6 +312,26 @@ public class NameResolverResource extends SitoolsParameterizedResource {
         return rep;
     }
 
+    /**
+     * Returns the CDS name resolver, whose responses are cached.
+     *
+     * @return the CDS name resolver
+     */
+    private AbstractNameResolver createCdsResolver() {
+        final CDSNameResolver.NameResolverService service = CDSNameResolver.NameResolverService.all;
+        return new CachedNameResolver(new CDSNameResolver(objectName, service), NameResolverCache.CDS, objectName + "@" + service);
+    }
+
+    /**
+     * Returns the IMCCE name resolver, whose responses are cached.
+     *
+     * @param epochVal epoch
+     * @return the IMCCE name resolver
+     */
+    private AbstractNameResolver createImcceResolver(final String epochVal) {
+        return new CachedNameResolver(new IMCCESsoResolver(objectName, epochVal), NameResolverCache.IMCCE, objectName + "@" + epochVal);
+    }
+
     /**
      * Returns the name resolver reponse.
      *
@@ -72,6 +72,10 @@ public class NameResolverResourcePlugin extends ResourceModel {
      * Logger.
      */
     private static final Logger LOG = Engine.getLogger(NameResolverResourcePlugin.class.getName());
+    /**
+     * Parameter of the file where the resolved names are saved.
+     */
+    public static final String CACHE_FILE = "cacheFile";
 
     /**
      * Constructor of the administration panel.
@@ -105,5 +109,9 @@ public class NameResolverResourcePlugin extends ResourceModel {
         epoch.setValueType("String");
         epoch.setValue("now");
         this.addParam(epoch);
+        final ResourceParameter cacheFile = new ResourceParameter(CACHE_FILE,
+                "File where the resolved names are kept across restarts (optional)", ResourceParameterType.PARAMETER_INTERN);
+        cacheFile.setValueType("String");
+        this.addParam(cacheFile);
     }
 }
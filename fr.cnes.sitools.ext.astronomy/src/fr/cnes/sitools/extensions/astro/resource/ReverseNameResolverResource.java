@@ -20,9 +20,12 @@ package fr.cnes.sitools.extensions.astro.resource;
 
 import healpix.core.HealpixIndex;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.restlet.data.Disposition;
@@ -41,11 +44,15 @@ import org.restlet.resource.Get;
 import org.restlet.resource.ResourceException;
 
 import fr.cnes.sitools.astro.representation.GeoJsonRepresentation;
+import fr.cnes.sitools.astro.resolver.LocalReverseNameResolver;
+import fr.cnes.sitools.astro.resolver.NameResolverCache;
 import fr.cnes.sitools.astro.resolver.NameResolverException;
 import fr.cnes.sitools.astro.resolver.ReverseNameResolver;
 import fr.cnes.sitools.common.resource.SitoolsParameterizedResource;
 import fr.cnes.sitools.extensions.cache.CacheBrowser;
+import fr.cnes.sitools.extensions.common.AstroCoordinate;
 import fr.cnes.sitools.extensions.common.AstroCoordinate.CoordinateSystem;
+import fr.cnes.sitools.plugins.resources.model.ResourceParameter;
 
 /**
  * Finds the object's name based on a cone search.
@@ -90,26 +97,16 @@ public class ReverseNameResolverResource extends SitoolsParameterizedResource {
     private transient double radius;
 
     /**
-     * Initialize the service and checks if the time between now and the last
-     * access is superior to 6s. When the time is inferior to 6s, an exception
-     * is raised (service is not available)
+     * Initialize the service.
      */
     @Override
     public final void doInit() {
         super.doInit();
+        final ResourceParameter cacheFile = this.getModel().getParameterByName(ReverseNameResolverResourcePlugin.CACHE_FILE);
+        if (cacheFile != null && cacheFile.getValue() != null && !cacheFile.getValue().isEmpty()) {
+            NameResolverCache.getInstance().setPersistenceFile(new File(cacheFile.getValue()));
+        }
         if (!getRequest().getMethod().equals(Method.OPTIONS)) {
-            if (getContext().getAttributes().containsKey("lastRequestToReverseNameResolver")) {
-                final long lastTimeMilliSeconds = Long.valueOf(String.valueOf(getContext().getAttributes().get("lastRequestToReverseNameResolver")));
-                final long currentTimeMilliSeconds = System.currentTimeMillis();
-                if (currentTimeMilliSeconds - lastTimeMilliSeconds >= MAX_TIME_MILLISECONDS_BETWEEN_TWO_REQUESTS) {
-                    getContext().getAttributes().put("lastRequestToReverseNameResolver", currentTimeMilliSeconds);
-                } else {
-                    throw new ResourceException(Status.SERVER_ERROR_SERVICE_UNAVAILABLE, "This service can be called once each 6seconds");
-                }
-            } else {
-                getContext().getAttributes().put("lastRequestToReverseNameResolver", System.currentTimeMillis());
-            }
-
             if (this.getRequestAttributes().containsKey("coordinates-order")) {
                 final String[] coordinatesOrder = String.valueOf(this.getRequestAttributes().get("coordinates-order")).split(";");
                 try {
@@ -145,11 +142,65 @@ public class ReverseNameResolverResource extends SitoolsParameterizedResource {
         }
     }
 
+    /**
+     * Returns the response of the local catalogue.
+     *
+     * @return the response or null when there is no local catalogue or no object in the cone
+     */
+    private Map getLocalResponse() {
+        final ResourceParameter localCatalogue = this.getModel().getParameterByName(ReverseNameResolverResourcePlugin.LOCAL_CATALOGUE);
+        if (localCatalogue == null || localCatalogue.getValue() == null || localCatalogue.getValue().isEmpty()) {
+            return null;
+        }
+        final LocalReverseNameResolver localResolver;
+        try {
+            localResolver = LocalReverseNameResolver.getInstance(new File(localCatalogue.getValue()));
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "The local catalogue cannot be loaded, the CDS service is used", ex);
+            return null;
+        }
+        final AstroCoordinate position;
+        try {
+            position = new AstroCoordinate(coordinates[0], coordinates[1]);
+        } catch (RuntimeException ex) {
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, ex);
+        }
+        if (this.coordinatesSystem == CoordinateSystem.GALACTIC) {
+            position.setCoordinateSystem(CoordinateSystem.GALACTIC);
+            position.processTo(CoordinateSystem.EQUATORIAL);
+        }
+        final LocalReverseNameResolver.CatalogueObject object = localResolver.find(position.getRaAsDecimal(), position.getDecAsDecimal(), radius);
+        return (object == null) ? null : localResolver.getJsonResponse(object, this.coordinatesSystem);
+    }
+
+    /**
+     * Checks if the time between now and the last access to the CDS service is
+     * superior to 6s. When the time is inferior to 6s, an exception is raised
+     * (service is not available).
+     */
+    private void checkLastRequestTime() {
+        if (getContext().getAttributes().containsKey("lastRequestToReverseNameResolver")) {
+            final long lastTimeMilliSeconds = Long.valueOf(String.valueOf(getContext().getAttributes().get("lastRequestToReverseNameResolver")));
+            final long currentTimeMilliSeconds = System.currentTimeMillis();
+            if (currentTimeMilliSeconds - lastTimeMilliSeconds >= MAX_TIME_MILLISECONDS_BETWEEN_TWO_REQUESTS) {
+                getContext().getAttributes().put("lastRequestToReverseNameResolver", currentTimeMilliSeconds);
+            } else {
+                throw new ResourceException(Status.SERVER_ERROR_SERVICE_UNAVAILABLE, "This service can be called once each 6seconds");
+            }
+        } else {
+            getContext().getAttributes().put("lastRequestToReverseNameResolver", System.currentTimeMillis());
+        }
+    }
+
     /**
      * Returns the response by the use of a Freemarker template (GeoJson.ftl).
      *
      * <p>
-     * The cache directive is set to FOREVER</p>
+     * The cache directive is set to FOREVER. The responses are kept by
+     * {@link NameResolverCache}, so only the requests that are not cached
+     * call the CDS service and are limited to one each 6s. When a local
+     * catalogue is set, it is searched first and the CDS service is only
+     * called when no object of the catalogue is in the cone.</p>
      *
      * @return the GeoJSON representation
      */
@@ -157,8 +208,20 @@ public class ReverseNameResolverResource extends SitoolsParameterizedResource {
     public final Representation getReverseNameResolverResponse() {
         try {
             LOG.finest(String.format("ReverseNameResolver (ra=%s,dec=%s,radius=%s)", coordinates[0], coordinates[1], radius));
-            final ReverseNameResolver reverseNameResolver = new ReverseNameResolver(coordinates[0] + " " + coordinates[1], radius, this.coordinatesSystem);
-            final Map response = reverseNameResolver.getJsonResponse();
+            final NameResolverCache nameResolverCache = NameResolverCache.getInstance();
+            final String query = coordinates[0] + " " + coordinates[1] + "@" + radius + "@" + this.coordinatesSystem;
+            Map response = getLocalResponse();
+            if (response == null) {
+                response = (Map) nameResolverCache.getValue(NameResolverCache.REVERSE, query);
+            }
+            if (response == null) {
+                checkLastRequestTime();
+                final long start = System.currentTimeMillis();
+                final ReverseNameResolver reverseNameResolver = new ReverseNameResolver(coordinates[0] + " " + coordinates[1], radius, this.coordinatesSystem);
+                response = reverseNameResolver.getJsonResponse();
+                nameResolverCache.recordMiss(NameResolverCache.REVERSE, System.currentTimeMillis() - start);
+                nameResolverCache.putValue(NameResolverCache.REVERSE, query, response);
+            }
             LOG.finest(String.format("Result of the reverse name resolver:%s", response.toString()));
             Representation rep = new GeoJsonRepresentation(response);
             final CacheBrowser cache = CacheBrowser.createCache(CacheBrowser.CacheDirectiveBrowser.FOREVER, rep);
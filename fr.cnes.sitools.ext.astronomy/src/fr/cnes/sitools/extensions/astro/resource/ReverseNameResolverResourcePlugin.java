@@ -24,6 +24,8 @@ import org.restlet.engine.Engine;
 
 import fr.cnes.sitools.plugins.resources.model.DataSetSelectionType;
 import fr.cnes.sitools.plugins.resources.model.ResourceModel;
+import fr.cnes.sitools.plugins.resources.model.ResourceParameter;
+import fr.cnes.sitools.plugins.resources.model.ResourceParameterType;
 
 /**
  * Plugin for the reverse name resolver service from CDS.
@@ -66,6 +68,16 @@ public class ReverseNameResolverResourcePlugin extends ResourceModel {
      */
     private static final Logger LOG = Engine.getLogger(ReverseNameResolverResourcePlugin.class.getName());
 
+    /**
+     * Parameter of the file where the resolved coordinates are saved.
+     */
+    public static final String CACHE_FILE = "cacheFile";
+
+    /**
+     * Parameter of the local catalogue that is searched before the CDS service.
+     */
+    public static final String LOCAL_CATALOGUE = "localCatalogue";
+
     /**
      * Cronstructs the administration panel.
      */
@@ -79,5 +91,13 @@ public class ReverseNameResolverResourcePlugin extends ResourceModel {
         setDataSetSelection(DataSetSelectionType.NONE);
         setResourceClassName(fr.cnes.sitools.extensions.astro.resource.ReverseNameResolverResource.class.getName());
         this.completeAttachUrlWith("/reverseNameResolver/{coordSystem}/{coordinates-order}");
+        final ResourceParameter cacheFile = new ResourceParameter(CACHE_FILE,
+                "File where the resolved coordinates are kept across restarts (optional)", ResourceParameterType.PARAMETER_INTERN);
+        cacheFile.setValueType("String");
+        this.addParam(cacheFile);
+        final ResourceParameter localCatalogue = new ResourceParameter(LOCAL_CATALOGUE,
+                "Catalogue file (name;ra;dec[;magnitude[;type]] by line) searched before the CDS service (optional)", ResourceParameterType.PARAMETER_INTERN);
+        localCatalogue.setValueType("String");
+        this.addParam(localCatalogue);
     }
 }
@@ -34,6 +34,7 @@ import fr.cnes.sitools.plugins.resources.model.DataSetSelectionType;
 import fr.cnes.sitools.plugins.resources.model.ResourceModel;
 import fr.cnes.sitools.plugins.resources.model.ResourceParameter;
 import fr.cnes.sitools.plugins.resources.model.ResourceParameterType;
+import fr.cnes.sitools.searchgeometryengine.HealpixRangeFilter;
 import fr.cnes.sitools.util.Util;
 
 /**
@@ -103,17 +104,32 @@ public class SimpleImageAccessResourcePlugin extends ResourceModel {
         final ResourceParameter intersect = new ResourceParameter(fr.cnes.sitools.astro.vo.sia.SimpleImageAccessProtocolLibrary.INTERSECT,
                 "how matched images should intersect the region of interest",
                 ResourceParameterType.PARAMETER_INTERN);
-        //String intersectEnum = "xs:enum[COVERS, ENCLOSED, CENTER, OVERLAPS]";
-        intersect.setValueType("xs:enum[CENTER, OVERLAPS]");
+        intersect.setValueType("xs:enum[COVERS, ENCLOSED, CENTER, OVERLAPS]");
         intersect.setValue("OVERLAPS");
         addParam(intersect);
 
         final ResourceParameter geoAttribut = new ResourceParameter(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT,
-                "Geographical attribut for OVERLAPS mode. The geographical attribut must be spoly datatype from pgsphere",
+                "Geographical attribut for COVERS, ENCLOSED and OVERLAPS modes. The geographical attribut must be spoly datatype from pgsphere",
                 ResourceParameterType.PARAMETER_INTERN);
         geoAttribut.setValueType("xs:dataset.columnAlias");
         addParam(geoAttribut);
 
+        final ResourceParameter mocAttribut = new ResourceParameter(SimpleImageAccessProtocolLibrary.MOC_ATTRIBUT,
+                "bigint[] attribut with the NESTED Healpix pixels intersecting the image (optional), used to pre-filter the images in COVERS, ENCLOSED and OVERLAPS modes",
+                ResourceParameterType.PARAMETER_INTERN);
+        mocAttribut.setValueType("xs:dataset.columnAlias");
+        addParam(mocAttribut);
+
+        final ResourceParameter healpixAttribut = new ResourceParameter(SimpleImageAccessProtocolLibrary.HEALPIX_ATTRIBUT,
+                "NESTED Healpix pixel of the image center (optional), used to pre-filter the images in CENTER mode",
+                ResourceParameterType.PARAMETER_INTERN);
+        healpixAttribut.setValueType("xs:dataset.columnAlias");
+        addParam(healpixAttribut);
+
+        final ResourceParameter healpixOrder = new ResourceParameter(SimpleImageAccessProtocolLibrary.HEALPIX_ORDER,
+                "Healpix order of the MOC and Healpix attributs", ResourceParameterType.PARAMETER_INTERN);
+        addParam(healpixOrder);
+
         final ResourceParameter verb = new ResourceParameter(fr.cnes.sitools.astro.vo.sia.SimpleImageAccessProtocolLibrary.VERB,
                 "Verbosity determines how many columns are to be returned in the resulting table",
                 ResourceParameterType.PARAMETER_INTERN);
@@ -179,6 +195,11 @@ public class SimpleImageAccessResourcePlugin extends ResourceModel {
                 "The largest number of records that the service will return", ResourceParameterType.PARAMETER_INTERN);
         maxRecords.setValue("-1");
         addParam(maxRecords);
+
+        final ResourceParameter cursorPageSize = new ResourceParameter(SimpleImageAccessProtocolLibrary.CURSOR_PAGE_SIZE,
+                "Number of rows read by query when the response is streamed by pages sorted by the primary key (optional). "
+                + "The response then gives a CURSOR token to get the records after max records", ResourceParameterType.PARAMETER_INTERN);
+        addParam(cursorPageSize);
         
         final ResourceParameter urlCutOutService = new ResourceParameter("urlCutOutService", 
                 "Url of the cutOut service, must be not null if the service is Image Cutout Service", ResourceParameterType.PARAMETER_INTERN);
@@ -209,20 +230,35 @@ public class SimpleImageAccessResourcePlugin extends ResourceModel {
 
                 final ResourceParameter geoAttribut = params.get(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT);
                 final ResourceParameter intersect = params.get(fr.cnes.sitools.astro.vo.sia.SimpleImageAccessProtocolLibrary.INTERSECT);
-                if (intersect.getValue().equals("OVERLAPS") && !Util.isNotEmpty(geoAttribut.getValue())) {
+                final boolean isCenterMode = intersect.getValue().equals("CENTER");
+                if (!isCenterMode && !Util.isNotEmpty(geoAttribut.getValue())) {
                     final ConstraintViolation constraint = new ConstraintViolation();
                     constraint.setLevel(ConstraintViolationLevel.CRITICAL);
-                    constraint.setMessage(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT + " must be defined when OVERLAPS mode is used.");
+                    constraint.setMessage(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT + " must be defined when " + intersect.getValue() + " mode is used.");
                     constraint.setValueName(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT);
                     constraintList.add(constraint);
-                } else if (!intersect.getValue().equals("OVERLAPS") && Util.isNotEmpty(geoAttribut.getValue())) {
+                } else if (isCenterMode && Util.isNotEmpty(geoAttribut.getValue())) {
                     final ConstraintViolation constraint = new ConstraintViolation();
                     constraint.setLevel(ConstraintViolationLevel.WARNING);
-                    constraint.setMessage(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT + " is useless when OVERLAPS mode is not used.");
+                    constraint.setMessage(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT + " is useless when CENTER mode is used.");
                     constraint.setValueName(SimpleImageAccessProtocolLibrary.GEO_ATTRIBUT);
                     constraintList.add(constraint);
                 }
 
+                final ResourceParameter mocAttribut = params.get(SimpleImageAccessProtocolLibrary.MOC_ATTRIBUT);
+                final ResourceParameter healpixAttribut = params.get(SimpleImageAccessProtocolLibrary.HEALPIX_ATTRIBUT);
+                final ResourceParameter healpixOrder = params.get(SimpleImageAccessProtocolLibrary.HEALPIX_ORDER);
+                if (((mocAttribut != null && Util.isNotEmpty(mocAttribut.getValue()))
+                        || (healpixAttribut != null && Util.isNotEmpty(healpixAttribut.getValue())))
+                        && (healpixOrder == null || !isHealpixOrder(healpixOrder.getValue()))) {
+                    final ConstraintViolation constraint = new ConstraintViolation();
+                    constraint.setLevel(ConstraintViolationLevel.CRITICAL);
+                    constraint.setMessage("The Healpix order of the MOC and Healpix attributs must be an integer between 0 and "
+                            + HealpixRangeFilter.MAX_ORDER);
+                    constraint.setValueName(SimpleImageAccessProtocolLibrary.HEALPIX_ORDER);
+                    constraintList.add(constraint);
+                }
+
                 final ResourceParameter urlCutOutService = params.get("urlCutOutService");
                 final ResourceParameter serviceType = params.get(fr.cnes.sitools.astro.vo.sia.SimpleImageAccessProtocolLibrary.SERVICE_NAME);
                 if(serviceType.getValue().equalsIgnoreCase("Image Cutout Service") && !Util.isNotEmpty(urlCutOutService.getValue())){
@@ -239,8 +275,49 @@ public class SimpleImageAccessResourcePlugin extends ResourceModel {
                     constraintList.add(constraint);
                 }
                    
+                final ResourceParameter cursorPageSize = params.get(SimpleImageAccessProtocolLibrary.CURSOR_PAGE_SIZE);
+                if (cursorPageSize != null && Util.isNotEmpty(cursorPageSize.getValue()) && !isPositiveInteger(cursorPageSize.getValue())) {
+                    final ConstraintViolation constraint = new ConstraintViolation();
+                    constraint.setLevel(ConstraintViolationLevel.CRITICAL);
+                    constraint.setMessage("The number of rows by query must be a positive integer");
+                    constraint.setValueName(SimpleImageAccessProtocolLibrary.CURSOR_PAGE_SIZE);
+                    constraintList.add(constraint);
+                }
+
                 return constraintList;
             }
         };
     }
+
+    /**
+     * Returns true when the value is a valid Healpix order.
+     *
+     * @param value value to check
+     * @return true when the value is an integer between 0 and HealpixRangeFilter.MAX_ORDER
+     */
+    private static boolean isHealpixOrder(final String value) {
+        if (!Util.isNotEmpty(value)) {
+            return false;
+        }
+        try {
+            final int order = Integer.parseInt(value.trim());
+            return order >= 0 && order <= HealpixRangeFilter.MAX_ORDER;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true when the value is a positive integer.
+     *
+     * @param value value to check
+     * @return true when the value is an integer greater than 0
+     */
+    private static boolean isPositiveInteger(final String value) {
+        try {
+            return Integer.parseInt(value.trim()) > 0;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
 }
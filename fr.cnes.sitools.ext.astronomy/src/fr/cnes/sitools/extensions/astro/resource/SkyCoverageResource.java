@@ -19,9 +19,8 @@
 package fr.cnes.sitools.extensions.astro.resource;
 
 import java.awt.Color;
-import java.io.BufferedInputStream;
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -52,7 +51,6 @@ import fr.cnes.sitools.astro.graph.HealpixMocDecorator;
 import fr.cnes.sitools.astro.representation.FitsMocRepresentation;
 import fr.cnes.sitools.astro.representation.PngRepresentation;
 import fr.cnes.sitools.common.resource.SitoolsParameterizedResource;
-import fr.cnes.sitools.util.ClientResourceProxy;
 
 /**
  * Computes a sky coverage based on Healpix MOCs as input parameters.
@@ -66,14 +64,6 @@ public class SkyCoverageResource extends SitoolsParameterizedResource {
      * Logger.
      */
     private static final Logger LOG = Engine.getLogger(SkyCoverageResource.class.getName());
-    /**
-     * Size of a FITS block (1024 bytes).
-     */
-    private static final int FITS_BLOCK = 1024;
-    /**
-     * Size of the FITS buffer (32 * FITS_BLOCK).
-     */
-    private static final int FITS_BUFFER = 32 * FITS_BLOCK;
     /**
      * Transforms the value of the sky coverage in percent. This constant
      * inputStream used when the TXT representation inputStream called
@@ -144,35 +134,34 @@ public class SkyCoverageResource extends SitoolsParameterizedResource {
      * Computes the sky coverage with a list of MOC's URLs and stores the result
      * in moc variable.
      *
+     * <p>
+     * The MOCs are retrieved in parallel through {@link MocRetrievalCache}, which
+     * also memoises the intersection of the same MOCs.
+     * </p>
+     *
      * @param mocArray List of MOC's URL.
      * @throws Exception if an error occurs during the Healpix processing, if
      * the URL inputStream malformed or if an error occurs when getting the
      * result as a stream
      */
     protected final void procesSkyCoverage(final String[] mocArray) throws Exception {
-        final String firstMoc = mocArray[0];
-        HealpixMoc mocA = readMoc(firstMoc);
-        for (int i = 1; i < mocArray.length; i++) {
-            final HealpixMoc mocB = readMoc(mocArray[i]);
-            mocA = mocA.intersection(mocB);
-        }
-        this.setMoc(mocA);
+        this.setMoc(MocRetrievalCache.getInstance().intersection(Arrays.asList(mocArray)));
     }
 
     /**
      * Retrieves a MOC and loads it in memory.
      *
+     * <p>
+     * The MOC comes from {@link MocRetrievalCache} and must not be modified.
+     * </p>
+     *
      * @param mocUrl MOC's URL
      * @return the MOC
      * @throws Exception if an error occurs during the Healpix processing or
      * when getting the stream
      */
     protected final HealpixMoc readMoc(final String mocUrl) throws Exception {
-        final ClientResourceProxy client = new ClientResourceProxy(mocUrl, Method.GET);
-        final Representation rep = client.getClientResource().get(MediaType.valueOf("image/fits"));
-        final InputStream inputStream = rep.getStream();
-        final BufferedInputStream bis = new BufferedInputStream(inputStream, FITS_BUFFER);
-        return new HealpixMoc(bis, HealpixMoc.FITS);
+        return MocRetrievalCache.getInstance().getMoc(mocUrl);
     }
 
     /**
@@ -0,0 +1,345 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the clicks on keys in memory until they are flushed.
+ *
+ * <p>
+ * A click increments a counter of the key without lock. The counter of a
+ * popular key is split in stripes that are selected by the thread, so that the
+ * threads that click on it do not update the same memory. {@link #flush(Sink)}
+ * gives the sum of the clicks of each key since the last flush.
+ * </p>
+ *
+ * <p>
+ * A flush reads each counter and sets it to zero in a single atomic
+ * operation. A counter that was not clicked since the last flush is closed,
+ * then removed from the map. A thread that took the counter before its
+ * removal either increments it before it is closed, and the click is flushed,
+ * or finds it closed and increments a new counter of the key. A click is then
+ * flushed once.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class ClickCounters {
+
+    /**
+     * Max number of stripes of a counter.
+     */
+    private static final int MAX_STRIPES = 16;
+    /**
+     * Distance between two stripes in the array, so that two stripes are not in the same cache line.
+     */
+    private static final int PADDING = 8;
+    /**
+     * Value of a closed stripe.
+     */
+    private static final long CLOSED = Long.MIN_VALUE;
+    /**
+     * Counters of the keys clicked since the last flush.
+     */
+    private final ConcurrentMap<Object, StripedCounter> counters = new ConcurrentHashMap<Object, StripedCounter>();
+    /**
+     * Number of stripes of a counter, a power of two.
+     */
+    private final int nbStripes;
+
+    /**
+     * Receives the clicks of a key.
+     */
+    public interface Sink {
+
+        /**
+         * Adds clicks to a key.
+         *
+         * @param key key
+         * @param nbClicks number of clicks since the last flush
+         */
+        void add(Object key, long nbClicks);
+    }
+
+    /**
+     * Constructs counters with a stripe by processor.
+     */
+    public ClickCounters() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs counters with a number of stripes.
+     *
+     * @param nbThreads number of threads that click at the same time, rounded to a power of two
+     */
+    ClickCounters(final int nbThreads) {
+        int stripes = 1;
+        while (stripes < Math.min(MAX_STRIPES, nbThreads)) {
+            stripes <<= 1;
+        }
+        this.nbStripes = stripes;
+    }
+
+    /**
+     * Adds a click to a key.
+     *
+     * @param key key
+     */
+    public final void increment(final Object key) {
+        while (true) {
+            StripedCounter counter = counters.get(key);
+            if (counter == null) {
+                final StripedCounter newCounter = new StripedCounter(nbStripes);
+                counter = counters.putIfAbsent(key, newCounter);
+                if (counter == null) {
+                    counter = newCounter;
+                }
+            }
+            if (counter.increment()) {
+                return;
+            }
+            // the counter is being flushed
+            counters.remove(key, counter);
+        }
+    }
+
+    /**
+     * Returns the number of clicks of a key that are not flushed.
+     *
+     * @param key key
+     * @return the number of clicks
+     */
+    public final long getPending(final Object key) {
+        final StripedCounter counter = counters.get(key);
+        return (counter == null) ? 0 : counter.sum();
+    }
+
+    /**
+     * Gives the clicks since the last flush to a sink.
+     *
+     * @param sink sink of the clicks
+     */
+    public final synchronized void flush(final Sink sink) {
+        for (Map.Entry<Object, StripedCounter> entry : counters.entrySet()) {
+            long nbClicks = entry.getValue().drain();
+            if (nbClicks == 0) {
+                // clicks between the drain and the close are flushed
+                nbClicks = entry.getValue().close();
+                counters.remove(entry.getKey(), entry.getValue());
+            }
+            if (nbClicks > 0) {
+                sink.add(entry.getKey(), nbClicks);
+            }
+        }
+    }
+
+    /**
+     * Counter split in stripes when it is contended.
+     *
+     * <p>
+     * The counter starts with a single value. When two threads update it at the same
+     * time, the value is moved in the first stripe and the threads then update their
+     * own stripe. Most of the keys are clicked by one thread at a time and keep a
+     * single value.
+     * </p>
+     *
+     * <p>
+     * The thread that sets the base from the value to SPLITTING creates the stripes
+     * and then sets the base to STRIPED, the stripes are so created once and never
+     * replaced. The other threads wait while the base is SPLITTING.
+     * </p>
+     */
+    private static final class StripedCounter {
+
+        /**
+         * Value of the base when the stripes are used.
+         */
+        private static final long STRIPED = Long.MIN_VALUE + 1;
+        /**
+         * Value of the base while the stripes are created.
+         */
+        private static final long SPLITTING = Long.MIN_VALUE + 2;
+        /**
+         * Value of the counter, CLOSED, STRIPED or SPLITTING.
+         */
+        private final AtomicLong base = new AtomicLong();
+        /**
+         * Number of stripes, a power of two.
+         */
+        private final int nbStripes;
+        /**
+         * Stripes, separated by padding, set once before the base is STRIPED.
+         */
+        private volatile AtomicLongArray stripes;
+
+        /**
+         * Constructs a counter.
+         *
+         * @param nbStripesVal number of stripes, a power of two
+         */
+        private StripedCounter(final int nbStripesVal) {
+            this.nbStripes = nbStripesVal;
+        }
+
+        /**
+         * Adds one to the base or to the stripe of the current thread.
+         *
+         * @return false when the counter is closed
+         */
+        private boolean increment() {
+            while (true) {
+                final long value = base.get();
+                if (value == CLOSED) {
+                    return false;
+                } else if (value == STRIPED) {
+                    return incrementStripe();
+                } else if (value == SPLITTING) {
+                    Thread.yield();
+                } else if (base.compareAndSet(value, value + 1)) {
+                    return true;
+                } else if (nbStripes > 1) {
+                    split();
+                }
+            }
+        }
+
+        /**
+         * Moves the base in the first stripe when the counter is not closed or striped.
+         */
+        private void split() {
+            final long value = base.get();
+            if (value != CLOSED && value != STRIPED && value != SPLITTING && base.compareAndSet(value, SPLITTING)) {
+                final AtomicLongArray newStripes = new AtomicLongArray(nbStripes * PADDING);
+                newStripes.set(0, value);
+                stripes = newStripes;
+                base.set(STRIPED);
+            }
+        }
+
+        /**
+         * Returns the base once the stripes are created.
+         *
+         * @return the base, which is not SPLITTING
+         */
+        private long getBase() {
+            long value = base.get();
+            while (value == SPLITTING) {
+                Thread.yield();
+                value = base.get();
+            }
+            return value;
+        }
+
+        /**
+         * Adds one to the stripe of the current thread.
+         *
+         * @return false when the counter is closed
+         */
+        private boolean incrementStripe() {
+            final AtomicLongArray cells = stripes;
+            final long threadId = Thread.currentThread().getId();
+            final int index = (int) ((threadId ^ (threadId >>> 16)) & (nbStripes - 1)) * PADDING;
+            while (true) {
+                final long value = cells.get(index);
+                if (value == CLOSED) {
+                    return false;
+                }
+                if (cells.compareAndSet(index, value, value + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Returns the value of the counter.
+         *
+         * @return the value
+         */
+        private long sum() {
+            final long value = getBase();
+            if (value == CLOSED) {
+                return 0;
+            } else if (value != STRIPED) {
+                return value;
+            }
+            final AtomicLongArray cells = stripes;
+            long sum = 0;
+            for (int i = 0; i < cells.length(); i += PADDING) {
+                final long cell = cells.get(i);
+                sum += (cell == CLOSED) ? 0 : cell;
+            }
+            return sum;
+        }
+
+        /**
+         * Returns the value of the counter and sets it to zero.
+         *
+         * @return the value
+         */
+        private long drain() {
+            while (true) {
+                final long value = getBase();
+                if (value == CLOSED) {
+                    return 0;
+                } else if (value == STRIPED) {
+                    break;
+                } else if (base.compareAndSet(value, 0)) {
+                    return value;
+                }
+            }
+            final AtomicLongArray cells = stripes;
+            long sum = 0;
+            for (int i = 0; i < cells.length(); i += PADDING) {
+                // the stripes are only closed by the flush
+                sum += cells.getAndSet(i, 0);
+            }
+            return sum;
+        }
+
+        /**
+         * Returns the value of the counter and closes it.
+         *
+         * @return the value
+         */
+        private long close() {
+            long value = getBase();
+            while (!base.compareAndSet(value, CLOSED)) {
+                value = getBase();
+            }
+            if (value == CLOSED) {
+                return 0;
+            } else if (value != STRIPED) {
+                return value;
+            }
+            final AtomicLongArray cells = stripes;
+            long sum = 0;
+            for (int i = 0; i < cells.length(); i += PADDING) {
+                final long cell = cells.getAndSet(i, CLOSED);
+                sum += (cell == CLOSED) ? 0 : cell;
+            }
+            return sum;
+        }
+    }
+}
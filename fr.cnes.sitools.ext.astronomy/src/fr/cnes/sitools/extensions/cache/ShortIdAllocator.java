@@ -0,0 +1,287 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates the shortening IDs from a persistent sequence.
+ *
+ * <p>
+ * Each ID is a number of a sequence, so two IDs are never equal and no lookup
+ * is needed to find a free ID. The sequence is reserved by blocks: the upper
+ * bound of the current block is written in a file before an ID of the block is
+ * returned, so that after a restart the sequence goes on above all the
+ * returned IDs. The IDs of the block that were not returned before the restart
+ * are lost.
+ * </p>
+ *
+ * <p>
+ * A number is written with the characters of an alphabet, with a length that
+ * grows with the sequence: the first <code>b</code> numbers have one
+ * character, the next <code>b<sup>2</sup></code> numbers two characters, and
+ * so on, where <code>b</code> is the size of the alphabet. Within a length,
+ * the number is scrambled by a bijection, a Feistel network with cycle walking,
+ * so that consecutive IDs do not look consecutive. {@link #decode(String)}
+ * returns the number of an ID.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class ShortIdAllocator {
+
+    /**
+     * Default number of IDs reserved at each write of the sequence file.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+    /**
+     * Number of rounds of the Feistel network.
+     */
+    private static final int NB_ROUNDS = 4;
+    /**
+     * Multiplier of the round function.
+     */
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+    /**
+     * Characters of the IDs.
+     */
+    private final String alphabet;
+    /**
+     * Keys of the rounds.
+     */
+    private final long[] roundKeys = new long[NB_ROUNDS];
+    /**
+     * First number of the IDs of each length, the index is the length.
+     */
+    private final long[] lengthStarts;
+    /**
+     * Number of IDs of each length, the index is the length.
+     */
+    private final long[] lengthSizes;
+    /**
+     * Sequence file.
+     */
+    private final RandomAccessFile sequenceFile;
+    /**
+     * Number of IDs reserved at each write of the sequence file.
+     */
+    private final int blockSize;
+    /**
+     * Next number of the sequence.
+     */
+    private final AtomicLong next;
+    /**
+     * Upper bound, exclusive, of the numbers written in the sequence file.
+     */
+    private volatile long reserved;
+
+    /**
+     * Constructs an allocator.
+     *
+     * @param file sequence file, created when it does not exist
+     * @param blockSizeVal number of IDs reserved at each write of the sequence file
+     * @param alphabetVal characters of the IDs
+     * @param key key of the scrambling
+     * @throws IOException when the sequence file cannot be read
+     */
+    public ShortIdAllocator(final File file, final int blockSizeVal, final String alphabetVal, final long key) throws IOException {
+        if (blockSizeVal < 1) {
+            throw new IllegalArgumentException("blockSize must be greater than 0");
+        }
+        if (alphabetVal == null || alphabetVal.length() < 2) {
+            throw new IllegalArgumentException("alphabet must have at least two characters");
+        }
+        this.alphabet = alphabetVal;
+        this.blockSize = blockSizeVal;
+        long roundKey = key;
+        for (int i = 0; i < NB_ROUNDS; i++) {
+            roundKey = (roundKey + 1) * MULTIPLIER;
+            this.roundKeys[i] = roundKey ^ (roundKey >>> 31);
+        }
+        // lengths whose size fits in 62 bits, so that the Feistel domain fits in a long
+        int maxLength = 0;
+        long size = 1;
+        while (size <= (1L << 62) / alphabetVal.length()) {
+            size *= alphabetVal.length();
+            maxLength++;
+        }
+        this.lengthStarts = new long[maxLength + 1];
+        this.lengthSizes = new long[maxLength + 1];
+        long start = 0;
+        size = 1;
+        for (int length = 1; length <= maxLength; length++) {
+            size *= alphabetVal.length();
+            this.lengthStarts[length] = start;
+            this.lengthSizes[length] = size;
+            start = (Long.MAX_VALUE - start < size) ? Long.MAX_VALUE : start + size;
+        }
+        this.sequenceFile = new RandomAccessFile(file, "rws");
+        this.reserved = (this.sequenceFile.length() >= Long.SIZE / Byte.SIZE) ? this.sequenceFile.readLong() : 0;
+        this.next = new AtomicLong(this.reserved);
+    }
+
+    /**
+     * Returns a new ID.
+     *
+     * @return the ID
+     * @throws IOException when the sequence file cannot be written
+     */
+    public final String nextId() throws IOException {
+        return encode(nextNumber());
+    }
+
+    /**
+     * Returns a new number of the sequence.
+     *
+     * @return the number
+     * @throws IOException when the sequence file cannot be written
+     */
+    public final long nextNumber() throws IOException {
+        final long number = next.getAndIncrement();
+        if (number >= reserved) {
+            reserve(number);
+        }
+        return number;
+    }
+
+    /**
+     * Writes in the sequence file an upper bound greater than a number.
+     *
+     * @param number number to reserve
+     * @throws IOException when the sequence file cannot be written
+     */
+    private synchronized void reserve(final long number) throws IOException {
+        if (number >= reserved) {
+            final long bound = (number / blockSize + 1) * blockSize;
+            sequenceFile.seek(0);
+            sequenceFile.writeLong(bound);
+            reserved = bound;
+        }
+    }
+
+    /**
+     * Closes the sequence file.
+     *
+     * @throws IOException when the sequence file cannot be closed
+     */
+    public final synchronized void close() throws IOException {
+        sequenceFile.close();
+    }
+
+    /**
+     * Returns the ID of a number.
+     *
+     * @param number number of the sequence
+     * @return the ID
+     */
+    public final String encode(final long number) {
+        if (number < 0) {
+            throw new IllegalArgumentException("number must be positive");
+        }
+        int length = 1;
+        while (length + 1 < lengthStarts.length && number >= lengthStarts[length + 1]) {
+            length++;
+        }
+        if (number - lengthStarts[length] >= lengthSizes[length]) {
+            throw new IllegalArgumentException("number is too large: " + number);
+        }
+        long value = permute(number - lengthStarts[length], lengthSizes[length], true);
+        final char[] characters = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            characters[i] = alphabet.charAt((int) (value % alphabet.length()));
+            value /= alphabet.length();
+        }
+        return new String(characters);
+    }
+
+    /**
+     * Returns the number of an ID.
+     *
+     * @param shorteningId ID
+     * @return the number or -1 when the ID cannot be returned by this allocator
+     */
+    public final long decode(final String shorteningId) {
+        final int length = (shorteningId == null) ? 0 : shorteningId.length();
+        if (length == 0 || length >= lengthStarts.length) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            final int digit = alphabet.indexOf(shorteningId.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * alphabet.length() + digit;
+        }
+        return lengthStarts[length] + permute(value, lengthSizes[length], false);
+    }
+
+    /**
+     * Applies the bijection of [0, size[ or its inverse.
+     *
+     * <p>
+     * The Feistel network is a bijection of the smallest domain of 2<sup>2h</sup> numbers
+     * containing [0, size[. The result is applied again while it is out of [0, size[, which
+     * gives a bijection of [0, size[.
+     * </p>
+     *
+     * @param value value in [0, size[
+     * @param size size of the domain
+     * @param isForward true for the bijection, false for its inverse
+     * @return the permuted value
+     */
+    private long permute(final long value, final long size, final boolean isForward) {
+        final int halfBits = (Long.SIZE - Long.numberOfLeadingZeros(size - 1) + 1) / 2;
+        final long mask = (1L << halfBits) - 1;
+        long result = value;
+        do {
+            long left = result >>> halfBits;
+            long right = result & mask;
+            for (int i = 0; i < NB_ROUNDS; i++) {
+                if (isForward) {
+                    final long swap = right;
+                    right = left ^ (round(right, roundKeys[i]) & mask);
+                    left = swap;
+                } else {
+                    final long swap = left;
+                    left = right ^ (round(left, roundKeys[NB_ROUNDS - 1 - i]) & mask);
+                    right = swap;
+                }
+            }
+            result = (left << halfBits) | right;
+        } while (result >= size);
+        return result;
+    }
+
+    /**
+     * Round function of the Feistel network.
+     *
+     * @param half half of the value
+     * @param roundKey key of the round
+     * @return the mixed bits
+     */
+    private static long round(final long half, final long roundKey) {
+        long mixed = (half ^ roundKey) * MULTIPLIER;
+        mixed ^= mixed >>> 32;
+        return mixed;
+    }
+}
@@ -0,0 +1,778 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.restlet.engine.Engine;
+
+/**
+ * Durable store of the shortened URLs and of their number of clicks.
+ *
+ * <p>
+ * The store is an append-only log: each put or update of the clicks writes a
+ * record at the end of the file, so a write costs one sequential write and,
+ * according to the {@link SyncMode}, one fsync shared by the concurrent
+ * writers. A record holds a CRC32, the lengths of the key and of the value,
+ * the number of clicks, the key and the value. A record of the clicks only has
+ * no value.
+ * </p>
+ *
+ * <p>
+ * An open addressing hash table in memory gives for each key the position of
+ * its last value in the log and its number of clicks. The keys are not kept in
+ * memory, they are compared in the record read from the log, so a read costs
+ * one positional read of the file, which is in the page cache for the recent
+ * records. The table takes about 20 bytes by slot.
+ * </p>
+ *
+ * <p>
+ * The table is rebuilt by reading the log when the store is opened. The log is
+ * truncated at the first record that is incomplete or whose CRC is wrong, that
+ * is to say the records being written when the server crashed.
+ * </p>
+ *
+ * <p>
+ * {@link #compact()} writes the last value of each key with its number of
+ * clicks in a new log, which replaces the former one by a rename. The reads go
+ * on in the former log during the compaction, the writes wait for its end.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class ShortUrlStore {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = Engine.getLogger(ShortUrlStore.class.getName());
+
+    /**
+     * When the log is forced to the disk.
+     */
+    public enum SyncMode {
+        /**
+         * Before a write returns, the concurrent writers share the fsync.
+         */
+        ALWAYS,
+        /**
+         * At each call of {@link ShortUrlStore#sync()}.
+         */
+        PERIODIC,
+        /**
+         * When the operating system decides it.
+         */
+        NEVER
+    }
+
+    /**
+     * Size of the record header: CRC, key length, value length and number of clicks.
+     */
+    private static final int HEADER_SIZE = 20;
+    /**
+     * Position of the number of clicks in the record.
+     */
+    private static final int CLICKS_POSITION = 12;
+    /**
+     * Value length of a record of the clicks only.
+     */
+    private static final int NO_VALUE = -1;
+    /**
+     * Number of bits of the record length in a location.
+     */
+    private static final int LENGTH_BITS = 24;
+    /**
+     * Maximum size of a record.
+     */
+    public static final int MAX_RECORD_SIZE = (1 << LENGTH_BITS) - 1;
+    /**
+     * Maximum size of the log.
+     */
+    private static final long MAX_LOG_SIZE = 1L << (Long.SIZE - 1 - LENGTH_BITS);
+    /**
+     * Initial number of slots of the table, a power of 2.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Size under which the log is not compacted by {@link #compactIfNeeded()}.
+     */
+    private static final long MIN_COMPACTION_SIZE = 1L << 20;
+    /**
+     * Size of the buffers of the load and of the compaction.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Suffix of the log being compacted.
+     */
+    private static final String COMPACTION_SUFFIX = ".compaction";
+    /**
+     * Offset basis of the FNV-1a hash.
+     */
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    /**
+     * Prime of the FNV-1a hash.
+     */
+    private static final long FNV_PRIME = 0x100000001B3L;
+    /**
+     * Encoding of the keys and of the values.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Log file.
+     */
+    private final File file;
+    /**
+     * When the log is forced to the disk.
+     */
+    private final SyncMode syncMode;
+    /**
+     * Lock of the table, the reads take the read lock, the changes of the table take the write lock.
+     */
+    private final ReadWriteLock tableLock = new ReentrantReadWriteLock();
+    /**
+     * Lock of the writers: a single writer appends to the log and changes the table.
+     */
+    private final Object appendLock = new Object();
+    /**
+     * Lock of the fsync.
+     */
+    private final Object syncLock = new Object();
+    /**
+     * Log.
+     */
+    private RandomAccessFile log;
+    /**
+     * Channel of the log.
+     */
+    private volatile FileChannel channel;
+    /**
+     * End of the written records.
+     */
+    private volatile long end;
+    /**
+     * End of the records forced to the disk.
+     */
+    private volatile long synced;
+    /**
+     * Hash of the key of each slot.
+     */
+    private int[] hashes;
+    /**
+     * Location of the last value of the key of each slot, its position shifted
+     * by {@link #LENGTH_BITS} and its length, 0 when the slot is free.
+     */
+    private long[] locations;
+    /**
+     * Number of clicks of the key of each slot.
+     */
+    private long[] clicks;
+    /**
+     * Number of keys.
+     */
+    private int size;
+    /**
+     * Total length of the records of the last values.
+     */
+    private long liveSize;
+
+    /**
+     * Opens a store, the log is created when it does not exist.
+     *
+     * @param fileVal log file
+     * @param syncModeVal when the log is forced to the disk
+     * @throws IOException when the log cannot be read
+     */
+    public ShortUrlStore(final File fileVal, final SyncMode syncModeVal) throws IOException {
+        this.file = fileVal;
+        this.syncMode = syncModeVal;
+        // compaction stopped by a crash, the log is still the former one
+        new File(fileVal.getPath() + COMPACTION_SUFFIX).delete();
+        allocate(INITIAL_CAPACITY);
+        this.log = new RandomAccessFile(fileVal, "rw");
+        this.channel = this.log.getChannel();
+        this.end = load();
+        this.synced = this.end;
+    }
+
+    /**
+     * Allocates an empty table.
+     *
+     * @param capacity number of slots, a power of 2
+     */
+    private void allocate(final int capacity) {
+        this.hashes = new int[capacity];
+        this.locations = new long[capacity];
+        this.clicks = new long[capacity];
+    }
+
+    /**
+     * Reads the log and fills the table.
+     *
+     * @return the end of the valid records
+     * @throws IOException when the log cannot be read
+     */
+    private long load() throws IOException {
+        final long length = channel.size();
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), BUFFER_SIZE));
+        final CRC32 crc = new CRC32();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        byte[] body = new byte[BUFFER_SIZE];
+        long position = 0;
+        while (length - position >= HEADER_SIZE) {
+            input.readFully(header.array());
+            final int checksum = header.getInt(0);
+            final int keyLength = header.getInt(4);
+            final int valueLength = header.getInt(8);
+            final long nbClicks = header.getLong(CLICKS_POSITION);
+            final long recordLength = (long) HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+            if (keyLength < 0 || valueLength < NO_VALUE || recordLength > MAX_RECORD_SIZE || recordLength > length - position) {
+                break;
+            }
+            final int bodyLength = (int) recordLength - HEADER_SIZE;
+            if (body.length < bodyLength) {
+                body = new byte[bodyLength];
+            }
+            input.readFully(body, 0, bodyLength);
+            crc.reset();
+            crc.update(header.array(), 4, HEADER_SIZE - 4);
+            crc.update(body, 0, bodyLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            final byte[] key = Arrays.copyOf(body, keyLength);
+            final int hash = hash(key);
+            final int slot = findSlot(key, hash);
+            if (valueLength != NO_VALUE) {
+                setValue(slot, hash, location(position, (int) recordLength), nbClicks);
+            } else if (slot >= 0) {
+                clicks[slot] = nbClicks;
+            }
+            position += recordLength;
+        }
+        if (position < length) {
+            LOG.log(Level.WARNING, "{0}: {1} bytes of incomplete records are removed", new Object[]{file, length - position});
+            channel.truncate(position);
+            channel.force(true);
+        }
+        return position;
+    }
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key key
+     * @return the value or null when the key is not in the store
+     * @throws IOException when the log cannot be read
+     */
+    public final String get(final String key) throws IOException {
+        final byte[] keyBytes = key.getBytes(UTF8);
+        final int hash = hash(keyBytes);
+        tableLock.readLock().lock();
+        try {
+            final int mask = locations.length - 1;
+            for (int slot = hash & mask; locations[slot] != 0; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash) {
+                    final ByteBuffer record = read(locations[slot]);
+                    if (hasKey(record, keyBytes)) {
+                        final int offset = HEADER_SIZE + keyBytes.length;
+                        return new String(record.array(), offset, record.capacity() - offset, UTF8);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of clicks of a key.
+     *
+     * @param key key
+     * @return the number of clicks or -1 when the key is not in the store
+     * @throws IOException when the log cannot be read
+     */
+    public final long getNbClicks(final String key) throws IOException {
+        final byte[] keyBytes = key.getBytes(UTF8);
+        tableLock.readLock().lock();
+        try {
+            final int slot = findSlot(keyBytes, hash(keyBytes));
+            return (slot < 0) ? -1 : clicks[slot];
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of keys.
+     *
+     * @return the number of keys
+     */
+    public final int size() {
+        tableLock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the value of a key, the number of clicks of the key is kept.
+     *
+     * @param key key
+     * @param value value
+     * @throws IOException when the log cannot be written
+     */
+    public final void put(final String key, final String value) throws IOException {
+        write(key, value, true);
+    }
+
+    /**
+     * Stores the value of a key when the key is not in the store.
+     *
+     * @param key key
+     * @param value value
+     * @return false when the key is already in the store, its value is then kept
+     * @throws IOException when the log cannot be written
+     */
+    public final boolean putIfAbsent(final String key, final String value) throws IOException {
+        return write(key, value, false);
+    }
+
+    /**
+     * Stores the value of a key.
+     *
+     * @param key key
+     * @param value value
+     * @param isReplaced true to replace the value of a key already in the store
+     * @return false when the key is already in the store and its value is not replaced
+     * @throws IOException when the log cannot be written
+     */
+    private boolean write(final String key, final String value, final boolean isReplaced) throws IOException {
+        final byte[] keyBytes = key.getBytes(UTF8);
+        final byte[] valueBytes = value.getBytes(UTF8);
+        if ((long) HEADER_SIZE + keyBytes.length + valueBytes.length > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("The record of " + key + " is larger than " + MAX_RECORD_SIZE + " bytes");
+        }
+        final int hash = hash(keyBytes);
+        final long recordEnd;
+        synchronized (appendLock) {
+            // the table only changes under the append lock, it is read here without the table lock
+            final int slot = findSlot(keyBytes, hash);
+            if (slot >= 0 && !isReplaced) {
+                return false;
+            }
+            final long nbClicks = (slot < 0) ? 0 : clicks[slot];
+            final ByteBuffer record = encode(keyBytes, valueBytes, nbClicks);
+            final long position = append(record);
+            tableLock.writeLock().lock();
+            try {
+                setValue(slot, hash, location(position, record.capacity()), nbClicks);
+            } finally {
+                tableLock.writeLock().unlock();
+            }
+            recordEnd = end;
+        }
+        if (syncMode == SyncMode.ALWAYS) {
+            syncTo(recordEnd);
+        }
+        return true;
+    }
+
+    /**
+     * Adds clicks to a key.
+     *
+     * @param key key
+     * @param nbClicks number of clicks to add
+     * @return false when the key is not in the store
+     * @throws IOException when the log cannot be written
+     */
+    public final boolean addClicks(final String key, final long nbClicks) throws IOException {
+        final byte[] keyBytes = key.getBytes(UTF8);
+        final long recordEnd;
+        synchronized (appendLock) {
+            final int slot = findSlot(keyBytes, hash(keyBytes));
+            if (slot < 0) {
+                return false;
+            }
+            final long total = clicks[slot] + nbClicks;
+            append(encode(keyBytes, null, total));
+            tableLock.writeLock().lock();
+            try {
+                clicks[slot] = total;
+            } finally {
+                tableLock.writeLock().unlock();
+            }
+            recordEnd = end;
+        }
+        if (syncMode == SyncMode.ALWAYS) {
+            syncTo(recordEnd);
+        }
+        return true;
+    }
+
+    /**
+     * Forces the written records to the disk.
+     *
+     * @throws IOException when the log cannot be forced
+     */
+    public final void sync() throws IOException {
+        syncTo(end);
+    }
+
+    /**
+     * Returns when the log is forced to the disk.
+     *
+     * @return the sync mode
+     */
+    public final SyncMode getSyncMode() {
+        return syncMode;
+    }
+
+    /**
+     * Forces the log to the disk up to a position.
+     *
+     * <p>
+     * The writers that wait for the lock while an fsync is done are released
+     * by the next fsync, which covers all their records.
+     * </p>
+     *
+     * @param position end of the records to force
+     * @throws IOException when the log cannot be forced
+     */
+    private void syncTo(final long position) throws IOException {
+        if (synced >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced < position) {
+                final long target = end;
+                channel.force(false);
+                synced = target;
+            }
+        }
+    }
+
+    /**
+     * Compacts the log when the former records take more room than the last ones.
+     *
+     * @return true when the log has been compacted
+     * @throws IOException when the log cannot be compacted
+     */
+    public final boolean compactIfNeeded() throws IOException {
+        synchronized (appendLock) {
+            if (end < MIN_COMPACTION_SIZE || end - liveSize <= liveSize) {
+                return false;
+            }
+            compact();
+            return true;
+        }
+    }
+
+    /**
+     * Replaces the log by a log of the last value of each key with its number of clicks.
+     *
+     * @throws IOException when the log cannot be compacted, the former log is then kept
+     */
+    public final void compact() throws IOException {
+        synchronized (appendLock) {
+            synchronized (syncLock) {
+                final File compactionFile = new File(file.getPath() + COMPACTION_SUFFIX);
+                final RandomAccessFile compactionLog = new RandomAccessFile(compactionFile, "rw");
+                final long[] compactedLocations = new long[locations.length];
+                long position = 0;
+                try {
+                    compactionLog.setLength(0);
+                    final OutputStream output = new BufferedOutputStream(Channels.newOutputStream(compactionLog.getChannel()), BUFFER_SIZE);
+                    for (int slot = 0; slot < locations.length; slot++) {
+                        if (locations[slot] != 0) {
+                            final ByteBuffer record = read(locations[slot]);
+                            if (record.getLong(CLICKS_POSITION) != clicks[slot]) {
+                                record.putLong(CLICKS_POSITION, clicks[slot]);
+                                record.putInt(0, checksum(record));
+                            }
+                            output.write(record.array());
+                            compactedLocations[slot] = location(position, record.capacity());
+                            position += record.capacity();
+                        }
+                    }
+                    output.flush();
+                    compactionLog.getChannel().force(true);
+                    if (!compactionFile.renameTo(file)) {
+                        throw new IOException("Cannot rename " + compactionFile + " to " + file);
+                    }
+                } catch (IOException ex) {
+                    compactionLog.close();
+                    compactionFile.delete();
+                    throw ex;
+                }
+                final RandomAccessFile formerLog = log;
+                tableLock.writeLock().lock();
+                try {
+                    locations = compactedLocations;
+                    log = compactionLog;
+                    channel = compactionLog.getChannel();
+                } finally {
+                    tableLock.writeLock().unlock();
+                }
+                LOG.log(Level.INFO, "{0} compacted from {1} to {2} bytes", new Object[]{file, end, position});
+                end = position;
+                synced = position;
+                liveSize = position;
+                formerLog.close();
+            }
+        }
+    }
+
+    /**
+     * Forces the log to the disk, unless the sync mode is NEVER, and closes it.
+     *
+     * @throws IOException when the log cannot be closed
+     */
+    public final void close() throws IOException {
+        synchronized (appendLock) {
+            synchronized (syncLock) {
+                if (syncMode != SyncMode.NEVER) {
+                    channel.force(false);
+                }
+                log.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a record at the end of the log.
+     *
+     * @param record record
+     * @return the position of the record
+     * @throws IOException when the log cannot be written
+     */
+    private long append(final ByteBuffer record) throws IOException {
+        final long position = end;
+        if (position + record.capacity() > MAX_LOG_SIZE) {
+            throw new IOException(file + " is full, it must be compacted");
+        }
+        while (record.hasRemaining()) {
+            channel.write(record, position + record.position());
+        }
+        // a record partially written is overwritten by the next one, or removed by the next load
+        end = position + record.capacity();
+        return position;
+    }
+
+    /**
+     * Reads a record.
+     *
+     * @param location location of the record
+     * @return the record
+     * @throws IOException when the log cannot be read
+     */
+    private ByteBuffer read(final long location) throws IOException {
+        final long position = location >>> LENGTH_BITS;
+        final ByteBuffer record = ByteBuffer.allocate((int) (location & MAX_RECORD_SIZE));
+        while (record.hasRemaining()) {
+            if (channel.read(record, position + record.position()) < 0) {
+                throw new EOFException("The record at " + position + " is out of " + file);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Returns a record.
+     *
+     * @param key key
+     * @param value value or null for a record of the clicks only
+     * @param nbClicks number of clicks
+     * @return the record
+     */
+    private static ByteBuffer encode(final byte[] key, final byte[] value, final long nbClicks) {
+        final int valueLength = (value == null) ? 0 : value.length;
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + key.length + valueLength);
+        record.putInt(0);
+        record.putInt(key.length);
+        record.putInt((value == null) ? NO_VALUE : valueLength);
+        record.putLong(nbClicks);
+        record.put(key);
+        if (value != null) {
+            record.put(value);
+        }
+        record.putInt(0, checksum(record));
+        record.rewind();
+        return record;
+    }
+
+    /**
+     * Returns the CRC of a record, computed after the CRC field.
+     *
+     * @param record record
+     * @return the CRC
+     */
+    private static int checksum(final ByteBuffer record) {
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.capacity() - 4);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns true when a record has a key.
+     *
+     * @param record record
+     * @param key key
+     * @return true when the record has the key
+     */
+    private static boolean hasKey(final ByteBuffer record, final byte[] key) {
+        if (record.getInt(4) != key.length) {
+            return false;
+        }
+        final byte[] bytes = record.array();
+        for (int i = 0; i < key.length; i++) {
+            if (bytes[HEADER_SIZE + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the slot of a key.
+     *
+     * @param key key
+     * @param hash hash of the key
+     * @return the slot, or -(free slot) - 1 when the key is not in the table
+     * @throws IOException when the log cannot be read
+     */
+    private int findSlot(final byte[] key, final int hash) throws IOException {
+        final int mask = locations.length - 1;
+        int slot = hash & mask;
+        while (locations[slot] != 0) {
+            if (hashes[slot] == hash && hasKey(read(locations[slot]), key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    /**
+     * Sets the value of a key in the table.
+     *
+     * @param slot slot of the key as returned by {@link #findSlot(byte[], int)}
+     * @param hash hash of the key
+     * @param location location of the record
+     * @param nbClicks number of clicks
+     */
+    private void setValue(final int slot, final int hash, final long location, final long nbClicks) {
+        int index = slot;
+        if (index >= 0) {
+            liveSize -= locations[index] & MAX_RECORD_SIZE;
+        } else if ((size + 1) * 4L > locations.length * 3L) {
+            grow();
+            index = -1;
+            final int mask = locations.length - 1;
+            for (int free = hash & mask; index < 0; free = (free + 1) & mask) {
+                if (locations[free] == 0) {
+                    index = free;
+                }
+            }
+            size++;
+        } else {
+            index = -index - 1;
+            size++;
+        }
+        hashes[index] = hash;
+        locations[index] = location;
+        clicks[index] = nbClicks;
+        liveSize += location & MAX_RECORD_SIZE;
+    }
+
+    /**
+     * Doubles the number of slots of the table.
+     */
+    private void grow() {
+        final int[] formerHashes = hashes;
+        final long[] formerLocations = locations;
+        final long[] formerClicks = clicks;
+        allocate(formerLocations.length * 2);
+        final int mask = locations.length - 1;
+        for (int i = 0; i < formerLocations.length; i++) {
+            if (formerLocations[i] != 0) {
+                int slot = formerHashes[i] & mask;
+                while (locations[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = formerHashes[i];
+                locations[slot] = formerLocations[i];
+                clicks[slot] = formerClicks[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the location of a record.
+     *
+     * @param position position of the record
+     * @param length length of the record
+     * @return the location
+     */
+    private static long location(final long position, final int length) {
+        return (position << LENGTH_BITS) | length;
+    }
+
+    /**
+     * Returns the hash of a key.
+     *
+     * <p>
+     * The short IDs collide often with a polynomial hash such as
+     * {@link Arrays#hashCode(byte[])}, and each collision costs a read of the
+     * log, so the bytes are hashed by FNV-1a on 64 bits, then mixed.
+     * </p>
+     *
+     * @param key key
+     * @return the hash
+     */
+    private static int hash(final byte[] key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte keyByte : key) {
+            hash = (hash ^ (keyByte & 0xFF)) * FNV_PRIME;
+        }
+        hash ^= hash >>> 32;
+        hash *= 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32);
+    }
+}
@@ -18,15 +18,19 @@
  ******************************************************************************/
 package fr.cnes.sitools.extensions.cache;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
-import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.config.DiskStoreConfiguration;
 
 import org.restlet.data.LocalReference;
 import org.restlet.engine.Engine;
@@ -36,6 +40,24 @@ import org.restlet.resource.ClientResource;
 /**
  * Singleton for server cache based on Shortner URL.
  *
+ * <p>
+ * The shortening IDs are allocated by {@link ShortIdAllocator} from a sequence
+ * stored in the disk store directory of the cache, so that no ID is given twice
+ * and no retry is needed. The clicks are counted by {@link ClickCounters} and
+ * added to the store every {@link #FLUSH_PERIOD} seconds.
+ * </p>
+ *
+ * <p>
+ * The configs and their clicks are stored by {@link ShortUrlStore} in a log
+ * next to the sequence file, which is the source of truth: the cache only keeps
+ * the configs that are read often, a config evicted from the cache is read
+ * again from the store. The log is forced to the disk at each write, or every
+ * {@link #FLUSH_PERIOD} seconds or never, according to the system property
+ * {@link #SYNC_PROPERTY} whose values are those of {@link ShortUrlStore.SyncMode}.
+ * {@link #stop()} writes the last clicks and closes the files when the
+ * application stops.
+ * </p>
+ *
  * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
  */
 public class SingletonCacheShortnerURL {
@@ -44,10 +66,6 @@ public class SingletonCacheShortnerURL {
      */
     private static final Logger LOG = Engine.getLogger(SingletonCacheShortnerURL.class.getName());
 
-    /**
-     * Maximum number of URLS that the service can manage.
-     */
-    private static final int NUMBER_URLS = 238327;
     /**
      * Cache name for this service.
      */
@@ -69,6 +87,43 @@ public class SingletonCacheShortnerURL {
             + "ABCDEFGHJKLMNPRSTUVWXYZ"
             + "abcdefghjkmnpqrstuvwxyz";
 
+    /**
+     * File of the sequence of the IDs, in the disk store directory.
+     */
+    private static final String SEQUENCE_FILE = "ShortenerUrl.seq";
+    /**
+     * File of the configs and of their clicks, in the disk store directory.
+     */
+    private static final String STORE_FILE = "ShortenerUrl.log";
+    /**
+     * System property giving when the store is forced to the disk, ALWAYS by default.
+     */
+    public static final String SYNC_PROPERTY = "fr.cnes.sitools.extensions.cache.shortener.sync";
+    /**
+     * Key of the scrambling of the IDs.
+     */
+    private static final long ID_KEY = 0x5172C5L;
+    /**
+     * Period in seconds between two flushes of the clicks in the cache.
+     */
+    public static final int FLUSH_PERIOD = 10;
+    /**
+     * Clicks that are not flushed in the cache.
+     */
+    private static final ClickCounters CLICKS = new ClickCounters();
+    /**
+     * ID allocator, created with the cache.
+     */
+    private static ShortIdAllocator idAllocator;
+    /**
+     * Store of the configs, created with the cache.
+     */
+    private static ShortUrlStore store;
+    /**
+     * Flush of the clicks, started with the cache.
+     */
+    private static ScheduledExecutorService flushService;
+
     /**
      * Cache configuration.
      */
@@ -80,74 +135,137 @@ public class SingletonCacheShortnerURL {
     protected SingletonCacheShortnerURL() {
         try {
             CacheManager.create(cacheConf.getStream());
+            startServices(CacheManager.getInstance());
         } catch (IOException ex) {
             Engine.getLogger(SingletonCacheShortnerURL.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
     /**
-     * Creates the cache.
+     * Creates the ID allocator and the store and starts the flush of the clicks, once.
+     *
+     * @param cacheMgt cache manager
+     * @throws IOException when the sequence file or the store cannot be read
      */
-    public static void create() {
-        new SingletonCacheShortnerURL();
+    private static synchronized void startServices(final CacheManager cacheMgt) throws IOException {
+        if (idAllocator == null) {
+            final DiskStoreConfiguration diskStore = cacheMgt.getConfiguration().getDiskStoreConfiguration();
+            final File directory = new File((diskStore == null) ? DiskStoreConfiguration.getDefaultPath() : diskStore.getPath());
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create the directory " + directory);
+            }
+            final ShortUrlStore.SyncMode syncMode = ShortUrlStore.SyncMode.valueOf(System.getProperty(SYNC_PROPERTY, ShortUrlStore.SyncMode.ALWAYS.name()));
+            store = new ShortUrlStore(new File(directory, STORE_FILE), syncMode);
+            idAllocator = new ShortIdAllocator(new File(directory, SEQUENCE_FILE), ShortIdAllocator.DEFAULT_BLOCK_SIZE, ALPHANUMERICALT, ID_KEY);
+        }
+        if (flushService == null) {
+            flushService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, CACHE_NAME + "-clicks");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            flushService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushClicks();
+                        if (getStore().getSyncMode() == ShortUrlStore.SyncMode.PERIODIC) {
+                            getStore().sync();
+                        }
+                        getStore().compactIfNeeded();
+                    } catch (IOException ex) {
+                        LOG.log(Level.WARNING, "Cannot write the store", ex);
+                    } catch (RuntimeException ex) {
+                        LOG.log(Level.WARNING, "Cannot flush the clicks", ex);
+                    }
+                }
+            }, FLUSH_PERIOD, FLUSH_PERIOD, TimeUnit.SECONDS);
+        }
     }
 
     /**
-     * Returns the cache instance.
+     * Stops the flush of the clicks, flushes the last clicks and closes the store and the ID allocator.
      *
-     * @return the cache instance
+     * <p>The services are started again by {@link #create()}.</p>
      */
-    public static CacheManager getInstance() {
-        return CacheManager.getInstance();
+    public static synchronized void stop() {
+        if (flushService != null) {
+            flushService.shutdown();
+            try {
+                if (!flushService.awaitTermination(FLUSH_PERIOD, TimeUnit.SECONDS)) {
+                    LOG.log(Level.WARNING, "The flush of the clicks is not finished");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            flushService = null;
+        }
+        if (store != null) {
+            try {
+                flushClicks();
+            } catch (RuntimeException ex) {
+                LOG.log(Level.SEVERE, "Cannot flush the clicks", ex);
+            }
+            try {
+                store.close();
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "Cannot close the store", ex);
+            } finally {
+                store = null;
+            }
+        }
+        if (idAllocator != null) {
+            try {
+                idAllocator.close();
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "Cannot close the sequence file", ex);
+            } finally {
+                idAllocator = null;
+            }
+        }
     }
 
     /**
-     * Creates an Id with an uniform distribution.
+     * Returns the ID allocator.
      *
-     * @return the Id
+     * @return the ID allocator
      */
-    private static int generateId() {
-        final Random rand = new Random();
-        return rand.nextInt(NUMBER_URLS + 1);
+    private static synchronized ShortIdAllocator getIdAllocator() {
+        if (idAllocator == null) {
+            throw new IllegalStateException("The cache is not created");
+        }
+        return idAllocator;
     }
 
     /**
-     * Converts the input to the base.
+     * Returns the store of the configs.
      *
-     * @param input Identifier to convert
-     * @param baseChars the base that is used for the conversion (alphanumeric
-     * or alphanumeric_alt)
-     * @return the input that is converted to the base
+     * @return the store
      */
-    private static String toBase(final long input, final String baseChars) {
-        long inputVal = input;
-        String shorteningId = "";
-        final int targetBase = baseChars.length();
-        do {
-            shorteningId = String.format("%s%s", String.valueOf(baseChars.charAt((int) (inputVal % targetBase))), shorteningId);
-            inputVal /= targetBase;
-        } while (inputVal > 0);
+    private static synchronized ShortUrlStore getStore() {
+        if (store == null) {
+            throw new IllegalStateException("The cache is not created");
+        }
+        return store;
+    }
 
-        return shorteningId;
+    /**
+     * Creates the cache.
+     */
+    public static void create() {
+        new SingletonCacheShortnerURL();
     }
 
     /**
-     * The inverse algorithm of toBase.
+     * Returns the cache instance.
      *
-     * @param input shortener id to convert to number
-     * @param baseChars the base that is used
-     * @return the shortener value that is converted to a number
+     * @return the cache instance
      */
-    private static int fromBase(final String input, final String baseChars) {
-        final int srcBase = baseChars.length();
-        int urlId = 0;
-        final String reverseString = new StringBuilder(input).reverse().toString();
-
-        for (int i = 0; i < reverseString.length(); i++) {
-            final int charIndex = baseChars.indexOf(reverseString.charAt(i));
-            urlId += (int) (charIndex * Math.pow((double) srcBase, (double) i));
-        }
-        return urlId;
+    public static CacheManager getInstance() {
+        return CacheManager.getInstance();
     }
 
     /**
@@ -157,14 +275,26 @@ public class SingletonCacheShortnerURL {
      * @return a shortening Id
      */
     public static final String putConfig(final String config) {
-        int configId;
+        String shorteningId;
+        try {
+            shorteningId = getIdAllocator().nextId();
+            // the IDs of the store are skipped when the sequence file has been lost or reset
+            int nbSkippedIds = 0;
+            while (!getStore().putIfAbsent(shorteningId, config)) {
+                nbSkippedIds++;
+                shorteningId = getIdAllocator().nextId();
+            }
+            if (nbSkippedIds > 0) {
+                LOG.log(Level.WARNING, "{0} shortening IDs already in the store have been skipped, {1} may have been reset",
+                        new Object[]{nbSkippedIds, SEQUENCE_FILE});
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot store the config", ex);
+        }
         final CacheManager cacheMgt = SingletonCacheShortnerURL.getInstance();
         final Cache cache = cacheMgt.getCache(CACHE_NAME);
-        do {
-            configId = generateId();
-        } while (cache.isKeyInCache(configId));
-        cache.put(new Element(configId, new ConfigCache(config)));
-        return toBase(configId, ALPHANUMERICALT);
+        cache.put(new Element(shorteningId, config));
+        return shorteningId;
     }
 
     /**
@@ -173,99 +303,70 @@ public class SingletonCacheShortnerURL {
      * @param shorteningId
      * <p>
      * Raise an IllegalArgumentException when <code>shorteningId</code> is not
-     * in the cache
+     * in the store
      * </p>
      * @return an URL
      */
     public static final String getConfig(final String shorteningId) {
-        String result;
-        final int storeId = fromBase(shorteningId, ALPHANUMERICALT);
         final CacheManager cacheMgt = SingletonCacheShortnerURL.getInstance();
         final Cache cache = cacheMgt.getCache(CACHE_NAME);
-        if (cache.isKeyInCache(storeId)) {
-            LOG.log(Level.INFO, "Cache is used for: {0}", storeId);
-            final ConfigCache configCache = (ConfigCache) cache.get(storeId).getObjectValue();
-            result = configCache.getConfig();
-            configCache.setNbClicks(configCache.getNbClicks() + 1);
-            cache.put(new Element(storeId, configCache));
-        } else {            
-            throw new IllegalArgumentException("Cannot find the record in the cache");
+        final Element element = cache.get(shorteningId);
+        final String config;
+        if (element == null) {
+            try {
+                config = getStore().get(shorteningId);
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot read the store", ex);
+            }
+            if (config == null) {
+                throw new IllegalArgumentException("Cannot find the record in the store");
+            }
+            cache.put(new Element(shorteningId, config));
+        } else {
+            LOG.log(Level.INFO, "Cache is used for: {0}", shorteningId);
+            config = (String) element.getObjectValue();
         }
-        return result;
+        CLICKS.increment(shorteningId);
+        return config;
     }
 
     /**
-     * Creates cache of the MIZAR config and also about its number of access.
+     * Returns the number of clicks on a shortening ID.
+     *
+     * @param shorteningId
+     * <p>
+     * Raise an IllegalArgumentException when <code>shorteningId</code> is not
+     * in the store
+     * </p>
+     * @return the number of clicks, flushed or not
      */
-    private static class ConfigCache implements Serializable {
-
-        /**
-         * Serial version.
-         */
-        private static final long serialVersionUID = 1L;
-        /**
-         * The URL to bookmark.
-         */
-        private String config;
-        /**
-         * The number of access on this URL.
-         */
-        private int nbClicks;
-
-        /**
-         * Constructor.
-         *
-         * @param configVal URL
-         */
-        public ConfigCache(final String configVal) {
-            this(configVal, 0);
-        }
-
-        /**
-         * Constructor.
-         *
-         * @param configVal URL
-         * @param nbClicksVal number of clicks that has been done on this URL.
-         */
-        public ConfigCache(final String configVal, final int nbClicksVal) {
-            setConfig(configVal);
-            setNbClicks(nbClicksVal);
-        }
-
-        /**
-         * Sets the config.
-         *
-         * @param configVal config
-         */
-        private void setConfig(final String configVal) {
-            this.config = configVal;
-        }
-
-        /**
-         * Returns the config.
-         *
-         * @return the config
-         */
-        public final String getConfig() {
-            return this.config;
+    public static final long getNbClicks(final String shorteningId) {
+        final long nbClicks;
+        try {
+            nbClicks = getStore().getNbClicks(shorteningId);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read the store", ex);
         }
-
-        /**
-         * Return the number of clicks.
-         *
-         * @return the nbClicks
-         */
-        public final int getNbClicks() {
-            return nbClicks;
+        if (nbClicks < 0) {
+            throw new IllegalArgumentException("Cannot find the record in the store");
         }
+        return nbClicks + CLICKS.getPending(shorteningId);
+    }
 
-        /**
-         * Sets the number of clicks.
-         *
-         * @param nbClicksVal the nbClicks to set
-         */
-        public final void setNbClicks(final int nbClicksVal) {
-            this.nbClicks = nbClicksVal;
-        }
+    /**
+     * Adds the clicks counted since the last flush to the store.
+     */
+    public static final void flushClicks() {
+        final ShortUrlStore clicksStore = getStore();
+        CLICKS.flush(new ClickCounters.Sink() {
+            @Override
+            public void add(final Object key, final long nbClicks) {
+                try {
+                    clicksStore.addClicks((String) key, nbClicks);
+                } catch (IOException ex) {
+                    throw new IllegalStateException("Cannot write the clicks of " + key, ex);
+                }
+            }
+        });
     }
 }
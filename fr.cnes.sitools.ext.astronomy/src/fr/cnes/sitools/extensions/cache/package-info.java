@@ -1,10 +1,11 @@
 /**
  This package contains the cache classes.
 <p>
-Two cache systems are available:
+Three cache systems are available:
 <ul>
 <li>a cache directive for the browsers</li>
 <li>a server cache based on Healpix</li>
+<li>a server cache of the shortened URLs, with IDs from a persistent sequence, clicks counted in memory and an append-only log on disk as source of truth</li>
 </ul>
 </p>
 <p>
@@ -0,0 +1,330 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.security;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the authorization decisions of {@link FineGrainedAccessRight} for a short time.
+ *
+ * <p>
+ * The decisions are shared by the users having the same set of roles. When a
+ * file is requested, the accessible files of its directory are loaded in a
+ * single query, so that the next files of the same directory, which usually
+ * belong to the same dataset, are authorized from memory. When a directory has
+ * more than <code>maxPrefetchedFiles</code> accessible files, the decisions
+ * are loaded and kept file by file.
+ * </p>
+ *
+ * <p>
+ * A decision is kept at most <code>timeToLive</code> ms, so that a change in
+ * the access right table is applied after this delay. Both the directories and
+ * the decisions are kept in LRU maps of <code>cacheSize</code> entries. The
+ * least recently used directories are also removed while the directories hold
+ * more than <code>maxCachedFiles</code> files in total.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class AccessRightCache {
+
+    /**
+     * Default time to live of a decision in ms.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 30000;
+    /**
+     * Default number of directories and of decisions kept in memory.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+    /**
+     * Default maximum number of accessible files loaded for a directory.
+     */
+    public static final int DEFAULT_MAX_PREFETCHED_FILES = 50000;
+    /**
+     * Default maximum number of accessible files kept in memory for all the directories.
+     */
+    public static final int DEFAULT_MAX_CACHED_FILES = 200000;
+    /**
+     * Separator of the role names and of the filename in the keys.
+     */
+    private static final char SEPARATOR = '\n';
+
+    /**
+     * Loads the access rights.
+     */
+    public interface Loader {
+
+        /**
+         * Returns <code>true</code> when a file is accessible for one of the roles.
+         *
+         * @param filename filename
+         * @param roles role names
+         * @return <code>true</code> when the file is accessible
+         * @throws SQLException SQL exception
+         */
+        boolean isAuthorized(final String filename, final List<String> roles) throws SQLException;
+
+        /**
+         * Returns the accessible files of a directory for one of the roles.
+         *
+         * <p>A file that is more than once in the result is not accessible, as for {@link #isAuthorized(String, List)}.</p>
+         *
+         * @param directory directory, ending with "/", or an empty string for the root
+         * @param roles role names
+         * @param maxFiles maximum number of files
+         * @return the accessible files, or null when there are more than <code>maxFiles</code> files
+         * @throws SQLException SQL exception
+         */
+        Collection<String> getAuthorizedFiles(final String directory, final List<String> roles, final int maxFiles) throws SQLException;
+    }
+
+    /**
+     * Loader.
+     */
+    private final Loader loader;
+    /**
+     * Time to live of a decision in ms.
+     */
+    private final long timeToLive;
+    /**
+     * Maximum number of accessible files loaded for a directory.
+     */
+    private final int maxPrefetchedFiles;
+    /**
+     * Maximum number of directories kept in memory.
+     */
+    private final int maxDirectories;
+    /**
+     * Maximum number of accessible files kept in memory for all the directories.
+     */
+    private final int maxCachedFiles;
+    /**
+     * Accessible files by roles and directory, null when the directory has too many files.
+     */
+    private final Map<String, Expirable<Set<String>>> directories;
+    /**
+     * Number of accessible files kept in <code>directories</code>.
+     */
+    private long nbCachedFiles = 0;
+    /**
+     * Decisions by roles and filename, for the directories with too many files.
+     */
+    private final Map<String, Expirable<Boolean>> decisions;
+
+    /**
+     * Constructs a cache.
+     *
+     * @param loaderVal loader of the access rights
+     * @param timeToLiveVal time to live of a decision in ms
+     * @param cacheSize number of directories and of decisions kept in memory
+     * @param maxPrefetchedFilesVal maximum number of accessible files loaded for a directory
+     * @param maxCachedFilesVal maximum number of accessible files kept in memory for all the directories
+     */
+    public AccessRightCache(final Loader loaderVal, final long timeToLiveVal, final int cacheSize, final int maxPrefetchedFilesVal,
+            final int maxCachedFilesVal) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cacheSize must be positive");
+        }
+        this.loader = loaderVal;
+        this.timeToLive = timeToLiveVal;
+        // a directory with more files than the whole cache would be removed as soon as it is loaded
+        this.maxPrefetchedFiles = Math.min(maxPrefetchedFilesVal, maxCachedFilesVal);
+        this.maxDirectories = cacheSize;
+        this.maxCachedFiles = maxCachedFilesVal;
+        this.directories = new LinkedHashMap<String, Expirable<Set<String>>>(cacheSize + 1, 0.75f, true);
+        this.decisions = createLruMap(cacheSize);
+    }
+
+    /**
+     * Returns a LRU map.
+     *
+     * @param <V> value type
+     * @param cacheSize maximum number of entries
+     * @return the map
+     */
+    private static <V> Map<String, V> createLruMap(final int cacheSize) {
+        return new LinkedHashMap<String, V>(cacheSize + 1, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Returns <code>true</code> when a file is accessible for one of the roles.
+     *
+     * @param filename filename, relative to the data storage
+     * @param roles role names of the user
+     * @return <code>true</code> when the file is accessible
+     * @throws SQLException SQL exception
+     */
+    public boolean isAuthorized(final String filename, final Collection<String> roles) throws SQLException {
+        if (roles.isEmpty()) {
+            return false;
+        }
+        final List<String> sortedRoles = new ArrayList<String>(roles);
+        Collections.sort(sortedRoles);
+        final StringBuilder rolesKey = new StringBuilder();
+        for (String role : sortedRoles) {
+            rolesKey.append(role).append(SEPARATOR);
+        }
+        final String directory = filename.substring(0, filename.lastIndexOf('/') + 1);
+        final String directoryKey = rolesKey + directory;
+        final long now = System.currentTimeMillis();
+
+        Expirable<Set<String>> files;
+        synchronized (directories) {
+            files = directories.get(directoryKey);
+        }
+        if (files == null || files.isExpired(now)) {
+            final Collection<String> authorizedFiles = loader.getAuthorizedFiles(directory, sortedRoles, maxPrefetchedFiles);
+            files = new Expirable<Set<String>>(toSet(authorizedFiles), now + timeToLive);
+            putDirectory(directoryKey, files);
+        }
+        if (files.value != null) {
+            return files.value.contains(filename);
+        }
+
+        // too many files in the directory
+        final String decisionKey = rolesKey + filename;
+        Expirable<Boolean> decision;
+        synchronized (decisions) {
+            decision = decisions.get(decisionKey);
+        }
+        if (decision == null || decision.isExpired(now)) {
+            decision = new Expirable<Boolean>(loader.isAuthorized(filename, sortedRoles), now + timeToLive);
+            synchronized (decisions) {
+                decisions.put(decisionKey, decision);
+            }
+        }
+        return decision.value;
+    }
+
+    /**
+     * Keeps the accessible files of a directory and removes the least recently used directories
+     * while there are more than <code>maxDirectories</code> directories or <code>maxCachedFiles</code> files.
+     *
+     * @param directoryKey roles and directory
+     * @param files accessible files
+     */
+    private void putDirectory(final String directoryKey, final Expirable<Set<String>> files) {
+        synchronized (directories) {
+            nbCachedFiles += size(files) - size(directories.put(directoryKey, files));
+            final Iterator<Expirable<Set<String>>> iter = directories.values().iterator();
+            while (directories.size() > maxDirectories || nbCachedFiles > maxCachedFiles) {
+                nbCachedFiles -= size(iter.next());
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of accessible files of a directory.
+     *
+     * @param files accessible files or null
+     * @return the number of files
+     */
+    private static int size(final Expirable<Set<String>> files) {
+        return (files == null || files.value == null) ? 0 : files.value.size();
+    }
+
+    /**
+     * Removes all the decisions.
+     */
+    public void clear() {
+        synchronized (directories) {
+            directories.clear();
+            nbCachedFiles = 0;
+        }
+        synchronized (decisions) {
+            decisions.clear();
+        }
+    }
+
+    /**
+     * Returns the files that are only once in the collection.
+     *
+     * @param files files or null
+     * @return the files or null
+     */
+    private static Set<String> toSet(final Collection<String> files) {
+        if (files == null) {
+            return null;
+        }
+        final Set<String> result = new HashSet<String>(files.size() * 4 / 3 + 1);
+        final Set<String> duplicates = new HashSet<String>();
+        for (String file : files) {
+            if (!result.add(file)) {
+                duplicates.add(file);
+            }
+        }
+        result.removeAll(duplicates);
+        return result;
+    }
+
+    /**
+     * Value with an expiration time.
+     *
+     * @param <V> value type
+     */
+    private static final class Expirable<V> {
+
+        /**
+         * Value.
+         */
+        private final V value;
+        /**
+         * Expiration time in ms.
+         */
+        private final long expiration;
+
+        /**
+         * Constructs an expirable value.
+         *
+         * @param valueVal value
+         * @param expirationVal expiration time in ms
+         */
+        private Expirable(final V valueVal, final long expirationVal) {
+            this.value = valueVal;
+            this.expiration = expirationVal;
+        }
+
+        /**
+         * Returns <code>true</code> when the value is expired.
+         *
+         * @param now current time in ms
+         * @return <code>true</code> when the value is expired
+         */
+        private boolean isExpired(final long now) {
+            return expiration <= now;
+        }
+    }
+}
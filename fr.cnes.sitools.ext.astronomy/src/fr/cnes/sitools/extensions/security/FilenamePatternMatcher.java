@@ -0,0 +1,527 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.security;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Matches an URL against sets of allow and deny regular expressions.
+ *
+ * <p>
+ * An URL is accepted when it matches entirely at least one allow pattern and
+ * no deny pattern, as {@link String#matches(String)} does. The patterns are
+ * compiled once: the top-level alternatives of each pattern are split, the
+ * alternatives that are a literal suffix (<code>.*\.fits</code>), a literal
+ * prefix (<code>public/.*</code>) or a literal are put in tries and in a hash
+ * set, and the other alternatives are combined in a single regular
+ * expression. Matching a suffix or a prefix costs the length of the longest
+ * literal whatever the number of patterns.
+ * </p>
+ *
+ * <p>The matcher is immutable and can be used by several threads.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class FilenamePatternMatcher {
+
+    /**
+     * Separator of the patterns in a parameter.
+     */
+    public static final String PATTERN_SEPARATOR = "\n";
+    /**
+     * Any sequence of characters, except the line terminators.
+     */
+    private static final String ANY = ".*";
+    /**
+     * Smallest line terminator after <code>\r</code>.
+     */
+    private static final char LINE_SEPARATOR_MIN = '\u0085';
+    /**
+     * Allowed URLs.
+     */
+    private final PatternSet allow;
+    /**
+     * Denied URLs.
+     */
+    private final PatternSet deny;
+
+    /**
+     * Compiles the patterns.
+     *
+     * @param allowPatterns patterns of the allowed URLs
+     * @param denyPatterns patterns of the denied URLs
+     * @throws java.util.regex.PatternSyntaxException if a pattern is not valid
+     */
+    public FilenamePatternMatcher(final Collection<String> allowPatterns, final Collection<String> denyPatterns) {
+        this.allow = new PatternSet(allowPatterns);
+        this.deny = new PatternSet(denyPatterns);
+    }
+
+    /**
+     * Returns the patterns of a parameter, one pattern by line.
+     *
+     * @param value parameter value, can be null
+     * @return the patterns that are not empty
+     */
+    public static List<String> parsePatterns(final String value) {
+        final List<String> patterns = new ArrayList<String>();
+        if (value != null) {
+            for (String pattern : value.split(PATTERN_SEPARATOR)) {
+                final String trimmedPattern = pattern.endsWith("\r") ? pattern.substring(0, pattern.length() - 1) : pattern;
+                if (!trimmedPattern.isEmpty()) {
+                    patterns.add(trimmedPattern);
+                }
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * Returns <code>true</code> when the URL matches an allow pattern and no deny pattern.
+     *
+     * @param url URL
+     * @return <code>true</code> when the URL is accepted
+     */
+    public boolean isAccepted(final String url) {
+        if (hasLineTerminator(url)) {
+            // the tries do not handle the line terminators, which are not matched by .
+            return allow.matchesRegex(url) && !deny.matchesRegex(url);
+        }
+        return allow.matches(url) && !deny.matches(url);
+    }
+
+    /**
+     * Returns <code>true</code> when the URL contains a line terminator.
+     *
+     * @param url URL
+     * @return <code>true</code> when the URL contains a line terminator
+     */
+    private static boolean hasLineTerminator(final String url) {
+        for (int i = 0; i < url.length(); i++) {
+            final char character = url.charAt(i);
+            if (character <= '\r' ? character == '\n' || character == '\r'
+                    : character >= LINE_SEPARATOR_MIN && isLineSeparator(character)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> for the line terminators that are not ASCII.
+     *
+     * @param character character
+     * @return <code>true</code> for a line terminator
+     */
+    private static boolean isLineSeparator(final char character) {
+        return character == '\u0085' || character == '\u2028' || character == '\u2029';
+    }
+
+    /**
+     * Returns the top-level alternatives of a pattern.
+     *
+     * @param pattern pattern
+     * @return the alternatives, or null when the pattern cannot be split
+     */
+    static List<String> splitAlternatives(final String pattern) {
+        final List<String> alternatives = new ArrayList<String>();
+        int depth = 0;
+        int classDepth = 0;
+        int start = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            final char character = pattern.charAt(i);
+            if (character == '\\') {
+                if (i + 1 == pattern.length()) {
+                    return null;
+                }
+                final char escaped = pattern.charAt(i + 1);
+                // quotes, back references and flags depend on the whole pattern
+                if (escaped == 'Q' || escaped == 'k' || Character.isDigit(escaped)) {
+                    return null;
+                }
+                i++;
+            } else if (classDepth > 0) {
+                if (character == '[') {
+                    classDepth++;
+                } else if (character == ']') {
+                    classDepth--;
+                }
+            } else if (character == '[') {
+                classDepth = 1;
+                // a ] just after [ or [^ is a literal
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (character == '(') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '?' && !pattern.startsWith("(?:", i)) {
+                    return null;
+                }
+                depth++;
+            } else if (character == ')') {
+                depth--;
+            } else if (character == '|' && depth == 0) {
+                alternatives.add(pattern.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (depth != 0 || classDepth != 0) {
+            return null;
+        }
+        alternatives.add(pattern.substring(start));
+        final List<String> result = new ArrayList<String>();
+        for (String alternative : alternatives) {
+            final String withoutGroup = removeGroup(alternative);
+            if (withoutGroup.equals(alternative)) {
+                result.add(alternative);
+            } else {
+                final List<String> subAlternatives = splitAlternatives(withoutGroup);
+                if (subAlternatives == null) {
+                    result.add(alternative);
+                } else {
+                    result.addAll(subAlternatives);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the groups around the whole alternative.
+     *
+     * @param alternative alternative
+     * @return the alternative without the groups
+     */
+    private static String removeGroup(final String alternative) {
+        String result = alternative;
+        while (result.length() >= 2 && result.charAt(0) == '(' && result.charAt(result.length() - 1) == ')'
+                && !result.startsWith("(?") && closingParenthesis(result) == result.length() - 1) {
+            result = result.substring(1, result.length() - 1);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position of the parenthesis closing the first character.
+     *
+     * @param pattern pattern starting with a parenthesis
+     * @return the position or -1
+     */
+    private static int closingParenthesis(final String pattern) {
+        int depth = 0;
+        int classDepth = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            final char character = pattern.charAt(i);
+            if (character == '\\') {
+                i++;
+            } else if (classDepth > 0) {
+                if (character == '[') {
+                    classDepth++;
+                } else if (character == ']') {
+                    classDepth--;
+                }
+            } else if (character == '[') {
+                classDepth = 1;
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (character == '(') {
+                depth++;
+            } else if (character == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the literal matched by a pattern.
+     *
+     * @param pattern pattern
+     * @return the literal, or null when the pattern is not a literal
+     */
+    static String toLiteral(final String pattern) {
+        final StringBuilder literal = new StringBuilder(pattern.length());
+        for (int i = 0; i < pattern.length(); i++) {
+            final char character = pattern.charAt(i);
+            if (character == '\\') {
+                if (i + 1 == pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1))) {
+                    return null;
+                }
+                literal.append(pattern.charAt(++i));
+            } else if ("^$.|?*+()[]{}".indexOf(character) >= 0) {
+                return null;
+            } else {
+                literal.append(character);
+            }
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Compiled patterns.
+     */
+    private static final class PatternSet {
+
+        /**
+         * Literals.
+         */
+        private final Set<String> literals = new HashSet<String>();
+        /**
+         * Literal prefixes.
+         */
+        private final CharTrie prefixes;
+        /**
+         * Literal suffixes, reversed.
+         */
+        private final CharTrie suffixes;
+        /**
+         * Other alternatives, combined, or null.
+         */
+        private final Pattern combined;
+        /**
+         * Patterns that cannot be combined.
+         */
+        private final List<Pattern> standalones = new ArrayList<Pattern>();
+        /**
+         * All the patterns, combined, or null when there is no pattern.
+         */
+        private final Pattern all;
+
+        /**
+         * Compiles patterns.
+         *
+         * @param patterns patterns
+         */
+        private PatternSet(final Collection<String> patterns) {
+            final List<String> prefixList = new ArrayList<String>();
+            final List<String> suffixList = new ArrayList<String>();
+            final StringBuilder combinedRegex = new StringBuilder();
+            final StringBuilder allRegex = new StringBuilder();
+            for (String pattern : patterns) {
+                // checks the syntax
+                final Pattern compiled = Pattern.compile(pattern);
+                final List<String> alternatives = splitAlternatives(pattern);
+                if (alternatives == null) {
+                    standalones.add(compiled);
+                } else {
+                    appendAlternative(allRegex, pattern);
+                    for (String alternative : alternatives) {
+                        final String literal = toLiteral(alternative);
+                        final String prefix = alternative.endsWith(ANY) ? toLiteral(alternative.substring(0, alternative.length() - ANY.length())) : null;
+                        final String suffix = alternative.startsWith(ANY) ? toLiteral(alternative.substring(ANY.length())) : null;
+                        if (literal != null) {
+                            literals.add(literal);
+                        } else if (prefix != null) {
+                            prefixList.add(prefix);
+                        } else if (suffix != null) {
+                            suffixList.add(new StringBuilder(suffix).reverse().toString());
+                        } else {
+                            appendAlternative(combinedRegex, alternative);
+                        }
+                    }
+                }
+            }
+            this.prefixes = new CharTrie(prefixList);
+            this.suffixes = new CharTrie(suffixList);
+            this.combined = (combinedRegex.length() == 0) ? null : Pattern.compile(combinedRegex.toString());
+            this.all = (allRegex.length() == 0) ? null : Pattern.compile(allRegex.toString());
+        }
+
+        /**
+         * Appends an alternative to a regular expression.
+         *
+         * @param regex regular expression
+         * @param alternative alternative
+         */
+        private static void appendAlternative(final StringBuilder regex, final String alternative) {
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            regex.append("(?:").append(alternative).append(')');
+        }
+
+        /**
+         * Returns <code>true</code> when the URL matches one of the patterns.
+         *
+         * @param url URL without line terminator
+         * @return <code>true</code> when the URL matches
+         */
+        private boolean matches(final String url) {
+            return literals.contains(url) || prefixes.matchesPrefix(url) || suffixes.matchesSuffix(url)
+                    || (combined != null && combined.matcher(url).matches()) || matchesStandalones(url);
+        }
+
+        /**
+         * Returns <code>true</code> when the URL matches one of the patterns, without the tries.
+         *
+         * @param url URL
+         * @return <code>true</code> when the URL matches
+         */
+        private boolean matchesRegex(final String url) {
+            return (all != null && all.matcher(url).matches()) || matchesStandalones(url);
+        }
+
+        /**
+         * Returns <code>true</code> when the URL matches one of the patterns that cannot be combined.
+         *
+         * @param url URL
+         * @return <code>true</code> when the URL matches
+         */
+        private boolean matchesStandalones(final String url) {
+            for (Pattern pattern : standalones) {
+                if (pattern.matcher(url).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Trie of literals.
+     */
+    private static final class CharTrie {
+
+        /**
+         * Characters of the children, sorted.
+         */
+        private final char[] characters;
+        /**
+         * Children.
+         */
+        private final CharTrie[] children;
+        /**
+         * Shows if a literal ends at this node.
+         */
+        private final boolean terminal;
+
+        /**
+         * Builds the trie of literals.
+         *
+         * @param literals literals
+         */
+        private CharTrie(final Collection<String> literals) {
+            this(literals, 0);
+        }
+
+        /**
+         * Builds the node of the literals sharing the same first characters.
+         *
+         * @param literals literals sharing the first <code>depth</code> characters
+         * @param depth depth of the node
+         */
+        private CharTrie(final Collection<String> literals, final int depth) {
+            final Map<Character, List<String>> byCharacter = new TreeMap<Character, List<String>>();
+            boolean isTerminal = false;
+            for (String literal : literals) {
+                if (literal.length() == depth) {
+                    isTerminal = true;
+                } else if (!isTerminal) {
+                    List<String> childLiterals = byCharacter.get(literal.charAt(depth));
+                    if (childLiterals == null) {
+                        childLiterals = new ArrayList<String>();
+                        byCharacter.put(literal.charAt(depth), childLiterals);
+                    }
+                    childLiterals.add(literal);
+                }
+            }
+            this.terminal = isTerminal;
+            if (isTerminal) {
+                // a terminal node matches all the longer literals
+                byCharacter.clear();
+            }
+            this.characters = new char[byCharacter.size()];
+            this.children = new CharTrie[byCharacter.size()];
+            int i = 0;
+            for (Map.Entry<Character, List<String>> entry : byCharacter.entrySet()) {
+                this.characters[i] = entry.getKey();
+                this.children[i] = new CharTrie(entry.getValue(), depth + 1);
+                i++;
+            }
+        }
+
+        /**
+         * Returns the child of a character.
+         *
+         * @param character character
+         * @return the child or null
+         */
+        private CharTrie getChild(final char character) {
+            final int index = Arrays.binarySearch(characters, character);
+            return (index < 0) ? null : children[index];
+        }
+
+        /**
+         * Returns <code>true</code> when a literal is a prefix of the text.
+         *
+         * @param text text
+         * @return <code>true</code> when a literal is a prefix of the text
+         */
+        private boolean matchesPrefix(final String text) {
+            CharTrie node = this;
+            for (int i = 0; !node.terminal; i++) {
+                if (i == text.length()) {
+                    return false;
+                }
+                node = node.getChild(text.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns <code>true</code> when a literal, reversed, is a suffix of the text.
+         *
+         * @param text text
+         * @return <code>true</code> when a literal is a suffix of the text
+         */
+        private boolean matchesSuffix(final String text) {
+            CharTrie node = this;
+            for (int i = text.length() - 1; !node.terminal; i--) {
+                if (i < 0) {
+                    return false;
+                }
+                node = node.getChild(text.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.restlet.Response;
 import org.restlet.security.Authorizer;
 
 import fr.cnes.sitools.plugins.filters.model.FilterModel;
+import fr.cnes.sitools.plugins.filters.model.FilterParameter;
 
 /**
  * Authorizes the file access to a datastorage when the url matches the pattern of the file.
@@ -32,6 +33,11 @@ import fr.cnes.sitools.plugins.filters.model.FilterModel;
  * Business class implementing the FilterFilenamePattern plugin.
  * </p>
  *
+ * <p>
+ * The patterns are compiled in a {@link FilenamePatternMatcher}, which is
+ * compiled again only when the patterns of the filter model change.
+ * </p>
+ *
  * <br/>
  * <img src="../../../../../images/FilterFilenamePattern.png"/>
  * <br/>
@@ -52,6 +58,10 @@ public class FilterFilenamePattern extends Authorizer {
    * Application data model.
    */
   private final transient FilterModel filterModel;
+  /**
+   * Patterns compiled from the current parameters.
+   */
+  private transient volatile CompiledPatterns compiledPatterns = null;
   /**
    * Constructor.
    * @param context context
@@ -60,10 +70,85 @@ public class FilterFilenamePattern extends Authorizer {
     this.filterModel = (FilterModel) context.getAttributes().get("FILTER_MODEL");
   }
 
+  /**
+   * Returns the value of a parameter.
+   * @param name parameter name
+   * @return the value or null when the parameter does not exist
+   */
+  private String getParameterValue(final String name) {
+    final FilterParameter parameter = this.filterModel.getParameterByName(name);
+    return (parameter == null) ? null : parameter.getValue();
+  }
+
+  /**
+   * Returns the matcher of the current parameters.
+   * @return the matcher
+   */
+  private FilenamePatternMatcher getMatcher() {
+    final String allowPatterns = getParameterValue(FilterFilenamePatternPlugin.PATTERN_KEYWORD);
+    final String denyPatterns = getParameterValue(FilterFilenamePatternPlugin.DENY_PATTERN_KEYWORD);
+    CompiledPatterns current = this.compiledPatterns;
+    if (current == null || !current.isCompiledFrom(allowPatterns, denyPatterns)) {
+      current = new CompiledPatterns(allowPatterns, denyPatterns);
+      this.compiledPatterns = current;
+    }
+    return current.matcher;
+  }
+
   @Override
   public final boolean authorize(final Request request, final Response response) {
     final String urlStr = request.getResourceRef().getIdentifier(true);
-    final String pattern = this.filterModel.getParameterByName(FilterFilenamePatternPlugin.PATTERN_KEYWORD).getValue();
-    return urlStr.matches(pattern);
+    return getMatcher().isAccepted(urlStr);
+  }
+
+  /**
+   * Matcher and the parameters it is compiled from.
+   */
+  private static final class CompiledPatterns {
+
+    /**
+     * Allow patterns.
+     */
+    private final String allowPatterns;
+    /**
+     * Deny patterns.
+     */
+    private final String denyPatterns;
+    /**
+     * Matcher.
+     */
+    private final FilenamePatternMatcher matcher;
+
+    /**
+     * Compiles the patterns.
+     * @param allowPatternsVal allow patterns, one by line
+     * @param denyPatternsVal deny patterns, one by line
+     */
+    private CompiledPatterns(final String allowPatternsVal, final String denyPatternsVal) {
+      this.allowPatterns = allowPatternsVal;
+      this.denyPatterns = denyPatternsVal;
+      this.matcher = new FilenamePatternMatcher(FilenamePatternMatcher.parsePatterns(allowPatternsVal),
+              FilenamePatternMatcher.parsePatterns(denyPatternsVal));
+    }
+
+    /**
+     * Returns <code>true</code> when the matcher is compiled from these patterns.
+     * @param allowPatternsVal allow patterns
+     * @param denyPatternsVal deny patterns
+     * @return <code>true</code> when the matcher is up to date
+     */
+    private boolean isCompiledFrom(final String allowPatternsVal, final String denyPatternsVal) {
+      return equals(allowPatterns, allowPatternsVal) && equals(denyPatterns, denyPatternsVal);
+    }
+
+    /**
+     * Compares two strings that can be null.
+     * @param first first string
+     * @param second second string
+     * @return <code>true</code> when the strings are equal
+     */
+    private static boolean equals(final String first, final String second) {
+      return (first == null) ? second == null : first.equals(second);
+    }
   }
 }
@@ -41,7 +41,9 @@ import fr.cnes.sitools.util.Util;
  *
  * When the administrator configures a data storage, all files in this data
  * storage are available. This extension allows to configure the file to access
- * by the use of a pattern.
+ * by the use of patterns: a file is available when its URL matches one of the
+ * patterns and none of the deny patterns. Several patterns are given one by
+ * line.
  * <br/>
  * <img src="../../../../../images/FilterFilenamePatternPlugin.png"/>
  * <br/>
@@ -63,6 +65,11 @@ public class FilterFilenamePatternPlugin extends FilterModel {
      */
     public static final String PATTERN_KEYWORD = "pattern";
 
+    /**
+     * Input keyword of the patterns of the denied files.
+     */
+    public static final String DENY_PATTERN_KEYWORD = "denyPattern";
+
     /**
      * Constructs a filter.
      */
@@ -82,10 +89,14 @@ public class FilterFilenamePatternPlugin extends FilterModel {
      * Sets the configuration parameters for the administrator.
      */
     private void setConfiguration() {
-        final FilterParameter pattern = new FilterParameter(FilterFilenamePatternPlugin.PATTERN_KEYWORD, "pattern to match", FilterParameterType.PARAMETER_INTERN);
+        final FilterParameter pattern = new FilterParameter(FilterFilenamePatternPlugin.PATTERN_KEYWORD, "patterns to match, one by line", FilterParameterType.PARAMETER_INTERN);
         pattern.setValue("(.*\\.fits)|(.*\\.txt)");
         pattern.setValueType("xs:string");
         addParam(pattern);
+        final FilterParameter denyPattern = new FilterParameter(FilterFilenamePatternPlugin.DENY_PATTERN_KEYWORD,
+                "patterns of the denied files, one by line (optional)", FilterParameterType.PARAMETER_INTERN);
+        denyPattern.setValueType("xs:string");
+        addParam(denyPattern);
     }
 
     @Override
@@ -103,18 +114,35 @@ public class FilterFilenamePatternPlugin extends FilterModel {
                     constraint.setValueName(FilterFilenamePatternPlugin.PATTERN_KEYWORD);
                     constraintList.add(constraint);
                 } else {
-                    try {
-                        Pattern.compile(value);
-                    } catch (PatternSyntaxException exception) {
-                        final ConstraintViolation constraint = new ConstraintViolation();
-                        constraint.setLevel(ConstraintViolationLevel.CRITICAL);
-                        constraint.setMessage("the pattern is not valid.");
-                        constraint.setValueName(FilterFilenamePatternPlugin.PATTERN_KEYWORD);
-                        constraintList.add(constraint);
-                    }
+                    validatePatterns(value, FilterFilenamePatternPlugin.PATTERN_KEYWORD, constraintList);
+                }
+                final FilterParameter denyPattern = params.get(DENY_PATTERN_KEYWORD);
+                if (denyPattern != null) {
+                    validatePatterns(denyPattern.getValue(), DENY_PATTERN_KEYWORD, constraintList);
                 }
                 return constraintList;
             }
         };
     }
+
+    /**
+     * Checks the syntax of the patterns of a parameter.
+     *
+     * @param value patterns, one by line
+     * @param name parameter name
+     * @param constraintList constraints in which the errors are added
+     */
+    private static void validatePatterns(final String value, final String name, final Set<ConstraintViolation> constraintList) {
+        for (String pattern : FilenamePatternMatcher.parsePatterns(value)) {
+            try {
+                Pattern.compile(pattern);
+            } catch (PatternSyntaxException exception) {
+                final ConstraintViolation constraint = new ConstraintViolation();
+                constraint.setLevel(ConstraintViolationLevel.CRITICAL);
+                constraint.setMessage("the pattern " + pattern + " is not valid.");
+                constraint.setValueName(name);
+                constraintList.add(constraint);
+            }
+        }
+    }
 }
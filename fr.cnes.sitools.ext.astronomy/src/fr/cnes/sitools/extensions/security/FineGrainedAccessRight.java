@@ -22,7 +22,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,6 +40,7 @@ import fr.cnes.sitools.common.application.ContextAttributes;
 import fr.cnes.sitools.datasource.jdbc.business.SitoolsSQLDataSourceFactory;
 import fr.cnes.sitools.datasource.jdbc.model.JDBCDataSource;
 import fr.cnes.sitools.plugins.filters.model.FilterModel;
+import fr.cnes.sitools.plugins.filters.model.FilterParameter;
 import fr.cnes.sitools.server.Consts;
 import fr.cnes.sitools.util.RIAPUtils;
 import fr.cnes.sitools.util.Util;
@@ -50,6 +52,12 @@ import fr.cnes.sitools.util.Util;
  * Business class implementing the FineGrainedAccessRight plugin.
  * </p>
  *
+ * <p>
+ * The decisions are kept by {@link AccessRightCache} during the time to live
+ * that is set in the plugin, and the accessible files of a directory are
+ * loaded in a single query.
+ * </p>
+ *
  * <br/>
  * <img src="../../../../../images/FineGrainedAccessRight.png"/>
  * <br/>
@@ -75,6 +83,14 @@ public class FineGrainedAccessRight extends Authorizer {
      * Logger.
      */
     private static final Logger LOG = Engine.getLogger(FineGrainedAccessRight.class.getName());
+    /**
+     * Data source ID, found from its name at the first request.
+     */
+    private transient volatile String dataSourceId = null;
+    /**
+     * Cache of the decisions, null when the decisions are not kept.
+     */
+    private final transient AccessRightCache cache;
 
     /**
      * Constructor.
@@ -83,6 +99,27 @@ public class FineGrainedAccessRight extends Authorizer {
      */
     public FineGrainedAccessRight(final Context context) {
         this.filterModel = (FilterModel) context.getAttributes().get("FILTER_MODEL");
+        final long timeToLive = getLongParameter(FineGrainedAccessRightPlugin.CACHE_TIME_TO_LIVE, AccessRightCache.DEFAULT_TIME_TO_LIVE / 1000) * 1000;
+        if (timeToLive > 0) {
+            this.cache = new AccessRightCache(new SqlLoader(), timeToLive,
+                    (int) getLongParameter(FineGrainedAccessRightPlugin.CACHE_SIZE, AccessRightCache.DEFAULT_CACHE_SIZE),
+                    (int) getLongParameter(FineGrainedAccessRightPlugin.MAX_PREFETCHED_FILES, AccessRightCache.DEFAULT_MAX_PREFETCHED_FILES),
+                    (int) getLongParameter(FineGrainedAccessRightPlugin.MAX_CACHED_FILES, AccessRightCache.DEFAULT_MAX_CACHED_FILES));
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Returns the value of an optional numeric parameter.
+     *
+     * @param name parameter name
+     * @param defaultValue value when the parameter is not set
+     * @return the value
+     */
+    private long getLongParameter(final String name, final long defaultValue) {
+        final FilterParameter parameter = this.filterModel.getParameterByName(name);
+        return (parameter == null || Util.isEmpty(parameter.getValue())) ? defaultValue : Long.parseLong(parameter.getValue().trim());
     }
 
     /**
@@ -100,28 +137,47 @@ public class FineGrainedAccessRight extends Authorizer {
     }
 
     /**
-     * Returns the prepare statement String.
+     * Returns a connection to the data source of the access rights.
      *
-     * @param table table name
-     * @param schema schema name if PostgreSQL is used
-     * @param filename filename column
-     * @param profile profile column
-     * @param roles the different roles of a user
-     * @return the prepare statement String
+     * @return the connection
+     * @throws SQLException SQL exception
+     */
+    private Connection getConnection() throws SQLException {
+        if (dataSourceId == null) {
+            final String dsName = this.filterModel.getParameterByName(FineGrainedAccessRightPlugin.DATASOURCE).getValue();
+            dataSourceId = findDataSourceId(dsName, getApplication().getContext());
+        }
+        return SitoolsSQLDataSourceFactory.getDataSource(dataSourceId).getConnection();
+    }
+
+    /**
+     * Returns the table with its schema.
+     *
+     * @return the table
      */
-    private String prepareStatementString(final String table, final String schema, final String filename, final String profile, final List<Role> roles) {
+    private String getTable() {
+        final String table = this.filterModel.getParameterByName(FineGrainedAccessRightPlugin.TABLE).getValue();
+        final String schema = this.filterModel.getParameterByName(FineGrainedAccessRightPlugin.SCHEMA).getValue();
         final String dsSchema = (Util.isNotEmpty(schema)) ? schema + "." : "";
-        StringBuilder prepareSt = new StringBuilder("SELECT count(*) as result FROM " + dsSchema + "\"" + table + "\" WHERE " + filename + " = ? AND ");
-        prepareSt = prepareSt.append("( ");
-        for (final Iterator<Role> it = roles.iterator(); it.hasNext();) {
-            it.next();
-            prepareSt = prepareSt.append("? = ANY(").append(profile).append(")");
-            if (it.hasNext()) {
-                prepareSt = prepareSt.append(" OR ");
+        return dsSchema + "\"" + table + "\"";
+    }
+
+    /**
+     * Returns the condition on the roles.
+     *
+     * @param profile profile column
+     * @param nbRoles number of roles
+     * @return the condition
+     */
+    private String rolesCondition(final String profile, final int nbRoles) {
+        final StringBuilder condition = new StringBuilder("( ");
+        for (int i = 0; i < nbRoles; i++) {
+            if (i > 0) {
+                condition.append(" OR ");
             }
+            condition.append("? = ANY(").append(profile).append(")");
         }
-        prepareSt = prepareSt.append(" )");
-        return prepareSt.toString();
+        return condition.append(" )").toString();
     }
 
     /**
@@ -141,72 +197,122 @@ public class FineGrainedAccessRight extends Authorizer {
     }
 
     /**
-     * Sets the SQL parameters to the prepare statement.
+     * Sets the roles to the prepare statement.
      *
      * @param stmt prepare statement
+     * @param firstIndex index of the first role
      * @param roles roles of the user
-     * @param filename filename
      * @throws SQLException SQL exception
      */
-    private void setSqlParameters(final PreparedStatement stmt, final List<Role> roles, final String filename) throws SQLException {
-        stmt.setString(1, filename);
-        int sqlParameterIndex = 2;
-        for (Role role : roles) {
-            stmt.setString(sqlParameterIndex++, role.getName());
+    private void setRoles(final PreparedStatement stmt, final int firstIndex, final List<String> roles) throws SQLException {
+        int sqlParameterIndex = firstIndex;
+        for (String role : roles) {
+            stmt.setString(sqlParameterIndex++, role);
+        }
+    }
+
+    /**
+     * Closes the statement and the connection.
+     *
+     * @param stmt statement or null
+     * @param conn connection or null
+     */
+    private void close(final PreparedStatement stmt, final Connection conn) {
+        if (stmt != null) {
+            try {
+                stmt.close();
+            } catch (SQLException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
+        }
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
         }
     }
 
     @Override
     public final boolean authorize(final Request request, final Response response) {
-        boolean responseAuthorize = false;
-        final Context context = getApplication().getContext();
-        final String dsName = this.filterModel.getParameterByName(FineGrainedAccessRightPlugin.DATASOURCE).getValue();
-        final String dsTable = this.filterModel.getParameterByName(FineGrainedAccessRightPlugin.TABLE).getValue();
-        final String dsColFilename = this.filterModel.getParameterByName(FineGrainedAccessRightPlugin.FILENAME).getValue();
-        final String dsColProfile = this.filterModel.getParameterByName(FineGrainedAccessRightPlugin.PROFILES).getValue();
-        final String dsSchema = this.filterModel.getParameterByName(FineGrainedAccessRightPlugin.SCHEMA).getValue();
-        final String dsId = findDataSourceId(dsName, context);
         final String filename = getFilename(request);
-        PreparedStatement stmt = null;
-        Connection conn = null;
+        final List<String> roles = new ArrayList<String>();
+        for (Role role : request.getClientInfo().getRoles()) {
+            roles.add(role.getName());
+        }
         try {
-            final List<Role> roles = request.getClientInfo().getRoles();
-            conn = SitoolsSQLDataSourceFactory.getDataSource(dsId).getConnection();
-            stmt = conn.prepareStatement(prepareStatementString(dsTable, dsSchema, dsColFilename, dsColProfile, roles));
-            setSqlParameters(stmt, roles, filename);
-            final ResultSet resultSet = stmt.executeQuery();
-            if (!resultSet.next()) {
-                resultSet.close();
-                throw new SQLException("SQL syntax is wrong");
-            }
-            final int nbReturned = resultSet.getInt("result");
-            resultSet.close();
-            if (nbReturned > 1) {
-                throw new SQLException("The table structure of " + dsTable + " is not the expected table structure");
-            } else if (nbReturned == 1) {
-                responseAuthorize = true;
+            if (cache == null) {
+                return !roles.isEmpty() && new SqlLoader().isAuthorized(filename, roles);
             } else {
-                responseAuthorize = false;
+                return cache.isAuthorized(filename, roles);
             }
         } catch (SQLException ex) {
             LOG.log(Level.SEVERE, null, ex);
-            responseAuthorize = false;
-        } finally {
-            if (stmt != null) {
-                try {
-                    stmt.close();
-                } catch (SQLException ex) {
-                    LOG.log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Loads the access rights from the table.
+     */
+    private final class SqlLoader implements AccessRightCache.Loader {
+
+        @Override
+        public boolean isAuthorized(final String filename, final List<String> roles) throws SQLException {
+            final String dsTable = filterModel.getParameterByName(FineGrainedAccessRightPlugin.TABLE).getValue();
+            final String dsColFilename = filterModel.getParameterByName(FineGrainedAccessRightPlugin.FILENAME).getValue();
+            final String dsColProfile = filterModel.getParameterByName(FineGrainedAccessRightPlugin.PROFILES).getValue();
+            PreparedStatement stmt = null;
+            Connection conn = null;
+            try {
+                conn = getConnection();
+                stmt = conn.prepareStatement("SELECT count(*) as result FROM " + getTable() + " WHERE " + dsColFilename + " = ? AND "
+                        + rolesCondition(dsColProfile, roles.size()));
+                stmt.setString(1, filename);
+                setRoles(stmt, 2, roles);
+                final ResultSet resultSet = stmt.executeQuery();
+                if (!resultSet.next()) {
+                    resultSet.close();
+                    throw new SQLException("SQL syntax is wrong");
+                }
+                final int nbReturned = resultSet.getInt("result");
+                resultSet.close();
+                if (nbReturned > 1) {
+                    throw new SQLException("The table structure of " + dsTable + " is not the expected table structure");
                 }
+                return nbReturned == 1;
+            } finally {
+                close(stmt, conn);
             }
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException ex) {
-                    LOG.log(Level.SEVERE, null, ex);
+        }
+
+        @Override
+        public Collection<String> getAuthorizedFiles(final String directory, final List<String> roles, final int maxFiles) throws SQLException {
+            final String dsColFilename = filterModel.getParameterByName(FineGrainedAccessRightPlugin.FILENAME).getValue();
+            final String dsColProfile = filterModel.getParameterByName(FineGrainedAccessRightPlugin.PROFILES).getValue();
+            final String escapedDirectory = directory.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+            PreparedStatement stmt = null;
+            Connection conn = null;
+            try {
+                conn = getConnection();
+                // files of the directory, without the files of its sub-directories
+                stmt = conn.prepareStatement("SELECT " + dsColFilename + " FROM " + getTable() + " WHERE " + dsColFilename + " LIKE ? ESCAPE '\\' AND "
+                        + dsColFilename + " NOT LIKE ? ESCAPE '\\' AND " + rolesCondition(dsColProfile, roles.size()));
+                stmt.setString(1, escapedDirectory + "%");
+                stmt.setString(2, escapedDirectory + "%/%");
+                setRoles(stmt, 3, roles);
+                stmt.setMaxRows(maxFiles + 1);
+                final ResultSet resultSet = stmt.executeQuery();
+                final List<String> files = new ArrayList<String>();
+                while (resultSet.next()) {
+                    files.add(resultSet.getString(1));
                 }
+                resultSet.close();
+                return (files.size() > maxFiles) ? null : files;
+            } finally {
+                close(stmt, conn);
             }
         }
-        return responseAuthorize;
     }
 }
@@ -94,6 +94,22 @@ public class FineGrainedAccessRightPlugin extends FilterModel {
      * Schema name.
      */
     public static final String SCHEMA = "schema";
+    /**
+     * Time to live of the decisions in seconds, 0 to query the table for each file.
+     */
+    public static final String CACHE_TIME_TO_LIVE = "cacheTimeToLive";
+    /**
+     * Number of directories and of decisions kept in memory.
+     */
+    public static final String CACHE_SIZE = "cacheSize";
+    /**
+     * Maximum number of accessible files loaded for a directory.
+     */
+    public static final String MAX_PREFETCHED_FILES = "maxPrefetchedFiles";
+    /**
+     * Maximum number of accessible files kept in memory for all the directories.
+     */
+    public static final String MAX_CACHED_FILES = "maxCachedFiles";
     /**
      * Empty constructor.
      */
@@ -145,6 +161,38 @@ public class FineGrainedAccessRightPlugin extends FilterModel {
                 FilterParameterType.PARAMETER_INTERN);
         profilesColumn.setValueType("xs:string");
         addParam(profilesColumn);
+
+        final FilterParameter cacheTimeToLive = new FilterParameter(
+                CACHE_TIME_TO_LIVE,
+                "Sets the time in seconds during which the access rights are kept in memory, 0 to disable the cache (default: "
+                + AccessRightCache.DEFAULT_TIME_TO_LIVE / 1000 + ").",
+                FilterParameterType.PARAMETER_INTERN);
+        cacheTimeToLive.setValueType("xs:integer");
+        addParam(cacheTimeToLive);
+
+        final FilterParameter cacheSize = new FilterParameter(
+                CACHE_SIZE,
+                "Sets the number of directories and of files whose access rights are kept in memory (default: "
+                + AccessRightCache.DEFAULT_CACHE_SIZE + ").",
+                FilterParameterType.PARAMETER_INTERN);
+        cacheSize.setValueType("xs:integer");
+        addParam(cacheSize);
+
+        final FilterParameter maxPrefetchedFiles = new FilterParameter(
+                MAX_PREFETCHED_FILES,
+                "Sets the maximum number of accessible files of a directory loaded in a single query (default: "
+                + AccessRightCache.DEFAULT_MAX_PREFETCHED_FILES + ").",
+                FilterParameterType.PARAMETER_INTERN);
+        maxPrefetchedFiles.setValueType("xs:integer");
+        addParam(maxPrefetchedFiles);
+
+        final FilterParameter maxCachedFiles = new FilterParameter(
+                MAX_CACHED_FILES,
+                "Sets the maximum number of accessible files kept in memory for all the directories (default: "
+                + AccessRightCache.DEFAULT_MAX_CACHED_FILES + ").",
+                FilterParameterType.PARAMETER_INTERN);
+        maxCachedFiles.setValueType("xs:integer");
+        addParam(maxCachedFiles);
     }
 
     @Override
@@ -186,6 +234,24 @@ public class FineGrainedAccessRightPlugin extends FilterModel {
                   constraint.setValueName(PROFILES);
                   constraintList.add(constraint);
                 }
+                for (String name : new String[]{CACHE_TIME_TO_LIVE, CACHE_SIZE, MAX_PREFETCHED_FILES, MAX_CACHED_FILES}) {
+                  value = (params.get(name) == null) ? null : params.get(name).getValue();
+                  if (Util.isNotEmpty(value) && !value.trim().matches("\\d+")) {
+                    final ConstraintViolation constraint = new ConstraintViolation();
+                    constraint.setLevel(ConstraintViolationLevel.CRITICAL);
+                    constraint.setMessage(name + " must be an integer greater than or equal to 0");
+                    constraint.setValueName(name);
+                    constraintList.add(constraint);
+                  }
+                }
+                value = (params.get(CACHE_SIZE) == null) ? null : params.get(CACHE_SIZE).getValue();
+                if (Util.isNotEmpty(value) && value.trim().matches("0+")) {
+                  final ConstraintViolation constraint = new ConstraintViolation();
+                  constraint.setLevel(ConstraintViolationLevel.CRITICAL);
+                  constraint.setMessage(CACHE_SIZE + " must be greater than 0");
+                  constraint.setValueName(CACHE_SIZE);
+                  constraintList.add(constraint);
+                }
                 return constraintList;
             }
         };
@@ -0,0 +1,171 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+/**
+ * Computes the ranges of NESTED pixels covering a cone, to pre-filter the
+ * rows of a table indexed by a Healpix column before an exact test.
+ *
+ * <p>
+ * The cone is covered at the coarsest order giving at most
+ * <code>maxRanges</code> ranges, then the ranges are expressed at the order of
+ * the column: a pixel at order k contains the pixels
+ * <code>[p * 4^(order-k), (p+1) * 4^(order-k)[</code> at the column order.
+ * The result is a superset of the pixels of the cone, the exact test must be
+ * kept after the filter.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class HealpixRangeFilter {
+
+  /**
+   * Max Healpix order of the index column.
+   */
+  public static final int MAX_ORDER = MultiOrderIndex.MAX_ORDER;
+  /**
+   * Default max number of ranges in the filter.
+   */
+  public static final int DEFAULT_MAX_RANGES = 64;
+  /**
+   * Number of pixels of the cover along the cone diameter at the first tried order.
+   */
+  private static final double PIXELS_BY_DIAMETER = 8.;
+  /**
+   * Number of Healpix base pixels.
+   */
+  private static final long NB_BASE_PIXELS = 12L;
+
+  /**
+   * Utility class.
+   */
+  private HealpixRangeFilter() {
+  }
+
+  /**
+   * Returns the ranges of NESTED pixels at <code>order</code> covering the cone.
+   *
+   * @param cone cone
+   * @param order Healpix order of the index column
+   * @param maxRanges max number of ranges
+   * @return the ranges or null when the cover is the whole sky
+   * @throws Exception Healpix Exception
+   */
+  public static RangeSet coverCone(final Cone cone, final int order, final int maxRanges) throws Exception {
+    if (order < 0 || order > MAX_ORDER) {
+      throw new IllegalArgumentException("order must be between 0 and " + MAX_ORDER);
+    }
+    if (maxRanges < 1) {
+      throw new IllegalArgumentException("maxRanges must be strictly positive");
+    }
+    int coverOrder = Math.min(order, orderForRadius(cone.getRadius()));
+    RangeSet ranges = queryDisc(cone, coverOrder);
+    while (ranges.size() > maxRanges && coverOrder > 0) {
+      coverOrder--;
+      ranges = queryDisc(cone, coverOrder);
+    }
+    if (ranges.nval() == NB_BASE_PIXELS << (2 * coverOrder)) {
+      return null;
+    }
+    final int shift = 2 * (order - coverOrder);
+    if (shift == 0) {
+      return ranges;
+    }
+    final RangeSet result = new RangeSet(ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      result.append(ranges.ivbegin(i) << shift, ranges.ivend(i) << shift);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the ranges of NESTED pixels at <code>order</code> intersecting the cone.
+   *
+   * @param cone cone
+   * @param order Healpix order
+   * @return the ranges of pixels
+   * @throws Exception Healpix Exception
+   */
+  public static RangeSet coverCone(final Cone cone, final int order) throws Exception {
+    if (order < 0 || order > MAX_ORDER) {
+      throw new IllegalArgumentException("order must be between 0 and " + MAX_ORDER);
+    }
+    return queryDisc(cone, order);
+  }
+
+  /**
+   * Returns the SQL filter of ranges of pixels on a column.
+   *
+   * <p>A range of one pixel is an equality, the other ones are <code>BETWEEN</code> with inclusive bounds.</p>
+   *
+   * @param column column name
+   * @param ranges ranges of pixels, not empty
+   * @return the SQL filter between parentheses
+   */
+  public static String toSqlPredicate(final String column, final RangeSet ranges) {
+    if (ranges.isEmpty()) {
+      throw new IllegalArgumentException("ranges must not be empty");
+    }
+    final StringBuilder sql = new StringBuilder("(");
+    for (int i = 0; i < ranges.size(); i++) {
+      if (i > 0) {
+        sql.append(" OR ");
+      }
+      final long begin = ranges.ivbegin(i);
+      final long last = ranges.ivend(i) - 1;
+      sql.append(column);
+      if (begin == last) {
+        sql.append(" = ").append(begin);
+      } else {
+        sql.append(" BETWEEN ").append(begin).append(" AND ").append(last);
+      }
+    }
+    return sql.append(')').toString();
+  }
+
+  /**
+   * Returns the order whose pixels are about a fraction of the cone diameter.
+   *
+   * @param radius cone radius in radians
+   * @return the order
+   */
+  private static int orderForRadius(final double radius) {
+    final double pixelSize = 2 * radius / PIXELS_BY_DIAMETER;
+    // pixel size at order k is sqrt(4 PI / (12 * 4^k)) = sqrt(PI / 3) / 2^k
+    final double order = Math.log(Math.sqrt(Math.PI / 3) / pixelSize) / Math.log(2);
+    return (int) Math.max(0, Math.min(MAX_ORDER, Math.floor(order)));
+  }
+
+  /**
+   * Returns the NESTED pixels intersecting the cone.
+   *
+   * @param cone cone
+   * @param order Healpix order
+   * @return the ranges of pixels
+   * @throws Exception Healpix Exception
+   */
+  private static RangeSet queryDisc(final Cone cone, final int order) throws Exception {
+    final HealpixIndex index = new HealpixIndex(1 << order, Scheme.NESTED);
+    return index.queryDiscInclusive(cone.getCenter(), cone.getRadius(), MocIndex.TYPICAL_CHOICE_FACT);
+  }
+}
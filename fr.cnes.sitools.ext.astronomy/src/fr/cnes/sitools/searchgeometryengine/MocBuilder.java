@@ -0,0 +1,143 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import healpix.essentials.RangeSet;
+
+import java.util.Arrays;
+
+import cds.moc.HealpixMoc;
+
+/**
+ * Builds a HealpixMoc from ranges of NESTED pixels.
+ *
+ * <p>
+ * Each range is split in the largest Healpix cells aligned on it. The cells
+ * are found in a single pass over the ranges, without adding the pixels one by
+ * one. As the ranges of a RangeSet are sorted, disjoint and not adjacent, the
+ * cells are the minimal hierarchical cells of the MOC and are already sorted
+ * at each order.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class MocBuilder {
+
+  /**
+   * Initial number of cells at each order.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+  /**
+   * Number of Healpix base pixels.
+   */
+  private static final long NB_BASE_PIXELS = 12L;
+
+  /**
+   * Utility class.
+   */
+  private MocBuilder() {
+  }
+
+  /**
+   * Returns the MOC of ranges of NESTED pixels.
+   *
+   * <p>The MOC resolution is <code>order</code> even when no cell is found at this order.</p>
+   *
+   * @param ranges ranges of NESTED pixels at <code>order</code>
+   * @param order Healpix order of the pixels
+   * @return the MOC
+   * @throws Exception MOC Exception
+   */
+  public static HealpixMoc fromNestedRanges(final RangeSet ranges, final int order) throws Exception {
+    if (order < 0 || order > HealpixMoc.MAXORDER) {
+      throw new IllegalArgumentException("order must be between 0 and " + HealpixMoc.MAXORDER);
+    }
+    final long[][] cells = new long[order + 1][];
+    final int[] nbCells = new int[order + 1];
+    for (int i = 0; i < ranges.size(); i++) {
+      long begin = ranges.ivbegin(i);
+      final long end = ranges.ivend(i);
+      while (begin < end) {
+        // deepest level of the hierarchy on which begin is aligned, then reduced to fit in the range
+        int level = Math.min(order, Long.numberOfTrailingZeros(begin) / 2);
+        while (begin + (1L << (2 * level)) > end) {
+          level--;
+        }
+        final int cellOrder = order - level;
+        if (cells[cellOrder] == null) {
+          cells[cellOrder] = new long[INITIAL_CAPACITY];
+        } else if (nbCells[cellOrder] == cells[cellOrder].length) {
+          cells[cellOrder] = Arrays.copyOf(cells[cellOrder], 2 * nbCells[cellOrder]);
+        }
+        cells[cellOrder][nbCells[cellOrder]++] = begin >>> (2 * level);
+        begin += 1L << (2 * level);
+      }
+    }
+    final HealpixMoc moc = new HealpixMoc();
+    for (int cellOrder = 0; cellOrder <= order; cellOrder++) {
+      final long[] values = (cells[cellOrder] == null) ? new long[0] : Arrays.copyOf(cells[cellOrder], nbCells[cellOrder]);
+      setPixLevel(moc, cellOrder, values);
+    }
+    return moc;
+  }
+
+  /**
+   * Returns the MOC of the pixels that are not in ranges of NESTED pixels.
+   *
+   * @param ranges ranges of NESTED pixels at <code>order</code>
+   * @param order Healpix order of the pixels
+   * @return the MOC of the complement
+   * @throws Exception MOC Exception
+   */
+  public static HealpixMoc complementFromNestedRanges(final RangeSet ranges, final int order) throws Exception {
+    final RangeSet allSky = new RangeSet(1);
+    allSky.append(0, NB_BASE_PIXELS << (2 * order));
+    return fromNestedRanges(allSky.difference(ranges), order);
+  }
+
+  /**
+   * Sets the cells of an order with the integer type expected by the MOC at this order.
+   *
+   * @param moc MOC
+   * @param order order
+   * @param values sorted cells
+   * @throws Exception MOC Exception
+   */
+  private static void setPixLevel(final HealpixMoc moc, final int order, final long[] values) throws Exception {
+    switch (HealpixMoc.getType(order)) {
+      case HealpixMoc.SHORT:
+        final short[] shortValues = new short[values.length];
+        for (int i = 0; i < values.length; i++) {
+          shortValues[i] = (short) values[i];
+        }
+        moc.setPixLevel(order, shortValues);
+        break;
+      case HealpixMoc.INT:
+        final int[] intValues = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+          intValues[i] = (int) values[i];
+        }
+        moc.setPixLevel(order, intValues);
+        break;
+      default:
+        moc.setPixLevel(order, values);
+        break;
+    }
+  }
+}
@@ -30,7 +30,6 @@ import java.util.logging.Logger;
 import org.restlet.engine.Engine;
 
 import cds.moc.HealpixMoc;
-import cds.moc.MocCell;
 
 /**
  * Nested Index for hierarchical resolution.
@@ -94,7 +93,7 @@ public class MocIndex implements Index {
           result = computePolygonIndex(index);
           break;
         case CONE:
-          result = computePolygonIndex(index);
+          result = computeConeIndex(index);
           break;
         default:
           throw new RuntimeException("Shape : " + getShape() + " not found");
@@ -150,15 +149,9 @@ public class MocIndex implements Index {
    * @throws Exception Healpix Exception
    */
   protected static HealpixMoc computeConeIndex(final HealpixIndex index, final Shape shape) throws Exception {
-    final HealpixMoc moc = new HealpixMoc();
     final Cone cone = (Cone) shape;
     final RangeSet rangeSet = index.queryDiscInclusive(cone.getCenter(), cone.getRadius(), TYPICAL_CHOICE_FACT);
-    final RangeSet.ValueIterator valueIter = rangeSet.valueIterator();
-    while (valueIter.hasNext()) {
-      final long pixNest = valueIter.next();
-      moc.add(new MocCell(index.getOrder(), pixNest));
-    }
-    return moc;
+    return MocBuilder.fromNestedRanges(rangeSet, index.getOrder());
   }
 
   /**
@@ -188,7 +181,6 @@ public class MocIndex implements Index {
    */
   protected static HealpixMoc computePolygonIndex(final HealpixIndex index, final Shape shape) throws Exception {
     RangeSet rangeSet;
-    HealpixMoc moc = new HealpixMoc();
     Polygon polygon = (Polygon) shape;
 
     final Resampling resample = new Resampling(polygon);
@@ -200,12 +192,11 @@ public class MocIndex implements Index {
       rangeSet.setToUnion(rangeSetTmp, computePolygon(p.getPoints(), index));
     }
 
-    final RangeSet.ValueIterator valueIter = rangeSet.valueIterator();
-    while (valueIter.hasNext()) {
-      moc.add(new MocCell(index.getOrder(), valueIter.next()));
-    }
+    final HealpixMoc moc;
     if (polygon.isClockwised()) {
-      moc = moc.complement();
+      moc = MocBuilder.complementFromNestedRanges(rangeSet, index.getOrder());
+    } else {
+      moc = MocBuilder.fromNestedRanges(rangeSet, index.getOrder());
     }
     return moc;
   }
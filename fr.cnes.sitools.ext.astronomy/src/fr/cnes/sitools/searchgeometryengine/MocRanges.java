@@ -0,0 +1,419 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import healpix.essentials.RangeSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import cds.moc.Array;
+import cds.moc.HealpixMoc;
+
+/**
+ * Operations on MOCs expressed as ranges of NESTED pixels at the deepest
+ * Healpix order.
+ *
+ * <p>
+ * A MOC of any order is exactly a set of ranges at order {@link #MAX_ORDER}:
+ * union, intersection, subtraction and complement are then merges of sorted
+ * ranges and the memory is proportional to the number of ranges, not to the
+ * number of cells. The cells of the result are not built at once, they are
+ * read order by order with {@link #cells(RangeSet, int)}.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class MocRanges {
+
+  /**
+   * Order of the ranges.
+   */
+  public static final int MAX_ORDER = HealpixMoc.MAXORDER;
+  /**
+   * Number of Healpix base pixels.
+   */
+  private static final long NB_BASE_PIXELS = 12L;
+
+  /**
+   * Utility class.
+   */
+  private MocRanges() {
+  }
+
+  /**
+   * Returns the ranges covered by a MOC.
+   *
+   * <p>The MOC is only read, it can be shared.</p>
+   *
+   * @param moc MOC
+   * @return the ranges at {@link #MAX_ORDER}
+   */
+  public static RangeSet fromMoc(final HealpixMoc moc) {
+    RangeSet result = new RangeSet(1);
+    for (int order = 0; order <= moc.getMaxOrder(); order++) {
+      final int nbCells = moc.getSize(order);
+      if (nbCells == 0) {
+        continue;
+      }
+      final Array array = moc.getArray(order);
+      final long[] cells = new long[nbCells];
+      for (int i = 0; i < nbCells; i++) {
+        cells[i] = array.get(i);
+      }
+      if (!array.isSorted()) {
+        Arrays.sort(cells);
+      }
+      final int shift = 2 * (MAX_ORDER - order);
+      final RangeSet ranges = new RangeSet(2 * nbCells);
+      for (long cell : cells) {
+        ranges.append(cell << shift, (cell + 1) << shift);
+      }
+      result = result.isEmpty() ? ranges : result.union(ranges);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the union of ranges.
+   *
+   * @param rangesList ranges at {@link #MAX_ORDER}
+   * @return the union
+   */
+  public static RangeSet union(final List<RangeSet> rangesList) {
+    RangeSet result = new RangeSet(1);
+    for (RangeSet ranges : rangesList) {
+      result = result.union(ranges);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the intersection of ranges.
+   *
+   * <p>
+   * The ranges are intersected from the smallest one, each intersection is
+   * then not larger than the previous one, and the loop stops as soon as the
+   * intersection is empty.
+   * </p>
+   *
+   * @param rangesList ranges at {@link #MAX_ORDER}
+   * @return the intersection
+   */
+  public static RangeSet intersection(final List<RangeSet> rangesList) {
+    if (rangesList.isEmpty()) {
+      return new RangeSet(1);
+    }
+    final List<RangeSet> sortedList = new ArrayList<RangeSet>(rangesList);
+    Collections.sort(sortedList, new Comparator<RangeSet>() {
+      @Override
+      public int compare(final RangeSet ranges1, final RangeSet ranges2) {
+        final long nval1 = ranges1.nval();
+        final long nval2 = ranges2.nval();
+        return (nval1 < nval2) ? -1 : ((nval1 == nval2) ? 0 : 1);
+      }
+    });
+    RangeSet result = sortedList.get(0);
+    for (int i = 1; i < sortedList.size() && !result.isEmpty(); i++) {
+      result = result.intersection(sortedList.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the ranges of the first element that are not in the other ones.
+   *
+   * @param rangesList ranges at {@link #MAX_ORDER}
+   * @return the subtraction
+   */
+  public static RangeSet subtraction(final List<RangeSet> rangesList) {
+    if (rangesList.isEmpty()) {
+      return new RangeSet(1);
+    }
+    RangeSet result = rangesList.get(0);
+    for (int i = 1; i < rangesList.size() && !result.isEmpty(); i++) {
+      result = result.difference(rangesList.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the ranges of the sky that are not in ranges.
+   *
+   * @param ranges ranges at {@link #MAX_ORDER}
+   * @return the complement
+   */
+  public static RangeSet complement(final RangeSet ranges) {
+    final RangeSet allSky = new RangeSet(1);
+    allSky.append(0, NB_BASE_PIXELS << (2 * MAX_ORDER));
+    return allSky.difference(ranges);
+  }
+
+  /**
+   * Returns the ranges of the cells at <code>order</code> that intersect ranges.
+   *
+   * <p>
+   * Each range is enlarged to the cells of <code>order</code> that contain its
+   * bounds: the result covers the ranges and its cells are not deeper than
+   * <code>order</code>.
+   * </p>
+   *
+   * @param ranges ranges at {@link #MAX_ORDER}
+   * @param order target order
+   * @return the degraded ranges
+   */
+  public static RangeSet degrade(final RangeSet ranges, final int order) {
+    checkOrder(order);
+    final int shift = 2 * (MAX_ORDER - order);
+    final RangeSet result = new RangeSet(2 * ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      result.append(floor(ranges.ivbegin(i), shift), ceil(ranges.ivend(i), shift));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the cells of a MOC at one order.
+   *
+   * <p>
+   * The cells are the minimal hierarchical cells of the ranges, as computed by
+   * {@link MocBuilder}, that are at <code>order</code>. They are returned in
+   * ascending order and computed on the fly: iterating over all the orders needs
+   * no more memory than the ranges. The ranges are expected to be aligned on
+   * the cells of the deepest order that is iterated.
+   * </p>
+   *
+   * @param ranges ranges at {@link #MAX_ORDER}
+   * @param order order of the cells
+   * @return the iterator on the NESTED pixels of the cells
+   */
+  public static RangeSet.ValueIterator cells(final RangeSet ranges, final int order) {
+    checkOrder(order);
+    return new CellIterator(ranges, order);
+  }
+
+  /**
+   * Returns the number of cells of a MOC at one order.
+   *
+   * <p>
+   * The cells are the ones returned by {@link #cells(RangeSet, int)}, counted
+   * without being iterated. At most <code>maxByRun</code> cells are counted in
+   * each run of consecutive cells: with <code>2</code>, the result is the
+   * number of values of a run-length encoding that writes the first and the
+   * last cell of each run.
+   * </p>
+   *
+   * @param ranges ranges at {@link #MAX_ORDER}
+   * @param order order of the cells
+   * @param maxByRun maximal number of cells counted in a run
+   * @return the number of cells
+   */
+  public static long countCells(final RangeSet ranges, final int order, final long maxByRun) {
+    checkOrder(order);
+    final int shift = 2 * (MAX_ORDER - order);
+    final long[] spans = new long[4];
+    final long cellSize = 1L << shift;
+    long count = 0;
+    for (int i = 0; i < ranges.size(); i++) {
+      final long begin = ranges.ivbegin(i);
+      final long end = ranges.ivend(i);
+      if (end - begin < cellSize) {
+        continue;
+      }
+      split(begin, end, order, spans);
+      count += Math.min(maxByRun, Math.max(0, (spans[1] - spans[0]) >> shift));
+      count += Math.min(maxByRun, Math.max(0, (spans[3] - spans[2]) >> shift));
+    }
+    return count;
+  }
+
+  /**
+   * Splits a range in the spans of its cells at an order.
+   *
+   * <p>
+   * In a range, the cells at an order are the cells of this order that are in
+   * the range but whose parent is not. When the range contains a parent cell,
+   * they are before the first parent cell and after the last one, otherwise
+   * they are all the cells of the range. A range gives then at most two spans
+   * of consecutive cells, which are not adjacent: the cells of two spans of
+   * the same range are separated by a parent cell, and the ranges are not
+   * adjacent.
+   * </p>
+   *
+   * @param begin beginning of the range
+   * @param end end of the range
+   * @param order order of the cells
+   * @param spans bounds of the two spans, which may be empty
+   */
+  private static void split(final long begin, final long end, final int order, final long[] spans) {
+    final int shift = 2 * (MAX_ORDER - order);
+    spans[0] = ceil(begin, shift);
+    spans[1] = floor(end, shift);
+    spans[2] = spans[1];
+    spans[3] = spans[1];
+    if (order > 0) {
+      final long parentBegin = ceil(begin, shift + 2);
+      final long parentEnd = floor(end, shift + 2);
+      if (parentBegin < parentEnd) {
+        spans[1] = parentBegin;
+        spans[2] = parentEnd;
+      }
+    }
+  }
+
+  /**
+   * Checks that an order is a valid MOC order.
+   *
+   * @param order order
+   */
+  private static void checkOrder(final int order) {
+    if (order < 0 || order > MAX_ORDER) {
+      throw new IllegalArgumentException("order must be between 0 and " + MAX_ORDER);
+    }
+  }
+
+  /**
+   * Rounds a pixel down to a multiple of <code>2^shift</code>.
+   *
+   * @param pixel pixel at {@link #MAX_ORDER}
+   * @param shift shift
+   * @return the rounded pixel
+   */
+  private static long floor(final long pixel, final int shift) {
+    return (pixel >>> shift) << shift;
+  }
+
+  /**
+   * Rounds a pixel up to a multiple of <code>2^shift</code>.
+   *
+   * @param pixel pixel at {@link #MAX_ORDER}
+   * @param shift shift
+   * @return the rounded pixel
+   */
+  private static long ceil(final long pixel, final int shift) {
+    return ((pixel + (1L << shift) - 1) >>> shift) << shift;
+  }
+
+  /**
+   * Iterates over the cells of one order, span by span.
+   *
+   * @see MocRanges#split(long, long, int, long[])
+   */
+  private static final class CellIterator implements RangeSet.ValueIterator {
+
+    /**
+     * Ranges at {@link MocRanges#MAX_ORDER}.
+     */
+    private final RangeSet ranges;
+    /**
+     * Order of the cells.
+     */
+    private final int order;
+    /**
+     * Number of pixels at {@link MocRanges#MAX_ORDER} in a cell, as a shift.
+     */
+    private final int shift;
+    /**
+     * Next range to split.
+     */
+    private int range = 0;
+    /**
+     * Next cell of the current span, as a pixel at {@link MocRanges#MAX_ORDER}.
+     */
+    private long current = 0;
+    /**
+     * End of the current span.
+     */
+    private long end = 0;
+    /**
+     * Spans of the current range.
+     */
+    private final long[] spans = new long[4];
+
+    /**
+     * Constructs the iterator.
+     *
+     * @param rangesVal ranges at {@link MocRanges#MAX_ORDER}
+     * @param orderVal order of the cells
+     */
+    private CellIterator(final RangeSet rangesVal, final int orderVal) {
+      this.ranges = rangesVal;
+      this.order = orderVal;
+      this.shift = 2 * (MAX_ORDER - orderVal);
+      nextSpan();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return current < end;
+    }
+
+    @Override
+    public long next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final long cell = current >>> shift;
+      current += 1L << shift;
+      if (current >= end) {
+        nextSpan();
+      }
+      return cell;
+    }
+
+    /**
+     * Moves to the next non empty span.
+     */
+    private void nextSpan() {
+      if (spans[2] < spans[3]) {
+        current = spans[2];
+        end = spans[3];
+        spans[2] = spans[3];
+        return;
+      }
+      final long cellSize = 1L << shift;
+      while (range < ranges.size()) {
+        final long begin = ranges.ivbegin(range);
+        final long last = ranges.ivend(range);
+        range++;
+        if (last - begin < cellSize) {
+          continue;
+        }
+        split(begin, last, order, spans);
+        if (spans[0] < spans[1]) {
+          current = spans[0];
+          end = spans[1];
+          return;
+        }
+        if (spans[2] < spans[3]) {
+          current = spans[2];
+          end = spans[3];
+          spans[2] = spans[3];
+          return;
+        }
+      }
+      current = 0;
+      end = 0;
+    }
+  }
+}
@@ -0,0 +1,200 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.util.Arrays;
+
+/**
+ * Computes the Healpix index of a shape from a minimum order to a maximum order.
+ *
+ * <p>
+ * The shape is indexed once, at the maximum order, by {@link RingIndex}. The
+ * pixels are converted in the NESTED scheme, in which the pixels at the
+ * coarser orders are the parents of the pixels at the maximum order and are
+ * found by bit-shifting. As the pixels at the maximum order cover the shape,
+ * their parents cover it at each order.
+ * </p>
+ *
+ * <p>
+ * The Healpix indexes are created once per thread and per order, an instance
+ * can be shared by several threads.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class MultiOrderIndex {
+
+  /**
+   * Maximum Healpix order.
+   */
+  public static final int MAX_ORDER = 29;
+  /**
+   * Healpix indexes in RING scheme of the current thread, by order.
+   */
+  private static final ThreadLocal<HealpixIndex[]> RING_INDEXES = new ThreadLocal<HealpixIndex[]>() {
+    @Override
+    protected HealpixIndex[] initialValue() {
+      return new HealpixIndex[MAX_ORDER + 1];
+    }
+  };
+  /**
+   * Minimum order.
+   */
+  private final int minOrder;
+  /**
+   * Maximum order.
+   */
+  private final int maxOrder;
+  /**
+   * Scheme of the returned pixels.
+   */
+  private final Scheme scheme;
+
+  /**
+   * Constructor.
+   *
+   * @param minOrderVal minimum order
+   * @param maxOrderVal maximum order
+   * @param schemeVal scheme of the returned pixels, RING or NESTED
+   */
+  public MultiOrderIndex(final int minOrderVal, final int maxOrderVal, final Scheme schemeVal) {
+    if (minOrderVal < 0 || minOrderVal > maxOrderVal || maxOrderVal > MAX_ORDER) {
+      throw new IllegalArgumentException("orders must verify 0 <= minOrder <= maxOrder <= " + MAX_ORDER);
+    }
+    if (schemeVal != Scheme.RING && schemeVal != Scheme.NESTED) {
+      throw new IllegalArgumentException("Unknown Scheme");
+    }
+    this.minOrder = minOrderVal;
+    this.maxOrder = maxOrderVal;
+    this.scheme = schemeVal;
+  }
+
+  /**
+   * Returns the Healpix index in RING scheme of the current thread at an order.
+   *
+   * @param order Healpix order
+   * @return the Healpix index
+   * @throws Exception Healpix Exception
+   */
+  public static HealpixIndex getRingIndex(final int order) throws Exception {
+    final HealpixIndex[] indexes = RING_INDEXES.get();
+    if (indexes[order] == null) {
+      indexes[order] = new HealpixIndex(1 << order, Scheme.RING);
+    }
+    return indexes[order];
+  }
+
+  /**
+   * Returns the sorted pixels of the shape at each order.
+   *
+   * @param shape shape
+   * @return the pixels, by order from the minimum order to the maximum order
+   * @throws Exception Healpix Exception
+   */
+  public long[][] computeIndex(final Shape shape) throws Exception {
+    final HealpixIndex index = getRingIndex(maxOrder);
+    final RingIndex ringIndex = new RingIndex(shape);
+    ringIndex.setOrder(maxOrder);
+    final Object ringPixels = ringIndex.getIndex(index);
+    long[] pixels;
+    if (ringPixels instanceof RangeSet) {
+      pixels = AbstractGeometryIndex.decodeRangeSet((RangeSet) ringPixels);
+      for (int i = 0; i < pixels.length; i++) {
+        pixels[i] = index.ring2nest(pixels[i]);
+      }
+      Arrays.sort(pixels);
+    } else {
+      pixels = new long[]{index.ring2nest((Long) ringPixels)};
+    }
+    final long[][] result = new long[maxOrder - minOrder + 1][];
+    for (int order = maxOrder; order >= minOrder; order--) {
+      if (order < maxOrder) {
+        pixels = toParents(pixels);
+      }
+      result[order - minOrder] = (scheme == Scheme.NESTED) ? pixels : toRing(pixels, getRingIndex(order));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the parents of sorted NESTED pixels.
+   *
+   * @param pixels sorted NESTED pixels
+   * @return the sorted parents
+   */
+  private static long[] toParents(final long[] pixels) {
+    final long[] parents = new long[pixels.length];
+    int nbParents = 0;
+    for (long pixel : pixels) {
+      final long parent = pixel >>> 2;
+      if (nbParents == 0 || parents[nbParents - 1] != parent) {
+        parents[nbParents++] = parent;
+      }
+    }
+    return (nbParents == parents.length) ? parents : Arrays.copyOf(parents, nbParents);
+  }
+
+  /**
+   * Converts NESTED pixels in the RING scheme.
+   *
+   * @param pixels NESTED pixels
+   * @param index Healpix index at the order of the pixels
+   * @return the sorted RING pixels
+   * @throws Exception Healpix Exception
+   */
+  private static long[] toRing(final long[] pixels, final HealpixIndex index) throws Exception {
+    final long[] ringPixels = new long[pixels.length];
+    for (int i = 0; i < pixels.length; i++) {
+      ringPixels[i] = index.nest2ring(pixels[i]);
+    }
+    Arrays.sort(ringPixels);
+    return ringPixels;
+  }
+
+  /**
+   * Returns the minimum order.
+   *
+   * @return the minimum order
+   */
+  public int getMinOrder() {
+    return minOrder;
+  }
+
+  /**
+   * Returns the maximum order.
+   *
+   * @return the maximum order
+   */
+  public int getMaxOrder() {
+    return maxOrder;
+  }
+
+  /**
+   * Returns the scheme of the returned pixels.
+   *
+   * @return the scheme
+   */
+  public Scheme getScheme() {
+    return scheme;
+  }
+}
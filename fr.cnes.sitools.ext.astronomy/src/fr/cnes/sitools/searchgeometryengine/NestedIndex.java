@@ -26,6 +26,7 @@ import healpix.essentials.RangeSet;
 import healpix.essentials.Scheme;
 import healpix.tools.SpatialVector;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -129,15 +130,7 @@ public final class NestedIndex implements Index {
   protected RangeSet computeConeIndex(final HealpixIndex index) throws Exception {
     final Cone cone = (Cone) getShape();
     final RangeSet rangeSet =  index.queryDiscInclusive(cone.getCenter(), cone.getRadius(), TYPICAL_CHOICE_FACT);
-    final long[] pixelsNested = new long[(int) rangeSet.nval()];
-    final RangeSet.ValueIterator iter = rangeSet.valueIterator();
-    int indice = 0;
-    while (iter.hasNext()) {
-        final long pixel = iter.next();
-        pixelsNested[indice] = index.ring2nest(pixel);
-        indice++;
-    }
-    return new RangeSet(pixelsNested);
+    return toNested(rangeSet, index);
   }
 
   /**
@@ -174,15 +167,7 @@ public final class NestedIndex implements Index {
       final RangeSet rangeSetTmp = new RangeSet(rangeSet);
       rangeSet.setToDifference(rangeFullSky, rangeSetTmp);
     }
-    final long[] pixelsNested = new long[(int) rangeSet.nval()];
-    final RangeSet.ValueIterator iter = rangeSet.valueIterator();
-    int indice = 0;
-    while (iter.hasNext()) {
-        final long pixel = iter.next();
-        pixelsNested[indice] = index.ring2nest(pixel);
-        indice++;
-    }
-    return new RangeSet(pixelsNested);
+    return toNested(rangeSet, index);
   }
 
   /**
@@ -190,7 +175,7 @@ public final class NestedIndex implements Index {
    *
    * @param points List of points of the polygon
    * @param index Healpix index
-   * @return the rangeSet of pixels
+   * @return the rangeSet of pixels in RING scheme
    * @throws Exception Healpix
    */
   protected RangeSet computePolygon(final List<Point> points, final HealpixIndex index) throws Exception {
@@ -227,15 +212,32 @@ public final class NestedIndex implements Index {
         result.add(first, last);
       }
     }
-    final long[] pixelsNested = new long[(int)result.nval()];
-    final RangeSet.ValueIterator iter = result.valueIterator();
+    return result;
+  }
+
+  /**
+   * Converts pixels from the RING scheme to the NESTED scheme.
+   *
+   * @param ringPixels pixels in RING scheme
+   * @param index Healpix index
+   * @return the pixels in NESTED scheme
+   * @throws Exception Healpix
+   */
+  private static RangeSet toNested(final RangeSet ringPixels, final HealpixIndex index) throws Exception {
+    final long[] pixelsNested = new long[(int) ringPixels.nval()];
+    final RangeSet.ValueIterator iter = ringPixels.valueIterator();
     int indice = 0;
-    while(iter.hasNext()) {
-        final long pixel = iter.next();
-        pixelsNested[indice] = index.ring2nest(pixel);
-        indice++;
+    while (iter.hasNext()) {
+      pixelsNested[indice] = index.ring2nest(iter.next());
+      indice++;
+    }
+    // RangeSet only accepts sorted intervals, consecutive pixels are merged by append
+    Arrays.sort(pixelsNested);
+    final RangeSet rangeSet = new RangeSet(pixelsNested.length);
+    for (long pixel : pixelsNested) {
+      rangeSet.append(pixel);
     }
-    return new RangeSet(pixelsNested);
+    return rangeSet;
   }
 
   /**
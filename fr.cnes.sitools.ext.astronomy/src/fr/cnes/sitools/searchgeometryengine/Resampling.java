@@ -19,6 +19,7 @@
 package fr.cnes.sitools.searchgeometryengine;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,6 +54,10 @@ public class Resampling {
    * Logger.
    */
   private static final Logger LOG = Engine.getLogger(Resampling.class.getName());
+  /**
+   * Tolerance in degrees to compare a sample with the end of a range.
+   */
+  private static final double EPSILON = 1e-9;
 
   /**
    * Constructs a Resampling with polygon.
@@ -193,12 +198,18 @@ public class Resampling {
     int stepAbsoluteValue = Math.abs(step);
     double[] listPoints = new double[stepAbsoluteValue + 2];
     listPoints[0] = current;
-    for (int i = 1; i < stepAbsoluteValue; i++) {      
+    int nbPoints = 1;
+    for (int i = 1; i <= stepAbsoluteValue; i++) {
       current = current + stepSign * stepValue;
-      listPoints[i] = current;
+      // the last sample is stopInit itself when the range is a multiple of the step
+      if ((stopInit - current) * stepSign > EPSILON) {
+        listPoints[nbPoints] = current;
+        nbPoints++;
+      }
     }
-    listPoints[listPoints.length - 1] = stopInit;
-    return listPoints;
+    listPoints[nbPoints] = stopInit;
+    nbPoints++;
+    return (nbPoints == listPoints.length) ? listPoints : Arrays.copyOf(listPoints, nbPoints);
   }
 
   /**
@@ -84,9 +84,29 @@ public final class RingIndex implements Index {
    */
   @Override
   public Object getIndex() {
+    final HealpixIndex index;
+    try {
+      index = new HealpixIndex((int) Math.pow(2, getOrder()), Scheme.RING);
+    } catch (Exception ex) {
+      Engine.getLogger(RingIndex.class.getName()).log(Level.SEVERE, null, ex);
+      throw new RuntimeException(ex);
+    }
+    return getIndex(index);
+  }
+
+  /**
+   * Returns the index computed with a Healpix index in RING scheme at the order of this index.
+   *
+   * <p>The Healpix index can be reused from one shape to another.</p>
+   *
+   * <p>RuntimeException if the shape is unknown.</p>
+   *
+   * @param index Healpix index
+   * @return the index
+   */
+  public Object getIndex(final HealpixIndex index) {
     Object result = null;
     try {
-      HealpixIndex index = new HealpixIndex((int) Math.pow(2, getOrder()), Scheme.RING);
       switch (getShape().getType()) {
         case POINT:
           result = computePointIndex(index);
@@ -0,0 +1,477 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.solr.indexer;
+
+import fr.cnes.sitools.searchgeometryengine.MultiOrderIndex;
+import fr.cnes.sitools.solr.transformer.WcsFootprint;
+import fr.cnes.sitools.solr.transformer.WcsTransformer;
+import healpix.essentials.Scheme;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.engine.Engine;
+
+/**
+ * Indexes the footprints of image metadata rows in a SOLR core.
+ *
+ * <p>
+ * The rows are read by the calling thread and grouped in batches. The
+ * parameters of each row are computed by {@link WcsFootprint}, as
+ * {@link WcsTransformer} does in the Solr DataImportHandler, but by a pool of
+ * threads. The batches are written in the reading order by the calling
+ * thread, and the number of batches in computation is bounded.
+ * </p>
+ *
+ * <p>
+ * The columns are renamed as the fields of the DataImportHandler: a column
+ * without a field name keeps its name. The rows whose footprint cannot be
+ * computed are skipped, as the DataImportHandler does.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class BulkFootprintIndexer {
+
+    /**
+     * Default number of rows of a batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    /**
+     * Default number of threads.
+     */
+    public static final int DEFAULT_NB_THREADS = Runtime.getRuntime().availableProcessors();
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = Engine.getLogger(BulkFootprintIndexer.class.getName());
+    /**
+     * Number of batches by thread that can wait to be written.
+     */
+    private static final int PENDING_BATCHES_BY_THREAD = 2;
+    /**
+     * Nanoseconds in a second.
+     */
+    private static final double NANOS_IN_SECOND = 1E9;
+    /**
+     * Prefix of the WCS keyword properties.
+     */
+    private static final String WCS_PREFIX = "wcs.";
+    /**
+     * Prefix of the field name properties.
+     */
+    private static final String FIELD_PREFIX = "field.";
+    /**
+     * Column of each WCS keyword.
+     */
+    private final Map<String, String> wcsColumns;
+    /**
+     * Field name of the columns.
+     */
+    private final Map<String, String> fieldNames;
+    /**
+     * Healpix index.
+     */
+    private final MultiOrderIndex multiOrderIndex;
+    /**
+     * Number of threads.
+     */
+    private final int nbThreads;
+    /**
+     * Number of rows of a batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Constructs an indexer.
+     *
+     * @param wcsColumnsVal column of each WCS keyword
+     * @param fieldNamesVal field name of the columns that are renamed
+     * @param multiOrderIndexVal Healpix index
+     * @param nbThreadsVal number of threads computing the footprints
+     * @param batchSizeVal number of rows of a batch
+     */
+    public BulkFootprintIndexer(final Map<String, String> wcsColumnsVal, final Map<String, String> fieldNamesVal,
+            final MultiOrderIndex multiOrderIndexVal, final int nbThreadsVal, final int batchSizeVal) {
+        if (nbThreadsVal < 1 || batchSizeVal < 1) {
+            throw new IllegalArgumentException("nbThreads and batchSize must be positive");
+        }
+        this.wcsColumns = new HashMap<String, String>(wcsColumnsVal);
+        this.fieldNames = new HashMap<String, String>(fieldNamesVal);
+        this.multiOrderIndex = multiOrderIndexVal;
+        this.nbThreads = nbThreadsVal;
+        this.batchSize = batchSizeVal;
+    }
+
+    /**
+     * Indexes all the rows of a source and commits them.
+     *
+     * <p>The source is not closed.</p>
+     *
+     * @param source rows
+     * @param writer destination of the documents
+     * @return the report
+     * @throws Exception when a row cannot be read or a batch cannot be written
+     */
+    public Report index(final RowSource source, final DocumentWriter writer) throws Exception {
+        final long start = System.nanoTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads, new IndexerThreadFactory());
+        final LinkedList<Future<Batch>> pendingBatches = new LinkedList<Future<Batch>>();
+        final int maxPendingBatches = PENDING_BATCHES_BY_THREAD * nbThreads;
+        final Report report = new Report(nbThreads);
+        try {
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(batchSize);
+            Map<String, Object> row;
+            while ((row = source.next()) != null) {
+                rows.add(row);
+                report.nbRows++;
+                if (rows.size() == batchSize) {
+                    pendingBatches.addLast(executor.submit(new BatchTask(rows)));
+                    rows = new ArrayList<Map<String, Object>>(batchSize);
+                    while (pendingBatches.size() > maxPendingBatches) {
+                        write(pendingBatches.removeFirst(), writer, report);
+                    }
+                }
+            }
+            if (!rows.isEmpty()) {
+                pendingBatches.addLast(executor.submit(new BatchTask(rows)));
+            }
+            while (!pendingBatches.isEmpty()) {
+                write(pendingBatches.removeFirst(), writer, report);
+            }
+            writer.commit();
+        } finally {
+            executor.shutdownNow();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * Writes a batch once it is computed.
+     *
+     * @param batch batch
+     * @param writer destination of the documents
+     * @param report report to update
+     * @throws Exception when the batch cannot be written
+     */
+    private static void write(final Future<Batch> batch, final DocumentWriter writer, final Report report) throws Exception {
+        final Batch result;
+        try {
+            result = batch.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+        if (!result.documents.isEmpty()) {
+            writer.add(result.documents);
+        }
+        report.nbDocuments += result.documents.size();
+        report.nbSkippedRows += result.nbSkippedRows;
+    }
+
+    /**
+     * Returns the document of a computed row.
+     *
+     * @param row row
+     * @return the document
+     */
+    private Map<String, Object> toDocument(final Map<String, Object> row) {
+        final Map<String, Object> document = new HashMap<String, Object>(row.size() * 2);
+        for (Map.Entry<String, Object> column : row.entrySet()) {
+            if (column.getValue() != null) {
+                final String name = fieldNames.get(column.getKey());
+                document.put((name == null) ? column.getKey() : name, column.getValue());
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Indexes the rows of a properties file configuration, see the package description.
+     *
+     * @param args path of the properties file
+     * @throws Exception when the indexing fails
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: java " + BulkFootprintIndexer.class.getName() + " <indexer.properties>");
+            System.exit(1);
+        }
+        final Properties properties = new Properties();
+        final InputStream input = new FileInputStream(args[0]);
+        try {
+            properties.load(input);
+        } finally {
+            input.close();
+        }
+        final Map<String, String> wcsColumns = new HashMap<String, String>();
+        final Map<String, String> fieldNames = new HashMap<String, String>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(WCS_PREFIX)) {
+                wcsColumns.put(name.substring(WCS_PREFIX.length()), properties.getProperty(name).trim());
+            } else if (name.startsWith(FIELD_PREFIX)) {
+                fieldNames.put(name.substring(FIELD_PREFIX.length()), properties.getProperty(name).trim());
+            }
+        }
+        final String scheme = properties.getProperty("scheme");
+        if (scheme == null) {
+            throw new IllegalArgumentException("Healpix scheme must be set by defining scheme (=RING or NESTED) variable");
+        }
+        final MultiOrderIndex multiOrderIndex = new MultiOrderIndex(
+                Integer.parseInt(properties.getProperty("minOrder", String.valueOf(WcsTransformer.DEFAULT_MIN_ORDER))),
+                Integer.parseInt(properties.getProperty("maxOrder", String.valueOf(WcsTransformer.DEFAULT_MAX_ORDER))),
+                Scheme.valueOf(scheme.trim()));
+        final BulkFootprintIndexer indexer = new BulkFootprintIndexer(wcsColumns, fieldNames, multiOrderIndex,
+                Integer.parseInt(properties.getProperty("threads", String.valueOf(DEFAULT_NB_THREADS))),
+                Integer.parseInt(properties.getProperty("batchSize", String.valueOf(DEFAULT_BATCH_SIZE))));
+        final RowSource source = createSource(properties);
+        try {
+            final Report report = indexer.index(source, new SolrUpdateWriter(properties.getProperty("solr.url")));
+            LOG.log(Level.INFO, report.toString());
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Creates the source of a properties file configuration.
+     *
+     * @param properties configuration
+     * @return the source
+     * @throws Exception when the source cannot be opened
+     */
+    private static RowSource createSource(final Properties properties) throws Exception {
+        final RowSource source;
+        final String csvFile = properties.getProperty("csv");
+        if (csvFile != null) {
+            final String separator = properties.getProperty("csv.separator", String.valueOf(CsvRowSource.DEFAULT_SEPARATOR));
+            source = new CsvRowSource(new InputStreamReader(new FileInputStream(csvFile), properties.getProperty("csv.encoding", "UTF-8")),
+                    separator.charAt(0));
+        } else if (properties.getProperty("jdbc.url") != null) {
+            if (properties.getProperty("jdbc.driver") != null) {
+                Class.forName(properties.getProperty("jdbc.driver"));
+            }
+            source = new JdbcRowSource(DriverManager.getConnection(properties.getProperty("jdbc.url"),
+                    properties.getProperty("jdbc.user"), properties.getProperty("jdbc.password")),
+                    properties.getProperty("jdbc.query"),
+                    Integer.parseInt(properties.getProperty("jdbc.fetchSize", String.valueOf(JdbcRowSource.DEFAULT_FETCH_SIZE))));
+        } else {
+            throw new IllegalArgumentException("csv or jdbc.url must be set");
+        }
+        return source;
+    }
+
+    /**
+     * Report of an indexing.
+     */
+    public static final class Report {
+
+        /**
+         * Number of threads.
+         */
+        private final int nbThreads;
+        /**
+         * Number of read rows.
+         */
+        private long nbRows = 0;
+        /**
+         * Number of written documents.
+         */
+        private long nbDocuments = 0;
+        /**
+         * Number of skipped rows.
+         */
+        private long nbSkippedRows = 0;
+        /**
+         * Duration in nanoseconds.
+         */
+        private long elapsedNanos = 0;
+
+        /**
+         * Constructs a report.
+         *
+         * @param nbThreadsVal number of threads
+         */
+        private Report(final int nbThreadsVal) {
+            this.nbThreads = nbThreadsVal;
+        }
+
+        /**
+         * Returns the number of threads.
+         *
+         * @return the number of threads
+         */
+        public int getNbThreads() {
+            return nbThreads;
+        }
+
+        /**
+         * Returns the number of read rows.
+         *
+         * @return the number of rows
+         */
+        public long getNbRows() {
+            return nbRows;
+        }
+
+        /**
+         * Returns the number of written documents.
+         *
+         * @return the number of documents
+         */
+        public long getNbDocuments() {
+            return nbDocuments;
+        }
+
+        /**
+         * Returns the number of rows whose footprint cannot be computed.
+         *
+         * @return the number of skipped rows
+         */
+        public long getNbSkippedRows() {
+            return nbSkippedRows;
+        }
+
+        /**
+         * Returns the duration, including the reading and the writing.
+         *
+         * @return the duration in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Returns the throughput.
+         *
+         * @return the number of documents by second
+         */
+        public double getDocumentsPerSecond() {
+            return (elapsedNanos == 0) ? 0 : nbDocuments * NANOS_IN_SECOND / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d documents, %d skipped rows in %.1f s: %.0f documents/s with %d threads on %d cores",
+                    nbDocuments, nbSkippedRows, elapsedNanos / NANOS_IN_SECOND, getDocumentsPerSecond(), nbThreads,
+                    Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * Documents of a batch.
+     */
+    private static final class Batch {
+
+        /**
+         * Documents.
+         */
+        private final List<Map<String, Object>> documents;
+        /**
+         * Number of skipped rows.
+         */
+        private final int nbSkippedRows;
+
+        /**
+         * Constructs a batch.
+         *
+         * @param documentsVal documents
+         * @param nbSkippedRowsVal number of skipped rows
+         */
+        private Batch(final List<Map<String, Object>> documentsVal, final int nbSkippedRowsVal) {
+            this.documents = documentsVal;
+            this.nbSkippedRows = nbSkippedRowsVal;
+        }
+    }
+
+    /**
+     * Computes the documents of a batch of rows.
+     */
+    private final class BatchTask implements Callable<Batch> {
+
+        /**
+         * Rows.
+         */
+        private final List<Map<String, Object>> rows;
+
+        /**
+         * Constructs a task.
+         *
+         * @param rowsVal rows
+         */
+        private BatchTask(final List<Map<String, Object>> rowsVal) {
+            this.rows = rowsVal;
+        }
+
+        @Override
+        public Batch call() {
+            final List<Map<String, Object>> documents = new ArrayList<Map<String, Object>>(rows.size());
+            int nbSkippedRows = 0;
+            for (Map<String, Object> row : rows) {
+                try {
+                    documents.add(toDocument(new WcsFootprint(row, wcsColumns, multiOrderIndex).compute()));
+                } catch (Exception ex) {
+                    LOG.log(Level.WARNING, "Skipping row " + row, ex);
+                    nbSkippedRows++;
+                }
+            }
+            return new Batch(Collections.unmodifiableList(documents), nbSkippedRows);
+        }
+    }
+
+    /**
+     * Creates daemon threads, an indexing is never waited at shutdown.
+     */
+    private static final class IndexerThreadFactory implements ThreadFactory {
+
+        /**
+         * Thread counter.
+         */
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "footprint-indexer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.solr.indexer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the rows of a CSV file whose first line contains the column names.
+ *
+ * <p>
+ * A value can be quoted by <code>"</code>, in which case it can contain the
+ * separator, line breaks and doubled quotes. An empty value that is not quoted
+ * is a null value, the column is not set in the row.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class CsvRowSource implements RowSource {
+
+    /**
+     * Default separator.
+     */
+    public static final char DEFAULT_SEPARATOR = ',';
+    /**
+     * Quote.
+     */
+    private static final char QUOTE = '"';
+    /**
+     * Reader.
+     */
+    private final BufferedReader reader;
+    /**
+     * Separator.
+     */
+    private final char separator;
+    /**
+     * Column names.
+     */
+    private final List<String> columns;
+    /**
+     * Number of the current line, for the error messages.
+     */
+    private int lineNumber = 0;
+
+    /**
+     * Constructs a source and reads the column names.
+     *
+     * @param readerVal CSV content, closed with the source
+     * @param separatorVal separator of the values
+     * @throws IOException when the column names cannot be read
+     */
+    public CsvRowSource(final Reader readerVal, final char separatorVal) throws IOException {
+        this.reader = new BufferedReader(readerVal);
+        this.separator = separatorVal;
+        final List<String> header = readRecord();
+        if (header == null) {
+            throw new IOException("The CSV content has no header");
+        }
+        this.columns = new ArrayList<String>(header.size());
+        for (String column : header) {
+            this.columns.add((column == null) ? "" : column.trim());
+        }
+    }
+
+    /**
+     * Returns the column names.
+     *
+     * @return the column names
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    @Override
+    public Map<String, Object> next() throws IOException {
+        final List<String> record = readRecord();
+        if (record == null) {
+            return null;
+        }
+        if (record.size() > columns.size()) {
+            throw new IOException("Line " + lineNumber + " has " + record.size() + " values for " + columns.size() + " columns");
+        }
+        final Map<String, Object> row = new HashMap<String, Object>();
+        for (int i = 0; i < record.size(); i++) {
+            if (record.get(i) != null) {
+                row.put(columns.get(i), record.get(i));
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Reads the values of the next record, empty lines are ignored.
+     *
+     * @return the values, null for the empty values, or null at the end of the content
+     * @throws IOException when the content cannot be read or a quote is not closed
+     */
+    private List<String> readRecord() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            lineNumber++;
+        } while (line != null && line.isEmpty());
+        if (line == null) {
+            return null;
+        }
+        final List<String> values = new ArrayList<String>();
+        final StringBuilder value = new StringBuilder();
+        boolean isQuoted = false;
+        boolean inQuotes = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!inQuotes) {
+                    break;
+                }
+                // a quoted value continues on the next line
+                line = reader.readLine();
+                lineNumber++;
+                if (line == null) {
+                    throw new IOException("Quote not closed at line " + lineNumber);
+                }
+                value.append('\n');
+                i = 0;
+                continue;
+            }
+            final char character = line.charAt(i++);
+            if (inQuotes) {
+                if (character != QUOTE) {
+                    value.append(character);
+                } else if (i < line.length() && line.charAt(i) == QUOTE) {
+                    value.append(QUOTE);
+                    i++;
+                } else {
+                    inQuotes = false;
+                }
+            } else if (character == separator) {
+                values.add((isQuoted || value.length() > 0) ? value.toString() : null);
+                value.setLength(0);
+                isQuoted = false;
+            } else if (character == QUOTE && value.length() == 0 && !isQuoted) {
+                isQuoted = true;
+                inQuotes = true;
+            } else {
+                value.append(character);
+            }
+        }
+        values.add((isQuoted || value.length() > 0) ? value.toString() : null);
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,49 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.solr.indexer;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Destination of the indexed documents.
+ *
+ * <p>The documents are written by a single thread.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public interface DocumentWriter {
+
+    /**
+     * Adds a batch of documents.
+     *
+     * <p>A document is a map of Solr field names to values, a collection is a multi-valued field.</p>
+     *
+     * @param documents documents
+     * @throws Exception when the documents cannot be added
+     */
+    void add(List<Map<String, Object>> documents) throws Exception;
+
+    /**
+     * Commits the added documents.
+     *
+     * @throws Exception when the documents cannot be committed
+     */
+    void commit() throws Exception;
+}
@@ -0,0 +1,106 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.solr.indexer;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the rows of a SQL query, as the JdbcDataSource of the Solr
+ * DataImportHandler does.
+ *
+ * <p>The rows are streamed, their columns are named by their label and the null values are not set.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class JdbcRowSource implements RowSource {
+
+    /**
+     * Default number of rows fetched at once.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 500;
+    /**
+     * Connection.
+     */
+    private final Connection connection;
+    /**
+     * Statement.
+     */
+    private final Statement statement;
+    /**
+     * Result of the query.
+     */
+    private final ResultSet resultSet;
+    /**
+     * Column labels.
+     */
+    private final String[] columns;
+
+    /**
+     * Runs the query.
+     *
+     * @param connectionVal connection, closed with the source
+     * @param query SQL query
+     * @param fetchSize number of rows fetched at once
+     * @throws SQLException when the query fails
+     */
+    public JdbcRowSource(final Connection connectionVal, final String query, final int fetchSize) throws SQLException {
+        this.connection = connectionVal;
+        // some drivers, as PostgreSQL, stream the rows only outside of the auto-commit mode
+        connectionVal.setAutoCommit(false);
+        this.statement = connectionVal.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        this.statement.setFetchSize(fetchSize);
+        this.resultSet = this.statement.executeQuery(query);
+        final ResultSetMetaData metaData = this.resultSet.getMetaData();
+        this.columns = new String[metaData.getColumnCount()];
+        for (int i = 0; i < this.columns.length; i++) {
+            this.columns[i] = metaData.getColumnLabel(i + 1);
+        }
+    }
+
+    @Override
+    public Map<String, Object> next() throws SQLException {
+        if (!resultSet.next()) {
+            return null;
+        }
+        final Map<String, Object> row = new HashMap<String, Object>();
+        for (int i = 0; i < columns.length; i++) {
+            final Object value = resultSet.getObject(i + 1);
+            if (value != null) {
+                row.put(columns[i], value);
+            }
+        }
+        return row;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            resultSet.close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.solr.indexer;
+
+import java.util.Map;
+
+/**
+ * Source of the rows to index.
+ *
+ * <p>The rows are read by a single thread.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public interface RowSource {
+
+    /**
+     * Returns the next row, by column name.
+     *
+     * @return the row or null when all the rows are read
+     * @throws Exception when the row cannot be read
+     */
+    Map<String, Object> next() throws Exception;
+
+    /**
+     * Releases the resources of the source.
+     *
+     * @throws Exception when the resources cannot be released
+     */
+    void close() throws Exception;
+}
@@ -0,0 +1,209 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.solr.indexer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Sends the documents to a SOLR core with the XML update format.
+ *
+ * <p>Each batch is sent in one request to the <code>update</code> handler of the core.</p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class SolrUpdateWriter implements DocumentWriter {
+
+    /**
+     * Encoding.
+     */
+    private static final String ENCODING = "UTF-8";
+    /**
+     * Maximum length of the error message read from the response.
+     */
+    private static final int MAX_ERROR_LENGTH = 1024;
+    /**
+     * Update handler URL.
+     */
+    private final URL updateUrl;
+
+    /**
+     * Constructs a writer.
+     *
+     * @param solrCoreUrl URL of the SOLR core, as http://localhost:8983/solr/headers
+     * @throws IOException when the URL is not valid
+     */
+    public SolrUpdateWriter(final String solrCoreUrl) throws IOException {
+        this.updateUrl = new URL(solrCoreUrl.endsWith("/") ? solrCoreUrl + "update" : solrCoreUrl + "/update");
+    }
+
+    @Override
+    public void add(final List<Map<String, Object>> documents) throws IOException {
+        final StringBuilder xml = new StringBuilder("<add>");
+        final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (Map<String, Object> document : documents) {
+            xml.append("<doc>");
+            for (Map.Entry<String, Object> field : document.entrySet()) {
+                if (field.getValue() instanceof Collection) {
+                    for (Object value : (Collection<?>) field.getValue()) {
+                        appendField(xml, field.getKey(), value, dateFormat);
+                    }
+                } else {
+                    appendField(xml, field.getKey(), field.getValue(), dateFormat);
+                }
+            }
+            xml.append("</doc>");
+        }
+        xml.append("</add>");
+        post(xml.toString());
+    }
+
+    @Override
+    public void commit() throws IOException {
+        post("<commit/>");
+    }
+
+    /**
+     * Appends a field to a document.
+     *
+     * @param xml document
+     * @param name field name
+     * @param value value, not written when null
+     * @param dateFormat format of the dates
+     */
+    private static void appendField(final StringBuilder xml, final String name, final Object value, final DateFormat dateFormat) {
+        if (value != null) {
+            xml.append("<field name=\"");
+            escape(xml, name);
+            xml.append("\">");
+            escape(xml, (value instanceof Date) ? dateFormat.format((Date) value) : String.valueOf(value));
+            xml.append("</field>");
+        }
+    }
+
+    /**
+     * Appends a text escaped for XML, without the characters that XML does not allow.
+     *
+     * @param xml XML
+     * @param text text
+     */
+    private static void escape(final StringBuilder xml, final String text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char character = text.charAt(i);
+            switch (character) {
+                case '&':
+                    xml.append("&amp;");
+                    break;
+                case '<':
+                    xml.append("&lt;");
+                    break;
+                case '>':
+                    xml.append("&gt;");
+                    break;
+                case '"':
+                    xml.append("&quot;");
+                    break;
+                default:
+                    // the control characters are not allowed in XML 1.0
+                    if (character >= ' ' || character == '\t' || character == '\n' || character == '\r') {
+                        xml.append(character);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Posts a XML message to the update handler.
+     *
+     * @param xml message
+     * @throws IOException when the message is rejected
+     */
+    private void post(final String xml) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) updateUrl.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "text/xml; charset=" + ENCODING);
+        final Writer writer = new OutputStreamWriter(connection.getOutputStream(), ENCODING);
+        try {
+            writer.write(xml);
+        } finally {
+            writer.close();
+        }
+        final int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Solr update failed with HTTP " + status + ": " + readError(connection));
+        }
+        // the body is read until its end to reuse the connection
+        readAll(connection.getInputStream(), null);
+    }
+
+    /**
+     * Returns the beginning of the error message.
+     *
+     * @param connection connection
+     * @return the message, empty when there is none
+     * @throws IOException when the message cannot be read
+     */
+    private static String readError(final HttpURLConnection connection) throws IOException {
+        final InputStream error = connection.getErrorStream();
+        if (error == null) {
+            return "";
+        }
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        readAll(error, message);
+        final String text = message.toString(ENCODING);
+        return (text.length() > MAX_ERROR_LENGTH) ? text.substring(0, MAX_ERROR_LENGTH) : text;
+    }
+
+    /**
+     * Reads a stream until its end and closes it.
+     *
+     * @param input stream
+     * @param output destination, or null to discard the content
+     * @throws IOException when the stream cannot be read
+     */
+    private static void readAll(final InputStream input, final OutputStream output) throws IOException {
+        try {
+            final byte[] buffer = new byte[MAX_ERROR_LENGTH];
+            int length;
+            while ((length = input.read(buffer)) != -1) {
+                if (output != null) {
+                    output.write(buffer, 0, length);
+                }
+            }
+        } finally {
+            input.close();
+        }
+    }
+}
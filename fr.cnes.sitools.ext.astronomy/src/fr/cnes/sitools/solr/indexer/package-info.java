@@ -0,0 +1,38 @@
+/**
+This package contains a standalone bulk indexer of image metadata in a SOLR server.<br/>
+
+The rows are read from a SGBD or from a CSV file. Their footprint and Healpix
+index are computed as the Solr DataImportHandler does with the
+fr.cnes.sitools.solr.transformer.WcsTransformer, but by a pool of threads, and
+the documents are sent to the SOLR core in batches.
+
+The indexer is configured by a properties file, for instance:
+<pre>
+<code>
+jdbc.url=jdbc:postgresql://localhost:5432/cnes_test?schema=fuse
+jdbc.user=<login>
+jdbc.password=<pwd>
+jdbc.query=select * from fuse.headers
+# or csv=/data/headers.csv
+solr.url=http://localhost:8983/solr/headers
+minOrder=3
+maxOrder=13
+scheme=NESTED
+threads=8
+batchSize=500
+wcs.RA=ra_targ
+wcs.DEC=dec_targ
+field.targname=properties.title
+field.dataset=properties.identifier
+</code>
+</pre>
+and is run with:
+<pre>
+<code>
+java -cp ... fr.cnes.sitools.solr.indexer.BulkFootprintIndexer indexer.properties
+</code>
+</pre>
+@copyright 2012 2013 CNES
+@author Jean-Christophe Malapert
+*/
+package fr.cnes.sitools.solr.indexer;
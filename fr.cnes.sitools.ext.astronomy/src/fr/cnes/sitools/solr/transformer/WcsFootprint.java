@@ -0,0 +1,381 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.solr.transformer;
+
+import fr.cnes.sitools.searchgeometryengine.CoordSystem;
+import fr.cnes.sitools.searchgeometryengine.MultiOrderIndex;
+import fr.cnes.sitools.searchgeometryengine.Point;
+import fr.cnes.sitools.searchgeometryengine.Polygon;
+import fr.cnes.sitools.searchgeometryengine.Shape;
+
+import java.awt.geom.Point2D;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jsky.coords.WCSKeywordProvider;
+import jsky.coords.WCSTransform;
+
+import org.apache.solr.handler.dataimport.DataImporter;
+import org.restlet.engine.Engine;
+
+/**
+ * Computes the geographical parameters of a row from its Word Coordinates
+ * System (WCS) keywords.
+ *
+ * <p>
+ * The center, the footprint and the Healpix index of the footprint are added
+ * to the row. When the WCS keywords cannot be used, the point source defined
+ * by the RA and DEC keywords is used. See {@link WcsTransformer} for the
+ * computed columns.
+ * </p>
+ *
+ * <p>
+ * An instance is created for each row. The WCS keyword columns and the
+ * Healpix index can be shared by several threads.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public final class WcsFootprint implements WCSKeywordProvider {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = Engine.getLogger(WcsFootprint.class.getName());
+    /**
+     * Origin of FITS along X.
+     */
+    private static final double ORGIN_X = 0.5;
+    /**
+     * Origin of FITS along Y.
+     */
+    private static final double ORGIN_Y = 0.5;
+    /**
+     * keyword for geometrical coordinates in the response.
+     */
+    private static final String COORDINATES = "geometry.coordinates";
+    /**
+     * keyword for geometrical coordinates type in the response.
+     */
+    private static final String COORDINATES_TYPE = "geometry.coordinates.type";
+    /**
+     * right ascension keyword in the response.
+     */
+    private static final String RA = "properties.ra";
+    /**
+     * declination keyword in the response.
+     */
+    private static final String DEC = "properties.dec";
+    /**
+     * right ascension keyword.
+     */
+    private static final String RA_WCS = "RA";
+    /**
+     * declination keyword.
+     */
+    private static final String DEC_WCS = "DEC";
+    /**
+     * Initialize a default value the WCS interface.
+     */
+    private static final double DEFAULT_VALUE = 500;
+    /**
+     * data in row.
+     */
+    private final Map<String, Object> row;
+    /**
+     * Column of each WCS keyword.
+     */
+    private final Map<String, String> wcsColumns;
+    /**
+     * Healpix index.
+     */
+    private final MultiOrderIndex multiOrderIndex;
+
+    /**
+     * Constructor.
+     *
+     * @param rowVal row, in which the parameters are added
+     * @param wcsColumnsVal column of each WCS keyword, see {@link #mapWcsColumns(List)}
+     * @param multiOrderIndexVal Healpix index
+     */
+    public WcsFootprint(final Map<String, Object> rowVal, final Map<String, String> wcsColumnsVal, final MultiOrderIndex multiOrderIndexVal) {
+        this.row = rowVal;
+        this.wcsColumns = wcsColumnsVal;
+        this.multiOrderIndex = multiOrderIndexVal;
+    }
+
+    /**
+     * Returns the column of each WCS keyword.
+     *
+     * <p>When several fields have the same WCS keyword, the first one is used.</p>
+     *
+     * @param entityFields fields of the entity, with the column and the wcs attributes
+     * @return the column by WCS keyword
+     */
+    public static Map<String, String> mapWcsColumns(final List<Map<String, String>> entityFields) {
+        final Map<String, String> columns = new HashMap<String, String>();
+        for (Map<String, String> field : entityFields) {
+            final String key = field.get("wcs");
+            if (key != null && !columns.containsKey(key)) {
+                columns.put(key, field.get(DataImporter.COLUMN));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Computes the parameters and adds them to the row.
+     *
+     * @return the row
+     * @throws Exception when the Healpix index cannot be computed, the row must be skipped
+     */
+    public Map<String, Object> compute() throws Exception {
+        List<Point2D.Double> points;
+        WCSTransform wcs;
+        try {
+            wcs = new WCSTransform(this);
+            computeWcsCenter(wcs);
+            points = computeFootprint(wcs);
+        } catch (IllegalArgumentException ex) {
+            LOG.log(Level.WARNING, null, ex);
+            points = computePointSource();
+        } catch (RuntimeException ex) {
+            LOG.log(Level.WARNING, null, ex);
+            points = computePointSource();
+        }
+        computeHealpix(points);
+        return this.row;
+    }
+
+    /**
+     * Returns the point source based on RA and DEC keywords.
+     *
+     * <p>
+     * <code>null</code> is returned when
+     * <code>RA_WCS</code> or
+     * <code>DEC_WCS</code> cannot be retrieved.</p>
+     *
+     * @return one point in the list or null when RA or DEC is not set
+     */
+    private List<Point2D.Double> computePointSource() {
+        double ra = getDoubleValue(RA_WCS, DEFAULT_VALUE);
+        double dec = getDoubleValue(DEC_WCS, DEFAULT_VALUE);
+        if (ra != DEFAULT_VALUE && dec != DEFAULT_VALUE) {
+            Point2D.Double p = new Point2D.Double(ra, dec);
+            row.put(COORDINATES, "[" + ra + "," + dec + "]");
+            row.put(COORDINATES_TYPE, "point");
+            row.put(RA, ra);
+            row.put(DEC, dec);
+            return Arrays.asList(p);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Computes and stores the center of the image in
+     * <code>row</code>.
+     *
+     * @param wcs wcs
+     */
+    private void computeWcsCenter(final WCSTransform wcs) {
+        if (wcs.isWCS() && wcs.isValid()) {
+            try {
+                Point2D.Double wcsCenter = wcs.getWCSCenter();
+                row.put(RA, wcsCenter.x);
+                row.put(DEC, wcsCenter.y);
+            } catch (IllegalArgumentException ex) {
+                LOG.log(Level.WARNING, null, ex);
+            } catch (RuntimeException ex) {
+                LOG.log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Computes, stores and returns the footprint of the image.
+     *
+     * @param wcs wcs
+     * @return the center of the image
+     */
+    private List<Point2D.Double> computeFootprint(final WCSTransform wcs) {
+        List<Point2D.Double> points = null;
+        if (wcs != null && wcs.isWCS() && wcs.isValid()) {
+            try {
+                int naxis1 = this.getIntValue("NAXIS1");
+                int naxis2 = this.getIntValue("NAXIS2");
+                if (naxis1 != 0 && naxis2 != 0) {
+                    double heightPix = wcs.getHeight();
+                    double widthPix = wcs.getWidth();
+                    Point2D.Double p1 = wcs.pix2wcs(ORGIN_X, ORGIN_Y);
+                    Point2D.Double p2 = wcs.pix2wcs(ORGIN_X, heightPix + ORGIN_Y);
+                    Point2D.Double p3 = wcs.pix2wcs(widthPix + ORGIN_X, heightPix + ORGIN_Y);
+                    Point2D.Double p4 = wcs.pix2wcs(widthPix + ORGIN_X, ORGIN_Y);
+                    String footprint = String.format("[%s,%s],[%s,%s],[%s,%s],[%s,%s],[%s,%s]", p2.x, p2.y, p3.x, p3.y, p4.x, p4.y, p1.x, p1.y, p2.x, p2.y);
+                    row.put(COORDINATES, footprint);
+                    row.put(COORDINATES_TYPE, "polygon");
+                    points = Arrays.asList(p2, p3, p4, p1);
+                }
+            } catch (IllegalArgumentException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            } catch (RuntimeException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Computes and stores Healpix in the equatorial frame.
+     *
+     * @param points points describing the polygon
+     * @throws Exception Healpix Exception or no point
+     */
+    private void computeHealpix(final List<Point2D.Double> points) throws Exception {
+        List<Point> skyPoints = new ArrayList<Point>(points.size());
+        for (Point2D.Double point : points) {
+            skyPoints.add(new Point(point.x, point.y, CoordSystem.EQUATORIAL));
+        }
+        storeHealpix(skyPoints);
+    }
+
+    /**
+     * Computes and stores the Healpix index of a point or of a polygon at each order.
+     *
+     * <p>
+     * The column of a point contains the pixel number, the column of a polygon
+     * contains the list of pixels.</p>
+     *
+     * @param skyPoints one point or the points of the polygon
+     * @throws Exception Healpix Exception
+     */
+    private void storeHealpix(final List<Point> skyPoints) throws Exception {
+        final boolean isPoint = skyPoints.size() == 1;
+        final Shape shape = isPoint ? skyPoints.get(0) : new Polygon(skyPoints);
+        final long[][] pixels = multiOrderIndex.computeIndex(shape);
+        for (int order = multiOrderIndex.getMinOrder(); order <= multiOrderIndex.getMaxOrder(); order++) {
+            final long[] pixelsAtOrder = pixels[order - multiOrderIndex.getMinOrder()];
+            row.put("order" + order, isPoint ? String.valueOf(pixelsAtOrder[0]) : new LongList(pixelsAtOrder));
+        }
+    }
+
+    @Override
+    public boolean findKey(final String key) {
+        return wcsColumns.containsKey(key);
+    }
+
+    @Override
+    public String getStringValue(final String key) {
+        return getStringValue(key, null);
+    }
+
+    @Override
+    public String getStringValue(final String key, final String defaultValue) {
+        String value = defaultValue;
+        if (wcsColumns.containsKey(key)) {
+            String fieldName = wcsColumns.get(key);
+            value = String.valueOf(this.row.get(fieldName));
+        }
+        return value;
+    }
+
+    @Override
+    public double getDoubleValue(final String key) {
+        return getDoubleValue(key, 0);
+    }
+
+    @Override
+    public double getDoubleValue(final String key, final double defaultValue) {
+        double value = defaultValue;
+        if (wcsColumns.containsKey(key)) {
+            String fieldName = wcsColumns.get(key);
+            value = Double.valueOf(String.valueOf(this.row.get(fieldName)));
+        }
+        return value;
+    }
+
+    @Override
+    public float getFloatValue(final String key) {
+        return getFloatValue(key, 0);
+    }
+
+    @Override
+    public float getFloatValue(final String key, final float defaultValue) {
+        float value = defaultValue;
+        if (wcsColumns.containsKey(key)) {
+            String fieldName = wcsColumns.get(key);
+            value = Float.valueOf(String.valueOf(this.row.get(fieldName)));
+        }
+        return value;
+    }
+
+    @Override
+    public int getIntValue(final String key) {
+        return getIntValue(key, 0);
+    }
+
+    @Override
+    public int getIntValue(final String key, final int defaultValue) {
+        int value = defaultValue;
+        if (wcsColumns.containsKey(key)) {
+            String fieldName = wcsColumns.get(key);
+            value = Integer.valueOf(String.valueOf(this.row.get(fieldName)));
+        }
+        return value;
+    }
+
+    /**
+     * List of pixels backed by an array of long.
+     *
+     * <p>The pixels are boxed only when they are read.</p>
+     */
+    private static final class LongList extends AbstractList<Long> implements RandomAccess {
+
+        /**
+         * Pixels.
+         */
+        private final long[] values;
+
+        /**
+         * Constructor.
+         *
+         * @param valuesVal pixels
+         */
+        private LongList(final long[] valuesVal) {
+            this.values = valuesVal;
+        }
+
+        @Override
+        public Long get(final int index) {
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+}
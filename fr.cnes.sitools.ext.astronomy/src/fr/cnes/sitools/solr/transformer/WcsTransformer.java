@@ -18,34 +18,15 @@
  ******************************************************************************/
 package fr.cnes.sitools.solr.transformer;
 
-import fr.cnes.sitools.extensions.common.AstroCoordinate;
-import fr.cnes.sitools.searchgeometryengine.AbstractGeometryIndex;
-import fr.cnes.sitools.searchgeometryengine.CoordSystem;
-import fr.cnes.sitools.searchgeometryengine.Index;
-import fr.cnes.sitools.searchgeometryengine.Point;
-import fr.cnes.sitools.searchgeometryengine.Polygon;
-import fr.cnes.sitools.searchgeometryengine.RingIndex;
-import fr.cnes.sitools.searchgeometryengine.Shape;
-import healpix.core.HealpixIndex;
-import healpix.essentials.RangeSet;
+import fr.cnes.sitools.searchgeometryengine.MultiOrderIndex;
 import healpix.essentials.Scheme;
 
-import java.awt.geom.Point2D;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import jsky.coords.WCSKeywordProvider;
-import jsky.coords.WCSTransform;
 
 import org.apache.solr.handler.dataimport.Context;
 import org.apache.solr.handler.dataimport.DataImportHandlerException;
-import org.apache.solr.handler.dataimport.DataImporter;
 import org.apache.solr.handler.dataimport.Transformer;
-import org.restlet.engine.Engine;
 
 /**
  * Computes some geographical parameters from the Word Coordinates System (WCS)
@@ -89,58 +70,24 @@ import org.restlet.engine.Engine;
  * About Healpix index, new columns are computed: <field column="<name>" .../>
  * where <name> is from order0 to order13 </p>
  *
+ * <p>
+ * The parameters of each row are computed by {@link WcsFootprint}. The Healpix
+ * index is computed once at maxOrder, the pixels at the other orders are
+ * derived from it by {@link MultiOrderIndex}.
+ * </p>
+ *
  * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
  */
-public class WcsTransformer extends Transformer implements WCSKeywordProvider {
+public class WcsTransformer extends Transformer {
 
-    /**
-     * Logger.
-     */
-    private static final Logger LOG = Engine.getLogger(WcsTransformer.class.getName());
-    /**
-     * Origin of FITS along X.
-     */
-    private static final double ORGIN_X = 0.5;
-    /**
-     * Origin of FITS along Y.
-     */
-    private static final double ORGIN_Y = 0.5;
-    /**
-     * keyword for geometrical coordinates in the response.
-     */
-    private static final String COORDINATES = "geometry.coordinates";
-    /**
-     * keyword for geometrical coordinates type in the response.
-     */
-    private static final String COORDINATES_TYPE = "geometry.coordinates.type";
-    /**
-     * right ascension keyword in the response.
-     */
-    private static final String RA = "properties.ra";
-    /**
-     * declination keyword in the response.
-     */
-    private static final String DEC = "properties.dec";
-    /**
-     * right ascension keyword.
-     */
-    private static final String RA_WCS = "RA";
-    /**
-     * declination keyword.
-     */
-    private static final String DEC_WCS = "DEC";
-    /**
-     * Initialize a default value the WCS interface.
-     */
-    private static final double DEFAULT_VALUE = 500;
     /**
      * Min Healpix order (0).
      */
-    private static final int DEFAULT_MIN_ORDER = 0;
+    public static final int DEFAULT_MIN_ORDER = 0;
     /**
      * Max Healpix order (13).
      */
-    private static final int DEFAULT_MAX_ORDER = 13;
+    public static final int DEFAULT_MAX_ORDER = 13;
     /**
      * Healpix Scheme.
      */
@@ -150,9 +97,13 @@ public class WcsTransformer extends Transformer implements WCSKeywordProvider {
      */
     private List<Map<String, String>> fields;
     /**
-     * data in row.
+     * Column of each WCS keyword of <code>fields</code>.
+     */
+    private Map<String, String> wcsColumns;
+    /**
+     * Healpix index of the current configuration.
      */
-    private Map<String, Object> row;
+    private MultiOrderIndex multiOrderIndex;
     /**
      * min Healpix order.
      */
@@ -175,23 +126,12 @@ public class WcsTransformer extends Transformer implements WCSKeywordProvider {
      */
     @Override
     public final Object transformRow(final Map<String, Object> rowVal, final Context context) {
-        List<Point2D.Double> points;
-        WCSTransform wcs;
         setupConfiguration(context);
-        this.row = rowVal;
         try {
-            wcs = new WCSTransform(this);
-            computeWcsCenter(wcs);
-            points = computeFootprint(wcs);
-        } catch (IllegalArgumentException ex) {
-            LOG.log(Level.WARNING, null, ex);
-            points = computePointSource();
-        } catch (RuntimeException ex) {
-            LOG.log(Level.WARNING, null, ex);
-            points = computePointSource();
+            return new WcsFootprint(rowVal, wcsColumns, multiOrderIndex).compute();
+        } catch (Exception ex) {
+            throw new DataImportHandlerException(DataImportHandlerException.SKIP_ROW, rowVal.toString(), ex);
         }
-        computeHealpix(points);
-        return this.row;
     }
 
     /**
@@ -208,316 +148,14 @@ public class WcsTransformer extends Transformer implements WCSKeywordProvider {
         } catch (IllegalArgumentException ex) {
             throw new RuntimeException("Healpix scheme must be set by defining scheme (=RING or NESTED) variable");
         }
-        fields = context.getAllEntityFields();
-    }
-
-    /**
-     * Returns the point source based on RA and DEC keywords.
-     *
-     * <p>
-     * <code>null</code> is returned when
-     * <code>RA_WCS</code> or
-     * <code>DEC_WCS</code> cannot be retrieved.</p>
-     *
-     * @return one point in the list or null when RA or DEC is not set
-     */
-    private List<Point2D.Double> computePointSource() {
-        double ra = getDoubleValue(RA_WCS, DEFAULT_VALUE);
-        double dec = getDoubleValue(DEC_WCS, DEFAULT_VALUE);
-        if (ra != DEFAULT_VALUE && dec != DEFAULT_VALUE) {
-            Point2D.Double p = new Point2D.Double(ra, dec);
-            row.put(COORDINATES, "[" + ra + "," + dec + "]");
-            row.put(COORDINATES_TYPE, "point");
-            row.put(RA, ra);
-            row.put(DEC, dec);
-            return Arrays.asList(p);
-        } else {
-            return null;
-        }
-    }
-
-    /**
-     * Returns
-     * <code>true</code> if the xml-data-config file contains attributes with a
-     * specific wcs key.
-     *
-     * @param field field
-     * @param key WCS keyword
-     * @return true when the keyword is detected otherwise false
-     */
-    private boolean containWcsKey(final Map<String, String> field, final String key) {
-        return (field.containsKey("wcs") && field.get("wcs").equals(key)) ? true : false;
-    }
-
-    /**
-     * Computes and stores the center of the image in
-     * <code>row</code>.
-     *
-     * @param wcs wcs
-     */
-    private void computeWcsCenter(final WCSTransform wcs) {
-        if (wcs.isWCS() && wcs.isValid()) {
-            try {
-                Point2D.Double wcsCenter = wcs.getWCSCenter();
-                row.put(RA, wcsCenter.x);
-                row.put(DEC, wcsCenter.y);
-            } catch (IllegalArgumentException ex) {
-                LOG.log(Level.WARNING, null, ex);
-            } catch (RuntimeException ex) {
-                LOG.log(Level.WARNING, null, ex);
-            }
-        }
-    }
-
-    /**
-     * Computes, stores and returns the footprint of the image.
-     *
-     * @param wcs wcs
-     * @return the center of the image
-     */
-    private List<Point2D.Double> computeFootprint(final WCSTransform wcs) {
-        List<Point2D.Double> points = null;
-        if (wcs != null && wcs.isWCS() && wcs.isValid()) {
-            try {
-                int naxis1 = this.getIntValue("NAXIS1");
-                int naxis2 = this.getIntValue("NAXIS2");
-                if (naxis1 != 0 && naxis2 != 0) {
-                    double heightPix = wcs.getHeight();
-                    double widthPix = wcs.getWidth();
-                    Point2D.Double p1 = wcs.pix2wcs(ORGIN_X, ORGIN_Y);
-                    Point2D.Double p2 = wcs.pix2wcs(ORGIN_X, heightPix + ORGIN_Y);
-                    Point2D.Double p3 = wcs.pix2wcs(widthPix + ORGIN_X, heightPix + ORGIN_Y);
-                    Point2D.Double p4 = wcs.pix2wcs(widthPix + ORGIN_X, ORGIN_Y);
-                    String footprint = String.format("[%s,%s],[%s,%s],[%s,%s],[%s,%s],[%s,%s]", p2.x, p2.y, p3.x, p3.y, p4.x, p4.y, p1.x, p1.y, p2.x, p2.y);
-                    row.put(COORDINATES, footprint);
-                    row.put(COORDINATES_TYPE, "polygon");
-                    points = Arrays.asList(p2, p3, p4, p1);
-                }
-            } catch (IllegalArgumentException ex) {
-                LOG.log(Level.SEVERE, null, ex);
-            } catch (RuntimeException ex) {
-                LOG.log(Level.SEVERE, null, ex);
-            }
+        if (multiOrderIndex == null || multiOrderIndex.getMinOrder() != minOrder
+                || multiOrderIndex.getMaxOrder() != maxOrder || multiOrderIndex.getScheme() != scheme) {
+            multiOrderIndex = new MultiOrderIndex(minOrder, maxOrder, scheme);
         }
-        return points;
-    }
-
-    /**
-     * Computes and stores Healpix.
-     *
-     * @param points points describing the polygon
-     */
-    private void computeHealpix(final List<Point2D.Double> points) {
-        computeHealpixEquatorial(points);
-        //computeHealpixGalactic(points);
-    }
-
-    private void computeHealpixEquatorial(final List<Point2D.Double> points) {
-        try {
-            List<Point> skyPoints = new ArrayList<Point>(points.size());
-            for (Point2D.Double point : points) {
-                skyPoints.add(new Point(point.x, point.y, CoordSystem.EQUATORIAL));
-            }
-            if (skyPoints.size() == 1) {
-                Index index = AbstractGeometryIndex.createIndex(skyPoints.get(0), fr.cnes.sitools.searchgeometryengine.Scheme.valueOf(Scheme.RING.name()));
-                for (int order = minOrder; order <= maxOrder; order++) {
-                    ((RingIndex) index).setOrder(order);
-                    String pixelNumber = String.valueOf(index.getIndex());
-                    switch (scheme) {
-                        case RING:
-                            break;
-                        case NESTED:
-                            //((NestedIndex) index).setOrderMax(order);
-                            int nside = (int) Math.pow(2.0, order);
-                            HealpixIndex healpixIndex = new HealpixIndex(nside, Scheme.RING);
-                            pixelNumber = String.valueOf(healpixIndex.ring2nest(Long.valueOf(pixelNumber)));
-                            break;
-                        default:
-                            throw new RuntimeException("Unknown Scheme");
-                    }
-                    row.put("order" + order, pixelNumber);
-                }
-            } else {
-                Shape polygon = new Polygon(skyPoints);
-                Index index = AbstractGeometryIndex.createIndex(polygon, fr.cnes.sitools.searchgeometryengine.Scheme.valueOf(Scheme.RING.name()));
-                for (int order = minOrder; order <= maxOrder; order++) {
-                    row.put("order" + order, computeAtOrder(order, index));
-                }
-            }
-        } catch (Exception ex) {
-            throw new DataImportHandlerException(DataImportHandlerException.SKIP_ROW, row.toString(), ex);
-        }
-
-    }
-
-    private void computeHealpixGalactic(final List<Point2D.Double> points) {
-        try {
-            List<Point> skyPoints = new ArrayList<Point>(points.size());
-            AstroCoordinate astro = new AstroCoordinate();
-            for (Point2D.Double point : points) {
-                astro.setRaAsDecimal(point.x);
-                astro.setDecAsDecimal(point.y);
-                astro.setCoordinateSystem(AstroCoordinate.CoordinateSystem.EQUATORIAL);
-                astro.processTo(AstroCoordinate.CoordinateSystem.GALACTIC);
-                skyPoints.add(new Point(astro.getRaAsDecimal(), astro.getDecAsDecimal(), CoordSystem.GALACTIC));
-            }
-            if (skyPoints.size() == 1) {
-                Index index = AbstractGeometryIndex.createIndex(skyPoints.get(0), fr.cnes.sitools.searchgeometryengine.Scheme.valueOf(Scheme.RING.name()));
-                for (int order = minOrder; order <= maxOrder; order++) {
-                    ((RingIndex) index).setOrder(order);
-                    String pixelNumber = String.valueOf(index.getIndex());
-                    switch (scheme) {
-                        case RING:
-                            break;
-                        case NESTED:
-                            //((NestedIndex) index).setOrderMax(order);
-                            int nside = (int) Math.pow(2.0, order);
-                            HealpixIndex healpixIndex = new HealpixIndex(nside, Scheme.RING);
-                            pixelNumber = String.valueOf(healpixIndex.ring2nest(Long.valueOf(pixelNumber)));
-                            break;
-                        default:
-                            throw new RuntimeException("Unknown Scheme");
-                    }
-                    row.put("order" + order, pixelNumber);
-                }
-            } else {
-                Shape polygon = new Polygon(skyPoints);
-                Index index = AbstractGeometryIndex.createIndex(polygon, fr.cnes.sitools.searchgeometryengine.Scheme.valueOf(Scheme.RING.name()));
-                for (int order = minOrder; order <= maxOrder; order++) {
-                    row.put("order" + order, computeAtOrder(order, index));
-                }
-            }
-        } catch (Exception ex) {
-            throw new DataImportHandlerException(DataImportHandlerException.SKIP_ROW, row.toString(), ex);
-        }
-
-    }
-
-    /**
-     * Returns the conversion from an array of long into an array of Long.
-     *
-     * @param array long array
-     * @return the converted array as Long datatype
-     */
-    private List<Long> convertArray(final long[] array) {
-        List<Long> result = new ArrayList<Long>(array.length);
-        for (long item : array) {
-            result.add(item);
-        }
-        return result;
-    }
-
-    /**
-     * Returns the Healpix index in RING scheme at a specific order.
-     *
-     * @param order Healpix resolution
-     * @param index index
-     * @return the Healpix index at a given order
-     * @throws Exception scheme is unknown
-     */
-    private List<Long> computeAtOrder(final int order, final Index index) throws Exception {
-        ((RingIndex) index).setOrder(order);
-        Object obj = index.getIndex();
-        long[] result = AbstractGeometryIndex.decodeRangeSet((RangeSet) obj);
-        switch (scheme) {
-            case RING:
-                break;
-            case NESTED:
-                int nside = (int) Math.pow(2.0, order);
-                HealpixIndex healpixIndex = new HealpixIndex(nside, Scheme.RING);
-                for (int i = 0; i < result.length; i++) {
-                    long pixelNumber = result[i];
-                    result[i] = healpixIndex.ring2nest(pixelNumber);
-                }
-                break;
-            default:
-                throw new RuntimeException("Unknown Scheme");
-        }
-
-        return convertArray(result);
-    }
-
-    @Override
-    public final boolean findKey(final String key) {
-        boolean isFound = false;
-        for (Map<String, String> field : fields) {
-            if (containWcsKey(field, key)) {
-                isFound = true;
-                break;
-            }
-        }
-        return isFound;
-    }
-
-    @Override
-    public final String getStringValue(final String key) {
-        return getStringValue(key, null);
-    }
-
-    @Override
-    public final String getStringValue(final String key, final String defaultValue) {
-        String value = defaultValue;
-        for (Map<String, String> field : fields) {
-            if (containWcsKey(field, key)) {
-                String fieldName = field.get(DataImporter.COLUMN);
-                value = String.valueOf(this.row.get(fieldName));
-                break;
-            }
-        }
-        return value;
-    }
-
-    @Override
-    public final double getDoubleValue(final String key) {
-        return getDoubleValue(key, 0);
-    }
-
-    @Override
-    public final double getDoubleValue(final String key, final double defaultValue) {
-        double value = defaultValue;
-        for (Map<String, String> field : fields) {
-            if (containWcsKey(field, key)) {
-                String fieldName = field.get(DataImporter.COLUMN);
-                value = Double.valueOf(String.valueOf(this.row.get(fieldName)));
-                break;
-            }
-        }
-        return value;
-    }
-
-    @Override
-    public final float getFloatValue(final String key) {
-        return getFloatValue(key, 0);
-    }
-
-    @Override
-    public final float getFloatValue(final String key, final float defaultValue) {
-        float value = defaultValue;
-        for (Map<String, String> field : fields) {
-            if (containWcsKey(field, key)) {
-                String fieldName = field.get(DataImporter.COLUMN);
-                value = Float.valueOf(String.valueOf(this.row.get(fieldName)));
-                break;
-            }
-        }
-        return value;
-    }
-
-    @Override
-    public final int getIntValue(final String key) {
-        return getIntValue(key, 0);
-    }
-
-    @Override
-    public final int getIntValue(final String key, final int defaultValue) {
-        int value = defaultValue;
-        for (Map<String, String> field : fields) {
-            if (containWcsKey(field, key)) {
-                String fieldName = field.get(DataImporter.COLUMN);
-                value = Integer.valueOf(String.valueOf(this.row.get(fieldName)));
-                break;
-            }
+        final List<Map<String, String>> entityFields = context.getAllEntityFields();
+        if (entityFields != fields) {
+            fields = entityFields;
+            wcsColumns = WcsFootprint.mapWcsColumns(entityFields);
         }
-        return value;
     }
 }
@@ -0,0 +1,99 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package healpix.core.dm;
+
+/**
+ * Values of a map stored in a float array.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class FloatMapColumn implements MapColumn {
+
+	/** The values. */
+	private final float[] data;
+
+	/**
+	 * Create a column of zeros.
+	 *
+	 * @param size
+	 *            number of values
+	 */
+	public FloatMapColumn(long size) {
+		this(new float[checkSize(size)]);
+	}
+
+	/**
+	 * Create a column from an array, the array is not copied.
+	 *
+	 * @param data
+	 *            the values
+	 */
+	public FloatMapColumn(float[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * Return the size as an array length.
+	 *
+	 * @param size
+	 *            number of values
+	 * @return the array length
+	 */
+	static int checkSize(long size) {
+		if (size < 0 || size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Cannot store " + size
+					+ " values in an array");
+		}
+		return (int) size;
+	}
+
+	/**
+	 * Return the values, the array is not copied.
+	 *
+	 * @return the values
+	 */
+	public float[] getData() {
+		return data;
+	}
+
+	@Override
+	public long size() {
+		return data.length;
+	}
+
+	@Override
+	public double get(long index) {
+		return data[(int) index];
+	}
+
+	@Override
+	public void set(long index, double value) {
+		data[(int) index] = (float) value;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	@Override
+	public boolean isDoublePrecision() {
+		return false;
+	}
+}
@@ -0,0 +1,69 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package healpix.core.dm;
+
+/**
+ * Values of one map, stored in the order of the pixels of a HEALPix scheme.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public interface MapColumn {
+
+	/**
+	 * Return the number of values.
+	 *
+	 * @return the number of values
+	 */
+	public long size();
+
+	/**
+	 * Return the value at an index.
+	 *
+	 * @param index
+	 *            index of the value
+	 * @return the value
+	 */
+	public double get(long index);
+
+	/**
+	 * Set the value at an index.
+	 *
+	 * @param index
+	 *            index of the value
+	 * @param value
+	 *            value to set
+	 * @throws UnsupportedOperationException
+	 *             when the column is read only
+	 */
+	public void set(long index, double value);
+
+	/**
+	 * Return true when the values cannot be modified.
+	 *
+	 * @return true when the values cannot be modified
+	 */
+	public boolean isReadOnly();
+
+	/**
+	 * Return true when the values are stored in double precision.
+	 *
+	 * @return true when the values are stored in double precision
+	 */
+	public boolean isDoublePrecision();
+}
@@ -0,0 +1,796 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package healpix.core.dm;
+
+import healpix.core.AngularPosition;
+import healpix.core.dm.util.HealpixTool;
+import healpix.essentials.HealpixBase;
+import healpix.essentials.Pointing;
+import healpix.essentials.Scheme;
+import healpix.tools.Constants;
+
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import nom.tam.fits.BinaryTableHDU;
+import nom.tam.fits.Fits;
+import nom.tam.fits.FitsFactory;
+import nom.tam.util.BufferedDataOutputStream;
+
+/**
+ * A Healpix map storing the values of each map in a {@link MapColumn}: a
+ * primitive array or a read only view of a FITS binary table column.
+ *
+ * <p>
+ * Each column is loaded by a {@link MapColumnLoader} the first time it is
+ * accessed, so that only the maps which are used take memory. The values stay
+ * in the scheme in which they have been loaded; when the scheme of the map is
+ * changed, the pixel numbers are converted on access instead of copying the
+ * values.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link HealpixMapImp}, the number of values added to each pixel is
+ * only stored once {@link #add(int, AngularPosition, double)} has been called
+ * on a map.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class PrimitiveHealpixMap extends HealpixBase implements HealpixMap,
+		Cloneable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Scheme of the stored values. */
+	private final Scheme storageScheme;
+
+	/** Loads the columns. */
+	private transient MapColumnLoader loader;
+
+	/** Columns, null until loaded. */
+	private final AtomicReferenceArray<MapColumn> columns;
+
+	/** Number of values added to each pixel, null until a value is added. */
+	private final int[][] counts;
+
+	/** Number of values added to each map. */
+	private final long[] nbValues;
+
+	/** Minimum value of each map. */
+	private final double[] minVal;
+
+	/** Maximum value of each map. */
+	private final double[] maxVal;
+
+	/** True when the minimum and maximum values of a map are known. */
+	private final boolean[] extremaKnown;
+
+	/** Units of the maps. */
+	private final String[] units;
+
+	/** Names of the maps. */
+	private String[] colname;
+
+	/** The imap. */
+	private int imap = 0;
+
+	/** Coordinate system. */
+	private CoordSys coordSys;
+
+	/**
+	 * Construct an empty map, the columns are allocated on first access.
+	 *
+	 * @param maps
+	 *            names of the maps
+	 * @param nside
+	 *            HEALPix NSIDE
+	 * @param scheme
+	 *            HEALPix scheme
+	 * @param doublePrecision
+	 *            true to store the values in double arrays, false to store
+	 *            them in float arrays
+	 * @throws Exception
+	 */
+	public PrimitiveHealpixMap(String[] maps, final long nside, Scheme scheme,
+			final boolean doublePrecision) throws Exception {
+		this(maps, nside, scheme, new MapColumnLoader() {
+			public MapColumn load(int imap) {
+				final long npix = 12 * nside * nside;
+				return doublePrecision ? new DoubleMapColumn(npix)
+						: new FloatMapColumn(npix);
+			}
+		});
+	}
+
+	/**
+	 * Construct a map whose columns are loaded on first access.
+	 *
+	 * @param maps
+	 *            names of the maps
+	 * @param nside
+	 *            HEALPix NSIDE
+	 * @param scheme
+	 *            HEALPix scheme of the values returned by the loader
+	 * @param loader
+	 *            loads the columns
+	 * @throws Exception
+	 */
+	public PrimitiveHealpixMap(String[] maps, long nside, Scheme scheme,
+			MapColumnLoader loader) throws Exception {
+		super(nside, scheme);
+		if (maps.length == 0) {
+			throw new Exception("Cannot construct empty Healpix map");
+		}
+		this.storageScheme = scheme;
+		this.loader = loader;
+		this.colname = maps;
+		this.columns = new AtomicReferenceArray<MapColumn>(maps.length);
+		this.counts = new int[maps.length][];
+		this.nbValues = new long[maps.length];
+		this.minVal = new double[maps.length];
+		this.maxVal = new double[maps.length];
+		this.extremaKnown = new boolean[maps.length];
+		this.units = new String[maps.length];
+	}
+
+	/**
+	 * Return the scheme in which the values are stored.
+	 *
+	 * @return the scheme in which the values are stored
+	 */
+	public Scheme getStorageScheme() {
+		return storageScheme;
+	}
+
+	/**
+	 * Return true when the column of a map has been loaded.
+	 *
+	 * @param i
+	 *            ith map
+	 * @return true when the column has been loaded
+	 */
+	public boolean isLoaded(int i) {
+		return columns.get(i) != null;
+	}
+
+	/**
+	 * Return the column of a map, loading it if needed. The values are in the
+	 * order of {@link #getStorageScheme()}.
+	 *
+	 * @param i
+	 *            ith map
+	 * @return the column
+	 */
+	public MapColumn getColumn(int i) {
+		MapColumn column = columns.get(i);
+		if (column == null) {
+			column = loadColumn(i);
+		}
+		return column;
+	}
+
+	/**
+	 * Load the column of a map once.
+	 *
+	 * @param i
+	 *            ith map
+	 * @return the column
+	 */
+	private synchronized MapColumn loadColumn(int i) {
+		MapColumn column = columns.get(i);
+		if (column == null) {
+			try {
+				column = loader.load(i);
+			} catch (Exception e) {
+				throw new IllegalStateException("Cannot load map " + i, e);
+			}
+			if (column.size() != this.npix) {
+				throw new IllegalStateException("Map " + i + " has "
+						+ column.size() + " values instead of " + this.npix);
+			}
+			columns.set(i, column);
+		}
+		return column;
+	}
+
+	/**
+	 * Convert a pixel number in the current scheme to the index of its value.
+	 *
+	 * @param pix
+	 *            pixel number in the current scheme
+	 * @return the index in the column
+	 */
+	private long toStorage(long pix) {
+		if (this.scheme == storageScheme) {
+			return pix;
+		}
+		try {
+			return (storageScheme == Scheme.RING) ? nest2ring(pix)
+					: ring2nest(pix);
+		} catch (Exception e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Return the column of a map, checking that it can be modified.
+	 *
+	 * @param i
+	 *            ith map
+	 * @return the column
+	 */
+	private MapColumn getWritableColumn(int i) {
+		final MapColumn column = getColumn(i);
+		if (column.isReadOnly()) {
+			throw new UnsupportedOperationException("Map " + i
+					+ " is read only");
+		}
+		return column;
+	}
+
+	/**
+	 * Update the minimum and maximum values of a map with a new value.
+	 *
+	 * @param i
+	 *            ith map
+	 * @param val
+	 *            the new value
+	 */
+	private void updateExtrema(int i, double val) {
+		if (extremaKnown[i]) {
+			if (val > this.maxVal[i]) {
+				this.maxVal[i] = val;
+			}
+			if (val < this.minVal[i]) {
+				this.minVal[i] = val;
+			}
+		}
+	}
+
+	/**
+	 * Compute the minimum and maximum values of a map, NaN values are
+	 * ignored.
+	 *
+	 * @param i
+	 *            ith map
+	 */
+	private synchronized void computeExtrema(int i) {
+		if (extremaKnown[i]) {
+			return;
+		}
+		final MapColumn column = getColumn(i);
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (long u = 0; u < this.npix; u++) {
+			final double val = column.get(u);
+			if (val < min) {
+				min = val;
+			}
+			if (val > max) {
+				max = val;
+			}
+		}
+		this.minVal[i] = min;
+		this.maxVal[i] = max;
+		this.extremaKnown[i] = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.AbstractHealpixMap#nside()
+	 */
+	public int nside() {
+		return getNside();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.AbstractHealpixMap#nPixel()
+	 */
+	public long nPixel() {
+		return getNpix();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#ang2pix(double, double)
+	 */
+	public int ang2pix(double theta, double phi) throws Exception {
+		return (int) super.ang2pix(new Pointing(theta, phi));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#pix2ang(long)
+	 */
+	public AngularPosition pix2ang(long ipix) throws Exception {
+		return new AngularPosition(super.pix2ang(ipix));
+	}
+
+	/**
+	 * Return the value of a pixel.
+	 *
+	 * @param i
+	 *            ith map
+	 * @param pix
+	 *            pixel number in the current scheme
+	 * @return the value
+	 */
+	public double get(int i, long pix) {
+		return getColumn(i).get(toStorage(pix));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#get(int, int)
+	 */
+	public double get(int i, int pixId) {
+		return get(i, (long) pixId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#get(int)
+	 */
+	public double get(int pixId) {
+		return get(0, (long) pixId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#get(healpix.core.AngularPosition)
+	 */
+	public double get(AngularPosition pos) {
+		try {
+			return get(0, super.ang2pix(pos));
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Could not convert position "
+					+ pos + " to HEALPix index", e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#add(healpix.core.AngularPosition, double)
+	 */
+	public void add(AngularPosition pos, double val) {
+		add(0, pos, val);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#add(int, double)
+	 */
+	public void add(int index, double val) {
+		addValue(0, index, val);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#add(int, healpix.core.AngularPosition,
+	 *      double)
+	 */
+	public void add(int i, AngularPosition pos, double val) {
+		try {
+			addValue(i, super.ang2pix(pos), val);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Could not convert position "
+					+ pos + " to HEALPix index", e);
+		}
+	}
+
+	/**
+	 * Add a value to a pixel.
+	 *
+	 * @param i
+	 *            ith map
+	 * @param pix
+	 *            pixel number in the current scheme
+	 * @param val
+	 *            value to add
+	 */
+	private void addValue(int i, long pix, double val) {
+		final MapColumn column = getWritableColumn(i);
+		final long index = toStorage(pix);
+		if (counts[i] == null) {
+			counts[i] = new int[FloatMapColumn.checkSize(this.npix)];
+		}
+		final double newVal = column.get(index) + val;
+		column.set(index, newVal);
+		counts[i][(int) index]++;
+		nbValues[i]++;
+		updateExtrema(i, newVal);
+	}
+
+	/**
+	 * Return the number of values added to a pixel.
+	 *
+	 * @param i
+	 *            ith map
+	 * @param pixId
+	 *            pixel number in the current scheme
+	 * @return the number of values added to the pixel
+	 */
+	public int getCount(int i, int pixId) {
+		return (counts[i] == null) ? 0 : counts[i][(int) toStorage(pixId)];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#setValueCell(int, int, double)
+	 */
+	public void setValueCell(int nmap, int ipix, double val) {
+		getWritableColumn(nmap).set(toStorage(ipix), val);
+		updateExtrema(nmap, val);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#setValueCell(int, double)
+	 */
+	public void setValueCell(int ipix, double val) {
+		setValueCell(0, ipix, val);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#normalize(int)
+	 */
+	public void normalize(int n) {
+		scale(n, 1.0 / (double) this.nbValues[n]);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#average(int)
+	 */
+	public void average(int n) {
+		if (counts[n] == null) {
+			return;
+		}
+		final MapColumn column = getWritableColumn(n);
+		for (int u = 0; u < counts[n].length; u++) {
+			if (counts[n][u] != 0) {
+				column.set(u, column.get(u) / counts[n][u]);
+			}
+		}
+		this.extremaKnown[n] = false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#scale(int, double)
+	 */
+	public void scale(int n, double f) {
+		final MapColumn column = getWritableColumn(n);
+		for (long u = 0; u < this.npix; u++) {
+			column.set(u, column.get(u) * f);
+		}
+		this.extremaKnown[n] = false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#getMin()
+	 */
+	public double getMin() {
+		return getMin(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#getMax()
+	 */
+	public double getMax() {
+		return getMax(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#getMin(int)
+	 */
+	public double getMin(int i) {
+		computeExtrema(i);
+		return this.minVal[i];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#getMax(int)
+	 */
+	public double getMax(int i) {
+		computeExtrema(i);
+		return this.maxVal[i];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#mean(int, int, int)
+	 */
+	public double mean(int nmap, int firstPix, int lastPix) {
+		double sum = 0.0d;
+		for (int ipr = firstPix; ipr <= lastPix; ipr++) {
+			sum += get(nmap, (long) ipr);
+		}
+		return sum / (lastPix - firstPix + 1);
+	}
+
+	/**
+	 * Return the values of a map in the current scheme, as a float array or
+	 * as a double array according to the precision of the column. The
+	 * array of the column is returned when it does not need to be copied.
+	 *
+	 * @param i
+	 *            ith map
+	 * @return the values
+	 */
+	private Object toArray(int i) {
+		final MapColumn column = getColumn(i);
+		if (this.scheme == storageScheme) {
+			if (column instanceof FloatMapColumn) {
+				return ((FloatMapColumn) column).getData();
+			} else if (column instanceof DoubleMapColumn) {
+				return ((DoubleMapColumn) column).getData();
+			}
+		}
+		final int length = FloatMapColumn.checkSize(this.npix);
+		if (column.isDoublePrecision()) {
+			final double[] data = new double[length];
+			for (int u = 0; u < length; u++) {
+				data[u] = get(i, (long) u);
+			}
+			return data;
+		} else {
+			final float[] data = new float[length];
+			for (int u = 0; u < length; u++) {
+				data[u] = (float) get(i, (long) u);
+			}
+			return data;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#toDataSet(java.lang.String)
+	 */
+	public void toDataSet(String name) throws Exception {
+		final Object[] table = new Object[this.colname.length];
+		for (int n = 0; n < table.length; ++n) {
+			table[n] = toArray(n);
+		}
+
+		FitsFactory.setUseAsciiTables(false);
+		FitsFactory.setUseHierarch(true);
+		final Fits f = new Fits();
+		f.addHDU(Fits.makeHDU(table));
+		final BinaryTableHDU bhdu = (BinaryTableHDU) f.getHDU(1);
+
+		for (int n = 0; n < table.length; ++n) {
+			bhdu.setColumnName(n, this.colname[n], "values");
+			if (this.units[n] != null) {
+				bhdu.addValue("TUNIT" + (n + 1), this.units[n], "");
+			}
+		}
+
+		bhdu.addValue("PIXTYPE", "HEALPIX", "This is a HEALPix map");
+		bhdu.addValue("NSIDE", this.nside(), "HEALPix NSIDE parameter");
+		bhdu.addValue("ORDERING", this.scheme.toString().toUpperCase(),
+				"HEALPix ordering scheme");
+		bhdu.addValue("COORDSYS", String.valueOf(getCoordSys().fitsType),
+				"Coordinate system of map");
+
+		for (int n = 0; n < table.length; ++n) {
+			bhdu.addValue("TDMIN" + (n + 1), getMin(n), "minimum actual value");
+			bhdu.addValue("TDMAX" + (n + 1), getMax(n), "maximum actual value");
+		}
+
+		final BufferedDataOutputStream s = new BufferedDataOutputStream(
+				new FileOutputStream(name));
+		try {
+			f.write(s);
+			s.flush();
+		} finally {
+			s.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.HealpixMap#regrade(int)
+	 */
+	public HealpixMap regrade(int nside) {
+		try {
+			if (nside > this.nside()) {
+				return new HealpixTool(this).upgrade(nside);
+			} else if (nside < this.nside()) {
+				return new HealpixTool(this).degrade(nside);
+			} else {
+				return this;
+			}
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Method to get the projected map of the current map in a Mollweide
+	 * projection of xsize * xsize / 2 pixels centered on lon0 (in degrees).
+	 * The pixels outside the ellipse are set to -1.
+	 */
+	public double[] mollpro(int xsize, double lon0) {
+		final int ysize = xsize / 2;
+		final int xc = (xsize - 1) / 2;
+		final int yc = (ysize - 1) / 2;
+		final double lon0rad = Math.toRadians(lon0);
+		final double[] propixels = new double[xsize * ysize];
+		Arrays.fill(propixels, -1.0);
+		for (int i = 0; i < xsize; i++) {
+			final double u = 2.0 * (i - xc) / xc;
+			for (int j = 0; j < ysize; j++) {
+				final double v = (double) (j - yc) / yc;
+				if (u * u * 0.25 + v * v > 1.0) {
+					continue;
+				}
+				final double sqrt = Math.sqrt((1.0 - v) * (1.0 + v));
+				final double colat = Constants.piover2
+						- Math.asin(2.0 / Constants.PI * (Math.asin(v) + v * sqrt));
+				double lon = lon0rad + 0.5 * Constants.PI * u
+						/ Math.max(sqrt, .000001f);
+				if (lon < 0.0) {
+					lon += 2.0 * Constants.PI;
+				}
+				try {
+					propixels[i + xsize * j] = get(this.imap,
+							super.ang2pix(new Pointing(colat, lon)));
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		return propixels;
+	}
+
+	/**
+	 * Makes the conversion map RING to NEST, the values are not copied.
+	 *
+	 * @throws Exception
+	 */
+	public void convert_ring2nest() throws Exception {
+		setScheme(Scheme.NESTED);
+	}
+
+	/**
+	 * Makes the conversion map NEST to RING, the values are not copied.
+	 *
+	 * @throws Exception
+	 */
+	public void convert_nest2ring() throws Exception {
+		setScheme(Scheme.RING);
+	}
+
+	/**
+	 * Copies all the maps into the heap, in the current scheme.
+	 *
+	 * @see healpix.core.dm.HealpixMap#getMapItemData()
+	 */
+	public double[][] getMapItemData() {
+		final int length = FloatMapColumn.checkSize(this.npix);
+		final double[][] mapDouble = new double[this.colname.length][length];
+		for (int j = 0; j < mapDouble.length; j++) {
+			for (int u = 0; u < length; u++) {
+				mapDouble[j][u] = get(j, (long) u);
+			}
+		}
+		return mapDouble;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.AbstractHealpixMap#getName()
+	 */
+	public String[] getName() {
+		return colname;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.AbstractHealpixMap#setName(java.lang.String[])
+	 */
+	public void setName(String[] colname) {
+		this.colname = colname;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.AbstractHealpixMap#getImap(java.lang.String)
+	 */
+	public int getImap(String cname) {
+		for (int t = 0; t < this.colname.length; t++) {
+			if (cname.equals(this.colname[t])) {
+				this.imap = t;
+			}
+		}
+		return imap;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see healpix.core.dm.AbstractHealpixMap#setImap(int)
+	 */
+	public void setImap(int i) {
+		this.imap = i;
+	}
+
+	@Override
+	public CoordSys getCoordSys() {
+		if (coordSys == null) {
+			coordSys = CoordSys.fromFits('G');
+		}
+		return coordSys;
+	}
+
+	@Override
+	public void setCoordSys(CoordSys cs) {
+		coordSys = cs;
+	}
+
+	/**
+	 * @see healpix.core.dm.HealpixMap#getUnit(short)
+	 */
+	@Override
+	public String getUnit(short mapIndex) {
+		return units[mapIndex];
+	}
+
+	/**
+	 * @see healpix.core.dm.HealpixMap#setUnit(java.lang.String, short)
+	 */
+	@Override
+	public void setUnit(String unit, short mapIndex) {
+		units[mapIndex] = unit;
+	}
+}
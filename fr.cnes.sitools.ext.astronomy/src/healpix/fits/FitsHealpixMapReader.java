@@ -0,0 +1,405 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package healpix.fits;
+
+import healpix.core.dm.DoubleMapColumn;
+import healpix.core.dm.FloatMapColumn;
+import healpix.core.dm.HealpixMap.CoordSys;
+import healpix.core.dm.MapColumn;
+import healpix.core.dm.MapColumnLoader;
+import healpix.core.dm.PrimitiveHealpixMap;
+import healpix.essentials.HealpixBase;
+import healpix.essentials.Scheme;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import nom.tam.fits.FitsException;
+import nom.tam.fits.FitsFactory;
+import nom.tam.fits.Header;
+import nom.tam.util.BufferedFile;
+
+/**
+ * Reads the HEALPix maps of the first binary table of a FITS file without
+ * reading the table.
+ *
+ * <p>
+ * Only the headers are read when the reader is created. The data of the table
+ * is then mapped in memory, read only, the first time a column is accessed.
+ * A column can be used through this view, letting the operating system page
+ * the file, or copied into a float or double array. Unlike
+ * {@link Fits2HealpixMapImp}, an all-sky map at full resolution does not
+ * need to fit in the heap.
+ * </p>
+ *
+ * <pre>
+ * FitsHealpixMapReader reader = new FitsHealpixMapReader(new File("map.fits"));
+ * PrimitiveHealpixMap map = reader.toMap(false);
+ * double value = map.get(0, pix);
+ * </pre>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class FitsHealpixMapReader implements MapColumnLoader {
+
+	/** FITS file. */
+	private final File file;
+
+	/** Header of the binary table. */
+	private final Header header;
+
+	/** Offset of the data of the binary table in the file. */
+	private final long dataOffset;
+
+	/** Length of a row in bytes. */
+	private final int rowLength;
+
+	/** Number of rows. */
+	private final long nbRows;
+
+	/** FITS data type of each column. */
+	private final char[] types;
+
+	/** Number of values of each column in a row. */
+	private final int[] repeats;
+
+	/** Offset of each column in a row, in bytes. */
+	private final int[] offsets;
+
+	/** Mapped data of the table, null until a column is accessed. */
+	private ByteBuffer[] chunks;
+
+	/** Number of rows in each mapped buffer. */
+	private long rowsPerChunk;
+
+	/**
+	 * Read the headers of a FITS file up to its first binary table which has
+	 * rows.
+	 *
+	 * @param file
+	 *            FITS file
+	 * @throws IOException
+	 * @throws FitsException
+	 *             when the file has no binary table or when the table is not
+	 *             supported
+	 */
+	public FitsHealpixMapReader(File file) throws IOException, FitsException {
+		this.file = file;
+		FitsFactory.setUseHierarch(true);
+		final BufferedFile input = new BufferedFile(file, "r");
+		Header hdr = null;
+		try {
+			Header current = Header.readHeader(input);
+			while (current != null && hdr == null) {
+				if ("BINTABLE".equals(current.getStringValue("XTENSION"))
+						&& current.getLongValue("NAXIS2", 0) > 0) {
+					hdr = current;
+				} else {
+					input.skipBytes(current.getDataSize());
+					current = Header.readHeader(input);
+				}
+			}
+			if (hdr == null) {
+				throw new FitsException("binaryHdu not found in " + file);
+			}
+			this.dataOffset = input.getFilePointer();
+		} finally {
+			input.close();
+		}
+		this.header = hdr;
+		this.rowLength = hdr.getIntValue("NAXIS1");
+		this.nbRows = hdr.getLongValue("NAXIS2");
+		final int nbCols = hdr.getIntValue("TFIELDS");
+		this.types = new char[nbCols];
+		this.repeats = new int[nbCols];
+		this.offsets = new int[nbCols];
+		int offset = 0;
+		for (int col = 0; col < nbCols; col++) {
+			final String format = getColumnFormat(col);
+			int typeIndex = 0;
+			while (typeIndex < format.length()
+					&& Character.isDigit(format.charAt(typeIndex))) {
+				typeIndex++;
+			}
+			if (typeIndex == format.length()) {
+				throw new FitsException("Format " + format + " is not supported");
+			}
+			this.types[col] = format.charAt(typeIndex);
+			this.repeats[col] = (typeIndex == 0) ? 1 : Integer.parseInt(format
+					.substring(0, typeIndex));
+			this.offsets[col] = offset;
+			offset += (this.types[col] == 'X') ? (this.repeats[col] + 7) / 8
+					: this.repeats[col] * getWidth(this.types[col]);
+		}
+		if (offset != this.rowLength) {
+			throw new FitsException("Row length " + this.rowLength
+					+ " does not match the formats of the columns");
+		}
+	}
+
+	/**
+	 * Return the length in bytes of a value of a FITS data type.
+	 *
+	 * @param type
+	 *            FITS data type
+	 * @return the length in bytes
+	 * @throws IllegalArgumentException
+	 *             when the data type is unknown
+	 */
+	static int getWidth(char type) {
+		switch (type) {
+		case 'L':
+		case 'B':
+		case 'A':
+			return 1;
+		case 'I':
+			return 2;
+		case 'J':
+		case 'E':
+			return 4;
+		case 'K':
+		case 'D':
+		case 'C':
+		case 'P':
+			return 8;
+		case 'M':
+		case 'Q':
+			return 16;
+		default:
+			throw new IllegalArgumentException("Unknown FITS data type "
+					+ type);
+		}
+	}
+
+	/**
+	 * Return the header of the binary table.
+	 *
+	 * @return the header
+	 */
+	public Header getHeader() {
+		return header;
+	}
+
+	/**
+	 * Return the number of columns.
+	 *
+	 * @return the number of columns
+	 */
+	public int getNCols() {
+		return types.length;
+	}
+
+	/**
+	 * Return the name of a column.
+	 *
+	 * @param col
+	 *            column number, starting at 0
+	 * @return the TTYPE of the column
+	 */
+	public String getColumnName(int col) {
+		return header.getStringValue("TTYPE" + (col + 1));
+	}
+
+	/**
+	 * Return the format of a column.
+	 *
+	 * @param col
+	 *            column number, starting at 0
+	 * @return the TFORM of the column
+	 */
+	public String getColumnFormat(int col) {
+		return header.getStringValue("TFORM" + (col + 1)).trim();
+	}
+
+	/**
+	 * Return the data type of a column.
+	 *
+	 * @param col
+	 *            column number, starting at 0
+	 * @return the data type of the TFORM, without the repeat count
+	 */
+	public char getColumnType(int col) {
+		return types[col];
+	}
+
+	/**
+	 * Return the unit of a column.
+	 *
+	 * @param col
+	 *            column number, starting at 0
+	 * @return the TUNIT of the column or null
+	 */
+	public String getColumnUnit(int col) {
+		return header.getStringValue("TUNIT" + (col + 1));
+	}
+
+	/**
+	 * Return the HEALPix scheme of the map, NESTED when ORDERING is not set.
+	 *
+	 * @return the HEALPix scheme
+	 * @throws FitsException
+	 *             when the ordering is unknown
+	 */
+	public Scheme getScheme() throws FitsException {
+		final String ordering = header.containsKey("ORDERING") ? header
+				.getStringValue("ORDERING").trim() : "NESTED";
+		if ("RING".equals(ordering)) {
+			return Scheme.RING;
+		} else if ("NESTED".equals(ordering)) {
+			return Scheme.NESTED;
+		} else {
+			throw new FitsException("Unsupported ordering scheme " + ordering);
+		}
+	}
+
+	/**
+	 * Return the HEALPix NSIDE of the map, computed from the number of values
+	 * of the first column when NSIDE is not set.
+	 *
+	 * @return the HEALPix NSIDE
+	 * @throws Exception
+	 *             when the number of values is not a number of HEALPix pixels
+	 */
+	public long getNside() throws Exception {
+		return header.containsKey("NSIDE") ? header.getLongValue("NSIDE")
+				: HealpixBase.npix2Nside(nbRows * repeats[0]);
+	}
+
+	/**
+	 * Map the data of the table in memory. The data is split in buffers of
+	 * less than 2 GB holding whole rows.
+	 *
+	 * @return the mapped data
+	 * @throws IOException
+	 */
+	private synchronized ByteBuffer[] getChunks() throws IOException {
+		if (chunks == null) {
+			rowsPerChunk = Integer.MAX_VALUE / rowLength;
+			final int nbChunks = (int) ((nbRows + rowsPerChunk - 1) / rowsPerChunk);
+			final ByteBuffer[] buffers = new ByteBuffer[nbChunks];
+			final RandomAccessFile input = new RandomAccessFile(file, "r");
+			try {
+				final FileChannel channel = input.getChannel();
+				for (int i = 0; i < nbChunks; i++) {
+					final long firstRow = i * rowsPerChunk;
+					final long rows = Math.min(rowsPerChunk, nbRows - firstRow);
+					buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+							dataOffset + firstRow * rowLength, rows * rowLength);
+				}
+			} finally {
+				input.close();
+			}
+			chunks = buffers;
+		}
+		return chunks;
+	}
+
+	/**
+	 * Return a read only view of a column mapped in memory.
+	 *
+	 * @param col
+	 *            column number, starting at 0
+	 * @return the view of the column
+	 * @throws IOException
+	 * @throws FitsException
+	 *             when the data type of the column is not numeric
+	 */
+	public MapColumn map(int col) throws IOException, FitsException {
+		final char type = types[col];
+		if ("BIJKED".indexOf(type) < 0) {
+			throw new FitsException("Format " + getColumnFormat(col)
+					+ " is not supported");
+		}
+		final String suffix = String.valueOf(col + 1);
+		final Long nullValue = header.containsKey("TNULL" + suffix) ? Long
+				.valueOf(header.getLongValue("TNULL" + suffix)) : null;
+		final ByteBuffer[] buffers = getChunks();
+		return new MappedFitsColumn(buffers, rowsPerChunk, rowLength, nbRows,
+				offsets[col], repeats[col], type, header.getDoubleValue(
+						"TSCAL" + suffix, 1.0), header.getDoubleValue("TZERO"
+						+ suffix, 0.0), nullValue);
+	}
+
+	/**
+	 * Copy a column into a float array, or into a double array when a float
+	 * cannot hold its values.
+	 *
+	 * @param col
+	 *            column number, starting at 0
+	 * @return the column
+	 * @throws IOException
+	 * @throws FitsException
+	 *             when the data type of the column is not numeric
+	 */
+	public MapColumn load(int col) throws IOException, FitsException {
+		final MapColumn mapped = map(col);
+		final int size = (int) Math.min(mapped.size(), Integer.MAX_VALUE);
+		if (size != mapped.size()) {
+			throw new FitsException("Column " + col + " is too large to be loaded");
+		}
+		if (mapped.isDoublePrecision()) {
+			final double[] data = new double[size];
+			for (int i = 0; i < size; i++) {
+				data[i] = mapped.get(i);
+			}
+			return new DoubleMapColumn(data);
+		} else {
+			final float[] data = new float[size];
+			for (int i = 0; i < size; i++) {
+				data[i] = (float) mapped.get(i);
+			}
+			return new FloatMapColumn(data);
+		}
+	}
+
+	/**
+	 * Return the map of the binary table, one map per column. The columns
+	 * are accessed the first time they are used.
+	 *
+	 * @param inMemory
+	 *            true to copy each column into the heap, false to read the
+	 *            columns from the file mapped in memory
+	 * @return the map
+	 * @throws Exception
+	 */
+	public PrimitiveHealpixMap toMap(boolean inMemory) throws Exception {
+		final String[] names = new String[getNCols()];
+		for (int col = 0; col < names.length; col++) {
+			names[col] = getColumnName(col);
+		}
+		final MapColumnLoader loader = inMemory ? this : new MapColumnLoader() {
+			public MapColumn load(int col) throws Exception {
+				return map(col);
+			}
+		};
+		final PrimitiveHealpixMap map = new PrimitiveHealpixMap(names,
+				getNside(), getScheme(), loader);
+		for (short col = 0; col < names.length; col++) {
+			map.setUnit(getColumnUnit(col), col);
+		}
+		final String coordSys = header.getStringValue("COORDSYS");
+		if (coordSys != null && coordSys.trim().length() > 0) {
+			map.setCoordSys(CoordSys.fromFits(coordSys.trim().charAt(0)));
+		}
+		return map;
+	}
+}
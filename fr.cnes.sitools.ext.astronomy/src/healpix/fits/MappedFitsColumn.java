@@ -0,0 +1,175 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package healpix.fits;
+
+import healpix.core.dm.MapColumn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read only view of a column of a FITS binary table mapped in memory.
+ *
+ * <p>
+ * The values of a row are read with absolute gets on the mapped buffers, so
+ * that the view can be shared by several threads. TSCAL and TZERO are
+ * applied, TNULL values of integer columns are returned as NaN.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+class MappedFitsColumn implements MapColumn {
+
+	/** Mapped data of the table, each buffer holds rowsPerChunk rows. */
+	private final ByteBuffer[] chunks;
+
+	/** Number of rows in each buffer. */
+	private final long rowsPerChunk;
+
+	/** Length of a row in bytes. */
+	private final int rowLength;
+
+	/** Offset of the column in a row, in bytes. */
+	private final int offset;
+
+	/** Number of values of the column in a row. */
+	private final int repeat;
+
+	/** FITS data type of the column. */
+	private final char type;
+
+	/** Length of a value in bytes. */
+	private final int width;
+
+	/** TSCAL. */
+	private final double scale;
+
+	/** TZERO. */
+	private final double zero;
+
+	/** True when TNULL is defined. */
+	private final boolean hasNull;
+
+	/** TNULL. */
+	private final long nullValue;
+
+	/** Number of values. */
+	private final long size;
+
+	/**
+	 * Create a view of a column.
+	 *
+	 * @param chunks
+	 *            mapped data of the table
+	 * @param rowsPerChunk
+	 *            number of rows in each buffer
+	 * @param rowLength
+	 *            length of a row in bytes
+	 * @param nbRows
+	 *            number of rows
+	 * @param offset
+	 *            offset of the column in a row, in bytes
+	 * @param repeat
+	 *            number of values of the column in a row
+	 * @param type
+	 *            FITS data type of the column: B, I, J, K, E or D
+	 * @param scale
+	 *            TSCAL
+	 * @param zero
+	 *            TZERO
+	 * @param nullValue
+	 *            TNULL or null
+	 */
+	MappedFitsColumn(ByteBuffer[] chunks, long rowsPerChunk, int rowLength,
+			long nbRows, int offset, int repeat, char type, double scale,
+			double zero, Long nullValue) {
+		this.chunks = chunks;
+		this.rowsPerChunk = rowsPerChunk;
+		this.rowLength = rowLength;
+		this.offset = offset;
+		this.repeat = repeat;
+		this.type = type;
+		this.width = FitsHealpixMapReader.getWidth(type);
+		this.scale = scale;
+		this.zero = zero;
+		this.hasNull = nullValue != null;
+		this.nullValue = hasNull ? nullValue.longValue() : 0;
+		this.size = nbRows * repeat;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public double get(long index) {
+		final long row;
+		int pos = offset;
+		if (repeat == 1) {
+			row = index;
+		} else {
+			row = index / repeat;
+			pos += (int) (index % repeat) * width;
+		}
+		final ByteBuffer chunk = chunks[(int) (row / rowsPerChunk)];
+		pos += (int) (row % rowsPerChunk) * rowLength;
+		final long raw;
+		switch (type) {
+		case 'E':
+			return zero + scale * chunk.getFloat(pos);
+		case 'D':
+			return zero + scale * chunk.getDouble(pos);
+		case 'B':
+			raw = chunk.get(pos) & 0xFF;
+			break;
+		case 'I':
+			raw = chunk.getShort(pos);
+			break;
+		case 'J':
+			raw = chunk.getInt(pos);
+			break;
+		default:
+			raw = chunk.getLong(pos);
+			break;
+		}
+		return (hasNull && raw == nullValue) ? Double.NaN : zero + scale * raw;
+	}
+
+	@Override
+	public void set(long index, double value) {
+		throw new UnsupportedOperationException("Mapped FITS column is read only");
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	/**
+	 * Return false when the values can be stored in a float array without
+	 * loss of precision.
+	 *
+	 * @see healpix.core.dm.MapColumn#isDoublePrecision()
+	 */
+	@Override
+	public boolean isDoublePrecision() {
+		return (type != 'E' && type != 'B' && type != 'I') || scale != 1.0
+				|| zero != 0.0;
+	}
+}
@@ -0,0 +1,179 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.cutout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.Pointing;
+import healpix.essentials.Scheme;
+
+import java.awt.geom.Point2D;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import nom.tam.fits.Fits;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.cnes.sitools.extensions.common.AstroCoordinate;
+
+/**
+ * Tests the cutout of a Healpix map with a scaled integer column.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class HealpixMapTest {
+
+    /**
+     * FITS block size.
+     */
+    private static final int BLOCK_SIZE = 2880;
+    /**
+     * FITS card size.
+     */
+    private static final int CARD_SIZE = 80;
+    /**
+     * Number of Healpix pixels for nside = 1.
+     */
+    private static final int NPIX = 12;
+    /**
+     * TSCAL of the column.
+     */
+    private static final double TSCAL = 0.5;
+    /**
+     * TZERO of the column.
+     */
+    private static final double TZERO = 10.0;
+    /**
+     * Healpix pixel whose raw value is TNULL.
+     */
+    private static final int NULL_PIXEL = 5;
+    /**
+     * Map, one NESTED pixel per row whose raw value is the pixel number + 1.
+     */
+    private static File file;
+
+    /**
+     * Writes a FITS card.
+     * @param out output
+     * @param card card, padded to 80 characters
+     * @throws IOException IOException
+     */
+    private static void writeCard(final DataOutputStream out, final String card) throws IOException {
+        final StringBuilder padded = new StringBuilder(card);
+        while (padded.length() < CARD_SIZE) {
+            padded.append(' ');
+        }
+        out.writeBytes(padded.toString());
+    }
+
+    /**
+     * Writes a FITS header.
+     * @param out output
+     * @param cards cards without END
+     * @throws IOException IOException
+     */
+    private static void writeHeader(final DataOutputStream out, final String... cards) throws IOException {
+        for (String card : cards) {
+            writeCard(out, card);
+        }
+        writeCard(out, "END");
+        final int size = (cards.length + 1) * CARD_SIZE;
+        for (int i = size; i % BLOCK_SIZE != 0; i++) {
+            out.writeByte(' ');
+        }
+    }
+
+    /**
+     * Writes a Healpix map with a J column, TSCAL = 0.5, TZERO = 10 and the TNULL value at the pixel 5.
+     * @throws Exception Exception
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        file = File.createTempFile("healpixMapScaled", ".fits");
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            writeHeader(out, "SIMPLE  =                    T", "BITPIX  =                    8", "NAXIS   =                    0",
+                    "EXTEND  =                    T");
+            writeHeader(out, "XTENSION= 'BINTABLE'", "BITPIX  =                    8", "NAXIS   =                    2",
+                    "NAXIS1  =                    4", "NAXIS2  =                   12", "PCOUNT  =                    0",
+                    "GCOUNT  =                    1", "TFIELDS =                    1", "TTYPE1  = 'SIGNAL  '", "TFORM1  = 'J       '",
+                    "TUNIT1  = 'K       '", "TSCAL1  =                  0.5", "TZERO1  =                 10.0",
+                    "TNULL1  =                    6", "PIXTYPE = 'HEALPIX '", "ORDERING= 'NESTED  '", "NSIDE   =                    1");
+            for (int pix = 0; pix < NPIX; pix++) {
+                out.writeInt(pix + 1);
+            }
+            for (int i = NPIX * 4; i % BLOCK_SIZE != 0; i++) {
+                out.writeByte(0);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deletes the map.
+     */
+    @AfterClass
+    public static void tearDownClass() {
+        file.delete();
+    }
+
+    /**
+     * Test of compute method: the scaled values are kept and the TNULL pixels are NaN.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testScaledColumn() throws Exception {
+        System.out.println("scaledColumn");
+        // the Healpix pixels 0, 4, 5 and 8 meet at (l, b) = (45, 0)
+        final HealpixMap cutout = new HealpixMap(1800, 1800, new double[]{40, -5, 40, 5, 50, 5, 50, -5}, 0, file,
+                AstroCoordinate.CoordinateSystem.GALACTIC);
+        final Fits fits = cutout.compute();
+        final double[][] data = (double[][]) fits.getHDU(1).getKernel();
+        assertEquals("K", fits.getHDU(1).getHeader().getStringValue("UNIT"));
+
+        final HealpixIndex index = new HealpixIndex(1, Scheme.NESTED);
+        int nbNull = 0;
+        int nbFractional = 0;
+        for (int y = 0; y < data.length; y++) {
+            for (int x = 0; x < data[y].length; x++) {
+                final Point2D.Double skyPos = cutout.getWcs().pix2wcs(x + 1, y + 1);
+                final long pix = index.ang2pix(new Pointing(Math.PI / 2.0 - Math.toRadians(skyPos.getY()), Math.toRadians(skyPos.getX())));
+                if (pix == NULL_PIXEL) {
+                    assertTrue(Double.isNaN(data[y][x]));
+                    nbNull++;
+                } else {
+                    assertEquals(TZERO + TSCAL * (pix + 1), data[y][x], 0);
+                    if (pix % 2 == 0) {
+                        nbFractional++;
+                    }
+                }
+            }
+        }
+        assertTrue(nbNull > 0);
+        assertTrue(nbFractional > 0);
+    }
+}
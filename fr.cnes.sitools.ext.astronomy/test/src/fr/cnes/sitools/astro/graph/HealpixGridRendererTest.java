@@ -0,0 +1,220 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import healpix.essentials.Scheme;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.cnes.sitools.astro.graph.HealpixGridDecorator.CoordinateTransformation;
+
+/**
+ * Tests the parallel rendering of the Healpix outlines and the bound of their cache.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class HealpixGridRendererTest {
+
+    /**
+     * Image height.
+     */
+    private static final int HEIGHT = 200;
+    /**
+     * Healpix order of the grid.
+     */
+    private static final int ORDER = 2;
+
+    /**
+     * Skips the tests without display: a graph is an applet.
+     */
+    @Before
+    public void setUp() {
+        assumeFalse(GraphicsEnvironment.isHeadless());
+    }
+
+    /**
+     * Creates a grid decorator on an Aitoff projection.
+     * @param nside Healpix nside
+     * @param scheme Healpix scheme
+     * @return the grid decorator
+     * @throws GraphException when the Healpix index cannot be created
+     */
+    private static HealpixGridDecorator createGrid(final int nside, final Scheme scheme) throws GraphException {
+        final HealpixGridDecorator grid = new HealpixGridDecorator(new GenericProjection(Graph.ProjectionType.AITOFF), nside, scheme,
+                Color.RED, 1.0f);
+        grid.setPixelHeight(HEIGHT);
+        grid.setupRatioImageSize();
+        return grid;
+    }
+
+    /**
+     * Returns all the NESTED pixels at an order.
+     * @param order Healpix order
+     * @return the pixels
+     */
+    private static long[] allPixels(final int order) {
+        final long[] pixels = new long[12 << (2 * order)];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i;
+        }
+        return pixels;
+    }
+
+    /**
+     * Returns the number of different pixels between two images.
+     * @param expected expected image
+     * @param actual actual image
+     * @return the number of different pixels
+     */
+    private static int countDifferences(final BufferedImage expected, final BufferedImage actual) {
+        int nbDifferences = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                    nbDifferences++;
+                }
+            }
+        }
+        return nbDifferences;
+    }
+
+    /**
+     * Returns the number of painted pixels of an image.
+     * @param image image
+     * @return the number of pixels that are not transparent
+     */
+    private static int countPaintedPixels(final BufferedImage image) {
+        int nbPixels = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if ((image.getRGB(x, y) >>> 24) != 0) {
+                    nbPixels++;
+                }
+            }
+        }
+        return nbPixels;
+    }
+
+    /**
+     * Test of render method: the parallel strips give the same image as the outlines drawn one by one.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testParallelRenderingMatchesSerial() throws Exception {
+        System.out.println("parallelRenderingMatchesSerial");
+        final HealpixGridDecorator grid = createGrid(1 << ORDER, Scheme.NESTED);
+        final HealpixGridRenderer renderer = new HealpixGridRenderer(4, 4, HealpixGridRenderer.DEFAULT_MAX_CACHED_BYTES);
+        final PixelOutline[] outlines = renderer.getOutlines(grid, ORDER, allPixels(ORDER));
+        final BasicStroke stroke = new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+
+        final BufferedImage serial = new BufferedImage(grid.getPixelWidth(), HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D serialGraphic = serial.createGraphics();
+        serialGraphic.setStroke(stroke);
+        serialGraphic.setPaint(Color.BLUE);
+        for (PixelOutline outline : outlines) {
+            for (int shape = 0; shape < outline.getNbShapes(); shape++) {
+                serialGraphic.draw(outline.getShape(shape));
+            }
+        }
+        serialGraphic.dispose();
+
+        final BufferedImage parallel = new BufferedImage(grid.getPixelWidth(), HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D parallelGraphic = parallel.createGraphics();
+        parallelGraphic.setStroke(stroke);
+        parallelGraphic.setPaint(Color.BLUE);
+        renderer.render(parallelGraphic, grid.getPixelWidth(), HEIGHT, outlines, null, false, null);
+        parallelGraphic.dispose();
+
+        assertTrue(countPaintedPixels(serial) > 0);
+        assertEquals(0, countDifferences(serial, parallel));
+    }
+
+    /**
+     * Test of the bound of the outline cache.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testCacheBound() throws Exception {
+        System.out.println("cacheBound");
+        final HealpixGridDecorator grid = createGrid(1 << ORDER, Scheme.NESTED);
+        final HealpixGridRenderer unbounded = new HealpixGridRenderer(2, 4, Long.MAX_VALUE);
+        unbounded.getOutlines(grid, ORDER, allPixels(ORDER));
+        final long setSize = unbounded.getCachedBytes();
+        assertTrue(setSize > 0);
+
+        // room for one set only: the least recently used set is removed
+        final HealpixGridRenderer renderer = new HealpixGridRenderer(2, 4, setSize + setSize / 2);
+        renderer.getOutlines(grid, ORDER, allPixels(ORDER));
+        assertEquals(setSize, renderer.getCachedBytes());
+        grid.setCoordinateTransformation(CoordinateTransformation.EQ2GAL);
+        renderer.getOutlines(grid, ORDER, allPixels(ORDER));
+        assertEquals(1, renderer.getCacheSize());
+        assertTrue(renderer.getCachedBytes() <= setSize + setSize / 2);
+
+        // a set larger than the cache is computed but not kept
+        final HealpixGridRenderer small = new HealpixGridRenderer(2, 4, setSize / 2);
+        for (PixelOutline outline : small.getOutlines(grid, ORDER, allPixels(ORDER))) {
+            assertNotNull(outline);
+        }
+        assertTrue(small.getCachedBytes() <= setSize / 2);
+    }
+
+    /**
+     * Test of an nside that is not a power of 2: there is no order, so neither the decorators nor the renderer accept it.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testNsideNotPowerOfTwo() throws Exception {
+        System.out.println("nsideNotPowerOfTwo");
+        try {
+            createGrid(3, Scheme.RING);
+            fail("GraphException expected");
+        } catch (GraphException ex) {
+            assertNotNull(ex.getCause());
+        }
+        try {
+            new HealpixDensityMapDecorator(new GenericProjection(Graph.ProjectionType.AITOFF), 3, Scheme.RING, 1.0f);
+            fail("GraphException expected");
+        } catch (GraphException ex) {
+            assertNotNull(ex.getCause());
+        }
+
+        final HealpixGridDecorator grid = createGrid(1 << ORDER, Scheme.NESTED);
+        final HealpixGridRenderer renderer = new HealpixGridRenderer(2, 4, HealpixGridRenderer.DEFAULT_MAX_CACHED_BYTES);
+        try {
+            renderer.getOutlines(grid, -1, new long[]{0});
+            fail("GraphException expected");
+        } catch (GraphException ex) {
+            assertEquals(0, renderer.getCacheSize());
+        }
+    }
+}
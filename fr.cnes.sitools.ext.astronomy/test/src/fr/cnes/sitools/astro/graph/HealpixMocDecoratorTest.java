@@ -0,0 +1,169 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import cds.moc.HealpixMoc;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.cnes.sitools.astro.graph.HealpixGridDecorator.PaintMode;
+
+/**
+ * Tests the painting of a MOC in vector and raster modes.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class HealpixMocDecoratorTest {
+
+    /**
+     * Image height.
+     */
+    private static final int HEIGHT = 200;
+    /**
+     * Number of Healpix pixels at order 0.
+     */
+    private static final int NB_BASE_PIXELS = 12;
+
+    /**
+     * Skips the tests without display: a graph is an applet.
+     */
+    @Before
+    public void setUp() {
+        assumeFalse(GraphicsEnvironment.isHeadless());
+    }
+
+    /**
+     * Paints a MOC on an Aitoff projection.
+     * @param mocVal MOC as a string
+     * @param paintMode paint mode, null for the default one
+     * @return the image
+     * @throws Exception Exception
+     */
+    private static BufferedImage paintMoc(final String mocVal, final PaintMode paintMode) throws Exception {
+        final HealpixMoc moc = new HealpixMoc(mocVal);
+        final HealpixMocDecorator decorator = new HealpixMocDecorator(new GenericProjection(Graph.ProjectionType.AITOFF), Color.RED, 1.0f);
+        if (paintMode != null) {
+            decorator.setPaintMode(paintMode);
+        }
+        decorator.importMoc(moc);
+        decorator.setPixelHeight(HEIGHT);
+        decorator.setupRatioImageSize();
+        final BufferedImage image = new BufferedImage(decorator.getPixelWidth(), HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphic = image.createGraphics();
+        decorator.paint(graphic);
+        graphic.dispose();
+        return image;
+    }
+
+    /**
+     * Returns whether an image pixel is painted.
+     * @param image image
+     * @param x column
+     * @param y row
+     * @return true when the pixel is not transparent
+     */
+    private static boolean isPainted(final BufferedImage image, final int x, final int y) {
+        return (image.getRGB(x, y) >>> 24) != 0;
+    }
+
+    /**
+     * Returns the number of painted pixels of an image.
+     * @param image image
+     * @return the number of pixels that are not transparent
+     */
+    private static int countPaintedPixels(final BufferedImage image) {
+        int nbPixels = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (isPainted(image, x, y)) {
+                    nbPixels++;
+                }
+            }
+        }
+        return nbPixels;
+    }
+
+    /**
+     * Test of the default paint mode.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testDefaultPaintMode() throws Exception {
+        System.out.println("defaultPaintMode");
+        final Graph graph = new GenericProjection(Graph.ProjectionType.AITOFF);
+        assertEquals(PaintMode.VECTOR, new HealpixMocDecorator(graph).getPaintMode());
+        assertEquals(PaintMode.VECTOR, new HealpixDensityMapDecorator(graph, 1, healpix.essentials.Scheme.NESTED, 1.0f).getPaintMode());
+    }
+
+    /**
+     * Test of the pixel coverage of a MOC painted in raster mode.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testRasterCoverage() throws Exception {
+        System.out.println("rasterCoverage");
+        final BufferedImage sky = paintMoc("0/0-" + (NB_BASE_PIXELS - 1), PaintMode.RASTER);
+        // the whole sky is an ellipse
+        final double skyArea = Math.PI / 4 * sky.getWidth() * sky.getHeight();
+        assertEquals(skyArea, countPaintedPixels(sky), skyArea * 0.02);
+
+        // each image pixel shows one Healpix pixel: the base pixels share out the sky
+        final int[][] nbPaintings = new int[sky.getHeight()][sky.getWidth()];
+        for (int pixel = 0; pixel < NB_BASE_PIXELS; pixel++) {
+            final BufferedImage raster = paintMoc("0/" + pixel, PaintMode.RASTER);
+            assertTrue(countPaintedPixels(raster) > 0);
+            for (int y = 0; y < raster.getHeight(); y++) {
+                for (int x = 0; x < raster.getWidth(); x++) {
+                    if (isPainted(raster, x, y)) {
+                        nbPaintings[y][x]++;
+                    }
+                }
+            }
+        }
+        for (int y = 0; y < sky.getHeight(); y++) {
+            for (int x = 0; x < sky.getWidth(); x++) {
+                assertEquals(isPainted(sky, x, y) ? 1 : 0, nbPaintings[y][x]);
+            }
+        }
+
+        // the vector mode paints the same pixels except along the outline
+        final BufferedImage raster = paintMoc("0/4", PaintMode.RASTER);
+        final BufferedImage vector = paintMoc("0/4", null);
+        int nbCommon = 0;
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
+                if (isPainted(raster, x, y) && isPainted(vector, x, y)) {
+                    nbCommon++;
+                }
+            }
+        }
+        assertTrue(nbCommon > 0.9 * countPaintedPixels(raster));
+        assertTrue(nbCommon > 0.9 * countPaintedPixels(vector));
+    }
+}
@@ -0,0 +1,120 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.representation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests the encoding of the keyset position and its SQL predicate.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class ContinuationTokenTest {
+
+    /**
+     * Test of encode and parse methods with numeric and string keys.
+     */
+    @Test
+    public void testRoundTrip() {
+        System.out.println("roundTrip");
+        final ContinuationToken numeric = ContinuationToken.parse(ContinuationToken.fromKey("id", 1234567890123L).encode());
+        assertEquals("id", numeric.getColumn());
+        assertTrue(numeric.isNumeric());
+        assertEquals(" AND id > 1234567890123", numeric.toSqlPredicat());
+
+        final ContinuationToken decimal = ContinuationToken.parse(ContinuationToken.fromKey("mjd", 1.5E10).encode());
+        assertEquals(" AND mjd > 15000000000", decimal.toSqlPredicat());
+
+        final ContinuationToken string = ContinuationToken.parse(ContinuationToken.fromKey("obs_id", "M31:it's").encode());
+        assertFalse(string.isNumeric());
+        assertEquals(" AND obs_id > 'M31:it''s'", string.toSqlPredicat());
+    }
+
+    /**
+     * Test of parse method with tokens that must not be written in the SQL predicate.
+     */
+    @Test
+    public void testInvalidTokens() {
+        System.out.println("invalidTokens");
+        final String[] tokens = {"", "zz", "123", hex("n:id"), hex("x:id:1"), hex("n:id:1 OR 1=1"), hex("s:id = id OR id:a")};
+        for (String token : tokens) {
+            try {
+                ContinuationToken.parse(token);
+                fail("token " + token + " must be rejected");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Test of parse method with string keys that could close the SQL literal.
+     */
+    @Test
+    public void testHostileStringKeys() {
+        System.out.println("hostileStringKeys");
+        final String[] tokens = {hex("s:obs_id:\\' OR 1=1 --"), hex("s:obs_id:a\\"), hex("s:obs_id:a\u0000' OR 1=1 --"),
+            hex("s:obs_id:a\n")};
+        for (String token : tokens) {
+            try {
+                ContinuationToken.parse(token);
+                fail("token " + token + " must be rejected");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+        try {
+            ContinuationToken.fromKey("obs_id", "M31\\");
+            fail("a key with a backslash must be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of isAfter method.
+     */
+    @Test
+    public void testIsAfter() {
+        System.out.println("isAfter");
+        final ContinuationToken ten = ContinuationToken.fromKey("id", 10);
+        assertTrue(ContinuationToken.fromKey("id", 11L).isAfter(ten));
+        assertFalse(ContinuationToken.fromKey("id", 10.0).isAfter(ten));
+        assertFalse(ContinuationToken.fromKey("id", 9).isAfter(ten));
+        assertTrue(ContinuationToken.fromKey("name", "a").isAfter(ContinuationToken.fromKey("name", "b")));
+    }
+
+    /**
+     * Returns the hexadecimal encoding of an ASCII string.
+     * @param value string
+     * @return hexadecimal string
+     */
+    private static String hex(final String value) {
+        final StringBuilder builder = new StringBuilder();
+        for (char character : value.toCharArray()) {
+            builder.append(String.format("%02X", (int) character));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,104 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.representation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import cds.moc.HealpixMoc;
+import fr.cnes.sitools.searchgeometryengine.CoordSystem;
+import fr.cnes.sitools.searchgeometryengine.MocBuilder;
+import fr.cnes.sitools.searchgeometryengine.MocRanges;
+import fr.cnes.sitools.searchgeometryengine.Point;
+
+/**
+ * Compares the streamed MOCs with the output of the MOC library.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class MocStreamWriterTest {
+
+    /**
+     * Returns the MOC of a cone.
+     * @param radius radius in degrees
+     * @param order Healpix order
+     * @return the MOC
+     * @throws Exception Healpix Exception
+     */
+    private static HealpixMoc cone(final double radius, final int order) throws Exception {
+        final HealpixIndex index = new HealpixIndex(1 << order, Scheme.NESTED);
+        final RangeSet ranges = index.queryDiscInclusive(new Point(120, 10, CoordSystem.EQUATORIAL), Math.toRadians(radius), 4);
+        return MocBuilder.fromNestedRanges(ranges, order);
+    }
+
+    /**
+     * Test of writeFits method with a HealpixMoc, in both modes and with INT and LONG numbers.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testWriteFits() throws Exception {
+        System.out.println("writeFits");
+        for (int order : new int[]{8, 15}) {
+            final HealpixMoc moc = cone(2, order);
+            for (boolean compressed : new boolean[]{false, true}) {
+                final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                moc.writeFits(expected, compressed);
+                final ByteArrayOutputStream result = new ByteArrayOutputStream();
+                MocStreamWriter.writeFits(MocStreamWriter.fromMoc(moc), result, compressed);
+                assertArrayEquals("order " + order + " compressed " + compressed, expected.toByteArray(), result.toByteArray());
+            }
+        }
+    }
+
+    /**
+     * Test of writeFits, writeAscii and writeJson methods with ranges.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testWriteRanges() throws Exception {
+        System.out.println("writeRanges");
+        final HealpixMoc moc = cone(5, 9);
+        final MocStreamWriter.CellSource source = MocStreamWriter.fromRanges(MocRanges.fromMoc(moc), 9, moc.getCoordSys());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        moc.writeFits(expected, true);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        MocStreamWriter.writeFits(source, result, true);
+        assertArrayEquals(expected.toByteArray(), result.toByteArray());
+
+        expected = new ByteArrayOutputStream();
+        moc.writeASCII(expected);
+        result = new ByteArrayOutputStream();
+        MocStreamWriter.writeAscii(source, result);
+        assertArrayEquals(expected.toByteArray(), result.toByteArray());
+
+        result = new ByteArrayOutputStream();
+        MocStreamWriter.writeJson(source, result);
+        assertEquals(moc, new HealpixMoc(new ByteArrayInputStream(result.toByteArray()), HealpixMoc.ASCII));
+    }
+}
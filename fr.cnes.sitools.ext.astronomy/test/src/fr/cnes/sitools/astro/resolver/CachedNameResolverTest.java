@@ -0,0 +1,160 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Test;
+import org.restlet.data.Status;
+
+/**
+ * Test of CachedNameResolver and NameResolverCache objects.
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class CachedNameResolverTest {
+
+  /**
+   * Name resolver that counts its calls.
+   */
+  private static class CountingResolver extends AbstractNameResolver {
+
+    /**
+     * Number of calls.
+     */
+    private int nbCalls = 0;
+    /**
+     * Response status, OK when coordinates are returned.
+     */
+    private final Status status;
+
+    /**
+     * Constructs the resolver.
+     * @param statusVal response status
+     */
+    CountingResolver(final Status statusVal) {
+      this.status = statusVal;
+    }
+
+    @Override
+    public NameResolverResponse getResponse() {
+      nbCalls++;
+      final NameResolverResponse response = new NameResolverResponse("test");
+      if (Status.SUCCESS_OK.equals(status)) {
+        response.addAstroCoordinate(10.6847083, 41.26875);
+      } else {
+        response.setError(new NameResolverException(status, "error"));
+      }
+      return response;
+    }
+  }
+
+  /**
+   * Test of getResponse method, of class CachedNameResolver.
+   */
+  @Test
+  public void testGetResponse() {
+    System.out.println("getResponse");
+    final NameResolverCache cache = new NameResolverCache(10);
+    final CountingResolver resolver = new CountingResolver(Status.SUCCESS_OK);
+    for (int i = 0; i < 3; i++) {
+      final NameResolverResponse response = new CachedNameResolver(resolver, NameResolverCache.CDS, "m31", cache).getResponse();
+      assertEquals(10.6847083, response.getAstroCoordinates().get(0).getRaAsDecimal(), 1e-10);
+      assertEquals("test", response.getCredits());
+    }
+    assertEquals(1, resolver.nbCalls);
+    final Map<String, Long> stats = cache.getStatistics().get(NameResolverCache.CDS);
+    assertEquals(Long.valueOf(2), stats.get("hits"));
+    assertEquals(Long.valueOf(1), stats.get("misses"));
+  }
+
+  /**
+   * Test of the "not found" responses and of the errors.
+   */
+  @Test
+  public void testNotFound() {
+    System.out.println("notFound");
+    final NameResolverCache cache = new NameResolverCache(10);
+    final CountingResolver notFound = new CountingResolver(Status.CLIENT_ERROR_NOT_FOUND);
+    final CountingResolver next = new CountingResolver(Status.SUCCESS_OK);
+    for (int i = 0; i < 2; i++) {
+      final AbstractNameResolver resolver = new CachedNameResolver(notFound, NameResolverCache.CDS, "unknown", cache);
+      resolver.setNext(next);
+      assertTrue(resolver.getResponse().hasResult());
+    }
+    assertEquals(1, notFound.nbCalls);
+    assertEquals(2, next.nbCalls);
+    assertEquals(Status.CLIENT_ERROR_NOT_FOUND, cache.getResponse(NameResolverCache.CDS, "unknown").getError().getStatus());
+
+    final CountingResolver unavailable = new CountingResolver(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+    for (int i = 0; i < 2; i++) {
+      assertFalse(new CachedNameResolver(unavailable, NameResolverCache.CDS, "m31", cache).getResponse().hasResult());
+    }
+    assertEquals(2, unavailable.nbCalls);
+  }
+
+  /**
+   * Test of the time to live.
+   * @throws InterruptedException interrupted
+   */
+  @Test
+  public void testTimeToLive() throws InterruptedException {
+    System.out.println("timeToLive");
+    final NameResolverCache cache = new NameResolverCache(10);
+    cache.setTimeToLive(NameResolverCache.IMCCE, 50);
+    final CountingResolver resolver = new CountingResolver(Status.SUCCESS_OK);
+    new CachedNameResolver(resolver, NameResolverCache.IMCCE, "ceres@now", cache).getResponse();
+    new CachedNameResolver(resolver, NameResolverCache.IMCCE, "ceres@now", cache).getResponse();
+    assertEquals(1, resolver.nbCalls);
+    Thread.sleep(100);
+    new CachedNameResolver(resolver, NameResolverCache.IMCCE, "ceres@now", cache).getResponse();
+    assertEquals(2, resolver.nbCalls);
+  }
+
+  /**
+   * Test of save method, of class NameResolverCache.
+   * @throws Exception Exception
+   */
+  @Test
+  public void testSave() throws Exception {
+    System.out.println("save");
+    final File file = File.createTempFile("nameResolverCache", ".bin");
+    file.deleteOnExit();
+    file.delete();
+    final NameResolverCache cache = new NameResolverCache(10);
+    cache.setPersistenceFile(file);
+    new CachedNameResolver(new CountingResolver(Status.SUCCESS_OK), NameResolverCache.CDS, "m31", cache).getResponse();
+    new CachedNameResolver(new CountingResolver(Status.CLIENT_ERROR_NOT_FOUND), NameResolverCache.CDS, "unknown", cache).getResponse();
+    cache.putValue(NameResolverCache.REVERSE, "10 41@0.01@EQUATORIAL", "M 31");
+    cache.putValue(NameResolverCache.REVERSE, "not serializable", new Object());
+    cache.save();
+
+    final NameResolverCache loaded = new NameResolverCache(10);
+    loaded.setPersistenceFile(file);
+    assertEquals(41.26875, loaded.getResponse(NameResolverCache.CDS, "m31").getAstroCoordinates().get(0).getDecAsDecimal(), 1e-10);
+    assertFalse(loaded.getResponse(NameResolverCache.CDS, "unknown").hasResult());
+    assertEquals("M 31", loaded.getValue(NameResolverCache.REVERSE, "10 41@0.01@EQUATORIAL"));
+    assertNull(loaded.getValue(NameResolverCache.REVERSE, "not serializable"));
+  }
+}
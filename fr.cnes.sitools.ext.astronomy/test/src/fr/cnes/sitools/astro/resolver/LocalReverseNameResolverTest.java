@@ -0,0 +1,204 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fr.cnes.sitools.extensions.common.AstroCoordinate.CoordinateSystem;
+
+/**
+ * Test of LocalReverseNameResolver object.
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class LocalReverseNameResolverTest {
+
+  /**
+   * Small catalogue.
+   */
+  private static final String CATALOGUE = "# name;ra;dec;magnitude;type\n"
+          + "M 31;10.6847083;41.26875;3.44;Galaxy\n"
+          + "\n"
+          + "Polaris;37.95456067;89.26410897;1.97;Star\n"
+          + "Sirius;101.28715533;-16.71611586;-1.46\n"
+          + "M 32;10.6742708;40.86516944;;Galaxy\n";
+
+  /**
+   * Test of find method, of class LocalReverseNameResolver.
+   * @throws IOException IOException
+   */
+  @Test
+  public void testFind() throws IOException {
+    System.out.println("find");
+    final LocalReverseNameResolver resolver = new LocalReverseNameResolver(new StringReader(CATALOGUE), "test");
+    assertEquals(4, resolver.size());
+    assertEquals("M 31", resolver.find(10.68, 41.27, 0.1).getName());
+    assertEquals("M 32", resolver.find(10.68, 40.9, 0.5).getName());
+    assertEquals("Polaris", resolver.find(40, 89.5, 0.5).getName());
+    assertEquals("Sirius", resolver.find(101.3, -16.7, 0.05).getName());
+    assertNull(resolver.find(10.68, 42, 0.5));
+    assertNull(resolver.find(180, 0, 0.5));
+  }
+
+  /**
+   * Test of find method with a large catalogue, compared with a scan of the catalogue.
+   * @throws IOException IOException
+   */
+  @Test
+  public void testFindRandom() throws IOException {
+    System.out.println("findRandom");
+    final Random random = new Random(1);
+    final double[][] positions = new double[10000][];
+    final StringBuilder catalogue = new StringBuilder();
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = new double[]{360 * random.nextDouble(), Math.toDegrees(Math.asin(2 * random.nextDouble() - 1))};
+      catalogue.append("object ").append(i).append(';').append(positions[i][0]).append(';').append(positions[i][1]).append('\n');
+    }
+    final LocalReverseNameResolver resolver = new LocalReverseNameResolver(new StringReader(catalogue.toString()), "test");
+    for (int i = 0; i < 1000; i++) {
+      final double ra = 360 * random.nextDouble();
+      final double dec = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+      final double radius = 0.5 * random.nextDouble();
+      int nearest = -1;
+      double minDistance = radius;
+      for (int j = 0; j < positions.length; j++) {
+        final double distance = distance(ra, dec, positions[j][0], positions[j][1]);
+        if (distance <= minDistance) {
+          minDistance = distance;
+          nearest = j;
+        }
+      }
+      final LocalReverseNameResolver.CatalogueObject object = resolver.find(ra, dec, radius);
+      if (nearest == -1) {
+        assertNull(object);
+      } else {
+        assertEquals("object " + nearest, object.getName());
+      }
+    }
+  }
+
+  /**
+   * Test of getJsonResponse method, of class LocalReverseNameResolver.
+   * @throws IOException IOException
+   */
+  @Test
+  public void testGetJsonResponse() throws IOException {
+    System.out.println("getJsonResponse");
+    final LocalReverseNameResolver resolver = new LocalReverseNameResolver(new StringReader(CATALOGUE), "test");
+    final Map response = resolver.getJsonResponse(resolver.find(10.68, 41.27, 0.1), CoordinateSystem.EQUATORIAL);
+    assertEquals(1, response.get("totalResults"));
+    final Map feature = (Map) ((List) response.get("features")).get(0);
+    final Map properties = (Map) feature.get("properties");
+    assertEquals("M 31", properties.get("title"));
+    assertEquals("test", properties.get("credits"));
+    assertEquals(3.44, properties.get("magnitude"));
+    assertEquals("Galaxy", properties.get("type"));
+    assertNotNull(feature.get("geometry"));
+    final Map noMagnitude = resolver.getJsonResponse(resolver.find(10.67, 40.86, 0.1), CoordinateSystem.EQUATORIAL);
+    assertNull(((Map) ((Map) ((List) noMagnitude.get("features")).get(0)).get("properties")).get("magnitude"));
+  }
+
+  /**
+   * Test of the catalogue errors.
+   */
+  @Test
+  public void testInvalidCatalogue() {
+    System.out.println("invalidCatalogue");
+    for (String catalogue : new String[]{"M 31;10.68\n", "M 31;ten;41.27\n", ";10.68;41.27\n", "M 31;10.68;91\n"}) {
+      try {
+        new LocalReverseNameResolver(new StringReader(catalogue), "test");
+        throw new AssertionError(catalogue + " must not be loaded");
+      } catch (IOException ex) {
+        assertSame(IOException.class, ex.getClass());
+      }
+    }
+  }
+
+  /**
+   * Test of getInstance method: the file is checked again only after the check interval.
+   * @throws IOException IOException
+   */
+  @Test
+  public void testGetInstance() throws IOException {
+    System.out.println("getInstance");
+    final File file = File.createTempFile("catalogue", ".txt");
+    try {
+      writeCatalogue(file, CATALOGUE);
+      final LocalReverseNameResolver resolver = LocalReverseNameResolver.getInstance(file);
+      assertEquals(4, resolver.size());
+      assertSame(resolver, LocalReverseNameResolver.getInstance(file));
+
+      writeCatalogue(file, CATALOGUE + "Vega;279.23473479;38.78368896;0.03;Star\n");
+      file.setLastModified(file.lastModified() + 2000);
+      // the modification is not seen before the next check
+      assertSame(resolver, LocalReverseNameResolver.getInstance(file, Long.MAX_VALUE));
+      final LocalReverseNameResolver reloaded = LocalReverseNameResolver.getInstance(file, 0);
+      assertNotSame(resolver, reloaded);
+      assertEquals(5, reloaded.size());
+      // the file is checked but not loaded again when it did not change
+      assertSame(reloaded, LocalReverseNameResolver.getInstance(file, 0));
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Writes a catalogue file.
+   * @param file file
+   * @param catalogue catalogue
+   * @throws IOException IOException
+   */
+  private static void writeCatalogue(final File file, final String catalogue) throws IOException {
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(catalogue);
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Returns the angular distance between two positions.
+   * @param ra1 right ascension of the first position in degrees
+   * @param dec1 declination of the first position in degrees
+   * @param ra2 right ascension of the second position in degrees
+   * @param dec2 declination of the second position in degrees
+   * @return the distance in degrees
+   */
+  private static double distance(final double ra1, final double dec1, final double ra2, final double dec2) {
+    final double cos = Math.sin(Math.toRadians(dec1)) * Math.sin(Math.toRadians(dec2))
+            + Math.cos(Math.toRadians(dec1)) * Math.cos(Math.toRadians(dec2)) * Math.cos(Math.toRadians(ra1 - ra2));
+    return Math.toDegrees(Math.acos(Math.min(1, cos)));
+  }
+}
@@ -0,0 +1,98 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.resolver.constellations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test of ConstellationIndex object.
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class ConstellationIndexTest {
+
+    /**
+     * Test of getConstellation method, of class ConstellationIndex.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testGetConstellation() throws Exception {
+        System.out.println("getConstellation");
+        final ConstellationIndex index = ConstellationIndex.getInstance();
+        final ConstellationIndex.Constellation pegase = index.getConstellation("Pégase");
+        assertNotNull(pegase);
+        assertSame(pegase, index.getConstellation(" PEGASE "));
+        assertTrue(pegase.getNames().contains("pégase"));
+        assertSame(index.getConstellation("sextans"), index.getConstellation("Sextant"));
+        assertNotNull(index.getConstellation("Chiens  de chasse"));
+        assertEquals(253.31, index.getConstellation("scorpion").getRightAscension(), 0.01);
+        assertEquals(-27.03, index.getConstellation("scorpion").getDeclination(), 0.01);
+        assertNull(index.getConstellation("m31"));
+    }
+
+    /**
+     * Test of findConstellation method, of class ConstellationIndex.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testFindConstellation() throws Exception {
+        System.out.println("findConstellation");
+        final ConstellationIndex index = ConstellationIndex.getInstance();
+        for (ConstellationIndex.Constellation constellation : index.getConstellations()) {
+            assertSame(constellation, index.findConstellation(constellation.getRightAscension(), constellation.getDeclination()));
+        }
+        final Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            final double ra = 360 * random.nextDouble();
+            final double dec = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            assertSame("ra=" + ra + " dec=" + dec, nearest(index, ra, dec), index.findConstellation(ra, dec));
+        }
+    }
+
+    /**
+     * Returns the constellation whose center is the nearest by comparing all the constellations.
+     * @param index index
+     * @param ra right ascension in degrees
+     * @param dec declination in degrees
+     * @return the nearest constellation
+     */
+    private static ConstellationIndex.Constellation nearest(final ConstellationIndex index, final double ra, final double dec) {
+        ConstellationIndex.Constellation nearest = null;
+        double minDistance = Double.MAX_VALUE;
+        for (ConstellationIndex.Constellation constellation : index.getConstellations()) {
+            final double ra1 = Math.toRadians(ra);
+            final double dec1 = Math.toRadians(dec);
+            final double ra2 = Math.toRadians(constellation.getRightAscension());
+            final double dec2 = Math.toRadians(constellation.getDeclination());
+            final double distance = Math.acos(Math.min(1, Math.sin(dec1) * Math.sin(dec2) + Math.cos(dec1) * Math.cos(dec2) * Math.cos(ra1 - ra2)));
+            if (distance < minDistance) {
+                minDistance = distance;
+                nearest = constellation;
+            }
+        }
+        return nearest;
+    }
+}
@@ -0,0 +1,306 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.astro.vo.sia;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import fr.cnes.sitools.astro.vo.sia.GeometryPredicateBuilder.Relation;
+import fr.cnes.sitools.searchgeometryengine.CoordSystem;
+import fr.cnes.sitools.searchgeometryengine.Point;
+import fr.cnes.sitools.searchgeometryengine.Resampling;
+
+/**
+ * Tests the SQL geometry constraints of the intersection modes and the MOC pre-filter on synthetic images.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class SqlGeometryConstraintTest {
+
+    /**
+     * Healpix order of the MOC of the images.
+     */
+    private static final int ORDER = 6;
+    /**
+     * Margin in degrees of the expected relations.
+     */
+    private static final double MARGIN = 0.1;
+    /**
+     * Regions of interest: ra, dec, width, height.
+     */
+    private static final double[][] REGIONS = {{120, 30, 6, 4}, {1, -10, 8, 8}, {359, 45, 3, 10}, {200, 85, 10, 12}, {60, -80, 20, 30}};
+
+    /**
+     * Returns the constraint of a mode.
+     * @param mode intersection mode
+     * @param region ra, dec, width, height
+     * @param mocCol MOC attribut
+     * @param healpixCol Healpix attribut
+     * @return the constraint
+     */
+    private static AbstractSqlGeometryConstraint create(final String mode, final double[] region, final String mocCol, final String healpixCol) {
+        final AbstractSqlGeometryConstraint sql = SqlGeometryFactory.create(mode);
+        sql.setRegionOfInterest(region[0], region[1], new double[]{region[2], region[3]});
+        sql.setGeometry("CENTER".equals(mode) ? new String[]{"ra", "dec"} : "footprint");
+        if (mocCol != null || healpixCol != null) {
+            sql.setHealpixIndex(mocCol, healpixCol, ORDER);
+        }
+        return sql;
+    }
+
+    /**
+     * Angular distance in degrees.
+     * @param ra1 right ascension of the first point
+     * @param dec1 declination of the first point
+     * @param ra2 right ascension of the second point
+     * @param dec2 declination of the second point
+     * @return the distance
+     */
+    private static double distance(final double ra1, final double dec1, final double ra2, final double dec2) {
+        final double cos = Math.sin(Math.toRadians(dec1)) * Math.sin(Math.toRadians(dec2))
+                + Math.cos(Math.toRadians(dec1)) * Math.cos(Math.toRadians(dec2)) * Math.cos(Math.toRadians(ra1 - ra2));
+        return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, cos))));
+    }
+
+    /**
+     * Returns true when a point is in the region.
+     * @param region ra, dec, width, height
+     * @param ra right ascension
+     * @param dec declination
+     * @return true when the point is in the region
+     */
+    private static boolean contains(final double[] region, final double ra, final double dec) {
+        if (region[1] + region[3] / 2 >= 90) {
+            return dec >= region[1] - region[3] / 2;
+        } else if (region[1] - region[3] / 2 <= -90) {
+            return dec <= region[1] + region[3] / 2;
+        }
+        final double deltaRa = Math.abs(((ra - region[0]) % 360 + 540) % 360 - 180);
+        return deltaRa <= region[2] / 2 && Math.abs(dec - region[1]) <= region[3] / 2;
+    }
+
+    /**
+     * Returns the min and the max distance between a point and the border of the region.
+     * @param region ra, dec, width, height
+     * @param ra right ascension
+     * @param dec declination
+     * @return [min, max]
+     */
+    private static double[] distanceToBorder(final double[] region, final double ra, final double dec) {
+        final int nbSamples = 400;
+        final double[] result = {Double.MAX_VALUE, 0};
+        final boolean isCap = region[1] + region[3] / 2 >= 90 || region[1] - region[3] / 2 <= -90;
+        final double decMin = isCap ? Math.max(-90, region[1] - region[3] / 2) : region[1] - region[3] / 2;
+        final double decMax = isCap ? Math.min(90, region[1] + region[3] / 2) : region[1] + region[3] / 2;
+        for (int i = 0; i <= nbSamples; i++) {
+            final double[][] samples;
+            if (isCap) {
+                final double border = (decMax == 90) ? decMin : decMax;
+                samples = new double[][]{{360. * i / nbSamples, border}};
+            } else {
+                final double sampleRa = region[0] - region[2] / 2 + region[2] * i / nbSamples;
+                final double sampleDec = decMin + (decMax - decMin) * i / nbSamples;
+                samples = new double[][]{{sampleRa, decMin}, {sampleRa, decMax},
+                    {region[0] - region[2] / 2, sampleDec}, {region[0] + region[2] / 2, sampleDec}};
+            }
+            for (double[] sample : samples) {
+                final double value = distance(ra, dec, sample[0], sample[1]);
+                result[0] = Math.min(result[0], value);
+                result[1] = Math.max(result[1], value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true when the MOC of the image passes the MOC term.
+     * @param relation relation
+     * @param image MOC of the image
+     * @param pixels pixels of the term
+     * @return true when the image is kept
+     */
+    private static boolean isKept(final Relation relation, final Set<Long> image, final long[] pixels) {
+        final Set<Long> region = new HashSet<Long>();
+        for (long pixel : pixels) {
+            region.add(pixel);
+        }
+        switch (relation) {
+            case OVERLAPS:
+                region.retainAll(image);
+                return !region.isEmpty();
+            case COVERS:
+                return image.containsAll(region);
+            default:
+                return region.containsAll(image);
+        }
+    }
+
+    /**
+     * Test of the MOC term with synthetic circular images around the regions.
+     * @throws Exception Healpix Exception
+     */
+    @Test
+    public void testMocFilter() throws Exception {
+        System.out.println("mocFilter");
+        final Random random = new Random(1);
+        final HealpixIndex index = new HealpixIndex(1 << ORDER, Scheme.NESTED);
+        for (double[] region : REGIONS) {
+            for (Relation relation : Relation.values()) {
+                final long[] pixels = create(relation.name(), region, "moc", null).computeMocPixels(relation);
+                assertNotNull(relation + " " + region[0] + "," + region[1], pixels);
+                int nbExpected = 0;
+                int nbRejected = 0;
+                for (int i = 0; i < 300; i++) {
+                    // one image out of two around the region, the other one in the region, radius up to 30 degrees
+                    final double spread = (i % 2 == 0) ? 60 : Math.min(region[2], region[3]);
+                    final double imageDec = Math.max(-90, Math.min(90, region[1] + spread * (random.nextDouble() - 0.5)));
+                    final double imageRa = (region[0] + spread * (random.nextDouble() - 0.5) + 360) % 360;
+                    final double imageRadius = 0.05 + 30 * random.nextDouble();
+                    final Set<Long> image = new HashSet<Long>();
+                    final RangeSet.ValueIterator valueIter = index.queryDiscInclusive(new Point(imageRa, imageDec, CoordSystem.EQUATORIAL),
+                            Math.toRadians(imageRadius), 128).valueIterator();
+                    while (valueIter.hasNext()) {
+                        image.add(valueIter.next());
+                    }
+                    final boolean isCenterInRegion = contains(region, imageRa, imageDec);
+                    final double[] border = distanceToBorder(region, imageRa, imageDec);
+                    final boolean isExpected;
+                    switch (relation) {
+                        case OVERLAPS:
+                            isExpected = isCenterInRegion || border[0] < imageRadius - MARGIN;
+                            break;
+                        case COVERS:
+                            isExpected = isCenterInRegion && border[1] < imageRadius - MARGIN;
+                            break;
+                        default:
+                            isExpected = isCenterInRegion && border[0] > imageRadius + MARGIN;
+                            break;
+                    }
+                    final boolean isKept = isKept(relation, image, pixels);
+                    if (isExpected) {
+                        nbExpected++;
+                        assertTrue(relation + " region " + region[0] + "," + region[1] + " image " + imageRa + "," + imageDec + "," + imageRadius, isKept);
+                    }
+                    nbRejected += isKept ? 0 : 1;
+                }
+                assertTrue(relation + " " + region[0] + "," + region[1] + " expected", nbExpected > 0);
+                assertTrue(relation + " " + region[0] + "," + region[1] + " rejected", nbRejected > 0);
+            }
+        }
+    }
+
+    /**
+     * Test of the MOC term when the region is too large.
+     * @throws Exception Healpix Exception
+     */
+    @Test
+    public void testMocFilterLargeRegion() throws Exception {
+        System.out.println("mocFilterLargeRegion");
+        assertNull(create("OVERLAPS", new double[]{100, 0, 200, 10}, "moc", null).computeMocPixels(Relation.OVERLAPS));
+        assertNull(create("OVERLAPS", new double[]{100, 0, 10, 10}, null, null).computeMocPixels(Relation.OVERLAPS));
+        assertEquals(1, create("COVERS", new double[]{100, 0, 200, 10}, "moc", null).computeMocPixels(Relation.COVERS).length);
+    }
+
+    /**
+     * Test of the SQL predicats of each mode.
+     */
+    @Test
+    public void testSqlPredicat() {
+        System.out.println("sqlPredicat");
+        final String covers = create("COVERS", REGIONS[0], "moc", null).getSqlPredicat();
+        assertTrue(covers, covers.startsWith(" AND moc @> '{"));
+        assertTrue(covers, covers.contains("}'::bigint[] AND (spoly_contains_polygon(footprint,'{("));
+
+        final String enclosed = create("ENCLOSED", REGIONS[1], null, null).getSqlPredicat();
+        assertTrue(enclosed, enclosed.startsWith(" AND spoly_contains_polygon('{(357.0d,-14.0d),"));
+        assertTrue(enclosed, enclosed.endsWith("}',footprint)"));
+
+        final String enclosedLarge = create("ENCLOSED", new double[]{100, 0, 300, 10}, null, null).getSqlPredicat();
+        assertTrue(enclosedLarge, enclosedLarge.startsWith(" AND NOT spoly_overlap_circle(footprint,'<(0.0d,90.0d),85.0d>')"
+                + " AND NOT spoly_overlap_circle(footprint,'<(0.0d,-90.0d),85.0d>') AND NOT spoly_overlap_polygon(footprint,'{(250.0d,-5.0d),"));
+
+        final String overlapsNorth = create("OVERLAPS", REGIONS[3], null, null).getSqlPredicat();
+        assertEquals(" AND spoly_overlap_circle(footprint,'<(0.0d,90.0d),11.0d>')", overlapsNorth);
+
+        final String overlapsRing = create("OVERLAPS", new double[]{180, 10, 360, 20}, null, null).getSqlPredicat();
+        assertEquals(" AND NOT scircle_contains_polygon('<(0.0d,90.0d),70.0d>',footprint)"
+                + " AND NOT scircle_contains_polygon('<(0.0d,-90.0d),90.0d>',footprint)", overlapsRing);
+
+        final String overlapsWrap = create("OVERLAPS", REGIONS[1], null, null).getSqlPredicat();
+        assertTrue(overlapsWrap, overlapsWrap.contains(") OR spoly_overlap_polygon(footprint,"));
+
+        assertEquals(" AND 1 = 0", create("COVERS", new double[]{0, 0, 10, 180}, null, null).getSqlPredicat());
+        assertNull(create("ENCLOSED", new double[]{0, 0, 10, 180}, null, null).getSqlPredicat());
+
+        final String center = create("CENTER", REGIONS[0], null, "healpix").getSqlPredicat();
+        assertTrue(center, center.startsWith(" AND (healpix "));
+        assertTrue(center, center.endsWith(" AND ( dec BETWEEN 28.0 AND 32.0 ) AND ( ra BETWEEN 117.0 AND 123.0 )"));
+        assertFalse(center, center.contains("spoly"));
+    }
+
+    /**
+     * Test of the vertices of the polygon of a box.
+     */
+    @Test
+    public void testPolygonVertices() {
+        System.out.println("polygonVertices");
+        assertArrayEquals(new double[]{10, 30, 50}, Resampling.decCircle(10, 50, 20), 1e-12);
+        assertArrayEquals(new double[]{10, 30, 50, 55}, Resampling.decCircle(10, 55, 20), 1e-12);
+        assertArrayEquals(new double[]{50, 30, 10}, Resampling.decCircle(50, 10, 20), 1e-12);
+        assertArrayEquals(new double[]{-5, 5}, Resampling.decCircle(-5, 5, 20), 1e-12);
+
+        // box 10 <= ra <= 30, 10 <= dec <= 50: every vertex is on the border of the box
+        final String polygon = GeometryPredicateBuilder.polygon(new Double[]{10.0, 30.0}, new double[]{10, 50});
+        final Matcher vertex = Pattern.compile("\\(([-0-9.E]+)d,([-0-9.E]+)d\\)").matcher(polygon);
+        final Set<String> vertices = new HashSet<String>();
+        while (vertex.find()) {
+            final double rightAscension = Double.parseDouble(vertex.group(1));
+            final double declination = Double.parseDouble(vertex.group(2));
+            assertTrue(polygon, rightAscension == 10 || rightAscension == 30 || declination == 10 || declination == 50);
+            assertTrue(polygon, rightAscension >= 10 && rightAscension <= 30 && declination >= 10 && declination <= 50);
+            assertTrue(polygon, vertices.add(vertex.group()));
+        }
+        assertEquals("'{(10.0d,10.0d),(30.0d,10.0d),(30.0d,30.0d),(30.0d,50.0d),(10.0d,50.0d),(10.0d,30.0d)}'", polygon);
+    }
+
+    /**
+     * Test of the factory with an unknown mode.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMode() {
+        System.out.println("unknownMode");
+        SqlGeometryFactory.create("INSIDE");
+    }
+}
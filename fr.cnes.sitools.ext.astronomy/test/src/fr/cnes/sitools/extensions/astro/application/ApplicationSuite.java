@@ -26,7 +26,9 @@ import org.junit.runners.Suite;
  * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
  */
 @RunWith(Suite.class)
-@Suite.SuiteClasses({OpenSearchVOApplicationConeTest.class, OpenSearchVOApplicationSIATest.class , ShorteningUrlApplicationPluginTest.class})
+@Suite.SuiteClasses({OpenSearchVOApplicationConeTest.class, OpenSearchVOApplicationSIATest.class , ShorteningUrlApplicationPluginTest.class, AsyncUwsPollerTest.class,
+  fr.cnes.sitools.extensions.astro.application.opensearch.HealpixCountsTest.class,
+  fr.cnes.sitools.extensions.astro.application.opensearch.SolrCoverageCacheTest.class})
 
 public class ApplicationSuite {
     
@@ -0,0 +1,168 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.ivoa.xml.uws.v1.ExecutionPhase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.data.Form;
+
+import fr.cnes.sitools.extensions.astro.application.uws.client.AsyncUwsPoller;
+import fr.cnes.sitools.extensions.astro.application.uws.client.ClientUWS;
+import fr.cnes.sitools.extensions.astro.application.uws.client.ClientUWSException;
+import fr.cnes.sitools.extensions.astro.application.uws.client.UwsJobListener;
+
+/**
+ * Tests the asynchronous UWS polling against the local UWS stand-in.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class AsyncUwsPollerTest {
+
+    private static final int PORT = 18283;
+    private static final long EXECUTION_TIME = 200;
+    private static final int NB_JOBS = 100;
+    private static final int NB_POLLS_BEFORE_CANCEL = 3;
+    private LocalUwsServer server;
+    private AsyncUwsPoller poller;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalUwsServer(PORT, EXECUTION_TIME, ExecutionPhase.COMPLETED);
+        server.start();
+        poller = new AsyncUwsPoller(2, 10, 100, 2.0, 3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        poller.shutdown();
+        server.stop();
+    }
+
+    /**
+     * Submits many jobs and checks that all of them complete with two polling threads.
+     */
+    @Test
+    public void testThroughput() throws Exception {
+        System.out.println("throughput");
+        final ClientUWS uws = new ClientUWS(server.getServiceUrl());
+        final CountDownLatch latch = new CountDownLatch(NB_JOBS);
+        final Map<String, ExecutionPhase> phases = new ConcurrentHashMap<String, ExecutionPhase>();
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < NB_JOBS; i++) {
+            final String jobId = uws.createJob(createForm());
+            poller.watch(uws, jobId, new RecordingListener(phases, latch, Integer.MAX_VALUE));
+        }
+        assertTrue("All jobs must end", latch.await(30, TimeUnit.SECONDS));
+        final long elapsed = System.currentTimeMillis() - start;
+        System.out.println(NB_JOBS + " jobs in " + elapsed + " ms, " + server.getNbPhaseRequests() + " phase requests");
+        assertEquals(NB_JOBS, phases.size());
+        for (ExecutionPhase phase : phases.values()) {
+            assertEquals(ExecutionPhase.COMPLETED, phase);
+        }
+        assertEquals(0, poller.getWatchedJobs());
+    }
+
+    /**
+     * Cancels a job after a few polls and checks that the polling stops, the
+     * job is aborted on the remote service and nothing is left in the poller.
+     */
+    @Test
+    public void testCancellation() throws Exception {
+        System.out.println("cancellation");
+        // the job never completes while it is polled
+        final LocalUwsServer slowServer = new LocalUwsServer(PORT + 1, 60000, ExecutionPhase.COMPLETED);
+        slowServer.start();
+        try {
+            final ClientUWS uws = new ClientUWS(slowServer.getServiceUrl());
+            final String jobId = uws.createJob(createForm());
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AsyncUwsPoller.Watch watch = poller.watch(uws, jobId, new RecordingListener(
+                    new ConcurrentHashMap<String, ExecutionPhase>(), latch, NB_POLLS_BEFORE_CANCEL));
+            final long timeout = System.currentTimeMillis() + 5000;
+            while (!watch.isDone() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertTrue(watch.isDone());
+            assertEquals(NB_POLLS_BEFORE_CANCEL, watch.getNbPolls());
+            assertEquals(ExecutionPhase.ABORTED, slowServer.getPhase(jobId));
+            assertEquals("A cancelled job is not notified", 1, latch.getCount());
+            assertEquals(0, poller.getWatchedJobs());
+            // longer than the maximum delay between two polls
+            Thread.sleep(500);
+            assertEquals(NB_POLLS_BEFORE_CANCEL, slowServer.getNbPhaseRequests());
+            assertEquals(NB_POLLS_BEFORE_CANCEL, watch.getNbPolls());
+        } finally {
+            slowServer.stop();
+        }
+    }
+
+    private Form createForm() {
+        final Form form = new Form();
+        form.add("image", "http://localhost/image.fits");
+        form.add("PHASE", "RUN");
+        return form;
+    }
+
+    /**
+     * Records the final phase of each job and cancels the job after a number of polls.
+     */
+    private static class RecordingListener implements UwsJobListener {
+
+        private final Map<String, ExecutionPhase> phases;
+        private final CountDownLatch latch;
+        private final int nbPollsBeforeCancel;
+        private final AtomicInteger nbChecks = new AtomicInteger();
+
+        RecordingListener(final Map<String, ExecutionPhase> phases, final CountDownLatch latch, final int nbPollsBeforeCancel) {
+            this.phases = phases;
+            this.latch = latch;
+            this.nbPollsBeforeCancel = nbPollsBeforeCancel;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            // checked once before each poll
+            return nbChecks.incrementAndGet() > nbPollsBeforeCancel;
+        }
+
+        @Override
+        public void onFinished(final String jobId, final ExecutionPhase phase) {
+            phases.put(jobId, phase);
+            latch.countDown();
+        }
+
+        @Override
+        public void onError(final String jobId, final ClientUWSException error) {
+            phases.put(jobId, ExecutionPhase.ERROR);
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.ivoa.xml.uws.v1.ExecutionPhase;
+
+import org.restlet.Component;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.Form;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Protocol;
+import org.restlet.data.Status;
+import org.restlet.routing.Template;
+
+/**
+ * In-process stand-in of a remote UWS service.
+ * <p>
+ * Each created job stays EXECUTING during a fixed time and then reaches the
+ * configured final phase. The server answers to the subset of the UWS
+ * protocol used by the ClientUWS: job creation, phase, abort and results.
+ * It is bound to localhost so that the asynchronous client can be tested
+ * without the remote service.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class LocalUwsServer {
+
+    /**
+     * Path of the service.
+     */
+    public static final String SERVICE_PATH = "/uws/astrometry";
+    /**
+     * Restlet component.
+     */
+    private final Component component;
+    /**
+     * Listening port.
+     */
+    private final int port;
+    /**
+     * Time in milliseconds a job stays in the EXECUTING phase.
+     */
+    private final long executionTimeMillisec;
+    /**
+     * Phase reached at the end of the execution.
+     */
+    private final ExecutionPhase finalPhase;
+    /**
+     * Jobs.
+     */
+    private final Map<String, LocalJob> jobs = new ConcurrentHashMap<String, LocalJob>();
+    /**
+     * Number of phase requests.
+     */
+    private final AtomicInteger nbPhaseRequests = new AtomicInteger();
+
+    /**
+     * Creates the stand-in.
+     * @param portVal listening port
+     * @param executionTimeMillisecVal time in milliseconds a job stays EXECUTING
+     * @param finalPhaseVal phase reached at the end of the execution
+     */
+    public LocalUwsServer(final int portVal, final long executionTimeMillisecVal, final ExecutionPhase finalPhaseVal) {
+        this.port = portVal;
+        this.executionTimeMillisec = executionTimeMillisecVal;
+        this.finalPhase = finalPhaseVal;
+        this.component = new Component();
+        this.component.getServers().add(Protocol.HTTP, "localhost", portVal);
+        this.component.getDefaultHost().setDefaultMatchingMode(Template.MODE_STARTS_WITH);
+        this.component.getDefaultHost().attach(SERVICE_PATH, new UwsRestlet());
+    }
+
+    /**
+     * Starts the server.
+     * @throws Exception when the server cannot be started
+     */
+    public final void start() throws Exception {
+        this.component.start();
+    }
+
+    /**
+     * Stops the server.
+     * @throws Exception when the server cannot be stopped
+     */
+    public final void stop() throws Exception {
+        this.component.stop();
+    }
+
+    /**
+     * Returns the URL of the service.
+     * @return the URL of the service
+     */
+    public final String getServiceUrl() {
+        return "http://localhost:" + port + SERVICE_PATH;
+    }
+
+    /**
+     * Returns the current phase of a job.
+     * @param jobId job identifier
+     * @return the phase or null when the job does not exist
+     */
+    public final ExecutionPhase getPhase(final String jobId) {
+        final LocalJob job = jobs.get(jobId);
+        return (job == null) ? null : job.getPhase();
+    }
+
+    /**
+     * Returns the number of jobs created since the start.
+     * @return the number of jobs
+     */
+    public final int getNbJobs() {
+        return jobs.size();
+    }
+
+    /**
+     * Returns the number of phase requests received since the start.
+     * @return the number of phase requests
+     */
+    public final int getNbPhaseRequests() {
+        return nbPhaseRequests.get();
+    }
+
+    /**
+     * A job of the stand-in.
+     */
+    private class LocalJob {
+
+        /**
+         * Start time of the execution, -1 when the job is pending.
+         */
+        private volatile long startTime = -1;
+        /**
+         * True when the job has been aborted.
+         */
+        private volatile boolean aborted = false;
+
+        /**
+         * Returns the phase of the job.
+         * @return the phase
+         */
+        public ExecutionPhase getPhase() {
+            final ExecutionPhase phase;
+            if (aborted) {
+                phase = ExecutionPhase.ABORTED;
+            } else if (startTime < 0) {
+                phase = ExecutionPhase.PENDING;
+            } else if (System.currentTimeMillis() - startTime < executionTimeMillisec) {
+                phase = ExecutionPhase.EXECUTING;
+            } else {
+                phase = finalPhase;
+            }
+            return phase;
+        }
+    }
+
+    /**
+     * Handles the UWS requests.
+     */
+    private class UwsRestlet extends Restlet {
+
+        @Override
+        public void handle(final Request request, final Response response) {
+            final String path = request.getResourceRef().getPath();
+            final String relative = path.substring(path.indexOf(SERVICE_PATH) + SERVICE_PATH.length());
+            final String[] segments = relative.replaceAll("^/+|/+$", "").split("/");
+            if (relative.replaceAll("/", "").isEmpty()) {
+                createJob(request, response);
+                return;
+            }
+            final String jobId = segments[0];
+            final LocalJob job = jobs.get(jobId);
+            if (job == null) {
+                response.setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+            } else if (segments.length == 2 && "phase".equals(segments[1]) && Method.GET.equals(request.getMethod())) {
+                nbPhaseRequests.incrementAndGet();
+                response.setEntity(job.getPhase().value(), MediaType.TEXT_PLAIN);
+            } else if (segments.length == 2 && "phase".equals(segments[1]) && Method.POST.equals(request.getMethod())) {
+                final Form form = new Form(request.getEntity());
+                if ("ABORT".equals(form.getFirstValue("PHASE"))) {
+                    job.aborted = true;
+                } else if ("RUN".equals(form.getFirstValue("PHASE")) && job.startTime < 0) {
+                    job.startTime = System.currentTimeMillis();
+                }
+                response.redirectSeeOther(getServiceUrl() + "/" + jobId);
+            } else if (segments.length == 2 && "results".equals(segments[1])) {
+                response.setEntity("<uws:results xmlns:uws=\"http://www.ivoa.net/xml/UWS/v1.0\" "
+                        + "xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+                        + "<uws:result id=\"image\" xlink:href=\"" + getServiceUrl() + "/" + jobId + "/image.fits\"/>"
+                        + "</uws:results>", MediaType.TEXT_XML);
+            } else {
+                response.setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+            }
+        }
+
+        /**
+         * Creates a job and redirects to it.
+         * @param request request
+         * @param response response
+         */
+        private void createJob(final Request request, final Response response) {
+            if (!Method.POST.equals(request.getMethod())) {
+                response.setStatus(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+                return;
+            }
+            final Form form = new Form(request.getEntity());
+            final LocalJob job = new LocalJob();
+            if ("RUN".equals(form.getFirstValue("PHASE"))) {
+                job.startTime = System.currentTimeMillis();
+            }
+            final String jobId = UUID.randomUUID().toString();
+            jobs.put(jobId, job);
+            response.redirectSeeOther(getServiceUrl() + "/" + jobId);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application.opensearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Compares the counts of HealpixCounts with the counts of distinct documents of a SOLR facet query.
+ *
+ * @author Jean-Christophe Malapert
+ */
+public class HealpixCountsTest {
+
+  /**
+   * Minimum order.
+   */
+  private static final int MIN_ORDER = 3;
+  /**
+   * Maximum order.
+   */
+  private static final int MAX_ORDER = 13;
+
+  /**
+   * Returns random documents, each one covering a few contiguous pixels at the maximum order.
+   * @param seed seed
+   * @return the pixels of each document at the maximum order
+   */
+  private static List<long[]> createDocuments(final long seed) {
+    final Random random = new Random(seed);
+    final List<long[]> documents = new ArrayList<long[]>();
+    for (int i = 0; i < 5000; i++) {
+      final long first = (random.nextInt(3) * (1L << (2 * MAX_ORDER))) + random.nextInt(1 << 16);
+      final long[] pixels = new long[1 + random.nextInt(40)];
+      for (int j = 0; j < pixels.length; j++) {
+        pixels[j] = first + j;
+      }
+      documents.add(pixels);
+    }
+    return documents;
+  }
+
+  /**
+   * Returns the documents in at least one of the visible pixels.
+   * @param documents documents
+   * @param visibleOrder order of the visible pixels
+   * @param visiblePixels visible pixels, null for all the documents
+   * @return the documents
+   */
+  private static List<long[]> select(final List<long[]> documents, final int visibleOrder, final long[] visiblePixels) {
+    if (visiblePixels == null) {
+      return documents;
+    }
+    final Set<Long> visible = new HashSet<Long>();
+    for (long pixel : visiblePixels) {
+      visible.add(pixel);
+    }
+    final List<long[]> result = new ArrayList<long[]>();
+    for (long[] document : documents) {
+      for (long pixel : document) {
+        if (visible.contains(pixel >>> (2 * (MAX_ORDER - visibleOrder)))) {
+          result.add(document);
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the facet counts of an order: the number of distinct documents by pixel.
+   * @param documents documents
+   * @param order order
+   * @return the counts by pixel
+   */
+  private static Map<Long, Long> facet(final List<long[]> documents, final int order) {
+    final Map<Long, Long> result = new TreeMap<Long, Long>();
+    for (long[] document : documents) {
+      final Set<Long> documentPixels = new HashSet<Long>();
+      for (long pixel : document) {
+        documentPixels.add(pixel >>> (2 * (MAX_ORDER - order)));
+      }
+      for (Long pixel : documentPixels) {
+        final Long count = result.get(pixel);
+        result.put(pixel, ((count == null) ? 0 : count) + 1);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Keeps the children of the visible pixels.
+   * @param counts counts by pixel of an order
+   * @param depth difference between the order and the order of the visible pixels
+   * @param visiblePixels visible pixels
+   * @return the counts of the children of the visible pixels
+   */
+  private static Map<Long, Long> children(final Map<Long, Long> counts, final int depth, final long[] visiblePixels) {
+    final Set<Long> visible = new HashSet<Long>();
+    for (long pixel : visiblePixels) {
+      visible.add(pixel);
+    }
+    final Map<Long, Long> result = new TreeMap<Long, Long>();
+    for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+      if (visible.contains(entry.getKey() >>> (2 * depth))) {
+        result.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the counts of an order.
+   * @param counts counts
+   * @param order order
+   * @return the counts by pixel
+   */
+  private static Map<Long, Long> actual(final HealpixCounts counts, final int order) {
+    final Map<Long, Long> result = new TreeMap<Long, Long>();
+    for (int i = 0; i < counts.size(order); i++) {
+      result.put(counts.getPixel(order, i), counts.getCount(order, i));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the counts of the facet query on all the orders, listed in decreasing pixel order.
+   * @param documents documents
+   * @return the counts
+   */
+  private static HealpixCounts fromFacets(final List<long[]> documents) {
+    final long[][] pixels = new long[MAX_ORDER - MIN_ORDER + 1][];
+    final long[][] values = new long[pixels.length][];
+    for (int order = MIN_ORDER; order <= MAX_ORDER; order++) {
+      final Map<Long, Long> counts = facet(documents, order);
+      pixels[order - MIN_ORDER] = new long[counts.size()];
+      values[order - MIN_ORDER] = new long[counts.size()];
+      int i = counts.size();
+      for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+        i--;
+        pixels[order - MIN_ORDER][i] = entry.getKey();
+        values[order - MIN_ORDER][i] = entry.getValue();
+      }
+    }
+    return HealpixCounts.fromOrders(MIN_ORDER, pixels, values, documents.size());
+  }
+
+  /**
+   * Test of fromOrders method.
+   */
+  @Test
+  public void testFromOrders() {
+    System.out.println("fromOrders");
+    final List<long[]> documents = createDocuments(1);
+    final HealpixCounts healpixCounts = fromFacets(documents);
+    for (int order = MIN_ORDER; order <= MAX_ORDER; order++) {
+      assertEquals("order " + order, facet(documents, order), actual(healpixCounts, order));
+    }
+    assertEquals(documents.size(), healpixCounts.getTotal());
+    assertTrue(healpixCounts.isTotalExact());
+  }
+
+  /**
+   * Test of fromOrders method: a document covering several pixels is counted once in their parent.
+   */
+  @Test
+  public void testDistinctDocuments() {
+    System.out.println("distinctDocuments");
+    final List<long[]> documents = new ArrayList<long[]>();
+    documents.add(new long[]{0, 1, 2, 3});
+    documents.add(new long[]{3, 4});
+    final HealpixCounts healpixCounts = fromFacets(documents);
+    assertEquals(5, healpixCounts.size(MAX_ORDER));
+    assertEquals(2, healpixCounts.getCount(MAX_ORDER, 3));
+    assertEquals(2, healpixCounts.getCount(MAX_ORDER - 1, 0));
+    assertEquals(1, healpixCounts.getCount(MAX_ORDER - 1, 1));
+    assertEquals(1, healpixCounts.size(MIN_ORDER));
+    assertEquals(2, healpixCounts.getCount(MIN_ORDER, 0));
+  }
+
+  /**
+   * Test of slice method.
+   */
+  @Test
+  public void testSlice() {
+    System.out.println("slice");
+    final List<long[]> documents = createDocuments(2);
+    final HealpixCounts healpixCounts = fromFacets(documents);
+    final long[][] visiblePixels = {{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11}, {1, 0, 1}, {2, 1000}, {5, 17, 18, 3}, {17, 17}};
+    final int[] visibleOrders = {0, 1, 8, 6, 6};
+    for (int i = 0; i < visibleOrders.length; i++) {
+      final HealpixCounts slice = healpixCounts.slice(visibleOrders[i], visiblePixels[i]);
+      final List<long[]> selected = select(documents, visibleOrders[i], visiblePixels[i]);
+      long maxCount = 0;
+      for (int order = MIN_ORDER; order <= MAX_ORDER; order++) {
+        if (order < visibleOrders[i]) {
+          assertEquals("order " + order + " slice " + i, 0, slice.size(order));
+          continue;
+        }
+        // the SOLR facets of the selected documents, in the visible pixels
+        final Map<Long, Long> expectedCounts = children(facet(selected, order), order - visibleOrders[i], visiblePixels[i]);
+        assertEquals("order " + order + " slice " + i, expectedCounts, actual(slice, order));
+        if (order == Math.max(MIN_ORDER, visibleOrders[i])) {
+          for (long count : expectedCounts.values()) {
+            maxCount = Math.max(maxCount, count);
+          }
+        }
+      }
+      assertEquals(maxCount, slice.getTotal());
+      assertTrue(slice.getTotal() <= selected.size());
+      // a single visible pixel gives the number of documents
+      assertEquals(i == 4, slice.isTotalExact());
+      if (slice.isTotalExact()) {
+        assertEquals(selected.size(), slice.getTotal());
+      }
+    }
+    assertFalse(healpixCounts.slice(0, new long[]{0}).isTotalExact());
+  }
+}
@@ -0,0 +1,172 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.application.opensearch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+import org.junit.Test;
+
+import cds.moc.HealpixMoc;
+
+/**
+ * Compares the coverage updated with the new documents with the coverage computed again.
+ *
+ * @author Jean-Christophe Malapert
+ */
+public class SolrCoverageCacheTest {
+
+  /**
+   * URL of the SOLR core.
+   */
+  private static final String SOLR = "http://localhost:8983/solr/core";
+
+  /**
+   * SOLR core in memory, answering the queries of the cache.
+   */
+  private static final class MemorySolr implements SolrCoverageCache.JsonSource {
+
+    /**
+     * Documents, a pixel node and a version each.
+     */
+    private final List<ObjectNode> docs = new ArrayList<ObjectNode>();
+    /**
+     * Number of facet queries.
+     */
+    private int nbFacetQueries;
+
+    /**
+     * Adds a document.
+     * @param version <code>_version_</code> of the document
+     * @param pixels pixels at order 13, a single pixel is stored as a single value
+     */
+    private void add(final long version, final long... pixels) {
+      final ObjectNode doc = JsonNodeFactory.instance.objectNode();
+      if (pixels.length == 1) {
+        doc.put(SolrCoverageCache.PIXEL_FIELD, pixels[0]);
+      } else {
+        final ArrayNode values = doc.putArray(SolrCoverageCache.PIXEL_FIELD);
+        for (long pixel : pixels) {
+          values.add(pixel);
+        }
+      }
+      doc.put(SolrCoverageCache.VERSION_FIELD, version);
+      docs.add(doc);
+    }
+
+    @Override
+    public JsonNode get(final String query) throws Exception {
+      final String decoded = URLDecoder.decode(query, "UTF-8");
+      final ObjectNode root = JsonNodeFactory.instance.objectNode();
+      if (decoded.contains("facet=true")) {
+        nbFacetQueries++;
+        final Map<Long, Integer> counts = new TreeMap<Long, Integer>();
+        for (ObjectNode doc : docs) {
+          for (JsonNode pixel : pixels(doc)) {
+            final Integer count = counts.get(pixel.getLongValue());
+            counts.put(pixel.getLongValue(), (count == null) ? 1 : count + 1);
+          }
+        }
+        final ArrayNode facets = root.putObject("facet_counts").putObject("facet_fields").putArray(SolrCoverageCache.PIXEL_FIELD);
+        for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+          facets.add(entry.getKey());
+          facets.add(entry.getValue());
+        }
+        return root;
+      }
+      final ObjectNode response = root.putObject("response");
+      final ArrayNode result = response.putArray("docs");
+      if (decoded.contains(SolrCoverageCache.VERSION_FIELD + " desc")) {
+        // greatest version, the documents are added by increasing version
+        result.add(docs.get(docs.size() - 1));
+        response.put("numFound", docs.size());
+        return root;
+      }
+      final int bound = decoded.indexOf(SolrCoverageCache.VERSION_FIELD + ":{") + SolrCoverageCache.VERSION_FIELD.length() + 2;
+      final long lastVersion = Long.parseLong(decoded.substring(bound, decoded.indexOf(' ', bound)));
+      final int start = Integer.parseInt(decoded.substring(decoded.indexOf("&start=") + "&start=".length()));
+      final List<ObjectNode> newDocs = new ArrayList<ObjectNode>();
+      for (ObjectNode doc : docs) {
+        if (doc.get(SolrCoverageCache.VERSION_FIELD).getLongValue() > lastVersion) {
+          newDocs.add(doc);
+        }
+      }
+      // pages of 2 documents, to go through the paging of the update
+      for (int i = start; i < Math.min(start + 2, newDocs.size()); i++) {
+        result.add(newDocs.get(i));
+      }
+      response.put("numFound", newDocs.size());
+      return root;
+    }
+
+    /**
+     * Returns the pixels of a document.
+     * @param doc document
+     * @return the pixels
+     */
+    private static List<JsonNode> pixels(final ObjectNode doc) {
+      final List<JsonNode> pixels = new ArrayList<JsonNode>();
+      final JsonNode field = doc.get(SolrCoverageCache.PIXEL_FIELD);
+      if (field.isArray()) {
+        for (JsonNode pixel : field) {
+          pixels.add(pixel);
+        }
+      } else {
+        pixels.add(field);
+      }
+      return pixels;
+    }
+  }
+
+  /**
+   * Test of getMoc method with multi-valued pixels added to the index.
+   * @throws Exception MOC Exception
+   */
+  @Test
+  public void testUpdateMultiValued() throws Exception {
+    System.out.println("updateMultiValued");
+    final MemorySolr solr = new MemorySolr();
+    solr.add(10, 1000L);
+    solr.add(11, 5000L, 5001L, 5004L);
+    final SolrCoverageCache cache = new SolrCoverageCache(SOLR, solr);
+    cache.getMoc(1, 2);
+    assertEquals(1, solr.nbFacetQueries);
+
+    // polygon footprints, one of them in a pixel already covered
+    solr.add(12, 20000L, 20001L, 20002L, 20003L, 70000L);
+    solr.add(13, 8L);
+    solr.add(14, 5001L, 123456789L);
+    final HealpixMoc updated = cache.getMoc(2, 5);
+    assertEquals(1, solr.nbFacetQueries);
+
+    final HealpixMoc computed = new SolrCoverageCache(SOLR, solr).getMoc(2, 5);
+    assertEquals(2, solr.nbFacetQueries);
+    assertEquals(computed, updated);
+    assertEquals(11, updated.getUsedArea());
+  }
+}
@@ -0,0 +1,157 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import healpix.essentials.HealpixProc;
+import healpix.essentials.Pointing;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cds.moc.HealpixMoc;
+import cds.moc.MocCell;
+import fr.cnes.sitools.searchgeometryengine.MocRanges;
+
+/**
+ * Compares the footprint built in parallel batches with the MOC built row by row.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class FootprintBuilderTest {
+
+    /**
+     * Healpix order.
+     */
+    private static final int ORDER = 8;
+
+    /**
+     * Returns random rows, the first column is the right ascension and the second one the declination.
+     * @param nbRows number of rows
+     * @param seed seed
+     * @return the rows
+     */
+    private static double[][] createRows(final int nbRows, final long seed) {
+        final Random random = new Random(seed);
+        final double[][] rows = new double[nbRows][2];
+        for (double[] row : rows) {
+            // clustered rows to have large cells in the MOC
+            row[0] = random.nextBoolean() ? 360 * random.nextDouble() : 40 + 5 * random.nextDouble();
+            row[1] = random.nextBoolean() ? Math.toDegrees(Math.asin(2 * random.nextDouble() - 1)) : 10 + 5 * random.nextDouble();
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the MOC built by adding the rows one by one.
+     * @param rows rows
+     * @return the MOC
+     * @throws Exception MOC Exception
+     */
+    private static HealpixMoc addRows(final double[][] rows) throws Exception {
+        final HealpixMoc moc = new HealpixMoc();
+        for (double[] row : rows) {
+            final long pixel = HealpixProc.ang2pixNest(ORDER, new Pointing(Math.PI / 2 - Math.toRadians(row[1]), Math.toRadians(row[0])));
+            moc.add(new MocCell(ORDER, pixel));
+        }
+        return moc;
+    }
+
+    /**
+     * Builds the footprint of rows, the mark of a row is its index plus an offset.
+     * @param previous previous footprint
+     * @param rows rows
+     * @param offset offset of the marks
+     * @return the footprint
+     * @throws Exception MOC Exception
+     */
+    private static DatasetFootprint build(final DatasetFootprint previous, final double[][] rows, final int offset) throws Exception {
+        final FootprintBuilder builder = new FootprintBuilder(ORDER, previous, 4, 1000);
+        for (int i = 0; i < rows.length; i++) {
+            builder.add(rows[i][0], rows[i][1], BigDecimal.valueOf(offset + i));
+        }
+        assertEquals(rows.length, builder.getNbRows());
+        return builder.build();
+    }
+
+    /**
+     * Test of build method.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testBuild() throws Exception {
+        System.out.println("build");
+        final double[][] rows = createRows(25500, 1);
+        final DatasetFootprint footprint = build(null, rows, 0);
+        assertEquals(MocRanges.fromMoc(addRows(rows)), footprint.getRanges());
+        assertEquals(rows.length, footprint.getNbRows());
+        assertEquals(BigDecimal.valueOf(rows.length - 1), footprint.getHighWaterMark());
+        assertEquals(addRows(rows).getCoverage(), footprint.getCoverage(), 1E-12);
+    }
+
+    /**
+     * Test of an incremental build.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testIncrementalBuild() throws Exception {
+        System.out.println("incrementalBuild");
+        final double[][] rows = createRows(12000, 2);
+        final double[][] newRows = createRows(3100, 3);
+        final DatasetFootprint footprint = build(build(null, rows, 0), newRows, rows.length);
+        final double[][] allRows = new double[rows.length + newRows.length][];
+        System.arraycopy(rows, 0, allRows, 0, rows.length);
+        System.arraycopy(newRows, 0, allRows, rows.length, newRows.length);
+        final DatasetFootprint fullFootprint = build(null, allRows, 0);
+        assertEquals(fullFootprint.getRanges(), footprint.getRanges());
+        assertEquals(fullFootprint.getNbRows(), footprint.getNbRows());
+        assertEquals(fullFootprint.getHighWaterMark(), footprint.getHighWaterMark());
+    }
+
+    /**
+     * Test of save and load methods.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testSaveLoad() throws Exception {
+        System.out.println("saveLoad");
+        final File directory = new File(System.getProperty("java.io.tmpdir"), "footprint" + System.nanoTime());
+        directory.mkdirs();
+        try {
+            assertNull(DatasetFootprint.load(directory));
+            final DatasetFootprint footprint = build(null, createRows(5000, 4), 0);
+            footprint.save(directory);
+            final DatasetFootprint loaded = DatasetFootprint.load(directory);
+            assertEquals(footprint.getRanges(), loaded.getRanges());
+            assertEquals(footprint.getOrder(), loaded.getOrder());
+            assertEquals(footprint.getNbRows(), loaded.getNbRows());
+            assertEquals(footprint.getHighWaterMark(), loaded.getHighWaterMark());
+            DatasetFootprint.delete(directory);
+            assertNull(DatasetFootprint.load(directory));
+        } finally {
+            DatasetFootprint.delete(directory);
+            directory.delete();
+        }
+    }
+}
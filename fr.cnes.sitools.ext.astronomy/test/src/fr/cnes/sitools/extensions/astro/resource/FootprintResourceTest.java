@@ -0,0 +1,80 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import fr.cnes.sitools.plugins.resources.model.ResourceModel;
+import fr.cnes.sitools.plugins.resources.model.ResourceParameter;
+import fr.cnes.sitools.plugins.resources.model.ResourceParameterType;
+
+/**
+ * Tests the parameters of the footprint resource.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class FootprintResourceTest {
+
+    /**
+     * Adds a parameter to a resource model.
+     * @param model resource model
+     * @param name parameter name
+     * @param value parameter value
+     */
+    private static void addParam(final ResourceModel model, final String name, final String value) {
+        final ResourceParameter param = new ResourceParameter(name, "", ResourceParameterType.PARAMETER_INTERN);
+        param.setValue(value);
+        model.addParam(param);
+    }
+
+    /**
+     * Test of a resource configured before the order and the high-water mark parameters existed.
+     */
+    @Test
+    public void testModelWithoutOrderAndHighWaterMark() {
+        System.out.println("modelWithoutOrderAndHighWaterMark");
+        final ResourceModel model = new ResourceModel();
+        addParam(model, "RA", "ra");
+        addParam(model, "DEC", "dec");
+        assertEquals(FootprintResourcePlugin.DEFAULT_ORDER, FootprintResource.getOrder(model));
+        assertNull(FootprintResource.getHighWaterMark(model));
+    }
+
+    /**
+     * Test of a resource with the order and the high-water mark parameters.
+     */
+    @Test
+    public void testModelWithOrderAndHighWaterMark() {
+        System.out.println("modelWithOrderAndHighWaterMark");
+        final ResourceModel model = new ResourceModel();
+        addParam(model, FootprintResourcePlugin.ORDER, "8");
+        addParam(model, FootprintResourcePlugin.HIGH_WATER_MARK, "id");
+        assertEquals(8, FootprintResource.getOrder(model));
+        assertEquals("id", FootprintResource.getHighWaterMark(model));
+
+        final ResourceModel emptyModel = new ResourceModel();
+        addParam(emptyModel, FootprintResourcePlugin.ORDER, "");
+        addParam(emptyModel, FootprintResourcePlugin.HIGH_WATER_MARK, "");
+        assertEquals(FootprintResourcePlugin.DEFAULT_ORDER, FootprintResource.getOrder(emptyModel));
+        assertNull(FootprintResource.getHighWaterMark(emptyModel));
+    }
+}
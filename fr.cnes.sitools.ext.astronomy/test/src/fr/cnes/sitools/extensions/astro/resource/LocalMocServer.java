@@ -0,0 +1,237 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.restlet.Component;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.Conditions;
+import org.restlet.data.MediaType;
+import org.restlet.data.Protocol;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
+import org.restlet.representation.OutputRepresentation;
+import org.restlet.routing.Template;
+
+import cds.moc.HealpixMoc;
+
+/**
+ * In-process stand-in of a remote MOC server.
+ * <p>
+ * Each MOC is served as FITS with an ETag and a Last-Modified date. The
+ * server answers 304 to a conditional GET when the ETag matches the
+ * If-None-Match header or, without If-None-Match, when the MOC has not been
+ * modified since the If-Modified-Since date. The ETag can be disabled to
+ * test the revalidation by date only.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class LocalMocServer {
+
+    /**
+     * Path of the MOCs.
+     */
+    public static final String SERVICE_PATH = "/moc";
+    /**
+     * Restlet component.
+     */
+    private final Component component;
+    /**
+     * Listening port.
+     */
+    private final int port;
+    /**
+     * MOCs by name.
+     */
+    private final Map<String, ServedMoc> mocs = new ConcurrentHashMap<String, ServedMoc>();
+    /**
+     * Number of MOCs sent.
+     */
+    private final AtomicInteger nbDownloads = new AtomicInteger();
+    /**
+     * Number of 304 answers.
+     */
+    private final AtomicInteger nbNotModified = new AtomicInteger();
+    /**
+     * Version counter of the MOCs, used for the ETags and the dates.
+     */
+    private final AtomicInteger version = new AtomicInteger();
+    /**
+     * True when the ETag is sent.
+     */
+    private volatile boolean tagEnabled = true;
+
+    /**
+     * Creates the stand-in.
+     * @param portVal listening port
+     */
+    public LocalMocServer(final int portVal) {
+        this.port = portVal;
+        this.component = new Component();
+        this.component.getServers().add(Protocol.HTTP, "localhost", portVal);
+        this.component.getDefaultHost().setDefaultMatchingMode(Template.MODE_STARTS_WITH);
+        this.component.getDefaultHost().attach(SERVICE_PATH, new MocRestlet());
+    }
+
+    /**
+     * Starts the server.
+     * @throws Exception when the server cannot be started
+     */
+    public final void start() throws Exception {
+        this.component.start();
+    }
+
+    /**
+     * Stops the server.
+     * @throws Exception when the server cannot be stopped
+     */
+    public final void stop() throws Exception {
+        this.component.stop();
+    }
+
+    /**
+     * Serves a MOC, or a new version of a MOC.
+     * @param name name of the MOC in the URL
+     * @param moc MOC
+     * @throws Exception when the MOC cannot be written
+     */
+    public final void setMoc(final String name, final HealpixMoc moc) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        moc.write(out, HealpixMoc.FITS);
+        final int mocVersion = version.incrementAndGet();
+        // HTTP dates have a precision of one second
+        final long time = (System.currentTimeMillis() / 1000 + mocVersion) * 1000;
+        mocs.put(name, new ServedMoc(out.toByteArray(), new Tag("moc-" + mocVersion, false), new Date(time)));
+    }
+
+    /**
+     * Sends the ETag or only the Last-Modified date.
+     * @param tagEnabledVal true to send the ETag
+     */
+    public final void setTagEnabled(final boolean tagEnabledVal) {
+        this.tagEnabled = tagEnabledVal;
+    }
+
+    /**
+     * Returns the URL of a MOC.
+     * @param name name of the MOC
+     * @return the URL
+     */
+    public final String getMocUrl(final String name) {
+        return "http://localhost:" + port + SERVICE_PATH + "/" + name;
+    }
+
+    /**
+     * Returns the number of MOCs sent since the start.
+     * @return the number of 200 answers
+     */
+    public final int getNbDownloads() {
+        return nbDownloads.get();
+    }
+
+    /**
+     * Returns the number of 304 answers since the start.
+     * @return the number of 304 answers
+     */
+    public final int getNbNotModified() {
+        return nbNotModified.get();
+    }
+
+    /**
+     * A version of a MOC.
+     */
+    private static class ServedMoc {
+
+        /**
+         * FITS content.
+         */
+        private final byte[] content;
+        /**
+         * ETag.
+         */
+        private final Tag tag;
+        /**
+         * Last modification date.
+         */
+        private final Date modificationDate;
+
+        /**
+         * Creates a version of a MOC.
+         * @param contentVal FITS content
+         * @param tagVal ETag
+         * @param modificationDateVal last modification date
+         */
+        ServedMoc(final byte[] contentVal, final Tag tagVal, final Date modificationDateVal) {
+            this.content = contentVal;
+            this.tag = tagVal;
+            this.modificationDate = modificationDateVal;
+        }
+    }
+
+    /**
+     * Handles the GET requests of the MOCs.
+     */
+    private class MocRestlet extends Restlet {
+
+        @Override
+        public void handle(final Request request, final Response response) {
+            final String path = request.getResourceRef().getPath();
+            final ServedMoc moc = mocs.get(path.substring(path.lastIndexOf('/') + 1));
+            if (moc == null) {
+                response.setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+                return;
+            }
+            final Conditions conditions = request.getConditions();
+            final boolean notModified;
+            if (tagEnabled && !conditions.getNoneMatch().isEmpty()) {
+                notModified = conditions.getNoneMatch().contains(moc.tag);
+            } else {
+                notModified = conditions.getModifiedSince() != null && !moc.modificationDate.after(conditions.getModifiedSince());
+            }
+            if (notModified) {
+                nbNotModified.incrementAndGet();
+                response.setStatus(Status.REDIRECTION_NOT_MODIFIED);
+                return;
+            }
+            nbDownloads.incrementAndGet();
+            final OutputRepresentation rep = new OutputRepresentation(MediaType.valueOf("image/fits")) {
+                @Override
+                public void write(final OutputStream outputStream) throws IOException {
+                    outputStream.write(moc.content);
+                }
+            };
+            if (tagEnabled) {
+                rep.setTag(moc.tag);
+            }
+            rep.setModificationDate(moc.modificationDate);
+            response.setEntity(rep);
+            response.setStatus(Status.SUCCESS_OK);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.astro.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cds.moc.HealpixMoc;
+
+/**
+ * Test of the MOC intersection of MocRetrievalCache and of the revalidation
+ * of the MOCs against the local MOC stand-in.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class MocRetrievalCacheTest {
+
+    /**
+     * Port of the local MOC server.
+     */
+    private static final int PORT = 18284;
+    /**
+     * Local MOC server.
+     */
+    private LocalMocServer server;
+
+    /**
+     * Starts the local MOC server with two MOCs.
+     * @throws Exception Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalMocServer(PORT);
+        server.setMoc("a", new HealpixMoc("0/0-3"));
+        server.setMoc("b", new HealpixMoc("0/2-5"));
+        server.start();
+    }
+
+    /**
+     * Stops the local MOC server.
+     * @throws Exception Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * Test of intersect method, of class MocRetrievalCache.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testIntersect() throws Exception {
+        System.out.println("intersect");
+        final HealpixMoc mocA = new HealpixMoc("0/0-3 2/100-200");
+        final HealpixMoc mocB = new HealpixMoc("1/2-20 3/900-1000");
+        final HealpixMoc mocC = new HealpixMoc("1/0-6 4/2000-2100");
+        final HealpixMoc expected = mocA.intersection(mocB).intersection(mocC);
+        assertEquals(expected, MocRetrievalCache.intersect(Arrays.asList(mocA, mocB, mocC)));
+        assertEquals(expected, MocRetrievalCache.intersect(Arrays.asList(mocC, mocA, mocB)));
+    }
+
+    /**
+     * Test of intersect method with disjoint MOCs.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testIntersectDisjoint() throws Exception {
+        System.out.println("intersectDisjoint");
+        final HealpixMoc mocA = new HealpixMoc("0/0-1");
+        final HealpixMoc mocB = new HealpixMoc("0/5-6");
+        final HealpixMoc mocC = new HealpixMoc("0/0-11");
+        assertEquals(0, MocRetrievalCache.intersect(Arrays.asList(mocC, mocA, mocB)).getSize());
+    }
+
+    /**
+     * Test of intersect method with one MOC.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testIntersectOne() throws Exception {
+        System.out.println("intersectOne");
+        final HealpixMoc moc = new HealpixMoc("2/10-20");
+        assertSame(moc, MocRetrievalCache.intersect(Arrays.asList(moc)));
+    }
+
+    /**
+     * Test of getMoc method: a stale MOC is revalidated with If-None-Match and kept on 304.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testRevalidationByTag() throws Exception {
+        System.out.println("revalidationByTag");
+        final MocRetrievalCache cache = new MocRetrievalCache(2, 4, 4, 0);
+        final HealpixMoc moc = cache.getMoc(server.getMocUrl("a"));
+        assertEquals(new HealpixMoc("0/0-3"), moc);
+        assertSame(moc, cache.getMoc(server.getMocUrl("a")));
+        assertEquals(1, server.getNbDownloads());
+        assertEquals(1, server.getNbNotModified());
+
+        server.setMoc("a", new HealpixMoc("0/4-5"));
+        final HealpixMoc modified = cache.getMoc(server.getMocUrl("a"));
+        assertEquals(new HealpixMoc("0/4-5"), modified);
+        assertEquals(2, server.getNbDownloads());
+    }
+
+    /**
+     * Test of getMoc method: without ETag, a stale MOC is revalidated with If-Modified-Since.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testRevalidationByDate() throws Exception {
+        System.out.println("revalidationByDate");
+        server.setTagEnabled(false);
+        final MocRetrievalCache cache = new MocRetrievalCache(2, 4, 4, 0);
+        final HealpixMoc moc = cache.getMoc(server.getMocUrl("b"));
+        assertSame(moc, cache.getMoc(server.getMocUrl("b")));
+        assertEquals(1, server.getNbDownloads());
+        assertEquals(1, server.getNbNotModified());
+
+        server.setMoc("b", new HealpixMoc("0/4-5"));
+        assertEquals(new HealpixMoc("0/4-5"), cache.getMoc(server.getMocUrl("b")));
+        assertEquals(2, server.getNbDownloads());
+    }
+
+    /**
+     * Test of getMoc method: a fresh MOC is used without request.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testFreshness() throws Exception {
+        System.out.println("freshness");
+        final MocRetrievalCache cache = new MocRetrievalCache(2, 4, 4, MocRetrievalCache.DEFAULT_FRESHNESS);
+        final HealpixMoc moc = cache.getMoc(server.getMocUrl("a"));
+        server.setMoc("a", new HealpixMoc("0/4-5"));
+        assertSame(moc, cache.getMoc(server.getMocUrl("a")));
+        assertEquals(1, server.getNbDownloads());
+        assertEquals(0, server.getNbNotModified());
+    }
+
+    /**
+     * Test of intersection method: the intersection is reused while the MOCs are not modified.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testIntersectionMemoised() throws Exception {
+        System.out.println("intersectionMemoised");
+        final MocRetrievalCache cache = new MocRetrievalCache(2, 4, 4, 0);
+        final List<String> urls = Arrays.asList(server.getMocUrl("a"), server.getMocUrl("b"));
+        final HealpixMoc intersection = cache.intersection(urls);
+        assertEquals(new HealpixMoc("0/2-3"), intersection);
+        assertEquals(2, server.getNbDownloads());
+
+        // both MOCs are revalidated (304) and the intersection is reused, whatever the order of the URLs
+        assertSame(intersection, cache.intersection(Arrays.asList(server.getMocUrl("b"), server.getMocUrl("a"))));
+        assertEquals(2, server.getNbDownloads());
+        assertEquals(2, server.getNbNotModified());
+
+        // a new version of one MOC gives a new intersection
+        server.setMoc("b", new HealpixMoc("0/1"));
+        final HealpixMoc modified = cache.intersection(urls);
+        assertNotSame(intersection, modified);
+        assertEquals(new HealpixMoc("0/1"), modified);
+        assertEquals(3, server.getNbDownloads());
+    }
+}
@@ -30,7 +30,10 @@ import org.junit.runners.Suite;
   fr.cnes.sitools.extensions.astro.resource.ReverseNameResolverResourceTest.class, 
   fr.cnes.sitools.extensions.astro.resource.ConeSearchResourceTest.class, 
   fr.cnes.sitools.extensions.astro.resource.CoverageResourceTest.class,
+  MocRetrievalCacheTest.class,
   ExportVOResourceTest.class,
+  FootprintBuilderTest.class,
+  FootprintResourceTest.class,
   fr.cnes.sitools.extensions.astro.resource.ConeSearchSolarObjectResourceTest.class,
   fr.cnes.sitools.extensions.astro.resource.Votable2GeoJsonResourcePluginTest.class})
 
@@ -0,0 +1,156 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests that the clicks counted by several threads are all flushed once.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class ClickCountersTest {
+
+    /**
+     * Sink that sums the clicks by key.
+     */
+    private static final class SumSink implements ClickCounters.Sink {
+
+        /**
+         * Clicks by key.
+         */
+        private final Map<Object, Long> clicks = new HashMap<Object, Long>();
+
+        @Override
+        public void add(final Object key, final long nbClicks) {
+            final Long previous = clicks.get(key);
+            clicks.put(key, (previous == null) ? nbClicks : previous + nbClicks);
+        }
+
+        /**
+         * Returns the clicks of a key.
+         * @param key key
+         * @return the clicks
+         */
+        private long get(final Object key) {
+            final Long value = clicks.get(key);
+            return (value == null) ? 0 : value;
+        }
+    }
+
+    /**
+     * Test of increment and flush methods with concurrent threads.
+     * @throws Exception Interrupted Exception
+     */
+    @Test
+    public void testConcurrentFlush() throws Exception {
+        System.out.println("concurrentFlush");
+        final ClickCounters counters = new ClickCounters();
+        final SumSink sink = new SumSink();
+        final int nbThreads = 8;
+        final int nbClicks = 100000;
+        final CountDownLatch done = new CountDownLatch(nbThreads);
+        for (int i = 0; i < nbThreads; i++) {
+            final int thread = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < nbClicks; j++) {
+                        counters.increment((j % 2 == 0) ? "popular" : "key" + (thread % 2));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        while (done.getCount() > 0) {
+            counters.flush(sink);
+        }
+        counters.flush(sink);
+        assertEquals(nbThreads * nbClicks / 2, sink.get("popular"));
+        assertEquals(nbThreads * nbClicks / 4, sink.get("key0"));
+        assertEquals(nbThreads * nbClicks / 4, sink.get("key1"));
+    }
+
+    /**
+     * Test of increment method on counters split by concurrent threads.
+     * @throws Exception Interrupted Exception
+     */
+    @Test
+    public void testConcurrentSplit() throws Exception {
+        System.out.println("concurrentSplit");
+        // stripes even on a single processor, each key is a new counter that may be split
+        final ClickCounters counters = new ClickCounters(8);
+        final SumSink sink = new SumSink();
+        final int nbThreads = 8;
+        final int nbKeys = 20000;
+        final int nbClicks = 20;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(nbThreads);
+        for (int i = 0; i < nbThreads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    for (int key = 0; key < nbKeys; key++) {
+                        for (int j = 0; j < nbClicks; j++) {
+                            counters.increment(key);
+                            if (j % 4 == 0) {
+                                Thread.yield();
+                            }
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        counters.flush(sink);
+        for (int key = 0; key < nbKeys; key++) {
+            assertEquals("key " + key, nbThreads * nbClicks, sink.get(key));
+        }
+    }
+
+    /**
+     * Test of getPending method.
+     */
+    @Test
+    public void testGetPending() {
+        System.out.println("getPending");
+        final ClickCounters counters = new ClickCounters();
+        counters.increment("a");
+        counters.increment("a");
+        assertEquals(2, counters.getPending("a"));
+        assertEquals(0, counters.getPending("b"));
+        final SumSink sink = new SumSink();
+        counters.flush(sink);
+        assertEquals(0, counters.getPending("a"));
+        assertEquals(2, sink.get("a"));
+    }
+}
@@ -0,0 +1,115 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the allocation, the encoding and the persistence of the shortening IDs.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class ShortIdAllocatorTest {
+
+    /**
+     * Alphabet of the IDs.
+     */
+    private static final String ALPHABET = "23456789ABCDEFGHJKLMNPRSTUVWXYZabcdefghjkmnpqrstuvwxyz";
+    /**
+     * Sequence file.
+     */
+    private File file;
+
+    /**
+     * Creates the sequence file.
+     * @throws Exception IO Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("shortener", ".seq");
+        file.delete();
+    }
+
+    /**
+     * Deletes the sequence file.
+     */
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Test of encode and decode methods over the IDs of one to three characters.
+     * @throws Exception IO Exception
+     */
+    @Test
+    public void testEncode() throws Exception {
+        System.out.println("encode");
+        final ShortIdAllocator allocator = new ShortIdAllocator(file, 10, ALPHABET, 1);
+        final long size = ALPHABET.length();
+        final long nbIds = size + size * size + size * size * size;
+        final Set<String> ids = new HashSet<String>();
+        for (long number = 0; number < nbIds; number++) {
+            final String id = allocator.encode(number);
+            final int expectedLength = (number < size) ? 1 : (number < size + size * size) ? 2 : 3;
+            assertEquals(expectedLength, id.length());
+            assertEquals(number, allocator.decode(id));
+            ids.add(id);
+        }
+        assertEquals(nbIds, ids.size());
+        assertEquals(nbIds, allocator.decode(allocator.encode(nbIds)));
+        assertEquals(-1, allocator.decode("0O"));
+        assertEquals(-1, allocator.decode(""));
+        allocator.close();
+    }
+
+    /**
+     * Test of nextId method across a restart.
+     * @throws Exception IO Exception
+     */
+    @Test
+    public void testNextIdAfterRestart() throws Exception {
+        System.out.println("nextIdAfterRestart");
+        ShortIdAllocator allocator = new ShortIdAllocator(file, 10, ALPHABET, 1);
+        final Set<String> ids = new HashSet<String>();
+        long lastNumber = -1;
+        for (int i = 0; i < 25; i++) {
+            final String id = allocator.nextId();
+            assertTrue(ids.add(id));
+            lastNumber = allocator.decode(id);
+        }
+        assertEquals(24, lastNumber);
+        allocator.close();
+
+        // the numbers of the last block that were not returned are skipped
+        allocator = new ShortIdAllocator(file, 10, ALPHABET, 1);
+        assertEquals(30, allocator.nextNumber());
+        assertTrue(ids.add(allocator.nextId()));
+        allocator.close();
+    }
+}
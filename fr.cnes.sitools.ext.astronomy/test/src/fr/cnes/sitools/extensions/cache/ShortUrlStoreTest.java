@@ -0,0 +1,234 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the reads, the writes, the rebuild and the compaction of the store.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class ShortUrlStoreTest {
+
+    /**
+     * Log file.
+     */
+    private File file;
+
+    /**
+     * Creates the log file name.
+     * @throws Exception IO Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("shortener", ".log");
+        file.delete();
+    }
+
+    /**
+     * Deletes the log file.
+     */
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Test of put, get and addClicks methods across a restart.
+     * @throws Exception IO Exception
+     */
+    @Test
+    public void testPutAfterRestart() throws Exception {
+        System.out.println("putAfterRestart");
+        ShortUrlStore store = new ShortUrlStore(file, ShortUrlStore.SyncMode.ALWAYS);
+        // more keys than the initial table, so that the table grows
+        for (int i = 0; i < 5000; i++) {
+            store.put("id" + i, "{\"config\":" + i + "}");
+        }
+        store.put("id7", "{\"config\":\"é\"}");
+        assertTrue(store.addClicks("id7", 3));
+        assertTrue(store.addClicks("id7", 2));
+        assertFalse(store.addClicks("unknown", 1));
+        assertEquals(5000, store.size());
+        assertEquals("{\"config\":\"é\"}", store.get("id7"));
+        assertNull(store.get("unknown"));
+        store.close();
+
+        store = new ShortUrlStore(file, ShortUrlStore.SyncMode.ALWAYS);
+        assertEquals(5000, store.size());
+        for (int i = 0; i < 5000; i++) {
+            if (i != 7) {
+                assertEquals("{\"config\":" + i + "}", store.get("id" + i));
+                assertEquals(0, store.getNbClicks("id" + i));
+            }
+        }
+        assertEquals("{\"config\":\"é\"}", store.get("id7"));
+        assertEquals(5, store.getNbClicks("id7"));
+        assertEquals(-1, store.getNbClicks("unknown"));
+        store.close();
+    }
+
+    /**
+     * Test of putIfAbsent method.
+     * @throws Exception IO Exception
+     */
+    @Test
+    public void testPutIfAbsent() throws Exception {
+        System.out.println("putIfAbsent");
+        ShortUrlStore store = new ShortUrlStore(file, ShortUrlStore.SyncMode.ALWAYS);
+        assertTrue(store.putIfAbsent("a", "first"));
+        assertTrue(store.addClicks("a", 4));
+        assertFalse(store.putIfAbsent("a", "second"));
+        assertEquals("first", store.get("a"));
+        assertEquals(4, store.getNbClicks("a"));
+        store.close();
+
+        store = new ShortUrlStore(file, ShortUrlStore.SyncMode.ALWAYS);
+        assertEquals(1, store.size());
+        assertEquals("first", store.get("a"));
+        store.close();
+    }
+
+    /**
+     * Test of the rebuild after a crash during a write.
+     * @throws Exception IO Exception
+     */
+    @Test
+    public void testIncompleteRecord() throws Exception {
+        System.out.println("incompleteRecord");
+        ShortUrlStore store = new ShortUrlStore(file, ShortUrlStore.SyncMode.NEVER);
+        store.put("a", "first");
+        store.put("b", "second");
+        store.close();
+        final long length = file.length();
+
+        // the last record is cut in the middle
+        RandomAccessFile log = new RandomAccessFile(file, "rw");
+        log.setLength(length - 3);
+        log.close();
+        store = new ShortUrlStore(file, ShortUrlStore.SyncMode.NEVER);
+        assertEquals("first", store.get("a"));
+        assertNull(store.get("b"));
+        store.put("c", "third");
+        store.close();
+
+        // a byte of the last record is wrong
+        log = new RandomAccessFile(file, "rw");
+        log.seek(log.length() - 1);
+        log.write('x');
+        log.close();
+        store = new ShortUrlStore(file, ShortUrlStore.SyncMode.NEVER);
+        assertEquals(1, store.size());
+        assertEquals("first", store.get("a"));
+        assertNull(store.get("c"));
+        store.close();
+    }
+
+    /**
+     * Test of compact method.
+     * @throws Exception IO Exception
+     */
+    @Test
+    public void testCompact() throws Exception {
+        System.out.println("compact");
+        ShortUrlStore store = new ShortUrlStore(file, ShortUrlStore.SyncMode.PERIODIC);
+        for (int i = 0; i < 100; i++) {
+            store.put("id" + i, "config" + i);
+        }
+        for (int click = 0; click < 50; click++) {
+            for (int i = 0; i < 100; i++) {
+                store.addClicks("id" + i, i);
+            }
+        }
+        store.put("id0", "new config");
+        store.sync();
+        final long length = file.length();
+        store.compact();
+        assertTrue(file.length() < length / 10);
+        assertEquals("new config", store.get("id0"));
+        assertEquals(50 * 99, store.getNbClicks("id99"));
+        store.put("id100", "config100");
+        store.close();
+
+        store = new ShortUrlStore(file, ShortUrlStore.SyncMode.PERIODIC);
+        assertEquals(101, store.size());
+        for (int i = 1; i < 101; i++) {
+            assertEquals("config" + i, store.get("id" + i));
+        }
+        assertEquals(50 * 99, store.getNbClicks("id99"));
+        assertFalse(store.compactIfNeeded());
+        store.close();
+    }
+
+    /**
+     * Test of concurrent writes and reads.
+     * @throws Exception IO Exception
+     */
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        System.out.println("concurrentWrites");
+        final ShortUrlStore store = new ShortUrlStore(file, ShortUrlStore.SyncMode.ALWAYS);
+        final Thread[] threads = new Thread[4];
+        final Exception[] errors = new Exception[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            final String key = thread + "-" + i;
+                            store.put(key, "config" + key);
+                            store.addClicks(thread + "-0", 1);
+                            if (!("config" + key).equals(store.get(key))) {
+                                throw new IllegalStateException("Wrong config of " + key);
+                            }
+                        }
+                    } catch (Exception ex) {
+                        errors[thread] = ex;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            assertNull(errors[t]);
+        }
+        store.close();
+
+        final ShortUrlStore reopened = new ShortUrlStore(file, ShortUrlStore.SyncMode.ALWAYS);
+        assertEquals(threads.length * 500, reopened.size());
+        for (int t = 0; t < threads.length; t++) {
+            assertEquals(500, reopened.getNbClicks(t + "-0"));
+        }
+        reopened.close();
+    }
+}
@@ -0,0 +1,229 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test of AccessRightCache object.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class AccessRightCacheTest {
+
+    /**
+     * Access right table in memory, which counts the queries.
+     */
+    private static class TableLoader implements AccessRightCache.Loader {
+
+        /**
+         * Rows of the table: profiles by filename.
+         */
+        private final List<Map.Entry<String, List<String>>> rows = new ArrayList<Map.Entry<String, List<String>>>();
+        /**
+         * Number of queries by file.
+         */
+        private int nbFileQueries = 0;
+        /**
+         * Number of queries by directory.
+         */
+        private int nbDirectoryQueries = 0;
+
+        /**
+         * Adds a row.
+         *
+         * @param filename filename
+         * @param profiles profiles
+         */
+        private void add(final String filename, final String... profiles) {
+            final Map<String, List<String>> row = new HashMap<String, List<String>>();
+            row.put(filename, Arrays.asList(profiles));
+            rows.add(row.entrySet().iterator().next());
+        }
+
+        /**
+         * Returns true when a row matches one of the roles.
+         *
+         * @param row row
+         * @param roles roles
+         * @return true when the row matches
+         */
+        private static boolean matches(final Map.Entry<String, List<String>> row, final List<String> roles) {
+            for (String role : roles) {
+                if (row.getValue().contains(role)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isAuthorized(final String filename, final List<String> roles) throws SQLException {
+            nbFileQueries++;
+            int nbRows = 0;
+            for (Map.Entry<String, List<String>> row : rows) {
+                if (row.getKey().equals(filename) && matches(row, roles)) {
+                    nbRows++;
+                }
+            }
+            return nbRows == 1;
+        }
+
+        @Override
+        public Collection<String> getAuthorizedFiles(final String directory, final List<String> roles, final int maxFiles) throws SQLException {
+            nbDirectoryQueries++;
+            final List<String> files = new ArrayList<String>();
+            for (Map.Entry<String, List<String>> row : rows) {
+                if (row.getKey().startsWith(directory) && row.getKey().indexOf('/', directory.length()) == -1 && matches(row, roles)) {
+                    files.add(row.getKey());
+                }
+            }
+            return (files.size() > maxFiles) ? null : files;
+        }
+    }
+
+    /**
+     * Returns a table with a directory of public files and a directory of private files.
+     *
+     * @return the table
+     */
+    private static TableLoader createTable() {
+        final TableLoader table = new TableLoader();
+        for (int i = 0; i < 10; i++) {
+            table.add("Images/public/" + i + ".fits", "Public", "Administrator");
+            table.add("Images/private/" + i + ".fits", "Administrator");
+        }
+        table.add("Images/public/duplicated.fits", "Public");
+        table.add("Images/public/duplicated.fits", "Public");
+        table.add("Images/public/sub/0.fits", "Public");
+        table.add("root.fits", "Public");
+        return table;
+    }
+
+    /**
+     * Test of isAuthorized method, of class AccessRightCache.
+     *
+     * @throws SQLException SQL exception
+     */
+    @Test
+    public void testIsAuthorized() throws SQLException {
+        System.out.println("isAuthorized");
+        final TableLoader table = createTable();
+        final AccessRightCache cache = new AccessRightCache(table, 60000, 100, 1000, 100000);
+        final List<String> publicRole = Arrays.asList("Public");
+        for (int i = 0; i < 10; i++) {
+            assertTrue(cache.isAuthorized("Images/public/" + i + ".fits", publicRole));
+            assertFalse(cache.isAuthorized("Images/private/" + i + ".fits", publicRole));
+        }
+        assertFalse(cache.isAuthorized("Images/public/duplicated.fits", publicRole));
+        assertFalse(cache.isAuthorized("Images/public/unknown.fits", publicRole));
+        assertTrue(cache.isAuthorized("Images/public/sub/0.fits", publicRole));
+        assertTrue(cache.isAuthorized("root.fits", publicRole));
+        assertEquals(4, table.nbDirectoryQueries);
+        assertEquals(0, table.nbFileQueries);
+
+        // same roles in another order
+        assertTrue(cache.isAuthorized("Images/private/0.fits", Arrays.asList("Public", "Administrator")));
+        assertTrue(cache.isAuthorized("Images/private/1.fits", Arrays.asList("Administrator", "Public")));
+        assertEquals(5, table.nbDirectoryQueries);
+
+        assertFalse(cache.isAuthorized("Images/public/0.fits", new ArrayList<String>()));
+        assertEquals(5, table.nbDirectoryQueries);
+    }
+
+    /**
+     * Test of the directories with too many files.
+     *
+     * @throws SQLException SQL exception
+     */
+    @Test
+    public void testLargeDirectory() throws SQLException {
+        System.out.println("largeDirectory");
+        final TableLoader table = createTable();
+        final AccessRightCache cache = new AccessRightCache(table, 60000, 100, 5, 100000);
+        final List<String> publicRole = Arrays.asList("Public");
+        for (int n = 0; n < 2; n++) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(cache.isAuthorized("Images/public/" + i + ".fits", publicRole));
+            }
+        }
+        assertFalse(cache.isAuthorized("Images/public/duplicated.fits", publicRole));
+        assertEquals(1, table.nbDirectoryQueries);
+        assertEquals(11, table.nbFileQueries);
+    }
+
+    /**
+     * Test of the maximum number of files kept in memory.
+     *
+     * @throws SQLException SQL exception
+     */
+    @Test
+    public void testMaxCachedFiles() throws SQLException {
+        System.out.println("maxCachedFiles");
+        final TableLoader table = createTable();
+        final AccessRightCache cache = new AccessRightCache(table, 60000, 100, 1000, 12);
+        final List<String> adminRole = Arrays.asList("Administrator");
+        assertTrue(cache.isAuthorized("Images/public/0.fits", adminRole));
+        // 20 files: the public directory, the least recently used, is removed
+        assertTrue(cache.isAuthorized("Images/private/0.fits", adminRole));
+        assertEquals(2, table.nbDirectoryQueries);
+        assertTrue(cache.isAuthorized("Images/private/1.fits", adminRole));
+        assertEquals(2, table.nbDirectoryQueries);
+        assertTrue(cache.isAuthorized("Images/public/1.fits", adminRole));
+        assertEquals(3, table.nbDirectoryQueries);
+
+        // a directory with more files than the cache is authorized file by file
+        final AccessRightCache smallCache = new AccessRightCache(table, 60000, 100, 1000, 5);
+        assertTrue(smallCache.isAuthorized("Images/public/0.fits", adminRole));
+        assertTrue(smallCache.isAuthorized("Images/public/0.fits", adminRole));
+        assertEquals(4, table.nbDirectoryQueries);
+        assertEquals(1, table.nbFileQueries);
+    }
+
+    /**
+     * Test of the time to live.
+     *
+     * @throws Exception Exception
+     */
+    @Test
+    public void testTimeToLive() throws Exception {
+        System.out.println("timeToLive");
+        final TableLoader table = createTable();
+        final AccessRightCache cache = new AccessRightCache(table, 50, 100, 1000, 100000);
+        final List<String> publicRole = Arrays.asList("Public");
+        assertFalse(cache.isAuthorized("Images/public/new.fits", publicRole));
+        table.add("Images/public/new.fits", "Public");
+        assertFalse(cache.isAuthorized("Images/public/new.fits", publicRole));
+        Thread.sleep(100);
+        assertTrue(cache.isAuthorized("Images/public/new.fits", publicRole));
+        assertEquals(2, table.nbDirectoryQueries);
+    }
+}
@@ -0,0 +1,149 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.extensions.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Compares FilenamePatternMatcher with String.matches.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class FilenamePatternMatcherTest {
+
+    /**
+     * Patterns.
+     */
+    private static final String[] PATTERNS = {
+        "(.*\\.fits)|(.*\\.txt)",
+        "/sitools/datastorage/public/.*",
+        "/sitools/datastorage/readme",
+        ".*\\.(fits|fts)(\\.gz)?",
+        "[]a]+|x\\.y",
+        "(?i).*\\.FITS",
+        "(.)\\1.*",
+        "/data/[a-z]+/.*\\.jpg|((/logs/.*))",
+        ".*",
+        ""
+    };
+    /**
+     * URLs.
+     */
+    private static final String[] URLS = {
+        "",
+        "/sitools/datastorage/public/image.fits",
+        "/sitools/datastorage/public/",
+        "/sitools/datastorage/private/image.fits",
+        "/sitools/datastorage/private/image.fits.gz",
+        "/sitools/datastorage/private/image.FITS",
+        "/sitools/datastorage/readme",
+        "/sitools/datastorage/readme.txt",
+        "/sitools/datastorage/readme.txt\n",
+        "/sitools/datastorage/public/\nimage.png",
+        "]a]",
+        "x.y",
+        "xxy",
+        "aa/file",
+        "/data/abc/picture.jpg",
+        "/data/ab1/picture.jpg",
+        "/logs/server.log"
+    };
+
+    /**
+     * Returns the expected result.
+     * @param allow allow patterns
+     * @param deny deny patterns
+     * @param url URL
+     * @return <code>true</code> when the URL matches an allow pattern and no deny pattern
+     */
+    private static boolean expected(final List<String> allow, final List<String> deny, final String url) {
+        boolean isAllowed = false;
+        for (String pattern : allow) {
+            isAllowed = isAllowed || url.matches(pattern);
+        }
+        for (String pattern : deny) {
+            isAllowed = isAllowed && !url.matches(pattern);
+        }
+        return isAllowed;
+    }
+
+    /**
+     * Test of isAccepted method with each pattern.
+     */
+    @Test
+    public void testIsAccepted() {
+        System.out.println("isAccepted");
+        for (String pattern : PATTERNS) {
+            final List<String> allow = Collections.singletonList(pattern);
+            final FilenamePatternMatcher matcher = new FilenamePatternMatcher(allow, Collections.<String>emptyList());
+            for (String url : URLS) {
+                assertEquals(pattern + " " + url, url.matches(pattern), matcher.isAccepted(url));
+            }
+        }
+    }
+
+    /**
+     * Test of isAccepted method with allow and deny patterns.
+     */
+    @Test
+    public void testIsAcceptedWithDenyPatterns() {
+        System.out.println("isAcceptedWithDenyPatterns");
+        final List<String> allow = Arrays.asList(PATTERNS).subList(0, 8);
+        final List<String> deny = Arrays.asList(".*/private/.*", "/sitools/datastorage/readme\\.txt", "(.)\\1.*");
+        final FilenamePatternMatcher matcher = new FilenamePatternMatcher(allow, deny);
+        for (String url : URLS) {
+            assertEquals(url, expected(allow, deny, url), matcher.isAccepted(url));
+        }
+        assertTrue(matcher.isAccepted("/sitools/datastorage/public/image.fits"));
+        assertFalse(matcher.isAccepted("/sitools/datastorage/private/image.fits"));
+    }
+
+    /**
+     * Test of parsePatterns method.
+     */
+    @Test
+    public void testParsePatterns() {
+        System.out.println("parsePatterns");
+        assertEquals(Arrays.asList(".*\\.fits", ".*\\.txt"), FilenamePatternMatcher.parsePatterns(".*\\.fits\r\n\n.*\\.txt\n"));
+        assertTrue(FilenamePatternMatcher.parsePatterns(null).isEmpty());
+    }
+
+    /**
+     * Test of splitAlternatives and toLiteral methods.
+     */
+    @Test
+    public void testSplitAlternatives() {
+        System.out.println("splitAlternatives");
+        assertEquals(Arrays.asList(".*\\.fits", ".*\\.txt"), FilenamePatternMatcher.splitAlternatives("(.*\\.fits)|(.*\\.txt)"));
+        assertEquals(Arrays.asList("[|]", "a(b|c)"), FilenamePatternMatcher.splitAlternatives("[|]|a(b|c)"));
+        assertNull(FilenamePatternMatcher.splitAlternatives("(?i)a|b"));
+        assertNull(FilenamePatternMatcher.splitAlternatives("(a)\\1|b"));
+        assertEquals("a.fits", FilenamePatternMatcher.toLiteral("a\\.fits"));
+        assertNull(FilenamePatternMatcher.toLiteral("a\\d"));
+    }
+}
@@ -0,0 +1,98 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the Healpix filter of a cone keeps all the points of the cone.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class HealpixRangeFilterTest {
+
+    /**
+     * Test of coverCone method with random points in cones.
+     * @throws Exception Healpix Exception
+     */
+    @Test
+    public void testCoverCone() throws Exception {
+        System.out.println("coverCone");
+        final Random random = new Random(1);
+        final double[][] cones = {{20, 50, 1}, {0, 0, 5}, {180, 89.5, 3}, {300, -30, 0.01}, {45, -89, 10}};
+        for (int order : new int[]{6, 10, 13, 20}) {
+            final HealpixIndex index = new HealpixIndex(1 << order, Scheme.NESTED);
+            for (double[] coneDef : cones) {
+                final Point center = new Point(coneDef[0], coneDef[1], CoordSystem.EQUATORIAL);
+                final Cone cone = new Cone(center, Math.toRadians(coneDef[2]));
+                final RangeSet ranges = HealpixRangeFilter.coverCone(cone, order, HealpixRangeFilter.DEFAULT_MAX_RANGES);
+                assertTrue(ranges.size() <= HealpixRangeFilter.DEFAULT_MAX_RANGES);
+                for (int i = 0; i < 1000; i++) {
+                    // random point at an angular distance lower than the radius
+                    final double distance = Math.toRadians(coneDef[2]) * Math.sqrt(random.nextDouble());
+                    final double bearing = 2 * Math.PI * random.nextDouble();
+                    final double dec = Math.toRadians(coneDef[1]);
+                    final double pointDec = Math.asin(Math.sin(dec) * Math.cos(distance) + Math.cos(dec) * Math.sin(distance) * Math.cos(bearing));
+                    final double pointRa = Math.toRadians(coneDef[0]) + Math.atan2(Math.sin(bearing) * Math.sin(distance) * Math.cos(dec),
+                            Math.cos(distance) - Math.sin(dec) * Math.sin(pointDec));
+                    final Point point = new Point((Math.toDegrees(pointRa) + 360.) % 360., Math.toDegrees(pointDec), CoordSystem.EQUATORIAL);
+                    final long pixel = index.ang2pix(point);
+                    assertTrue("order " + order + " point " + point, ranges.contains(pixel));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of coverCone method with a small number of ranges and with the whole sky.
+     * @throws Exception Healpix Exception
+     */
+    @Test
+    public void testCoverConeMaxRanges() throws Exception {
+        System.out.println("coverConeMaxRanges");
+        final Cone cone = new Cone(new Point(83.8, -5.4, CoordSystem.EQUATORIAL), Math.toRadians(2));
+        final RangeSet ranges = HealpixRangeFilter.coverCone(cone, 12, 2);
+        assertTrue(ranges.size() <= 2);
+        final RangeSet precise = HealpixRangeFilter.coverCone(cone, 12, HealpixRangeFilter.DEFAULT_MAX_RANGES);
+        assertTrue(ranges.containsAll(precise));
+        assertNull(HealpixRangeFilter.coverCone(new Cone(new Point(0, 0, CoordSystem.EQUATORIAL), Math.PI), 12, 4));
+    }
+
+    /**
+     * Test of toSqlPredicate method.
+     */
+    @Test
+    public void testToSqlPredicate() {
+        System.out.println("toSqlPredicate");
+        final RangeSet ranges = new RangeSet();
+        ranges.append(4, 8);
+        ranges.append(10, 11);
+        assertEquals("(healpix BETWEEN 4 AND 7 OR healpix = 10)", HealpixRangeFilter.toSqlPredicate("healpix", ranges));
+    }
+}
@@ -0,0 +1,124 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import cds.moc.HealpixMoc;
+import cds.moc.MocCell;
+
+/**
+ * Compares the MOC built from ranges with the MOC built pixel by pixel.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class MocBuilderTest {
+
+    /**
+     * Returns the MOC built by adding the pixels one by one.
+     * @param ranges ranges of NESTED pixels
+     * @param order Healpix order
+     * @return the MOC
+     * @throws Exception MOC Exception
+     */
+    private static HealpixMoc addPixels(final RangeSet ranges, final int order) throws Exception {
+        final HealpixMoc moc = new HealpixMoc();
+        final RangeSet.ValueIterator valueIter = ranges.valueIterator();
+        while (valueIter.hasNext()) {
+            moc.add(new MocCell(order, valueIter.next()));
+        }
+        return moc;
+    }
+
+    /**
+     * Test of fromNestedRanges method with cones.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testFromNestedRangesCone() throws Exception {
+        System.out.println("fromNestedRangesCone");
+        final double[][] cones = {{20, 50, 1}, {0, 0, 5}, {180, 89, 3}, {300, -30, 0.1}};
+        for (int order : new int[]{0, 3, 6, 9}) {
+            final HealpixIndex index = new HealpixIndex(1 << order, Scheme.NESTED);
+            for (double[] cone : cones) {
+                final Point center = new Point(cone[0], cone[1], CoordSystem.EQUATORIAL);
+                final RangeSet ranges = index.queryDiscInclusive(center, Math.toRadians(cone[2]), MocIndex.TYPICAL_CHOICE_FACT);
+                assertEquals("order " + order + " cone " + Arrays.toString(cone), addPixels(ranges, order), MocBuilder.fromNestedRanges(ranges, order));
+            }
+        }
+    }
+
+    /**
+     * Test of fromNestedRanges method with a polygon.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testFromNestedRangesPolygon() throws Exception {
+        System.out.println("fromNestedRangesPolygon");
+        final int order = 8;
+        final HealpixIndex index = new HealpixIndex(1 << order, Scheme.NESTED);
+        final Polygon polygon = new Polygon(Arrays.asList(new Point(10, 10, CoordSystem.EQUATORIAL), new Point(15, 10, CoordSystem.EQUATORIAL),
+                new Point(15, 20, CoordSystem.EQUATORIAL), new Point(10, 20, CoordSystem.EQUATORIAL)));
+        final RangeSet ranges = MocIndex.computePolygon(polygon.getPoints(), index);
+        assertEquals(addPixels(ranges, order), MocBuilder.fromNestedRanges(ranges, order));
+    }
+
+    /**
+     * Test of fromNestedRanges method with ranges aligned on large cells.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testFromNestedRangesAligned() throws Exception {
+        System.out.println("fromNestedRangesAligned");
+        final int order = 4;
+        final RangeSet ranges = new RangeSet();
+        ranges.append(0, 2L << (2 * order));
+        ranges.append((3L << (2 * order)) + 5, (3L << (2 * order)) + 16);
+        final HealpixMoc moc = MocBuilder.fromNestedRanges(ranges, order);
+        assertEquals(addPixels(ranges, order), moc);
+        assertEquals(2, moc.getSize(0));
+        assertEquals(order, moc.getMaxOrder());
+        assertEquals(ranges.nval(), moc.getUsedArea());
+    }
+
+    /**
+     * Test of complementFromNestedRanges method.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testComplementFromNestedRanges() throws Exception {
+        System.out.println("complementFromNestedRanges");
+        final int order = 7;
+        final HealpixIndex index = new HealpixIndex(1 << order, Scheme.NESTED);
+        final RangeSet ranges = index.queryDiscInclusive(new Point(45, 45, CoordSystem.EQUATORIAL), Math.toRadians(10), MocIndex.TYPICAL_CHOICE_FACT);
+        final HealpixMoc complement = MocBuilder.complementFromNestedRanges(ranges, order);
+        final HealpixMoc moc = MocBuilder.fromNestedRanges(ranges, order);
+        assertTrue(complement.intersection(moc).getSize() == 0);
+        assertEquals(1.0, complement.union(moc).getCoverage(), 1E-12);
+    }
+}
@@ -0,0 +1,135 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import cds.moc.HealpixMoc;
+
+/**
+ * Compares the operations on ranges with the operations of HealpixMoc.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class MocRangesTest {
+
+    /**
+     * Returns the MOC of a cone.
+     * @param ra right ascension in degrees
+     * @param dec declination in degrees
+     * @param radius radius in degrees
+     * @param order Healpix order
+     * @return the MOC
+     * @throws Exception Healpix Exception
+     */
+    private static HealpixMoc cone(final double ra, final double dec, final double radius, final int order) throws Exception {
+        final HealpixIndex index = new HealpixIndex(1 << order, Scheme.NESTED);
+        final RangeSet ranges = index.queryDiscInclusive(new Point(ra, dec, CoordSystem.EQUATORIAL), Math.toRadians(radius), MocIndex.TYPICAL_CHOICE_FACT);
+        return MocBuilder.fromNestedRanges(ranges, order);
+    }
+
+    /**
+     * Returns the MOC of ranges by reading their cells order by order.
+     * @param ranges ranges at the deepest order
+     * @param maxOrder MOC resolution
+     * @return the MOC
+     * @throws Exception MOC Exception
+     */
+    private static HealpixMoc toMoc(final RangeSet ranges, final int maxOrder) throws Exception {
+        final HealpixMoc moc = new HealpixMoc();
+        for (int order = 0; order <= maxOrder; order++) {
+            final RangeSet.ValueIterator cells = MocRanges.cells(ranges, order);
+            while (cells.hasNext()) {
+                moc.add(order, cells.next());
+            }
+        }
+        return moc;
+    }
+
+    /**
+     * Test of fromMoc and cells methods.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testFromMocAndCells() throws Exception {
+        System.out.println("fromMocAndCells");
+        final HealpixMoc moc = cone(20, 50, 5, 8);
+        final RangeSet ranges = MocRanges.fromMoc(moc);
+        assertEquals(moc.getCoverage(), ranges.nval() / (12.0 * Math.pow(4, MocRanges.MAX_ORDER)), 1E-12);
+        assertEquals(moc, toMoc(ranges, 8));
+        assertFalse(MocRanges.cells(ranges, 9).hasNext());
+        for (int order = 0; order <= 8; order++) {
+            assertEquals(moc.getSize(order), MocRanges.countCells(ranges, order, Long.MAX_VALUE));
+            assertEquals(moc.getArray(order).getSizeCompressed(), MocRanges.countCells(ranges, order, 2));
+        }
+    }
+
+    /**
+     * Test of union, intersection, subtraction and complement methods.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testOperations() throws Exception {
+        System.out.println("operations");
+        final HealpixMoc moc1 = cone(20, 50, 5, 7);
+        final HealpixMoc moc2 = cone(24, 52, 4, 9);
+        final HealpixMoc moc3 = cone(18, 48, 6, 6);
+        final RangeSet ranges1 = MocRanges.fromMoc(moc1);
+        final RangeSet ranges2 = MocRanges.fromMoc(moc2);
+        final RangeSet ranges3 = MocRanges.fromMoc(moc3);
+        assertEquals(moc1.union(moc2).union(moc3), toMoc(MocRanges.union(Arrays.asList(ranges1, ranges2, ranges3)), 9));
+        assertEquals(moc1.intersection(moc2).intersection(moc3), toMoc(MocRanges.intersection(Arrays.asList(ranges1, ranges2, ranges3)), 9));
+        assertEquals(moc1.subtraction(moc2).subtraction(moc3), toMoc(MocRanges.subtraction(Arrays.asList(ranges1, ranges2, ranges3)), 9));
+        assertEquals(moc2.complement(), toMoc(MocRanges.complement(ranges2), 9));
+    }
+
+    /**
+     * Test of degrade method.
+     * @throws Exception MOC Exception
+     */
+    @Test
+    public void testDegrade() throws Exception {
+        System.out.println("degrade");
+        final HealpixMoc moc = cone(200, -30, 3, 10);
+        final RangeSet degraded = MocRanges.degrade(MocRanges.fromMoc(moc), 6);
+        final HealpixMoc expected = new HealpixMoc();
+        for (int order = 0; order <= moc.getMaxOrder(); order++) {
+            for (int i = 0; i < moc.getSize(order); i++) {
+                final long npix = moc.getArray(order).get(i);
+                if (order <= 6) {
+                    expected.add(order, npix);
+                } else {
+                    expected.add(6, npix >>> (2 * (order - 6)));
+                }
+            }
+        }
+        assertEquals(expected, toMoc(degraded, 6));
+        assertTrue(degraded.containsAll(MocRanges.fromMoc(moc)));
+    }
+}
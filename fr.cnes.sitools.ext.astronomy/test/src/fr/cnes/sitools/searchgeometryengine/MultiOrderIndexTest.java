@@ -0,0 +1,121 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.searchgeometryengine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import healpix.core.HealpixIndex;
+import healpix.essentials.RangeSet;
+import healpix.essentials.Scheme;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Compares the pixels derived by MultiOrderIndex with the pixels computed at each order by RingIndex.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class MultiOrderIndexTest {
+
+    /**
+     * Returns the pixels computed by RingIndex at an order.
+     * @param shape shape
+     * @param order Healpix order
+     * @return the sorted RING pixels
+     */
+    private static long[] ringPixels(final Shape shape, final int order) {
+        final RingIndex index = new RingIndex(shape);
+        index.setOrder(order);
+        final Object pixels = index.getIndex();
+        return (pixels instanceof RangeSet) ? AbstractGeometryIndex.decodeRangeSet((RangeSet) pixels) : new long[]{(Long) pixels};
+    }
+
+    /**
+     * Test of computeIndex method with points.
+     * @throws Exception Healpix Exception
+     */
+    @Test
+    public void testComputeIndexPoint() throws Exception {
+        System.out.println("computeIndexPoint");
+        final MultiOrderIndex ringIndex = new MultiOrderIndex(0, 13, Scheme.RING);
+        final MultiOrderIndex nestedIndex = new MultiOrderIndex(3, 13, Scheme.NESTED);
+        final double[][] coordinates = {{0, 0}, {83.63, 22.01}, {201.37, -43.02}, {359.9, 89.9}, {10, -89.5}};
+        for (double[] coordinate : coordinates) {
+            final Point point = new Point(coordinate[0], coordinate[1], CoordSystem.EQUATORIAL);
+            final long[][] ringPixels = ringIndex.computeIndex(point);
+            final long[][] nestedPixels = nestedIndex.computeIndex(point);
+            for (int order = 0; order <= 13; order++) {
+                final long expected = ringPixels(point, order)[0];
+                assertArrayEquals(Arrays.toString(coordinate) + " order " + order, new long[]{expected}, ringPixels[order]);
+                if (order >= 3) {
+                    final HealpixIndex healpixIndex = new HealpixIndex(1 << order, Scheme.RING);
+                    assertArrayEquals(new long[]{healpixIndex.ring2nest(expected)}, nestedPixels[order - 3]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of computeIndex method with a footprint.
+     * @throws Exception Healpix Exception
+     */
+    @Test
+    public void testComputeIndexPolygon() throws Exception {
+        System.out.println("computeIndexPolygon");
+        final List<Point> points = Arrays.asList(new Point(10.2, 40.1, CoordSystem.EQUATORIAL), new Point(10.2, 40.4, CoordSystem.EQUATORIAL),
+                new Point(9.8, 40.4, CoordSystem.EQUATORIAL), new Point(9.8, 40.1, CoordSystem.EQUATORIAL));
+        final Polygon polygon = new Polygon(points);
+        final int maxOrder = 12;
+        final long[][] pixels = new MultiOrderIndex(0, maxOrder, Scheme.RING).computeIndex(polygon);
+        assertArrayEquals(ringPixels(polygon, maxOrder), pixels[maxOrder]);
+        assertTrue(pixels[maxOrder].length < 1000);
+        for (int order = 0; order < maxOrder; order++) {
+            final long[] expected = ringPixels(polygon, order);
+            // the derived pixels cover the polygon and are included in the pixels of the inclusive query
+            for (long pixel : pixels[order]) {
+                assertTrue("order " + order, Arrays.binarySearch(expected, pixel) >= 0);
+            }
+            for (Point point : points) {
+                assertTrue("order " + order, Arrays.binarySearch(pixels[order], ringPixels(point, order)[0]) >= 0);
+            }
+        }
+    }
+
+    /**
+     * Test of the order checks.
+     */
+    @Test
+    public void testInvalidOrders() {
+        System.out.println("invalidOrders");
+        int nbErrors = 0;
+        for (int[] orders : new int[][]{{-1, 3}, {5, 4}, {0, MultiOrderIndex.MAX_ORDER + 1}}) {
+            try {
+                new MultiOrderIndex(orders[0], orders[1], Scheme.NESTED);
+            } catch (IllegalArgumentException ex) {
+                nbErrors++;
+            }
+        }
+        assertEquals(3, nbErrors);
+    }
+}
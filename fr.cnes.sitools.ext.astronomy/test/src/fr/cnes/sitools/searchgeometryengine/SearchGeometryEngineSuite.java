@@ -26,7 +26,7 @@ import org.junit.runners.Suite;
  * @author malapert
  */
 @RunWith(Suite.class)
-@Suite.SuiteClasses({fr.cnes.sitools.searchgeometryengine.CoordSystemTest.class, fr.cnes.sitools.searchgeometryengine.RingIndexTest.class, fr.cnes.sitools.searchgeometryengine.PointTest.class, fr.cnes.sitools.searchgeometryengine.NestedIndexTest.class, fr.cnes.sitools.searchgeometryengine.PolygonTest.class})
+@Suite.SuiteClasses({fr.cnes.sitools.searchgeometryengine.CoordSystemTest.class, fr.cnes.sitools.searchgeometryengine.RingIndexTest.class, fr.cnes.sitools.searchgeometryengine.PointTest.class, fr.cnes.sitools.searchgeometryengine.NestedIndexTest.class, fr.cnes.sitools.searchgeometryengine.PolygonTest.class, fr.cnes.sitools.searchgeometryengine.MocBuilderTest.class, fr.cnes.sitools.searchgeometryengine.MocRangesTest.class, fr.cnes.sitools.searchgeometryengine.MultiOrderIndexTest.class, fr.cnes.sitools.searchgeometryengine.HealpixRangeFilterTest.class})
 public class SearchGeometryEngineSuite {
     
 }
@@ -0,0 +1,148 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.cnes.sitools.solr.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import fr.cnes.sitools.searchgeometryengine.MultiOrderIndex;
+import fr.cnes.sitools.solr.transformer.WcsFootprint;
+import healpix.essentials.Scheme;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Compares the documents of BulkFootprintIndexer with the rows computed one by one.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class BulkFootprintIndexerTest {
+
+    /**
+     * Writer keeping the documents in memory.
+     */
+    private static final class MemoryWriter implements DocumentWriter {
+
+        /**
+         * Documents.
+         */
+        private final List<Map<String, Object>> documents = new ArrayList<Map<String, Object>>();
+        /**
+         * Number of commits.
+         */
+        private int nbCommits = 0;
+
+        @Override
+        public void add(final List<Map<String, Object>> batch) {
+            documents.addAll(batch);
+        }
+
+        @Override
+        public void commit() {
+            nbCommits++;
+        }
+    }
+
+    /**
+     * Returns a CSV content of point sources, the row 7 has no coordinates.
+     * @param nbRows number of rows
+     * @return the CSV content
+     */
+    private static String createCsv(final int nbRows) {
+        final StringBuilder csv = new StringBuilder("id,ra_targ,dec_targ,title\n");
+        for (int i = 0; i < nbRows; i++) {
+            if (i == 7) {
+                csv.append(i).append(",,,\"no, coordinates\"\n");
+            } else {
+                csv.append(i).append(',').append((i * 37.3) % 360).append(',').append((i * 13.1) % 180 - 90).append(",image ").append(i).append('\n');
+            }
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Test of index method.
+     * @throws Exception indexing error
+     */
+    @Test
+    public void testIndex() throws Exception {
+        System.out.println("index");
+        final Map<String, String> wcsColumns = new HashMap<String, String>();
+        wcsColumns.put("RA", "ra_targ");
+        wcsColumns.put("DEC", "dec_targ");
+        final Map<String, String> fieldNames = Collections.singletonMap("title", "properties.title");
+        final MultiOrderIndex multiOrderIndex = new MultiOrderIndex(3, 13, Scheme.NESTED);
+        final int nbRows = 50;
+
+        final MemoryWriter writer = new MemoryWriter();
+        final BulkFootprintIndexer indexer = new BulkFootprintIndexer(wcsColumns, fieldNames, multiOrderIndex, 3, 4);
+        final BulkFootprintIndexer.Report report = indexer.index(new CsvRowSource(new StringReader(createCsv(nbRows)), ','), writer);
+
+        final List<Map<String, Object>> expected = new ArrayList<Map<String, Object>>();
+        final CsvRowSource source = new CsvRowSource(new StringReader(createCsv(nbRows)), ',');
+        Map<String, Object> row;
+        while ((row = source.next()) != null) {
+            try {
+                final Map<String, Object> computed = new WcsFootprint(row, wcsColumns, multiOrderIndex).compute();
+                computed.put("properties.title", computed.remove("title"));
+                expected.add(computed);
+            } catch (Exception ex) {
+                assertEquals("7", row.get("id"));
+            }
+        }
+        assertEquals(nbRows, report.getNbRows());
+        assertEquals(expected.size(), report.getNbDocuments());
+        assertEquals(nbRows - expected.size(), report.getNbSkippedRows());
+        assertEquals(expected, writer.documents);
+        assertEquals(1, writer.nbCommits);
+        for (Map<String, Object> document : writer.documents) {
+            assertFalse("7".equals(document.get("id")));
+        }
+    }
+
+    /**
+     * Test of CsvRowSource.
+     * @throws Exception reading error
+     */
+    @Test
+    public void testCsvRowSource() throws Exception {
+        System.out.println("csvRowSource");
+        final CsvRowSource source = new CsvRowSource(new StringReader("a;b;c\n\n1;\"x;\"\"y\"\"\nz\";\n;\"\";3\n"), ';');
+        assertEquals(Arrays.asList("a", "b", "c"), source.getColumns());
+        final Map<String, Object> first = new HashMap<String, Object>();
+        first.put("a", "1");
+        first.put("b", "x;\"y\"\nz");
+        assertEquals(first, source.next());
+        final Map<String, Object> second = new HashMap<String, Object>();
+        second.put("b", "");
+        second.put("c", "3");
+        assertEquals(second, source.next());
+        assertNull(source.next());
+        source.close();
+    }
+}
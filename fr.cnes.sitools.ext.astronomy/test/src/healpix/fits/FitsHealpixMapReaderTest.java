@@ -0,0 +1,157 @@
+ /*******************************************************************************
+ * Copyright 2010-2014 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of SITools2.
+ *
+ * SITools2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SITools2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SITools2.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package healpix.fits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import healpix.core.dm.DoubleMapColumn;
+import healpix.core.dm.FloatMapColumn;
+import healpix.core.dm.HealpixMap;
+import healpix.core.dm.MapColumn;
+import healpix.core.dm.MapColumnLoader;
+import healpix.core.dm.PrimitiveHealpixMap;
+import healpix.essentials.Scheme;
+
+import java.io.File;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Reads a map written by {@link PrimitiveHealpixMap} with {@link FitsHealpixMapReader}.
+ *
+ * @author Jean-Christophe Malapert <jean-christophe.malapert@cnes.fr>
+ */
+public class FitsHealpixMapReaderTest {
+
+    /**
+     * HEALPix NSIDE of the test map.
+     */
+    private static final int NSIDE = 16;
+    /**
+     * Test map, RING ordered.
+     */
+    private static PrimitiveHealpixMap expected;
+    /**
+     * FITS file of the test map.
+     */
+    private static File file;
+
+    /**
+     * Writes a RING map with a float column and a double column.
+     * @throws Exception Exception
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        expected = new PrimitiveHealpixMap(new String[]{"I_STOKES", "HITS"}, NSIDE, Scheme.RING, new MapColumnLoader() {
+            public MapColumn load(final int imap) {
+                return (imap == 0) ? new FloatMapColumn(12 * NSIDE * NSIDE) : new DoubleMapColumn(12 * NSIDE * NSIDE);
+            }
+        });
+        for (int pix = 0; pix < expected.nPixel(); pix++) {
+            expected.setValueCell(0, pix, Math.sin(pix));
+            expected.setValueCell(1, pix, pix * 0.5);
+        }
+        expected.setCoordSys(HealpixMap.CoordSys.CELESTIAL);
+        expected.setUnit("K", (short) 0);
+        file = File.createTempFile("healpixMap", ".fits");
+        expected.toDataSet(file.getAbsolutePath());
+    }
+
+    /**
+     * Removes the FITS file.
+     */
+    @AfterClass
+    public static void tearDownClass() {
+        file.delete();
+    }
+
+    /**
+     * Test of the header.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testHeader() throws Exception {
+        System.out.println("header");
+        final FitsHealpixMapReader reader = new FitsHealpixMapReader(file);
+        assertEquals(NSIDE, reader.getNside());
+        assertEquals(Scheme.RING, reader.getScheme());
+        assertEquals(2, reader.getNCols());
+        assertEquals("HITS", reader.getColumnName(1));
+        final PrimitiveHealpixMap map = reader.toMap(false);
+        assertEquals(HealpixMap.CoordSys.CELESTIAL, map.getCoordSys());
+        assertEquals("K", map.getUnit((short) 0));
+    }
+
+    /**
+     * Test of a map mapped in memory.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testMapped() throws Exception {
+        System.out.println("mapped");
+        final PrimitiveHealpixMap map = new FitsHealpixMapReader(file).toMap(false);
+        assertFalse(map.isLoaded(1));
+        for (int pix = 0; pix < map.nPixel(); pix++) {
+            assertEquals(expected.get(0, pix), map.get(0, pix), 0);
+            assertEquals(expected.get(1, pix), map.get(1, pix), 0);
+        }
+        assertTrue(map.getColumn(0).isReadOnly());
+        assertEquals(expected.getMax(1), map.getMax(1), 0);
+    }
+
+    /**
+     * Test of the columns copied in the heap, one column at a time.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testInMemory() throws Exception {
+        System.out.println("inMemory");
+        final PrimitiveHealpixMap map = new FitsHealpixMapReader(file).toMap(true);
+        assertEquals(expected.get(1, 100), map.get(1, 100), 0);
+        assertTrue(map.isLoaded(1));
+        assertFalse(map.isLoaded(0));
+        assertFalse(map.getColumn(0).isDoublePrecision());
+        assertTrue(map.getColumn(1).isDoublePrecision());
+        map.setValueCell(1, 100, -1);
+        assertEquals(-1, map.getMin(1), 0);
+    }
+
+    /**
+     * Test of the NESTED access to a RING map.
+     * @throws Exception Exception
+     */
+    @Test
+    public void testNestedAccess() throws Exception {
+        System.out.println("nestedAccess");
+        final PrimitiveHealpixMap map = new FitsHealpixMapReader(file).toMap(false);
+        map.convert_ring2nest();
+        assertEquals(Scheme.NESTED, map.getScheme());
+        assertEquals(Scheme.RING, map.getStorageScheme());
+        for (int pix = 0; pix < map.nPixel(); pix++) {
+            assertEquals(expected.get(1, expected.nest2ring(pix)), map.get(1, pix), 0);
+            assertEquals(expected.pix2ang(expected.nest2ring(pix)).theta(), map.pix2ang(pix).theta(), 1E-12);
+        }
+        map.convert_nest2ring();
+        assertEquals(expected.get(1, 42), map.get(1, 42), 0);
+    }
+}